@@ -0,0 +1,149 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.benchmarks.canopus;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.fp.CdkFingerprintVersion;
+import de.unijena.bioinf.ChemistryBase.fp.NPCFingerprintVersion;
+import de.unijena.bioinf.ChemistryBase.fp.ProbabilityFingerprint;
+import de.unijena.bioinf.canopus.Canopus;
+import de.unijena.bioinf.canopus.dnn.ActivationFunction;
+import de.unijena.bioinf.canopus.dnn.FullyConnectedLayer;
+import de.unijena.bioinf.canopus.dnn.PlattLayer;
+import org.ejml.data.FMatrixRMaj;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.ObjectOutputStream;
+import java.util.EnumSet;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Predicts ClassyFire and NPC class probabilities with {@link Canopus#predictProbabilities}, one input at a time
+ * and as batch. The trained model is not part of the repository, so a model with the same architecture, configurable
+ * layer sizes and random weights is generated with a fixed seed and loaded via {@link Canopus#load}.
+ * Run with ./gradlew :benchmarks:jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class CanopusPredictionBenchmark {
+
+    @Param({"1", "100"})
+    public int numberOfCandidates;
+
+    @Param({"3000"})
+    public int hiddenLayerSize;
+
+    @Param({"2500"})
+    public int numberOfClasses;
+
+    private Canopus canopus;
+    private MolecularFormula[] formulas;
+    private ProbabilityFingerprint[] fingerprints;
+    private final EnumSet<Canopus.Predictable> predictables = EnumSet.of(Canopus.Predictable.ClassyFire, Canopus.Predictable.NPC);
+
+    @Setup
+    public void setup() throws IOException {
+        final Random random = new Random(4711);
+        final CdkFingerprintVersion version = CdkFingerprintVersion.getDefault();
+        formulas = new MolecularFormula[numberOfCandidates];
+        fingerprints = new ProbabilityFingerprint[numberOfCandidates];
+        for (int k = 0; k < numberOfCandidates; ++k) {
+            formulas[k] = MolecularFormula.parseOrThrow("C" + (5 + random.nextInt(30)) + "H" + (4 + random.nextInt(40)) + "N" + (1 + random.nextInt(3)) + "O" + (1 + random.nextInt(9)));
+            fingerprints[k] = new ProbabilityFingerprint(version, random.doubles(version.size()).toArray());
+        }
+        canopus = randomModel(random, Canopus.getFormulaFeatures(formulas[0]).length, version.size());
+    }
+
+    private Canopus randomModel(Random random, int formulaFeatures, int fingerprintSize) throws IOException {
+        final int npcSize = NPCFingerprintVersion.get().size();
+        final ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+        try (ObjectOutputStream out = new ObjectOutputStream(bytes)) {
+            out.writeInt(1);
+            randomLayer(random, formulaFeatures, 64).dump(out);
+            out.writeInt(1);
+            randomLayer(random, fingerprintSize, hiddenLayerSize).dump(out);
+            out.writeInt(2);
+            randomLayer(random, 64 + hiddenLayerSize, hiddenLayerSize).dump(out);
+            randomLayer(random, hiddenLayerSize, hiddenLayerSize).dump(out);
+            randomLayer(random, hiddenLayerSize, numberOfClasses).dump(out);
+            out.writeInt(2887); // with npc layer
+            randomPlatt(random, numberOfClasses).dump(out);
+            out.writeInt(1337); // without fingerprint prediction
+            writeScaling(out, formulaFeatures);
+            writeScaling(out, fingerprintSize);
+            // class hierarchy: complete tree with four children per class
+            out.writeInt(numberOfClasses);
+            for (int k = 0; k < numberOfClasses; ++k) {
+                out.writeInt(k);
+                out.writeInt(k == 0 ? -1 : (k - 1) / 4);
+                out.writeUTF("class " + k);
+                out.writeUTF("");
+            }
+            out.writeInt(numberOfClasses);
+            for (int k = 0; k < numberOfClasses; ++k) out.writeInt(k);
+            randomLayer(random, hiddenLayerSize, npcSize).dump(out);
+            randomPlatt(random, npcSize).dump(out);
+        }
+        return Canopus.load(new ByteArrayInputStream(bytes.toByteArray()));
+    }
+
+    private static FullyConnectedLayer randomLayer(Random random, int inputSize, int outputSize) {
+        final float scale = (float) Math.sqrt(1d / inputSize);
+        final float[] w = new float[inputSize * outputSize];
+        for (int i = 0; i < w.length; ++i) w[i] = (float) random.nextGaussian() * scale;
+        final float[] b = new float[outputSize];
+        for (int i = 0; i < b.length; ++i) b[i] = (float) random.nextGaussian() * 0.01f;
+        return new FullyConnectedLayer(inputSize, outputSize, w, b, new ActivationFunction.SELU());
+    }
+
+    private static PlattLayer randomPlatt(Random random, int size) {
+        return new PlattLayer(random.doubles(size, -2, -0.5).toArray(), random.doubles(size, -0.5, 0.5).toArray());
+    }
+
+    private static void writeScaling(ObjectOutputStream out, int size) throws IOException {
+        // centering
+        out.writeInt(size);
+        for (int i = 0; i < size; ++i) out.writeDouble(0d);
+        // scaling
+        out.writeInt(size);
+        for (int i = 0; i < size; ++i) out.writeDouble(1d);
+    }
+
+    @Benchmark
+    public void predictSingle(Blackhole bh) {
+        for (int k = 0; k < formulas.length; ++k)
+            bh.consume(canopus.predictProbabilities(formulas[k], fingerprints[k], predictables));
+    }
+
+    @Benchmark
+    public FMatrixRMaj[] predictBatch() {
+        return canopus.predictProbabilities(formulas, fingerprints, predictables);
+    }
+}
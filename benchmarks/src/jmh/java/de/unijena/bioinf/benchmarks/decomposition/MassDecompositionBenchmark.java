@@ -0,0 +1,113 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.benchmarks.decomposition;
+
+import de.unijena.bioinf.ChemistryBase.chem.Element;
+import de.unijena.bioinf.ChemistryBase.chem.FormulaConstraints;
+import de.unijena.bioinf.ChemistryBase.chem.Ionization;
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
+import de.unijena.bioinf.ChemistryBase.ms.Deviation;
+import de.unijena.bioinf.MassDecomposer.Chemistry.MassToFormulaDecomposer;
+import de.unijena.bioinf.MassDecomposer.DecompIterator;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decomposes precursor masses into molecular formulas with the {@link MassToFormulaDecomposer}
+ * (a {@link de.unijena.bioinf.MassDecomposer.RangeMassDecomposer}). The masses are generated with a fixed seed
+ * in the given mass range, such that the number of decompositions grows with the mass.
+ * Run with ./gradlew :benchmarks:jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MassDecompositionBenchmark {
+
+    @Param({"200", "500", "900"})
+    public double mass;
+
+    @Param({"CHNOPS", "CHNOPSClBrI"})
+    public String alphabet;
+
+    @Param({"100"})
+    public int numberOfMasses;
+
+    private FormulaConstraints constraints;
+    private MassToFormulaDecomposer decomposer;
+    private Ionization ionization;
+    private Deviation deviation;
+    private double[] masses;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(4711);
+        constraints = new FormulaConstraints(alphabet);
+        decomposer = new MassToFormulaDecomposer(constraints.getChemicalAlphabet());
+        ionization = PrecursorIonType.getPrecursorIonType("[M+H]+").getIonization();
+        deviation = new Deviation(10);
+        masses = random.doubles(numberOfMasses, mass - 50, mass + 50).toArray();
+        // build the extended residue tables outside of the measurement
+        decomposer.init();
+    }
+
+    /**
+     * decomposition including the formula filters (e.g. RDBE), as it is done for every precursor
+     */
+    @Benchmark
+    public void decomposeToFormulas(Blackhole bh) {
+        for (double m : masses) {
+            final List<MolecularFormula> formulas = decomposer.decomposeToFormulas(m, ionization, deviation, constraints);
+            bh.consume(formulas);
+        }
+    }
+
+    /**
+     * plain decomposition of a mass range with the decomposition iterator, without bounds, filters and formula objects
+     */
+    @Benchmark
+    public void decomposeIterator(Blackhole bh) {
+        for (double m : masses) {
+            final double abs = deviation.absoluteFor(m);
+            final DecompIterator<Element> iterator = decomposer.decomposeIterator(m - abs, m + abs);
+            int count = 0;
+            while (iterator.next()) ++count;
+            bh.consume(count);
+        }
+    }
+
+    /**
+     * decomposition with a new decomposer, i.e. including the computation of the extended residue tables
+     */
+    @Benchmark
+    public void initAndDecompose(Blackhole bh) {
+        final MassToFormulaDecomposer fresh = new MassToFormulaDecomposer(constraints.getChemicalAlphabet());
+        for (double m : masses)
+            bh.consume(fresh.decomposeToFormulas(m, ionization, deviation, constraints));
+    }
+}
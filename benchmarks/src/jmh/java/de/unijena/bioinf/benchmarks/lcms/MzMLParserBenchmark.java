@@ -0,0 +1,273 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.benchmarks.lcms;
+
+import de.unijena.bioinf.lcms.LCMSStorageFactory;
+import de.unijena.bioinf.lcms.io.LCMSParser;
+import de.unijena.bioinf.lcms.io.MzMLParser;
+import de.unijena.bioinf.lcms.io.MzMLStaxParser;
+import de.unijena.bioinf.lcms.trace.LCMSStorage;
+import de.unijena.bioinf.lcms.trace.ProcessedSample;
+import de.unijena.bioinf.ms.persistence.model.core.run.Chromatography;
+import de.unijena.bioinf.ms.persistence.model.core.run.LCMSRun;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Base64;
+import java.util.Locale;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.DeflaterOutputStream;
+
+/**
+ * Imports a generated mzML file with the streaming {@link MzMLStaxParser} (used by the LC-MS import) and the
+ * jmzml based {@link MzMLParser}. The file contains MS1 scans with zlib compressed 64-bit arrays and an MS/MS
+ * scan after every {@code ms1PerMs2} MS1 scans. Peaks are generated with a fixed seed around a set of
+ * compounds that elute over the run, such that the traces look similar to a real LC-MS run.
+ * Run with ./gradlew :benchmarks:jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class MzMLParserBenchmark {
+
+    public enum Parser {STAX, JMZML}
+
+    @Param({"STAX", "JMZML"})
+    public Parser parser;
+
+    @Param({"2000"})
+    public int numberOfMs1Scans;
+
+    @Param({"500"})
+    public int peaksPerScan;
+
+    @Param({"4"})
+    public int ms1PerMs2;
+
+    private Path directory;
+    private Path file;
+    private LCMSStorageFactory storageFactory;
+
+    @Setup
+    public void setup() throws IOException {
+        directory = Files.createTempDirectory("mzml-benchmark");
+        file = directory.resolve("benchmark.mzML");
+        writeMzML(file, new Random(4711));
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+        Files.deleteIfExists(directory);
+    }
+
+    @Setup(Level.Invocation)
+    public void createStorage() {
+        storageFactory = LCMSStorage.temporaryStorage(null, true);
+    }
+
+    @TearDown(Level.Invocation)
+    public void closeStorage() {
+        storageFactory.close();
+    }
+
+    @Benchmark
+    public ProcessedSample parse() throws IOException {
+        final LCMSParser p = parser == Parser.STAX ? new MzMLStaxParser() : new MzMLParser();
+        return p.parse(file, storageFactory, run -> {}, run -> {}, scan -> {}, scan -> {},
+                LCMSRun.builder().chromatography(Chromatography.LC).build());
+    }
+
+    //region mzML generation
+    private void writeMzML(Path target, Random random) throws IOException {
+        // compounds with m/z, apex retention time (seconds) and intensity
+        final int numberOfCompounds = peaksPerScan / 5;
+        final double[] compoundMz = random.doubles(numberOfCompounds, 100, 1000).sorted().toArray();
+        final double[] compoundRt = random.doubles(numberOfCompounds, 0, numberOfMs1Scans * 0.2).toArray();
+        final double[] compoundIntensity = random.doubles(numberOfCompounds, 1e4, 1e7).toArray();
+
+        final int numberOfSpectra = numberOfMs1Scans + numberOfMs1Scans / ms1PerMs2;
+        try (BufferedWriter w = Files.newBufferedWriter(target, StandardCharsets.UTF_8)) {
+            w.write("""
+                    <?xml version="1.0" encoding="utf-8"?>
+                    <mzML xmlns="http://psi.hupo.org/ms/mzml" xmlns:xsi="http://www.w3.org/2001/XMLSchema-instance" xsi:schemaLocation="http://psi.hupo.org/ms/mzml http://psidev.info/files/ms/mzML/xsd/mzML1.1.0.xsd" id="benchmark" version="1.1.0">
+                      <cvList count="2">
+                        <cv id="MS" fullName="Proteomics Standards Initiative Mass Spectrometry Ontology" version="4.1.30" URI="https://raw.githubusercontent.com/HUPO-PSI/psi-ms-CV/master/psi-ms.obo"/>
+                        <cv id="UO" fullName="Unit Ontology" version="09:04:2014" URI="https://raw.githubusercontent.com/bio-ontology-research-group/unit-ontology/master/unit.obo"/>
+                      </cvList>
+                      <fileDescription>
+                        <fileContent>
+                          <cvParam cvRef="MS" accession="MS:1000579" name="MS1 spectrum" value=""/>
+                          <cvParam cvRef="MS" accession="MS:1000580" name="MSn spectrum" value=""/>
+                        </fileContent>
+                      </fileDescription>
+                      <softwareList count="1">
+                        <software id="sirius" version="1">
+                          <cvParam cvRef="MS" accession="MS:1000799" name="custom unreleased software tool" value="sirius benchmarks"/>
+                        </software>
+                      </softwareList>
+                      <instrumentConfigurationList count="1">
+                        <instrumentConfiguration id="IC1">
+                          <componentList count="3">
+                            <source order="1">
+                              <cvParam cvRef="MS" accession="MS:1000073" name="electrospray ionization" value=""/>
+                            </source>
+                            <analyzer order="2">
+                              <cvParam cvRef="MS" accession="MS:1000484" name="orbitrap" value=""/>
+                            </analyzer>
+                            <detector order="3">
+                              <cvParam cvRef="MS" accession="MS:1000624" name="inductive detector" value=""/>
+                            </detector>
+                          </componentList>
+                        </instrumentConfiguration>
+                      </instrumentConfigurationList>
+                      <dataProcessingList count="1">
+                        <dataProcessing id="DP1">
+                          <processingMethod order="0" softwareRef="sirius">
+                            <cvParam cvRef="MS" accession="MS:1000544" name="Conversion to mzML" value=""/>
+                          </processingMethod>
+                        </dataProcessing>
+                      </dataProcessingList>
+                      <run id="benchmark_run" defaultInstrumentConfigurationRef="IC1">
+                    """);
+            w.write("    <spectrumList count=\"" + numberOfSpectra + "\" defaultDataProcessingRef=\"DP1\">\n");
+            int index = 0;
+            String lastMs1 = null;
+            for (int s = 0; s < numberOfMs1Scans; ++s) {
+                final double rt = s * 0.2;
+                // ms1: compound peaks with gaussian elution profile plus noise
+                final double[] mz = new double[peaksPerScan];
+                final double[] intensity = new double[peaksPerScan];
+                for (int k = 0; k < peaksPerScan; ++k) {
+                    if (k < numberOfCompounds) {
+                        final double d = (rt - compoundRt[k]) / 5d;
+                        mz[k] = compoundMz[k] + random.nextGaussian() * 0.001;
+                        intensity[k] = compoundIntensity[k] * Math.exp(-0.5 * d * d) + random.nextDouble() * 1000;
+                    } else {
+                        mz[k] = 100 + random.nextDouble() * 900;
+                        intensity[k] = random.nextDouble() * 1000;
+                    }
+                }
+                sortByMz(mz, intensity);
+                lastMs1 = "scan=" + (index + 1);
+                writeSpectrum(w, index++, 1, rt, mz, intensity, null, 0d);
+
+                if ((s + 1) % ms1PerMs2 == 0) {
+                    final int compound = random.nextInt(numberOfCompounds);
+                    final double precursorMz = compoundMz[compound];
+                    final int n = Math.max(5, peaksPerScan / 10);
+                    final double[] fragmentMz = random.doubles(n, 50, precursorMz).toArray();
+                    final double[] fragmentIntensity = random.doubles(n, 100, 1e5).toArray();
+                    sortByMz(fragmentMz, fragmentIntensity);
+                    writeSpectrum(w, index++, 2, rt + 0.1, fragmentMz, fragmentIntensity, lastMs1, precursorMz);
+                }
+            }
+            w.write("""
+                        </spectrumList>
+                      </run>
+                    </mzML>
+                    """);
+        }
+    }
+
+    private static void sortByMz(double[] mz, double[] intensity) {
+        final Integer[] order = new Integer[mz.length];
+        for (int i = 0; i < order.length; ++i) order[i] = i;
+        Arrays.sort(order, (a, b) -> Double.compare(mz[a], mz[b]));
+        final double[] mzCopy = mz.clone(), intensityCopy = intensity.clone();
+        for (int i = 0; i < order.length; ++i) {
+            mz[i] = mzCopy[order[i]];
+            intensity[i] = intensityCopy[order[i]];
+        }
+    }
+
+    private static void writeSpectrum(BufferedWriter w, int index, int msLevel, double rt, double[] mz, double[] intensity, String precursorRef, double precursorMz) throws IOException {
+        final String id = "scan=" + (index + 1);
+        w.write(String.format(Locale.US, "      <spectrum index=\"%d\" id=\"%s\" defaultArrayLength=\"%d\">\n", index, id, mz.length));
+        w.write(String.format(Locale.US, "        <cvParam cvRef=\"MS\" accession=\"%s\" name=\"%s\" value=\"\"/>\n",
+                msLevel == 1 ? "MS:1000579" : "MS:1000580", msLevel == 1 ? "MS1 spectrum" : "MSn spectrum"));
+        w.write(String.format(Locale.US, "        <cvParam cvRef=\"MS\" accession=\"MS:1000511\" name=\"ms level\" value=\"%d\"/>\n", msLevel));
+        w.write("        <cvParam cvRef=\"MS\" accession=\"MS:1000130\" name=\"positive scan\" value=\"\"/>\n");
+        w.write("        <cvParam cvRef=\"MS\" accession=\"MS:1000127\" name=\"centroid spectrum\" value=\"\"/>\n");
+        w.write("        <scanList count=\"1\">\n");
+        w.write("          <cvParam cvRef=\"MS\" accession=\"MS:1000795\" name=\"no combination\" value=\"\"/>\n");
+        w.write("          <scan>\n");
+        w.write(String.format(Locale.US, "            <cvParam cvRef=\"MS\" accession=\"MS:1000016\" name=\"scan start time\" value=\"%.4f\" unitCvRef=\"UO\" unitAccession=\"UO:0000010\" unitName=\"second\"/>\n", rt));
+        w.write("          </scan>\n");
+        w.write("        </scanList>\n");
+        if (precursorRef != null) {
+            w.write("        <precursorList count=\"1\">\n");
+            w.write("          <precursor spectrumRef=\"" + precursorRef + "\">\n");
+            w.write("            <isolationWindow>\n");
+            w.write(String.format(Locale.US, "              <cvParam cvRef=\"MS\" accession=\"MS:1000827\" name=\"isolation window target m/z\" value=\"%.5f\" unitCvRef=\"MS\" unitAccession=\"MS:1000040\" unitName=\"m/z\"/>\n", precursorMz));
+            w.write("              <cvParam cvRef=\"MS\" accession=\"MS:1000828\" name=\"isolation window lower offset\" value=\"0.5\" unitCvRef=\"MS\" unitAccession=\"MS:1000040\" unitName=\"m/z\"/>\n");
+            w.write("              <cvParam cvRef=\"MS\" accession=\"MS:1000829\" name=\"isolation window upper offset\" value=\"0.5\" unitCvRef=\"MS\" unitAccession=\"MS:1000040\" unitName=\"m/z\"/>\n");
+            w.write("            </isolationWindow>\n");
+            w.write("            <selectedIonList count=\"1\">\n");
+            w.write("              <selectedIon>\n");
+            w.write(String.format(Locale.US, "                <cvParam cvRef=\"MS\" accession=\"MS:1000744\" name=\"selected ion m/z\" value=\"%.5f\" unitCvRef=\"MS\" unitAccession=\"MS:1000040\" unitName=\"m/z\"/>\n", precursorMz));
+            w.write("                <cvParam cvRef=\"MS\" accession=\"MS:1000041\" name=\"charge state\" value=\"1\"/>\n");
+            w.write("              </selectedIon>\n");
+            w.write("            </selectedIonList>\n");
+            w.write("            <activation>\n");
+            w.write("              <cvParam cvRef=\"MS\" accession=\"MS:1000422\" name=\"beam-type collision-induced dissociation\" value=\"\"/>\n");
+            w.write("              <cvParam cvRef=\"MS\" accession=\"MS:1000045\" name=\"collision energy\" value=\"35\" unitCvRef=\"UO\" unitAccession=\"UO:0000266\" unitName=\"electronvolt\"/>\n");
+            w.write("            </activation>\n");
+            w.write("          </precursor>\n");
+            w.write("        </precursorList>\n");
+        }
+        w.write("        <binaryDataArrayList count=\"2\">\n");
+        writeArray(w, mz, "MS:1000514", "m/z array", "unitCvRef=\"MS\" unitAccession=\"MS:1000040\" unitName=\"m/z\"");
+        writeArray(w, intensity, "MS:1000515", "intensity array", "unitCvRef=\"MS\" unitAccession=\"MS:1000131\" unitName=\"number of detector counts\"");
+        w.write("        </binaryDataArrayList>\n");
+        w.write("      </spectrum>\n");
+    }
+
+    private static void writeArray(BufferedWriter w, double[] values, String accession, String name, String unit) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(values.length * Double.BYTES).order(ByteOrder.LITTLE_ENDIAN);
+        for (double v : values) buffer.putDouble(v);
+        final ByteArrayOutputStream compressed = new ByteArrayOutputStream();
+        try (DeflaterOutputStream out = new DeflaterOutputStream(compressed)) {
+            out.write(buffer.array());
+        }
+        final String encoded = Base64.getEncoder().encodeToString(compressed.toByteArray());
+
+        w.write("          <binaryDataArray encodedLength=\"" + encoded.length() + "\">\n");
+        w.write("            <cvParam cvRef=\"MS\" accession=\"MS:1000523\" name=\"64-bit float\" value=\"\"/>\n");
+        w.write("            <cvParam cvRef=\"MS\" accession=\"MS:1000574\" name=\"zlib compression\" value=\"\"/>\n");
+        w.write("            <cvParam cvRef=\"MS\" accession=\"" + accession + "\" name=\"" + name + "\" value=\"\" " + unit + "/>\n");
+        w.write("            <binary>" + encoded + "</binary>\n");
+        w.write("          </binaryDataArray>\n");
+    }
+    //endregion
+}
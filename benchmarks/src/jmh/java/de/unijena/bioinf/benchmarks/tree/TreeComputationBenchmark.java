@@ -0,0 +1,88 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.benchmarks.tree;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
+import de.unijena.bioinf.ChemistryBase.ms.MutableMs2Experiment;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.FasterTreeComputationInstance;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilderFactory;
+import de.unijena.bioinf.babelms.ms.JenaMsParser;
+import de.unijena.bioinf.sirius.Ms2Preprocessor;
+import de.unijena.bioinf.sirius.ProcessedInput;
+import de.unijena.bioinf.sirius.Sirius;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Computes the fragmentation trees of all candidate formulas of a bundled compound (Kaempferol, the example of the
+ * SIRIUS self test) with the {@link FasterTreeComputationInstance}. The {@link ProcessedInput} is modified by the
+ * computation, so the input is preprocessed before every invocation (outside of the measurement).
+ * Run with ./gradlew :benchmarks:jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class TreeComputationBenchmark {
+
+    @Param({"qtof", "orbitrap"})
+    public String profile;
+
+    @Param({"clp"})
+    public String treeBuilder;
+
+    private Sirius sirius;
+    private Ms2Experiment experiment;
+    private ProcessedInput processedInput;
+
+    @Setup
+    public void setup() throws IOException, URISyntaxException {
+        sirius = new Sirius(profile);
+        sirius.getMs2Analyzer().setTreeBuilder(TreeBuilderFactory.getInstance().getTreeBuilder(treeBuilder));
+        final URL resource = getClass().getResource("Kaempferol.ms");
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(resource.openStream(), StandardCharsets.UTF_8))) {
+            experiment = new JenaMsParser().parse(reader, resource.toURI());
+        }
+    }
+
+    @Setup(Level.Invocation)
+    public void preprocess() {
+        processedInput = new Ms2Preprocessor().preprocess(new MutableMs2Experiment(experiment));
+        sirius.getMs1Analyzer().computeAndScoreIsotopePattern(processedInput);
+    }
+
+    @Benchmark
+    public FasterTreeComputationInstance.FinalResult computeTrees() {
+        final FasterTreeComputationInstance instance = new FasterTreeComputationInstance(sirius.getMs2Analyzer(), processedInput);
+        SiriusJobs.getGlobalJobManager().submitJob(instance);
+        return instance.takeResult();
+    }
+}
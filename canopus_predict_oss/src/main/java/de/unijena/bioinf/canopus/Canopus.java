@@ -212,101 +212,143 @@ public class Canopus {
      * classifications are predicted in a strictly linear fashion.
      */
     public float[] predictLatentVector(MolecularFormula formula, ProbabilityFingerprint fingerprint) {
-        final double[] ff = getFormulaFeatures(formula);
-        // normalize/center
-        for (int i=0; i < ff.length; ++i) {
-            ff[i] -= formulaCentering[i];
-            ff[i] /= formulaScaling[i];
-        }
-        final double[] fp = fingerprint.toProbabilityArray();
-        for (int i=0; i < fp.length; ++i) {
-            fp[i] -= plattCentering[i];
-            fp[i] /= plattScaling[i];
-            if (BINARIZE) {
-                fp[i] = Math.round(fp[i]);
-            } else if (CLIPPING) {
-                fp[i] = (Math.min(Math.max(fp[i],0.2d),1.0d)-0.2d)/0.6d;
+        return predictLatentVectors(new MolecularFormula[]{formula}, new ProbabilityFingerprint[]{fingerprint}).data;
+    }
+
+    /**
+     * Predicts the latent vectors of many inputs at once. The inputs are stacked into one matrix with one row per
+     * (formula, fingerprint) pair, such that every layer is evaluated with a single matrix-matrix multiplication
+     * instead of one matrix-vector multiplication per input.
+     *
+     * @return matrix with one latent vector per row, in the order of the input
+     */
+    public FMatrixRMaj predictLatentVectors(MolecularFormula[] formulas, ProbabilityFingerprint[] fingerprints) {
+        if (formulas.length != fingerprints.length)
+            throw new IllegalArgumentException("Number of formulas and fingerprints differ: " + formulas.length + " vs. " + fingerprints.length);
+        final int n = formulas.length;
+        // for the DNN we have to convert our vectors into float
+        FMatrixRMaj formulaInput = null, plattInput = null;
+        for (int row = 0; row < n; ++row) {
+            final double[] ff = getNormalizedFormulaVector(formulas[row]);
+            final double[] fp = getNormalizedFingerprintVector(fingerprints[row]);
+            if (formulaInput == null) {
+                formulaInput = new FMatrixRMaj(n, ff.length);
+                plattInput = new FMatrixRMaj(n, fp.length);
             }
+            for (int i = 0, offset = row * ff.length; i < ff.length; ++i) formulaInput.data[offset + i] = (float) ff[i];
+            for (int i = 0, offset = row * fp.length; i < fp.length; ++i) plattInput.data[offset + i] = (float) fp[i];
         }
-        // for the DNN we have to convert our vectors into float
-        final float[] formulaInput = new float[ff.length];
-        for (int i=0; i < ff.length; ++i) formulaInput[i] = (float)ff[i];
-        final float[] plattInput = new float[fp.length];
-        for (int i=0; i < fp.length; ++i) plattInput[i] = (float)fp[i];
-        // wrap into matrix
-        FMatrixRMaj formulaInputVector = FMatrixRMaj.wrap(1, formulaInput.length, formulaInput);
-        for (FullyConnectedLayer l : formulaLayers)
-            formulaInputVector = l.eval(formulaInputVector);
+        if (n == 0)
+            throw new IllegalArgumentException("Empty batch.");
 
-        FMatrixRMaj fpInputVector = FMatrixRMaj.wrap(1, plattInput.length, plattInput);
+        for (FullyConnectedLayer l : formulaLayers)
+            formulaInput = l.eval(formulaInput);
         for (FullyConnectedLayer l : fingerprintLayers)
-            fpInputVector = l.eval(fpInputVector);
+            plattInput = l.eval(plattInput);
 
-        final float[] combined = new float[fpInputVector.numCols+formulaInputVector.numCols];
-        System.arraycopy(formulaInputVector.data, 0, combined, 0, formulaInputVector.numCols);
-        System.arraycopy(fpInputVector.data, 0, combined, formulaInputVector.numCols, fpInputVector.numCols);
-
-        FMatrixRMaj combinedVector = FMatrixRMaj.wrap(1, combined.length, combined);
+        final int formulaCols = formulaInput.numCols, fpCols = plattInput.numCols, combinedCols = formulaCols + fpCols;
+        FMatrixRMaj combined = new FMatrixRMaj(n, combinedCols);
+        for (int row = 0; row < n; ++row) {
+            System.arraycopy(formulaInput.data, row * formulaCols, combined.data, row * combinedCols, formulaCols);
+            System.arraycopy(plattInput.data, row * fpCols, combined.data, row * combinedCols + formulaCols, fpCols);
+        }
 
         for (FullyConnectedLayer l : innerLayers)
-            combinedVector = l.eval(combinedVector);
-        return combinedVector.data;
+            combined = l.eval(combined);
+        return combined;
     }
 
     public float[][] predictDecisionValues(MolecularFormula formula, ProbabilityFingerprint fingerprint, EnumSet<Predictable> topredict) {
-        float[] vec = predictLatentVector(formula, fingerprint);
-        final FMatrixRMaj latent = FMatrixRMaj.wrap(1, vec.length, vec);
-        float[][] buffs = new float[topredict.size()][];
+        final FMatrixRMaj[] values = predictDecisionValues(new MolecularFormula[]{formula}, new ProbabilityFingerprint[]{fingerprint}, topredict);
+        final float[][] buffs = new float[values.length][];
+        for (int k = 0; k < values.length; ++k) buffs[k] = values[k].data;
+        return buffs;
+    }
+
+    /**
+     * Batch version of {@link #predictDecisionValues(MolecularFormula, ProbabilityFingerprint, EnumSet)}.
+     *
+     * @return one matrix per predictable (in enum order) with one row per input
+     */
+    public FMatrixRMaj[] predictDecisionValues(MolecularFormula[] formulas, ProbabilityFingerprint[] fingerprints, EnumSet<Predictable> topredict) {
+        if (topredict.contains(Predictable.Fingerprint)) {
+            throw new UnsupportedOperationException("Not implemented yet.");
+        }
+        final FMatrixRMaj latent = predictLatentVectors(formulas, fingerprints);
+        final FMatrixRMaj[] buffs = new FMatrixRMaj[topredict.size()];
         int k=0;
         if (topredict.contains(Predictable.ClassyFire)) {
-            buffs[k] = this.outputLayer.eval(latent).data;
+            buffs[k] = this.outputLayer.eval(latent);
             ++k;
         }
-        if (topredict.contains(Predictable.Fingerprint)) {
-            throw new UnsupportedOperationException("Not implemented yet.");
-        }
         if (topredict.contains(Predictable.NPC)) {
-            buffs[k] = this.npcLayer.eval(latent).data;
+            buffs[k] = this.npcLayer.eval(latent);
             ++k;
         }
         return buffs;
     }
+
     public float[][] predictProbabilities(MolecularFormula formula, ProbabilityFingerprint fingerprint, EnumSet<Predictable> topredict) {
-        final float[][] values = predictDecisionValues(formula, fingerprint, topredict);
+        final FMatrixRMaj[] values = predictProbabilities(new MolecularFormula[]{formula}, new ProbabilityFingerprint[]{fingerprint}, topredict);
+        final float[][] buffs = new float[values.length][];
+        for (int k = 0; k < values.length; ++k) buffs[k] = values[k].data;
+        return buffs;
+    }
+
+    /**
+     * Batch version of {@link #predictProbabilities(MolecularFormula, ProbabilityFingerprint, EnumSet)}.
+     *
+     * @return one matrix per predictable (in enum order) with one row per input
+     */
+    public FMatrixRMaj[] predictProbabilities(MolecularFormula[] formulas, ProbabilityFingerprint[] fingerprints, EnumSet<Predictable> topredict) {
+        final FMatrixRMaj[] values = predictDecisionValues(formulas, fingerprints, topredict);
         int k=0;
         if (topredict.contains(Predictable.ClassyFire)) {
-            values[k] = this.plattLayer.eval(FMatrixRMaj.wrap(1, values[k].length, values[k])).data;
+            this.plattLayer.eval(values[k]);
             ++k;
         }
-        if (topredict.contains(Predictable.Fingerprint)) {
-            throw new UnsupportedOperationException("Not implemented yet.");
-        }
         if (topredict.contains(Predictable.NPC)) {
-            values[k] = this.npcPlattLayer.eval(FMatrixRMaj.wrap(1, values[k].length, values[k])).data;
+            this.npcPlattLayer.eval(values[k]);
             ++k;
         }
         return values;
     }
+
     public ProbabilityFingerprint predictFingerprint(MolecularFormula formula, ProbabilityFingerprint fingerprint, Predictable topredict) {
         return predictFingerprints(formula,fingerprint,EnumSet.of(topredict))[0];
     }
+
     public ProbabilityFingerprint[] predictFingerprints(MolecularFormula formula, ProbabilityFingerprint fingerprint, EnumSet<Predictable> topredict) {
-        final float[][] values = predictProbabilities(formula, fingerprint, topredict);
-        final ProbabilityFingerprint[] fps = new ProbabilityFingerprint[topredict.size()];
-        int k=0;
-        if (topredict.contains(Predictable.ClassyFire)) {
-            fps[k] = new ProbabilityFingerprint(classyFireMask, values[k]);
-            ++k;
-        }
-        if (topredict.contains(Predictable.Fingerprint)) {
-            throw new UnsupportedOperationException("Not implemented yet.");
-        }
-        if (topredict.contains(Predictable.NPC)) {
-            fps[k] = npcMask.mask(new ProbabilityFingerprint(npcFingerprintVersion, values[k]));
-            ++k;
+        return predictFingerprints(new MolecularFormula[]{formula}, new ProbabilityFingerprint[]{fingerprint}, topredict)[0];
+    }
+
+    /**
+     * Predicts the fingerprints of many (formula, fingerprint) pairs at once, e.g. all formula candidates of many features.
+     * Each layer is evaluated once for the whole batch.
+     *
+     * @return one array of fingerprints per input, each containing one fingerprint per predictable (in enum order)
+     */
+    public ProbabilityFingerprint[][] predictFingerprints(MolecularFormula[] formulas, ProbabilityFingerprint[] fingerprints, EnumSet<Predictable> topredict) {
+        if (formulas.length == 0)
+            return new ProbabilityFingerprint[0][];
+        final FMatrixRMaj[] values = predictProbabilities(formulas, fingerprints, topredict);
+        final ProbabilityFingerprint[][] fps = new ProbabilityFingerprint[formulas.length][topredict.size()];
+        for (int row = 0; row < formulas.length; ++row) {
+            int k = 0;
+            if (topredict.contains(Predictable.ClassyFire)) {
+                fps[row][k] = new ProbabilityFingerprint(classyFireMask, getRow(values[k], row));
+                ++k;
+            }
+            if (topredict.contains(Predictable.NPC)) {
+                fps[row][k] = npcMask.mask(new ProbabilityFingerprint(npcFingerprintVersion, getRow(values[k], row)));
+                ++k;
+            }
         }
         return fps;
+    }
 
+    private static float[] getRow(FMatrixRMaj matrix, int row) {
+        return Arrays.copyOfRange(matrix.data, row * matrix.numCols, (row + 1) * matrix.numCols);
     }
 
 
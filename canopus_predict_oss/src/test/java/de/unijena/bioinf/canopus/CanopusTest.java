@@ -0,0 +1,170 @@
+package de.unijena.bioinf.canopus;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.fp.*;
+import de.unijena.bioinf.canopus.dnn.ActivationFunction;
+import de.unijena.bioinf.canopus.dnn.FullyConnectedLayer;
+import de.unijena.bioinf.canopus.dnn.PlattLayer;
+import org.ejml.data.FMatrixRMaj;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.util.Arrays;
+import java.util.EnumSet;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CanopusTest {
+
+    private static final int BATCH_SIZE = 50, FINGERPRINT_SIZE = 40, HIDDEN = 32, LATENT = 24;
+    private static final float TOLERANCE = 1e-5f;
+    private static final EnumSet<Canopus.Predictable> CLASSES = EnumSet.of(Canopus.Predictable.ClassyFire, Canopus.Predictable.NPC);
+
+    private static Canopus canopus;
+    private static MaskedFingerprintVersion inputVersion;
+    private static MolecularFormula[] formulas;
+    private static ProbabilityFingerprint[] fingerprints;
+
+    private static FullyConnectedLayer layer(Random r, int in, int out, ActivationFunction f) {
+        final float[][] w = new float[in][out];
+        final float[] b = new float[out];
+        for (int i = 0; i < in; ++i)
+            for (int j = 0; j < out; ++j)
+                w[i][j] = (float) (r.nextGaussian() / Math.sqrt(in));
+        for (int j = 0; j < out; ++j)
+            b[j] = (float) (r.nextGaussian() * 0.1);
+        return new FullyConnectedLayer(w, b, f);
+    }
+
+    private static PlattLayer platt(Random r, int size) {
+        final double[] a = new double[size], b = new double[size];
+        for (int j = 0; j < size; ++j) {
+            a[j] = -1 - r.nextDouble();
+            b[j] = r.nextGaussian() * 0.5;
+        }
+        return new PlattLayer(a, b);
+    }
+
+    private static double[] constant(int size, double value) {
+        final double[] values = new double[size];
+        Arrays.fill(values, value);
+        return values;
+    }
+
+    /**
+     * Model with random weights of the size of a small CANOPUS network and random inputs.
+     */
+    @BeforeAll
+    public static void buildModel() {
+        final Random r = new Random(42);
+        inputVersion = MaskedFingerprintVersion.buildMaskFor(CdkFingerprintVersion.getDefault()).disableAll().enable(0, FINGERPRINT_SIZE).toMask();
+        final MaskedFingerprintVersion classyFireMask = MaskedFingerprintVersion.buildMaskFor(ClassyFireFingerprintVersion.getDefault()).disableAll().enable(0, 60).toMask();
+        final MaskedFingerprintVersion npcMask = MaskedFingerprintVersion.buildMaskFor(NPCFingerprintVersion.get()).disableAll().enable(0, 20).toMask();
+        final int npcSize = NPCFingerprintVersion.get().size();
+        final int formulaSize = Canopus.getFormulaFeatures(MolecularFormula.parseOrThrow("C6H12O6")).length;
+
+        canopus = new Canopus(
+                new FullyConnectedLayer[]{layer(r, formulaSize, 16, new ActivationFunction.SELU())},
+                new FullyConnectedLayer[]{layer(r, FINGERPRINT_SIZE, HIDDEN, new ActivationFunction.SELU())},
+                new FullyConnectedLayer[]{layer(r, 16 + HIDDEN, HIDDEN, new ActivationFunction.SELU()), layer(r, HIDDEN, LATENT, new ActivationFunction.Tanh())},
+                layer(r, LATENT, classyFireMask.size(), new ActivationFunction.Identity()),
+                platt(r, classyFireMask.size()),
+                constant(formulaSize, 1), constant(formulaSize, 10), constant(FINGERPRINT_SIZE, 0.5), constant(FINGERPRINT_SIZE, 0.25),
+                classyFireMask, null, npcMask,
+                layer(r, LATENT, npcSize, new ActivationFunction.Identity()),
+                platt(r, npcSize));
+
+        formulas = new MolecularFormula[BATCH_SIZE];
+        fingerprints = new ProbabilityFingerprint[BATCH_SIZE];
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            formulas[i] = MolecularFormula.parseOrThrow("C" + (5 + r.nextInt(30)) + "H" + (4 + r.nextInt(50)) + "N" + r.nextInt(4) + "O" + r.nextInt(10) + (r.nextBoolean() ? "S" : ""));
+            final double[] probabilities = new double[FINGERPRINT_SIZE];
+            for (int k = 0; k < FINGERPRINT_SIZE; ++k)
+                probabilities[k] = r.nextDouble();
+            fingerprints[i] = new ProbabilityFingerprint(inputVersion, probabilities);
+        }
+    }
+
+    private static void assertRowEquals(float[] expected, FMatrixRMaj batch, int row) {
+        assertEquals(expected.length, batch.numCols);
+        for (int col = 0; col < expected.length; ++col)
+            assertEquals(expected[col], batch.get(row, col), TOLERANCE, "row " + row + ", column " + col);
+    }
+
+    /**
+     * the latent vector of a single input, evaluated vector by vector like before the batch prediction was added
+     */
+    private static float[] singleSampleLatentVector(MolecularFormula formula, ProbabilityFingerprint fingerprint) {
+        final double[] ff = canopus.getNormalizedFormulaVector(formula);
+        final double[] fp = canopus.getNormalizedFingerprintVector(fingerprint);
+        final float[] formulaInput = new float[ff.length], plattInput = new float[fp.length];
+        for (int i = 0; i < ff.length; ++i) formulaInput[i] = (float) ff[i];
+        for (int i = 0; i < fp.length; ++i) plattInput[i] = (float) fp[i];
+
+        FMatrixRMaj formulaVector = FMatrixRMaj.wrap(1, formulaInput.length, formulaInput);
+        for (FullyConnectedLayer l : canopus.formulaLayers)
+            formulaVector = l.eval(formulaVector);
+        FMatrixRMaj fpVector = FMatrixRMaj.wrap(1, plattInput.length, plattInput);
+        for (FullyConnectedLayer l : canopus.fingerprintLayers)
+            fpVector = l.eval(fpVector);
+
+        final float[] combined = new float[formulaVector.numCols + fpVector.numCols];
+        System.arraycopy(formulaVector.data, 0, combined, 0, formulaVector.numCols);
+        System.arraycopy(fpVector.data, 0, combined, formulaVector.numCols, fpVector.numCols);
+        FMatrixRMaj combinedVector = FMatrixRMaj.wrap(1, combined.length, combined);
+        for (FullyConnectedLayer l : canopus.innerLayers)
+            combinedVector = l.eval(combinedVector);
+        return combinedVector.data;
+    }
+
+    @Test
+    public void testBatchLatentVectorsEqualSingleSample() {
+        final FMatrixRMaj latent = canopus.predictLatentVectors(formulas, fingerprints);
+        assertEquals(BATCH_SIZE, latent.numRows);
+        assertEquals(LATENT, latent.numCols);
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            assertRowEquals(singleSampleLatentVector(formulas[i], fingerprints[i]), latent, i);
+            assertRowEquals(canopus.predictLatentVector(formulas[i], fingerprints[i]), latent, i);
+        }
+    }
+
+    @Test
+    public void testBatchClassPredictionsEqualSingleSample() {
+        final FMatrixRMaj[] decisionValues = canopus.predictDecisionValues(formulas, fingerprints, CLASSES);
+        final FMatrixRMaj[] probabilities = canopus.predictProbabilities(formulas, fingerprints, CLASSES);
+        assertEquals(2, decisionValues.length);
+        assertEquals(2, probabilities.length);
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            final float[][] singleDecisionValues = canopus.predictDecisionValues(formulas[i], fingerprints[i], CLASSES);
+            final float[][] singleProbabilities = canopus.predictProbabilities(formulas[i], fingerprints[i], CLASSES);
+            for (int k = 0; k < 2; ++k) {
+                assertRowEquals(singleDecisionValues[k], decisionValues[k], i);
+                assertRowEquals(singleProbabilities[k], probabilities[k], i);
+            }
+        }
+    }
+
+    @Test
+    public void testBatchFingerprintsEqualSingleSample() {
+        final ProbabilityFingerprint[][] batch = canopus.predictFingerprints(formulas, fingerprints, CLASSES);
+        assertEquals(BATCH_SIZE, batch.length);
+        for (int i = 0; i < BATCH_SIZE; ++i) {
+            final ProbabilityFingerprint[] single = canopus.predictFingerprints(formulas[i], fingerprints[i], CLASSES);
+            assertEquals(single.length, batch[i].length);
+            for (int k = 0; k < single.length; ++k) {
+                assertTrue(single[k].getFingerprintVersion().identical(batch[i][k].getFingerprintVersion()));
+                assertArrayEquals(single[k].toProbabilityArray(), batch[i][k].toProbabilityArray(), TOLERANCE);
+            }
+        }
+        // a single predictable uses the same layers as the combined prediction
+        final ProbabilityFingerprint npc = canopus.predictFingerprint(formulas[3], fingerprints[3], Canopus.Predictable.NPC);
+        assertArrayEquals(batch[3][1].toProbabilityArray(), npc.toProbabilityArray(), TOLERANCE);
+    }
+
+    @Test
+    public void testEmptyBatch() {
+        assertEquals(0, canopus.predictFingerprints(new MolecularFormula[0], new ProbabilityFingerprint[0], CLASSES).length);
+        assertThrows(IllegalArgumentException.class, () -> canopus.predictLatentVectors(formulas, new ProbabilityFingerprint[1]));
+    }
+}
@@ -35,6 +35,7 @@ import de.unijena.bioinf.storage.blob.AbstractCompressible;
 import de.unijena.bioinf.storage.blob.BlobStorage;
 import de.unijena.bioinf.storage.blob.BlobStorages;
 import de.unijena.bioinf.storage.blob.Compressible;
+import de.unijena.bioinf.storage.blob.file.FileBlobStorage;
 import it.unimi.dsi.fastutil.objects.Object2LongMap;
 import it.unimi.dsi.fastutil.objects.Object2LongOpenHashMap;
 import org.jetbrains.annotations.NotNull;
@@ -42,7 +43,10 @@ import org.jetbrains.annotations.Nullable;
 import org.slf4j.LoggerFactory;
 
 import java.io.*;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
 import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
 import java.util.*;
 import java.util.concurrent.atomic.AtomicInteger;
 
@@ -51,7 +55,11 @@ import static de.unijena.bioinf.chemdb.ChemDbTags.TAG_FORMAT;
 
 public class ChemicalBlobDatabase<Storage extends BlobStorage> extends AbstractCompressible implements AbstractChemicalDatabase {
     public enum Format {
-        CSV(".csv"), JSON(".json");
+        CSV(".csv"), JSON(".json"),
+        /**
+         * binary columnar format, see {@link CompoundBinaryMapper}
+         */
+        BINARY(".fpcb");
         public final String ext;
 
         Format(@NotNull String ext) {
@@ -72,6 +80,8 @@ public class ChemicalBlobDatabase<Storage extends BlobStorage> extends AbstractC
                 return CSV;
             if (s.endsWith(JSON.ext()))
                 return JSON;
+            if (s.endsWith(BINARY.ext()))
+                return BINARY;
             return null;
         }
     }
@@ -82,7 +92,7 @@ public class ChemicalBlobDatabase<Storage extends BlobStorage> extends AbstractC
     public static final Set<String> CONFIG_BLOBS = Set.of(BLOB_FORMULAS, BLOB_SETTINGS);
 
     protected final Storage storage;
-    protected Format format; // csv or json
+    protected Format format; // csv, json or binary
     protected final Index index; // formula index
 
     protected final SpectralLibrary spectralLibrary;
@@ -175,7 +185,11 @@ public class ChemicalBlobDatabase<Storage extends BlobStorage> extends AbstractC
             }
         }
 
-        this.reader = format == Format.CSV ? new CSVReader() : new CompoundJsonMapper();
+        this.reader = switch (format) {
+            case CSV -> new CSVReader();
+            case JSON -> new CompoundJsonMapper();
+            case BINARY -> new CompoundBinaryMapper();
+        };
     }
 
     @NotNull
@@ -218,6 +232,31 @@ public class ChemicalBlobDatabase<Storage extends BlobStorage> extends AbstractC
     }
 
 
+    /**
+     * Returns the binary candidate list of the given formula. Uncompressed blobs of a {@link FileBlobStorage} are
+     * memory mapped instead of being read into the heap.
+     *
+     * @param formula formula to look up
+     * @return Optional of the candidate list, empty if the formula is not contained
+     * @throws IOException if the database is not in {@link Format#BINARY} or if IO goes wrong
+     */
+    @NotNull
+    public Optional<CompoundBinaryMapper.Candidates> getBinaryCandidates(@NotNull MolecularFormula formula) throws IOException {
+        if (format != Format.BINARY)
+            throw new IOException("Database '" + getName() + "' is not in binary format but in " + format + ".");
+        if (getCompression() == Compression.NONE && storage instanceof FileBlobStorage fileStorage) {
+            final Path blob = fileStorage.getRoot().resolve(formula.toString() + format.ext());
+            if (!Files.isRegularFile(blob))
+                return Optional.empty();
+            try (FileChannel channel = FileChannel.open(blob, StandardOpenOption.READ)) {
+                return Optional.of(new CompoundBinaryMapper.Candidates(channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size())));
+            }
+        }
+        try (final InputStream in = getCompoundStream(formula).orElse(null)) {
+            return in == null ? Optional.empty() : Optional.of(CompoundBinaryMapper.read(in));
+        }
+    }
+
     public boolean containsFormula(MolecularFormula formula) {
         return index.containsFormula(formula);
     }
@@ -252,6 +291,18 @@ public class ChemicalBlobDatabase<Storage extends BlobStorage> extends AbstractC
 
     @Override
     public <T extends Collection<FingerprintCandidate>> T lookupStructuresAndFingerprintsByFormula(MolecularFormula formula, T fingerprintCandidates) throws ChemicalDatabaseException {
+        if (format == Format.BINARY) {
+            try {
+                final CompoundBinaryMapper.Candidates candidates = getBinaryCandidates(formula).orElse(null);
+                if (candidates != null) {
+                    for (int i = 0; i < candidates.size(); ++i)
+                        fingerprintCandidates.add(candidates.getFingerprintCandidate(i, version));
+                }
+                return fingerprintCandidates;
+            } catch (IOException e) {
+                throw new ChemicalDatabaseException(e);
+            }
+        }
         try (final InputStream blobReader = getCompoundStream(formula).orElse(null)) {
             if (blobReader != null) {
                 try (final CloseableIterator<FingerprintCandidate> iter = reader.readFingerprints(version, blobReader)) {
@@ -31,21 +31,30 @@ import de.unijena.bioinf.spectraldb.entities.MergedReferenceSpectrum;
 import de.unijena.bioinf.spectraldb.entities.Ms2ReferenceSpectrum;
 import de.unijena.bioinf.spectraldb.entities.ReferenceFragmentationTree;
 import de.unijena.bioinf.spectraldb.entities.ReferenceSpectrum;
+import de.unijena.bioinf.spectraldb.entities.SpectralPeakIndexChunk;
 import de.unijena.bioinf.storage.db.nosql.Database;
 import de.unijena.bioinf.storage.db.nosql.Filter;
 import de.unijena.bioinf.storage.db.nosql.Index;
 import de.unijena.bioinf.storage.db.nosql.Metadata;
+import de.unijena.bionf.fastcosine.BatchSimilarity;
+import de.unijena.bionf.fastcosine.FastCosine;
+import de.unijena.bionf.fastcosine.PackedSpectra;
 import de.unijena.bionf.fastcosine.SearchPreparedSpectrum;
 import de.unijena.bionf.spectral_alignment.SpectralMatchingType;
 import de.unijena.bionf.spectral_alignment.SpectralSimilarity;
 import lombok.Getter;
+import lombok.Setter;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
+import org.slf4j.LoggerFactory;
 
 import java.io.Closeable;
 import java.io.IOException;
 import java.util.*;
+import java.util.function.BooleanSupplier;
 import java.util.function.Consumer;
+import java.util.function.IntPredicate;
+import java.util.stream.IntStream;
 import java.util.stream.Stream;
 //todo check when data/spectra should be included an when not
 
@@ -54,6 +63,18 @@ public abstract class SpectralNoSQLDatabase<Doctype> implements SpectralLibrary,
 
     final protected Database<Doctype> storage;
 
+    /**
+     * In memory copy of the peak index used to find candidates for analog search. Null if not loaded yet or outdated.
+     */
+    private volatile SpectralPeakIndex peakIndex;
+
+    /**
+     * If false, analog search scores every merged reference spectrum of the library (full scan) instead of retrieving
+     * candidates from the peak index. Both yield the same hits, the full scan is kept as reference and fallback.
+     */
+    @Setter
+    private volatile boolean usePeakIndex = true;
+
     public Database<Doctype> getStorage() {
         return storage;
     }
@@ -79,7 +100,8 @@ public abstract class SpectralNoSQLDatabase<Doctype> implements SpectralLibrary,
                 ).setOptionalFields(Ms2ReferenceSpectrum.class, "spectrum", "querySpectrum")
 
                 .addRepository(ReferenceFragmentationTree.class)
-                .addRepository(MergedReferenceSpectrum.class, Index.unique("candidateInChiKey", "precursorIonType"), Index.nonUnique("precursorMz"));
+                .addRepository(MergedReferenceSpectrum.class, Index.unique("candidateInChiKey", "precursorIonType"), Index.nonUnique("precursorMz"))
+                .addRepository(SpectralPeakIndexChunk.class);
     }
 
     public abstract <O> Doctype asDocument(O object);
@@ -265,6 +287,49 @@ public abstract class SpectralNoSQLDatabase<Doctype> implements SpectralLibrary,
             refTree.setUuid(merged.getUuid());
             storage.insert(refTree);
         }
+        peakIndex = null;
+    }
+
+    /**
+     * (Re)builds the peak index over all merged reference spectra and stores it next to the spectra.
+     * Has to be called after merged spectra have been inserted, otherwise analog search falls back to
+     * building a non-persistent index on the fly.
+     */
+    @Override
+    public synchronized void buildPeakIndex() throws IOException {
+        SpectralPeakIndex.Builder builder = SpectralPeakIndex.builder(getFastCosine().getMaxDeviation());
+        storage.findAllStr(MergedReferenceSpectrum.class, "querySpectrum").forEach(builder::add);
+        SpectralPeakIndex index = builder.build();
+        storage.write(() -> {
+            storage.removeAll(Filter.where("id").gte(0L), SpectralPeakIndexChunk.class);
+            storage.insertAll(index.toChunks());
+        });
+        peakIndex = index;
+    }
+
+    /**
+     * @return the peak index of this library. Loads the persisted index or builds it in memory if the persisted one is missing or outdated.
+     */
+    protected SpectralPeakIndex getPeakIndex() throws IOException {
+        SpectralPeakIndex index = peakIndex;
+        if (index != null)
+            return index;
+
+        synchronized (this) {
+            if (peakIndex != null)
+                return peakIndex;
+
+            long numberOfSpectra = storage.countAll(MergedReferenceSpectrum.class);
+            index = SpectralPeakIndex.fromChunks(storage.findAll(SpectralPeakIndexChunk.class), getFastCosine().getMaxDeviation());
+            if (index.getNumberOfSpectra() != numberOfSpectra) {
+                LoggerFactory.getLogger(getClass()).warn("Peak index of spectral library '{}' is missing or outdated. Building temporary index in memory.", name());
+                SpectralPeakIndex.Builder builder = SpectralPeakIndex.builder(getFastCosine().getMaxDeviation());
+                storage.findAllStr(MergedReferenceSpectrum.class, "querySpectrum").forEach(builder::add);
+                index = builder.build();
+            }
+            peakIndex = index;
+            return index;
+        }
     }
 
     @Override
@@ -317,37 +382,131 @@ public abstract class SpectralNoSQLDatabase<Doctype> implements SpectralLibrary,
         return queryAgainstLibraryByMergedReference(getMergedReferenceSpectra(precursorMz, chargeAndPolarity, settings.getPrecursorDeviation()).toList(), settings, query, null);
     }
 
+    /**
+     * Analog search against the whole library. Candidates are retrieved from the peak index, so only references
+     * that share peaks with the query and whose upper bound exceeds the search thresholds are loaded and scored.
+     * <p>
+     * This yields the same hits as scoring all references: a reference without any shared peak has similarity 0 and
+     * 0 shared peaks, so it can only be a hit if neither a minimum similarity nor a minimum number of peaks is
+     * required. For such settings, and if the index is disabled via {@link #setUsePeakIndex(boolean)}, the whole
+     * library is scanned. Without {@link SpectrumType#SPECTRUM} query type there is nothing to search, because
+     * this method does not receive a merged query spectrum.
+     */
     @Override
     public Stream<LibraryHit> queryAgainstLibrary(int chargeAndPolarity, SpectralLibrarySearchSettings settings, List<SearchPreparedSpectrum> query) throws IOException {
-        return queryAgainstLibraryByMergedReference(storage.findAllStr(MergedReferenceSpectrum.class, "querySpectrum").filter(x -> x.getPrecursorIonType().getCharge() == chargeAndPolarity).toList(), settings, query, null);
+        if (!settings.containsQueryType(SpectrumType.SPECTRUM) || query.isEmpty())
+            return Stream.empty();
+
+        if (!usePeakIndex || (settings.getMinSimilarity() <= 0 && settings.getMinNumOfPeaks() <= 0))
+            return queryAgainstLibraryByMergedReference(storage.findAllStr(MergedReferenceSpectrum.class, "querySpectrum")
+                    .filter(x -> x.getPrecursorIonType().getCharge() == chargeAndPolarity).toList(), settings, query, null);
+
+        final boolean modified = settings.getMatchingType() == SpectralMatchingType.MODIFIED_COSINE;
+        final SpectralPeakIndex index = getPeakIndex();
+        final Set<Long> candidateUuids = new HashSet<>();
+        for (SearchPreparedSpectrum q : query) {
+            SpectralPeakIndex.Candidates candidates = index.upperBounds(q, modified);
+            for (int k = 0; k < candidates.size(); ++k) {
+                if (candidates.mightExceed(k, settings))
+                    candidateUuids.add(candidates.uuids()[k]);
+            }
+        }
+        if (candidateUuids.isEmpty())
+            return Stream.empty();
+
+        List<MergedReferenceSpectrum> candidates = storage.findStr(Filter.where("uuid").in(candidateUuids.toArray(Long[]::new)), MergedReferenceSpectrum.class, "querySpectrum")
+                .filter(x -> x.getPrecursorIonType().getCharge() == chargeAndPolarity).toList();
+        return queryAgainstLibraryByMergedReference(candidates, settings, query, null);
     }
 
+    /**
+     * Upper bounds of the queries against the merged references are computed in one batch per query over the packed
+     * references (see {@link FastCosine#fastCosine(SearchPreparedSpectrum, PackedSpectra)}) instead of pairwise per reference.
+     * As in the single reference case, only references for which the bounds can save computations are packed.
+     */
     @Override
     public Stream<LibraryHit> queryAgainstLibraryByMergedReference(List<MergedReferenceSpectrum> mergedReferences, SpectralLibrarySearchSettings settings, @NotNull List<SearchPreparedSpectrum> query, @Nullable SearchPreparedSpectrum mergedQuery) throws IOException {
         List<LibraryHit> hits = new ArrayList<>();
-        for (MergedReferenceSpectrum mergedRef : mergedReferences)
-           queryAgainstLibraryByMergedReference(mergedRef, settings, query,mergedQuery).forEach(hits::add);
+        if (mergedReferences.isEmpty())
+            return hits.stream();
+
+        // position of each reference in the packed block, -1 if no upper bound is computed for it
+        final int[] boundIndex = new int[mergedReferences.size()];
+        final List<SearchPreparedSpectrum> upperBoundSpectra = new ArrayList<>();
+        for (int k = 0; k < mergedReferences.size(); ++k) {
+            if (isUpperBoundWorthwhile(mergedReferences.get(k), settings, query, mergedQuery)) {
+                boundIndex[k] = upperBoundSpectra.size();
+                upperBoundSpectra.add(mergedReferences.get(k).getSearchPreparedSpectrum().asUpperboundSearchPreparedSpectrum());
+            } else {
+                boundIndex[k] = -1;
+            }
+        }
+
+        final PackedSpectra upperBoundReferences = PackedSpectra.of(upperBoundSpectra);
+        final BatchSimilarity[] queryBounds = (settings.containsQueryType(SpectrumType.SPECTRUM) && !upperBoundSpectra.isEmpty() ? query : List.<SearchPreparedSpectrum>of()).stream()
+                .map(q -> spectralSimilarity(q, upperBoundReferences, settings)).toArray(BatchSimilarity[]::new);
+        final BatchSimilarity mergedQueryBounds = mergedQuery != null && settings.containsQueryType(SpectrumType.MERGED_SPECTRUM) && !upperBoundSpectra.isEmpty()
+                ? spectralSimilarity(mergedQuery, upperBoundReferences, settings) : null;
+
+        for (int k = 0; k < mergedReferences.size(); ++k) {
+            // bounds are only requested for references that are packed
+            final int ref = boundIndex[k];
+            queryAgainstLibraryByMergedReference(mergedReferences.get(k), settings, query, mergedQuery,
+                    q -> settings.exceeded(queryBounds[q].get(ref)),
+                    () -> mergedQueryBounds != null && settings.exceeded(mergedQueryBounds.get(ref))
+            ).forEach(hits::add);
+        }
+        return hits.stream();
+    }
+
+    /**
+     * Upper bounds are computed in one batch per query over all prepared references, the packing of the references is
+     * shared by all calls. Only selected references for which the bounds can save computations use them.
+     */
+    @Override
+    public Stream<LibraryHit> queryAgainstLibraryByMergedReference(PreparedMergedReferences mergedRefs, IntPredicate selection, SpectralLibrarySearchSettings settings, @NotNull List<SearchPreparedSpectrum> query, @Nullable SearchPreparedSpectrum mergedQuery) throws IOException {
+        List<LibraryHit> hits = new ArrayList<>();
+        final int[] selected = IntStream.range(0, mergedRefs.size()).filter(selection).toArray();
+        if (selected.length == 0)
+            return hits.stream();
+
+        final boolean anyBound = Arrays.stream(selected).anyMatch(k -> isUpperBoundWorthwhile(mergedRefs.get(k), settings, query, mergedQuery));
+        final BatchSimilarity[] queryBounds = (settings.containsQueryType(SpectrumType.SPECTRUM) && anyBound ? query : List.<SearchPreparedSpectrum>of()).stream()
+                .map(q -> spectralSimilarity(q, mergedRefs.getUpperBounds(), settings)).toArray(BatchSimilarity[]::new);
+        final BatchSimilarity mergedQueryBounds = mergedQuery != null && settings.containsQueryType(SpectrumType.MERGED_SPECTRUM) && anyBound
+                ? spectralSimilarity(mergedQuery, mergedRefs.getUpperBounds(), settings) : null;
+
+        for (int k : selected) {
+            queryAgainstLibraryByMergedReference(mergedRefs.get(k), settings, query, mergedQuery,
+                    q -> settings.exceeded(queryBounds[q].get(k)),
+                    () -> mergedQueryBounds != null && settings.exceeded(mergedQueryBounds.get(k))
+            ).forEach(hits::add);
+        }
         return hits.stream();
     }
 
     @Override
     public Stream<LibraryHit> queryAgainstLibraryByMergedReference(MergedReferenceSpectrum mergedRef, SpectralLibrarySearchSettings settings, @NotNull List<SearchPreparedSpectrum> query, @Nullable SearchPreparedSpectrum mergedQuery) throws IOException {
+        final SearchPreparedSpectrum mergedRefUpperBoundQuery = mergedRef.getSearchPreparedSpectrum().asUpperboundSearchPreparedSpectrum();
+        return queryAgainstLibraryByMergedReference(mergedRef, settings, query, mergedQuery,
+                q -> settings.exceeded(spectralSimilarity(query.get(q), mergedRefUpperBoundQuery, settings)),
+                () -> settings.exceeded(spectralSimilarity(mergedQuery, mergedRefUpperBoundQuery, settings)));
+    }
+
+    /**
+     * @param queryExceedsBound       tests if the upper bound of the query with the given index against the merged reference exceeds the thresholds
+     * @param mergedQueryExceedsBound tests if the upper bound of the merged query against the merged reference exceeds the thresholds
+     */
+    private Stream<LibraryHit> queryAgainstLibraryByMergedReference(MergedReferenceSpectrum mergedRef, SpectralLibrarySearchSettings settings, @NotNull List<SearchPreparedSpectrum> query, @Nullable SearchPreparedSpectrum mergedQuery, IntPredicate queryExceedsBound, BooleanSupplier mergedQueryExceedsBound) throws IOException {
         List<LibraryHit> hits = new ArrayList<>();
 
         boolean doMergedQuery = mergedQuery != null && settings.containsQueryType(SpectrumType.MERGED_SPECTRUM);
         List<SearchPreparedSpectrum> queriesToProcess = !settings.containsQueryType(SpectrumType.SPECTRUM) ? List.of() : query;
 
-
-        int singleQueries = settings.containsQueryType(SpectrumType.SPECTRUM) ? query.size() : 0;
-        int mergedQueries = doMergedQuery ? 1 : 0;
-
-        int numRefs = (settings.containsTargetType(SpectrumType.SPECTRUM) ? mergedRef.getIndividualSpectraUIDs().length : 0 ) + (settings.containsTargetType(SpectrumType.MERGED_SPECTRUM) ? 1 : 0);
-
         // only perform upper bound computation if there is a change to save time with it.
-        if ((singleQueries + mergedQueries) * numRefs > 2 * singleQueries + mergedQueries) {
-            SearchPreparedSpectrum mergedRefUpperBoundQuery = mergedRef.getSearchPreparedSpectrum().asUpperboundSearchPreparedSpectrum();
-            doMergedQuery = doMergedQuery && settings.exceeded(spectralSimilarity(mergedQuery, mergedRefUpperBoundQuery, settings));
-            queriesToProcess = queriesToProcess.stream().filter(q -> settings.exceeded(spectralSimilarity(q, mergedRefUpperBoundQuery, settings))).toList();
+        if (isUpperBoundWorthwhile(mergedRef, settings, query, mergedQuery)) {
+            doMergedQuery = doMergedQuery && mergedQueryExceedsBound.getAsBoolean();
+            queriesToProcess = IntStream.range(0, queriesToProcess.size()).filter(queryExceedsBound).mapToObj(queriesToProcess::get).toList();
         }
 
         //check if there is any query left to compute before retrieving ref spectra.
@@ -380,6 +539,17 @@ public abstract class SpectralNoSQLDatabase<Doctype> implements SpectralLibrary,
         return hits.stream();
     }
 
+    /**
+     * @return true if computing the upper bounds of the queries against the merged reference is cheaper than
+     * computing the similarities against all of its spectra
+     */
+    private static boolean isUpperBoundWorthwhile(MergedReferenceSpectrum mergedRef, SpectralLibrarySearchSettings settings, @NotNull List<SearchPreparedSpectrum> query, @Nullable SearchPreparedSpectrum mergedQuery) {
+        int singleQueries = settings.containsQueryType(SpectrumType.SPECTRUM) ? query.size() : 0;
+        int mergedQueries = mergedQuery != null && settings.containsQueryType(SpectrumType.MERGED_SPECTRUM) ? 1 : 0;
+        int numRefs = (settings.containsTargetType(SpectrumType.SPECTRUM) ? mergedRef.getIndividualSpectraUIDs().length : 0 ) + (settings.containsTargetType(SpectrumType.MERGED_SPECTRUM) ? 1 : 0);
+        return (singleQueries + mergedQueries) * numRefs > 2 * singleQueries + mergedQueries;
+    }
+
     private SpectralSimilarity spectralSimilarity(SearchPreparedSpectrum left, SearchPreparedSpectrum right, SpectralLibrarySearchSettings settings) {
         if (settings.getMatchingType() == SpectralMatchingType.FAST_COSINE)
             return getFastCosine().fastCosine(left, right);
@@ -388,6 +558,14 @@ public abstract class SpectralNoSQLDatabase<Doctype> implements SpectralLibrary,
         else throw new UnsupportedOperationException();
     }
 
+    private BatchSimilarity spectralSimilarity(SearchPreparedSpectrum query, PackedSpectra references, SpectralLibrarySearchSettings settings) {
+        if (settings.getMatchingType() == SpectralMatchingType.FAST_COSINE)
+            return getFastCosine().fastCosine(query, references);
+        else if (settings.getMatchingType() == SpectralMatchingType.MODIFIED_COSINE)
+            return getFastCosine().fastModifiedCosine(query, references);
+        else throw new UnsupportedOperationException();
+    }
+
     private List<LibraryHit> getHits(List<SearchPreparedSpectrum> left, Ms2ReferenceSpectrum right, SpectralLibrarySearchSettings settings) {
         final ArrayList<LibraryHit> hits = new ArrayList<>();
         for (int i=0; i < left.size(); ++i) {
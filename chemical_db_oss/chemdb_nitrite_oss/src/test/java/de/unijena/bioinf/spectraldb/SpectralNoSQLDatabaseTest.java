@@ -0,0 +1,188 @@
+package de.unijena.bioinf.spectraldb;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
+import de.unijena.bioinf.ChemistryBase.ms.Deviation;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import de.unijena.bioinf.chemdb.nitrite.ChemicalNitriteDatabase;
+import de.unijena.bioinf.spectraldb.entities.MergedReferenceSpectrum;
+import de.unijena.bioinf.spectraldb.entities.Ms2ReferenceSpectrum;
+import de.unijena.bioinf.spectraldb.entities.ReferenceFragmentationTree;
+import de.unijena.bionf.fastcosine.SearchPreparedSpectrum;
+import de.unijena.bionf.spectral_alignment.SpectralMatchingType;
+import org.junit.AfterClass;
+import org.junit.BeforeClass;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.Assert.*;
+
+public class SpectralNoSQLDatabaseTest {
+
+    private static final int NUMBER_OF_COMPOUNDS = 40, SPECTRA_PER_COMPOUND = 2;
+
+    static ChemicalNitriteDatabase library;
+    static List<SearchPreparedSpectrum> queries;
+
+    /**
+     * Small library of random spectra. Spectra of the same compound share most of their peaks, spectra of different
+     * compounds only share peaks by chance.
+     */
+    @BeforeClass
+    public static void buildLibrary() throws IOException {
+        final Random r = new Random(42);
+        final PrecursorIonType ionType = PrecursorIonType.getPrecursorIonType("[M+H]+");
+        final Path file = Files.createTempFile("spectral-library_", "_unitTest");
+        library = new ChemicalNitriteDatabase(file);
+
+        final List<SimpleSpectrum> compoundPeaks = new ArrayList<>();
+        for (int c = 0; c < NUMBER_OF_COMPOUNDS; ++c) {
+            final MolecularFormula formula = MolecularFormula.parseOrThrow("C" + (10 + c) + "H" + (12 + 2 * c) + "O4");
+            final double precursorMz = ionType.neutralMassToPrecursorMass(formula.getMass());
+            final SimpleSpectrum peaks = randomSpectrum(r, precursorMz, 12);
+            compoundPeaks.add(peaks);
+
+            final List<Ms2ReferenceSpectrum> spectra = new ArrayList<>();
+            for (int s = 0; s < SPECTRA_PER_COMPOUND; ++s) {
+                final SimpleSpectrum spectrum = perturb(r, peaks, 0);
+                spectra.add(Ms2ReferenceSpectrum.builder()
+                        .candidateInChiKey("COMPOUND" + c)
+                        .precursorIonType(ionType)
+                        .precursorMz(precursorMz)
+                        .exactMass(precursorMz)
+                        .msLevel(2)
+                        .formula(formula)
+                        .name("compound " + c)
+                        .spectrum(spectrum)
+                        .searchPreparedSpectrum(library.getFastCosine().prepareQuery(precursorMz, spectrum))
+                        .build());
+            }
+            library.upsertSpectra(spectra);
+
+            final MergedReferenceSpectrum merged = new MergedReferenceSpectrum();
+            merged.setName("compound " + c);
+            merged.setFormula(formula);
+            merged.setPrecursorMz(precursorMz);
+            merged.setExactMass(precursorMz);
+            merged.setCandidateInChiKey("COMPOUND" + c);
+            merged.setPrecursorIonType(ionType);
+            merged.setIndividualSpectraUIDs(spectra.stream().mapToLong(Ms2ReferenceSpectrum::getUuid).toArray());
+            merged.setSearchPreparedSpectrum(library.getFastCosine().prepareMergedQuery(spectra.stream().map(Ms2ReferenceSpectrum::getSearchPreparedSpectrum).toList()));
+            library.insertMergedSpecAndTree(merged, ReferenceFragmentationTree.from(new FTree(formula, ionType.getIonization()), merged));
+        }
+        library.buildPeakIndex();
+
+        // queries are analogs of library compounds (shifted precursor and partially shifted peaks) and random spectra
+        queries = new ArrayList<>();
+        for (int c = 0; c < NUMBER_OF_COMPOUNDS; c += 4) {
+            final SimpleSpectrum peaks = compoundPeaks.get(c);
+            final double precursorMz = peaks.getMzAt(peaks.size() - 1) + 10;
+            queries.add(library.getFastCosine().prepareQuery(precursorMz, perturb(r, peaks, 14.01565)));
+        }
+        for (int q = 0; q < 5; ++q) {
+            final double precursorMz = 250 + r.nextDouble() * 200;
+            queries.add(library.getFastCosine().prepareQuery(precursorMz, randomSpectrum(r, precursorMz, 10)));
+        }
+    }
+
+    @AfterClass
+    public static void closeLibrary() throws IOException {
+        library.setUsePeakIndex(true);
+        library.close();
+    }
+
+    private static SimpleSpectrum randomSpectrum(Random r, double precursorMz, int numberOfPeaks) {
+        final double[] mz = new double[numberOfPeaks], intensities = new double[numberOfPeaks];
+        for (int k = 0; k < numberOfPeaks; ++k) {
+            // peaks on a coarse grid, such that unrelated spectra share some peaks
+            mz[k] = 50 + Math.round(r.nextDouble() * (precursorMz - 60) * 2) / 2d;
+            intensities[k] = 1 + r.nextDouble() * 100;
+        }
+        return new SimpleSpectrum(mz, intensities);
+    }
+
+    /**
+     * randomizes intensities and shifts about half of the peaks by the given mass difference
+     */
+    private static SimpleSpectrum perturb(Random r, SimpleSpectrum spectrum, double shift) {
+        final double[] mz = new double[spectrum.size()], intensities = new double[spectrum.size()];
+        for (int k = 0; k < spectrum.size(); ++k) {
+            mz[k] = spectrum.getMzAt(k) + (shift > 0 && r.nextBoolean() ? shift : 0) + r.nextGaussian() * 0.0005;
+            intensities[k] = spectrum.getIntensityAt(k) * (0.5 + r.nextDouble());
+        }
+        return new SimpleSpectrum(mz, intensities);
+    }
+
+    private static SpectralLibrarySearchSettings settings(SpectralMatchingType matchingType, float minSimilarity, int minNumOfPeaks) {
+        final SpectralLibrarySearchSettings settings = new SpectralLibrarySearchSettings();
+        settings.setMatchingType(matchingType);
+        settings.setMinSimilarity(minSimilarity);
+        settings.setMinNumOfPeaks(minNumOfPeaks);
+        settings.setPrecursorDeviation(new Deviation(10));
+        settings.setQueryTypes(EnumSet.of(SpectrumType.SPECTRUM));
+        settings.setTargetTypes(EnumSet.of(SpectrumType.SPECTRUM, SpectrumType.MERGED_SPECTRUM));
+        return settings;
+    }
+
+    private static List<LibraryHit> search(boolean usePeakIndex, SpectralLibrarySearchSettings settings) throws IOException {
+        library.setUsePeakIndex(usePeakIndex);
+        return library.queryAgainstLibrary(1, settings, queries)
+                .sorted(Comparator.comparingInt(LibraryHit::getQueryIndex)
+                        .thenComparing(LibraryHit::getSpectrumType)
+                        .thenComparingLong(LibraryHit::getUuid))
+                .toList();
+    }
+
+    private static void assertSameHits(SpectralLibrarySearchSettings settings) throws IOException {
+        final List<LibraryHit> fullScan = search(false, settings);
+        final List<LibraryHit> indexed = search(true, settings);
+        assertEquals(fullScan.size(), indexed.size());
+        for (int k = 0; k < fullScan.size(); ++k) {
+            final LibraryHit expected = fullScan.get(k), actual = indexed.get(k);
+            assertEquals(expected.getQueryIndex(), actual.getQueryIndex());
+            assertEquals(expected.getSpectrumType(), actual.getSpectrumType());
+            assertEquals(expected.getUuid(), actual.getUuid());
+            assertEquals(expected.getSimilarity().similarity, actual.getSimilarity().similarity, 0f);
+            assertEquals(expected.getSimilarity().sharedPeaks, actual.getSimilarity().sharedPeaks);
+        }
+    }
+
+    @Test
+    public void testIndexedSearchMatchesFullScan() throws IOException {
+        for (SpectralMatchingType matchingType : new SpectralMatchingType[]{SpectralMatchingType.FAST_COSINE, SpectralMatchingType.MODIFIED_COSINE}) {
+            final SpectralLibrarySearchSettings settings = settings(matchingType, 0.3f, 3);
+            assertFalse("test library should yield hits for " + matchingType, search(false, settings).isEmpty());
+            assertSameHits(settings);
+            assertSameHits(settings(matchingType, 0.05f, 1));
+            assertSameHits(settings(matchingType, 0.7f, 6));
+        }
+    }
+
+    @Test
+    public void testReferencesWithoutSharedPeaksWithoutThresholds() throws IOException {
+        // without thresholds every reference is a hit, including those with score 0
+        final SpectralLibrarySearchSettings settings = settings(SpectralMatchingType.FAST_COSINE, 0f, 0);
+        final List<LibraryHit> indexed = search(true, settings);
+        assertEquals((long) queries.size() * NUMBER_OF_COMPOUNDS * (SPECTRA_PER_COMPOUND + 1), indexed.size());
+        assertTrue(indexed.stream().anyMatch(h -> h.getSimilarity().sharedPeaks == 0));
+        assertSameHits(settings);
+    }
+
+    @Test
+    public void testOtherChargeAndQueryType() throws IOException {
+        final SpectralLibrarySearchSettings settings = settings(SpectralMatchingType.FAST_COSINE, 0.3f, 3);
+        for (boolean usePeakIndex : new boolean[]{true, false}) {
+            library.setUsePeakIndex(usePeakIndex);
+            assertEquals(0, library.queryAgainstLibrary(-1, settings, queries).count());
+        }
+        settings.setQueryTypes(EnumSet.of(SpectrumType.MERGED_SPECTRUM));
+        assertSameHits(settings);
+        assertTrue(search(false, settings).isEmpty());
+    }
+
+}
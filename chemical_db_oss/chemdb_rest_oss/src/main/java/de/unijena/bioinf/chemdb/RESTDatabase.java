@@ -96,7 +96,7 @@ public class RESTDatabase implements FilterableChemicalDatabase {
                     throw new ChemicalDatabaseException(e);
                 }
             }
-        });
+        }, ChemDBCachePolicy.fromProperties());
     }
 
     // closes clients
@@ -191,6 +191,13 @@ public class RESTDatabase implements FilterableChemicalDatabase {
         throw new UnsupportedOperationException();
     }
 
+    /**
+     * @return hit/miss statistics of the local structure cache
+     */
+    public ChemDBFileCache.Stats getCacheStats() {
+        return cache.getStats();
+    }
+
     @Override
     public void close() {
         if (closeCLient && client != null) {
@@ -0,0 +1,77 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.chemdb;
+
+import de.unijena.bioinf.fingerid.utils.FingerIDProperties;
+import lombok.Builder;
+import lombok.Getter;
+
+/**
+ * Size limits and eviction strategy of a {@link ChemDBFileCache}.
+ */
+@Builder
+@Getter
+public class ChemDBCachePolicy {
+    public enum Eviction {
+        /**
+         * evict the formulas that have not been requested for the longest time
+         */
+        LRU,
+        /**
+         * evict the formulas that have been requested least often, ties are broken by last access
+         */
+        LFU
+    }
+
+    /**
+     * Maximum number of bytes the cached blobs may occupy in the cache storage. Values <= 0 disable the limit.
+     */
+    @Builder.Default
+    private final long maxDiskBytes = 0;
+
+    @Builder.Default
+    private final Eviction eviction = Eviction.LRU;
+
+    /**
+     * Number of formulas whose decoded candidate lists are additionally kept on the heap. 0 disables the heap tier.
+     */
+    @Builder.Default
+    private final int maxHeapFormulas = 0;
+
+    public boolean isDiskBounded() {
+        return maxDiskBytes > 0;
+    }
+
+    public static ChemDBCachePolicy unbounded() {
+        return ChemDBCachePolicy.builder().build();
+    }
+
+    /**
+     * Policy configured via the {@link FingerIDProperties} of this application.
+     */
+    public static ChemDBCachePolicy fromProperties() {
+        return ChemDBCachePolicy.builder()
+                .maxDiskBytes(FingerIDProperties.chemDBCacheMaxSizeMb() * 1024L * 1024L)
+                .eviction(Eviction.valueOf(FingerIDProperties.chemDBCacheEviction().toUpperCase()))
+                .maxHeapFormulas(FingerIDProperties.chemDBCacheHeapFormulas())
+                .build();
+    }
+}
@@ -30,33 +30,86 @@ import de.unijena.bioinf.storage.blob.Compressible;
 import de.unijena.bioinf.storage.blob.file.FileBlobStorage;
 import de.unijena.bioinf.storage.blob.memory.InMemoryBlobStorage;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.LoggerFactory;
 
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
 import java.io.IOException;
 import java.io.InputStream;
 import java.nio.file.Path;
-import java.util.ArrayList;
-import java.util.List;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
 import java.util.stream.Collectors;
 
 /**
  * Class to read-cache any kind of {@link SearchStructureByFormula} using a {@link BlobStorage}.
  * Using a local {@link FileBlobStorage} or an {@link InMemoryBlobStorage} as cache is recommended
  * to ensure that the cache is faster enough to have positive impact on performance compared to the  actual resource.
+ * <p>
+ * Candidates are cached in the binary format of {@link CompoundBinaryMapper}. Json blobs written by previous versions
+ * are still read and converted on first access.
+ * <p>
+ * The {@link ChemDBCachePolicy} limits the number of bytes the cached blobs may occupy in the storage and optionally
+ * keeps the decoded candidates of the most recently requested formulas on the heap.
  */
 public class ChemDBFileCache extends AbstractCompressible {
+    /**
+     * when the disk budget is exceeded, blobs are evicted until this fraction of the budget is reached
+     */
+    private static final double LOW_WATERMARK = 0.9;
+
+    private static final String BINARY_EXT = ".fpcb";
+    private static final String LEGACY_JSON_EXT = ".json.gz";
 
     protected final BlobStorage cacheStorage;
     protected final SearchStructureByFormula structureProvider;
+    protected final ChemDBCachePolicy policy;
+
+    // disk tier, only maintained if the disk size is bounded
+    private final Map<String, Entry> entries = new ConcurrentHashMap<>();
+    private final AtomicLong diskBytes = new AtomicLong();
+    private final AtomicLong clock = new AtomicLong();
+    private volatile boolean indexed = false;
+
+    // heap tier
+    private final Map<String, List<FingerprintCandidate>> heapTier;
+
+    private final LongAdder hits = new LongAdder();
+    private final LongAdder heapHits = new LongAdder();
+    private final LongAdder misses = new LongAdder();
+    private final LongAdder bytesServed = new LongAdder();
+    private final LongAdder evictions = new LongAdder();
 
     public ChemDBFileCache(@NotNull BlobStorage cacheStorage, @NotNull SearchStructureByFormula structureProvider1) {
         this(cacheStorage, structureProvider1, Compression.GZIP);
     }
 
     public ChemDBFileCache(@NotNull BlobStorage cacheStorage, @NotNull SearchStructureByFormula structureProvider1, Compression compression) {
+        this(cacheStorage, structureProvider1, compression, ChemDBCachePolicy.unbounded());
+    }
+
+    public ChemDBFileCache(@NotNull BlobStorage cacheStorage, @NotNull SearchStructureByFormula structureProvider1, @NotNull ChemDBCachePolicy policy) {
+        this(cacheStorage, structureProvider1, Compression.GZIP, policy);
+    }
+
+    public ChemDBFileCache(@NotNull BlobStorage cacheStorage, @NotNull SearchStructureByFormula structureProvider1, Compression compression, @NotNull ChemDBCachePolicy policy) {
         super(compression);
         this.cacheStorage = cacheStorage;
         this.structureProvider = structureProvider1;
+        this.policy = policy;
+        this.heapTier = policy.getMaxHeapFormulas() > 0 ? Collections.synchronizedMap(new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, List<FingerprintCandidate>> eldest) {
+                return size() > policy.getMaxHeapFormulas();
+            }
+        }) : null;
+    }
+
+    public ChemDBCachePolicy getPolicy() {
+        return policy;
     }
 
     public List<FingerprintCandidate> lookupStructuresAndFingerprintsByFormula(MolecularFormula formula, long filter) throws ChemicalDatabaseException {
@@ -64,43 +117,235 @@ public class ChemDBFileCache extends AbstractCompressible {
     }
 
     public List<FingerprintCandidate> lookupStructuresAndFingerprintsByFormula(MolecularFormula formula) throws ChemicalDatabaseException {
-        Path blobKey = Path.of(formula.toString() + ".json.gz");
+        final String name = formula.toString();
+        final String key = name + BINARY_EXT + getCompression().ext();
+
+        if (heapTier != null) {
+            final List<FingerprintCandidate> cached = heapTier.get(name);
+            if (cached != null) {
+                heapHits.increment();
+                touch(key, -1);
+                return copy(cached);
+            }
+        }
 
         try {
-            List<FingerprintCandidate> fpcs = new ArrayList<>();
-            if (cacheStorage.hasBlob(blobKey)) {
-                try {
-                    try(InputStream i = cacheStorage.reader(blobKey)){
-                        try (final CloseableIterator<FingerprintCandidate> fciter = new CompoundJsonMapper().readFingerprints(CdkFingerprintVersion.getDefault(),
-                                Compressible.decompressRawStream(i, getCompression()).get())) {
-                            while (fciter.hasNext())
-                                fpcs.add(fciter.next());
-                        }
-                    }
-                } catch (IOException e) {
-                    LoggerFactory.getLogger(getClass()).error("Error when searching for " + formula + " in file database. Deleting cache file '" + blobKey + "' an try fetching from Server");
-                    fpcs = requestFormulaAndCache(blobKey, formula);
+            List<FingerprintCandidate> fpcs = null;
+            try {
+                fpcs = readFromCache(key, false);
+                if (fpcs == null) {
+                    final String legacyKey = name + LEGACY_JSON_EXT;
+                    fpcs = readFromCache(legacyKey, true);
+                    if (fpcs != null)
+                        migrateLegacyBlob(legacyKey, key, fpcs);
                 }
-            } else {
-                fpcs = requestFormulaAndCache(blobKey, formula);
+            } catch (IOException e) {
+                LoggerFactory.getLogger(getClass()).error("Error when searching for " + formula + " in file database. Deleting cache file '" + key + "' an try fetching from Server");
             }
+            if (fpcs == null)
+                fpcs = requestFormulaAndCache(key, formula);
 
+            if (heapTier != null)
+                heapTier.put(name, copy(fpcs));
             return fpcs;
         } catch (IOException e) {
             throw new ChemicalDatabaseException(e);
         }
     }
 
-    private List<FingerprintCandidate> requestFormulaAndCache(final @NotNull Path relative, MolecularFormula formula) throws IOException {
+    @Nullable
+    private List<FingerprintCandidate> readFromCache(@NotNull String key, boolean json) throws IOException {
+        final byte[] blob = readBlob(Path.of(key));
+        if (blob == null)
+            return null;
+        final List<FingerprintCandidate> fpcs = json ? decodeJson(blob) : decodeBinary(blob);
+        hits.increment();
+        bytesServed.add(blob.length);
+        touch(key, blob.length);
+        return fpcs;
+    }
+
+    @Nullable
+    private byte[] readBlob(@NotNull Path blobKey) throws IOException {
+        if (!cacheStorage.hasBlob(blobKey))
+            return null;
+        try (InputStream i = cacheStorage.reader(blobKey)) {
+            return i == null ? null : i.readAllBytes(); // might have been evicted in between
+        }
+    }
+
+    private List<FingerprintCandidate> decodeBinary(byte[] blob) throws IOException {
+        final CompoundBinaryMapper.Candidates candidates = CompoundBinaryMapper.read(
+                Compressible.decompressRawStream(new ByteArrayInputStream(blob), getCompression()).get());
+        final List<FingerprintCandidate> fpcs = new ArrayList<>(candidates.size());
+        for (int i = 0; i < candidates.size(); ++i)
+            fpcs.add(candidates.getFingerprintCandidate(i, CdkFingerprintVersion.getDefault()));
+        return fpcs;
+    }
+
+    // blobs written by previous versions are always gzipped json
+    private List<FingerprintCandidate> decodeJson(byte[] blob) throws IOException {
+        final List<FingerprintCandidate> fpcs = new ArrayList<>();
+        try (final CloseableIterator<FingerprintCandidate> fciter = new CompoundJsonMapper().readFingerprints(CdkFingerprintVersion.getDefault(),
+                Compressible.decompressRawStream(new ByteArrayInputStream(blob), Compression.GZIP).get())) {
+            while (fciter.hasNext())
+                fpcs.add(fciter.next());
+        }
+        return fpcs;
+    }
+
+    private static List<FingerprintCandidate> copy(List<FingerprintCandidate> fpcs) {
+        return fpcs.stream().map(FingerprintCandidate::new).toList();
+    }
+
+    private List<FingerprintCandidate> requestFormulaAndCache(final @NotNull String key, MolecularFormula formula) throws IOException {
+        misses.increment();
         //get unfiltered list from server to write cache.
         final List<FingerprintCandidate> fpcs = structureProvider.lookupStructuresAndFingerprintsByFormula(formula);
 
         // write cache in background -> cache has to be unfiltered
-        SiriusJobs.runInBackgroundIO(() ->
-                cacheStorage.withWriter(relative, w -> Compressible.withCompression(w, getCompression(), cw -> CompoundJsonMapper.toJSONList(fpcs, cw))));
+        SiriusJobs.runInBackgroundIO(() -> writeToCache(key, fpcs));
 
-        return fpcs.stream().map(FingerprintCandidate::new).toList(); //we do a copy since writing cache is async and the candidate might get modified after returning it.
+        return copy(fpcs); //we do a copy since writing cache is async and the candidate might get modified after returning it.
+    }
+
+    /**
+     * Rewrites a json blob of a previous version in the binary format, so that it does not have to be parsed again.
+     */
+    private void migrateLegacyBlob(@NotNull String legacyKey, @NotNull String key, List<FingerprintCandidate> fpcs) {
+        final List<FingerprintCandidate> copy = copy(fpcs);
+        SiriusJobs.runInBackgroundIO(() -> {
+            writeToCache(key, copy);
+            cacheStorage.deleteBlob(Path.of(legacyKey));
+            final Entry entry = entries.remove(legacyKey);
+            if (entry != null)
+                diskBytes.addAndGet(-entry.size);
+        });
     }
-}
 
+    private void writeToCache(@NotNull String key, List<FingerprintCandidate> fpcs) throws IOException {
+        final ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+        Compressible.withCompression(buffer, getCompression(), cw -> CompoundBinaryMapper.toBinary(fpcs, cw));
+        final byte[] blob = buffer.toByteArray();
+        cacheStorage.withWriter(Path.of(key), w -> w.write(blob));
+        if (policy.isDiskBounded()) {
+            touch(key, blob.length);
+            evictIfNecessary();
+        }
+    }
+
+    //region disk tier
+    private static final class Entry {
+        private volatile long size;
+        private volatile long lastAccess;
+        private final LongAdder accesses = new LongAdder();
+
+        private Entry(long size) {
+            this.size = size;
+        }
+    }
+
+    private record EvictionCandidate(String key, Entry entry, long accesses, long lastAccess) {
+    }
 
+    /**
+     * Records an access of the given blob. A size >= 0 (re)sets the known size of the blob.
+     */
+    private void touch(@NotNull String key, long size) {
+        if (!policy.isDiskBounded())
+            return;
+        ensureIndexed();
+        if (size < 0 && !entries.containsKey(key))
+            return; // heap hit of a blob that is not on disk (anymore)
+        final Entry entry = entries.computeIfAbsent(key, k -> {
+            diskBytes.addAndGet(size);
+            return new Entry(size);
+        });
+        if (size >= 0 && entry.size != size) {
+            diskBytes.addAndGet(size - entry.size);
+            entry.size = size;
+        }
+        entry.lastAccess = clock.incrementAndGet();
+        entry.accesses.increment();
+    }
+
+    /**
+     * Index blobs already present in the cache storage, e.g. from previous runs. Their access statistics are
+     * unknown, so they are the first candidates for eviction.
+     */
+    private void ensureIndexed() {
+        if (indexed)
+            return;
+        synchronized (entries) {
+            if (indexed)
+                return;
+            try {
+                final Iterator<BlobStorage.Blob> it = cacheStorage.listBlobs();
+                while (it.hasNext()) {
+                    final BlobStorage.Blob blob = it.next();
+                    if (!blob.isDirectory() && entries.putIfAbsent(blob.getKey(), new Entry(blob.size())) == null)
+                        diskBytes.addAndGet(blob.size());
+                }
+            } catch (IOException | RuntimeException e) {
+                LoggerFactory.getLogger(getClass()).warn("Could not index structure cache '" + cacheStorage.getBucketLocation() + "'. Size limit only applies to newly cached formulas.", e);
+            }
+            indexed = true;
+        }
+    }
+
+    private void evictIfNecessary() throws IOException {
+        if (diskBytes.get() <= policy.getMaxDiskBytes())
+            return;
+        synchronized (entries) {
+            if (diskBytes.get() <= policy.getMaxDiskBytes())
+                return;
+            // snapshot access statistics, they may change concurrently while sorting
+            final List<EvictionCandidate> candidates = new ArrayList<>(entries.size());
+            entries.forEach((key, entry) -> candidates.add(new EvictionCandidate(key, entry, entry.accesses.sum(), entry.lastAccess)));
+            final Comparator<EvictionCandidate> byAccess = Comparator.comparingLong(EvictionCandidate::lastAccess);
+            candidates.sort(policy.getEviction() == ChemDBCachePolicy.Eviction.LFU
+                    ? Comparator.comparingLong(EvictionCandidate::accesses).thenComparing(byAccess)
+                    : byAccess);
+
+            final long target = (long) (policy.getMaxDiskBytes() * LOW_WATERMARK);
+            for (EvictionCandidate candidate : candidates) {
+                if (diskBytes.get() <= target)
+                    break;
+                cacheStorage.deleteBlob(Path.of(candidate.key()));
+                if (entries.remove(candidate.key(), candidate.entry())) {
+                    diskBytes.addAndGet(-candidate.entry().size);
+                    evictions.increment();
+                }
+            }
+        }
+    }
+    //endregion
+
+    /**
+     * @return snapshot of the access statistics of this cache
+     */
+    public Stats getStats() {
+        return new Stats(hits.sum(), heapHits.sum(), misses.sum(), bytesServed.sum(), evictions.sum(),
+                policy.isDiskBounded() ? diskBytes.get() : -1, heapTier != null ? heapTier.size() : 0);
+    }
+
+    /**
+     * @param hits        requests served from the cache storage
+     * @param heapHits    requests served from the heap tier
+     * @param misses      requests that had to be fetched from the structure provider
+     * @param bytesServed (compressed) bytes read from the cache storage
+     * @param evictions   blobs deleted from the cache storage to stay within the disk budget
+     * @param diskBytes   bytes occupied in the cache storage, -1 if the disk size is not bounded (not tracked)
+     * @param heapSize    number of formulas in the heap tier
+     */
+    public record Stats(long hits, long heapHits, long misses, long bytesServed, long evictions, long diskBytes, int heapSize) {
+        public long requests() {
+            return hits + heapHits + misses;
+        }
+
+        public double hitRate() {
+            final long requests = requests();
+            return requests == 0 ? 0d : (double) (hits + heapHits) / requests;
+        }
+    }
+}
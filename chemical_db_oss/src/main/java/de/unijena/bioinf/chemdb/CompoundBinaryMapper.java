@@ -0,0 +1,299 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.chemdb;
+
+import de.unijena.bioinf.ChemistryBase.chem.InChI;
+import de.unijena.bioinf.ChemistryBase.fp.ArrayFingerprint;
+import de.unijena.bioinf.ChemistryBase.fp.FPIter;
+import de.unijena.bioinf.ChemistryBase.fp.FingerprintVersion;
+import de.unijena.bioinf.babelms.CloseableIterator;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import it.unimi.dsi.fastutil.shorts.ShortArrayList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.NoSuchElementException;
+import java.util.function.IntFunction;
+
+/**
+ * Versioned binary columnar format for the candidate list of a single formula.
+ * <p>
+ * All strings (InChIs, SMILES, names, link names and ids) are stored once in a string table and referenced by index.
+ * Numeric properties are stored as columns and the fingerprints as consecutive runs of their short indices.
+ * A {@link Candidates} view works directly on a (possibly memory mapped) {@link ByteBuffer}, allowing to filter
+ * candidates, e.g. by their bitset, without materializing them.
+ * <pre>
+ * int magic, int version, int numberOfCandidates
+ * string table:  int numberOfStrings, int[numberOfStrings + 1] byte offsets, utf8 bytes
+ * columns:       int[n] inchi, int[n] inchikey, int[n] name, int[n] smiles (string ids, -1 for null)
+ *                int[n] pLayer, int[n] qLayer, double[n] xlogp, long[n] bitset
+ * fingerprints:  int[n + 1] offsets, short[] indices
+ * links:         int[n + 1] offsets, int[] name ids, int[] id ids
+ * pubmed ids:    int[n + 1] offsets, int[] ids
+ * </pre>
+ */
+public class CompoundBinaryMapper extends CompoundReader {
+    public static final int MAGIC = 0x46504342; // FPCB
+    public static final int VERSION = 1;
+
+    public static void toBinary(List<? extends CompoundCandidate> candidates, OutputStream outputStream) throws IOException {
+        final int n = candidates.size();
+        final Object2IntOpenHashMap<String> stringIds = new Object2IntOpenHashMap<>();
+        stringIds.defaultReturnValue(-1);
+        final List<byte[]> strings = new ArrayList<>();
+        final int[] inchis = new int[n], keys = new int[n], names = new int[n], smiles = new int[n];
+        final IntArrayList linkOffsets = new IntArrayList(n + 1), linkNames = new IntArrayList(), linkIds = new IntArrayList();
+        final IntArrayList fpOffsets = new IntArrayList(n + 1), pubmedOffsets = new IntArrayList(n + 1), pubmedIds = new IntArrayList();
+        final ShortArrayList fpIndices = new ShortArrayList();
+
+        for (int i = 0; i < n; ++i) {
+            final CompoundCandidate c = candidates.get(i);
+            inchis[i] = stringId(c.inchi != null ? c.inchi.in3D : null, stringIds, strings);
+            keys[i] = stringId(c.inchikey, stringIds, strings);
+            names[i] = stringId(c.name, stringIds, strings);
+            smiles[i] = stringId(c.smiles, stringIds, strings);
+
+            fpOffsets.add(fpIndices.size());
+            if (c instanceof FingerprintCandidate fc && fc.fingerprint != null) {
+                for (FPIter it : fc.fingerprint.presentFingerprints())
+                    fpIndices.add((short) it.getIndex());
+            }
+            linkOffsets.add(linkNames.size());
+            if (c.links != null) {
+                for (DBLink link : c.links) {
+                    linkNames.add(stringId(link.getName(), stringIds, strings));
+                    linkIds.add(stringId(link.getId(), stringIds, strings));
+                }
+            }
+            pubmedOffsets.add(pubmedIds.size());
+            if (c.pubmedIDs != null)
+                pubmedIds.addElements(pubmedIds.size(), c.pubmedIDs.getCopyOfPubmedIDs());
+        }
+        fpOffsets.add(fpIndices.size());
+        linkOffsets.add(linkNames.size());
+        pubmedOffsets.add(pubmedIds.size());
+
+        final DataOutputStream out = new DataOutputStream(new BufferedOutputStream(outputStream));
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeInt(n);
+
+        out.writeInt(strings.size());
+        int offset = 0;
+        out.writeInt(offset);
+        for (byte[] s : strings) {
+            offset += s.length;
+            out.writeInt(offset);
+        }
+        for (byte[] s : strings)
+            out.write(s);
+
+        writeInts(out, inchis);
+        writeInts(out, keys);
+        writeInts(out, names);
+        writeInts(out, smiles);
+        for (CompoundCandidate c : candidates) out.writeInt(c.pLayer);
+        for (CompoundCandidate c : candidates) out.writeInt(c.qLayer);
+        for (CompoundCandidate c : candidates) out.writeDouble(c.xlogp);
+        for (CompoundCandidate c : candidates) out.writeLong(c.bitset);
+
+        writeInts(out, fpOffsets.toIntArray());
+        for (int k = 0; k < fpIndices.size(); ++k) out.writeShort(fpIndices.getShort(k));
+        writeInts(out, linkOffsets.toIntArray());
+        writeInts(out, linkNames.toIntArray());
+        writeInts(out, linkIds.toIntArray());
+        writeInts(out, pubmedOffsets.toIntArray());
+        writeInts(out, pubmedIds.toIntArray());
+        out.flush();
+    }
+
+    private static int stringId(@Nullable String s, Object2IntOpenHashMap<String> stringIds, List<byte[]> strings) {
+        if (s == null)
+            return -1;
+        int id = stringIds.getInt(s);
+        if (id < 0) {
+            id = strings.size();
+            stringIds.put(s, id);
+            strings.add(s.getBytes(StandardCharsets.UTF_8));
+        }
+        return id;
+    }
+
+    private static void writeInts(DataOutputStream out, int[] values) throws IOException {
+        for (int v : values) out.writeInt(v);
+    }
+
+    @Override
+    public CloseableIterator<CompoundCandidate> readCompounds(InputStream reader) throws IOException {
+        final Candidates candidates = read(reader);
+        return new READ<>(candidates.size(), candidates::getCompound);
+    }
+
+    @Override
+    public CloseableIterator<FingerprintCandidate> readFingerprints(FingerprintVersion version, InputStream reader) throws IOException {
+        final Candidates candidates = read(reader);
+        return new READ<>(candidates.size(), i -> candidates.getFingerprintCandidate(i, version));
+    }
+
+    public static Candidates read(InputStream in) throws IOException {
+        return new Candidates(ByteBuffer.wrap(in.readAllBytes()));
+    }
+
+    /**
+     * Read-only view on a binary candidate list. Candidates are materialized on request only.
+     */
+    public static class Candidates {
+        private final ByteBuffer buffer;
+        private final int size;
+        private final int stringOffsets, stringData;
+        private final int inchis, keys, names, smiles, pLayers, qLayers, xlogps, bitsets;
+        private final int fpOffsets, fpIndices;
+        private final int linkOffsets, linkNames, linkIds;
+        private final int pubmedOffsets, pubmedIds;
+
+        public Candidates(@NotNull ByteBuffer buffer) throws IOException {
+            this.buffer = buffer;
+            final int base = buffer.position();
+            if (buffer.getInt(base) != MAGIC)
+                throw new IOException("Not a binary candidate list.");
+            final int version = buffer.getInt(base + 4);
+            if (version != VERSION)
+                throw new IOException("Unsupported binary candidate list version " + version + ". Expected version " + VERSION + ".");
+            size = buffer.getInt(base + 8);
+            final int numberOfStrings = buffer.getInt(base + 12);
+            stringOffsets = base + 16;
+            stringData = stringOffsets + (numberOfStrings + 1) * Integer.BYTES;
+
+            int p = stringData + buffer.getInt(stringOffsets + numberOfStrings * Integer.BYTES);
+            inchis = p;
+            keys = inchis + size * Integer.BYTES;
+            names = keys + size * Integer.BYTES;
+            smiles = names + size * Integer.BYTES;
+            pLayers = smiles + size * Integer.BYTES;
+            qLayers = pLayers + size * Integer.BYTES;
+            xlogps = qLayers + size * Integer.BYTES;
+            bitsets = xlogps + size * Double.BYTES;
+            fpOffsets = bitsets + size * Long.BYTES;
+            fpIndices = fpOffsets + (size + 1) * Integer.BYTES;
+            linkOffsets = fpIndices + buffer.getInt(fpOffsets + size * Integer.BYTES) * Short.BYTES;
+            final int numberOfLinks = buffer.getInt(linkOffsets + size * Integer.BYTES);
+            linkNames = linkOffsets + (size + 1) * Integer.BYTES;
+            linkIds = linkNames + numberOfLinks * Integer.BYTES;
+            pubmedOffsets = linkIds + numberOfLinks * Integer.BYTES;
+            pubmedIds = pubmedOffsets + (size + 1) * Integer.BYTES;
+            if (pubmedIds + buffer.getInt(pubmedOffsets + size * Integer.BYTES) * Integer.BYTES > buffer.limit())
+                throw new IOException("Binary candidate list is truncated.");
+        }
+
+        public int size() {
+            return size;
+        }
+
+        @Nullable
+        private String string(int column, int i) {
+            final int id = buffer.getInt(column + i * Integer.BYTES);
+            if (id < 0)
+                return null;
+            final int from = buffer.getInt(stringOffsets + id * Integer.BYTES), to = buffer.getInt(stringOffsets + (id + 1) * Integer.BYTES);
+            final byte[] bytes = new byte[to - from];
+            buffer.get(stringData + from, bytes);
+            return new String(bytes, StandardCharsets.UTF_8);
+        }
+
+        private int offset(int offsets, int i) {
+            return buffer.getInt(offsets + i * Integer.BYTES);
+        }
+
+        public String getInchiKey(int i) {
+            return string(keys, i);
+        }
+
+        public long getBitset(int i) {
+            return buffer.getLong(bitsets + i * Long.BYTES);
+        }
+
+        public short[] getFingerprintIndices(int i) {
+            final int from = offset(fpOffsets, i), to = offset(fpOffsets, i + 1);
+            final short[] indices = new short[to - from];
+            for (int k = 0; k < indices.length; ++k)
+                indices[k] = buffer.getShort(fpIndices + (from + k) * Short.BYTES);
+            return indices;
+        }
+
+        public CompoundCandidate getCompound(int i) {
+            final String inchi = string(inchis, i), inchikey = getInchiKey(i);
+            final int linkFrom = offset(linkOffsets, i), linkTo = offset(linkOffsets, i + 1);
+            final DBLink[] links = new DBLink[linkTo - linkFrom];
+            for (int k = 0; k < links.length; ++k)
+                links[k] = new DBLink(string(linkNames, linkFrom + k), string(linkIds, linkFrom + k));
+            final int pubmedFrom = offset(pubmedOffsets, i), pubmedTo = offset(pubmedOffsets, i + 1);
+            PubmedLinks pubmed = null;
+            if (pubmedTo > pubmedFrom) {
+                final int[] ids = new int[pubmedTo - pubmedFrom];
+                for (int k = 0; k < ids.length; ++k)
+                    ids[k] = buffer.getInt(pubmedIds + (pubmedFrom + k) * Integer.BYTES);
+                pubmed = new PubmedLinks(ids);
+            }
+            return new CompoundCandidate(
+                    (inchi != null && inchikey != null) ? new InChI(inchikey, inchi) : null,
+                    string(names, i), string(smiles, i),
+                    buffer.getInt(pLayers + i * Integer.BYTES), buffer.getInt(qLayers + i * Integer.BYTES),
+                    buffer.getDouble(xlogps + i * Double.BYTES), getBitset(i), links, pubmed);
+        }
+
+        public FingerprintCandidate getFingerprintCandidate(int i, @Nullable FingerprintVersion version) {
+            return new FingerprintCandidate(getCompound(i), version == null ? null : new ArrayFingerprint(version, getFingerprintIndices(i)));
+        }
+    }
+
+    private static class READ<C extends CompoundCandidate> implements CloseableIterator<C> {
+        private final int size;
+        private final IntFunction<C> materialize;
+        private int next = 0;
+
+        private READ(int size, IntFunction<C> materialize) {
+            this.size = size;
+            this.materialize = materialize;
+        }
+
+        @Override
+        public boolean hasNext() {
+            return next < size;
+        }
+
+        @Override
+        public C next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            return materialize.apply(next++);
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
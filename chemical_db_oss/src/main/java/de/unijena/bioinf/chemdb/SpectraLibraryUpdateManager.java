@@ -81,8 +81,9 @@ public class SpectraLibraryUpdateManager {
 
         @Override
         protected Object compute() throws Exception {
+            List<JJob<Object>> jobs = new ArrayList<>(toUpdate.length);
             for (Index index : toUpdate) {
-                submitSubJob(new BasicMasterJJob<Object>(JobType.CPU) {
+                jobs.add(submitSubJob(new BasicMasterJJob<Object>(JobType.CPU) {
                     @Override
                     protected Object compute() throws Exception {
                         // 1.) collect all spectra with same index
@@ -142,8 +143,13 @@ public class SpectraLibraryUpdateManager {
                         writer.insertMergedSpecAndTree(merged, refTree);
                         return null;
                     }
-                });
+                }));
             }
+            for (JJob<Object> job : jobs)
+                job.takeResult();
+            // merged spectra have changed, so the analog search index has to be rebuilt
+            if (toUpdate.length > 0)
+                writer.buildPeakIndex();
             return null;
         }
     }
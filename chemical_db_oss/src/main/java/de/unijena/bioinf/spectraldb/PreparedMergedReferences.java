@@ -0,0 +1,55 @@
+package de.unijena.bioinf.spectraldb;
+
+import de.unijena.bioinf.spectraldb.entities.MergedReferenceSpectrum;
+import de.unijena.bionf.fastcosine.PackedSpectra;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.IntPredicate;
+
+/**
+ * Merged reference spectra together with their upper bound spectra packed into one block. Preparing the references
+ * once allows to search many queries against them, see
+ * {@link SpectralLibrary#queryAgainstLibraryByMergedReference(PreparedMergedReferences, IntPredicate, SpectralLibrarySearchSettings, List, de.unijena.bionf.fastcosine.SearchPreparedSpectrum)}.
+ */
+public final class PreparedMergedReferences {
+
+    @Getter
+    private final List<MergedReferenceSpectrum> references;
+    /**
+     * upper bound spectrum of the k-th reference at position k
+     */
+    @Getter
+    private final PackedSpectra upperBounds;
+
+    private PreparedMergedReferences(List<MergedReferenceSpectrum> references, PackedSpectra upperBounds) {
+        this.references = references;
+        this.upperBounds = upperBounds;
+    }
+
+    public static PreparedMergedReferences of(List<MergedReferenceSpectrum> references) {
+        return new PreparedMergedReferences(references, PackedSpectra.of(references.stream()
+                .map(r -> r.getSearchPreparedSpectrum().asUpperboundSearchPreparedSpectrum()).toList()));
+    }
+
+    public int size() {
+        return references.size();
+    }
+
+    public MergedReferenceSpectrum get(int index) {
+        return references.get(index);
+    }
+
+    /**
+     * @return the references accepted by the selection, in their order
+     */
+    public List<MergedReferenceSpectrum> select(IntPredicate selection) {
+        final List<MergedReferenceSpectrum> selected = new ArrayList<>();
+        for (int k = 0; k < references.size(); ++k) {
+            if (selection.test(k))
+                selected.add(references.get(k));
+        }
+        return selected;
+    }
+}
@@ -36,6 +36,7 @@ import org.jetbrains.annotations.Nullable;
 import java.io.IOException;
 import java.util.List;
 import java.util.function.Consumer;
+import java.util.function.IntPredicate;
 import java.util.stream.Stream;
 
 public interface SpectralLibrary {
@@ -80,6 +81,14 @@ public interface SpectralLibrary {
     Stream<LibraryHit> queryAgainstLibraryByMergedReference(List<MergedReferenceSpectrum> mergedRefQueries, SpectralLibrarySearchSettings settings, @NotNull List<SearchPreparedSpectrum> query, @Nullable SearchPreparedSpectrum mergedQuery) throws IOException;
     Stream<LibraryHit> queryAgainstLibraryByMergedReference(MergedReferenceSpectrum mergedRefQuery, SpectralLibrarySearchSettings settings, @NotNull List<SearchPreparedSpectrum> query, @Nullable SearchPreparedSpectrum mergedQuery) throws IOException;
 
+    /**
+     * Searches the query against the prepared references accepted by the selection (by index into the prepared
+     * references). The references are prepared once, such that many queries can be searched against them.
+     */
+    default Stream<LibraryHit> queryAgainstLibraryByMergedReference(PreparedMergedReferences mergedRefs, IntPredicate selection, SpectralLibrarySearchSettings settings, @NotNull List<SearchPreparedSpectrum> query, @Nullable SearchPreparedSpectrum mergedQuery) throws IOException {
+        return queryAgainstLibraryByMergedReference(mergedRefs.select(selection), settings, query, mergedQuery);
+    }
+
     /*
     Other methods
      */
@@ -0,0 +1,318 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.spectraldb;
+
+import de.unijena.bioinf.ChemistryBase.ms.Deviation;
+import de.unijena.bioinf.spectraldb.entities.MergedReferenceSpectrum;
+import de.unijena.bioinf.spectraldb.entities.SpectralPeakIndexChunk;
+import de.unijena.bionf.fastcosine.SearchPreparedMergedSpectrum;
+import de.unijena.bionf.fastcosine.SearchPreparedSpectrum;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import lombok.Getter;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Inverted index from binned fragment m/z and neutral loss (precursor m/z - fragment m/z) values to merged reference spectra.
+ * <p>
+ * Each posting stores the maximum intensity a reference peak can have in the merged spectrum or in any of its individual spectra.
+ * For a query spectrum, summing up query intensity times the maximum reference intensity within the mass window of
+ * each query peak yields an upper bound of the (modified) cosine, because every query peak is assigned to at most
+ * one reference peak. References whose upper bound does not exceed the search thresholds never have to be loaded.
+ */
+public class SpectralPeakIndex {
+
+    /**
+     * Width of a m/z bin. Bins are only used to find candidates, the exact mass deviation is checked
+     * by the cosine computation afterwards.
+     */
+    public static final double BIN_WIDTH = 0.01d;
+
+    /**
+     * Number of bins persisted in one {@link SpectralPeakIndexChunk}
+     */
+    private static final int BINS_PER_CHUNK = 1000;
+
+    @Getter
+    private final long[] referenceUuids;
+    @Getter
+    private final Deviation maxDeviation;
+    /**
+     * Number of merged reference spectra the index was built from (including spectra without peaks).
+     */
+    @Getter
+    private final int numberOfSpectra;
+
+    private final Postings fragments, losses;
+
+    private SpectralPeakIndex(int numberOfSpectra, long[] referenceUuids, Deviation maxDeviation, Postings fragments, Postings losses) {
+        this.numberOfSpectra = numberOfSpectra;
+        this.referenceUuids = referenceUuids;
+        this.maxDeviation = maxDeviation;
+        this.fragments = fragments;
+        this.losses = losses;
+    }
+
+    public int numberOfReferences() {
+        return referenceUuids.length;
+    }
+
+    /**
+     * Computes upper bounds of the similarity between the given query and all indexed references.
+     *
+     * @param query           the query spectrum
+     * @param useNeutralLosses if true, shifted peak matches (modified cosine) are taken into account
+     * @return the candidate references with their upper bound. References without any shared peak are not reported.
+     */
+    public Candidates upperBounds(SearchPreparedSpectrum query, boolean useNeutralLosses) {
+        final int n = referenceUuids.length;
+        final float[] bounds = new float[n];
+        final int[] sharedPeaks = new int[n];
+        final float[] peakMax = new float[n];
+        final IntArrayList touched = new IntArrayList();
+        final IntArrayList candidates = new IntArrayList();
+
+        for (int i = 0; i < query.size(); ++i) {
+            final double mz = query.getMzAt(i);
+            collectWindow(fragments, mz, maxDeviation.absoluteFor(mz), peakMax, touched);
+            if (useNeutralLosses) {
+                final double loss = query.getParentMass() - mz;
+                if (loss > 0) collectWindow(losses, loss, maxDeviation.absoluteFor(loss), peakMax, touched);
+            }
+            final float queryIntensity = (float) query.getIntensityAt(i);
+            for (int k = 0; k < touched.size(); ++k) {
+                final int ref = touched.getInt(k);
+                if (sharedPeaks[ref] == 0) candidates.add(ref);
+                bounds[ref] += queryIntensity * peakMax[ref];
+                ++sharedPeaks[ref];
+                peakMax[ref] = 0f;
+            }
+            touched.clear();
+        }
+
+        final long[] uuids = new long[candidates.size()];
+        final float[] candidateBounds = new float[candidates.size()];
+        final int[] candidatePeaks = new int[candidates.size()];
+        for (int k = 0; k < candidates.size(); ++k) {
+            final int ref = candidates.getInt(k);
+            uuids[k] = referenceUuids[ref];
+            // rounding errors of the float sum must not make the bound smaller than the exact score
+            candidateBounds[k] = Math.min(1f, bounds[ref] * (1f + 1e-5f));
+            candidatePeaks[k] = sharedPeaks[ref];
+        }
+        return new Candidates(uuids, candidateBounds, candidatePeaks);
+    }
+
+    private static void collectWindow(Postings postings, double mz, double dev, float[] peakMax, IntArrayList touched) {
+        final int fromBin = binOf(mz - dev), toBin = binOf(mz + dev);
+        int b = Arrays.binarySearch(postings.bins, fromBin);
+        if (b < 0) b = -b - 1;
+        for (; b < postings.bins.length && postings.bins[b] <= toBin; ++b) {
+            for (int p = postings.offsets[b], end = postings.offsets[b + 1]; p < end; ++p) {
+                final int ref = postings.references[p];
+                final float intensity = postings.intensities[p];
+                if (peakMax[ref] == 0f) touched.add(ref);
+                if (intensity > peakMax[ref]) peakMax[ref] = intensity;
+            }
+        }
+    }
+
+    static int binOf(double mz) {
+        return (int) Math.floor(mz / BIN_WIDTH);
+    }
+
+    /**
+     * Upper bounds for the references that share at least one peak with the query.
+     */
+    public record Candidates(long[] uuids, float[] upperBounds, int[] maxSharedPeaks) {
+        public int size() {
+            return uuids.length;
+        }
+
+        public boolean mightExceed(int index, SpectralLibrarySearchSettings settings) {
+            return upperBounds[index] >= settings.getMinSimilarity() && maxSharedPeaks[index] >= settings.getMinNumOfPeaks();
+        }
+    }
+
+    /**
+     * Postings in compressed sparse row layout: bins are sorted and the postings of bins[i] are stored
+     * at the positions offsets[i] until offsets[i+1].
+     */
+    private record Postings(int[] bins, int[] offsets, int[] references, float[] intensities) {
+        private static Postings of(IntArrayList bins, IntArrayList references, FloatArrayList intensities) {
+            final int n = bins.size();
+            // bins are never negative, so sorting (bin, position) pairs packed into a long avoids boxing
+            final long[] order = new long[n];
+            for (int k = 0; k < n; ++k) order[k] = ((long) bins.getInt(k) << 32) | k;
+            Arrays.sort(order);
+
+            final IntArrayList distinctBins = new IntArrayList();
+            final IntArrayList offsets = new IntArrayList();
+            final int[] refs = new int[n];
+            final float[] intens = new float[n];
+            for (int k = 0; k < n; ++k) {
+                final int bin = (int) (order[k] >>> 32);
+                final int pos = (int) order[k];
+                if (distinctBins.isEmpty() || distinctBins.getInt(distinctBins.size() - 1) != bin) {
+                    distinctBins.add(bin);
+                    offsets.add(k);
+                }
+                refs[k] = references.getInt(pos);
+                intens[k] = intensities.getFloat(pos);
+            }
+            offsets.add(n);
+            return new Postings(distinctBins.toIntArray(), offsets.toIntArray(), refs, intens);
+        }
+    }
+
+    /*
+    Persistence
+     */
+
+    /**
+     * Splits the index into chunks of consecutive bins that can be stored as documents next to the spectra.
+     */
+    public List<SpectralPeakIndexChunk> toChunks() {
+        final List<SpectralPeakIndexChunk> chunks = new ArrayList<>();
+        toChunks(fragments, false, chunks);
+        toChunks(losses, true, chunks);
+        return chunks;
+    }
+
+    private void toChunks(Postings postings, boolean neutralLoss, List<SpectralPeakIndexChunk> chunks) {
+        int b = 0;
+        while (b < postings.bins.length) {
+            final int chunkId = Math.floorDiv(postings.bins[b], BINS_PER_CHUNK);
+            int e = b;
+            while (e < postings.bins.length && Math.floorDiv(postings.bins[e], BINS_PER_CHUNK) == chunkId) ++e;
+
+            final int from = postings.offsets[b], to = postings.offsets[e];
+            final int[] bins = new int[to - from];
+            final long[] uuids = new long[to - from];
+            final float[] intensities = Arrays.copyOfRange(postings.intensities, from, to);
+            for (int k = b; k < e; ++k) {
+                Arrays.fill(bins, postings.offsets[k] - from, postings.offsets[k + 1] - from, postings.bins[k]);
+            }
+            for (int p = from; p < to; ++p) uuids[p - from] = referenceUuids[postings.references[p]];
+
+            SpectralPeakIndexChunk chunk = new SpectralPeakIndexChunk();
+            chunk.setNeutralLoss(neutralLoss);
+            chunk.setNumberOfSpectra(numberOfSpectra);
+            chunk.setBins(bins);
+            chunk.setReferenceUuids(uuids);
+            chunk.setIntensities(intensities);
+            chunks.add(chunk);
+            b = e;
+        }
+    }
+
+    /**
+     * Restores an index from its persisted chunks.
+     */
+    public static SpectralPeakIndex fromChunks(Iterable<SpectralPeakIndexChunk> chunks, Deviation maxDeviation) {
+        final Long2IntOpenHashMap refIndex = new Long2IntOpenHashMap();
+        refIndex.defaultReturnValue(-1);
+        final LongArrayList uuids = new LongArrayList();
+        final IntArrayList[] bins = new IntArrayList[]{new IntArrayList(), new IntArrayList()};
+        final IntArrayList[] refs = new IntArrayList[]{new IntArrayList(), new IntArrayList()};
+        final FloatArrayList[] intensities = new FloatArrayList[]{new FloatArrayList(), new FloatArrayList()};
+
+        int numberOfSpectra = 0;
+        for (SpectralPeakIndexChunk chunk : chunks) {
+            numberOfSpectra = chunk.getNumberOfSpectra();
+            final int t = chunk.isNeutralLoss() ? 1 : 0;
+            for (int p = 0; p < chunk.getBins().length; ++p) {
+                final long uuid = chunk.getReferenceUuids()[p];
+                int ref = refIndex.get(uuid);
+                if (ref < 0) {
+                    ref = uuids.size();
+                    refIndex.put(uuid, ref);
+                    uuids.add(uuid);
+                }
+                bins[t].add(chunk.getBins()[p]);
+                refs[t].add(ref);
+                intensities[t].add(chunk.getIntensities()[p]);
+            }
+        }
+        return new SpectralPeakIndex(numberOfSpectra, uuids.toLongArray(), maxDeviation,
+                Postings.of(bins[0], refs[0], intensities[0]), Postings.of(bins[1], refs[1], intensities[1]));
+    }
+
+    /*
+    Construction
+     */
+
+    public static Builder builder(Deviation maxDeviation) {
+        return new Builder(maxDeviation);
+    }
+
+    public static class Builder {
+        private final Deviation maxDeviation;
+        private final LongArrayList uuids = new LongArrayList();
+        private final IntArrayList fragmentBins = new IntArrayList(), fragmentRefs = new IntArrayList();
+        private final FloatArrayList fragmentIntensities = new FloatArrayList();
+        private final IntArrayList lossBins = new IntArrayList(), lossRefs = new IntArrayList();
+        private final FloatArrayList lossIntensities = new FloatArrayList();
+        private int numberOfSpectra = 0;
+
+        private Builder(Deviation maxDeviation) {
+            this.maxDeviation = maxDeviation;
+        }
+
+        /**
+         * Adds a merged reference spectrum. The spectrum has to be loaded with its search prepared spectrum.
+         */
+        public Builder add(MergedReferenceSpectrum reference) {
+            ++numberOfSpectra;
+            final SearchPreparedMergedSpectrum merged = reference.getSearchPreparedSpectrum();
+            if (merged == null || merged.size() == 0) return this;
+            final SearchPreparedSpectrum upperBound = merged.asUpperboundSearchPreparedSpectrum();
+            final int ref = uuids.size();
+            uuids.add(reference.getUuid());
+            for (int k = 0; k < merged.size(); ++k) {
+                final double mz = merged.getMzAt(k);
+                // the bound has to hold for the merged spectrum and for each of the individual spectra
+                final float intensity = (float) Math.max(merged.getIntensityAt(k), upperBound.getIntensityAt(k));
+                fragmentBins.add(binOf(mz));
+                fragmentRefs.add(ref);
+                fragmentIntensities.add(intensity);
+                final double loss = merged.getParentMass() - mz;
+                if (loss > 0) {
+                    lossBins.add(binOf(loss));
+                    lossRefs.add(ref);
+                    lossIntensities.add(intensity);
+                }
+            }
+            return this;
+        }
+
+        public SpectralPeakIndex build() {
+            return new SpectralPeakIndex(numberOfSpectra, uuids.toLongArray(), maxDeviation,
+                    Postings.of(fragmentBins, fragmentRefs, fragmentIntensities),
+                    Postings.of(lossBins, lossRefs, lossIntensities));
+        }
+    }
+}
@@ -36,4 +36,11 @@ public interface WriteableSpectralLibrary {
 
     void insertMergedSpecAndTree(MergedReferenceSpectrum merged, ReferenceFragmentationTree refTree) throws IOException;
 
+    /**
+     * Builds search indices over the merged spectra (e.g. for analog search). Called after all merged spectra have been inserted.
+     * Libraries without such indices do not need to do anything.
+     */
+    default void buildPeakIndex() throws IOException {
+    }
+
 }
@@ -0,0 +1,44 @@
+package de.unijena.bioinf.spectraldb.entities;
+
+import jakarta.persistence.Id;
+import lombok.Getter;
+import lombok.NoArgsConstructor;
+import lombok.Setter;
+
+/**
+ * Persisted part of a {@link de.unijena.bioinf.spectraldb.SpectralPeakIndex}.
+ * Contains the postings of a range of consecutive m/z (or neutral loss) bins, ordered by bin.
+ */
+@Getter
+@Setter
+@NoArgsConstructor
+public class SpectralPeakIndexChunk {
+
+    @Id
+    private long id;
+
+    /**
+     * true if the bins are neutral losses to the precursor, false if they are fragment m/z values
+     */
+    private boolean neutralLoss;
+
+    /**
+     * Number of merged reference spectra the index was built from. Used to detect outdated indices.
+     */
+    private int numberOfSpectra;
+
+    /**
+     * bin of each posting
+     */
+    private int[] bins;
+
+    /**
+     * uuid of the {@link MergedReferenceSpectrum} of each posting
+     */
+    private long[] referenceUuids;
+
+    /**
+     * maximum intensity of the reference peak in the merged or any individual spectrum
+     */
+    private float[] intensities;
+}
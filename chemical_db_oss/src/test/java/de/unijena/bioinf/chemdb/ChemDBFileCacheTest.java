@@ -0,0 +1,255 @@
+package de.unijena.bioinf.chemdb;
+
+import de.unijena.bioinf.ChemistryBase.chem.InChI;
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.fp.ArrayFingerprint;
+import de.unijena.bioinf.ChemistryBase.fp.CdkFingerprintVersion;
+import de.unijena.bioinf.storage.blob.Compressible;
+import de.unijena.bioinf.storage.blob.memory.InMemoryBlobStorage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.BooleanSupplier;
+import java.util.zip.GZIPOutputStream;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChemDBFileCacheTest {
+
+    private static final long TIMEOUT_MILLIS = 10_000;
+
+    private InMemoryBlobStorage storage;
+    private final AtomicInteger requests = new AtomicInteger();
+
+    /**
+     * returns a single candidate per formula. All candidates have the same encoded size, such that the disk budget
+     * can be expressed as multiple of a blob size.
+     */
+    private final SearchStructureByFormula provider = new SearchStructureByFormula() {
+        @Override
+        public <T extends Collection<FingerprintCandidate>> T lookupStructuresAndFingerprintsByFormula(MolecularFormula formula, T candidates) {
+            requests.incrementAndGet();
+            final String name = formula.toString();
+            final CompoundCandidate c = new CompoundCandidate(new InChI(name + "XXXXXXX-UHFFFAOYSA-N", "InChI=1S/" + name),
+                    name, "C", 0, 0, 1.5, 8, new DBLink[]{new DBLink("PUBCHEM", name)}, null);
+            candidates.add(new FingerprintCandidate(c, new ArrayFingerprint(CdkFingerprintVersion.getDefault(), new short[]{1, 5, 42})));
+            return candidates;
+        }
+    };
+
+    // formulas whose string representations have the same length
+    private static final MolecularFormula A = MolecularFormula.parseOrThrow("C10H10O"),
+            B = MolecularFormula.parseOrThrow("C10H12O"),
+            C = MolecularFormula.parseOrThrow("C10H14O"),
+            D = MolecularFormula.parseOrThrow("C10H16O");
+
+    @BeforeEach
+    public void createStorage() {
+        storage = new InMemoryBlobStorage("cache");
+        requests.set(0);
+    }
+
+    private static Path key(MolecularFormula formula) {
+        return Path.of(formula + ".fpcb");
+    }
+
+    private static void await(BooleanSupplier condition) throws InterruptedException {
+        final long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.getAsBoolean() && System.currentTimeMillis() < deadline)
+            Thread.sleep(10);
+        assertTrue(condition.getAsBoolean(), "timeout");
+    }
+
+    private boolean cached(MolecularFormula formula) {
+        try {
+            return storage.hasBlob(key(formula));
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    /**
+     * requests the formula and waits until it has been written to the cache storage in the background. Written blobs
+     * are accounted after writing, so a bounded cache is done when its disk size or its number of evictions changed.
+     */
+    private void request(ChemDBFileCache cache, MolecularFormula formula) throws Exception {
+        final boolean wasCached = cached(formula);
+        final ChemDBFileCache.Stats before = cache.getStats();
+        assertEquals(formula.toString(), cache.lookupStructuresAndFingerprintsByFormula(formula).get(0).getName());
+        if (wasCached)
+            return;
+        if (cache.getPolicy().isDiskBounded())
+            await(() -> cache.getStats().diskBytes() != before.diskBytes() || cache.getStats().evictions() != before.evictions());
+        else
+            await(() -> cached(formula));
+    }
+
+    /**
+     * requests the formula and waits until caching it evicted a blob
+     */
+    private void requestAndEvict(ChemDBFileCache cache, MolecularFormula formula) throws Exception {
+        final long evictions = cache.getStats().evictions();
+        assertEquals(formula.toString(), cache.lookupStructuresAndFingerprintsByFormula(formula).get(0).getName());
+        await(() -> cache.getStats().evictions() > evictions);
+    }
+
+    private long blobSize() throws Exception {
+        final ChemDBFileCache cache = new ChemDBFileCache(storage, provider, Compressible.Compression.NONE);
+        request(cache, A);
+        final long size = storage.listBlobs().next().size();
+        storage.deleteBlob(key(A));
+        return size;
+    }
+
+    private ChemDBFileCache boundedCache(ChemDBCachePolicy.Eviction eviction, long maxDiskBytes) {
+        return new ChemDBFileCache(storage, provider, Compressible.Compression.NONE, ChemDBCachePolicy.builder()
+                .maxDiskBytes(maxDiskBytes).eviction(eviction).build());
+    }
+
+    /**
+     * A is requested often but not recently, B once and not recently. With a budget of three and a half blobs,
+     * caching D evicts A under LRU and B under LFU.
+     */
+    private ChemDBFileCache fillCache(ChemDBCachePolicy.Eviction eviction) throws Exception {
+        final long size = blobSize();
+        final ChemDBFileCache cache = boundedCache(eviction, size * 7 / 2);
+        request(cache, A);
+        for (int i = 0; i < 3; ++i) request(cache, A);
+        request(cache, B);
+        request(cache, C);
+        request(cache, C);
+        assertEquals(0, cache.getStats().evictions());
+        assertEquals(3 * size, cache.getStats().diskBytes());
+        requestAndEvict(cache, D);
+        assertEquals(1, cache.getStats().evictions());
+        assertEquals(3 * size, cache.getStats().diskBytes());
+        return cache;
+    }
+
+    @Test
+    public void testLRUEvictsLeastRecentlyUsed() throws Exception {
+        fillCache(ChemDBCachePolicy.Eviction.LRU);
+        assertFalse(cached(A));
+        assertTrue(cached(B));
+        assertTrue(cached(C));
+        assertTrue(cached(D));
+    }
+
+    @Test
+    public void testLFUEvictsLeastFrequentlyUsed() throws Exception {
+        fillCache(ChemDBCachePolicy.Eviction.LFU);
+        assertTrue(cached(A));
+        assertFalse(cached(B));
+        assertTrue(cached(C));
+        assertTrue(cached(D));
+    }
+
+    @Test
+    public void testPreExistingBlobsAreIndexedAndEvictedFirst() throws Exception {
+        final long size = blobSize();
+        final ChemDBFileCache previousRun = new ChemDBFileCache(storage, provider, Compressible.Compression.NONE);
+        request(previousRun, A);
+        request(previousRun, B);
+
+        for (ChemDBCachePolicy.Eviction eviction : ChemDBCachePolicy.Eviction.values()) {
+            final ChemDBFileCache cache = boundedCache(eviction, size * 7 / 2);
+            request(cache, C);
+            // indexing happens on first access and accounts the blobs one by one
+            await(() -> cache.getStats().diskBytes() == 3 * size);
+            request(cache, C); // C is used more often and more recently than the indexed blobs
+            requestAndEvict(cache, D);
+            assertEquals(1, cache.getStats().evictions(), eviction.name());
+            assertEquals(3 * size, cache.getStats().diskBytes(), eviction.name());
+            assertTrue(cached(C) && cached(D), eviction.name());
+            assertTrue(cached(A) ^ cached(B), eviction.name());
+
+            // restore the blobs of the previous run
+            for (MolecularFormula formula : List.of(A, B, C, D)) storage.deleteBlob(key(formula));
+            request(previousRun, A);
+            request(previousRun, B);
+        }
+    }
+
+    @Test
+    public void testStatsCountHitsMissesAndBytes() throws Exception {
+        final long size = blobSize();
+        final ChemDBFileCache cache = new ChemDBFileCache(storage, provider, Compressible.Compression.NONE);
+        request(cache, A);
+        request(cache, B);
+        request(cache, A);
+        request(cache, A);
+        request(cache, B);
+
+        final ChemDBFileCache.Stats stats = cache.getStats();
+        assertEquals(3, stats.hits());
+        assertEquals(0, stats.heapHits());
+        assertEquals(2, stats.misses());
+        assertEquals(2, requests.get() - 1); // the first request was issued to measure the blob size
+        assertEquals(3 * size, stats.bytesServed());
+        assertEquals(0, stats.evictions());
+        assertEquals(-1, stats.diskBytes()); // not tracked if unbounded
+        assertEquals(0, stats.heapSize());
+        assertEquals(5, stats.requests());
+        assertEquals(0.6, stats.hitRate(), 1e-9);
+    }
+
+    @Test
+    public void testHeapTierServesRecentFormulas() throws Exception {
+        final ChemDBFileCache cache = new ChemDBFileCache(storage, provider, Compressible.Compression.NONE,
+                ChemDBCachePolicy.builder().maxHeapFormulas(1).build());
+        request(cache, A);
+        final FingerprintCandidate first = cache.lookupStructuresAndFingerprintsByFormula(A).get(0);
+        assertEquals(1, cache.getStats().heapHits());
+        assertEquals(1, cache.getStats().heapSize());
+
+        // heap hits are copies, modifying them does not alter the cache
+        first.setName("modified");
+        assertEquals(A.toString(), cache.lookupStructuresAndFingerprintsByFormula(A).get(0).getName());
+        assertEquals(2, cache.getStats().heapHits());
+
+        // B replaces A in the heap tier, A is served from the cache storage again
+        request(cache, B);
+        request(cache, A);
+        final ChemDBFileCache.Stats stats = cache.getStats();
+        assertEquals(2, stats.heapHits());
+        assertEquals(1, stats.hits());
+        assertEquals(2, stats.misses());
+        assertEquals(1, stats.heapSize());
+        assertEquals(2, requests.get());
+    }
+
+    @Test
+    public void testLegacyJsonBlobsAreMigrated() throws Exception {
+        final List<FingerprintCandidate> expected = provider.lookupStructuresAndFingerprintsByFormula(A);
+        requests.set(0);
+        storage.withWriter(Path.of(A + ".json.gz"), w -> {
+            try (GZIPOutputStream gz = new GZIPOutputStream(w)) {
+                CompoundJsonMapper.toJSONList(expected, gz);
+            }
+        });
+
+        final ChemDBFileCache cache = new ChemDBFileCache(storage, provider);
+        final List<FingerprintCandidate> migrated = cache.lookupStructuresAndFingerprintsByFormula(A);
+        assertEquals(1, migrated.size());
+        CompoundBinaryMapperTest.assertSameCandidate(expected.get(0), migrated.get(0));
+
+        final Path binaryKey = Path.of(A + ".fpcb.gz"), jsonKey = Path.of(A + ".json.gz");
+        await(() -> {
+            try {
+                return storage.hasBlob(binaryKey) && !storage.hasBlob(jsonKey);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+
+        final List<FingerprintCandidate> fromBinary = cache.lookupStructuresAndFingerprintsByFormula(A);
+        CompoundBinaryMapperTest.assertSameCandidate(expected.get(0), fromBinary.get(0));
+        assertEquals(2, cache.getStats().hits());
+        assertEquals(0, cache.getStats().misses());
+        assertEquals(0, requests.get());
+    }
+}
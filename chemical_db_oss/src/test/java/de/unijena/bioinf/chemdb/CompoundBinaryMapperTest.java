@@ -0,0 +1,150 @@
+package de.unijena.bioinf.chemdb;
+
+import de.unijena.bioinf.ChemistryBase.chem.InChI;
+import de.unijena.bioinf.ChemistryBase.fp.ArrayFingerprint;
+import de.unijena.bioinf.ChemistryBase.fp.CdkFingerprintVersion;
+import de.unijena.bioinf.ChemistryBase.fp.FingerprintVersion;
+import de.unijena.bioinf.babelms.CloseableIterator;
+import org.junit.jupiter.api.Test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CompoundBinaryMapperTest {
+
+    private static final FingerprintVersion VERSION = CdkFingerprintVersion.getDefault();
+
+    /**
+     * Candidates covering all optional fields. Links are grouped by database, since the json format groups them.
+     */
+    private static List<FingerprintCandidate> candidates() {
+        final List<FingerprintCandidate> candidates = new ArrayList<>();
+        candidates.add(new FingerprintCandidate(new CompoundCandidate(
+                new InChI("WQZGKKKJIJFFOK-GASJEMHNSA-N", "InChI=1S/C6H12O6/c7-1-2-3(8)4(9)5(10)6(11)12-2/h2-11H,1H2/t2-,3-,4+,5-,6?/m1/s1"),
+                "Glucose", "OCC1OC(O)C(O)C(O)C1O", 0, 0, -2.6, 2 | 8,
+                new DBLink[]{new DBLink("PUBCHEM", "5793"), new DBLink("PUBCHEM", "79025"), new DBLink("HMDB", "HMDB0000122")},
+                new PubmedLinks(123, 456, 789)), new ArrayFingerprint(VERSION, new short[]{0, 7, 100, 512})));
+        // same smiles, unicode name, charge layers, no links and empty pubmed ids
+        candidates.add(new FingerprintCandidate(new CompoundCandidate(
+                new InChI("RFFLAFLAYFXFSW-UHFFFAOYSA-N", "InChI=1S/C6H12O6/c7-1-2-3(8)4(9)5(10)6(11)12-2/h2-11H,1H2/p+1"),
+                "β-Glucose", "OCC1OC(O)C(O)C(O)C1O", 1, -1, 0.5, 2,
+                new DBLink[0], new PubmedLinks()), new ArrayFingerprint(VERSION, new short[]{3})));
+        // no inchi, name and smiles, links without pubmed ids, empty fingerprint
+        candidates.add(new FingerprintCandidate(new CompoundCandidate(null, null, null, 0, 0, 1d, 0,
+                new DBLink[]{new DBLink("KEGG", "C00031")}, null), new ArrayFingerprint(VERSION, new short[0])));
+        // links are not set at all
+        candidates.add(new FingerprintCandidate(new CompoundCandidate(
+                new InChI("AAAAAAAAAAAAAA-UHFFFAOYSA-N", "InChI=1S/CH4/h1H4"), "Methane", "C", 0, 0, 1.1, 0,
+                (ArrayList<DBLink>) null, null), new ArrayFingerprint(VERSION, new short[]{1, 2})));
+        return candidates;
+    }
+
+    private static List<FingerprintCandidate> readAll(CompoundReader reader, byte[] data) throws IOException {
+        final List<FingerprintCandidate> fpcs = new ArrayList<>();
+        try (CloseableIterator<FingerprintCandidate> it = reader.readFingerprints(VERSION, new ByteArrayInputStream(data))) {
+            it.forEachRemaining(fpcs::add);
+        }
+        return fpcs;
+    }
+
+    private static List<FingerprintCandidate> binaryRoundTrip(List<FingerprintCandidate> candidates) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompoundBinaryMapper.toBinary(candidates, out);
+        return readAll(new CompoundBinaryMapper(), out.toByteArray());
+    }
+
+    private static List<FingerprintCandidate> jsonRoundTrip(List<FingerprintCandidate> candidates) throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompoundJsonMapper.toJSONList(candidates, out);
+        return readAll(new CompoundJsonMapper(), out.toByteArray());
+    }
+
+    static void assertSameCandidate(FingerprintCandidate expected, FingerprintCandidate actual) {
+        assertEquals(expected.getInchiKey2D(), actual.getInchiKey2D());
+        assertEquals(expected.getInchi() == null ? null : expected.getInchi().in3D, actual.getInchi() == null ? null : actual.getInchi().in3D);
+        assertEquals(expected.getName(), actual.getName());
+        assertEquals(expected.getSmiles(), actual.getSmiles());
+        assertEquals(expected.getPLayer(), actual.getPLayer());
+        assertEquals(expected.getQLayer(), actual.getQLayer());
+        assertEquals(expected.getXlogp(), actual.getXlogp());
+        assertEquals(expected.bitset, actual.bitset);
+        assertEquals(expected.getLinks(), actual.getLinks());
+        assertArrayEquals(expected.getPubmedIDs() == null ? null : expected.getPubmedIDs().getCopyOfPubmedIDs(),
+                actual.getPubmedIDs() == null ? null : actual.getPubmedIDs().getCopyOfPubmedIDs());
+        assertArrayEquals(expected.getFingerprint().toIndizesArray(), actual.getFingerprint().toIndizesArray());
+    }
+
+    @Test
+    public void testBinaryRoundTripEqualsJsonRoundTrip() throws IOException {
+        final List<FingerprintCandidate> candidates = candidates();
+        final List<FingerprintCandidate> binary = binaryRoundTrip(candidates), json = jsonRoundTrip(candidates);
+        assertEquals(candidates.size(), binary.size());
+        assertEquals(candidates.size(), json.size());
+        for (int i = 0; i < candidates.size(); ++i)
+            assertSameCandidate(json.get(i), binary.get(i));
+    }
+
+    @Test
+    public void testBinaryRoundTripKeepsValues() throws IOException {
+        final List<FingerprintCandidate> candidates = candidates();
+        final List<FingerprintCandidate> binary = binaryRoundTrip(candidates);
+
+        final FingerprintCandidate glucose = binary.get(0);
+        assertEquals("Glucose", glucose.getName());
+        assertEquals("WQZGKKKJIJFFOK", glucose.getInchiKey2D());
+        assertEquals(3, glucose.getLinks().size());
+        assertEquals(new DBLink("PUBCHEM", "79025"), glucose.getLinks().get(1));
+        assertArrayEquals(new int[]{123, 456, 789}, glucose.getPubmedIDs().getCopyOfPubmedIDs());
+        assertArrayEquals(new short[]{0, 7, 100, 512}, glucose.getFingerprint().toIndizesArray());
+
+        final FingerprintCandidate charged = binary.get(1);
+        assertEquals("β-Glucose", charged.getName());
+        assertEquals(glucose.getSmiles(), charged.getSmiles());
+        assertEquals(1, charged.getPLayer());
+        assertEquals(-1, charged.getQLayer());
+        assertTrue(charged.getLinks().isEmpty());
+        assertNull(charged.getPubmedIDs());
+
+        final FingerprintCandidate anonymous = binary.get(2);
+        assertNull(anonymous.getInchi());
+        assertNull(anonymous.getInchiKey2D());
+        assertNull(anonymous.getName());
+        assertNull(anonymous.getSmiles());
+        assertEquals(List.of(new DBLink("KEGG", "C00031")), anonymous.getLinks());
+        assertEquals(0, anonymous.getFingerprint().toIndizesArray().length);
+
+        assertTrue(binary.get(3).getLinks().isEmpty());
+    }
+
+    @Test
+    public void testCandidatesViewMaterializesSingleCandidates() throws IOException {
+        final List<FingerprintCandidate> candidates = candidates();
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompoundBinaryMapper.toBinary(candidates, out);
+        final CompoundBinaryMapper.Candidates view = CompoundBinaryMapper.read(new ByteArrayInputStream(out.toByteArray()));
+        assertEquals(candidates.size(), view.size());
+        for (int i = candidates.size() - 1; i >= 0; --i) {
+            assertEquals(candidates.get(i).getInchiKey2D(), view.getInchiKey(i));
+            assertEquals(candidates.get(i).bitset, view.getBitset(i));
+            assertSameCandidate(binaryRoundTrip(candidates).get(i), view.getFingerprintCandidate(i, VERSION));
+        }
+    }
+
+    @Test
+    public void testRejectsOtherFormats() throws IOException {
+        final ByteArrayOutputStream out = new ByteArrayOutputStream();
+        CompoundJsonMapper.toJSONList(candidates(), out);
+        assertThrows(IOException.class, () -> CompoundBinaryMapper.read(new ByteArrayInputStream(out.toByteArray())));
+
+        final ByteArrayOutputStream binary = new ByteArrayOutputStream();
+        CompoundBinaryMapper.toBinary(candidates(), binary);
+        final byte[] truncated = new byte[binary.size() - 4];
+        System.arraycopy(binary.toByteArray(), 0, truncated, 0, truncated.length);
+        assertThrows(IOException.class, () -> CompoundBinaryMapper.read(new ByteArrayInputStream(truncated)));
+    }
+}
@@ -0,0 +1,280 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ChemistryBase.ms.ft;
+
+import de.unijena.bioinf.ChemistryBase.chem.Ionization;
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * Immutable compressed sparse row representation of a scored {@link FGraph}, used by the tree builders.
+ * <p>
+ * Vertices are identified by their vertex id in the original graph. Edges are identified by their index in
+ * {@link FGraph#losses()}, i.e. they are sorted by target vertex and the incoming edges of a vertex are consecutive.
+ * Additionally, an index of the outgoing edges of each vertex is stored in the same order as in the graph.
+ * Formulas and ionizations are interned, such that each distinct formula is stored only once.
+ */
+public final class CompactGraph {
+
+    private final int root;
+    private final int maxColor;
+
+    // vertices
+    private final int[] colors;
+    private final short[] peakIds;
+    private final int[] formulaIds;
+    private final int[] ionizationIds;
+
+    // edges, sorted by target
+    private final int[] inOffsets;
+    private final int[] sources;
+    private final int[] targets;
+    private final double[] weights;
+
+    // edge ids, sorted by source and in the order of the outgoing edges of each fragment
+    private final int[] outOffsets;
+    private final int[] outEdges;
+
+    private final MolecularFormula[] formulas;
+    private final Ionization[] ionizations;
+
+    private CompactGraph(int root, int maxColor, int[] colors, short[] peakIds, int[] formulaIds, int[] ionizationIds, int[] inOffsets, int[] sources, int[] targets, double[] weights, int[] outOffsets, int[] outEdges, MolecularFormula[] formulas, Ionization[] ionizations) {
+        this.root = root;
+        this.maxColor = maxColor;
+        this.colors = colors;
+        this.peakIds = peakIds;
+        this.formulaIds = formulaIds;
+        this.ionizationIds = ionizationIds;
+        this.inOffsets = inOffsets;
+        this.sources = sources;
+        this.targets = targets;
+        this.weights = weights;
+        this.outOffsets = outOffsets;
+        this.outEdges = outEdges;
+        this.formulas = formulas;
+        this.ionizations = ionizations;
+    }
+
+    public static CompactGraph of(FGraph graph) {
+        final int n = graph.numberOfVertices();
+        final int m = graph.numberOfEdges();
+        final Object2IntOpenHashMap<MolecularFormula> formulaIndex = new Object2IntOpenHashMap<>(n);
+        final Object2IntOpenHashMap<Ionization> ionizationIndex = new Object2IntOpenHashMap<>(4);
+        final List<MolecularFormula> formulas = new ArrayList<>(n);
+        final List<Ionization> ionizations = new ArrayList<>(4);
+
+        final int[] colors = new int[n];
+        final short[] peakIds = new short[n];
+        final int[] formulaIds = new int[n];
+        final int[] ionizationIds = new int[n];
+        final int[] inOffsets = new int[n + 1];
+        final int[] sources = new int[m];
+        final int[] targets = new int[m];
+        final double[] weights = new double[m];
+        int maxColor = 0;
+        int e = 0;
+        for (int v = 0; v < n; ++v) {
+            final Fragment f = graph.getFragmentAt(v);
+            if (f.getVertexId() != v)
+                throw new IllegalArgumentException("Vertices of the graph are not numbered consecutively.");
+            colors[v] = f.getColor();
+            maxColor = Math.max(maxColor, f.getColor());
+            peakIds[v] = f.getPeakId();
+            formulaIds[v] = intern(f.getFormula(), formulaIndex, formulas);
+            ionizationIds[v] = intern(f.getIonization(), ionizationIndex, ionizations);
+            inOffsets[v] = e;
+            for (int k = 0, d = f.getInDegree(); k < d; ++k) {
+                final Loss l = f.getIncomingEdge(k);
+                sources[e] = l.getSource().getVertexId();
+                targets[e] = v;
+                weights[e] = l.getWeight();
+                ++e;
+            }
+        }
+        inOffsets[n] = e;
+
+        // outgoing edges in the same order as in the fragments
+        final int[] outOffsets = new int[n + 1];
+        final int[] outEdges = new int[m];
+        e = 0;
+        for (int u = 0; u < n; ++u) {
+            final Fragment f = graph.getFragmentAt(u);
+            outOffsets[u] = e;
+            for (int k = 0, d = f.getOutDegree(); k < d; ++k) {
+                final Loss l = f.getOutgoingEdge(k);
+                outEdges[e++] = inOffsets[l.getTarget().getVertexId()] + l.targetEdgeOffset;
+            }
+        }
+        outOffsets[n] = e;
+
+        return new CompactGraph(graph.getRoot().getVertexId(), maxColor, colors, peakIds, formulaIds, ionizationIds,
+                inOffsets, sources, targets, weights, outOffsets, outEdges,
+                formulas.toArray(MolecularFormula[]::new), ionizations.toArray(Ionization[]::new));
+    }
+
+    private static <T> int intern(T value, Object2IntOpenHashMap<T> index, List<T> values) {
+        final int id = index.getOrDefault(value, -1);
+        if (id >= 0) return id;
+        index.put(value, values.size());
+        values.add(value);
+        return values.size() - 1;
+    }
+
+    /**
+     * @return vertex id of the pseudo root
+     */
+    public int getRoot() {
+        return root;
+    }
+
+    public int numberOfVertices() {
+        return colors.length;
+    }
+
+    public int numberOfEdges() {
+        return sources.length;
+    }
+
+    public int maxColor() {
+        return maxColor;
+    }
+
+    public int getColor(int vertex) {
+        return colors[vertex];
+    }
+
+    public short getPeakId(int vertex) {
+        return peakIds[vertex];
+    }
+
+    public MolecularFormula getFormula(int vertex) {
+        return formulas[formulaIds[vertex]];
+    }
+
+    /**
+     * @return id of the interned formula of the given vertex. Two vertices have the same formula id if and only if
+     * their formulas are equal.
+     */
+    public int getFormulaId(int vertex) {
+        return formulaIds[vertex];
+    }
+
+    public Ionization getIonization(int vertex) {
+        return ionizations[ionizationIds[vertex]];
+    }
+
+    public int inDegree(int vertex) {
+        return inOffsets[vertex + 1] - inOffsets[vertex];
+    }
+
+    /**
+     * @return id of the first incoming edge of the given vertex. The incoming edges of a vertex are
+     * firstIncomingEdge(v), ..., firstIncomingEdge(v) + inDegree(v) - 1
+     */
+    public int firstIncomingEdge(int vertex) {
+        return inOffsets[vertex];
+    }
+
+    public int outDegree(int vertex) {
+        return outOffsets[vertex + 1] - outOffsets[vertex];
+    }
+
+    /**
+     * @return id of the k-th outgoing edge of the given vertex
+     */
+    public int getOutgoingEdge(int vertex, int k) {
+        return outEdges[outOffsets[vertex] + k];
+    }
+
+    public int getSource(int edge) {
+        return sources[edge];
+    }
+
+    public int getTarget(int edge) {
+        return targets[edge];
+    }
+
+    public double getWeight(int edge) {
+        return weights[edge];
+    }
+
+    /**
+     * Builds the fragmentation tree induced by the given edges. The edges have to form a tree: exactly one of them
+     * starts at the pseudo root and every other edge starts at the target of another selected edge.
+     *
+     * @param graph         the graph this compact graph was built from, used to map graph vertices to tree vertices
+     * @param edges         ids of the selected edges
+     * @param numberOfEdges number of selected edges in the given array
+     * @param mapping       receives the mapping from graph vertices to tree vertices
+     */
+    public FTree toTree(FGraph graph, int[] edges, int numberOfEdges, IntergraphMapping.Builder mapping) {
+        // group selected edges by source as linked lists
+        final int[] firstChild = new int[numberOfVertices()];
+        Arrays.fill(firstChild, -1);
+        final int[] nextSibling = new int[numberOfEdges];
+        int rootEdge = -1;
+        for (int i = 0; i < numberOfEdges; ++i) {
+            final int u = sources[edges[i]];
+            if (u == root) {
+                if (rootEdge >= 0) throw new IllegalArgumentException("Selected edges contain more than one tree root.");
+                rootEdge = edges[i];
+            } else {
+                nextSibling[i] = firstChild[u];
+                firstChild[u] = i;
+            }
+        }
+        if (rootEdge < 0) throw new IllegalArgumentException("Selected edges do not contain a tree root.");
+
+        final int treeRoot = targets[rootEdge];
+        final FTree tree = new FTree(getFormula(treeRoot), getIonization(treeRoot));
+        mapping.mapLeftToRight(graph.getFragmentAt(treeRoot), tree.getRoot());
+        tree.getRoot().setColor(colors[treeRoot]);
+        tree.getRoot().setPeakId(peakIds[treeRoot]);
+        tree.setRootScore(weights[rootEdge]);
+        double score = weights[rootEdge];
+
+        final Fragment[] treeNodes = new Fragment[numberOfVertices()];
+        treeNodes[treeRoot] = tree.getRoot();
+        final int[] stack = new int[numberOfVertices()];
+        int stackSize = 0;
+        stack[stackSize++] = treeRoot;
+        while (stackSize > 0) {
+            final int u = stack[--stackSize];
+            for (int i = firstChild[u]; i >= 0; i = nextSibling[i]) {
+                final int e = edges[i], v = targets[e];
+                final Fragment child = tree.addFragment(treeNodes[u], getFormula(v), getIonization(v));
+                mapping.mapLeftToRight(graph.getFragmentAt(v), child);
+                child.setColor(colors[v]);
+                child.setPeakId(peakIds[v]);
+                child.getIncomingEdge().setWeight(weights[e]);
+                score += weights[e];
+                treeNodes[v] = child;
+                stack[stackSize++] = v;
+            }
+        }
+        tree.setTreeWeight(score);
+        return tree;
+    }
+}
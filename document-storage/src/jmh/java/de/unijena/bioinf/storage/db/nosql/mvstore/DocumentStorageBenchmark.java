@@ -0,0 +1,179 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.storage.db.nosql.mvstore;
+
+import de.unijena.bioinf.storage.db.nosql.Database;
+import de.unijena.bioinf.storage.db.nosql.Filter;
+import de.unijena.bioinf.storage.db.nosql.Index;
+import de.unijena.bioinf.storage.db.nosql.Metadata;
+import de.unijena.bioinf.storage.db.nosql.nitrite.NitriteDatabase;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link MVStoreDatabase} with the {@link NitriteDatabase} for bulk inserts, indexed lookups,
+ * range queries and joins. Run with ./gradlew :document-storage:jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class DocumentStorageBenchmark {
+
+    public static class Parent {
+        public long id;
+        public String name;
+        public List<Child> children;
+
+        public Parent() {
+        }
+
+        Parent(long id, String name) {
+            this.id = id;
+            this.name = name;
+        }
+    }
+
+    public static class Child {
+        public long id;
+        public long parentId;
+        public double score;
+        public String formula;
+
+        public Child() {
+        }
+
+        Child(long id, long parentId, double score, String formula) {
+            this.id = id;
+            this.parentId = parentId;
+            this.score = score;
+            this.formula = formula;
+        }
+    }
+
+    public enum Backend {MVSTORE, NITRITE}
+
+    @Param({"MVSTORE", "NITRITE"})
+    public Backend backend;
+
+    @Param({"10000", "100000"})
+    public int numberOfChildren;
+
+    /**
+     * number of children per parent
+     */
+    @Param({"10"})
+    public int fanOut;
+
+    private List<Parent> parents;
+    private List<Child> children;
+    private Path readFile;
+    private Database<?> readDb;
+    private long[] lookupIds;
+
+    private Path writeFile;
+    private Database<?> writeDb;
+
+    @Setup
+    public void setup() throws IOException {
+        final Random random = new Random(4711);
+        parents = new ArrayList<>();
+        children = new ArrayList<>(numberOfChildren);
+        for (long p = 1; p <= numberOfChildren / fanOut; p++)
+            parents.add(new Parent(p, "parent" + p));
+        for (long c = 1; c <= numberOfChildren; c++)
+            children.add(new Child(c, 1 + random.nextInt(parents.size()), random.nextDouble(), "C" + random.nextInt(60) + "H" + random.nextInt(120)));
+        lookupIds = random.longs(1000, 1, parents.size() + 1).toArray();
+
+        readFile = Files.createTempFile("document-storage-benchmark", ".db");
+        Files.delete(readFile);
+        readDb = open(readFile);
+        readDb.insertAll(parents);
+        readDb.insertAll(children);
+        readDb.flush();
+    }
+
+    @TearDown
+    public void tearDown() throws IOException {
+        readDb.close();
+        Files.deleteIfExists(readFile);
+    }
+
+    @Setup(Level.Invocation)
+    public void setupWrite() throws IOException {
+        writeFile = Files.createTempFile("document-storage-benchmark", ".db");
+        Files.delete(writeFile);
+        writeDb = open(writeFile);
+    }
+
+    @TearDown(Level.Invocation)
+    public void tearDownWrite() throws IOException {
+        writeDb.close();
+        Files.deleteIfExists(writeFile);
+    }
+
+    private Database<?> open(Path file) throws IOException {
+        Metadata meta = Metadata.build()
+                .addRepository(Parent.class, "id")
+                .addRepository(Child.class, "id", Index.nonUnique("parentId"), Index.nonUnique("score"));
+        return switch (backend) {
+            case MVSTORE -> new MVStoreDatabase(file, meta);
+            case NITRITE -> new NitriteDatabase(file, meta);
+        };
+    }
+
+    @Benchmark
+    public int insert() throws IOException {
+        int n = writeDb.insertAll(parents);
+        n += writeDb.insertAll(children);
+        writeDb.flush();
+        return n;
+    }
+
+    @Benchmark
+    public void findByIndex(Blackhole blackhole) throws IOException {
+        for (long id : lookupIds)
+            for (Child child : readDb.find(Filter.where("parentId").eq(id), Child.class))
+                blackhole.consume(child);
+    }
+
+    @Benchmark
+    public void findByRange(Blackhole blackhole) throws IOException {
+        for (Child child : readDb.find(Filter.where("score").betweenLeftInclusive(0.25, 0.3), Child.class, "score", Database.SortOrder.DESCENDING))
+            blackhole.consume(child);
+    }
+
+    @Benchmark
+    public void joinAllChildren(Blackhole blackhole) throws IOException {
+        for (Parent parent : readDb.joinAllChildren(Child.class, readDb.findAll(Parent.class), "id", "parentId", "children"))
+            blackhole.consume(parent);
+    }
+}
@@ -0,0 +1,54 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.storage.db.nosql;
+
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.function.Consumer;
+
+/**
+ * Number of open {@link Database#bulkLoad(Class[]) bulk loads} per repository of one {@link Database}.
+ */
+public final class BulkLoads {
+
+    private final Map<Class<?>, Integer> open = new HashMap<>();
+
+    /**
+     * @param onFirst called for every class that had no open bulk load before
+     */
+    public synchronized void open(Collection<Class<?>> classes, Consumer<Class<?>> onFirst) {
+        for (Class<?> clazz : classes) {
+            if (open.merge(clazz, 1, Integer::sum) == 1)
+                onFirst.accept(clazz);
+        }
+    }
+
+    /**
+     * @param onLast called for every class whose last open bulk load was closed
+     */
+    public synchronized void close(Collection<Class<?>> classes, Consumer<Class<?>> onLast) {
+        for (Class<?> clazz : classes) {
+            if (open.merge(clazz, -1, (a, b) -> a + b == 0 ? null : a + b) == null)
+                onLast.accept(clazz);
+        }
+    }
+}
@@ -29,6 +29,7 @@ import java.lang.reflect.InvocationTargetException;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 import java.util.function.Consumer;
 import java.util.function.Function;
 import java.util.stream.Stream;
@@ -42,6 +43,45 @@ public interface Database<DocType> extends Closeable, AutoCloseable {
 
     void enableIndices(Class<?> clazz);
 
+    /**
+     * Starts a bulk load into the repositories of the given classes. While the bulk load is open, only the primary key
+     * and unique indices of these repositories are maintained. All other indices are dropped and rebuilt in a single
+     * pass when the returned handle is closed, which also flushes the database. Queries stay correct during a bulk
+     * load but cannot use the deferred indices.
+     * <p>
+     * Bulk loads may be nested or run concurrently, the indices of a repository are rebuilt when the last bulk load
+     * on it is closed. Closing the handle more than once has no effect.
+     *
+     * @return handle that finishes the bulk load on {@link Closeable#close()}
+     */
+    default Closeable bulkLoad(Class<?>... classes) throws IOException {
+        final Set<Class<?>> loading = new LinkedHashSet<>(Arrays.asList(classes));
+        for (Class<?> clazz : loading) {
+            if (!getAllRegisteredClasses().contains(clazz))
+                throw new IOException("No repository for " + clazz.getName());
+        }
+        getBulkLoads().open(loading, clazz -> disableIndices(clazz, Arrays.stream(getIndices(clazz))
+                .filter(i -> i.getType() == IndexType.UNIQUE).toArray(Index[]::new)));
+
+        final AtomicBoolean closed = new AtomicBoolean(false);
+        return () -> {
+            if (!closed.compareAndSet(false, true))
+                return;
+            getBulkLoads().close(loading, this::enableIndices);
+            flush();
+        };
+    }
+
+    /**
+     * @return the open bulk loads of this database, always the same instance
+     */
+    BulkLoads getBulkLoads();
+
+    /**
+     * @return all indices of the given repository as defined by the {@link Metadata} of this database
+     */
+    Index[] getIndices(Class<?> clazz);
+
     //todo do we want to change from IO to Runtimeexceptions for better lamda compatibility
     enum SortOrder {
         ASCENDING, DESCENDING
@@ -0,0 +1,306 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.storage.db.nosql.mvstore;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.node.MissingNode;
+import de.unijena.bioinf.storage.db.nosql.Database;
+import de.unijena.bioinf.storage.db.nosql.Filter;
+import org.jetbrains.annotations.Nullable;
+
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.util.*;
+import java.util.function.Predicate;
+import java.util.regex.Pattern;
+
+/**
+ * Evaluates {@link Filter}s on the JSON trees stored by {@link MVStoreDatabase}.
+ * <p>
+ * All values are compared in a canonical form: numbers as {@link BigDecimal}, text as {@link String}, booleans as
+ * {@link Boolean} and missing fields as {@code null}. The secondary indices use the same canonical values as keys,
+ * so index lookups and filter evaluation always agree. Scalar filters on array fields match if any element matches.
+ */
+final class DocumentFilters {
+
+    private static final Pattern TOKEN_SEPARATOR = Pattern.compile("[^\\p{L}\\p{N}]+");
+
+    private DocumentFilters() {
+    }
+
+    static Filter.FilterNode root(Filter filter) {
+        Filter.FilterNode root = (filter instanceof Filter.FilterClause) ? (Filter.FilterNode) filter : filter.getParent();
+        while (root.getParent() != null)
+            root = root.getParent();
+        return root;
+    }
+
+    static Predicate<JsonNode> compile(Filter.FilterNode node, ObjectMapper mapper) {
+        if (node instanceof Filter.FilterLiteral literal) {
+            return compileLiteral(literal, mapper);
+        } else if (node instanceof Filter.FilterClause clause) {
+            List<Predicate<JsonNode>> children = Arrays.stream(clause.getChildren()).map(c -> compile(c, mapper)).toList();
+            return switch (clause.getType()) {
+                case AND -> n -> {
+                    for (Predicate<JsonNode> c : children)
+                        if (!c.test(n)) return false;
+                    return true;
+                };
+                case OR -> n -> {
+                    for (Predicate<JsonNode> c : children)
+                        if (c.test(n)) return true;
+                    return false;
+                };
+            };
+        } else {
+            throw new IllegalArgumentException(node.getClass().getName());
+        }
+    }
+
+    private static Predicate<JsonNode> compileLiteral(Filter.FilterLiteral literal, ObjectMapper mapper) {
+        final String[] path = path(literal.getField());
+        final Object[] values = literal.getValues();
+        return switch (literal.getType()) {
+            case EQ -> {
+                Object value = canonical(values[0], mapper);
+                yield n -> anyMatch(resolve(n, path), v -> same(v, value));
+            }
+            case NOT_EQ -> {
+                Object value = canonical(values[0], mapper);
+                yield n -> !anyMatch(resolve(n, path), v -> same(v, value));
+            }
+            case GT -> {
+                Object value = canonical(values[0], mapper);
+                yield n -> anyMatch(resolve(n, path), v -> isComparable(v, value) && compare(v, value) > 0);
+            }
+            case GTE -> {
+                Object value = canonical(values[0], mapper);
+                yield n -> anyMatch(resolve(n, path), v -> isComparable(v, value) && compare(v, value) >= 0);
+            }
+            case LT -> {
+                Object value = canonical(values[0], mapper);
+                yield n -> anyMatch(resolve(n, path), v -> isComparable(v, value) && compare(v, value) < 0);
+            }
+            case LTE -> {
+                Object value = canonical(values[0], mapper);
+                yield n -> anyMatch(resolve(n, path), v -> isComparable(v, value) && compare(v, value) <= 0);
+            }
+            case BETWEEN -> {
+                Object lower = canonical(values[0], mapper), upper = canonical(values[1], mapper);
+                boolean lowerInclusive = (boolean) values[2], upperInclusive = (boolean) values[3];
+                yield n -> anyMatch(resolve(n, path), v -> inRange(v, lower, lowerInclusive, upper, upperInclusive));
+            }
+            case TEXT -> {
+                List<String> terms = Arrays.stream(((String) values[0]).toLowerCase(Locale.ROOT).split("\\s+")).filter(s -> !s.isEmpty()).toList();
+                yield n -> anyMatch(resolve(n, path), v -> v instanceof String s && tokens(s).stream().anyMatch(t -> terms.stream().anyMatch(q -> matchesTerm(t, q))));
+            }
+            case REGEX -> {
+                Pattern pattern = Pattern.compile((String) values[0]);
+                yield n -> anyMatch(resolve(n, path), v -> v instanceof String s && pattern.matcher(s).find());
+            }
+            case IN -> {
+                List<Object> in = Arrays.stream(values).map(v -> canonical(v, mapper)).toList();
+                yield n -> anyMatch(resolve(n, path), v -> in.stream().anyMatch(i -> same(v, i)));
+            }
+            case NOT_IN -> {
+                List<Object> in = Arrays.stream(values).map(v -> canonical(v, mapper)).toList();
+                yield n -> !anyMatch(resolve(n, path), v -> in.stream().anyMatch(i -> same(v, i)));
+            }
+            case ELEM_MATCH -> {
+                Predicate<JsonNode> element = compile((Filter.FilterNode) values[0], mapper);
+                yield n -> {
+                    JsonNode array = resolve(n, path);
+                    if (!array.isArray())
+                        return false;
+                    for (JsonNode e : array)
+                        if (element.test(e)) return true;
+                    return false;
+                };
+            }
+        };
+    }
+
+    private static boolean anyMatch(JsonNode node, Predicate<Object> test) {
+        if (node.isArray()) {
+            if (test.test(node))
+                return true;
+            if (node.isEmpty())
+                return test.test(null);
+            for (JsonNode e : node)
+                if (test.test(scalar(e))) return true;
+            return false;
+        }
+        return test.test(scalar(node));
+    }
+
+    private static boolean inRange(Object value, Object lower, boolean lowerInclusive, Object upper, boolean upperInclusive) {
+        if (value == null || !isComparable(value, lower) || !isComparable(value, upper))
+            return false;
+        int l = compare(value, lower), u = compare(value, upper);
+        return (lowerInclusive ? l >= 0 : l > 0) && (upperInclusive ? u <= 0 : u < 0);
+    }
+
+    static boolean matchesTerm(String token, String term) {
+        boolean prefix = term.endsWith("*"), suffix = term.startsWith("*");
+        String t = term.substring(suffix ? 1 : 0, Math.max(suffix ? 1 : 0, term.length() - (prefix ? 1 : 0)));
+        if (prefix && suffix) return token.contains(t);
+        if (prefix) return token.startsWith(t);
+        if (suffix) return token.endsWith(t);
+        return token.equals(t);
+    }
+
+    static Set<String> tokens(String text) {
+        Set<String> tokens = new LinkedHashSet<>();
+        for (String t : TOKEN_SEPARATOR.split(text.toLowerCase(Locale.ROOT)))
+            if (!t.isEmpty()) tokens.add(t);
+        return tokens;
+    }
+
+    static String[] path(String field) {
+        return "$".equals(field) ? new String[0] : field.split("\\.");
+    }
+
+    /**
+     * Resolves a dotted field path. An empty path ({@code $}) resolves to the node itself.
+     */
+    static JsonNode resolve(JsonNode node, String[] path) {
+        JsonNode current = node;
+        for (String segment : path) {
+            if (current.isObject()) {
+                current = current.path(segment);
+            } else if (current.isArray() && !segment.isEmpty() && Character.isDigit(segment.charAt(0))) {
+                current = current.path(Integer.parseInt(segment));
+            } else {
+                return MissingNode.getInstance();
+            }
+        }
+        return current;
+    }
+
+    /**
+     * @return the canonical value of a json node: {@link BigDecimal}, {@link String}, {@link Boolean}, {@code null}
+     * or the node itself for objects and arrays.
+     */
+    @Nullable
+    static Object scalar(JsonNode node) {
+        if (node == null || node.isMissingNode() || node.isNull())
+            return null;
+        if (node.isNumber()) {
+            if (node.isFloatingPointNumber() && !node.isBigDecimal()) {
+                double d = node.doubleValue();
+                // jackson writes non-finite numbers as strings
+                if (!Double.isFinite(d))
+                    return Double.toString(d);
+                return new BigDecimal(node.isFloat() ? Float.toString(node.floatValue()) : Double.toString(d));
+            }
+            return node.decimalValue();
+        }
+        if (node.isTextual())
+            return node.textValue();
+        if (node.isBoolean())
+            return node.booleanValue();
+        if (node.isBinary())
+            return node.asText();
+        return node;
+    }
+
+    /**
+     * @return the canonical value of a filter value.
+     */
+    @Nullable
+    static Object canonical(@Nullable Object value, ObjectMapper mapper) {
+        if (value == null)
+            return null;
+        if (value instanceof String || value instanceof Boolean || value instanceof BigDecimal)
+            return value;
+        if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte)
+            return BigDecimal.valueOf(((Number) value).longValue());
+        if (value instanceof BigInteger b)
+            return new BigDecimal(b);
+        if (value instanceof Double || value instanceof Float) {
+            double d = ((Number) value).doubleValue();
+            return Double.isFinite(d) ? new BigDecimal(value.toString()) : Double.toString(d);
+        }
+        if (value instanceof Character || value instanceof Enum<?>)
+            return value instanceof Enum<?> e ? e.name() : value.toString();
+        return scalar(mapper.valueToTree(value));
+    }
+
+    /**
+     * @return the canonical value as it is used as component of an index key.
+     */
+    @Nullable
+    static Object keyComponent(@Nullable Object canonical) {
+        return canonical instanceof JsonNode n ? n.toString() : canonical;
+    }
+
+    static boolean same(@Nullable Object a, @Nullable Object b) {
+        if (a instanceof BigDecimal x && b instanceof BigDecimal y)
+            return x.compareTo(y) == 0;
+        return Objects.equals(a, b);
+    }
+
+    static boolean isComparable(@Nullable Object a, @Nullable Object b) {
+        return a != null && b != null && rank(a) == rank(b) && rank(a) < 4;
+    }
+
+    /**
+     * Total order on canonical values: null &lt; booleans &lt; numbers &lt; strings &lt; other. This is the same
+     * order the MVStore uses for index keys.
+     */
+    static int compare(@Nullable Object a, @Nullable Object b) {
+        int ra = rank(a), rb = rank(b);
+        if (ra != rb)
+            return Integer.compare(ra, rb);
+        return switch (ra) {
+            case 0 -> 0;
+            case 1 -> Boolean.compare((Boolean) a, (Boolean) b);
+            case 2 -> ((BigDecimal) a).compareTo((BigDecimal) b);
+            case 3 -> ((String) a).compareTo((String) b);
+            default -> a.toString().compareTo(b.toString());
+        };
+    }
+
+    private static int rank(@Nullable Object o) {
+        if (o == null) return 0;
+        if (o instanceof Boolean) return 1;
+        if (o instanceof BigDecimal) return 2;
+        if (o instanceof String) return 3;
+        return 4;
+    }
+
+    static Comparator<JsonNode> comparator(String[] sortFields, Database.SortOrder[] sortOrders) {
+        Comparator<JsonNode> comparator = null;
+        for (int i = 0; i < sortFields.length; i++) {
+            final String[] path = path(sortFields[i]);
+            Comparator<JsonNode> c = (a, b) -> compare(sortKey(resolve(a, path)), sortKey(resolve(b, path)));
+            if (sortOrders[i] == Database.SortOrder.DESCENDING)
+                c = c.reversed();
+            comparator = comparator == null ? c : comparator.thenComparing(c);
+        }
+        return comparator;
+    }
+
+    private static Object sortKey(JsonNode node) {
+        return keyComponent(scalar(node));
+    }
+}
@@ -0,0 +1,710 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.storage.db.nosql.mvstore;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import de.unijena.bioinf.storage.db.nosql.Filter;
+import de.unijena.bioinf.storage.db.nosql.Index;
+import de.unijena.bioinf.storage.db.nosql.IndexType;
+import io.hypersistence.tsid.TSID;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.h2.mvstore.Cursor;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.type.DataType;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.Executor;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+
+import static de.unijena.bioinf.storage.db.nosql.mvstore.DocumentFilters.*;
+
+/**
+ * One repository or collection of a {@link MVStoreDatabase}. Documents are stored in their own {@link MVMap} keyed by
+ * primary key. Every secondary {@link Index} is an additional {@link MVMap} whose keys are
+ * {@code [value_1, ..., value_n, primaryKey]}, so equality lookups on any prefix of the indexed fields and range
+ * lookups on the first field are ordered scans of a B-tree.
+ */
+@Slf4j
+final class Keyspace {
+
+    enum Event {INSERT, UPDATE, REMOVE}
+
+    /**
+     * A stored document. The json tree is only present if it was needed to evaluate a filter or sort.
+     */
+    record Entry(Object key, Object stored, @Nullable JsonNode tree) {
+    }
+
+    /**
+     * Primary keys of the candidates of a query.
+     *
+     * @param orderedBy field by which the keys are sorted or null if unordered
+     */
+    record Plan(Collection<Object> keys, @Nullable String orderedBy) {
+    }
+
+    private record Listener(Event event, Consumer<Entry> consumer) {
+    }
+
+    private static final class SecondaryIndex {
+        private final Index index;
+        private final String mapName;
+        private final String[][] paths;
+        private final MVMap<Object, Object> map;
+
+        private SecondaryIndex(Index index, String mapName, MVMap<Object, Object> map) {
+            this.index = index;
+            this.mapName = mapName;
+            this.paths = Arrays.stream(index.getFields()).map(DocumentFilters::path).toArray(String[][]::new);
+            this.map = map;
+        }
+
+        private String field(int i) {
+            return index.getFields()[i];
+        }
+
+        private boolean isFullText() {
+            return index.getType() == IndexType.FULL_TEXT;
+        }
+    }
+
+    @Getter
+    private final String name;
+
+    private final MVStore store;
+
+    private final MVMap<String, Boolean> builtIndices;
+
+    final MVMap<Object, Object> documents;
+
+    private final String pkField;
+
+    private final Function<Object, Object> pkConverter;
+
+    private final Function<Object, JsonNode> treeFunction;
+
+    private final ObjectMapper mapper;
+
+    private final List<SecondaryIndex> indices = new CopyOnWriteArrayList<>();
+
+    private final Map<Long, Listener> listeners = new ConcurrentHashMap<>();
+
+    /**
+     * Held by writers of this keyspace, such that documents, indices and unique checks stay consistent. Readers do not
+     * lock, they might see a document before or after its index entries changed but filters are always evaluated on
+     * the document itself.
+     */
+    final ReentrantLock writeLock = new ReentrantLock();
+
+    /**
+     * @param documents    map that stores the documents of this keyspace
+     * @param builtIndices state of all indices of the store, an index is only used if it has been built completely
+     * @param pkConverter  converts filter values on the primary key field to the key type of the document map
+     * @param treeFunction converts a stored document to a json tree
+     */
+    Keyspace(String name, MVStore store, MVMap<Object, Object> documents, MVMap<String, Boolean> builtIndices, String pkField, Function<Object, Object> pkConverter, Function<Object, JsonNode> treeFunction, ObjectMapper mapper) {
+        this.name = name;
+        this.store = store;
+        this.documents = documents;
+        this.builtIndices = builtIndices;
+        this.pkField = pkField;
+        this.pkConverter = pkConverter;
+        this.treeFunction = treeFunction;
+        this.mapper = mapper;
+    }
+
+    //region indices
+
+    /**
+     * Opens the given indices, builds the ones that do not exist yet and drops all other indices of this keyspace.
+     * The primary key is never indexed separately since it is the key of the document map. In a read only store,
+     * only indices that already exist are used and nothing is built or dropped.
+     */
+    void setIndices(Index[] declared, boolean readOnly) {
+        Map<String, Index> wanted = new LinkedHashMap<>();
+        for (Index index : declared) {
+            if (index.getFields().length == 1 && index.getFields()[0].equals(pkField))
+                continue;
+            if (wanted.put(indexMapName(index), index) != null)
+                throw new IllegalArgumentException("Duplicate index: " + String.join(",", index.getFields()));
+        }
+
+        if (readOnly) {
+            indices.clear();
+            wanted.forEach((mapName, index) -> {
+                if (store.hasMap(mapName) && builtIndices.containsKey(mapName))
+                    indices.add(new SecondaryIndex(index, mapName, store.openMap(mapName)));
+                else
+                    log.warn("Index {} of {} does not exist in read only database.", Arrays.toString(index.getFields()), name);
+            });
+            return;
+        }
+
+        String prefix = name + "$idx$";
+        for (String mapName : new ArrayList<>(store.getMapNames())) {
+            if (mapName.startsWith(prefix) && !wanted.containsKey(mapName)) {
+                log.info("Dropping index: {}", mapName.substring(prefix.length()));
+                indices.removeIf(i -> i.mapName.equals(mapName));
+                builtIndices.remove(mapName);
+                store.removeMap(mapName);
+            }
+        }
+
+        List<SecondaryIndex> toBuild = new ArrayList<>();
+        for (Map.Entry<String, Index> e : wanted.entrySet()) {
+            if (indices.stream().anyMatch(i -> i.mapName.equals(e.getKey())))
+                continue;
+            if (store.hasMap(e.getKey()) && !builtIndices.containsKey(e.getKey()))
+                store.removeMap(e.getKey()); // incomplete build
+            SecondaryIndex index = new SecondaryIndex(e.getValue(), e.getKey(), store.openMap(e.getKey()));
+            if (builtIndices.containsKey(e.getKey()))
+                indices.add(index);
+            else
+                toBuild.add(index);
+        }
+        build(toBuild);
+    }
+
+    /**
+     * Builds the given (empty) indices in a single pass over all documents. The keys of every index are sorted in
+     * memory and appended to the index map in key order, which is much cheaper than inserting them one by one in
+     * document order.
+     */
+    private void build(List<SecondaryIndex> toBuild) {
+        if (toBuild.isEmpty())
+            return;
+        toBuild.forEach(index -> log.info("(Re)building index: {}", Arrays.toString(index.index.getFields())));
+        List<List<Object[]>> keys = toBuild.stream().<List<Object[]>>map(i -> new ArrayList<>()).toList();
+        Cursor<Object, Object> cursor = documents.cursor(null);
+        while (cursor.hasNext()) {
+            Object pk = cursor.next();
+            JsonNode tree = tree(cursor.getValue());
+            for (int i = 0; i < toBuild.size(); i++)
+                keys.get(i).addAll(indexKeys(toBuild.get(i), tree, pk));
+        }
+
+        for (int i = 0; i < toBuild.size(); i++) {
+            SecondaryIndex index = toBuild.get(i);
+            List<Object[]> sorted = keys.get(i);
+            DataType<Object> keyType = index.map.getKeyType();
+            sorted.sort(keyType::compare);
+            if (index.index.getType() == IndexType.UNIQUE) {
+                for (int j = 1; j < sorted.size(); j++) {
+                    Object[] k = sorted.get(j);
+                    if (isDuplicate(sorted.get(j - 1), k)) {
+                        store.removeMap(index.mapName);
+                        throw new IllegalStateException("Cannot build unique index " + Arrays.toString(index.index.getFields()) + " of " + name + ". Duplicate value " + Arrays.toString(Arrays.copyOf(k, k.length - 1)));
+                    }
+                }
+            }
+            Object[] last = null;
+            for (Object[] k : sorted) {
+                // array fields may produce the same key more than once
+                if (last == null || keyType.compare(last, k) != 0)
+                    index.map.append(k, Boolean.TRUE);
+                last = k;
+            }
+            keys.get(i).clear();
+            builtIndices.put(index.mapName, Boolean.TRUE);
+            indices.add(index);
+        }
+    }
+
+    private static boolean isDuplicate(Object[] a, Object[] b) {
+        for (int i = 0; i < a.length - 1; i++)
+            if (a[i] == null || !same(a[i], b[i])) return false;
+        return !Objects.equals(a[a.length - 1], b[b.length - 1]);
+    }
+
+    private String indexMapName(Index index) {
+        return name + "$idx$" + index.getType() + ":" + String.join(",", index.getFields());
+    }
+
+    private List<Object[]> indexKeys(SecondaryIndex index, JsonNode tree, Object pk) {
+        List<Object[]> keys = new ArrayList<>();
+        keys.add(new Object[index.paths.length + 1]);
+        for (int i = 0; i < index.paths.length; i++) {
+            List<Object> values = indexValues(resolve(tree, index.paths[i]), index.isFullText());
+            List<Object[]> expanded = new ArrayList<>(keys.size() * values.size());
+            for (Object[] key : keys) {
+                for (Object value : values) {
+                    Object[] k = key.clone();
+                    k[i] = value;
+                    expanded.add(k);
+                }
+            }
+            keys = expanded;
+        }
+        for (Object[] key : keys)
+            key[key.length - 1] = pk;
+        return keys;
+    }
+
+    private static List<Object> indexValues(JsonNode node, boolean fullText) {
+        List<Object> values = new ArrayList<>();
+        if (node.isArray()) {
+            for (JsonNode e : node)
+                addIndexValue(values, scalar(e), fullText);
+        } else {
+            addIndexValue(values, scalar(node), fullText);
+        }
+        if (values.isEmpty())
+            values.add(null);
+        return values;
+    }
+
+    private static void addIndexValue(List<Object> values, Object value, boolean fullText) {
+        if (fullText) {
+            if (value instanceof String s)
+                tokens(s).stream().filter(t -> !values.contains(t)).forEach(values::add);
+        } else {
+            Object component = keyComponent(value);
+            if (values.stream().noneMatch(v -> same(v, component)))
+                values.add(component);
+        }
+    }
+
+    private void checkUnique(Object pk, JsonNode tree) throws IOException {
+        for (SecondaryIndex index : indices) {
+            if (index.index.getType() != IndexType.UNIQUE)
+                continue;
+            for (Object[] key : indexKeys(index, tree, pk)) {
+                Object[] duplicate = findDuplicate(index, key);
+                if (duplicate != null)
+                    throw new IOException("Unique index " + Arrays.toString(index.index.getFields()) + " of " + name + " violated by value " + Arrays.toString(Arrays.copyOf(duplicate, duplicate.length - 1)));
+            }
+        }
+    }
+
+    /**
+     * @return an index key with the same values but another primary key or null if there is none. Keys containing
+     * null values are never duplicates.
+     */
+    @Nullable
+    private static Object[] findDuplicate(SecondaryIndex index, Object[] key) {
+        Object[] prefix = Arrays.copyOf(key, key.length - 1);
+        if (Arrays.stream(prefix).anyMatch(Objects::isNull))
+            return null;
+        Iterator<Object> it = index.map.keyIterator(prefix);
+        while (it.hasNext()) {
+            Object[] k = (Object[]) it.next();
+            if (!startsWith(k, prefix))
+                return null;
+            if (!Objects.equals(k[k.length - 1], key[key.length - 1]))
+                return k;
+        }
+        return null;
+    }
+
+    private void addToIndices(Object pk, JsonNode tree) {
+        for (SecondaryIndex index : indices)
+            for (Object[] k : indexKeys(index, tree, pk))
+                index.map.put(k, Boolean.TRUE);
+    }
+
+    private void removeFromIndices(Object pk, JsonNode tree) {
+        for (SecondaryIndex index : indices)
+            for (Object[] k : indexKeys(index, tree, pk))
+                index.map.remove(k);
+    }
+
+    //endregion
+
+    //region documents
+
+    JsonNode tree(Object stored) {
+        return treeFunction.apply(stored);
+    }
+
+    @Nullable
+    Object get(Object key) {
+        return documents.get(key);
+    }
+
+    long size() {
+        return documents.sizeAsLong();
+    }
+
+    void insert(Object key, Object stored, JsonNode tree) throws IOException {
+        if (documents.containsKey(key))
+            throw new IOException("Primary key " + key + " already exists in " + name);
+        checkUnique(key, tree);
+        documents.put(key, stored);
+        addToIndices(key, tree);
+    }
+
+    /**
+     * @return the replaced document or null if no document with this key exists.
+     */
+    @Nullable
+    Entry update(Object key, Object stored, JsonNode tree) throws IOException {
+        Object old = documents.get(key);
+        if (old == null)
+            return null;
+        JsonNode oldTree = tree(old);
+        checkUnique(key, tree);
+        removeFromIndices(key, oldTree);
+        documents.put(key, stored);
+        addToIndices(key, tree);
+        return new Entry(key, old, oldTree);
+    }
+
+    /**
+     * @return the removed document or null if no document with this key exists.
+     */
+    @Nullable
+    Entry remove(Object key) {
+        Object old = documents.get(key);
+        if (old == null)
+            return null;
+        JsonNode oldTree = tree(old);
+        removeFromIndices(key, oldTree);
+        documents.remove(key);
+        return new Entry(key, old, oldTree);
+    }
+
+    /**
+     * Lazily iterates over all documents of the plan (or all documents if the plan is null) that match the predicate.
+     * Iteration works on the current B-tree versions and does not block concurrent writers.
+     */
+    Iterator<Entry> scan(@Nullable Plan plan, @Nullable Predicate<JsonNode> predicate, boolean withTree) {
+        final boolean parse = withTree || predicate != null;
+        if (plan != null) {
+            final Iterator<Object> keys = plan.keys().iterator();
+            return new FilteringIterator<>() {
+                @Override
+                protected Entry computeNext() {
+                    while (keys.hasNext()) {
+                        Object key = keys.next();
+                        Entry e = entry(key, documents.get(key), parse, predicate);
+                        if (e != null)
+                            return e;
+                    }
+                    return endOfData();
+                }
+            };
+        } else {
+            final Cursor<Object, Object> cursor = documents.cursor(null);
+            return new FilteringIterator<>() {
+                @Override
+                protected Entry computeNext() {
+                    while (cursor.hasNext()) {
+                        Object key = cursor.next();
+                        Entry e = entry(key, cursor.getValue(), parse, predicate);
+                        if (e != null)
+                            return e;
+                    }
+                    return endOfData();
+                }
+            };
+        }
+    }
+
+    @Nullable
+    private Entry entry(Object key, @Nullable Object stored, boolean parse, @Nullable Predicate<JsonNode> predicate) {
+        if (stored == null)
+            return null;
+        JsonNode tree = parse ? tree(stored) : null;
+        if (predicate != null && !predicate.test(tree))
+            return null;
+        return new Entry(key, stored, tree);
+    }
+
+    //endregion
+
+    //region query planning
+
+    /**
+     * Selects the primary keys of all candidates of a filter by using the primary key or a secondary index.
+     *
+     * @return null if the filter cannot be answered by an index and all documents have to be scanned.
+     */
+    @Nullable
+    Plan plan(Filter.FilterNode node) {
+        if (node instanceof Filter.FilterLiteral literal) {
+            return planLiteral(literal);
+        } else if (node instanceof Filter.FilterClause clause) {
+            if (clause.getType() == Filter.FilterClause.Type.OR) {
+                Set<Object> keys = new LinkedHashSet<>();
+                for (Filter.FilterNode child : clause.getChildren()) {
+                    Plan p = plan(child);
+                    if (p == null)
+                        return null;
+                    keys.addAll(p.keys());
+                }
+                return new Plan(keys, null);
+            }
+
+            Map<String, Object> equalities = new HashMap<>();
+            for (Filter.FilterNode child : clause.getChildren()) {
+                if (child instanceof Filter.FilterLiteral l && l.getType() == Filter.FilterLiteral.Type.EQ) {
+                    if (l.getField().equals(pkField))
+                        return planLiteral(l);
+                    Object value = canonical(l.getValues()[0], mapper);
+                    if (!(value instanceof JsonNode))
+                        equalities.putIfAbsent(l.getField(), value);
+                }
+            }
+            SecondaryIndex best = null;
+            int bestPrefix = 0;
+            for (SecondaryIndex index : indices) {
+                if (index.isFullText())
+                    continue;
+                int prefix = 0;
+                while (prefix < index.paths.length && equalities.containsKey(index.field(prefix)))
+                    prefix++;
+                if (prefix > bestPrefix) {
+                    best = index;
+                    bestPrefix = prefix;
+                }
+            }
+            if (best != null) {
+                Object[] values = new Object[bestPrefix];
+                for (int i = 0; i < bestPrefix; i++)
+                    values[i] = equalities.get(best.field(i));
+                return new Plan(prefixScan(best, values), bestPrefix < best.paths.length ? best.field(bestPrefix) : null);
+            }
+            for (Filter.FilterNode child : clause.getChildren()) {
+                Plan p = plan(child);
+                if (p != null)
+                    return p;
+            }
+            return null;
+        }
+        return null;
+    }
+
+    @Nullable
+    private Plan planLiteral(Filter.FilterLiteral literal) {
+        final String field = literal.getField();
+        final Object[] values = literal.getValues();
+        if (field.equals(pkField)) {
+            return switch (literal.getType()) {
+                case EQ -> values[0] == null ? new Plan(List.of(), null) : new Plan(List.of(pkConverter.apply(values[0])), null);
+                case IN -> new Plan(Arrays.stream(values).filter(Objects::nonNull).map(pkConverter).distinct().toList(), null);
+                default -> null;
+            };
+        }
+
+        if (literal.getType() == Filter.FilterLiteral.Type.TEXT) {
+            SecondaryIndex index = firstFieldIndex(field, true);
+            if (index == null)
+                return null;
+            Set<Object> keys = new LinkedHashSet<>();
+            for (String term : ((String) values[0]).toLowerCase(Locale.ROOT).split("\\s+")) {
+                if (term.isEmpty())
+                    continue;
+                if (term.startsWith("*"))
+                    return null;
+                if (term.endsWith("*")) {
+                    String prefix = term.substring(0, term.length() - 1);
+                    Iterator<Object> it = index.map.keyIterator(new Object[]{prefix});
+                    while (it.hasNext()) {
+                        Object[] k = (Object[]) it.next();
+                        if (!(k[0] instanceof String s) || !s.startsWith(prefix))
+                            break;
+                        keys.add(k[k.length - 1]);
+                    }
+                } else {
+                    keys.addAll(prefixScan(index, new Object[]{term}));
+                }
+            }
+            return new Plan(keys, null);
+        }
+
+        SecondaryIndex index = firstFieldIndex(field, false);
+        if (index == null)
+            return null;
+        final String next = index.paths.length > 1 ? index.field(1) : null;
+        return switch (literal.getType()) {
+            case EQ -> {
+                Object value = canonical(values[0], mapper);
+                yield value instanceof JsonNode ? null : new Plan(prefixScan(index, new Object[]{value}), next);
+            }
+            case IN -> {
+                Set<Object> keys = new LinkedHashSet<>();
+                for (Object v : values) {
+                    Object value = canonical(v, mapper);
+                    if (value instanceof JsonNode)
+                        yield null;
+                    keys.addAll(prefixScan(index, new Object[]{value}));
+                }
+                yield new Plan(keys, null);
+            }
+            case GT -> rangePlan(index, canonical(values[0], mapper), false, null, false);
+            case GTE -> rangePlan(index, canonical(values[0], mapper), true, null, false);
+            case LT -> rangePlan(index, null, false, canonical(values[0], mapper), false);
+            case LTE -> rangePlan(index, null, false, canonical(values[0], mapper), true);
+            case BETWEEN ->
+                    rangePlan(index, canonical(values[0], mapper), (boolean) values[2], canonical(values[1], mapper), (boolean) values[3]);
+            default -> null;
+        };
+    }
+
+    /**
+     * @return the primary keys of all documents ordered by the given field or null if there is no index on this field.
+     */
+    @Nullable
+    Plan orderedBy(String field) {
+        SecondaryIndex index = firstFieldIndex(field, false);
+        if (index == null)
+            return null;
+        Set<Object> keys = new LinkedHashSet<>();
+        Iterator<Object> it = index.map.keyIterator(null);
+        while (it.hasNext()) {
+            Object[] k = (Object[]) it.next();
+            keys.add(k[k.length - 1]);
+        }
+        return new Plan(keys, field);
+    }
+
+    @Nullable
+    private SecondaryIndex firstFieldIndex(String field, boolean fullText) {
+        for (SecondaryIndex index : indices)
+            if (index.isFullText() == fullText && index.field(0).equals(field))
+                return index;
+        return null;
+    }
+
+    private static Collection<Object> prefixScan(SecondaryIndex index, Object[] prefix) {
+        Set<Object> keys = new LinkedHashSet<>();
+        Iterator<Object> it = index.map.keyIterator(prefix);
+        while (it.hasNext()) {
+            Object[] k = (Object[]) it.next();
+            if (!startsWith(k, prefix))
+                break;
+            keys.add(k[k.length - 1]);
+        }
+        return keys;
+    }
+
+    @Nullable
+    private static Plan rangePlan(SecondaryIndex index, @Nullable Object lower, boolean lowerInclusive, @Nullable Object upper, boolean upperInclusive) {
+        if (lower instanceof JsonNode || upper instanceof JsonNode || (lower == null && upper == null))
+            return null;
+        final Object reference = lower != null ? lower : upper;
+        Set<Object> keys = new LinkedHashSet<>();
+        Iterator<Object> it = index.map.keyIterator(lower != null ? new Object[]{lower} : null);
+        while (it.hasNext()) {
+            Object[] k = (Object[]) it.next();
+            Object value = k[0];
+            if (!isComparable(value, reference)) {
+                // keys are grouped by type, skip the smaller types and stop after the matching one
+                if (compare(value, reference) < 0)
+                    continue;
+                break;
+            }
+            if (lower != null) {
+                int c = compare(value, lower);
+                if (c < 0 || (c == 0 && !lowerInclusive))
+                    continue;
+            }
+            if (upper != null) {
+                int c = compare(value, upper);
+                if (c > 0 || (c == 0 && !upperInclusive))
+                    break;
+            }
+            keys.add(k[k.length - 1]);
+        }
+        return new Plan(keys, index.field(0));
+    }
+
+    private static boolean startsWith(Object[] key, Object[] prefix) {
+        if (key.length <= prefix.length)
+            return false;
+        for (int i = 0; i < prefix.length; i++)
+            if (compare(key[i], prefix[i]) != 0)
+                return false;
+        return true;
+    }
+
+    //endregion
+
+    //region events
+
+    long subscribe(Event event, Consumer<Entry> consumer) {
+        final long id = TSID.fast().toLong();
+        listeners.put(id, new Listener(event, consumer));
+        return id;
+    }
+
+    void unsubscribe(long id) {
+        listeners.remove(id);
+    }
+
+    boolean hasListeners() {
+        return !listeners.isEmpty();
+    }
+
+    void fire(Event event, Entry entry, Executor executor) {
+        for (Listener listener : listeners.values())
+            if (listener.event == event)
+                executor.execute(() -> listener.consumer.accept(entry));
+    }
+
+    //endregion
+
+    private abstract static class FilteringIterator<T> implements Iterator<T> {
+        private T next;
+        private boolean done, ready;
+
+        protected abstract T computeNext();
+
+        protected final T endOfData() {
+            done = true;
+            return null;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!ready && !done) {
+                next = computeNext();
+                ready = !done;
+            }
+            return ready;
+        }
+
+        @Override
+        public T next() {
+            if (!hasNext())
+                throw new NoSuchElementException();
+            ready = false;
+            return next;
+        }
+    }
+
+    @NotNull
+    @Override
+    public String toString() {
+        return name;
+    }
+}
@@ -0,0 +1,1342 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.storage.db.nosql.mvstore;
+
+import com.fasterxml.jackson.annotation.JsonAutoDetect;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.Version;
+import com.fasterxml.jackson.databind.*;
+import com.fasterxml.jackson.databind.module.SimpleModule;
+import com.fasterxml.jackson.databind.node.ObjectNode;
+import de.unijena.bioinf.storage.db.nosql.*;
+import de.unijena.bioinf.storage.db.nosql.utils.ExtFieldUtils;
+import de.unijena.bioinf.storage.db.nosql.utils.PKSuppliers;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.commons.lang3.ClassUtils;
+import org.dizitart.no2.collection.Document;
+import org.dizitart.no2.collection.NitriteId;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+import org.h2.mvstore.MVStoreTool;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.InvocationTargetException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.function.Predicate;
+import java.util.function.Supplier;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+import static de.unijena.bioinf.storage.db.nosql.mvstore.DocumentFilters.*;
+
+/**
+ * {@link Database} implementation that works directly on a H2 {@link MVStore} without the Nitrite layer in between.
+ * <p>
+ * Objects of a repository are stored as JSON (using the serializers of the {@link Metadata}) in a B-tree keyed by their
+ * primary key, documents of a collection are stored as they are, keyed by their {@code _id}. Every {@link Index} is a
+ * persistent B-tree of its own that is kept up to date on every write and only (re)built if it is missing or its
+ * definition changed. Compound indices can answer equality filters on any prefix of their fields, and range filters
+ * and sorting on their first field. Filters are always evaluated on the stored documents, indices only narrow down the
+ * candidates.
+ * <p>
+ * Query results are lazy and iterate over the B-tree version that was current when iteration started, so reads take
+ * no lock at all and never block or wait for writers. Single write operations only lock the repositories or collections
+ * they modify, such that writes to different repositories run concurrently. {@link #write(Callable)} blocks are
+ * exclusive to all other writes. Compaction happens online and only waits for running writes.
+ */
+@Slf4j
+public class MVStoreDatabase implements Database<Document> {
+
+    public enum Compression {NONE, LZF, DEFLATE}
+
+    private static final String REPOSITORY_PREFIX = "repo:";
+    private static final String COLLECTION_PREFIX = "coll:";
+    private static final String INDEX_STATE_MAP = "$indices";
+    private static final String META_MAP = "$meta";
+    private static final String COLLECTION_ID = "_id";
+
+    /**
+     * Number of parents whose children are fetched at once during a join.
+     */
+    private static final int JOIN_BATCH_SIZE = 1024;
+
+    /**
+     * Maximum time {@link #compact()} spends on rewriting chunks of an open store.
+     */
+    private static final int MAX_COMPACT_MILLIS = 10 * 60 * 1000;
+
+    private final Metadata meta;
+
+    protected Path file;
+
+    private final Compression compression;
+
+    private final MVStore store;
+
+    private final boolean readOnly;
+
+    @Getter
+    private final ObjectMapper objectMapper;
+
+    private final MVMap<String, Boolean> builtIndices;
+
+    private final Map<Class<?>, Keyspace> repositories = Collections.synchronizedMap(new HashMap<>());
+
+    private final Map<Class<?>, Set<String>> optionalRepoFields = Collections.synchronizedMap(new HashMap<>());
+
+    private final Map<Class<?>, Field> primaryKeyFields = Collections.synchronizedMap(new HashMap<>());
+
+    private final Map<Class<?>, Supplier<?>> primaryKeySuppliers = Collections.synchronizedMap(new HashMap<>());
+
+    private final Map<String, Keyspace> collections = Collections.synchronizedMap(new HashMap<>());
+
+    private final Map<String, Set<String>> optionalCollectionFields = Collections.synchronizedMap(new HashMap<>());
+
+    @Getter
+    private final BulkLoads bulkLoads = new BulkLoads();
+
+    private final ExecutorService eventExecutor = Executors.newSingleThreadExecutor(r -> {
+        Thread t = new Thread(r, "mvstore-db-events");
+        t.setDaemon(true);
+        return t;
+    });
+
+    // only used for maps that do not exist in a read only store
+    @Nullable
+    private MVStore emptyStore;
+
+    // LOCKS
+    // single writes share the block lock and lock their keyspace, write blocks and compaction hold it exclusively
+    private final ReentrantReadWriteLock blockLock = new ReentrantReadWriteLock();
+    private final ReentrantReadWriteLock.WriteLock blockWriteLock = blockLock.writeLock();
+    private final ReentrantReadWriteLock.ReadLock blockReadLock = blockLock.readLock();
+    private final ReentrantReadWriteLock stateLock = new ReentrantReadWriteLock();
+    private final ReentrantReadWriteLock.WriteLock stateWriteLock = stateLock.writeLock();
+    private final ReentrantReadWriteLock.ReadLock stateReadLock = stateLock.readLock();
+
+    public MVStoreDatabase(Path file, Metadata meta) throws IOException {
+        this(file, meta, false);
+    }
+
+    public MVStoreDatabase(Path file, Metadata meta, boolean readOnly) throws IOException {
+        this(file, meta, Compression.LZF, 64, 8192, readOnly);
+    }
+
+    public MVStoreDatabase(Path file, Metadata meta, Compression compression, int cacheSizeMiB, int commitBufferKiB, boolean readOnly) throws IOException {
+        this.file = file;
+        this.meta = meta;
+        this.compression = compression;
+        this.readOnly = readOnly;
+        this.objectMapper = initMapper(meta);
+
+        MVStore.Builder builder = new MVStore.Builder()
+                .fileName(file.toString())
+                .cacheSize(cacheSizeMiB)
+                .autoCommitBufferSize(commitBufferKiB);
+        if (compression == Compression.LZF)
+            builder.compress();
+        else if (compression == Compression.DEFLATE)
+            builder.compressHigh();
+        if (readOnly)
+            builder.readOnly();
+        try {
+            this.store = builder.open();
+        } catch (RuntimeException e) {
+            throw new IOException("Could not open database " + file, e);
+        }
+
+        try {
+            checkSchemaVersion(meta.getSchemaVersion());
+            this.builtIndices = openMap(INDEX_STATE_MAP);
+            initCollections(meta);
+            initRepositories(meta);
+            initOptionalFields(meta);
+            if (!readOnly)
+                store.commit();
+        } catch (IOException | RuntimeException e) {
+            close();
+            throw e;
+        }
+    }
+
+    private static ObjectMapper initMapper(Metadata meta) {
+        SimpleModule module = new SimpleModule("sirius-mvstore", Version.unknownVersion());
+        for (Map.Entry<Class<?>, JsonSerializer<?>> entry : meta.serializers.entrySet()) {
+            addSerializer(module, entry.getKey(), entry.getValue());
+        }
+        for (Map.Entry<Class<?>, JsonDeserializer<?>> entry : meta.deserializers.entrySet()) {
+            addDeserializer(module, entry.getKey(), entry.getValue());
+        }
+        // same visibility and failure settings as the nitrite jackson mapper to be able to read the same objects
+        ObjectMapper mapper = new ObjectMapper();
+        mapper.setVisibility(mapper.getSerializationConfig().getDefaultVisibilityChecker()
+                .withFieldVisibility(JsonAutoDetect.Visibility.ANY)
+                .withGetterVisibility(JsonAutoDetect.Visibility.NONE)
+                .withIsGetterVisibility(JsonAutoDetect.Visibility.NONE));
+        mapper.configure(SerializationFeature.FAIL_ON_EMPTY_BEANS, false);
+        mapper.configure(DeserializationFeature.FAIL_ON_UNKNOWN_PROPERTIES, false);
+        mapper.configure(JsonParser.Feature.ALLOW_UNQUOTED_FIELD_NAMES, true);
+        mapper.registerModule(module);
+        return mapper;
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void addSerializer(SimpleModule module, Class<?> clazz, JsonSerializer<?> serializer) {
+        module.addSerializer((Class<T>) clazz, (JsonSerializer<T>) serializer);
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <T> void addDeserializer(SimpleModule module, Class<?> clazz, JsonDeserializer<?> deserializer) {
+        module.addDeserializer((Class<T>) clazz, (JsonDeserializer<T>) deserializer);
+    }
+
+    private void checkSchemaVersion(int schemaVersion) throws IOException {
+        MVMap<String, Object> metaMap = openMap(META_MAP);
+        Object stored = metaMap.get("schemaVersion");
+        if (stored == null) {
+            if (!readOnly)
+                metaMap.put("schemaVersion", schemaVersion);
+        } else if ((int) stored != schemaVersion) {
+            throw new IOException("Schema version mismatch! Database has version " + stored + " but version " + schemaVersion + " is required.");
+        }
+    }
+
+    private <K, V> MVMap<K, V> openMap(String name) {
+        if (readOnly && !store.hasMap(name)) {
+            if (emptyStore == null)
+                emptyStore = MVStore.open(null);
+            return emptyStore.openMap(name);
+        }
+        return store.openMap(name);
+    }
+
+    private void initCollections(Metadata meta) {
+        for (String name : meta.collectionIndices.keySet()) {
+            Keyspace collection = openCollection(name);
+            collection.setIndices(meta.collectionIndices.get(name), readOnly);
+            this.collections.put(name, collection);
+        }
+    }
+
+    private Keyspace openCollection(String name) {
+        return new Keyspace(COLLECTION_PREFIX + name, store, openMap(COLLECTION_PREFIX + name), builtIndices, COLLECTION_ID,
+                String::valueOf, doc -> objectMapper.valueToTree(doc), objectMapper);
+    }
+
+    private void initRepositories(Metadata meta) throws IOException {
+        for (Class<?> clazz : meta.repoIndices.keySet()) {
+            Field pkField = meta.pkFields.get(clazz);
+            pkField.setAccessible(true);
+            this.primaryKeyFields.put(clazz, pkField);
+            Supplier<?> supplier = PKSuppliers.resolve(clazz, pkField, meta.pkSuppliers.get(clazz));
+            if (supplier != null)
+                this.primaryKeySuppliers.put(clazz, supplier);
+
+            final Class<?> keyType = ClassUtils.primitiveToWrapper(pkField.getType());
+            String name = REPOSITORY_PREFIX + clazz.getName();
+            Keyspace repository = new Keyspace(name, store, openMap(name), builtIndices, pkField.getName(),
+                    value -> keyType.isInstance(value) ? value : objectMapper.convertValue(value, keyType),
+                    bytes -> {
+                        try {
+                            return objectMapper.readTree((byte[]) bytes);
+                        } catch (IOException e) {
+                            throw new RuntimeException(e);
+                        }
+                    }, objectMapper);
+            repository.setIndices(meta.repoIndices.get(clazz), readOnly);
+            this.repositories.put(clazz, repository);
+        }
+    }
+
+    private void initOptionalFields(Metadata meta) {
+        meta.optionalRepoFields.forEach((clazz, fields) -> optionalRepoFields.put(clazz, new HashSet<>(Arrays.asList(fields))));
+        meta.optionalCollectionFields.forEach((collection, fields) -> optionalCollectionFields.put(collection, new HashSet<>(Arrays.asList(fields))));
+    }
+
+    @Override
+    public void disableIndices(Class<?> clazz, Index... keep) {
+        HashSet<Index> kp = new HashSet<>(Arrays.asList(keep));
+        stateWriteLock.lock();
+        try {
+            String pkField = meta.pkFields.get(clazz).getName();
+            Index[] indicesToKeep = Arrays.stream(meta.repoIndices.get(clazz))
+                    .filter(i -> kp.contains(i) || i.getFields()[0].equals(pkField)).toArray(Index[]::new);
+            repositories.get(clazz).setIndices(indicesToKeep, readOnly);
+        } finally {
+            stateWriteLock.unlock();
+        }
+    }
+
+    @Override
+    public void enableIndices(Class<?> clazz) {
+        stateWriteLock.lock();
+        try {
+            repositories.get(clazz).setIndices(meta.repoIndices.get(clazz), readOnly);
+        } finally {
+            stateWriteLock.unlock();
+        }
+    }
+
+    @Override
+    public Index[] getIndices(Class<?> clazz) {
+        return meta.repoIndices.get(clazz);
+    }
+
+    @Override
+    public Path location() {
+        return file;
+    }
+
+    @Override
+    public void flush() {
+        stateReadLock.lock();
+        try {
+            if (!store.isClosed())
+                store.commit();
+            else
+                log.warn("MVStore database is closed! Cannot commit any changes!");
+        } finally {
+            stateReadLock.unlock();
+        }
+    }
+
+    /**
+     * Compacts an open store online, that is reads continue and writes wait until compaction is done. A closed store is
+     * compacted offline.
+     */
+    @Override
+    public void compact() {
+        if (readOnly)
+            return;
+        stateReadLock.lock();
+        try {
+            if (store.isClosed()) {
+                MVStoreTool.compact(file.toString(), compression != Compression.NONE);
+                return;
+            }
+            blockWriteLock.lock();
+            try {
+                store.compactFile(MAX_COMPACT_MILLIS);
+            } finally {
+                blockWriteLock.unlock();
+            }
+        } finally {
+            stateReadLock.unlock();
+        }
+    }
+
+    @Override
+    public void close() {
+        stateWriteLock.lock();
+        try {
+            eventExecutor.shutdown();
+            if (!store.isClosed())
+                store.close();
+            if (emptyStore != null && !emptyStore.isClosed())
+                emptyStore.close();
+        } finally {
+            stateWriteLock.unlock();
+        }
+    }
+
+    private <T> T callIfOpen(Callable<T> callable) throws IOException {
+        stateReadLock.lock();
+        try {
+            if (store.isClosed()) {
+                throw new IOException("MVStore database is closed!");
+            }
+            return callable.call();
+        } catch (IOException e) {
+            throw e;
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        } finally {
+            stateReadLock.unlock();
+        }
+    }
+
+    /**
+     * Reads do not lock, they work on the B-tree versions that are current when they access a map.
+     */
+    @Override
+    public <T> T read(Callable<T> callable) throws IOException {
+        return this.callIfOpen(callable);
+    }
+
+    @Override
+    public <T> T write(Callable<T> callable) throws IOException {
+        return this.callIfOpen(() -> {
+            blockWriteLock.lock();
+            try {
+                return callable.call();
+            } finally {
+                blockWriteLock.unlock();
+            }
+        });
+    }
+
+    /**
+     * Runs a single write operation, which locks the keyspaces it modifies but does not block writes to other ones.
+     */
+    private <T> T modify(Callable<T> callable) throws IOException {
+        return this.callIfOpen(() -> {
+            blockReadLock.lock();
+            try {
+                return callable.call();
+            } finally {
+                blockReadLock.unlock();
+            }
+        });
+    }
+
+    @Override
+    public Set<Class<?>> getAllRegisteredClasses() {
+        return this.repositories.keySet();
+    }
+
+    private void checkWritable() throws IOException {
+        if (readOnly) {
+            throw new IOException("MVStore database is read only!");
+        }
+    }
+
+    private Keyspace getRepository(Class<?> clazz) throws IOException {
+        Keyspace repository = repositories.get(clazz);
+        if (repository == null) {
+            throw new IOException(clazz + " is not registered.");
+        }
+        return repository;
+    }
+
+    private Keyspace getCollection(String name) throws IOException {
+        Keyspace collection = collections.get(name);
+        if (collection == null) {
+            // collections without indices are not part of the metadata but might exist in the store
+            if (!store.hasMap(COLLECTION_PREFIX + name)) {
+                throw new IOException(name + " is not registered.");
+            }
+            collection = collections.computeIfAbsent(name, this::openCollection);
+        }
+        return collection;
+    }
+
+    //region conversion
+
+    private Set<String> omittedFields(Class<?> clazz, String[] withOptionalFields) {
+        Set<String> omittedFields = new HashSet<>(optionalRepoFields.getOrDefault(clazz, Set.of()));
+        Arrays.asList(withOptionalFields).forEach(omittedFields::remove);
+        return omittedFields;
+    }
+
+    private Set<String> omittedFields(String collectionName, String[] withOptionalFields) {
+        Set<String> omittedFields = new HashSet<>(optionalCollectionFields.getOrDefault(collectionName, Set.of()));
+        Arrays.asList(withOptionalFields).forEach(omittedFields::remove);
+        return omittedFields;
+    }
+
+    private <T> T toObject(Class<T> clazz, Keyspace.Entry entry, Set<String> omittedFields) {
+        try {
+            if (omittedFields.isEmpty()) {
+                return entry.tree() != null ? objectMapper.treeToValue(entry.tree(), clazz) : objectMapper.readValue((byte[]) entry.stored(), clazz);
+            }
+            ObjectNode tree = entry.tree() != null ? (ObjectNode) entry.tree().deepCopy() : (ObjectNode) objectMapper.readTree((byte[]) entry.stored());
+            tree.remove(omittedFields);
+            return objectMapper.treeToValue(tree, clazz);
+        } catch (IOException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private static Document toDocument(Keyspace.Entry entry, Set<String> omittedFields) {
+        Document document = ((Document) entry.stored()).clone();
+        omittedFields.forEach(document::remove);
+        return document;
+    }
+
+    private static <A, B> Iterable<B> map(Iterable<A> iterable, Function<A, B> mapping) {
+        return () -> {
+            Iterator<A> it = iterable.iterator();
+            return new Iterator<>() {
+                @Override
+                public boolean hasNext() {
+                    return it.hasNext();
+                }
+
+                @Override
+                public B next() {
+                    return mapping.apply(it.next());
+                }
+            };
+        };
+    }
+
+    private static <T> List<T> toList(Iterable<T> iterable) {
+        List<T> list = new ArrayList<>();
+        iterable.forEach(list::add);
+        return list;
+    }
+
+    //endregion
+
+    //region query
+
+    /**
+     * Plans a query and returns a lazy iterable of its results. The plan is created when this method is called, the
+     * documents are read when the iterable is iterated.
+     *
+     * @param pageSize maximum number of results or a negative value for all results
+     */
+    private Iterable<Keyspace.Entry> query(Keyspace keyspace, @Nullable Filter filter, long offset, int pageSize, String[] sortFields, SortOrder[] sortOrders, boolean withTree) {
+        Predicate<JsonNode> predicate = null;
+        Keyspace.Plan plan = null;
+        if (filter != null) {
+            Filter.FilterNode root = root(filter);
+            predicate = compile(root, objectMapper);
+            plan = keyspace.plan(root);
+        }
+
+        Comparator<JsonNode> comparator = null;
+        if (sortFields.length > 0 && sortFields.length == sortOrders.length) {
+            boolean indexOrder = false;
+            if (sortFields.length == 1) {
+                if (plan != null) {
+                    indexOrder = sortFields[0].equals(plan.orderedBy());
+                } else {
+                    plan = keyspace.orderedBy(sortFields[0]);
+                    indexOrder = plan != null;
+                }
+            }
+            if (indexOrder) {
+                if (sortOrders[0] == SortOrder.DESCENDING) {
+                    List<Object> keys = new ArrayList<>(plan.keys());
+                    Collections.reverse(keys);
+                    plan = new Keyspace.Plan(keys, plan.orderedBy());
+                }
+            } else {
+                comparator = comparator(sortFields, sortOrders);
+            }
+        }
+
+        final Keyspace.Plan finalPlan = plan;
+        final Predicate<JsonNode> finalPredicate = predicate;
+        final Comparator<JsonNode> finalComparator = comparator;
+        return () -> {
+            Iterator<Keyspace.Entry> iterator = keyspace.scan(finalPlan, finalPredicate, withTree || finalComparator != null);
+            if (finalComparator == null && offset <= 0 && pageSize < 0)
+                return iterator;
+            Stream<Keyspace.Entry> stream = StreamSupport.stream(Spliterators.spliteratorUnknownSize(iterator, Spliterator.ORDERED), false);
+            if (finalComparator != null)
+                stream = stream.sorted(Comparator.comparing(Keyspace.Entry::tree, finalComparator));
+            if (offset > 0)
+                stream = stream.skip(offset);
+            if (pageSize >= 0)
+                stream = stream.limit(pageSize);
+            return stream.iterator();
+        };
+    }
+
+    private <T> Iterable<T> findObjects(Class<T> clazz, @Nullable Filter filter, long offset, int pageSize, String[] sortFields, SortOrder[] sortOrders, String[] withOptionalFields) throws IOException {
+        Set<String> omittedFields = omittedFields(clazz, withOptionalFields);
+        return map(query(getRepository(clazz), filter, offset, pageSize, sortFields, sortOrders, false), e -> toObject(clazz, e, omittedFields));
+    }
+
+    private Iterable<Document> findDocuments(String collectionName, @Nullable Filter filter, long offset, int pageSize, String[] sortFields, SortOrder[] sortOrders, String[] withOptionalFields) throws IOException {
+        Set<String> omittedFields = omittedFields(collectionName, withOptionalFields);
+        return map(query(getCollection(collectionName), filter, offset, pageSize, sortFields, sortOrders, false), e -> toDocument(e, omittedFields));
+    }
+
+    private static String[] sortFields(String sortField) {
+        return new String[]{sortField};
+    }
+
+    private static SortOrder[] sortOrders(SortOrder sortOrder) {
+        return new SortOrder[]{sortOrder};
+    }
+
+    //endregion
+
+    //region insert & upsert
+
+    private Object primaryKey(Keyspace repository, Object object, Field pkField, boolean generate) throws IOException {
+        Optional<Object> pk = PKSuppliers.getPrimaryKeyValue(object, pkField);
+        if (pk.isPresent())
+            return pk.get();
+        Supplier<?> supplier = primaryKeySuppliers.get(object.getClass());
+        if (!generate || supplier == null) {
+            throw new IOException("id can not be null");
+        }
+        Object key;
+        do {
+            key = supplier.get();
+        } while (repository.get(key) != null);
+        try {
+            pkField.set(object, key);
+        } catch (IllegalAccessException e) {
+            throw new IOException("id field is not accessible");
+        }
+        return key;
+    }
+
+    private <T> int doInsert(Keyspace repository, T object) throws IOException {
+        repository.writeLock.lock();
+        try {
+            checkWritable();
+            Object key = primaryKey(repository, object, primaryKeyFields.get(object.getClass()), true);
+            JsonNode tree = objectMapper.valueToTree(object);
+            byte[] bytes = objectMapper.writeValueAsBytes(tree);
+            repository.insert(key, bytes, tree);
+            if (repository.hasListeners())
+                repository.fire(Keyspace.Event.INSERT, new Keyspace.Entry(key, bytes, tree), eventExecutor);
+            return 1;
+        } finally {
+            repository.writeLock.unlock();
+        }
+    }
+
+    private <T> int doUpsert(Keyspace repository, T object) throws IOException {
+        repository.writeLock.lock();
+        try {
+            checkWritable();
+            Optional<Object> key = PKSuppliers.getPrimaryKeyValue(object, primaryKeyFields.get(object.getClass()));
+            if (key.isEmpty())
+                return doInsert(repository, object);
+
+            Object stored = repository.get(key.get());
+            if (stored == null)
+                return doInsert(repository, object);
+
+            ObjectNode tree = (ObjectNode) repository.tree(stored);
+            merge(tree, objectMapper.valueToTree(object));
+            byte[] bytes = objectMapper.writeValueAsBytes(tree);
+            repository.update(key.get(), bytes, tree);
+            if (repository.hasListeners())
+                repository.fire(Keyspace.Event.UPDATE, new Keyspace.Entry(key.get(), bytes, tree), eventExecutor);
+            return 1;
+        } finally {
+            repository.writeLock.unlock();
+        }
+    }
+
+    /**
+     * Merges the update into the target like nitrite does: nested objects are merged recursively, all other fields
+     * are replaced.
+     */
+    private static void merge(ObjectNode target, ObjectNode update) {
+        update.fields().forEachRemaining(e -> {
+            JsonNode current = target.get(e.getKey());
+            if (current instanceof ObjectNode c && e.getValue() instanceof ObjectNode u) {
+                merge(c, u);
+            } else {
+                target.set(e.getKey(), e.getValue());
+            }
+        });
+    }
+
+    private int doInsert(Keyspace collection, Document document) throws IOException {
+        collection.writeLock.lock();
+        try {
+            checkWritable();
+            String key = document.getId().getIdValue();
+            Document stored = document.clone();
+            JsonNode tree = collection.tree(stored);
+            collection.insert(key, stored, tree);
+            if (collection.hasListeners())
+                collection.fire(Keyspace.Event.INSERT, new Keyspace.Entry(key, stored, tree), eventExecutor);
+            return 1;
+        } finally {
+            collection.writeLock.unlock();
+        }
+    }
+
+    private int doUpsert(Keyspace collection, Document document) throws IOException {
+        collection.writeLock.lock();
+        try {
+            checkWritable();
+            String key = document.getId().getIdValue();
+            Object old = collection.get(key);
+            if (old == null)
+                return doInsert(collection, document);
+
+            Document stored = ((Document) old).clone().merge(document.clone());
+            JsonNode tree = collection.tree(stored);
+            collection.update(key, stored, tree);
+            if (collection.hasListeners())
+                collection.fire(Keyspace.Event.UPDATE, new Keyspace.Entry(key, stored, tree), eventExecutor);
+            return 1;
+        } finally {
+            collection.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public <T> int insert(T object) throws IOException {
+        return this.modify(() -> doInsert(getRepository(object.getClass()), object));
+    }
+
+    @Override
+    public <T> int insertAll(Iterable<T> objects) throws IOException {
+        return this.modify(() -> {
+            int count = 0;
+            for (T object : objects) {
+                count += doInsert(getRepository(object.getClass()), object);
+            }
+            return count;
+        });
+    }
+
+    @Override
+    public int insert(String collectionName, Document document) throws IOException {
+        return this.modify(() -> doInsert(getCollection(collectionName), document));
+    }
+
+    @Override
+    public int insertAll(String collectionName, Iterable<Document> documents) throws IOException {
+        return this.modify(() -> {
+            Keyspace collection = getCollection(collectionName);
+            int count = 0;
+            for (Document document : documents) {
+                count += doInsert(collection, document);
+            }
+            return count;
+        });
+    }
+
+    @Override
+    public <T> int upsert(T object) throws IOException {
+        return this.modify(() -> doUpsert(getRepository(object.getClass()), object));
+    }
+
+    @Override
+    public <T> int upsertAll(Iterable<T> objects) throws IOException {
+        return this.modify(() -> {
+            int count = 0;
+            for (T object : objects) {
+                count += doUpsert(getRepository(object.getClass()), object);
+            }
+            return count;
+        });
+    }
+
+    @Override
+    public int upsert(String collectionName, Document document) throws IOException {
+        return this.modify(() -> doUpsert(getCollection(collectionName), document));
+    }
+
+    @Override
+    public int upsertAll(String collectionName, Iterable<Document> documents) throws IOException {
+        return this.modify(() -> {
+            Keyspace collection = getCollection(collectionName);
+            int count = 0;
+            for (Document document : documents) {
+                count += doUpsert(collection, document);
+            }
+            return count;
+        });
+    }
+
+    //endregion
+
+    //region find
+
+    @Override
+    public <T> Optional<T> getByPrimaryKey(Object primaryKey, Class<T> clazz, String... withOptionalFields) throws IOException {
+        return this.read(() -> {
+            Keyspace repository = getRepository(clazz);
+            Object key = ClassUtils.primitiveToWrapper(primaryKeyFields.get(clazz).getType()).isInstance(primaryKey)
+                    ? primaryKey : objectMapper.convertValue(primaryKey, ClassUtils.primitiveToWrapper(primaryKeyFields.get(clazz).getType()));
+            Object stored = repository.get(key);
+            if (stored == null)
+                return Optional.empty();
+            return Optional.of(toObject(clazz, new Keyspace.Entry(key, stored, null), omittedFields(clazz, withOptionalFields)));
+        });
+    }
+
+    public Optional<Document> getByNitriteId(String collectionName, NitriteId id, String... withOptionalFields) throws IOException {
+        return this.read(() -> {
+            Keyspace collection = getCollection(collectionName);
+            Object stored = collection.get(id.getIdValue());
+            if (stored == null)
+                return Optional.empty();
+            return Optional.of(toDocument(new Keyspace.Entry(id.getIdValue(), stored, null), omittedFields(collectionName, withOptionalFields)));
+        });
+    }
+
+    @Override
+    public <T> Iterable<T> find(Filter filter, Class<T> clazz, String... withOptionalFields) throws IOException {
+        return this.read(() -> findObjects(clazz, filter, 0, -1, new String[0], new SortOrder[0], withOptionalFields));
+    }
+
+    @Override
+    public <T> Iterable<T> find(Filter filter, Class<T> clazz, long offset, int pageSize, String... withOptionalFields) throws IOException {
+        return this.read(() -> findObjects(clazz, filter, offset, pageSize, new String[0], new SortOrder[0], withOptionalFields));
+    }
+
+    @Override
+    public <T> Iterable<T> find(Filter filter, Class<T> clazz, String sortField, SortOrder sortOrder, String... withOptionalFields) throws IOException {
+        return this.read(() -> findObjects(clazz, filter, 0, -1, sortFields(sortField), sortOrders(sortOrder), withOptionalFields));
+    }
+
+    @Override
+    public <T> Iterable<T> find(Filter filter, Class<T> clazz, String[] sortFields, SortOrder[] sortOrders, String... withOptionalFields) throws IOException {
+        return this.read(() -> findObjects(clazz, filter, 0, -1, sortFields, sortOrders, withOptionalFields));
+    }
+
+    @Override
+    public <T> Iterable<T> find(Filter filter, Class<T> clazz, long offset, int pageSize, String sortField, SortOrder sortOrder, String... withOptionalFields) throws IOException {
+        return this.read(() -> findObjects(clazz, filter, offset, pageSize, sortFields(sortField), sortOrders(sortOrder), withOptionalFields));
+    }
+
+    @Override
+    public <T> Iterable<T> find(Filter filter, Class<T> clazz, long offset, int pageSize, String[] sortFields, SortOrder[] sortOrders, String... withOptionalFields) throws IOException {
+        return this.read(() -> findObjects(clazz, filter, offset, pageSize, sortFields, sortOrders, withOptionalFields));
+    }
+
+    @Override
+    public Iterable<Document> find(String collectionName, Filter filter, String... withOptionalFields) throws IOException {
+        return this.read(() -> findDocuments(collectionName, filter, 0, -1, new String[0], new SortOrder[0], withOptionalFields));
+    }
+
+    @Override
+    public Iterable<Document> find(String collectionName, Filter filter, long offset, int pageSize, String... withOptionalFields) throws IOException {
+        return this.read(() -> findDocuments(collectionName, filter, offset, pageSize, new String[0], new SortOrder[0], withOptionalFields));
+    }
+
+    @Override
+    public Iterable<Document> find(String collectionName, Filter filter, String sortField, SortOrder sortOrder, String... withOptionalFields) throws IOException {
+        return this.read(() -> findDocuments(collectionName, filter, 0, -1, sortFields(sortField), sortOrders(sortOrder), withOptionalFields));
+    }
+
+    @Override
+    public Iterable<Document> find(String collectionName, Filter filter, long offset, int pageSize, String sortField, SortOrder sortOrder, String... withOptionalFields) throws IOException {
+        return this.read(() -> findDocuments(collectionName, filter, offset, pageSize, sortFields(sortField), sortOrders(sortOrder), withOptionalFields));
+    }
+
+    @Override
+    public <T> Iterable<T> findAll(Class<T> clazz, String... withOptionalFields) throws IOException {
+        return this.read(() -> findObjects(clazz, null, 0, -1, new String[0], new SortOrder[0], withOptionalFields));
+    }
+
+    @Override
+    public <T> Iterable<T> findAll(Class<T> clazz, long offset, int pageSize, String... withOptionalFields) throws IOException {
+        return this.read(() -> findObjects(clazz, null, offset, pageSize, new String[0], new SortOrder[0], withOptionalFields));
+    }
+
+    @Override
+    public <T> Iterable<T> findAll(Class<T> clazz, String sortField, SortOrder sortOrder, String... withOptionalFields) throws IOException {
+        return this.read(() -> findObjects(clazz, null, 0, -1, sortFields(sortField), sortOrders(sortOrder), withOptionalFields));
+    }
+
+    @Override
+    public <T> Iterable<T> findAll(Class<T> clazz, String[] sortFields, SortOrder[] sortOrders, String... withOptionalFields) throws IOException {
+        return this.read(() -> findObjects(clazz, null, 0, -1, sortFields, sortOrders, withOptionalFields));
+    }
+
+    @Override
+    public <T> Iterable<T> findAll(Class<T> clazz, long offset, int pageSize, String sortField, SortOrder sortOrder, String... withOptionalFields) throws IOException {
+        return this.read(() -> findObjects(clazz, null, offset, pageSize, sortFields(sortField), sortOrders(sortOrder), withOptionalFields));
+    }
+
+    @Override
+    public <T> Iterable<T> findAll(Class<T> clazz, long offset, int pageSize, String[] sortFields, SortOrder[] sortOrders, String... withOptionalFields) throws IOException {
+        return this.read(() -> findObjects(clazz, null, offset, pageSize, sortFields, sortOrders, withOptionalFields));
+    }
+
+    @Override
+    public Iterable<Document> findAll(String collectionName, String... withOptionalFields) throws IOException {
+        return this.read(() -> findDocuments(collectionName, null, 0, -1, new String[0], new SortOrder[0], withOptionalFields));
+    }
+
+    @Override
+    public Iterable<Document> findAll(String collectionName, long offset, int pageSize, String... withOptionalFields) throws IOException {
+        return this.read(() -> findDocuments(collectionName, null, offset, pageSize, new String[0], new SortOrder[0], withOptionalFields));
+    }
+
+    @Override
+    public Iterable<Document> findAll(String collectionName, String sortField, SortOrder sortOrder, String... withOptionalFields) throws IOException {
+        return this.read(() -> findDocuments(collectionName, null, 0, -1, sortFields(sortField), sortOrders(sortOrder), withOptionalFields));
+    }
+
+    @Override
+    public Iterable<Document> findAll(String collectionName, long offset, int pageSize, String sortField, SortOrder sortOrder, String... withOptionalFields) throws IOException {
+        return this.read(() -> findDocuments(collectionName, null, offset, pageSize, sortFields(sortField), sortOrders(sortOrder), withOptionalFields));
+    }
+
+    //endregion
+
+    //region optional fields
+
+    @Override
+    public <T> T injectOptionalFields(T object, String... optionalFields) throws IOException {
+        if (optionalFields.length == 0)
+            return object;
+        return this.read(() -> {
+            Keyspace repository = getRepository(object.getClass());
+            Object key = PKSuppliers.getPrimaryKeyValue(object, primaryKeyFields.get(object.getClass()))
+                    .orElseThrow(() -> new IOException("id filter can not be null"));
+            Object stored = repository.get(key);
+            if (stored == null) {
+                throw new IOException("Document not found: " + key);
+            }
+            JsonNode tree = repository.tree(stored);
+            for (String fieldName : optionalFields) {
+                Field field = ExtFieldUtils.getAllField(object.getClass(), fieldName);
+                JsonNode value = tree.get(fieldName);
+                field.set(object, value == null || value.isNull() ? null : objectMapper.readerFor(objectMapper.constructType(field.getGenericType())).readValue(value));
+            }
+            return object;
+        });
+    }
+
+    @Override
+    public Document injectOptionalFields(String collectionName, Document document, String... optionalFields) throws IOException {
+        if (optionalFields.length == 0)
+            return document;
+        return this.read(() -> {
+            Object stored = getCollection(collectionName).get(document.getId().getIdValue());
+            if (stored == null) {
+                throw new IOException("No such document: " + document.getId());
+            }
+            Document injected = document.clone();
+            for (String field : optionalFields) {
+                injected.put(field, ((Document) stored).clone().get(field));
+            }
+            return injected;
+        });
+    }
+
+    @Override
+    public <T> Iterable<T> injectOptionalFields(Class<T> clazz, Iterable<T> objects, String... optionalFields) throws IOException {
+        getRepository(clazz);
+        return map(objects, object -> {
+            try {
+                return injectOptionalFields(object, optionalFields);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    @Override
+    public Iterable<Document> injectOptionalFields(String collectionName, Iterable<Document> documents, String... optionalFields) throws IOException {
+        getCollection(collectionName);
+        return map(documents, document -> {
+            try {
+                return injectOptionalFields(collectionName, document, optionalFields);
+            } catch (IOException e) {
+                throw new RuntimeException(e);
+            }
+        });
+    }
+
+    //endregion
+
+    //region join
+
+    /**
+     * Joins children to parents in batches of {@link #JOIN_BATCH_SIZE} parents. The children of a batch are fetched
+     * with a single index lookup (or a single scan if the foreign field is not indexed) and assigned to their parents
+     * via their canonical foreign field values.
+     *
+     * @param localValue  extracts the local field value of a parent
+     * @param assign      assigns the matching children to a parent and returns the joined parent
+     */
+    private <P> Iterable<P> join(Keyspace children, @Nullable Filter childFilter, Iterable<P> parents, Function<P, Object> localValue,
+                                 String foreignField, java.util.function.BiFunction<P, List<Keyspace.Entry>, P> assign) {
+        final Predicate<JsonNode> childPredicate = childFilter != null ? compile(root(childFilter), objectMapper) : null;
+        final String[] foreignPath = path(foreignField);
+        return () -> {
+            final Iterator<P> parentIterator = parents.iterator();
+            return new Iterator<>() {
+                private final ArrayDeque<P> batch = new ArrayDeque<>();
+                private final ArrayDeque<P> joined = new ArrayDeque<>();
+
+                @Override
+                public boolean hasNext() {
+                    if (joined.isEmpty())
+                        nextBatch();
+                    return !joined.isEmpty();
+                }
+
+                @Override
+                public P next() {
+                    if (!hasNext())
+                        throw new NoSuchElementException();
+                    return joined.poll();
+                }
+
+                private void nextBatch() {
+                    while (batch.size() < JOIN_BATCH_SIZE && parentIterator.hasNext())
+                        batch.add(parentIterator.next());
+                    if (batch.isEmpty())
+                        return;
+
+                    Map<Object, Object> localValues = new IdentityHashMap<>();
+                    Set<Object> keys = new HashSet<>();
+                    List<Comparable<?>> values = new ArrayList<>();
+                    boolean indexable = true;
+                    for (P parent : batch) {
+                        Object canonical = canonical(localValue.apply(parent), objectMapper);
+                        if (canonical != null) {
+                            Object key = joinKey(canonical);
+                            localValues.put(parent, key);
+                            if (keys.add(key)) {
+                                if (canonical instanceof Comparable<?> c)
+                                    values.add(c);
+                                else
+                                    indexable = false;
+                            }
+                        }
+                    }
+
+                    Map<Object, List<Keyspace.Entry>> byForeignValue = new HashMap<>();
+                    if (!keys.isEmpty()) {
+                        Keyspace.Plan plan = indexable ? children.plan(root(Filter.where(foreignField).in(values.toArray(Comparable[]::new)))) : null;
+                        Iterator<Keyspace.Entry> it = children.scan(plan, childPredicate, true);
+                        while (it.hasNext()) {
+                            Keyspace.Entry child = it.next();
+                            JsonNode foreign = resolve(child.tree(), foreignPath);
+                            for (JsonNode value : foreign.isArray() ? foreign : List.of(foreign)) {
+                                Object key = joinKey(scalar(value));
+                                if (keys.contains(key))
+                                    byForeignValue.computeIfAbsent(key, k -> new ArrayList<>()).add(child);
+                            }
+                        }
+                    }
+
+                    for (P parent : batch) {
+                        Object key = localValues.get(parent);
+                        joined.add(assign.apply(parent, key == null ? List.of() : byForeignValue.getOrDefault(key, List.of())));
+                    }
+                    batch.clear();
+                }
+            };
+        };
+    }
+
+    private static Object joinKey(@Nullable Object canonical) {
+        // BigDecimal.equals respects the scale
+        return canonical instanceof java.math.BigDecimal d ? d.stripTrailingZeros() : keyComponent(canonical);
+    }
+
+    private <P, C> Iterable<P> joinObjects(Class<C> childClass, @Nullable Filter childFilter, Iterable<P> parents, String localField, String foreignField, String targetField, String[] withOptionalChildFields) throws IOException {
+        Keyspace children = getRepository(childClass);
+        Set<String> omittedFields = omittedFields(childClass, withOptionalChildFields);
+        return join(children, childFilter, parents, parent -> {
+            try {
+                return ExtFieldUtils.getAllFieldValue(parent, localField);
+            } catch (IllegalAccessException e) {
+                throw new RuntimeException(e);
+            }
+        }, foreignField, (parent, entries) -> {
+            if (!entries.isEmpty())
+                addChildren(parent, targetField, entries.stream().map(e -> toObject(childClass, e, omittedFields)).toList());
+            return parent;
+        });
+    }
+
+    @SuppressWarnings("unchecked")
+    private static <P, C> void addChildren(P parent, String targetField, List<C> children) {
+        try {
+            Field field = ExtFieldUtils.getAllField(parent.getClass(), targetField);
+            if (!ClassUtils.getAllInterfaces(field.getType()).contains(Collection.class) && field.getType() != Collection.class) {
+                throw new IOException("targetField must be a collection.");
+            }
+            Collection<C> collection = (Collection<C>) field.get(parent);
+            if (collection == null) {
+                if (field.getType() == List.class || field.getType() == Collection.class) {
+                    collection = new ArrayList<>();
+                } else if (field.getType() == BlockingDeque.class) {
+                    collection = new LinkedBlockingDeque<>();
+                } else if (field.getType() == BlockingQueue.class) {
+                    collection = new LinkedBlockingQueue<>();
+                } else if (field.getType() == Deque.class || field.getType() == Queue.class) {
+                    collection = new ArrayDeque<>();
+                } else if (field.getType() == Set.class) {
+                    collection = new HashSet<>();
+                } else if (field.getType() == TransferQueue.class) {
+                    collection = new LinkedTransferQueue<>();
+                } else {
+                    collection = (Collection<C>) field.getType().getDeclaredConstructor().newInstance();
+                }
+            }
+            collection.addAll(children);
+            field.set(parent, collection);
+        } catch (IOException | IllegalAccessException | NoSuchMethodException | InstantiationException | InvocationTargetException e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+    private Iterable<Document> joinDocuments(String childCollectionName, @Nullable Filter childFilter, Iterable<Document> parents, String localField, String foreignField, String targetField, String[] withOptionalChildFields) throws IOException {
+        Keyspace children = getCollection(childCollectionName);
+        Set<String> omittedFields = omittedFields(childCollectionName, withOptionalChildFields);
+        return join(children, childFilter, parents, parent -> parent.get(localField), foreignField, (parent, entries) -> {
+            Document joined = parent.clone();
+            if (!entries.isEmpty())
+                joined.put(targetField, entries.stream().map(e -> toDocument(e, omittedFields)).toList());
+            return joined;
+        });
+    }
+
+    @Override
+    public <P, C> Iterable<P> joinAllChildren(Class<C> childClass, Iterable<P> parents, String localField, String foreignField, String targetField, String... withOptionalChildFields) throws IOException {
+        return joinObjects(childClass, null, parents, localField, foreignField, targetField, withOptionalChildFields);
+    }
+
+    @Override
+    public <P, C> Iterable<P> joinChildren(Class<C> childClass, Filter childFilter, Iterable<P> parents, String localField, String foreignField, String targetField, String... withOptionalChildFields) throws IOException {
+        return joinObjects(childClass, childFilter, parents, localField, foreignField, targetField, withOptionalChildFields);
+    }
+
+    @Override
+    public Iterable<Document> joinAllChildren(String childCollectionName, Iterable<Document> parents, String localField, String foreignField, String targetField, String... withOptionalChildFields) throws IOException {
+        return joinDocuments(childCollectionName, null, parents, localField, foreignField, targetField, withOptionalChildFields);
+    }
+
+    @Override
+    public Iterable<Document> joinChildren(String childCollectionName, Filter childFilter, Iterable<Document> parents, String localField, String foreignField, String targetField, String... withOptionalChildFields) throws IOException {
+        return joinDocuments(childCollectionName, childFilter, parents, localField, foreignField, targetField, withOptionalChildFields);
+    }
+
+    //endregion
+
+    //region count
+
+    @Override
+    public <T> boolean containsPrimaryKey(Object primaryKey, Class<T> clazz) throws IOException {
+        return getByPrimaryKey(primaryKey, clazz).isPresent();
+    }
+
+    @Override
+    public <T> long count(Filter filter, Class<T> clazz) throws IOException {
+        return this.read(() -> count(query(getRepository(clazz), filter, 0, -1, new String[0], new SortOrder[0], false)));
+    }
+
+    @Override
+    public <T> long count(Filter filter, Class<T> clazz, long offset, int pageSize) throws IOException {
+        return this.read(() -> count(query(getRepository(clazz), filter, offset, pageSize, new String[0], new SortOrder[0], false)));
+    }
+
+    @Override
+    public <T> long countAll(Class<T> clazz) throws IOException {
+        return this.read(() -> getRepository(clazz).size());
+    }
+
+    @Override
+    public long count(String collectionName, Filter filter) throws IOException {
+        return this.read(() -> count(query(getCollection(collectionName), filter, 0, -1, new String[0], new SortOrder[0], false)));
+    }
+
+    @Override
+    public long count(String collectionName, Filter filter, long offset, int pageSize) throws IOException {
+        return this.read(() -> count(query(getCollection(collectionName), filter, offset, pageSize, new String[0], new SortOrder[0], false)));
+    }
+
+    @Override
+    public long countAll(String collectionName) throws IOException {
+        return this.read(() -> getCollection(collectionName).size());
+    }
+
+    private static long count(Iterable<?> iterable) {
+        long count = 0;
+        for (Iterator<?> it = iterable.iterator(); it.hasNext(); it.next())
+            count++;
+        return count;
+    }
+
+    //endregion
+
+    //region remove
+
+    private int doRemove(Keyspace keyspace, Object key) throws IOException {
+        keyspace.writeLock.lock();
+        try {
+            checkWritable();
+            Keyspace.Entry removed = keyspace.remove(key);
+            if (removed == null)
+                return 0;
+            if (keyspace.hasListeners())
+                keyspace.fire(Keyspace.Event.REMOVE, removed, eventExecutor);
+            return 1;
+        } finally {
+            keyspace.writeLock.unlock();
+        }
+    }
+
+    private int doRemoveAll(Keyspace keyspace, Filter filter, boolean justOne) throws IOException {
+        keyspace.writeLock.lock();
+        try {
+            // collect the keys first to not modify the documents while scanning them
+            List<Object> keys = new ArrayList<>();
+            for (Keyspace.Entry entry : query(keyspace, filter, 0, justOne ? 1 : -1, new String[0], new SortOrder[0], false))
+                keys.add(entry.key());
+            int count = 0;
+            for (Object key : keys)
+                count += doRemove(keyspace, key);
+            return count;
+        } finally {
+            keyspace.writeLock.unlock();
+        }
+    }
+
+    @Override
+    public <T> int remove(T object) throws IOException {
+        return this.modify(() -> {
+            Keyspace repository = getRepository(object.getClass());
+            return doRemove(repository, primaryKey(repository, object, primaryKeyFields.get(object.getClass()), false));
+        });
+    }
+
+    @Override
+    public <T> int removeAll(Iterable<T> objects) throws IOException {
+        return this.modify(() -> {
+            int count = 0;
+            for (T object : objects) {
+                Keyspace repository = getRepository(object.getClass());
+                count += doRemove(repository, primaryKey(repository, object, primaryKeyFields.get(object.getClass()), false));
+            }
+            return count;
+        });
+    }
+
+    @Override
+    public <T> int removeAll(Filter filter, Class<T> clazz) throws IOException {
+        return this.modify(() -> doRemoveAll(getRepository(clazz), filter, false));
+    }
+
+    @Override
+    public <T> boolean removeOne(Filter filter, Class<T> clazz) throws IOException {
+        return this.modify(() -> doRemoveAll(getRepository(clazz), filter, true) > 0);
+    }
+
+    @Override
+    public <T> int removeByPrimaryKey(Object primaryKey, Class<T> clazz) throws IOException {
+        return removeAll(Filter.where(this.primaryKeyFields.get(clazz).getName()).eq(primaryKey), clazz);
+    }
+
+    @Override
+    public int remove(String collectionName, Document document) throws IOException {
+        return this.modify(() -> {
+            Keyspace collection = getCollection(collectionName);
+            return document.hasId() ? doRemove(collection, document.getId().getIdValue()) : 0;
+        });
+    }
+
+    @Override
+    public int removeAll(String collectionName, Iterable<Document> documents) throws IOException {
+        return this.modify(() -> {
+            Keyspace collection = getCollection(collectionName);
+            int count = 0;
+            for (Document document : documents) {
+                if (document.hasId())
+                    count += doRemove(collection, document.getId().getIdValue());
+            }
+            return count;
+        });
+    }
+
+    @Override
+    public int removeAll(String collectionName, Filter filter) throws IOException {
+        return this.modify(() -> doRemoveAll(getCollection(collectionName), filter, false));
+    }
+
+    //endregion
+
+    //region events
+
+    @Override
+    public <T> long onInsert(Class<T> clazz, Consumer<T> listener, String... withOptionalFields) throws IOException {
+        return registerListener(Keyspace.Event.INSERT, clazz, listener, withOptionalFields);
+    }
+
+    @Override
+    public long onInsert(String collectionName, Consumer<Document> listener, String... withOptionalFields) throws IOException {
+        return registerListener(Keyspace.Event.INSERT, collectionName, listener, withOptionalFields);
+    }
+
+    @Override
+    public <T> long onUpdate(Class<T> clazz, Consumer<T> listener, String... withOptionalFields) throws IOException {
+        return registerListener(Keyspace.Event.UPDATE, clazz, listener, withOptionalFields);
+    }
+
+    @Override
+    public long onUpdate(String collectionName, Consumer<Document> listener, String... withOptionalFields) throws IOException {
+        return registerListener(Keyspace.Event.UPDATE, collectionName, listener, withOptionalFields);
+    }
+
+    @Override
+    public <T> long onRemove(Class<T> clazz, Consumer<T> listener, String... withOptionalFields) throws IOException {
+        return registerListener(Keyspace.Event.REMOVE, clazz, listener, withOptionalFields);
+    }
+
+    @Override
+    public long onRemove(String collectionName, Consumer<Document> listener, String... withOptionalFields) throws IOException {
+        return registerListener(Keyspace.Event.REMOVE, collectionName, listener, withOptionalFields);
+    }
+
+    private <T> long registerListener(Keyspace.Event event, Class<T> clazz, Consumer<T> listener, String[] withOptionalFields) throws IOException {
+        Set<String> omittedFields = omittedFields(clazz, withOptionalFields);
+        return getRepository(clazz).subscribe(event, entry -> {
+            try {
+                listener.accept(toObject(clazz, entry, omittedFields));
+            } catch (RuntimeException e) {
+                log.error("Error in database listener.", e);
+            }
+        });
+    }
+
+    private long registerListener(Keyspace.Event event, String collectionName, Consumer<Document> listener, String[] withOptionalFields) throws IOException {
+        Set<String> omittedFields = omittedFields(collectionName, withOptionalFields);
+        return getCollection(collectionName).subscribe(event, entry -> {
+            try {
+                listener.accept(toDocument(entry, omittedFields));
+            } catch (RuntimeException e) {
+                log.error("Error in database listener.", e);
+            }
+        });
+    }
+
+    @Override
+    public void unsubscribe(Class<?> clazz, long listenerId) throws IOException {
+        getRepository(clazz).unsubscribe(listenerId);
+    }
+
+    @Override
+    public void unsubscribe(String collectionName, long listenerId) throws IOException {
+        getCollection(collectionName).unsubscribe(listenerId);
+    }
+
+    //endregion
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public Predicate<JsonNode> getFilter(Filter filter) {
+        return compile(root(filter), objectMapper);
+    }
+
+}
@@ -35,7 +35,6 @@ import io.hypersistence.tsid.TSID;
 import lombok.Getter;
 import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.compress.utils.Lists;
-import org.apache.commons.lang3.ClassUtils;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.lang3.tuple.Triple;
 import org.dizitart.no2.Nitrite;
@@ -61,9 +60,6 @@ import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
 import java.lang.reflect.Field;
-import java.lang.reflect.Method;
-import java.math.BigDecimal;
-import java.math.BigInteger;
 import java.nio.file.Path;
 import java.util.*;
 import java.util.concurrent.Callable;
@@ -101,6 +97,9 @@ public class NitriteDatabase implements Database<Document> {
 
     private final Map<Long, CollectionEventListener> listeners = Collections.synchronizedMap(new HashMap<>());
 
+    @Getter
+    private final BulkLoads bulkLoads = new BulkLoads();
+
     // LOCKS
     private final ReentrantReadWriteLock readWriteLock = new ReentrantReadWriteLock();
     private final ReentrantReadWriteLock.WriteLock writeLock = readWriteLock.writeLock();
@@ -210,6 +209,11 @@ public class NitriteDatabase implements Database<Document> {
 
     }
 
+    @Override
+    public Index[] getIndices(Class<?> clazz) {
+        return meta.repoIndices.get(clazz);
+    }
+
     @SuppressWarnings("unchecked")
     private <T> void addSerializer(SimpleModule module, Class<?> clazz, JsonSerializer<?> serializer) {
         Class<T> c = (Class<T>) clazz;
@@ -232,41 +236,9 @@ public class NitriteDatabase implements Database<Document> {
     private void initPrimaryKey(Class<?> clazz, Field pkField, @Nullable Supplier<?> pkSupplier, ObjectRepository<?> repository) throws IOException {
         String pkName = pkField.getName();
         this.primaryKeyFields.put(clazz, pkField);
-        Class<?> fieldType = pkField.getType();
-        if (pkSupplier != null) {
-            try {
-                Class<?> supplierClass = pkSupplier.getClass();
-                Method getMethod = supplierClass.getMethod("get");
-                if (supplierClass.isSynthetic() && !getMethod.isSynthetic()) {
-                    // If the supplier is a lambda, we are unable to check if the return type is correct :(
-                    this.primaryKeySuppliers.put(clazz, pkSupplier);
-                } else {
-                    Class<?> returnType = getMethod.getReturnType();
-                    if (fieldType.equals(returnType) || ClassUtils.getAllSuperclasses(returnType).contains(fieldType)) {
-                        this.primaryKeySuppliers.put(clazz, pkSupplier);
-                    } else {
-                        throw new IOException("Invalid primary key supplier! " +
-                                clazz + "." + pkField.getName() + " has type " + pkField.getType() +
-                                " but the primary key supplier returns " + returnType);
-                    }
-                }
-            } catch (NoSuchMethodException e) {
-                throw new IOException(e);
-            }
-        } else {
-            if (fieldType.equals(String.class)) {
-                this.primaryKeySuppliers.put(clazz, PKSuppliers.getStringKey());
-            } else if (fieldType.equals(Long.class) || fieldType.equals(long.class)) {
-                this.primaryKeySuppliers.put(clazz, PKSuppliers.getLongKey());
-            } else if (fieldType.equals(Double.class) || fieldType.equals(double.class)) {
-                this.primaryKeySuppliers.put(clazz, PKSuppliers.getDoubleKey());
-            } else if (fieldType.equals(BigInteger.class)) {
-                this.primaryKeySuppliers.put(clazz, PKSuppliers.getBigIntKey());
-            } else if (fieldType.equals(BigDecimal.class)) {
-                this.primaryKeySuppliers.put(clazz, PKSuppliers.getBigDecimalKey());
-            }
-
-        }
+        Supplier<?> supplier = PKSuppliers.resolve(clazz, pkField, pkSupplier);
+        if (supplier != null)
+            this.primaryKeySuppliers.put(clazz, supplier);
         if (!repository.hasIndex(pkName)) {
             repository.createIndex(IndexOptions.indexOptions(org.dizitart.no2.index.IndexType.UNIQUE), pkName);
         }
@@ -1147,30 +1119,7 @@ public class NitriteDatabase implements Database<Document> {
     }
 
     public static Optional<Object> getPrimaryKeyValue(Object object, Field field) throws IOException {
-        field.setAccessible(true);
-        try {
-            Object value = field.get(object);
-            if (value == null) {
-                return Optional.empty();
-            } else {
-                // numeric primary keys need to be > 0!
-                if ((field.getType().equals(byte.class) || field.getType().equals(Byte.class)) && (byte) value <= 0)
-                    return Optional.empty();
-                if ((field.getType().equals(short.class) || field.getType().equals(Short.class)) && (short) value <= 0)
-                    return Optional.empty();
-                if ((field.getType().equals(int.class) || field.getType().equals(Integer.class)) && (int) value <= 0)
-                    return Optional.empty();
-                if ((field.getType().equals(long.class) || field.getType().equals(Long.class)) && (long) value <= 0)
-                    return Optional.empty();
-                if ((field.getType().equals(float.class) || field.getType().equals(Float.class)) && (float) value <= 0)
-                    return Optional.empty();
-                if ((field.getType().equals(double.class) || field.getType().equals(Double.class)) && (double) value <= 0)
-                    return Optional.empty();
-            }
-            return Optional.of(value);
-        } catch (IllegalAccessException iae) {
-            throw new IOException("id field is not accessible");
-        }
+        return PKSuppliers.getPrimaryKeyValue(object, field);
     }
 
     private static Pair<Object, NitriteFilter> createUniqueFilter(Object object, Field field) throws IOException {
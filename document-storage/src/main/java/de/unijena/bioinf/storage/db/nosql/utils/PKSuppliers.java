@@ -22,9 +22,15 @@ package de.unijena.bioinf.storage.db.nosql.utils;
 
 import io.hypersistence.tsid.TSID;
 import lombok.Getter;
+import org.apache.commons.lang3.ClassUtils;
+import org.jetbrains.annotations.Nullable;
 
+import java.io.IOException;
+import java.lang.reflect.Field;
+import java.lang.reflect.Method;
 import java.math.BigDecimal;
 import java.math.BigInteger;
+import java.util.Optional;
 import java.util.function.Supplier;
 
 public class PKSuppliers {
@@ -44,4 +50,77 @@ public class PKSuppliers {
     @Getter
     private static final Supplier<String> stringKey = () -> TSID.fast().toString();
 
+    /**
+     * Resolves the primary key supplier of a repository.
+     *
+     * @param pkSupplier user defined supplier or null to use the default supplier for the type of the primary key field.
+     * @return the supplier or null if there is no default supplier for the type of the primary key field.
+     * @throws IOException if the return type of a user defined supplier does not match the primary key field.
+     */
+    @Nullable
+    public static Supplier<?> resolve(Class<?> clazz, Field pkField, @Nullable Supplier<?> pkSupplier) throws IOException {
+        Class<?> fieldType = pkField.getType();
+        if (pkSupplier != null) {
+            try {
+                Class<?> supplierClass = pkSupplier.getClass();
+                Method getMethod = supplierClass.getMethod("get");
+                if (supplierClass.isSynthetic() && !getMethod.isSynthetic()) {
+                    // If the supplier is a lambda, we are unable to check if the return type is correct :(
+                    return pkSupplier;
+                }
+                Class<?> returnType = getMethod.getReturnType();
+                if (fieldType.equals(returnType) || ClassUtils.getAllSuperclasses(returnType).contains(fieldType)) {
+                    return pkSupplier;
+                }
+                throw new IOException("Invalid primary key supplier! " +
+                        clazz + "." + pkField.getName() + " has type " + pkField.getType() +
+                        " but the primary key supplier returns " + returnType);
+            } catch (NoSuchMethodException e) {
+                throw new IOException(e);
+            }
+        } else if (fieldType.equals(String.class)) {
+            return stringKey;
+        } else if (fieldType.equals(Long.class) || fieldType.equals(long.class)) {
+            return longKey;
+        } else if (fieldType.equals(Double.class) || fieldType.equals(double.class)) {
+            return doubleKey;
+        } else if (fieldType.equals(BigInteger.class)) {
+            return bigIntKey;
+        } else if (fieldType.equals(BigDecimal.class)) {
+            return bigDecimalKey;
+        }
+        return null;
+    }
+
+    /**
+     * @return the primary key value of the given object or empty if it is not set. Numeric primary keys &lt;= 0 are
+     * considered as not set.
+     */
+    public static Optional<Object> getPrimaryKeyValue(Object object, Field field) throws IOException {
+        field.setAccessible(true);
+        try {
+            Object value = field.get(object);
+            if (value == null) {
+                return Optional.empty();
+            } else {
+                // numeric primary keys need to be > 0!
+                if ((field.getType().equals(byte.class) || field.getType().equals(Byte.class)) && (byte) value <= 0)
+                    return Optional.empty();
+                if ((field.getType().equals(short.class) || field.getType().equals(Short.class)) && (short) value <= 0)
+                    return Optional.empty();
+                if ((field.getType().equals(int.class) || field.getType().equals(Integer.class)) && (int) value <= 0)
+                    return Optional.empty();
+                if ((field.getType().equals(long.class) || field.getType().equals(Long.class)) && (long) value <= 0)
+                    return Optional.empty();
+                if ((field.getType().equals(float.class) || field.getType().equals(Float.class)) && (float) value <= 0)
+                    return Optional.empty();
+                if ((field.getType().equals(double.class) || field.getType().equals(Double.class)) && (double) value <= 0)
+                    return Optional.empty();
+            }
+            return Optional.of(value);
+        } catch (IllegalAccessException iae) {
+            throw new IOException("id field is not accessible");
+        }
+    }
+
 }
@@ -0,0 +1,831 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.storage.db.nosql;
+
+import com.fasterxml.jackson.core.JsonGenerator;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+import com.fasterxml.jackson.databind.DeserializationContext;
+import com.fasterxml.jackson.databind.JsonDeserializer;
+import com.fasterxml.jackson.databind.JsonSerializer;
+import com.fasterxml.jackson.databind.SerializerProvider;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleList;
+import jakarta.persistence.Id;
+import lombok.*;
+import org.dizitart.no2.collection.Document;
+import org.dizitart.no2.collection.NitriteId;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.math.BigDecimal;
+import java.math.BigInteger;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.function.Consumer;
+import java.util.function.Supplier;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+/**
+ * Behaviour every {@link Database} implementation has to provide. Implementations extend this class and add tests for
+ * their backend specific features.
+ *
+ * @param <D> database implementation under test
+ */
+public abstract class AbstractDatabaseTest<D extends Database<Document>> {
+
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Getter
+    @Setter
+    protected static class TestEntry {
+
+        @Id
+        public long primaryKey;
+
+        public String name;
+        public DoubleList dlist;
+        public double[] darr;
+        public String data;
+
+    }
+
+    @NoArgsConstructor
+    @AllArgsConstructor
+    @Getter
+    @Setter
+    protected static class EntryWithDoubleKey {
+        @Id long primaryKey;
+        double otherKey;
+        String someProperty;
+
+    }
+
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    protected static class ChildTestEntry {
+
+        @Id
+        public long primaryKey;
+
+        public String name;
+
+        public long parentKey;
+
+    }
+
+    @Builder
+    @NoArgsConstructor
+    @AllArgsConstructor
+    protected static class FamilyTestEntry {
+
+        @Id
+        public long primaryKey;
+
+        public String name;
+
+        public List<ChildTestEntry> children;
+
+    }
+
+    @Builder @NoArgsConstructor @AllArgsConstructor protected static class IntKeyEntry { @Id int pk; }
+
+    @Builder @NoArgsConstructor @AllArgsConstructor protected static class LongKeyEntry { @Id Long pk; }
+
+    @Builder @NoArgsConstructor @AllArgsConstructor protected static class DoubleKeyEntry { @Id double pk; }
+
+    @Builder @NoArgsConstructor @AllArgsConstructor protected static class BigIntKeyEntry { @Id BigInteger pk; }
+
+    @Builder @NoArgsConstructor @AllArgsConstructor protected static class BigDecimalKeyEntry { @Id BigDecimal pk; }
+
+    @Builder @NoArgsConstructor @AllArgsConstructor protected static class StringKeyEntry { @Id String pk; }
+
+    private static class TestSerializer extends JsonSerializer<TestEntry> {
+
+        @Override
+        public void serialize(TestEntry value, JsonGenerator gen, SerializerProvider serializers) throws IOException {
+            gen.writeStartObject();
+            gen.writeNumberField("primaryKey", value.primaryKey);
+            gen.writeStringField("name", value.name + "_S");
+            gen.writeObjectField("dlist", value.dlist);
+            gen.writeObjectField("darr", value.darr);
+            gen.writeEndObject();
+        }
+
+    }
+
+    private static class TestDeserializer extends JsonDeserializer<TestEntry> {
+
+        @Override
+        public TestEntry deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            long primaryKey = 0;
+            String name = null;
+            DoubleList dlist = null;
+            double[] darr = null;
+            JsonToken jsonToken = p.nextToken();
+            while (!jsonToken.isStructEnd()) {
+                if (jsonToken == JsonToken.FIELD_NAME) {
+                    String fieldName = p.currentName();
+                    switch (fieldName) {
+                        case "primaryKey":
+                            primaryKey = p.nextLongValue(0);
+                            break;
+                        case "name":
+                            name = p.nextTextValue() + "_D";
+                            break;
+                        case "dlist":
+                            p.nextToken();
+                            double[] dvalue = p.readValueAs(double[].class);
+                            if (dvalue != null)
+                                dlist = new DoubleArrayList(dvalue);
+                            break;
+                        case "darr":
+                            p.nextToken();
+                            darr = p.readValueAs(double[].class);
+                            break;
+                    }
+                }
+                jsonToken = p.nextToken();
+            }
+            return TestEntry.builder()
+                    .primaryKey(primaryKey)
+                    .name(name)
+                    .dlist(dlist)
+                    .darr(darr)
+                    .build();
+        }
+
+    }
+
+    public static class DoubleArrayDeserializer extends JsonDeserializer<DoubleList> {
+        @Override
+        public DoubleList deserialize(JsonParser p, DeserializationContext ctxt) throws IOException {
+            double[] dvalue = p.readValueAs(double[].class);
+            return dvalue != null ? new DoubleArrayList(dvalue) : null;
+        }
+    }
+
+    /**
+     * Opens (or creates) the database under test at the given location.
+     */
+    protected abstract D openDatabase(Path file, Metadata meta) throws IOException;
+
+    /**
+     * Fetches a document by its internal id, which is not part of the {@link Database} interface.
+     */
+    protected abstract Optional<Document> getByNitriteId(D db, String collectionName, NitriteId id, String... withOptionalFields) throws IOException;
+
+    protected static Path tempFile() throws IOException {
+        Path file = Files.createTempFile("database-test", "");
+        file.toFile().deleteOnExit();
+        return file;
+    }
+
+    protected D openDatabase(Metadata meta) throws IOException {
+        return openDatabase(tempFile(), meta);
+    }
+
+    @Test
+    public void testPrimaryKeys() throws IOException {
+
+        assertThrows(IOException.class, () -> openDatabase(Metadata.build()
+                .addRepository(IntKeyEntry.class)
+                .addPrimaryKeySupplier(IntKeyEntry.class, new Supplier<Long>() {
+                    @Override
+                    public Long get() {
+                        return 1L;
+                    }
+                })));
+
+        assertThrows(RuntimeException.class, () -> {
+            D db = openDatabase(Metadata.build()
+                    .addRepository(IntKeyEntry.class)
+                    .addPrimaryKeySupplier(IntKeyEntry.class, () -> 1L));
+            db.insert(IntKeyEntry.builder().build());
+        });
+
+        try (D db = openDatabase(Metadata.build()
+                .addRepository(IntKeyEntry.class)
+                .addRepository(LongKeyEntry.class)
+                .addRepository(DoubleKeyEntry.class)
+                .addRepository(BigIntKeyEntry.class)
+                .addRepository(BigDecimalKeyEntry.class)
+                .addRepository(StringKeyEntry.class)
+        )) {
+            assertThrows(IOException.class, () -> db.insert(IntKeyEntry.builder().build()));
+            assertThrows(IOException.class, () -> db.insertAll(List.of(IntKeyEntry.builder().build())));
+            assertEquals(1, db.insert(IntKeyEntry.builder().pk(1).build()));
+            assertEquals(1, db.insert(LongKeyEntry.builder().build()));
+            assertEquals(1, db.insert(DoubleKeyEntry.builder().build()));
+            assertEquals(1, db.insert(BigIntKeyEntry.builder().build()));
+            assertEquals(1, db.insert(BigDecimalKeyEntry.builder().build()));
+            assertEquals(1, db.insert(StringKeyEntry.builder().build()));
+        }
+
+    }
+
+    @Test
+    public void testRangeFilter() throws IOException {
+        try (D db = openDatabase(Metadata.build().addRepository(EntryWithDoubleKey.class, Index.nonUnique("otherKey")))) {
+            EntryWithDoubleKey[] entries = new EntryWithDoubleKey[]{
+                    new EntryWithDoubleKey(1, 123.01, "a"),
+                    new EntryWithDoubleKey(2, 133.03, "b"),
+                    new EntryWithDoubleKey(3, 115.5, "c"),
+                    new EntryWithDoubleKey(4, 117.4, "d"),
+                    new EntryWithDoubleKey(5, 76.2, "e"),
+                    new EntryWithDoubleKey(6, 155.5, "f"),
+                    new EntryWithDoubleKey(7, 330.2, "g"),
+                    new EntryWithDoubleKey(8, 410.2, "h"),
+                    new EntryWithDoubleKey(9, 110.3, "i"),
+                    new EntryWithDoubleKey(10, 129.4, "j")
+            };
+            for (EntryWithDoubleKey k : entries) {
+                db.insert(k);
+            }
+            List<EntryWithDoubleKey> xs = db.findStr(Filter.where("otherKey").betweenRightInclusive(115.5, 129.4), EntryWithDoubleKey.class).toList();
+            List<String> letters = new ArrayList<>();
+            for (EntryWithDoubleKey x : xs) {
+                assertTrue(x.otherKey > 115.5);
+                assertTrue(x.otherKey <= 129.4);
+                letters.add(x.someProperty);
+            }
+            letters.sort(null);
+            assertEquals("adj", String.join("", letters));
+        }
+    }
+
+    @Test
+    public void testCRUD() throws IOException {
+        try (D db = openDatabase(Metadata.build().addRepository(TestEntry.class, Index.unique("name")).addDeserializer(TestEntry.class, new TestDeserializer()))) {
+            List<TestEntry> in = new ArrayList<>(Arrays.asList(
+                    TestEntry.builder().name("A").build(),
+                    TestEntry.builder().name("B").build(),
+                    TestEntry.builder().name("C").build()
+            ));
+
+            assertEquals("insert all", 3, db.insertAll(in));
+
+            List<String> expected = in.stream().map(e -> e.name + "_D").toList();
+
+            List<String> ascFindAll = db.findAllStr(TestEntry.class, "name", Database.SortOrder.ASCENDING).map(e -> e.name).toList();
+            List<String> descFindAll = db.findAllStr(TestEntry.class, "name", Database.SortOrder.DESCENDING).map(e -> e.name).toList();
+            List<String> ascFindAllLimit2 = db.findAllStr(TestEntry.class, 0, 2, "name", Database.SortOrder.ASCENDING).map(e -> e.name).toList();
+            List<String> ascFindAllOffset1Limit2 = db.findAllStr(TestEntry.class, 1, 2, "name", Database.SortOrder.ASCENDING).map(e -> e.name).toList();
+            List<String> ascFindAllOffset1Limit1 = db.findAllStr(TestEntry.class, 1, 1, "name", Database.SortOrder.ASCENDING).map(e -> e.name).toList();
+
+            assertEquals("ascending findAll", expected, ascFindAll);
+            assertEquals("descending findAll", expected.reversed(), descFindAll);
+            assertEquals("ascending findAll offset 0 limit 2", expected.subList(0, 2), ascFindAllLimit2);
+            assertEquals("ascending findAll offset 1 limit 2", expected.subList(1, 3), ascFindAllOffset1Limit2);
+            assertEquals("ascending findAll offset 1 limit 1", expected.subList(1, 2), ascFindAllOffset1Limit1);
+
+            assertEquals("count name == A", 1, db.count(Filter.where("name").eq("A"), TestEntry.class));
+            assertEquals("count name < C", 2, db.count(Filter.where("name").lt("C"), TestEntry.class));
+            assertEquals("count name in A, B", 2, db.count(Filter.where("name").in("A", "B"), TestEntry.class));
+            assertEquals("count name in A, B limit 1", 1, db.count(Filter.where("name").in("A", "B"), TestEntry.class, 0, 1));
+
+            assertEquals("count all", 3, db.countAll(TestEntry.class));
+
+            { //test upsert and modify
+                in.getFirst().setName("E");
+                assertEquals("Update one", 1, db.upsert(in.getFirst()));
+                assertEquals("Check Update Change", "E_D", db.getByPrimaryKey(in.getFirst().primaryKey, TestEntry.class).map(TestEntry::getName).orElse(null));
+            }
+
+            {
+                assertEquals("Update one", 1, db.modify(in.getFirst().getPrimaryKey(), TestEntry.class, entry -> {entry.setName("A");}));
+                assertEquals("Check Modify Change", "A_D", db.getByPrimaryKey(in.getFirst().primaryKey, TestEntry.class).map(TestEntry::getName).orElse(null));
+            }
+
+            assertEquals("remove", 1, db.remove(in.getFirst()));
+            List<String> ascFindAllDel0 = db.findAllStr(TestEntry.class, "name", Database.SortOrder.ASCENDING).map(e -> e.name).toList();
+            assertEquals("remove name == C", 1, db.removeAll(Filter.where("name").eq("C"), TestEntry.class));
+            List<String> ascFindAllDel2 = db.findAllStr(TestEntry.class, "name", Database.SortOrder.ASCENDING).map(e -> e.name).toList();
+
+            assertEquals("remove object", expected.subList(1, 3), ascFindAllDel0);
+            assertEquals("remove name == C", expected.subList(1, 2), ascFindAllDel2);
+        }
+    }
+
+    @Test
+    public void testCRUDDocuments() throws IOException {
+        try (D db = openDatabase(Metadata.build().addCollection("entries", Index.unique("name")))) {
+            List<Document> in = Arrays.asList(
+                    Document.createDocument("name", "A"),
+                    Document.createDocument("name", "B"),
+                    Document.createDocument("name", "C")
+            );
+
+            assertEquals("insert all", 3, db.insertAll("entries", in));
+
+            List<String> expected = in.stream().map(e -> e.get("name", String.class)).toList();
+
+            List<String> ascFindAll = db.findAllStr("entries", "name", Database.SortOrder.ASCENDING).map(e -> e.get("name", String.class)).toList();
+            List<String> descFindAll = db.findAllStr("entries", "name", Database.SortOrder.DESCENDING).map(e -> e.get("name", String.class)).toList();
+
+            List<String> ascFindAllLimit2 = db.findAllStr("entries", 0, 2, "name", Database.SortOrder.ASCENDING).map(e -> e.get("name", String.class)).toList();
+            List<String> ascFindAllOffset1Limit2 = db.findAllStr("entries", 1, 2, "name", Database.SortOrder.ASCENDING).map(e -> e.get("name", String.class)).toList();
+            List<String> ascFindAllOffset1Limit1 = db.findAllStr("entries", 1, 1, "name", Database.SortOrder.ASCENDING).map(e -> e.get("name", String.class)).toList();
+
+            assertEquals("ascending findAll", expected, ascFindAll);
+            assertEquals("descending findAll", expected.reversed(), descFindAll);
+            assertEquals("ascending findAll offset 0 limit 2", expected.subList(0, 2), ascFindAllLimit2);
+            assertEquals("ascending findAll offset 1 limit 2", expected.subList(1, 3), ascFindAllOffset1Limit2);
+            assertEquals("ascending findAll offset 1 limit 1", expected.subList(1, 2), ascFindAllOffset1Limit1);
+
+            assertEquals("count name == A", 1, db.count("entries", Filter.where("name").eq("A")));
+            assertEquals("count name < C", 2, db.count("entries", Filter.where("name").lt("C")));
+            assertEquals("count name in A, B", 2, db.count("entries", Filter.where("name").in("A", "B")));
+            assertEquals("count name in A, B limit 1", 1, db.count("entries", Filter.where("name").in("A", "B"), 0, 1));
+
+            assertEquals("count all", 3, db.countAll("entries"));
+
+            assertEquals("remove", 1, db.remove("entries", db.findStr("entries", Filter.where("name").eq("A")).findFirst().orElseThrow()));
+            List<String> ascFindAllDel0 = db.findAllStr("entries", "name", Database.SortOrder.ASCENDING).map(e -> e.get("name", String.class)).toList();
+            assertEquals("remove name == C", 1, db.removeAll("entries", Filter.where("name").eq("C")));
+            List<String> ascFindAllDel2 = db.findAllStr("entries", "name", Database.SortOrder.ASCENDING).map(e -> e.get("name", String.class)).toList();
+
+            assertEquals("remove object", expected.subList(1, 3), ascFindAllDel0);
+            assertEquals("remove name == C", expected.subList(1, 2), ascFindAllDel2);
+
+        }
+    }
+
+    @Test
+    public void testJackson() throws IOException {
+        try (D db = openDatabase(Metadata.build()
+                .addRepository(TestEntry.class, Index.unique("name"))
+                .addSerialization(TestEntry.class, new TestSerializer(), new TestDeserializer()))) {
+            TestEntry in = TestEntry.builder().name("A").dlist(DoubleList.of(1, 2, 3)).darr(new double[]{1, 2, 3}).build();
+            db.insert(in);
+            TestEntry[] out = db.findAllStr(TestEntry.class).toArray(TestEntry[]::new);
+            assertEquals("jackson db size", 1, out.length);
+            assertEquals("jackson module used", in.name + "_S_D", out[0].name);
+            assertEquals("id assignment", in.primaryKey, out[0].primaryKey);
+            assertTrue("id assignment", out[0].primaryKey > 0);
+            assertArrayEquals("jackson fastutil", in.dlist.toDoubleArray(), out[0].dlist.toDoubleArray(), 0d);
+            assertArrayEquals("jackson primitive array", in.darr, out[0].darr, 0d);
+        }
+
+        try (D db = openDatabase(Metadata.build().addRepository(TestEntry.class, Index.unique("name")).addDeserializer(DoubleList.class, new DoubleArrayDeserializer()))) {
+            TestEntry in = TestEntry.builder().name("A").dlist(DoubleList.of(1, 2, 3)).darr(new double[]{1, 2, 3}).build();
+            db.insert(in);
+            TestEntry[] out = db.findAllStr(TestEntry.class).toArray(TestEntry[]::new);
+            assertEquals("jackson db size", 1, out.length);
+            assertEquals("jackson module used", in.name, out[0].name);
+            assertEquals("id assignment", in.primaryKey, out[0].primaryKey);
+            assertTrue("id assignment", out[0].primaryKey > 0);
+            assertArrayEquals("jackson fastutil", in.dlist.toDoubleArray(), out[0].dlist.toDoubleArray(), 0d);
+            assertArrayEquals("jackson primitive array", in.darr, out[0].darr, 0d);
+        }
+
+    }
+
+    @Test
+    @SuppressWarnings("unchecked")
+    public void testJoinDocuments() throws IOException {
+
+        Document parent = Document.createDocument("name", "parent");
+
+        try (D db = openDatabase(Metadata.build()
+                .addCollection("entries", Index.unique("name"))
+                .addCollection("children", Index.nonUnique("name"))
+        )) {
+
+            db.insert("entries", parent);
+
+            List<Document> children = Arrays.asList(
+                    Document.createDocument("name", "A").put("parentId", parent.getId().getIdValue()),
+                    Document.createDocument("name", "B").put("parentId", parent.getId().getIdValue()),
+                    Document.createDocument("name", "C").put("parentId", parent.getId().getIdValue())
+            );
+
+            db.insertAll("children", children);
+
+            List<Document> outParent = db.findAllStr("entries").toList();
+            List<Document> outChildren = db.findAllStr("children", "name", Database.SortOrder.ASCENDING).toList();
+            List<Document> outChildrenF = db.findStr("children", Filter.or(Filter.where("name").eq("A"), Filter.where("name").eq("B"))).toList();
+
+            assertEquals("1 parent", 1, outParent.size());
+            assertEquals("parent okay", parent.get("name", String.class), outParent.getFirst().get("name", String.class));
+
+            List<Document> results = db.joinAllChildrenStr("children", outParent, "_id", "parentId", "children").toList();
+
+            assertEquals("1 joined parent", 1, results.size());
+
+            assertEquals("joined parent okay", outParent.getFirst().getId(), results.getFirst().getId());
+            assertEquals("joined parent okay", outParent.getFirst().get("name"), results.getFirst().get("name"));
+
+            List<Document> outJoinedChildren = new ArrayList<>((Collection<Document>) results.getFirst().get("children"));
+            outJoinedChildren.sort(Comparator.comparing((Document d) -> ((String) d.get("name"))));
+
+            assertEquals("joined children okay", outChildren, outJoinedChildren);
+
+            Document parentB = Document.createDocument("name", "parentB");
+
+            db.insert("entries", parentB);
+
+            List<Document> childrenB = Arrays.asList(
+                    Document.createDocument("name", "A").put("parentId", parentB.getId().getIdValue()),
+                    Document.createDocument("name", "B").put("parentId", parentB.getId().getIdValue()),
+                    Document.createDocument("name", "C").put("parentId", parentB.getId().getIdValue())
+            );
+
+            db.insertAll("children", childrenB);
+
+            outParent = db.findAllStr("entries", "name", Database.SortOrder.ASCENDING).toList();
+
+            results = db.joinChildrenStr("children", Filter.or(Filter.where("name").eq("A"), Filter.where("name").eq("B")), outParent, "_id", "parentId", "children").toList();
+
+            assertEquals("2 joined filtered parents", 2, results.size());
+
+            assertEquals("joined filtered parent okay", parent.getId(), results.get(0).getId());
+            assertEquals("joined filtered parent okay", parent.get("name"), results.get(0).get("name"));
+
+            assertEquals("joined filtered parent okay", parentB.getId(), results.get(1).getId());
+            assertEquals("joined filtered parent okay", parentB.get("name"), results.get(1).get("name"));
+
+            List<Document> outJoinedFChildren = new ArrayList<>((Collection<Document>) results.get(0).get("children"));
+            List<Document> outJoinedFChildren1 = new ArrayList<>((Collection<Document>) results.get(1).get("children"));
+
+            assertEquals("joined filtered children okay", outChildrenF.stream().map(e -> e.get("name", String.class)).sorted().toList(), outJoinedFChildren.stream().map(e -> e.get("name", String.class)).sorted().toList());
+            assertEquals("joined filtered children okay", outChildrenF.stream().map(e -> e.get("name", String.class)).sorted().toList(), outJoinedFChildren1.stream().map(e -> e.get("name", String.class)).sorted().toList());
+
+            results = db.joinChildrenStr("children", Filter.and(Filter.where("name").eq("A"), Filter.where("name").eq("B")), outParent, "_id", "parentId", "children").toList();
+
+            assertEquals("2 joined filtered parents", 2, results.size());
+
+            assertEquals("joined filtered parent okay", parent.getId(), results.get(0).getId());
+            assertEquals("joined filtered parent okay", parent.get("name"), results.get(0).get("name"));
+
+            assertEquals("joined filtered parent okay", parentB.getId(), results.get(1).getId());
+            assertEquals("joined filtered parent okay", parentB.get("name"), results.get(1).get("name"));
+
+            assertNull("no children", results.get(0).get("children"));
+            assertNull("no children", results.get(1).get("children"));
+        }
+
+    }
+
+    @Test
+    public void testJoinObjects() throws IOException {
+
+        FamilyTestEntry parent = FamilyTestEntry.builder().name("parent").build();
+
+        try (D db = openDatabase(Metadata.build()
+                .addRepository(FamilyTestEntry.class, Index.unique("name"))
+                .addRepository(ChildTestEntry.class, Index.nonUnique("name")
+                ))) {
+
+            db.insert(parent);
+
+            List<ChildTestEntry> children = new ArrayList<>(Arrays.asList(
+                    ChildTestEntry.builder().name("A").parentKey(parent.primaryKey).build(),
+                    ChildTestEntry.builder().name("B").parentKey(parent.primaryKey).build(),
+                    ChildTestEntry.builder().name("C").parentKey(parent.primaryKey).build()
+            ));
+
+            db.insertAll(children);
+
+            List<FamilyTestEntry> outParent = db.findAllStr(FamilyTestEntry.class).toList();
+            List<ChildTestEntry> outChildren = db.findAllStr(ChildTestEntry.class).toList();
+            List<ChildTestEntry> outChildrenF = db.findStr(Filter.or(Filter.where("name").eq("A"), Filter.where("name").eq("B")), ChildTestEntry.class).toList();
+
+            assertEquals("1 parent", 1, outParent.size());
+            assertEquals("parent okay", parent.primaryKey, outParent.getFirst().primaryKey);
+            assertEquals("parent okay", parent.name, outParent.getFirst().name);
+
+            List<FamilyTestEntry> results = db.joinAllChildrenStr(
+                    ChildTestEntry.class,
+                    new ArrayList<>(outParent),
+                    "primaryKey", "parentKey", "children").toList();
+
+            assertEquals("1 joined parent", 1, results.size());
+
+            assertEquals("joined parent okay", parent.primaryKey, results.getFirst().primaryKey);
+            assertEquals("joined parent okay", parent.name, results.getFirst().name);
+
+            assertEquals("joined children okay", outChildren.stream().map(e -> e.name).collect(Collectors.toSet()), results.getFirst().children.stream().map(e -> e.name).collect(Collectors.toSet()));
+
+            FamilyTestEntry parentB = FamilyTestEntry.builder().name("parentB").build();
+
+            db.insert(parentB);
+
+            List<ChildTestEntry> childrenB = new ArrayList<>(Arrays.asList(
+                    ChildTestEntry.builder().name("A").parentKey(parentB.primaryKey).build(),
+                    ChildTestEntry.builder().name("B").parentKey(parentB.primaryKey).build(),
+                    ChildTestEntry.builder().name("C").parentKey(parentB.primaryKey).build()
+            ));
+
+            db.insertAll(childrenB);
+
+            results = db.joinChildrenStr(
+                            ChildTestEntry.class,
+                            Filter.or(Filter.where("name").eq("A"), Filter.where("name").eq("B")),
+                            db.findAll(FamilyTestEntry.class),
+                            "primaryKey", "parentKey", "children")
+                    .collect(Collectors.toCollection(ArrayList::new));
+            results.sort(Comparator.comparing(entry -> entry.name));
+
+            assertEquals("2 joined filtered parents", 2, results.size());
+
+            assertEquals("joined filtered parent okay", parent.primaryKey, results.get(0).primaryKey);
+            assertEquals("joined filtered parent okay", parent.name, results.get(0).name);
+
+            assertEquals("joined filtered parent okay", parentB.primaryKey, results.get(1).primaryKey);
+            assertEquals("joined filtered parent okay", parentB.name, results.get(1).name);
+
+            assertEquals("joined filtered children okay", outChildrenF.stream().map(e -> e.name).collect(Collectors.toSet()), results.get(0).children.stream().map(e -> e.name).collect(Collectors.toSet()));
+            assertEquals("joined filtered children okay", outChildrenF.stream().map(e -> e.name).collect(Collectors.toSet()), results.get(1).children.stream().map(e -> e.name).collect(Collectors.toSet()));
+
+            results = db.joinChildrenStr(
+                    ChildTestEntry.class,
+                    Filter.and(Filter.where("name").eq("A"), Filter.where("name").eq("B")),
+                    db.findAll(FamilyTestEntry.class),
+                    "primaryKey", "parentKey", "children")
+                    .collect(Collectors.toCollection(ArrayList::new));
+            results.sort(Comparator.comparing(entry -> entry.name));
+
+            assertEquals("2 joined filtered parents", 2, results.size());
+
+            assertEquals("joined filtered parent okay", parent.primaryKey, results.get(0).primaryKey);
+            assertEquals("joined filtered parent okay", parent.name, results.get(0).name);
+
+            assertEquals("joined filtered parent okay", parentB.primaryKey, results.get(1).primaryKey);
+            assertEquals("joined filtered parent okay", parentB.name, results.get(1).name);
+
+            assertNull("no children", results.get(0).children);
+            assertNull("no children", results.get(1).children);
+        }
+
+    }
+
+    @Test
+    public void testConcurrency() throws IOException {
+
+        List<TestEntry> entries = IntStream.range(0, 100).mapToObj((int num) -> TestEntry.builder().name(Integer.toString(num)).build()).toList();
+        List<String> expected = entries.stream().map(e -> e.name).toList();
+
+        try (D db = openDatabase(Metadata.build().addRepository(TestEntry.class, Index.unique("name")).addDeserializer(TestEntry.class, new TestDeserializer()))) {
+            List<Callable<Void>> jobs = entries.stream().map((TestEntry entry) -> (Callable<Void>) () -> {
+                assertEquals("insert", 1, db.insert(entry));
+                return null;
+            }).collect(Collectors.toList());
+
+            try (ExecutorService executorService = Executors.newFixedThreadPool(10)) {
+                List<Future<Void>> futures = executorService.invokeAll(jobs);
+                for (Future<Void> future : futures) {
+                    future.get();
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException(e);
+            }
+
+            List<String> out = db.findAllStr(TestEntry.class, "name").map(e -> e.name.substring(0, e.name.length() - 2)).sorted(Comparator.comparingInt(Integer::parseInt)).toList();
+            assertEquals("concurrent insert", expected, out);
+        }
+    }
+
+    @Test
+    public void testBulkLoadIndices() throws IOException {
+        try (D db = openDatabase(Metadata.build().addRepository(TestEntry.class, Index.unique("name"), Index.nonUnique("data")).addDeserializer(DoubleList.class, new DoubleArrayDeserializer()))) {
+            db.insertAll(IntStream.range(0, 10).mapToObj(i -> TestEntry.builder().name("A" + i).data(i % 2 == 0 ? "even" : "odd").build()).toList());
+
+            Closeable outer = db.bulkLoad(TestEntry.class);
+            Closeable inner = db.bulkLoad(TestEntry.class, TestEntry.class);
+            db.insertAll(IntStream.range(0, 10).mapToObj(i -> TestEntry.builder().name("B" + i).data(i % 2 == 0 ? "even" : "odd").build()).toList());
+            assertThrows("unique index kept during bulk load", Exception.class, () -> db.insert(TestEntry.builder().name("B3").build()));
+            assertEquals("query during bulk load", 10, db.count(Filter.where("data").eq("odd"), TestEntry.class));
+            inner.close();
+            inner.close();
+            assertEquals("query during bulk load", 1, db.count(Filter.where("name").eq("A7"), TestEntry.class));
+            outer.close();
+
+            assertEquals(20, db.countAll(TestEntry.class));
+            assertEquals("rebuilt index", 10, db.count(Filter.where("data").eq("even"), TestEntry.class));
+            assertEquals(1, db.count(Filter.where("name").eq("B9"), TestEntry.class));
+            assertThrows("unknown repository", IOException.class, () -> db.bulkLoad(IntKeyEntry.class));
+        }
+    }
+
+    @Test
+    public void testOptionals() throws IOException {
+        try (D db = openDatabase(Metadata.build().addRepository(TestEntry.class, Index.unique("name")).setOptionalFields(TestEntry.class, "data").addDeserializer(DoubleList.class, new DoubleArrayDeserializer()))) {
+
+            TestEntry object = TestEntry.builder().name("TEST").data("BIGDATA").build();
+
+            db.insert(object);
+
+            TestEntry res1 = db.getByPrimaryKey(object.primaryKey, TestEntry.class).orElseThrow();
+            TestEntry res2 = db.getByPrimaryKey(object.primaryKey, TestEntry.class, "data").orElseThrow();
+
+            List<TestEntry> res3 = db.findAllStr(TestEntry.class).toList();
+            List<TestEntry> res4 = db.findAllStr(TestEntry.class, "data").toList();
+
+            assertNotNull(res1);
+            assertNotNull(res2);
+
+            assertEquals("1 document", 1, res3.size());
+            assertEquals("1 document", 1, res4.size());
+
+            assertNull("no data", res1.data);
+            assertNull("no data", res3.getFirst().data);
+
+            assertNotNull("has data", res2.data);
+            assertNotNull("has data", res4.getFirst().data);
+
+            TestEntry res5 = db.injectOptionalFields(res1, "data");
+            List<TestEntry> res6 = db.injectOptionalFieldsStr(TestEntry.class, db.findAll(TestEntry.class), "data").toList();
+            List<TestEntry> res7 = db.injectOptionalFieldsStr(TestEntry.class, db.findAllStr(TestEntry.class).toList(), "data").toList();
+
+            assertNotNull(res5);
+
+            assertEquals("1 document", 1, res6.size());
+            assertEquals("1 document", 1, res7.size());
+
+            assertNotNull("has data", res5.data);
+            assertNotNull("has data", res6.getFirst().data);
+            assertNotNull("has data", res7.getFirst().data);
+
+        }
+
+    }
+
+    @Test
+    public void testOptionalDocuments() throws IOException {
+        try (D db = openDatabase(Metadata.build().addCollection("test", Index.unique("name")).setOptionalFields("test", "data"))) {
+
+            Document doc = Document.createDocument("name", "TEST").put("data", "BIGDATA");
+            assertNotNull(doc);
+
+            db.insert("test", doc);
+
+            Document res1 = getByNitriteId(db, "test", doc.getId()).orElseThrow();
+            Document res2 = getByNitriteId(db, "test", doc.getId(), "data").orElseThrow();
+
+            List<Document> res3 = db.findAllStr("test").toList();
+            List<Document> res4 = db.findAllStr("test", "data").toList();
+
+            assertNotNull(res1);
+            assertNotNull(res2);
+
+            assertEquals("1 document", 1, res3.size());
+            assertEquals("1 document", 1, res4.size());
+
+            assertFalse("no data", res1.containsKey("data"));
+            assertFalse("no data", res3.getFirst().containsKey("data"));
+
+            assertTrue("has data", res2.containsKey("data"));
+            assertTrue("has data", res4.getFirst().containsKey("data"));
+
+            Document res5 = db.injectOptionalFields("test", res1, "data");
+            List<Document> res6 = db.injectOptionalFieldsStr("test", db.findAll("test"), "data").toList();
+            List<Document> res7 = db.injectOptionalFieldsStr("test", db.findAllStr("test").toList(), "data").toList();
+
+            assertNotNull(res5);
+
+            assertEquals("1 document", 1, res6.size());
+            assertEquals("1 document", 1, res7.size());
+
+            assertTrue("has data", res5.containsKey("data"));
+            assertTrue("has data", res6.getFirst().containsKey("data"));
+            assertTrue("has data", res7.getFirst().containsKey("data"));
+
+        }
+
+    }
+
+    @Test
+    public void testEventsWithObjects() throws IOException, InterruptedException {
+        final BlockingQueue<Long> idQueue = new ArrayBlockingQueue<>(3);
+        final BlockingQueue<String> nameQueue = new ArrayBlockingQueue<>(3);
+
+        try (D db = openDatabase(Metadata.build().addRepository(TestEntry.class, Index.unique("name")).addDeserializer(TestEntry.class, new TestDeserializer()))) {
+            List<TestEntry> in = List.of(
+                    TestEntry.builder().name("A").build(),
+                    TestEntry.builder().name("B").build(),
+                    TestEntry.builder().name("C").build()
+            );
+
+            Set<Long> insertIds = new HashSet<>();
+            Set<Long> updateIds = new HashSet<>();
+            Set<Long> removeIds = new HashSet<>();
+            Set<String> inserted = new HashSet<>();
+            Set<String> updated = new HashSet<>();
+            Set<String> removed = new HashSet<>();
+
+            final Consumer<TestEntry> listener = (TestEntry e) -> {
+                idQueue.add(e.primaryKey);
+                nameQueue.add(e.name);
+            };
+            db.onInsert(TestEntry.class, listener);
+            db.onUpdate(TestEntry.class, listener);
+            db.onRemove(TestEntry.class, listener);
+
+            db.insertAll(in);
+            for (int i = 0; i < 3; i++) {
+                insertIds.add(idQueue.poll(1L, TimeUnit.SECONDS));
+                inserted.add(nameQueue.poll(1L, TimeUnit.SECONDS));
+            }
+
+            Set<String> expectedNames = in.stream().map(e -> e.name + "_D").collect(Collectors.toSet());
+            in.forEach(e -> e.name += "_U");
+            db.upsertAll(in);
+            for (int i = 0; i < 3; i++) {
+                updateIds.add(idQueue.poll(1L, TimeUnit.SECONDS));
+                updated.add(nameQueue.poll(1L, TimeUnit.SECONDS));
+            }
+
+            db.removeAll(in);
+            for (int i = 0; i < 3; i++) {
+                removeIds.add(idQueue.poll(1L, TimeUnit.SECONDS));
+                removed.add(nameQueue.poll(1L, TimeUnit.SECONDS));
+            }
+
+            Set<Long> expectedIds = in.stream().map(e -> e.primaryKey).collect(Collectors.toSet());
+            Set<String> updatedNames = in.stream().map(e -> e.name + "_D").collect(Collectors.toSet());
+
+            assertEquals(expectedIds, insertIds);
+            assertEquals(expectedIds, updateIds);
+            assertEquals(expectedIds, removeIds);
+
+            assertEquals(expectedNames, inserted);
+            assertEquals(updatedNames, updated);
+            assertEquals(updatedNames, removed);
+        }
+
+    }
+
+    @Test
+    public void testEventsWithDocuments() throws IOException, InterruptedException {
+        final BlockingQueue<String> nameQueue = new ArrayBlockingQueue<>(3);
+
+        try (D db = openDatabase(Metadata.build().addCollection("entries", Index.unique("name")))) {
+            List<Document> in = Arrays.asList(
+                    Document.createDocument("name", "A"),
+                    Document.createDocument("name", "B"),
+                    Document.createDocument("name", "C")
+            );
+
+            Set<String> inserted = new HashSet<>();
+            Set<String> updated = new HashSet<>();
+            Set<String> removed = new HashSet<>();
+
+            final Consumer<Document> listener = (Document e) -> nameQueue.add(e.get("name", String.class));
+            db.onInsert("entries", listener);
+            db.onUpdate("entries", listener);
+            db.onRemove("entries", listener);
+
+            db.insertAll("entries", in);
+            for (int i = 0; i < 3; i++) {
+                inserted.add(nameQueue.poll(1L, TimeUnit.SECONDS));
+            }
+
+            Set<String> expectedNames = in.stream().map(e -> e.get("name", String.class)).collect(Collectors.toSet());
+            in.forEach(e -> e.put("name", e.get("name", String.class) + "_U"));
+
+            db.upsertAll("entries", in);
+            for (int i = 0; i < 3; i++) {
+                updated.add(nameQueue.poll(1L, TimeUnit.SECONDS));
+            }
+            db.removeAll("entries", in);
+            for (int i = 0; i < 3; i++) {
+                removed.add(nameQueue.poll(1L, TimeUnit.SECONDS));
+            }
+
+            Set<String> updatedNames = in.stream().map(e -> e.get("name", String.class)).collect(Collectors.toSet());
+
+            assertEquals(expectedNames, inserted);
+            assertEquals(updatedNames, updated);
+            assertEquals(updatedNames, removed);
+        }
+
+    }
+
+}
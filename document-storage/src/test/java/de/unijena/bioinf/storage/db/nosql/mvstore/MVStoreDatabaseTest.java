@@ -0,0 +1,335 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.storage.db.nosql.mvstore;
+
+import de.unijena.bioinf.storage.db.nosql.AbstractDatabaseTest;
+import de.unijena.bioinf.storage.db.nosql.Database;
+import de.unijena.bioinf.storage.db.nosql.Filter;
+import de.unijena.bioinf.storage.db.nosql.Index;
+import de.unijena.bioinf.storage.db.nosql.Metadata;
+import it.unimi.dsi.fastutil.doubles.DoubleList;
+import jakarta.persistence.Id;
+import lombok.AllArgsConstructor;
+import lombok.NoArgsConstructor;
+import org.dizitart.no2.collection.Document;
+import org.dizitart.no2.collection.NitriteId;
+import org.junit.Test;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.concurrent.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.*;
+
+public class MVStoreDatabaseTest extends AbstractDatabaseTest<MVStoreDatabase> {
+
+    @NoArgsConstructor
+    @AllArgsConstructor
+    private static class FormulaEntry {
+        @Id
+        long id;
+        long featureId;
+        int rank;
+        double score;
+        String formula;
+        List<String> tags;
+    }
+
+    @Override
+    protected MVStoreDatabase openDatabase(Path file, Metadata meta) throws IOException {
+        return new MVStoreDatabase(file, meta);
+    }
+
+    @Override
+    protected Optional<Document> getByNitriteId(MVStoreDatabase db, String collectionName, NitriteId id, String... withOptionalFields) throws IOException {
+        return db.getByNitriteId(collectionName, id, withOptionalFields);
+    }
+
+    private static Metadata formulaMeta() throws IOException {
+        return Metadata.build().addRepository(FormulaEntry.class, "id",
+                Index.nonUnique("featureId", "rank"),
+                Index.nonUnique("score"),
+                Index.nonUnique("tags"),
+                Index.fullText("formula"));
+    }
+
+    private static List<FormulaEntry> formulas(int features, int perFeature) {
+        List<FormulaEntry> entries = new ArrayList<>();
+        for (int f = 1; f <= features; f++)
+            for (int r = 1; r <= perFeature; r++)
+                entries.add(new FormulaEntry(0, f, r, f * 10 + r / 10d, "C" + f + "H" + r + " adduct", List.of("f" + f, r % 2 == 0 ? "even" : "odd")));
+        return entries;
+    }
+
+    @Test
+    public void testPrimaryKeyLookup() throws IOException {
+        try (MVStoreDatabase db = openDatabase(Metadata.build().addRepository(IntKeyEntry.class))) {
+            assertEquals(1, db.insert(IntKeyEntry.builder().pk(1).build()));
+            assertThrows("duplicate primary key", IOException.class, () -> db.insert(IntKeyEntry.builder().pk(1).build()));
+            assertTrue("primary key of other numeric type", db.containsPrimaryKey(1L, IntKeyEntry.class));
+            assertEquals(1, db.count(Filter.where("pk").eq(1L), IntKeyEntry.class));
+        }
+    }
+
+    @Test
+    public void testIndexMaintenance() throws IOException {
+        try (MVStoreDatabase db = openDatabase(Metadata.build().addRepository(TestEntry.class, Index.unique("name")).addDeserializer(DoubleList.class, new DoubleArrayDeserializer()))) {
+            List<TestEntry> in = List.of(
+                    TestEntry.builder().name("A").build(),
+                    TestEntry.builder().name("B").build()
+            );
+            db.insertAll(in);
+
+            assertThrows("unique index", IOException.class, () -> db.insert(TestEntry.builder().name("A").build()));
+            assertEquals("failed insert is not stored", 2, db.countAll(TestEntry.class));
+
+            in.getFirst().setName("E");
+            db.upsert(in.getFirst());
+            assertEquals("index updated", 0, db.count(Filter.where("name").eq("A"), TestEntry.class));
+            assertEquals("index updated", 1, db.count(Filter.where("name").eq("E"), TestEntry.class));
+        }
+    }
+
+    @Test
+    public void testDocumentValues() throws IOException {
+        try (MVStoreDatabase db = openDatabase(Metadata.build().addCollection("entries", Index.unique("name")))) {
+            List<Document> in = Arrays.asList(
+                    Document.createDocument("name", "A").put("values", new int[]{1, 2}),
+                    Document.createDocument("name", "B")
+            );
+            db.insertAll("entries", in);
+            assertTrue("id assigned", in.stream().allMatch(Document::hasId));
+            assertEquals("count array element", 1, db.count("entries", Filter.where("values").eq(2)));
+
+            Document a = db.findStr("entries", Filter.where("name").eq("A")).findFirst().orElseThrow();
+            assertArrayEquals("java objects are kept", new int[]{1, 2}, (int[]) a.get("values"));
+            a.put("name", "X");
+            assertEquals("returned documents are copies", 1, db.count("entries", Filter.where("name").eq("A")));
+        }
+    }
+
+    @Test
+    public void testIndexQueries() throws IOException {
+        try (MVStoreDatabase db = openDatabase(formulaMeta())) {
+            List<FormulaEntry> entries = formulas(20, 10);
+            db.insertAll(entries);
+
+            assertEquals("compound prefix", 10, db.count(Filter.where("featureId").eq(3), FormulaEntry.class));
+            assertEquals("compound full", 1, db.count(Filter.and(Filter.where("featureId").eq(3), Filter.where("rank").eq(4)), FormulaEntry.class));
+            assertEquals("compound plus residual filter", 5, db.count(Filter.and(Filter.where("featureId").eq(3L), Filter.where("tags").eq("even")), FormulaEntry.class));
+            assertEquals("or of indexed filters", 20, db.count(Filter.or(Filter.where("featureId").eq(3), Filter.where("featureId").eq(4)), FormulaEntry.class));
+            assertEquals("array index", 100, db.count(Filter.where("tags").eq("odd"), FormulaEntry.class));
+            assertEquals("full text", 10, db.count(Filter.where("formula").text("c3h*"), FormulaEntry.class));
+            assertEquals("range", 20, db.count(Filter.where("score").betweenBothInclusive(30.0, 41.0), FormulaEntry.class));
+            assertEquals("range int vs double", 20, db.count(Filter.where("score").betweenLeftInclusive(30, 42), FormulaEntry.class));
+            assertEquals("not indexed", 20, db.count(Filter.where("rank").eq(7), FormulaEntry.class));
+
+            List<Integer> ranks = db.findStr(Filter.where("featureId").eq(5), FormulaEntry.class, "rank", Database.SortOrder.DESCENDING).map(f -> f.rank).toList();
+            assertEquals("sorted by second index field", IntStream.rangeClosed(1, 10).map(i -> 11 - i).boxed().toList(), ranks);
+
+            List<Double> scores = db.findAllStr(FormulaEntry.class, 5, 10, "score", Database.SortOrder.ASCENDING).map(f -> f.score).toList();
+            List<Double> expectedScores = entries.stream().map(f -> f.score).sorted().skip(5).limit(10).toList();
+            assertEquals("sorted by index with page", expectedScores, scores);
+
+            List<Double> scores2 = db.findStr(Filter.where("rank").lte(2), FormulaEntry.class, new String[]{"featureId", "rank"}, new Database.SortOrder[]{Database.SortOrder.DESCENDING, Database.SortOrder.ASCENDING}).map(f -> f.score).toList();
+            assertEquals(40, scores2.size());
+            assertEquals(200.1, scores2.getFirst(), 1e-9);
+
+            db.removeAll(Filter.where("featureId").eq(3), FormulaEntry.class);
+            assertEquals("index maintained on remove", 0, db.count(Filter.where("featureId").eq(3), FormulaEntry.class));
+            assertEquals("index maintained on remove", 0, db.count(Filter.where("formula").text("c3h1"), FormulaEntry.class));
+        }
+    }
+
+    @Test
+    public void testReopenAndIndexChanges() throws IOException {
+        Path file = tempFile();
+        try (MVStoreDatabase db = new MVStoreDatabase(file, formulaMeta())) {
+            db.insertAll(formulas(5, 5));
+        }
+        try (MVStoreDatabase db = new MVStoreDatabase(file, formulaMeta(), true)) {
+            assertEquals("persisted", 25, db.countAll(FormulaEntry.class));
+            assertEquals("index persisted", 5, db.count(Filter.where("featureId").eq(2), FormulaEntry.class));
+            assertThrows("read only", IOException.class, () -> db.insert(new FormulaEntry(0, 1, 1, 1, "C", List.of())));
+        }
+        // new index is built on open
+        try (MVStoreDatabase db = new MVStoreDatabase(file, Metadata.build().addRepository(FormulaEntry.class, "id", Index.nonUnique("rank")))) {
+            assertEquals("new index", 5, db.count(Filter.where("rank").eq(2), FormulaEntry.class));
+            db.disableIndices(FormulaEntry.class);
+            db.insertAll(formulas(1, 5));
+            db.enableIndices(FormulaEntry.class);
+            assertEquals("rebuilt index", 6, db.count(Filter.where("rank").eq(2), FormulaEntry.class));
+        }
+        try (MVStoreDatabase db = new MVStoreDatabase(file, Metadata.build().addRepository(FormulaEntry.class, "id", Index.unique("featureId")))) {
+            fail("unique index on non unique values must not be created");
+        } catch (IOException | RuntimeException e) {
+            // expected
+        }
+        assertThrows("schema version", IOException.class, () -> new MVStoreDatabase(file, formulaMeta().schemaVersion(42)));
+    }
+
+    @Test
+    public void testBulkLoad() throws IOException {
+        try (MVStoreDatabase db = openDatabase(formulaMeta())) {
+            db.insertAll(formulas(2, 5));
+            Closeable outer = db.bulkLoad(FormulaEntry.class);
+            Closeable inner = db.bulkLoad(FormulaEntry.class);
+            db.insertAll(formulas(3, 5));
+            assertEquals("query during bulk load", 10, db.count(Filter.where("featureId").eq(2), FormulaEntry.class));
+            assertEquals("query during bulk load", 10, db.count(Filter.where("formula").text("c1*"), FormulaEntry.class));
+            inner.close();
+            inner.close();
+            db.insertAll(formulas(1, 5));
+            outer.close();
+
+            assertEquals(30, db.countAll(FormulaEntry.class));
+            assertEquals("rebuilt index", 10, db.count(Filter.where("featureId").eq(2), FormulaEntry.class));
+            assertEquals("rebuilt index", 12, db.count(Filter.where("tags").eq("even"), FormulaEntry.class));
+            assertEquals("rebuilt full text index", 30, db.count(Filter.where("formula").text("adduct"), FormulaEntry.class));
+            List<Double> scores = db.findAllStr(FormulaEntry.class, "score", Database.SortOrder.ASCENDING).map(f -> f.score).toList();
+            assertEquals(scores.stream().sorted().toList(), scores);
+
+            assertThrows("unknown repository", IOException.class, () -> db.bulkLoad(TestEntry.class));
+        }
+    }
+
+    @Test
+    public void testJoinInBatches() throws IOException {
+        try (MVStoreDatabase db = openDatabase(Metadata.build()
+                .addRepository(FamilyTestEntry.class, Index.unique("name"))
+                .addRepository(ChildTestEntry.class, Index.nonUnique("parentKey")))) {
+            // more parents than one join batch
+            List<FamilyTestEntry> parents = IntStream.range(0, 2500).mapToObj(i -> FamilyTestEntry.builder().name("P" + i).build()).toList();
+            db.insertAll(parents);
+            List<ChildTestEntry> children = new ArrayList<>();
+            for (FamilyTestEntry parent : parents)
+                for (int i = 0; i < parent.primaryKey % 3; i++)
+                    children.add(ChildTestEntry.builder().name(i == 0 ? "A" : "B").parentKey(parent.primaryKey).build());
+            db.insertAll(children);
+
+            List<FamilyTestEntry> results = db.joinAllChildrenStr(ChildTestEntry.class, db.findAll(FamilyTestEntry.class), "primaryKey", "parentKey", "children").toList();
+            assertEquals(parents.size(), results.size());
+            for (FamilyTestEntry result : results) {
+                int expected = (int) (result.primaryKey % 3);
+                if (expected == 0)
+                    assertNull("no children", result.children);
+                else
+                    assertEquals(expected, result.children.size());
+            }
+
+            results = db.joinChildrenStr(ChildTestEntry.class, Filter.where("name").eq("B"), db.findAll(FamilyTestEntry.class), "primaryKey", "parentKey", "children").toList();
+            for (FamilyTestEntry result : results) {
+                if (result.primaryKey % 3 == 2)
+                    assertEquals(List.of("B"), result.children.stream().map(c -> c.name).toList());
+                else
+                    assertNull("no children", result.children);
+            }
+        }
+    }
+
+    @Test
+    public void testConcurrentInsertAndRead() throws IOException {
+        List<TestEntry> entries = IntStream.range(0, 100).mapToObj((int num) -> TestEntry.builder().name(Integer.toString(num)).build()).toList();
+
+        try (MVStoreDatabase db = openDatabase(Metadata.build().addRepository(TestEntry.class, Index.unique("name")).addDeserializer(DoubleList.class, new DoubleArrayDeserializer()))) {
+            List<Callable<Void>> jobs = entries.stream().map((TestEntry entry) -> (Callable<Void>) () -> {
+                assertEquals("insert", 1, db.insert(entry));
+                assertEquals("read", 1, db.count(Filter.where("name").eq(entry.name), TestEntry.class));
+                return null;
+            }).collect(Collectors.toList());
+
+            try (ExecutorService executorService = Executors.newFixedThreadPool(10)) {
+                for (Future<Void> future : executorService.invokeAll(jobs)) {
+                    future.get();
+                }
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException(e);
+            }
+            assertEquals(entries.size(), db.countAll(TestEntry.class));
+        }
+    }
+
+    @Test
+    public void testOnlineCompaction() throws IOException {
+        try (MVStoreDatabase db = openDatabase(formulaMeta().addRepository(TestEntry.class, Index.unique("name")).addDeserializer(DoubleList.class, new DoubleArrayDeserializer()))) {
+            db.insertAll(formulas(50, 20));
+            db.flush();
+            db.removeAll(Filter.where("rank").gt(5), FormulaEntry.class);
+            db.flush();
+
+            // reads and writes of other repositories while compacting
+            try (ExecutorService executorService = Executors.newFixedThreadPool(3)) {
+                Future<?> compaction = executorService.submit(db::compact);
+                Future<?> writer = executorService.submit(() -> {
+                    for (int i = 0; i < 200; i++)
+                        db.insert(TestEntry.builder().name("T" + i).build());
+                    return null;
+                });
+                Future<?> reader = executorService.submit(() -> {
+                    for (int i = 0; i < 200; i++)
+                        assertEquals("read while compacting", 5, db.count(Filter.where("featureId").eq(i % 50 + 1), FormulaEntry.class));
+                    return null;
+                });
+                compaction.get();
+                writer.get();
+                reader.get();
+            } catch (InterruptedException | ExecutionException e) {
+                throw new RuntimeException(e);
+            }
+
+            assertEquals("still open", 250, db.countAll(FormulaEntry.class));
+            assertEquals(200, db.countAll(TestEntry.class));
+            assertEquals(5, db.count(Filter.where("featureId").eq(7), FormulaEntry.class));
+        }
+    }
+
+    @Test
+    public void testFilterOnOptionalField() throws IOException {
+        try (MVStoreDatabase db = openDatabase(Metadata.build().addRepository(TestEntry.class, Index.unique("name")).setOptionalFields(TestEntry.class, "data").addDeserializer(DoubleList.class, new DoubleArrayDeserializer()))) {
+            db.insert(TestEntry.builder().name("TEST").data("BIGDATA").build());
+            List<TestEntry> result = db.findStr(Filter.where("data").eq("BIGDATA"), TestEntry.class).toList();
+            assertEquals(1, result.size());
+            assertNull("no data", result.getFirst().data);
+        }
+    }
+
+    @Test
+    public void testUnsubscribe() throws IOException, InterruptedException {
+        final BlockingQueue<String> nameQueue = new ArrayBlockingQueue<>(3);
+
+        try (MVStoreDatabase db = openDatabase(Metadata.build().addRepository(TestEntry.class, Index.unique("name")).addDeserializer(DoubleList.class, new DoubleArrayDeserializer()))) {
+            db.onInsert(TestEntry.class, (TestEntry e) -> nameQueue.add(e.name));
+            long updateListener = db.onUpdate(TestEntry.class, (TestEntry e) -> nameQueue.add(e.name));
+
+            TestEntry d = TestEntry.builder().name("D").build();
+            db.insert(d);
+            assertEquals("D", nameQueue.poll(1L, TimeUnit.SECONDS));
+            db.unsubscribe(TestEntry.class, updateListener);
+            db.upsert(d);
+            assertNull("unsubscribed", nameQueue.poll(200L, TimeUnit.MILLISECONDS));
+        }
+    }
+
+}
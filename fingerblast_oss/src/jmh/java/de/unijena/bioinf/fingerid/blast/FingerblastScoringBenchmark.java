@@ -0,0 +1,104 @@
+package de.unijena.bioinf.fingerid.blast;
+
+import de.unijena.bioinf.ChemistryBase.fp.*;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares scoring the candidates of one molecular formula one by one with {@link BayesnetScoring.Scorer} against
+ * scoring all of them at once on a {@link CandidateBitMatrix}. Tree, training data and candidates are random with a fixed seed.
+ * Run with ./gradlew :fingerblast_oss:jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FingerblastScoringBenchmark {
+
+    @Param({"1000", "50000"})
+    public int numberOfCandidates;
+
+    /**
+     * fraction of properties set in a candidate fingerprint
+     */
+    @Param({"0.1"})
+    public double density;
+
+    private ProbabilityFingerprint query;
+    private BayesnetScoring.Scorer scorer;
+    private List<Fingerprint> candidates;
+    private CandidateBitMatrix matrix;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(4711);
+        final FingerprintVersion version = CdkFingerprintVersion.getDefault();
+        final int size = version.size();
+
+        // random forest: every property is child of a property with smaller index or a root
+        final List<int[]> edges = new ArrayList<>();
+        for (int i = 1; i < size; ++i) {
+            if (random.nextDouble() < 0.9)
+                edges.add(new int[]{version.getAbsoluteIndexOf(random.nextInt(i)), version.getAbsoluteIndexOf(i)});
+        }
+
+        final int numberOfTrainingSamples = 200;
+        final ProbabilityFingerprint[] predicted = new ProbabilityFingerprint[numberOfTrainingSamples];
+        final Fingerprint[] correct = new Fingerprint[numberOfTrainingSamples];
+        for (int k = 0; k < numberOfTrainingSamples; ++k) {
+            correct[k] = randomFingerprint(version, random);
+            final double[] probabilities = new double[size];
+            for (int i = 0; i < size; ++i)
+                probabilities[i] = correct[k].isSet(i) ? 0.5 + 0.5 * random.nextDouble() : 0.5 * random.nextDouble();
+            predicted[k] = new ProbabilityFingerprint(version, probabilities);
+        }
+        final PredictionPerformance[] performances = new PredictionPerformance[size];
+        for (int i = 0; i < size; ++i)
+            performances[i] = new PredictionPerformance(10, 2, 180, 8);
+
+        final BayesnetScoring scoring = BayesnetScoringBuilder.createScoringMethod(performances, predicted, correct, edges.toArray(int[][]::new), false);
+        query = predicted[0];
+        scorer = scoring.getScoring();
+        scorer.prepare(query);
+
+        candidates = new ArrayList<>(numberOfCandidates);
+        for (int c = 0; c < numberOfCandidates; ++c)
+            candidates.add(randomFingerprint(version, random));
+        matrix = CandidateBitMatrix.of(version, candidates);
+    }
+
+    private Fingerprint randomFingerprint(FingerprintVersion version, Random random) {
+        final List<Short> indizes = new ArrayList<>();
+        for (int i = 0; i < version.size(); ++i) {
+            if (random.nextDouble() < density)
+                indizes.add((short) version.getAbsoluteIndexOf(i));
+        }
+        final short[] ary = new short[indizes.size()];
+        for (int i = 0; i < ary.length; ++i) ary[i] = indizes.get(i);
+        return new ArrayFingerprint(version, ary);
+    }
+
+    @Benchmark
+    public double[] scorePerCandidate() {
+        final double[] scores = new double[candidates.size()];
+        for (int c = 0; c < scores.length; ++c)
+            scores[c] = scorer.score(query, candidates.get(c));
+        return scores;
+    }
+
+    @Benchmark
+    public double[] scoreBitMatrix() {
+        return scorer.score(query, matrix);
+    }
+
+    @Benchmark
+    public double[] buildAndScoreBitMatrix() {
+        return scorer.score(query, CandidateBitMatrix.of(query.getFingerprintVersion(), candidates));
+    }
+}
@@ -476,6 +476,83 @@ public class BayesnetScoring implements FingerblastScoringMethod<BayesnetScoring
             return logProbability;
         }
 
+        /**
+         * The matrix scoring reproduces {@link #conditional(boolean[], AbstractCorrelationTreeNode)} of this class only.
+         * Subclasses have to opt in by overriding this method, if they do not change how a node is scored.
+         */
+        @Override
+        public boolean supportsBitMatrixScoring() {
+            return getClass() == Scorer.class;
+        }
+
+        /**
+         * Scores all candidates at once. Every node contributes one of at most four log probabilities, depending on
+         * the bits of its property and its parent's property. The score of the assignment where both are absent is
+         * added to all candidates, the differences to the other assignments are added to the candidates with the
+         * respective bit pattern, which is computed with word operations on the columns of the matrix.
+         */
+        @Override
+        public double[] score(ProbabilityFingerprint fingerprint, CandidateBitMatrix candidates) {
+            if (!supportsBitMatrixScoring())
+                return FingerblastScoring.super.score(fingerprint, candidates);
+            if (!preparedProbabilityFingerprint.equals(fingerprint)){
+                throw new RuntimeException("the prepared fingerprint differs from the currently used one.");
+            }
+            final int numberOfWords = candidates.numberOfWords();
+            final long[] bits = candidates.bits;
+            final double[] scores = new double[candidates.numberOfCandidates()];
+            double base = 0d;
+
+            for (AbstractCorrelationTreeNode node : nodeList) {
+                if (node.numberOfParents()==0){
+                    final int i = node.getFingerprintIndex();
+                    final double absent = Math.log(1d-getProbability(i,false));
+                    base += absent;
+                    addToSetBits(scores, bits, i * numberOfWords, numberOfWords, Math.log(getProbability(i, true)) - absent);
+                } else if (node instanceof CorrelationTreeNode){
+                    final CorrelationTreeNode v = (CorrelationTreeNode)node;
+                    final int i = v.parent.getFingerprintIndex();
+                    final int j = v.getFingerprintIndex();
+                    final double none = logABCDMatrixEntry(v, false, false);
+                    final double childOnly = logABCDMatrixEntry(v, true, false) - none;
+                    final double parentOnly = logABCDMatrixEntry(v, false, true) - none;
+                    final double both = logABCDMatrixEntry(v, true, true) - none;
+                    base += none;
+                    final int childOffset = j * numberOfWords, parentOffset = i * numberOfWords;
+                    for (int w = 0; w < numberOfWords; ++w) {
+                        final long child = bits[childOffset + w], parent = bits[parentOffset + w];
+                        final int offset = w << 6;
+                        addToSetBits(scores, offset, child & ~parent, childOnly);
+                        addToSetBits(scores, offset, parent & ~child, parentOnly);
+                        addToSetBits(scores, offset, child & parent, both);
+                    }
+                } else {
+                    throw new RuntimeException("unknown class for AbstractCorrelationTreeNode");
+                }
+            }
+
+            for (int c = 0; c < scores.length; ++c)
+                scores[c] += base;
+            return scores;
+        }
+
+        private double logABCDMatrixEntry(CorrelationTreeNode v, boolean thisTrue, boolean parentTrue) {
+            final double score = Math.log(getABCDMatrixEntry(v, thisTrue, parentTrue));
+            return (allowOnlyNegativeScores && score>0) ? 0 : score;
+        }
+
+        private static void addToSetBits(double[] scores, long[] bits, int from, int numberOfWords, double value) {
+            for (int w = 0; w < numberOfWords; ++w)
+                addToSetBits(scores, w << 6, bits[from + w], value);
+        }
+
+        private static void addToSetBits(double[] scores, int offset, long word, double value) {
+            while (word != 0) {
+                scores[offset + Long.numberOfTrailingZeros(word)] += value;
+                word &= word - 1;
+            }
+        }
+
 
         protected double conditional(boolean[] databaseEntry, AbstractCorrelationTreeNode x) {
             if (x.numberOfParents()==0){
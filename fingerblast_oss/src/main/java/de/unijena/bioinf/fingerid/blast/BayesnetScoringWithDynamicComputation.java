@@ -51,6 +51,17 @@ public class BayesnetScoringWithDynamicComputation implements FingerblastScoring
         return innerScorer.score(fingerprint, databaseEntry);
     }
 
+    @Override
+    public boolean supportsBitMatrixScoring() {
+        return innerScorer.supportsBitMatrixScoring();
+    }
+
+    @Override
+    public double[] score(ProbabilityFingerprint fingerprint, CandidateBitMatrix candidates) {
+        if (!fingerprint.equals(currentEstimatedFingerprint)) throw new RuntimeException("estimated fingerprint has changed. New scoring needs to be prepared.");
+        return innerScorer.score(fingerprint, candidates);
+    }
+
     @Override
     public double getThreshold() {
         return threshold;
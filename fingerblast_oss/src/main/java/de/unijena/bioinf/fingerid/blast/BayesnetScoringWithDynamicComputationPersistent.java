@@ -80,6 +80,16 @@ public class BayesnetScoringWithDynamicComputationPersistent implements Fingerbl
         return innerScorer.score(fingerprint, databaseEntry);
     }
 
+    @Override
+    public boolean supportsBitMatrixScoring() {
+        return innerScorer.supportsBitMatrixScoring();
+    }
+
+    @Override
+    public double[] score(ProbabilityFingerprint fingerprint, CandidateBitMatrix candidates) {
+        return innerScorer.score(fingerprint, candidates);
+    }
+
     @Override
     public double getThreshold() {
         return minThreshold;
@@ -0,0 +1,100 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.fingerid.blast;
+
+import de.unijena.bioinf.ChemistryBase.fp.Fingerprint;
+import de.unijena.bioinf.ChemistryBase.fp.FingerprintVersion;
+
+import java.util.List;
+
+/**
+ * Column-major bit matrix of the fingerprints of a candidate list, e.g. all structures of one molecular formula.
+ * Each molecular property (relative index of the fingerprint version) owns a column of numberOfWords longs.
+ * Bit k of word w in the column of property i is set iff candidate 64*w+k has property i.
+ * This allows scorers to process all candidates per property at once (see {@link FingerblastScoring#score(de.unijena.bioinf.ChemistryBase.fp.ProbabilityFingerprint, CandidateBitMatrix)}).
+ */
+public final class CandidateBitMatrix {
+
+    private final FingerprintVersion fingerprintVersion;
+    private final List<? extends Fingerprint> fingerprints;
+    private final int numberOfWords;
+    // column of property i starts at i*numberOfWords
+    final long[] bits;
+
+    private CandidateBitMatrix(FingerprintVersion fingerprintVersion, List<? extends Fingerprint> fingerprints, int numberOfWords, long[] bits) {
+        this.fingerprintVersion = fingerprintVersion;
+        this.fingerprints = fingerprints;
+        this.numberOfWords = numberOfWords;
+        this.bits = bits;
+    }
+
+    /**
+     * @param fingerprintVersion version all fingerprints are compatible with, usually the (masked) version of the predicted fingerprint
+     * @param fingerprints       candidate fingerprints, already masked to fingerprintVersion
+     */
+    public static CandidateBitMatrix of(FingerprintVersion fingerprintVersion, List<? extends Fingerprint> fingerprints) {
+        final int numberOfProperties = fingerprintVersion.size();
+        final int numberOfWords = (fingerprints.size() + 63) >>> 6;
+        final long[] bits = new long[numberOfProperties * numberOfWords];
+        for (int c = 0; c < fingerprints.size(); ++c) {
+            final Fingerprint fp = fingerprints.get(c);
+            final FingerprintVersion version = fp.getFingerprintVersion();
+            if (version.size() != numberOfProperties)
+                throw new IllegalArgumentException("Fingerprint of candidate " + c + " has " + version.size() + " properties but " + numberOfProperties + " are expected.");
+            final int word = c >>> 6;
+            final long bit = 1L << (c & 63);
+            for (short absoluteIndex : fp.toIndizesArray())
+                bits[version.getRelativeIndexOf(absoluteIndex) * numberOfWords + word] |= bit;
+        }
+        return new CandidateBitMatrix(fingerprintVersion, fingerprints, numberOfWords, bits);
+    }
+
+    public FingerprintVersion getFingerprintVersion() {
+        return fingerprintVersion;
+    }
+
+    public int numberOfCandidates() {
+        return fingerprints.size();
+    }
+
+    public int numberOfProperties() {
+        return fingerprintVersion.size();
+    }
+
+    public int numberOfWords() {
+        return numberOfWords;
+    }
+
+    /**
+     * @return bits of candidates 64*word to 64*word+63 for the property with the given relative index
+     */
+    public long getWord(int property, int word) {
+        return bits[property * numberOfWords + word];
+    }
+
+    public boolean isSet(int candidate, int property) {
+        return (bits[property * numberOfWords + (candidate >>> 6)] & (1L << (candidate & 63))) != 0;
+    }
+
+    public Fingerprint getFingerprint(int candidate) {
+        return fingerprints.get(candidate);
+    }
+}
@@ -84,9 +84,18 @@ public class Fingerblast<P> {
         MaskedFingerprintVersion mask = null;
         if (fingerprint.getFingerprintVersion() instanceof MaskedFingerprintVersion)
             mask = (MaskedFingerprintVersion) fingerprint.getFingerprintVersion();
-        for (FingerprintCandidate fp : candidates) {
-            final Fingerprint fpm = (mask == null || fp.getFingerprint().getFingerprintVersion().equals(mask)) ? fp.getFingerprint() : mask.mask(fp.getFingerprint());
-            results.add(new Scored<>(new FingerprintCandidate(fp, fpm), preparedScorer.score(fingerprint, fpm)));
+        if (preparedScorer.supportsBitMatrixScoring() && !candidates.isEmpty()) {
+            final List<Fingerprint> masked = new ArrayList<>(candidates.size());
+            for (FingerprintCandidate fp : candidates)
+                masked.add((mask == null || fp.getFingerprint().getFingerprintVersion().equals(mask)) ? fp.getFingerprint() : mask.mask(fp.getFingerprint()));
+            final double[] scores = preparedScorer.score(fingerprint, CandidateBitMatrix.of(fingerprint.getFingerprintVersion(), masked));
+            for (int i = 0; i < scores.length; ++i)
+                results.add(new Scored<>(new FingerprintCandidate(candidates.get(i), masked.get(i)), scores[i]));
+        } else {
+            for (FingerprintCandidate fp : candidates) {
+                final Fingerprint fpm = (mask == null || fp.getFingerprint().getFingerprintVersion().equals(mask)) ? fp.getFingerprint() : mask.mask(fp.getFingerprint());
+                results.add(new Scored<>(new FingerprintCandidate(fp, fpm), preparedScorer.score(fingerprint, fpm)));
+            }
         }
         results.sort(Comparator.reverseOrder());
         return results;
@@ -45,6 +45,23 @@ public interface FingerblastScoring<Parameter> {
 
     double score(ProbabilityFingerprint fingerprint, Fingerprint databaseEntry);
 
+    /**
+     * @return true if {@link #score(ProbabilityFingerprint, CandidateBitMatrix)} is faster than scoring the candidates one by one
+     */
+    default boolean supportsBitMatrixScoring() {
+        return false;
+    }
+
+    /**
+     * Scores all candidates of the matrix. Result i is the same as score(fingerprint, candidates.getFingerprint(i)).
+     */
+    default double[] score(ProbabilityFingerprint fingerprint, CandidateBitMatrix candidates) {
+        final double[] scores = new double[candidates.numberOfCandidates()];
+        for (int i = 0; i < scores.length; ++i)
+            scores[i] = score(fingerprint, candidates.getFingerprint(i));
+        return scores;
+    }
+
     double getThreshold();
 
     void setThreshold(double threshold);
@@ -0,0 +1,162 @@
+package de.unijena.bioinf.fingerid.blast;
+
+import de.unijena.bioinf.ChemistryBase.algorithm.scoring.Scored;
+import de.unijena.bioinf.ChemistryBase.chem.InChI;
+import de.unijena.bioinf.ChemistryBase.fp.*;
+import de.unijena.bioinf.chemdb.CompoundCandidate;
+import de.unijena.bioinf.chemdb.DBLink;
+import de.unijena.bioinf.chemdb.FingerprintCandidate;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class CandidateBitMatrixTest {
+
+    // more than two words and not a multiple of 64
+    private static final int NUMBER_OF_CANDIDATES = 150;
+
+    private static final CdkFingerprintVersion CDK = CdkFingerprintVersion.getDefault();
+
+    /**
+     * masks every third property, such that relative and absolute indices differ
+     */
+    private static MaskedFingerprintVersion mask() {
+        final MaskedFingerprintVersion.Builder builder = MaskedFingerprintVersion.buildMaskFor(CDK).enableAll();
+        for (int i = 0; i < CDK.size(); i += 3)
+            builder.disable(i);
+        return builder.toMask();
+    }
+
+    private static Fingerprint randomFingerprint(FingerprintVersion version, Random random, double density) {
+        final List<Short> indizes = new ArrayList<>();
+        for (int i = 0; i < version.size(); ++i) {
+            if (random.nextDouble() < density)
+                indizes.add((short) version.getAbsoluteIndexOf(i));
+        }
+        final short[] ary = new short[indizes.size()];
+        for (int i = 0; i < ary.length; ++i) ary[i] = indizes.get(i);
+        return new ArrayFingerprint(version, ary);
+    }
+
+    /**
+     * Random forest over the masked properties, built like the scoring benchmark. Children mostly copy the bit of
+     * their parent in the training data, such that the network learns strong correlations.
+     */
+    private static BayesnetScoring scoring(MaskedFingerprintVersion version, Random random, boolean allowOnlyNegativeScores) {
+        final int[] parent = new int[version.size()];
+        final List<int[]> edges = new ArrayList<>();
+        parent[0] = -1;
+        for (int i = 1; i < version.size(); ++i) {
+            parent[i] = random.nextDouble() < 0.9 ? random.nextInt(i) : -1;
+            if (parent[i] >= 0)
+                edges.add(new int[]{version.getAbsoluteIndexOf(parent[i]), version.getAbsoluteIndexOf(i)});
+        }
+        final int numberOfTrainingSamples = 100;
+        final ProbabilityFingerprint[] predicted = new ProbabilityFingerprint[numberOfTrainingSamples];
+        final Fingerprint[] correct = new Fingerprint[numberOfTrainingSamples];
+        for (int k = 0; k < numberOfTrainingSamples; ++k) {
+            final boolean[] bits = new boolean[version.size()];
+            for (int i = 0; i < bits.length; ++i)
+                bits[i] = parent[i] >= 0 && random.nextDouble() < 0.9 ? bits[parent[i]] : random.nextDouble() < 0.3;
+            correct[k] = new BooleanFingerprint(version, bits);
+            predicted[k] = predict(version, correct[k], random);
+        }
+        final PredictionPerformance[] performances = new PredictionPerformance[version.size()];
+        for (int i = 0; i < performances.length; ++i)
+            performances[i] = new PredictionPerformance(10, 2, 80, 8);
+        return BayesnetScoringBuilder.createScoringMethod(performances, predicted, correct, edges.toArray(int[][]::new), allowOnlyNegativeScores);
+    }
+
+    private static ProbabilityFingerprint predict(FingerprintVersion version, Fingerprint correct, Random random) {
+        final double[] probabilities = new double[version.size()];
+        final boolean[] bits = correct.toBooleanArray();
+        for (int i = 0; i < probabilities.length; ++i)
+            probabilities[i] = bits[i] ? 0.5 + 0.5 * random.nextDouble() : 0.5 * random.nextDouble();
+        return new ProbabilityFingerprint(version, probabilities);
+    }
+
+    /**
+     * candidates with unmasked fingerprints, as they are returned by the structure database
+     */
+    private static List<FingerprintCandidate> candidates(Random random) {
+        final List<FingerprintCandidate> candidates = new ArrayList<>(NUMBER_OF_CANDIDATES);
+        for (int c = 0; c < NUMBER_OF_CANDIDATES; ++c) {
+            final String key = String.format("CANDIDATE%05d", c);
+            final CompoundCandidate compound = new CompoundCandidate(new InChI(key + "-UHFFFAOYSA-N", "InChI=1S/" + key), key, "C", 0, 0, 1.5, 8, new DBLink[0], null);
+            candidates.add(new FingerprintCandidate(compound, randomFingerprint(CDK, random, c % 7 == 0 ? 0.5 : 0.15)));
+        }
+        return candidates;
+    }
+
+    /**
+     * @return the per candidate scores
+     */
+    private static double[] assertBitMatrixScoringEqualsScore(boolean allowOnlyNegativeScores) {
+        final Random random = new Random(4711);
+        final MaskedFingerprintVersion version = mask();
+        final BayesnetScoring scoring = scoring(version, random, allowOnlyNegativeScores);
+        final ProbabilityFingerprint query = predict(version, randomFingerprint(version, random, 0.2), random);
+        final BayesnetScoring.Scorer scorer = scoring.getScoring();
+        scorer.prepare(query);
+        assertTrue(scorer.supportsBitMatrixScoring());
+
+        final List<FingerprintCandidate> candidates = candidates(random);
+        final List<Fingerprint> masked = candidates.stream().map(c -> (Fingerprint) version.mask(c.getFingerprint())).toList();
+        final double[] expected = new double[NUMBER_OF_CANDIDATES];
+        for (int c = 0; c < NUMBER_OF_CANDIDATES; ++c)
+            expected[c] = scorer.score(query, masked.get(c));
+
+        final CandidateBitMatrix matrix = CandidateBitMatrix.of(version, masked);
+        assertEquals(3, matrix.numberOfWords());
+        for (int c = 0; c < NUMBER_OF_CANDIDATES; c += 13)
+            for (int i = 0; i < version.size(); ++i)
+                assertEquals(masked.get(c).isSet(version.getAbsoluteIndexOf(i)), matrix.isSet(c, i));
+        assertArrayEquals(expected, scorer.score(query, matrix), 1e-9);
+
+        // Fingerblast masks the candidates itself and uses the matrix path
+        final Map<String, Double> expectedByKey = new HashMap<>();
+        for (int c = 0; c < NUMBER_OF_CANDIDATES; ++c)
+            expectedByKey.put(candidates.get(c).getInchiKey2D(), expected[c]);
+        final List<Scored<FingerprintCandidate>> results = Fingerblast.score(scorer, candidates, query);
+        assertEquals(NUMBER_OF_CANDIDATES, results.size());
+        for (Scored<FingerprintCandidate> result : results) {
+            assertTrue(result.getCandidate().getFingerprint().getFingerprintVersion().identical(version));
+            assertEquals(expectedByKey.get(result.getCandidate().getInchiKey2D()), result.getScore(), 1e-9);
+        }
+        return expected;
+    }
+
+    @Test
+    public void testBitMatrixScoringEqualsScore() {
+        assertBitMatrixScoringEqualsScore(false);
+    }
+
+    @Test
+    public void testBitMatrixScoringEqualsScoreWithOnlyNegativeScores() {
+        final double[] unclamped = assertBitMatrixScoringEqualsScore(false);
+        final double[] clamped = assertBitMatrixScoringEqualsScore(true);
+        // the same network and candidates. Conditional probabilities of this scorer never exceed one, so nothing is clamped
+        assertArrayEquals(unclamped, clamped, 1e-9);
+        for (double score : clamped)
+            assertTrue(score <= 0);
+    }
+
+    @Test
+    public void testSubclassesHaveToOptIn() {
+        final MaskedFingerprintVersion version = mask();
+        final BayesnetScoring scoring = scoring(version, new Random(1), false);
+        final BayesnetScoring.Scorer subclass = scoring.new Scorer() {
+            @Override
+            protected double conditional(boolean[] databaseEntry, BayesnetScoring.AbstractCorrelationTreeNode x) {
+                return 2 * super.conditional(databaseEntry, x);
+            }
+        };
+        assertFalse(subclass.supportsBitMatrixScoring());
+    }
+}
@@ -74,6 +74,27 @@ public class FingerIDProperties {
         return PropertyManager.getInteger("de.unijena.bioinf.chemdb.fingerprint.id", null, null);
     }
 
+    /**
+     * Disk budget of the local structure cache in MB, values <= 0 mean unlimited
+     */
+    public static long chemDBCacheMaxSizeMb() {
+        return PropertyManager.getLong("de.unijena.bioinf.chemdb.cache.maxSizeMb", 0L);
+    }
+
+    /**
+     * Eviction strategy of the local structure cache, LRU or LFU
+     */
+    public static String chemDBCacheEviction() {
+        return PropertyManager.getProperty("de.unijena.bioinf.chemdb.cache.eviction", null, "LRU");
+    }
+
+    /**
+     * Number of formulas whose decoded structures are kept in memory
+     */
+    public static int chemDBCacheHeapFormulas() {
+        return PropertyManager.getInteger("de.unijena.bioinf.chemdb.cache.heapFormulas", 0);
+    }
+
     public static String defaultChemDBBucket(){
         return PropertyManager.getProperty("de.unijena.bioinf.stores.chemdb.bucket");
     }
@@ -0,0 +1,68 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree;
+
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.sirius.ProcessedInput;
+
+/**
+ * Solves graphs with few colors with the small graph builder (the pure Java branch and bound) and all other graphs
+ * with the large graph builder (an ILP solver). For small graphs, building the ILP model and passing it to the native
+ * solver takes longer than solving the instance in Java.
+ */
+public class SizeDependentTreeBuilder implements TreeBuilder {
+
+    private final TreeBuilder smallGraphBuilder, largeGraphBuilder;
+    private final int maxColorsOfSmallGraphs;
+
+    /**
+     * @param maxColorsOfSmallGraphs graphs with at most this number of colors are solved by the small graph builder
+     */
+    public SizeDependentTreeBuilder(TreeBuilder smallGraphBuilder, TreeBuilder largeGraphBuilder, int maxColorsOfSmallGraphs) {
+        this.smallGraphBuilder = smallGraphBuilder;
+        this.largeGraphBuilder = largeGraphBuilder;
+        this.maxColorsOfSmallGraphs = maxColorsOfSmallGraphs;
+    }
+
+    public TreeBuilder getBuilder(FGraph graph) {
+        return graph.maxColor() + 1 <= maxColorsOfSmallGraphs ? smallGraphBuilder : largeGraphBuilder;
+    }
+
+    @Override
+    public FluentInterface computeTree() {
+        return new FluentInterface(this);
+    }
+
+    @Override
+    public Result computeTree(ProcessedInput input, FGraph graph, FluentInterface options) {
+        return getBuilder(graph).computeTree(input, graph, options);
+    }
+
+    @Override
+    public boolean isThreadSafe() {
+        return smallGraphBuilder.isThreadSafe() && largeGraphBuilder.isThreadSafe();
+    }
+
+    @Override
+    public String toString() {
+        return largeGraphBuilder + " (" + smallGraphBuilder + " for graphs with at most " + maxColorsOfSmallGraphs + " colors)";
+    }
+}
@@ -22,6 +22,7 @@ package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree;
 
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.ilp.AbstractSolver;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.ilp.AbstractTreeBuilder;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.ilp.BranchAndBoundSolver;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.ilp.ILPSolverException;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.ilp.IlpFactory;
 import de.unijena.bioinf.ms.properties.PropertyManager;
@@ -57,7 +58,7 @@ public final class TreeBuilderFactory {
     private static TreeBuilderFactory INSTANCE = null;
 
     @Schema(name = "Solver")
-    public enum DefaultBuilder {GUROBI, CPLEX, GLPK, CLP}
+    public enum DefaultBuilder {GUROBI, CPLEX, GLPK, CLP, JAVA}
 
     private TreeBuilderFactory() {
     }
@@ -142,6 +143,9 @@ public final class TreeBuilderFactory {
             case CLP:
                 factory = getTreeBuilderFromClass("de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.ilp.CLPSolver", warn);
                 break;
+            case JAVA:
+                factory = getTreeBuilderFromClass(BranchAndBoundSolver.class, warn);
+                break;
             default:
                 LoggerFactory.getLogger(this.getClass()).warn("TreeBuilder " + builder.toString() + " is Unknown, supported are: " + Arrays.toString(DefaultBuilder.values()), new IllegalArgumentException("Unknown BuilderType!"));
                 return null;
@@ -161,11 +165,30 @@ public final class TreeBuilderFactory {
         return new AbstractTreeBuilder<>(factory);
     }
 
+    /**
+     * Graphs with at most this number of colors are solved with the {@link BranchAndBoundSolver} if the selected solver
+     * is an ILP solver, because building the ILP model is more expensive than solving such graphs in Java.
+     * Set to 0 to solve all graphs with the ILP solver.
+     */
+    public static int getJavaSolverMaxColors() {
+        return PropertyManager.getInteger("de.unijena.bioinf.sirius.treebuilder.java.maxColors", 12);
+    }
+
     public TreeBuilder getTreeBuilder() {
-        for (DefaultBuilder builder : getBuilderPriorities()) {
+        final DefaultBuilder[] priorities = getBuilderPriorities();
+        for (DefaultBuilder builder : priorities) {
             TreeBuilder b = getTreeBuilder(builder);
-            if (b != null)
+            if (b != null) {
+                final int maxColors = getJavaSolverMaxColors();
+                if (builder != DefaultBuilder.JAVA && maxColors > 0)
+                    return new SizeDependentTreeBuilder(getTreeBuilder(DefaultBuilder.JAVA), b, maxColors);
                 return b;
+            }
+        }
+        if (!Arrays.asList(priorities).contains(DefaultBuilder.JAVA)) {
+            // pure java solver is always available but might be considerably slower on large graphs
+            LoggerFactory.getLogger(TreeBuilderFactory.class).warn("None of the configured ILP solvers " + Arrays.toString(priorities) + " could be loaded. Falling back to the Java branch and bound solver.");
+            return getTreeBuilder(DefaultBuilder.JAVA);
         }
         LoggerFactory.getLogger(TreeBuilderFactory.class).error("Your system does not ship with any instantiatable ILP solver. Please install either CLP,  Gurobi or CPLEX to use SIRIUS.");
         return null;
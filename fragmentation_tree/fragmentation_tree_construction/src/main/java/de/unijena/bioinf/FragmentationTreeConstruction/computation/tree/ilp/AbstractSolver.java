@@ -37,6 +37,11 @@ import java.util.List;
 
 /**
  * Created by Spectar on 13.11.2014.
+ * <p>
+ * Solvers either work on an object based edge index of the graph ({@link #losses}, {@link #edgeIds} and
+ * {@link #edgeOffsets}, used by GLPK, Gurobi and CPLEX) or on a {@link CompactGraph} (CLP and the Java branch and
+ * bound solver). A solver only holds one of both, the other fields are null. In both cases, edge ids and variable
+ * indices are the indices of the edges in {@link FGraph#losses()}.
  */
 abstract public class AbstractSolver {
 
@@ -46,6 +51,7 @@ abstract public class AbstractSolver {
     protected final List<Loss> losses;
     protected final int[] edgeIds; // contains variable indices (after 'computeoffsets')
     protected final int[] edgeOffsets; // contains: the first index j of edges starting from a given vertex i
+    protected final CompactGraph compactGraph; // replaces losses, edgeIds and edgeOffsets if not null
 
     protected TreeBuilder.FluentInterface options;
 
@@ -54,20 +60,43 @@ abstract public class AbstractSolver {
     ////////////////////////
 
     protected AbstractSolver(FGraph graph, ProcessedInput input, TreeBuilder.FluentInterface options) {
+        this(graph, input, options, false);
+    }
+
+    /**
+     * @param useCompactGraph if true, the solver works on a {@link CompactGraph} of the input graph instead of the
+     *                        object based edge index
+     */
+    protected AbstractSolver(FGraph graph, ProcessedInput input, TreeBuilder.FluentInterface options, boolean useCompactGraph) {
         if (graph == null) throw new NullPointerException("Cannot solve graph: graph is NULL!");
         this.graph = graph;
-        this.losses = new ArrayList<Loss>(graph.numberOfEdges());
-        for (Fragment f : graph) {
-            for (int k = 0; k < f.getInDegree(); ++k) {
-                losses.add(f.getIncomingEdge(k));
+        if (useCompactGraph) {
+            this.compactGraph = CompactGraph.of(graph);
+            this.losses = null;
+            this.edgeIds = null;
+            this.edgeOffsets = null;
+        } else {
+            this.compactGraph = null;
+            this.losses = new ArrayList<Loss>(graph.numberOfEdges());
+            for (Fragment f : graph) {
+                for (int k = 0; k < f.getInDegree(); ++k) {
+                    losses.add(f.getIncomingEdge(k));
+                }
             }
+            this.edgeIds = new int[graph.numberOfEdges()];
+            this.edgeOffsets = new int[graph.numberOfVertices()];
         }
-        this.edgeIds = new int[graph.numberOfEdges()];
-        this.edgeOffsets = new int[graph.numberOfVertices()];
         this.input = input;
         this.options = options;
     }
 
+    /**
+     * @return number of edges and variables of the problem
+     */
+    protected int numberOfEdges() {
+        return compactGraph != null ? compactGraph.numberOfEdges() : losses.size();
+    }
+
     public TreeBuilder.Result compute() {
         if (graph.numberOfEdges() == 1) {
             IntergraphMapping.Builder mapping = IntergraphMapping.build();
@@ -97,8 +126,10 @@ abstract public class AbstractSolver {
                 setNumberOfCpus(options.getNumberOfCPUS());
             if (options.getTimeLimitsInSeconds() > 0)
                 setTimeLimitInSeconds(options.getTimeLimitsInSeconds());
-            computeOffsets();
-            assert (edgeOffsets != null && (edgeOffsets.length != 0 || losses.size() == 0)) : "Edge edgeOffsets were not calculated?!";
+            if (compactGraph == null) {
+                computeOffsets();
+                assert (edgeOffsets != null && (edgeOffsets.length != 0 || losses.size() == 0)) : "Edge edgeOffsets were not calculated?!";
+            }
 
             defineVariables();
             if (options.getTemplate() != null) {
@@ -214,6 +245,10 @@ abstract public class AbstractSolver {
     abstract protected void defineVariables() throws Exception;
 
     protected void setVariableStartValues(FTree presolvedTree) throws Exception {
+        if (compactGraph != null) {
+            setVariableStartValues(compactEdgeIds(presolvedTree));
+            return;
+        }
         // map edges in presolved tree to edge ids
 //        final HashMap<MolecularFormula, Fragment> fragmentMap = new HashMap<>(presolvedTree.numberOfVertices());
         final TCustomHashMap<Fragment, Fragment> fragmentMap = Fragment.newFragmentWithIonMap();
@@ -258,6 +293,45 @@ abstract public class AbstractSolver {
         setVariableStartValues(selectedEdges);
     }
 
+    /**
+     * same as the object based mapping in {@link #setVariableStartValues(FTree)}, but on the compact graph
+     */
+    private int[] compactEdgeIds(FTree presolvedTree) {
+        final TCustomHashMap<Fragment, Fragment> fragmentMap = Fragment.newFragmentWithIonMap();
+        for (Fragment f : presolvedTree) fragmentMap.put(f, f);
+
+        int[] selectedEdges = new int[1 + presolvedTree.numberOfEdges()];
+        int k = 0;
+
+        // find pseudo root
+        final int pseudoRoot = compactGraph.getRoot();
+        final MolecularFormula root = presolvedTree.getRoot().getFormula();
+        for (int l = 0; l < compactGraph.outDegree(pseudoRoot); ++l) {
+            final int e = compactGraph.getOutgoingEdge(pseudoRoot, l);
+            if (compactGraph.getFormula(compactGraph.getTarget(e)).equals(root)) {
+                selectedEdges[k++] = e;
+                break;
+            }
+        }
+
+        for (int i = 1; i < this.graph.numberOfVertices(); ++i) {
+            final Fragment fragment = this.graph.getFragmentAt(i);
+            if (fragment.getFormula().isEmpty())
+                continue;
+            final Fragment treeFragment = fragmentMap.get(fragment);
+            if (treeFragment != null && !treeFragment.isRoot()) {
+                final MolecularFormula lf = treeFragment.getIncomingEdge().getFormula();
+                for (int l = 0; l < fragment.getInDegree(); ++l) {
+                    if (fragment.getIncomingEdge(l).getFormula().equals(lf)) {
+                        selectedEdges[k++] = compactGraph.firstIncomingEdge(i) + l;
+                        break;
+                    }
+                }
+            }
+        }
+        return k < selectedEdges.length ? Arrays.copyOf(selectedEdges, k) : selectedEdges;
+    }
+
     protected abstract void setVariableStartValues(int[] usedEdgeIds) throws Exception;
 
     /**
@@ -337,6 +411,13 @@ abstract public class AbstractSolver {
 
 
     protected FTree buildSolution(double score, boolean[] edesAreUsed, IntergraphMapping.Builder builder) {
+        if (compactGraph != null) {
+            final int[] edges = new int[edesAreUsed.length];
+            int n = 0;
+            for (int e = 0; e < edesAreUsed.length; ++e)
+                if (edesAreUsed[e]) edges[n++] = e;
+            return n == 0 ? null : compactGraph.toTree(graph, edges, n, builder);
+        }
         Fragment graphRoot = null;
         double rootScore = 0d;
         // get root
@@ -0,0 +1,396 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.ilp;
+
+import de.unijena.bioinf.ChemistryBase.ms.ft.CompactGraph;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
+import de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.CompactCriticalPathInsertionHeuristic;
+import de.unijena.bioinf.sirius.ProcessedInput;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+/**
+ * Exact solver for the maximum colorful subtree problem that does not depend on any native ILP library.
+ * <p>
+ * Colors are decided one after another in topological order. For each color the search either selects one vertex
+ * of this color (connected by its best incoming edge from an already selected vertex) or no vertex at all.
+ * Search nodes are pruned with an upper bound that sums up, for each undecided color, the best positive incoming edge
+ * of a vertex that can still be connected to the tree. The search is seeded with the score of the
+ * {@link CompactCriticalPathInsertionHeuristic} as lower bound. The search runs on the {@link CompactGraph} of the
+ * solver, edge ids are the indices of the losses.
+ * <p>
+ * Runtime is exponential in the worst case, so this solver is meant as fallback if no ILP solver is available
+ * and for small graphs, where building an ILP model is more expensive than solving the instance.
+ */
+public class BranchAndBoundSolver extends AbstractSolver {
+
+    public final static IlpFactory<BranchAndBoundSolver> Factory = new IlpFactory<>() {
+        @Override
+        public BranchAndBoundSolver create(ProcessedInput input, FGraph graph, TreeBuilder.FluentInterface options) {
+            return new BranchAndBoundSolver(graph, input, options);
+        }
+
+        @Override
+        public boolean isThreadSafe() {
+            return true;
+        }
+
+        @Override
+        public String name() {
+            return "Java Branch and Bound";
+        }
+
+        @Override
+        public void checkSolver() throws ILPSolverException {
+            // pure java, always available
+        }
+    };
+
+    /**
+     * number of search nodes after which timeout and interruption are checked
+     */
+    private final static int CHECK_INTERVAL = 4096;
+
+    private final static double EPSILON = 1e-6;
+
+    private int pseudoRoot;
+
+    // vertices grouped by color, colors in topological order
+    private int[] colorOffsets;
+    private int[] colorVertices;
+
+    // search state
+    private boolean[] selected;
+    private int[] possibleStamp;
+    private int stamp;
+    private boolean rootSelected;
+    private int[] chosenLoss;
+    private double[] colorBounds;
+    private int[][] candidateVertices;
+    private int[][] candidateLosses;
+    private double[][] candidateWeights;
+
+    private double minimalScore = Double.NEGATIVE_INFINITY;
+    private long deadline = Long.MAX_VALUE;
+    private long visitedNodes;
+    private boolean aborted;
+
+    private double bestScore;
+    private int[] bestLosses;
+
+    protected BranchAndBoundSolver(FGraph graph, ProcessedInput input, TreeBuilder.FluentInterface options) {
+        super(graph, input, options, true);
+    }
+
+    @Override
+    protected void setTimeLimitInSeconds(double timeLimitsInSeconds) throws Exception {
+        this.deadline = System.currentTimeMillis() + (long) (timeLimitsInSeconds * 1000);
+    }
+
+    @Override
+    protected void setNumberOfCpus(int numberOfCPUS) throws Exception {
+        // single threaded search
+    }
+
+    @Override
+    protected void initializeModel() throws Exception {
+        final int n = compactGraph.numberOfVertices();
+        this.pseudoRoot = compactGraph.getRoot();
+        groupVerticesByColor();
+
+        final int numberOfColors = colorOffsets.length - 1;
+        this.selected = new boolean[n];
+        this.selected[pseudoRoot] = true;
+        this.possibleStamp = new int[n];
+        this.chosenLoss = new int[numberOfColors];
+        this.colorBounds = new double[numberOfColors + 1];
+        this.candidateVertices = new int[numberOfColors][];
+        this.candidateLosses = new int[numberOfColors][];
+        this.candidateWeights = new double[numberOfColors][];
+        for (int c = 0; c < numberOfColors; ++c) {
+            final int size = colorOffsets[c + 1] - colorOffsets[c] + 1;
+            candidateVertices[c] = new int[size];
+            candidateLosses[c] = new int[size];
+            candidateWeights[c] = new double[size];
+        }
+    }
+
+    /**
+     * group all vertices (except the pseudo root) by color and sort colors topologically, such that the parents of
+     * a vertex always belong to an earlier color.
+     */
+    private void groupVerticesByColor() {
+        final CompactGraph g = compactGraph;
+        final int n = g.numberOfVertices();
+        final int numberOfColors = g.maxColor() + 1;
+        final int[] colorSizes = new int[numberOfColors];
+        for (int v = 0; v < n; ++v)
+            if (v != pseudoRoot) ++colorSizes[g.getColor(v)];
+
+        // edges between colors
+        final int[] inDegree = new int[numberOfColors];
+        final int[][] successors = new int[numberOfColors][];
+        final int[] successorSizes = new int[numberOfColors];
+        for (int c = 0; c < numberOfColors; ++c) successors[c] = new int[4];
+        for (int e = 0; e < g.numberOfEdges(); ++e) {
+            if (g.getSource(e) == pseudoRoot) continue;
+            final int a = g.getColor(g.getSource(e)), b = g.getColor(g.getTarget(e));
+            if (a == b)
+                throw new IllegalArgumentException("Graph contains an edge between two vertices of the same color.");
+            if (successorSizes[a] == successors[a].length)
+                successors[a] = Arrays.copyOf(successors[a], successors[a].length * 2);
+            successors[a][successorSizes[a]++] = b;
+            ++inDegree[b];
+        }
+        final int[] order = new int[numberOfColors];
+        int head = 0, tail = 0;
+        for (int c = 0; c < numberOfColors; ++c)
+            if (inDegree[c] == 0) order[tail++] = c;
+        while (head < tail) {
+            final int c = order[head++];
+            for (int i = 0; i < successorSizes[c]; ++i)
+                if (--inDegree[successors[c][i]] == 0) order[tail++] = successors[c][i];
+        }
+        if (tail < numberOfColors)
+            throw new IllegalArgumentException("Colors of the graph are not acyclic.");
+
+        // skip colors without vertices
+        final int[] rank = new int[numberOfColors];
+        Arrays.fill(rank, -1);
+        int used = 0;
+        for (int c : order)
+            if (colorSizes[c] > 0) rank[c] = used++;
+        this.colorOffsets = new int[used + 1];
+        for (int c = 0; c < numberOfColors; ++c)
+            if (rank[c] >= 0) colorOffsets[rank[c] + 1] = colorSizes[c];
+        for (int c = 0; c < used; ++c)
+            colorOffsets[c + 1] += colorOffsets[c];
+        this.colorVertices = new int[colorOffsets[used]];
+        final int[] fill = Arrays.copyOf(colorOffsets, used);
+        for (int v = 0; v < n; ++v)
+            if (v != pseudoRoot) colorVertices[fill[rank[g.getColor(v)]]++] = v;
+    }
+
+    @Override
+    protected void setMinimalScoreConstraints(double minimalScore) throws Exception {
+        this.minimalScore = minimalScore;
+    }
+
+    @Override
+    protected void defineVariables() throws Exception {
+        // no model to build
+    }
+
+    @Override
+    protected void setVariableStartValues(int[] usedEdgeIds) throws Exception {
+        // not supported, the search is seeded by the heuristic instead
+    }
+
+    @Override
+    protected void setTreeConstraint() throws Exception {
+        // ensured by the search: vertices are only connected to already selected vertices
+    }
+
+    @Override
+    protected void setColorConstraint() throws Exception {
+        // ensured by the search: at most one vertex is selected per color
+    }
+
+    @Override
+    protected void setMinimalTreeSizeConstraint() throws Exception {
+        // ensured by the search: only solutions containing a root are accepted
+    }
+
+    @Override
+    protected void setObjective() throws Exception {
+        // edge weights are read in initializeModel
+    }
+
+    @Override
+    protected TreeBuilder.AbortReason solveMIP() throws Exception {
+        this.bestScore = Double.NEGATIVE_INFINITY;
+        this.bestLosses = null;
+        Arrays.fill(chosenLoss, -1);
+        final double lowerBound = Math.max(heuristicScore(), minimalScore);
+        search(0, 0d, lowerBound - EPSILON);
+        if (aborted)
+            return TreeBuilder.AbortReason.TIMEOUT;
+        if (bestLosses == null)
+            return TreeBuilder.AbortReason.NO_SOLUTION;
+        return TreeBuilder.AbortReason.COMPUTATION_CORRECT;
+    }
+
+    private double heuristicScore() {
+        if (compactGraph.outDegree(pseudoRoot) != 1)
+            return Double.NEGATIVE_INFINITY; // heuristic is restricted to graphs with a single tree root
+        try {
+            final CompactCriticalPathInsertionHeuristic heuristic = new CompactCriticalPathInsertionHeuristic(compactGraph);
+            final int[] edges = heuristic.solve();
+            return edges == null ? Double.NEGATIVE_INFINITY : heuristic.score(edges);
+        } catch (RuntimeException e) {
+            LoggerFactory.getLogger(BranchAndBoundSolver.class).debug("Could not compute heuristic lower bound.", e);
+            return Double.NEGATIVE_INFINITY;
+        }
+    }
+
+    /**
+     * @param color  index of the next undecided color
+     * @param score  score of the currently selected edges
+     * @param cutoff subtrees that cannot exceed this score are pruned
+     */
+    private void search(int color, double score, double cutoff) throws Exception {
+        if (aborted || checkAbort()) return;
+        final int numberOfColors = chosenLoss.length;
+        if (color == numberOfColors) {
+            if (rootSelected && score > Math.max(bestScore, cutoff)) {
+                bestScore = score;
+                bestLosses = chosenLoss.clone();
+            }
+            return;
+        }
+        computeBounds(color);
+        if (score + colorBounds[color] <= Math.max(bestScore, cutoff)) return;
+        final double remainingBound = colorBounds[color + 1];
+
+        // collect selectable vertices of this color with their best incoming edge
+        final int[] vertices = candidateVertices[color];
+        final int[] lossIds = candidateLosses[color];
+        final double[] weights = candidateWeights[color];
+        int size = 0;
+        for (int i = colorOffsets[color]; i < colorOffsets[color + 1]; ++i) {
+            final int v = colorVertices[i];
+            int bestEdge = -1;
+            for (int e = compactGraph.firstIncomingEdge(v), end = e + compactGraph.inDegree(v); e < end; ++e) {
+                final int u = compactGraph.getSource(e);
+                if (selected[u] && (u != pseudoRoot || !rootSelected) && (bestEdge < 0 || compactGraph.getWeight(e) > compactGraph.getWeight(bestEdge)))
+                    bestEdge = e;
+            }
+            if (bestEdge >= 0) {
+                vertices[size] = v;
+                lossIds[size] = bestEdge;
+                weights[size] = compactGraph.getWeight(bestEdge);
+                ++size;
+            }
+        }
+        // the empty choice is encoded as vertex -1 with weight 0
+        vertices[size] = -1;
+        lossIds[size] = -1;
+        weights[size] = 0d;
+        ++size;
+        sortByWeightDescending(vertices, lossIds, weights, size);
+
+        for (int i = 0; i < size; ++i) {
+            final double childScore = score + weights[i];
+            if (childScore + remainingBound <= Math.max(bestScore, cutoff)) continue;
+            final int v = vertices[i];
+            if (v < 0) {
+                search(color + 1, childScore, cutoff);
+            } else {
+                final int e = lossIds[i];
+                final boolean isRootEdge = compactGraph.getSource(e) == pseudoRoot;
+                selected[v] = true;
+                chosenLoss[color] = e;
+                if (isRootEdge) rootSelected = true;
+                search(color + 1, childScore, cutoff);
+                if (isRootEdge) rootSelected = false;
+                chosenLoss[color] = -1;
+                selected[v] = false;
+            }
+            if (aborted) return;
+        }
+    }
+
+    /**
+     * colorBounds[c] is set to the maximal score that can be added by the colors c,...,k. For each color we take the
+     * best positive incoming edge of a vertex that is connected to a selected vertex or to a vertex that might be
+     * selected later.
+     */
+    private void computeBounds(int firstColor) {
+        final int numberOfColors = chosenLoss.length;
+        ++stamp;
+        for (int c = firstColor; c < numberOfColors; ++c) {
+            double best = 0d;
+            for (int i = colorOffsets[c]; i < colorOffsets[c + 1]; ++i) {
+                final int v = colorVertices[i];
+                boolean reachable = false;
+                for (int e = compactGraph.firstIncomingEdge(v), end = e + compactGraph.inDegree(v); e < end; ++e) {
+                    final int u = compactGraph.getSource(e);
+                    if ((selected[u] && (u != pseudoRoot || !rootSelected)) || possibleStamp[u] == stamp) {
+                        reachable = true;
+                        best = Math.max(best, compactGraph.getWeight(e));
+                    }
+                }
+                if (reachable) possibleStamp[v] = stamp;
+            }
+            colorBounds[c] = best;
+        }
+        colorBounds[numberOfColors] = 0d;
+        for (int c = numberOfColors - 1; c >= firstColor; --c)
+            colorBounds[c] += colorBounds[c + 1];
+    }
+
+    private static void sortByWeightDescending(int[] vertices, int[] lossIds, double[] weights, int size) {
+        // insertion sort, number of vertices per color is small
+        for (int i = 1; i < size; ++i) {
+            final int v = vertices[i], l = lossIds[i];
+            final double w = weights[i];
+            int j = i - 1;
+            while (j >= 0 && weights[j] < w) {
+                vertices[j + 1] = vertices[j];
+                lossIds[j + 1] = lossIds[j];
+                weights[j + 1] = weights[j];
+                --j;
+            }
+            vertices[j + 1] = v;
+            lossIds[j + 1] = l;
+            weights[j + 1] = w;
+        }
+    }
+
+    private boolean checkAbort() throws Exception {
+        if (++visitedNodes % CHECK_INTERVAL != 0) return false;
+        final Callable<Boolean> check = options.getInterruptionCheck();
+        if (System.currentTimeMillis() > deadline || (check != null && check.call()))
+            aborted = true;
+        return aborted;
+    }
+
+    @Override
+    protected void pastBuildSolution() throws Exception {
+        // nothing to release
+    }
+
+    @Override
+    protected boolean[] getVariableAssignment() throws Exception {
+        final boolean[] assignment = new boolean[numberOfEdges()];
+        for (int lossId : bestLosses)
+            if (lossId >= 0) assignment[lossId] = true;
+        return assignment;
+    }
+
+    @Override
+    protected double getSolverScore() throws Exception {
+        return bestScore;
+    }
+}
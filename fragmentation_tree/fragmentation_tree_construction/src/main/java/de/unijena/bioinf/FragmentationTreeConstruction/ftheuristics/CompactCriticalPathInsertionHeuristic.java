@@ -0,0 +1,230 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics;
+
+import de.unijena.bioinf.ChemistryBase.ms.ft.CompactGraph;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
+import de.unijena.bioinf.ChemistryBase.ms.ft.IntergraphMapping;
+import org.slf4j.LoggerFactory;
+
+import java.util.Arrays;
+import java.util.concurrent.Callable;
+
+/**
+ * Critical path insertion heuristic working on the primitive arrays of a {@link CompactGraph} instead of
+ * {@link de.unijena.bioinf.ChemistryBase.ms.ft.Fragment} and {@link de.unijena.bioinf.ChemistryBase.ms.ft.Loss}
+ * objects. {@link CriticalPathInsertionHeuristic} uses it to select the edges of its tree.
+ */
+public class CompactCriticalPathInsertionHeuristic {
+
+    protected final CompactGraph graph;
+    protected final int ncolors;
+
+    protected final boolean[] usedColors;
+    protected final int[] usedColorList;
+    protected int numberOfUsedColors;
+    protected final int[] color2Edge;
+
+    protected int[] selectableEdges;
+    protected int numberOfSelectableEdges;
+
+    protected final double[] criticalPaths;
+    protected final double[] maxOut;
+
+    protected Callable<Boolean> interuptionCheck = () -> false;
+
+    public CompactCriticalPathInsertionHeuristic(CompactGraph graph) {
+        this.graph = graph;
+        this.ncolors = graph.maxColor() + 1;
+        this.usedColors = new boolean[ncolors];
+        this.usedColorList = new int[ncolors];
+        this.color2Edge = new int[ncolors];
+        Arrays.fill(color2Edge, -1);
+        this.selectableEdges = new int[ncolors + 1];
+        this.criticalPaths = new double[graph.numberOfVertices()];
+        Arrays.fill(criticalPaths, Double.NaN);
+        this.maxOut = new double[graph.numberOfVertices()];
+    }
+
+    public Callable<Boolean> getInteruptionCheck() {
+        return interuptionCheck;
+    }
+
+    public void setInteruptionCheck(Callable<Boolean> interuptionCheck) {
+        this.interuptionCheck = interuptionCheck;
+    }
+
+    /**
+     * @return ids of the selected edges or null if the computation was interrupted
+     */
+    public int[] solve() {
+        initialize();
+        while (findCriticalPaths()) {
+            try {
+                if (interuptionCheck.call())
+                    return null;
+            } catch (Exception e) {
+                LoggerFactory.getLogger(CompactCriticalPathInsertionHeuristic.class).error("Error in interruption check. Stop computation.", e);
+                return null;
+            }
+        }
+        final int[] edges = new int[numberOfUsedColors];
+        for (int i = 0; i < numberOfUsedColors; ++i)
+            edges[i] = color2Edge[usedColorList[i]];
+        return edges;
+    }
+
+    /**
+     * @return score of the tree induced by the given edges
+     */
+    public double score(int[] edges) {
+        double score = 0d;
+        for (int e : edges) score += graph.getWeight(e);
+        return score;
+    }
+
+    public FTree buildSolution(FGraph fgraph, int[] edges, IntergraphMapping.Builder mapping) {
+        return graph.toTree(fgraph, edges, edges.length, mapping);
+    }
+
+    private void initialize() {
+        final int pseudoRoot = graph.getRoot();
+        final int rootLoss = graph.getOutgoingEdge(pseudoRoot, 0);
+        final int root = graph.getTarget(rootLoss);
+        maxOut[root] = Double.NEGATIVE_INFINITY;
+        useColor(graph.getColor(root), rootLoss);
+        if (graph.outDegree(pseudoRoot) == 1) {
+            addSeletableEdgesFor(root);
+        } else {
+            throw new RuntimeException("Algorithm is optimized for graphs with one tree root");
+        }
+    }
+
+    private void useColor(int color, int edge) {
+        usedColors[color] = true;
+        usedColorList[numberOfUsedColors++] = color;
+        color2Edge[color] = edge;
+    }
+
+    private void insert(int maxLoss) {
+        final int newVertex = graph.getTarget(maxLoss);
+        useColor(graph.getColor(newVertex), maxLoss);
+        final double maxLossWeight = graph.getWeight(maxLoss);
+        // relocate and update
+        for (int i = 0, n = graph.outDegree(newVertex); i < n; ++i) {
+            final int l = graph.getOutgoingEdge(newVertex, i);
+            final int w = graph.getTarget(l);
+            final int xw = color2Edge[graph.getColor(w)];
+            if (xw >= 0 && graph.getTarget(xw) == w && graph.getWeight(xw) < graph.getWeight(l)) {
+                color2Edge[graph.getColor(w)] = l;
+                for (int zw = graph.firstIncomingEdge(w), end = zw + graph.inDegree(w); zw < end; ++zw) {
+                    final int z = graph.getSource(zw);
+                    if (maxOut[z] > Double.NEGATIVE_INFINITY) {
+                        if (usedColors[graph.getColor(z)]) {
+                            maxOut[z] = Double.NEGATIVE_INFINITY;
+                        } else {
+                            maxOut[z] = Math.max(0, maxOut[z] + graph.getWeight(xw) - graph.getWeight(l));
+                        }
+                    }
+                }
+            }
+        }
+        for (int yv = graph.firstIncomingEdge(newVertex), end = yv + graph.inDegree(newVertex); yv < end; ++yv) {
+            if (graph.getWeight(yv) > maxLossWeight) {
+                maxOut[graph.getSource(yv)] += graph.getWeight(yv) - maxLossWeight;
+            }
+        }
+    }
+
+    /**
+     * invalidate the critical paths of all vertices up to the given color. Requires vertices sorted by color.
+     */
+    protected void invalidateColor(int color) {
+        final int n = graph.numberOfVertices();
+        int low = 0, high = n - 1, searchKey = -1;
+        while (low <= high) {
+            final int mid = (low + high) >>> 1;
+            final int midColor = graph.getColor(mid);
+            if (midColor < color) low = mid + 1;
+            else if (midColor > color) high = mid - 1;
+            else {
+                searchKey = mid;
+                break;
+            }
+        }
+        if (searchKey < 0) {
+            searchKey = low;
+        } else {
+            while (searchKey < n && graph.getColor(searchKey) == color)
+                ++searchKey;
+        }
+        Arrays.fill(criticalPaths, 0, searchKey, Double.NaN);
+    }
+
+    protected boolean findCriticalPaths() {
+        double bestPathScore = 0d;
+        int bestLoss = -1;
+        for (int i = 0; i < numberOfSelectableEdges; ++i) {
+            final int l = selectableEdges[i];
+            final int target = graph.getTarget(l);
+            final double criticalScore = recomputeCriticalScore(target) + graph.getWeight(l) + maxOut[target];
+            if (criticalScore > bestPathScore) {
+                bestPathScore = criticalScore;
+                bestLoss = l;
+            }
+        }
+        if (bestLoss < 0) return false;
+        invalidateColor(graph.getColor(graph.getTarget(bestLoss)));
+        insert(bestLoss);
+        numberOfSelectableEdges = 0;
+        for (int i = 0; i < numberOfUsedColors; ++i) {
+            addSeletableEdgesFor(graph.getTarget(color2Edge[usedColorList[i]]));
+        }
+        return true;
+    }
+
+    protected double recomputeCriticalScore(int vertexId) {
+        if (!Double.isNaN(criticalPaths[vertexId]))
+            return criticalPaths[vertexId];
+        criticalPaths[vertexId] = 0d;
+        for (int i = 0, n = graph.outDegree(vertexId); i < n; ++i) {
+            final int uv = graph.getOutgoingEdge(vertexId, i);
+            final int v = graph.getTarget(uv);
+            if (!usedColors[graph.getColor(v)]) {
+                final double weight = recomputeCriticalScore(v) + graph.getWeight(uv);
+                criticalPaths[vertexId] = Math.max(criticalPaths[vertexId], weight);
+            }
+        }
+        return criticalPaths[vertexId];
+    }
+
+    protected void addSeletableEdgesFor(int root) {
+        for (int i = 0, n = graph.outDegree(root); i < n; ++i) {
+            final int l = graph.getOutgoingEdge(root, i);
+            if (!usedColors[graph.getColor(graph.getTarget(l))]) {
+                if (numberOfSelectableEdges == selectableEdges.length)
+                    selectableEdges = Arrays.copyOf(selectableEdges, selectableEdges.length * 2);
+                selectableEdges[numberOfSelectableEdges++] = l;
+            }
+        }
+    }
+}
@@ -20,6 +20,7 @@
 
 package de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics;
 
+import de.unijena.bioinf.ChemistryBase.ms.ft.CompactGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
 import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
 import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
@@ -27,120 +28,32 @@ import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
 import gnu.trove.list.array.TIntArrayList;
 import gnu.trove.map.hash.TIntObjectHashMap;
 
-import java.util.*;
+import java.util.ArrayList;
+import java.util.HashMap;
 
+/**
+ * Critical path insertion heuristic on a {@link FGraph}. The edges are selected by
+ * {@link CompactCriticalPathInsertionHeuristic} on the {@link CompactGraph} of the graph, this class builds the tree
+ * from the selected {@link Loss} objects, including isotope edges with an empty loss formula.
+ */
 public class CriticalPathInsertionHeuristic extends AbstractHeuristic {
 
-    protected FGraph graph;
-
-    protected BitSet usedColors;
-    protected ArrayList<Loss> selectableEdges;
-    protected double[] criticalPaths;
-    protected final TIntObjectHashMap<Loss> color2Edge;
-    protected final TIntArrayList usedColorList;
-
-    protected final double[] maxOut;
-    protected final Loss[] maxOutLoss;
-
     public CriticalPathInsertionHeuristic(FGraph graph) {
         super(graph);
-        this.graph = graph;
-        this.usedColors = new BitSet(ncolors+1);
-        this.selectableEdges = new ArrayList<Loss>(ncolors+1);
-        this.criticalPaths = new double[graph.numberOfVertices()];
-        color2Edge = new TIntObjectHashMap<>(ncolors, 0.75f, -1);
-        Arrays.fill(criticalPaths, Double.NaN);
-        this.maxOut = new double[graph.numberOfVertices()];
-        this.maxOutLoss = new Loss[graph.numberOfVertices()];
-        usedColorList = new TIntArrayList(ncolors);
-    }
-
-
-    private void insert(Loss maxLoss) {
-        final Fragment newVertex = maxLoss.getTarget();
-        usedColors.set(newVertex.getColor());
-        usedColorList.add(newVertex.getColor());
-        color2Edge.put(newVertex.getColor(), maxLoss);
-        // relocate and update
-        for (int i = 0, n = newVertex.getOutDegree(); i < n; ++i) {
-            final Loss l = newVertex.getOutgoingEdge(i);
-            final Fragment w = l.getTarget();
-            final Loss xw = color2Edge.get(w.getColor());
-            if (xw != null) {
-                if (xw.getTarget() == w && xw.getWeight() < l.getWeight()) {
-                    color2Edge.put(w.getColor(), l);
-                    for (int j = 0, m = w.getInDegree(); j < m; ++j) {
-                        final Loss zw = w.getIncomingEdge(j);
-                        final Fragment z = zw.getSource();
-                        final int zid = z.getVertexId();
-                        if (maxOut[zid] > Double.NEGATIVE_INFINITY) {
-                            if (usedColors.get(z.getColor())) {
-                                maxOut[zid]=Double.NEGATIVE_INFINITY;
-                            } else {
-                                maxOut[zid] = Math.max(
-                                        0,
-                                        maxOut[zid] + xw.getWeight() - l.getWeight()
-                                );
-                            }
-                        }
-                    }
-                }
-            }
-        }
-        for (int i=0, n = newVertex.getInDegree(); i < n; ++i) {
-            final Loss yv = newVertex.getIncomingEdge(i);
-            if (yv.getWeight() > maxLoss.getWeight()) {
-                int y = yv.getSource().getVertexId();
-                maxOut[y] += yv.getWeight()-maxLoss.getWeight();
-            }
-        }
-
-    }
-
-    private void initialize() {
-        final Loss rootLoss = graph.getRoot().getOutgoingEdge(0);
-        final Fragment root = rootLoss.getTarget();
-        maxOut[root.getVertexId()] = Double.NEGATIVE_INFINITY;
-        usedColors.set(rootLoss.getTarget().getColor());
-        usedColorList.add(rootLoss.getTarget().getColor());
-        color2Edge.put(rootLoss.getTarget().getColor(), rootLoss);
-        if (graph.getRoot().getOutDegree()==1) {
-            addSeletableEdgesFor(root);
-        } else {
-            throw new RuntimeException("Algorithm is optimized for graphs with one tree root");
-        }
-
-    }
-
-    protected void invalidateColor(int color) {
-        final Fragment pseudoFragment = new Fragment(0,null, null);
-        pseudoFragment.setColor(color);
-        int searchKey = Collections.binarySearch(graph.getFragments(), pseudoFragment,new Comparator<Fragment>() {
-            @Override
-            public int compare(Fragment o1, Fragment o2) {
-                return o1.getColor()-o2.getColor();
-            }
-        });
-        if (searchKey < 0) {
-            searchKey = -(searchKey+1);
-        } else {
-            while (searchKey< graph.numberOfVertices() && graph.getFragmentAt(searchKey).getColor() == color)
-                ++searchKey;
-        }
-        Arrays.fill(criticalPaths, 0, searchKey, Double.NaN);
     }
 
     public FTree solve() {
-        initialize();
-        while (findCriticalPaths()) {
-            try {
-                if (interuptionCheck.call())
-                    return null;
-            } catch (Exception e) {
-                e.printStackTrace();
-                return null;
-            }
-        };
+        final CompactGraph compactGraph = CompactGraph.of(graph);
+        final CompactCriticalPathInsertionHeuristic heuristic = new CompactCriticalPathInsertionHeuristic(compactGraph);
+        heuristic.setInteruptionCheck(interuptionCheck);
+        final int[] edges = heuristic.solve();
+        if (edges == null)
+            return null;
+        // edge ids are the indices of the incoming edges of their target
+        for (int e : edges) {
+            final int v = compactGraph.getTarget(e);
+            selectedEdges.add(graph.getFragmentAt(v).getIncomingEdge(e - compactGraph.firstIncomingEdge(v)));
+        }
         return buildSolution();
     }
 
@@ -148,10 +61,9 @@ public class CriticalPathInsertionHeuristic extends AbstractHeuristic {
     private final static ArrayList<Loss> __empty__ = new ArrayList<>(0);
 
     FTree buildSolution() {
-        if (usedColorList.size()<=0) {
+        if (selectedEdges.isEmpty()) {
             return solutionWithSingleRoot();
         }
-        selectedEdges.addAll(color2Edge.valueCollection());
         final HashMap<Integer, ArrayList<Loss>> edgesPerSourceVertexId = new HashMap<>();
         for (Loss edge : selectedEdges) {
             edgesPerSourceVertexId.computeIfAbsent(edge.getSource().getColor(), (x)->new ArrayList<>()).add(edge);
@@ -210,56 +122,4 @@ public class CriticalPathInsertionHeuristic extends AbstractHeuristic {
         mapping.mapLeftToRight(bestFrag, t.getRoot());
         return t;
     }
-
-    /*
-     SIMPLE CASE: Graph is layered (i.e. no isotope peaks!)
-     */
-    protected boolean findCriticalPaths() {
-        //System.out.println(".....");
-        //Arrays.fill(criticalPaths, Double.NaN);
-        double bestPathScore = 0d;
-        Loss bestLoss = null;
-        for (Loss l : selectableEdges) {
-            final double criticalScore = recomputeCriticalScore(l.getTarget().getVertexId())+l.getWeight() + maxOut[l.getTarget().getVertexId()];
-            if (criticalScore > bestPathScore) {
-                bestPathScore = criticalScore;
-                bestLoss = l;
-            }
-        }
-        if (bestLoss==null) return false;
-        final Fragment u = bestLoss.getTarget();
-        invalidateColor(u.getColor());
-        insert(bestLoss);
-        selectableEdges.clear();
-        for (int i=0, n=usedColorList.size(); i < n; ++i) {
-            addSeletableEdgesFor(color2Edge.get(usedColorList.getQuick(i)).getTarget());
-        }
-
-        return true;
-    }
-
-    protected double recomputeCriticalScore(int vertexId) {
-        if (!Double.isNaN(criticalPaths[vertexId]))
-            return criticalPaths[vertexId];
-        final Fragment u = graph.getFragmentAt(vertexId);
-        criticalPaths[vertexId] = 0d;
-        for (int i=0, n = u.getOutDegree(); i < n; ++i) {
-            final Loss uv = u.getOutgoingEdge(i);
-            if (!usedColors.get(uv.getTarget().getColor())) {
-                final double weight = recomputeCriticalScore(uv.getTarget().getVertexId()) + uv.getWeight();
-                criticalPaths[vertexId] = Math.max(criticalPaths[vertexId], weight);
-            }
-        }
-        return criticalPaths[vertexId];
-    }
-
-
-    protected void addSeletableEdgesFor(Fragment root) {
-        for (int i=0, n = root.getOutDegree(); i < n; ++i) {
-            final Loss l = root.getOutgoingEdge(i);
-            if (!usedColors.get(l.getTarget().getColor())) {
-                selectableEdges.add(l);
-            }
-        }
-    }
 }
@@ -20,11 +20,9 @@
 
 package de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.treebuilder;
 
-import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
-import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
-import de.unijena.bioinf.ChemistryBase.ms.ft.IsotopicMarker;
+import de.unijena.bioinf.ChemistryBase.ms.ft.*;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
-import de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.CriticalPathInsertionHeuristic;
+import de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.CompactCriticalPathInsertionHeuristic;
 import de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.CriticalPathInsertionWithIsotopePeaksHeuristic;
 import de.unijena.bioinf.sirius.ProcessedInput;
 
@@ -53,12 +51,14 @@ public class ExtendedCriticalPathHeuristicTreeBuilder implements TreeBuilder {
             FTree t = h.solve();
             return new Result(t, false, AbortReason.COMPUTATION_CORRECT, h.getGraphMappingBuilder().done(graph,t));
         } else {
-            CriticalPathInsertionHeuristic h = new CriticalPathInsertionHeuristic(graph);
+            CompactCriticalPathInsertionHeuristic h = new CompactCriticalPathInsertionHeuristic(CompactGraph.of(graph));
             if (options.getInterruptionCheck()!=null) {
                 h.setInteruptionCheck(options.getInterruptionCheck());
             } else h.setInteruptionCheck(interruptionCheck);
-            FTree t = h.solve();
-            return new Result(t, false, AbortReason.COMPUTATION_CORRECT, h.getGraphMappingBuilder().done(graph,t));
+            final IntergraphMapping.Builder mapping = IntergraphMapping.build();
+            final int[] edges = h.solve();
+            FTree t = edges == null ? null : h.buildSolution(graph, edges, mapping);
+            return new Result(t, false, AbortReason.COMPUTATION_CORRECT, mapping.done(graph,t));
         }
     }
 
@@ -0,0 +1,145 @@
+package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.ilp;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PeriodicTable;
+import de.unijena.bioinf.ChemistryBase.chem.Ionization;
+import de.unijena.bioinf.ChemistryBase.ms.ft.*;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.SizeDependentTreeBuilder;
+import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
+import de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.CompactCriticalPathInsertionHeuristic;
+import de.unijena.bioinf.FragmentationTreeConstruction.ftheuristics.CriticalPathInsertionHeuristic;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class BranchAndBoundSolverTest {
+
+    private final Ionization ionization = PeriodicTable.getInstance().ionByNameOrThrow("[M+H]+").getIonization();
+
+    /**
+     * random graph with a single tree root. Vertices are topologically ordered and share colors with their neighbours.
+     */
+    private FGraph randomGraph(Random random, int numberOfVertices) {
+        final FGraph graph = new FGraph();
+        final List<Fragment> fragments = new ArrayList<>();
+        final Fragment root = graph.addRootVertex(formula(0), ionization);
+        root.setColor(0);
+        graph.getRoot().getOutgoingEdge(0).setWeight(random.nextDouble());
+        fragments.add(root);
+        int color = 0;
+        for (int i = 1; i < numberOfVertices; ++i) {
+            final Fragment f = graph.addFragment(formula(i), ionization);
+            if (random.nextDouble() < 0.6) ++color;
+            f.setColor(Math.max(1, color));
+            for (Fragment u : fragments) {
+                if (u.getColor() < f.getColor() && (u == root || random.nextDouble() < 0.4))
+                    graph.addLoss(u, f).setWeight(random.nextDouble() * 4 - 2);
+            }
+            fragments.add(f);
+        }
+        return graph;
+    }
+
+    private MolecularFormula formula(int i) {
+        return MolecularFormula.parseOrThrow("C" + (100 - i) + "H" + (200 - 2 * i));
+    }
+
+    /**
+     * enumerates all assignments of a parent edge (or none) to every vertex
+     */
+    private double bruteForce(FGraph graph) {
+        final List<Fragment> vertices = new ArrayList<>();
+        for (Fragment f : graph) if (f != graph.getRoot()) vertices.add(f);
+        return enumerate(graph, vertices, 0, new Loss[vertices.size()]);
+    }
+
+    private double enumerate(FGraph graph, List<Fragment> vertices, int index, Loss[] chosen) {
+        if (index == vertices.size()) return score(graph, vertices, chosen);
+        double best = Double.NEGATIVE_INFINITY;
+        final Fragment v = vertices.get(index);
+        chosen[index] = null;
+        best = Math.max(best, enumerate(graph, vertices, index + 1, chosen));
+        for (Loss l : v.getIncomingEdges()) {
+            chosen[index] = l;
+            best = Math.max(best, enumerate(graph, vertices, index + 1, chosen));
+        }
+        chosen[index] = null;
+        return best;
+    }
+
+    private double score(FGraph graph, List<Fragment> vertices, Loss[] chosen) {
+        int roots = 0;
+        final boolean[] usedColors = new boolean[graph.maxColor() + 1];
+        double score = 0d;
+        for (int i = 0; i < vertices.size(); ++i) {
+            final Loss l = chosen[i];
+            if (l == null) continue;
+            if (usedColors[vertices.get(i).getColor()]) return Double.NEGATIVE_INFINITY;
+            usedColors[vertices.get(i).getColor()] = true;
+            if (l.getSource() == graph.getRoot()) ++roots;
+            else if (chosen[vertices.indexOf(l.getSource())] == null) return Double.NEGATIVE_INFINITY;
+            score += l.getWeight();
+        }
+        return roots == 1 ? score : Double.NEGATIVE_INFINITY;
+    }
+
+    @Test
+    public void testOptimalOnRandomGraphs() {
+        final Random random = new Random(42);
+        final TreeBuilder builder = new AbstractTreeBuilder<>(BranchAndBoundSolver.Factory);
+        for (int run = 0; run < 40; ++run) {
+            final FGraph graph = randomGraph(random, 4 + random.nextInt(5));
+            final TreeBuilder.Result result = builder.computeTree().solve(null, graph);
+            assertTrue(result.isOptimal);
+            assertEquals(TreeBuilder.AbortReason.COMPUTATION_CORRECT, result.error);
+            final FTree tree = result.tree;
+            assertEquals(bruteForce(graph), tree.getTreeWeight(), 1e-9, "run " + run);
+            final boolean[] usedColors = new boolean[graph.maxColor() + 1];
+            for (Fragment f : tree) {
+                final int c = result.mapping.mapRightToLeft(f).getColor();
+                assertFalse(usedColors[c], "tree is not colorful");
+                usedColors[c] = true;
+            }
+        }
+    }
+
+    @Test
+    public void testMinimalScoreWithoutSolution() {
+        final FGraph graph = randomGraph(new Random(7), 6);
+        final double optimum = bruteForce(graph);
+        final TreeBuilder.Result result = new AbstractTreeBuilder<>(BranchAndBoundSolver.Factory).computeTree()
+                .withMinimalScore(optimum + 1).solve(null, graph);
+        assertNull(result.tree);
+        assertEquals(TreeBuilder.AbortReason.NO_SOLUTION, result.error);
+    }
+
+    @Test
+    public void testCompactHeuristicEqualsHeuristic() {
+        final Random random = new Random(3);
+        for (int run = 0; run < 20; ++run) {
+            final FGraph graph = randomGraph(random, 10 + random.nextInt(40));
+            final FTree expected = new CriticalPathInsertionHeuristic(graph).solve();
+            final CompactCriticalPathInsertionHeuristic compact = new CompactCriticalPathInsertionHeuristic(CompactGraph.of(graph));
+            final int[] edges = compact.solve();
+            assertEquals(expected.getTreeWeight(), compact.score(edges), 1e-9, "run " + run);
+            final FTree tree = compact.buildSolution(graph, edges, IntergraphMapping.build());
+            assertEquals(expected.numberOfVertices(), tree.numberOfVertices());
+            assertEquals(expected.getTreeWeight(), tree.getTreeWeight(), 1e-9);
+        }
+    }
+
+    @Test
+    public void testSizeDependentBuilderSolvesSmallGraphsWithSmallGraphBuilder() {
+        final TreeBuilder small = new AbstractTreeBuilder<>(BranchAndBoundSolver.Factory), large = new AbstractTreeBuilder<>(BranchAndBoundSolver.Factory);
+        final FGraph graph = randomGraph(new Random(5), 8);
+        final int colors = graph.maxColor() + 1;
+        assertSame(small, new SizeDependentTreeBuilder(small, large, colors).getBuilder(graph));
+        assertSame(large, new SizeDependentTreeBuilder(small, large, colors - 1).getBuilder(graph));
+        final TreeBuilder.Result result = new SizeDependentTreeBuilder(small, large, colors).computeTree().solve(null, graph);
+        assertEquals(bruteForce(graph), result.tree.getTreeWeight(), 1e-9);
+    }
+}
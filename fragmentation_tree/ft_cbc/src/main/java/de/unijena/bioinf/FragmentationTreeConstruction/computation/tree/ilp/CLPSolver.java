@@ -21,8 +21,6 @@
 package de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.ilp;
 
 import de.unijena.bioinf.ChemistryBase.ms.ft.FGraph;
-import de.unijena.bioinf.ChemistryBase.ms.ft.Fragment;
-import de.unijena.bioinf.ChemistryBase.ms.ft.Loss;
 import de.unijena.bioinf.FragmentationTreeConstruction.computation.tree.TreeBuilder;
 import de.unijena.bioinf.sirius.ProcessedInput;
 
@@ -63,7 +61,7 @@ public class CLPSolver extends AbstractSolver {
     protected CLPModel_JNI model;
 
     public CLPSolver(FGraph graph, ProcessedInput input, TreeBuilder.FluentInterface options) {
-        super(graph, input, options);
+        super(graph, input, options, true);
     }
 
     @Override
@@ -80,7 +78,7 @@ public class CLPSolver extends AbstractSolver {
 
     @Override
     protected void initializeModel() throws Exception {
-        this.model = new CLPModel_JNI(losses.size(), CLPModel_JNI.ObjectiveSense.MAXIMIZE);
+        this.model = new CLPModel_JNI(numberOfEdges(), CLPModel_JNI.ObjectiveSense.MAXIMIZE);
     }
 
     @Override
@@ -90,13 +88,13 @@ public class CLPSolver extends AbstractSolver {
 
     @Override
     protected void defineVariables() throws Exception {
-        final double[] lb = new double[losses.size()];
-        final double[] ub = new double[losses.size()];
-        final double[] objective = new double[losses.size()];
-        for (int i = 0; i < losses.size(); ++i) {
+        final double[] lb = new double[numberOfEdges()];
+        final double[] ub = new double[numberOfEdges()];
+        final double[] objective = new double[numberOfEdges()];
+        for (int i = 0; i < numberOfEdges(); ++i) {
             lb[i] = 0d;
             ub[i] = 1d;
-            objective[i] = losses.get(i).getWeight();
+            objective[i] = compactGraph.getWeight(i);
         }
         model.setColBounds(lb, ub);
         model.setObjective(objective);
@@ -104,7 +102,7 @@ public class CLPSolver extends AbstractSolver {
 
     @Override
     protected void setVariableStartValues(int[] usedEdgeIds) throws Exception {
-        final double[] values = new double[losses.size()];
+        final double[] values = new double[numberOfEdges()];
         for (int index : usedEdgeIds)
             values[index] = 1d;
         model.setColStart(values);
@@ -112,38 +110,36 @@ public class CLPSolver extends AbstractSolver {
 
     @Override
     protected void setTreeConstraint() throws Exception {
-        int k = 0;
-        for (Fragment fragment : graph.getFragmentsWithoutRoot()) {
-            final int[] indices = new int[fragment.getInDegree()];
-            final double[] elems = new double[fragment.getInDegree()];
+        for (int v = 0; v < compactGraph.numberOfVertices(); ++v) {
+            if (v == compactGraph.getRoot()) continue;
+            final int inDegree = compactGraph.inDegree(v);
+            final int[] indices = new int[inDegree];
+            final double[] elems = new double[inDegree];
             Arrays.fill(elems, 1d);
-            for (int l = 0; l < fragment.getInDegree(); ++l)
-                indices[l] = k++;
+            for (int l = 0; l < inDegree; ++l)
+                indices[l] = compactGraph.firstIncomingEdge(v) + l;
             model.addSparseRowCached(elems, indices, 0d, 1d);
             // 1. For all vertices u with u!=root the sum of all edges uv for a fixed v is
             // <= 1
             // => TreeCondition: Each vertex (except root has a parent
             // 2. An edge is only set, if one of the incomming edges of its head is set
             // => Connectivity-Condition: There is a path between each two vertices
-            int j = edgeOffsets[fragment.getVertexId()];
             final int[] indices2 = Arrays.copyOf(indices, indices.length + 1);
             final double[] elems2 = Arrays.copyOf(elems, elems.length + 1);
             final int n = indices.length;
             elems2[n] = -1d;
-            for (int l = 0; l < fragment.getOutDegree(); ++l) {
-                indices2[n] = edgeIds[j];
+            for (int l = 0, outDegree = compactGraph.outDegree(v); l < outDegree; ++l) {
+                indices2[n] = compactGraph.getOutgoingEdge(v, l);
                 model.addSparseRowCached(elems2, indices2, 0d, 1d);
-                assert losses.get(edgeIds[j]).getSource() == fragment;
-                ++j;
             }
         }
     }
 
     @Override
     protected void setColorConstraint() throws Exception {
-        final int[] colorSizes = new int[graph.maxColor() + 1];
-        for (Loss l : losses) {
-            ++colorSizes[l.getTarget().getColor()];
+        final int[] colorSizes = new int[compactGraph.maxColor() + 1];
+        for (int e = 0; e < compactGraph.numberOfEdges(); ++e) {
+            ++colorSizes[compactGraph.getColor(compactGraph.getTarget(e))];
         }
         final int[][] indizesPerColor = new int[colorSizes.length][];
         for (int c = 0; c < colorSizes.length; ++c) {
@@ -151,11 +147,9 @@ public class CLPSolver extends AbstractSolver {
                 indizesPerColor[c] = new int[colorSizes[c]];
         }
 
-        int k = 0;
-        for (Loss l : losses) {
-            final int C = l.getTarget().getColor();
+        for (int k = 0; k < compactGraph.numberOfEdges(); ++k) {
+            final int C = compactGraph.getColor(compactGraph.getTarget(k));
             indizesPerColor[C][--colorSizes[C]] = k;
-            ++k;
         }
         for (int i = 0; i < indizesPerColor.length; ++i) {
             if (indizesPerColor[i] != null) {
@@ -168,13 +162,11 @@ public class CLPSolver extends AbstractSolver {
 
     @Override
     protected void setMinimalTreeSizeConstraint() throws Exception {
-        final int[] subroots = new int[graph.getRoot().getOutDegree()];
+        final int[] subroots = new int[compactGraph.outDegree(compactGraph.getRoot())];
         final double[] ones = new double[subroots.length];
         Arrays.fill(ones, 1d);
-        int from = edgeOffsets[graph.getRoot().getVertexId()];
-        int k = 0;
-        for (int i = from, n = from + subroots.length; i < n; ++i) {
-            subroots[k++] = edgeIds[i];
+        for (int k = 0; k < subroots.length; ++k) {
+            subroots[k] = compactGraph.getOutgoingEdge(compactGraph.getRoot(), k);
         }
         model.addSparseRowCached(ones, subroots, 1d, model.getInfinity());
     }
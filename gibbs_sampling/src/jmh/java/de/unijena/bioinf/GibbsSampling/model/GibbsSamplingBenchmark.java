@@ -0,0 +1,109 @@
+package de.unijena.bioinf.GibbsSampling.model;
+
+import de.unijena.bioinf.ChemistryBase.algorithm.scoring.Scored;
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import gnu.trove.list.array.TIntArrayList;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares edge traversal via the hash map based {@link Graph} lookups with the {@link CompactEdges} CSR arrays
+ * and measures complete ZODIAC Gibbs sampling runs on synthetic graphs. Graphs are generated with a fixed seed.
+ * Run with ./gradlew :gibbs_sampling:jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class GibbsSamplingBenchmark {
+
+    @Param({"1000", "10000"})
+    public int numberOfCompounds;
+
+    @Param({"20"})
+    public int candidatesPerCompound;
+
+    /**
+     * average number of connected compounds per candidate
+     */
+    @Param({"50"})
+    public int connectedCompounds;
+
+    @Param({"20"})
+    public int samplingSteps;
+
+    private Graph<Candidate<String>> graph;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(4711);
+        final String[] ids = new String[numberOfCompounds];
+        final Scored<Candidate<String>>[][] candidates = new Scored[numberOfCompounds][];
+        for (int i = 0; i < numberOfCompounds; ++i) {
+            ids[i] = "compound" + i;
+            candidates[i] = new Scored[candidatesPerCompound];
+            double sum = 0d;
+            final double[] scores = new double[candidatesPerCompound];
+            for (int j = 0; j < candidatesPerCompound; ++j) {
+                scores[j] = random.nextDouble();
+                sum += scores[j];
+            }
+            for (int j = 0; j < candidatesPerCompound; ++j) {
+                final double logScore = Math.log(scores[j] / sum);
+                candidates[i][j] = new Scored<>(new Candidate<>(ids[i] + "_" + j, logScore), logScore);
+            }
+        }
+        graph = Graph.getGraph(ids, candidates);
+
+        final int size = graph.getSize();
+        final TIntArrayList[] connections = new TIntArrayList[size];
+        for (int i = 0; i < size; ++i) connections[i] = new TIntArrayList();
+        // every candidate draws half of its partners, the other half are edges drawn by other candidates
+        for (int i = 0; i < size; ++i) {
+            final int peak = graph.getPeakIdx(i);
+            for (int k = 0; k < connectedCompounds / 2; ++k) {
+                final int j = random.nextInt(size);
+                if (graph.getPeakIdx(j) == peak || graph.hasLogWeightConnections(i, j)) continue;
+                final double weight = random.nextDouble() * 3;
+                graph.setLogWeight(i, j, weight);
+                graph.setLogWeight(j, i, weight);
+                connections[i].add(j);
+                connections[j].add(i);
+            }
+        }
+        final int[][] conns = new int[size][];
+        for (int i = 0; i < size; ++i) conns[i] = connections[i].toArray();
+        graph.setConnections(conns);
+        graph.getCompactEdges();
+    }
+
+    @Benchmark
+    public double edgeTraversalHashMap() {
+        double sum = 0d;
+        for (int i = 0; i < graph.getSize(); ++i) {
+            for (int c : graph.getConnections(i))
+                sum += graph.getLogWeight(i, c);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public double edgeTraversalCompact() {
+        final CompactEdges edges = graph.getCompactEdges();
+        double sum = 0d;
+        for (int e = 0; e < edges.numberOfEdges(); ++e)
+            sum += edges.weights[e];
+        return sum;
+    }
+
+    @Benchmark
+    public Scored<Candidate<String>>[][] gibbsSampling() {
+        final GibbsMFCorrectionNetwork<Candidate<String>> network = new GibbsMFCorrectionNetwork<>(graph);
+        network.setIterationSteps(samplingSteps, samplingSteps / 2);
+        return SiriusJobs.getGlobalJobManager().submitJob(network).takeResult();
+    }
+}
@@ -0,0 +1,92 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.GibbsSampling.model;
+
+import java.util.Arrays;
+
+/**
+ * Immutable compressed sparse row (CSR) view on the edges of a {@link Graph}.
+ * The outgoing edges of candidate i are stored at positions offsets[i] (inclusive) to offsets[i+1] (exclusive)
+ * of the contiguous arrays targets, targetPeaks and weights. Edges of a row are sorted by target index.
+ * weights[e] equals graph.getLogWeight(i, targets[e]) and targetPeaks[e] equals graph.getPeakIdx(targets[e]).
+ */
+public final class CompactEdges {
+
+    final int[] offsets;
+    final int[] targets;
+    final int[] targetPeaks;
+    final double[] weights;
+
+    CompactEdges(int[] offsets, int[] targets, int[] targetPeaks, double[] weights) {
+        this.offsets = offsets;
+        this.targets = targets;
+        this.targetPeaks = targetPeaks;
+        this.weights = weights;
+    }
+
+    /**
+     * builds the CSR representation from the connections and log weights of the graph.
+     */
+    public static CompactEdges of(Graph<?> graph) {
+        final int size = graph.getSize();
+        final int[] offsets = new int[size + 1];
+        for (int i = 0; i < size; ++i) {
+            offsets[i + 1] = offsets[i] + graph.getConnections(i).length;
+        }
+        final int numberOfEdges = offsets[size];
+        final int[] targets = new int[numberOfEdges];
+        final int[] targetPeaks = new int[numberOfEdges];
+        final double[] weights = new double[numberOfEdges];
+
+        for (int i = 0; i < size; ++i) {
+            final int[] conns = graph.getConnections(i).clone();
+            Arrays.sort(conns);
+            int e = offsets[i];
+            for (int c : conns) {
+                targets[e] = c;
+                targetPeaks[e] = graph.getPeakIdx(c);
+                weights[e] = graph.getLogWeight(i, c);
+                ++e;
+            }
+        }
+        return new CompactEdges(offsets, targets, targetPeaks, weights);
+    }
+
+    public int numberOfNodes() {
+        return offsets.length - 1;
+    }
+
+    public int numberOfEdges() {
+        return targets.length;
+    }
+
+    public int getNumberOfConnections(int i) {
+        return offsets[i + 1] - offsets[i];
+    }
+
+    /**
+     * @return log weight of edge i -> j or 0 if both candidates are not connected (same as {@link Graph#getLogWeight(int, int)})
+     */
+    public double getLogWeight(int i, int j) {
+        final int e = Arrays.binarySearch(targets, offsets[i], offsets[i + 1], j);
+        return e < 0 ? 0d : weights[e];
+    }
+}
@@ -33,6 +33,13 @@ public class GibbsMFCorrectionNetwork<C extends Candidate<?>> extends BasicMaste
     public static final int DEFAULT_CORRELATION_STEPSIZE = 10;
     private static final boolean OUTPUT_SAMPLE_PROBABILITY = false;
     protected Graph<C> graph;
+    /*
+    sampling kernel works on the CSR arrays of the graph and contiguous node scores instead of the hash map based edge lookups.
+     */
+    private final CompactEdges edges;
+    private final double[] nodeScores;
+    private final boolean[] fixedPeaks;
+    private final BitSet toUpdate = new BitSet();
     public static final boolean iniAssignMostLikely = true;
     private int burnInRounds;
     private int currentRound;
@@ -74,6 +81,15 @@ public class GibbsMFCorrectionNetwork<C extends Candidate<?>> extends BasicMaste
         this.graph = graph;
         this.fixedCompounds = fixedCompounds==null?new TIntHashSet():fixedCompounds;
         this.random = new Random();
+        this.edges = this.graph.getCompactEdges();
+        this.nodeScores = new double[this.graph.getSize()];
+        for (int i = 0; i < nodeScores.length; i++) {
+            nodeScores[i] = this.graph.getCandidateScore(i);
+        }
+        this.fixedPeaks = new boolean[this.graph.numberOfCompounds()];
+        for (int i = 0; i < fixedPeaks.length; i++) {
+            fixedPeaks[i] = isFixed(this.fixedCompounds, i);
+        }
         this.setActive();
     }
 
@@ -128,7 +144,7 @@ public class GibbsMFCorrectionNetwork<C extends Candidate<?>> extends BasicMaste
                 }
                 assert sum > 0.0D;
 
-                idx = getRandomOrdering(0, scores.length)[0];
+                idx = getRandomOrdering(random, 0, scores.length)[0];
             }
 
             activeIdx[i] = idx;
@@ -137,20 +153,17 @@ public class GibbsMFCorrectionNetwork<C extends Candidate<?>> extends BasicMaste
         }
 
 
-        ///set priorProb and maxPriorProb
-        for(int i = 0; i < this.priorProb.length; ++i) {
-            //not for fixed compounds
-            int peak = graph.getPeakIdx(i);
-            if (isFixed(fixedCompounds, peak)) continue;
-
-            int[] conn = this.graph.getConnections(i);
-            for(int j = 0; j < conn.length; ++j) {
-                if(this.active[conn[j]]) {
-                    this.addActiveEdge(conn[j], i);
-                    ++this.activeEdgeCounter[i];
-                }
+        ///set priorProb and maxPriorProb by walking the edges of the active candidates (connections are symmetric)
+        final int[] offsets = edges.offsets, targets = edges.targets, targetPeaks = edges.targetPeaks;
+        final double[] weights = edges.weights;
+        for(int i = 0; i < this.graph.numberOfCompounds(); ++i) {
+            final int absActive = this.graph.getPeakLeftBoundary(i) + activeIdx[i];
+            for (int e = offsets[absActive], end = offsets[absActive + 1]; e < end; ++e) {
+                //not for fixed compounds
+                if (fixedPeaks[targetPeaks[e]]) continue;
+                this.addActiveEdge(targets[e], weights[e]);
+                ++this.activeEdgeCounter[targets[e]];
             }
-
         }
 
         if (DEBUG) System.out.println("number of compounds: "+graph.numberOfCompounds());
@@ -171,6 +184,13 @@ public class GibbsMFCorrectionNetwork<C extends Candidate<?>> extends BasicMaste
     private int maxSteps = -1;
     private int burnIn = -1;
 
+    /**
+     * seeds the random initialisation and the sampling order, such that sampling the same graph is reproducible
+     */
+    public void setRandomSeed(long seed) {
+        this.random = new Random(seed);
+    }
+
     public void setIterationSteps(int maxSteps, int burnIn) {
         this.maxSteps = maxSteps;
         this.burnIn = burnIn;
@@ -190,7 +210,7 @@ public class GibbsMFCorrectionNetwork<C extends Candidate<?>> extends BasicMaste
         for(int i = 0; i < burnIn + maxSteps; ++i) {
             this.currentRound = i;
             boolean changed = false;
-            int[] randomOrdering = getRandomOrdering(iterationStepLength);
+            int[] randomOrdering = getRandomOrdering(random, 0, iterationStepLength);
 
             if (OUTPUT_SAMPLE_PROBABILITY) {
                 if (i%10!=0) continue;
@@ -356,9 +376,8 @@ public class GibbsMFCorrectionNetwork<C extends Candidate<?>> extends BasicMaste
     }
 
     private boolean iterationStep(int peakIdx) {
-        int[] b = this.graph.getPeakBoundaries(peakIdx);
-        int min = b[0];
-        int max = b[1];
+        int min = this.graph.getPeakLeftBoundary(peakIdx);
+        int max = this.graph.getPeakRightBoundary(peakIdx);
         double probSum = this.posteriorProbSums[peakIdx];
         int absIdx = this.getRandomIdx(min, max, probSum, this.posteriorProbs);
         if(this.currentRound > this.burnInRounds) {
@@ -373,26 +392,26 @@ public class GibbsMFCorrectionNetwork<C extends Candidate<?>> extends BasicMaste
         if(relCurrentActive == relIndex) {
             return false;
         } else {
-            BitSet toUpdate = new BitSet();
-            int[] c = this.graph.getConnections(absCurrentActive);
-            for (int conjugate : c) {
-                final int corrspondingPeakIdx = this.graph.getPeakIdx(conjugate);
-                if (isFixed(fixedCompounds, corrspondingPeakIdx)) continue;
-                this.removeActiveEdge(absCurrentActive, conjugate);
+            final int[] offsets = edges.offsets, targets = edges.targets, targetPeaks = edges.targetPeaks;
+            final double[] weights = edges.weights;
+            toUpdate.clear();
+            for (int e = offsets[absCurrentActive], end = offsets[absCurrentActive + 1]; e < end; ++e) {
+                final int corrspondingPeakIdx = targetPeaks[e];
+                if (fixedPeaks[corrspondingPeakIdx]) continue;
+                this.removeActiveEdge(absCurrentActive, targets[e], weights[e]);
                 toUpdate.set(corrspondingPeakIdx);
             }
 
-            c = this.graph.getConnections(absIdx);
-            for (int conjugate : c) {
-                final int corrspondingPeakIdx = this.graph.getPeakIdx(conjugate);
-                if (isFixed(fixedCompounds, corrspondingPeakIdx)) continue;
-                this.addActiveEdge(absIdx, conjugate);
+            for (int e = offsets[absIdx], end = offsets[absIdx + 1]; e < end; ++e) {
+                final int corrspondingPeakIdx = targetPeaks[e];
+                if (fixedPeaks[corrspondingPeakIdx]) continue;
+                this.addActiveEdge(targets[e], weights[e]);
                 toUpdate.set(corrspondingPeakIdx);
             }
 
 
             for (int i = toUpdate.nextSetBit(0); i >= 0; i = toUpdate.nextSetBit(i+1)) {
-                if (!isFixed(fixedCompounds, i)) updatePeak(i);
+                updatePeak(i);
                 if (i == Integer.MAX_VALUE) {
                     break; // or (i+1) would overflow
                 }
@@ -406,19 +425,21 @@ public class GibbsMFCorrectionNetwork<C extends Candidate<?>> extends BasicMaste
     }
 
 
-    private void removeActiveEdge(int outgoing, int incoming) {
+    /**
+     * @param weight log weight of the edge outgoing -> incoming
+     */
+    private void removeActiveEdge(int outgoing, int incoming, double weight) {
         if (USE_MAX_PRIOR_PROBABILITY) {
-            final double removedWeight = this.graph.getLogWeight(outgoing, incoming);
+            final double removedWeight = weight;
             final double currentWeight = this.priorProb[incoming];
             if (removedWeight==currentWeight){
                 //find 2nd best score
                 double max = 0; //no active edge = 0;
-                int[] conn = this.graph.getConnections(incoming);
-                for(int j = 0; j < conn.length; ++j) {
-                    final int c = conn[j];
+                for (int e = edges.offsets[incoming], end = edges.offsets[incoming + 1]; e < end; ++e) {
+                    final int c = edges.targets[e];
                     if(this.active[c] && c!=outgoing) {
-                        final double weight = graph.getLogWeight(c, incoming);
-                        if (weight>max) max = weight;
+                        final double w = edges.getLogWeight(c, incoming);
+                        if (w>max) max = w;
                     }
                 }
 
@@ -429,25 +450,28 @@ public class GibbsMFCorrectionNetwork<C extends Candidate<?>> extends BasicMaste
 
         } else {
             if (USE_SQRT_PRIOR_PROBABILITY){
-                this.priorProb[incoming] -= Math.sqrt(this.graph.getLogWeight(outgoing, incoming));
+                this.priorProb[incoming] -= Math.sqrt(weight);
             } else {
-                this.priorProb[incoming] -= (this.graph.getLogWeight(outgoing, incoming));
+                this.priorProb[incoming] -= weight;
             }
         }
     }
 
-    private void addActiveEdge(int outgoing, int incoming) {
+    /**
+     * @param weight log weight of the edge from the newly active candidate to incoming
+     */
+    private void addActiveEdge(int incoming, double weight) {
         if (USE_MAX_PRIOR_PROBABILITY) {
-            final double newWeight = this.graph.getLogWeight(outgoing, incoming);
+            final double newWeight = weight;
             final double currentWeight = this.priorProb[incoming];
             if (newWeight>currentWeight){
                 this.priorProb[incoming] = newWeight;
             }
         } else {
             if (USE_SQRT_PRIOR_PROBABILITY){
-                this.priorProb[incoming] += Math.sqrt(this.graph.getLogWeight(outgoing, incoming));
+                this.priorProb[incoming] += Math.sqrt(weight);
             } else {
-                this.priorProb[incoming] += (this.graph.getLogWeight(outgoing, incoming));
+                this.priorProb[incoming] += weight;
             }
         }
     }
@@ -500,9 +524,8 @@ public class GibbsMFCorrectionNetwork<C extends Candidate<?>> extends BasicMaste
     }
 
     private void updatePeak(int peakIdx) {
-        int[] b = this.graph.getPeakBoundaries(peakIdx);
-        int min = b[0];
-        int max = b[1];
+        int min = this.graph.getPeakLeftBoundary(peakIdx);
+        int max = this.graph.getPeakRightBoundary(peakIdx);
         double maxLog = Double.NEGATIVE_INFINITY;
 
         FragmentsCandidate candidate = null;
@@ -524,7 +547,7 @@ public class GibbsMFCorrectionNetwork<C extends Candidate<?>> extends BasicMaste
 
 
         for(int i = min; i <= max; ++i) {
-            this.posteriorProbs[i] = this.getPosteriorScore(this.priorProb[i], this.graph.getCandidateScore(i));
+            this.posteriorProbs[i] = this.getPosteriorScore(this.priorProb[i], this.nodeScores[i]);
             if(this.posteriorProbs[i] > maxLog) {
                 maxLog = this.posteriorProbs[i];
             }
@@ -566,9 +589,12 @@ public class GibbsMFCorrectionNetwork<C extends Candidate<?>> extends BasicMaste
      * @return
      */
     public static int[] getRandomOrdering(int min, int max) {
+        return getRandomOrdering(new Random(), min, max);
+    }
+
+    private static int[] getRandomOrdering(Random random, int min, int max) {
         TIntArrayList numbers = new TIntArrayList(max - min);
         TIntArrayList ordering = new TIntArrayList(max - min);
-        Random random = new Random();
 
         for(int i = min; i < max; ++i) {
             numbers.add(i);
@@ -43,6 +43,7 @@ public class Graph<C extends Candidate<?>> {
     protected final String[] ids;
     protected Scored<C>[][] possibleFormulas;
     protected Scored<C>[] possibleFormulas1D;
+    private volatile CompactEdges compactEdges;
 //    private EdgeScorer<C>[] edgeScorers;
 //    private EdgeFilter edgeFilter;
 
@@ -164,6 +165,7 @@ public class Graph<C extends Candidate<?>> {
 
     public void setLogWeight(int i, int j, double weight) {
         assert !Double.isNaN(weight);
+        this.compactEdges = null;
 
         int relJ = this.indexMap[i].get(j);
         if(relJ < 0) {
@@ -187,6 +189,32 @@ public class Graph<C extends Candidate<?>> {
         return this.connections;
     }
 
+    /**
+     * replaces the connections of all candidates and invalidates the {@link #getCompactEdges() compact edges}
+     */
+    public void setConnections(int[][] connections) {
+        this.connections = connections;
+        this.compactEdges = null;
+    }
+
+    /**
+     * CSR representation of the connections and their log weights. It is built on first access and shared by all
+     * samplers of this graph. Changing a weight afterwards invalidates it.
+     */
+    public CompactEdges getCompactEdges() {
+        CompactEdges edges = this.compactEdges;
+        if (edges == null) {
+            synchronized (this) {
+                edges = this.compactEdges;
+                if (edges == null) {
+                    edges = CompactEdges.of(this);
+                    this.compactEdges = edges;
+                }
+            }
+        }
+        return edges;
+    }
+
     public int[] getConnections(int index) {
         return this.connections[index];
     }
@@ -405,7 +433,7 @@ public class Graph<C extends Candidate<?>> {
                 }
                 connectionsNew[newIdx] = connectionNew.toArray();
             }
-            this.connections = connectionsNew;
+            setConnections(connectionsNew);
 
             TIntIntHashMap[] indexMapNew = new TIntIntHashMap[this.size];
             TDoubleArrayList[] weightsNew = new TDoubleArrayList[this.size];
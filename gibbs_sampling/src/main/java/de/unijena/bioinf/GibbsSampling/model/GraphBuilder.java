@@ -24,6 +24,7 @@ import de.unijena.bioinf.ChemistryBase.algorithm.scoring.Scored;
 import de.unijena.bioinf.ChemistryBase.math.HighQualityRandom;
 import de.unijena.bioinf.GibbsSampling.model.distributions.ScoreProbabilityDistributionEstimator;
 import de.unijena.bioinf.GibbsSampling.model.distributions.ScoreProbabilityDistributionFix;
+import de.unijena.bioinf.GibbsSampling.model.scorer.CandidatePairIndex;
 import de.unijena.bioinf.jjobs.BasicJJob;
 import de.unijena.bioinf.jjobs.BasicMasterJJob;
 import de.unijena.bioinf.jjobs.JobProgressEvent;
@@ -48,6 +49,10 @@ public class GraphBuilder<C extends Candidate<?>> extends BasicMasterJJob<Graph<
     EdgeScorer<C>[] edgeScorers;
     EdgeFilter edgeFilter;
     Class<C> cClass;
+    /*
+    enumerates only candidate pairs sharing fragments or losses. null if the edge scorers are not supported.
+     */
+    private CandidatePairIndex pairIndex;
 
     private int numberOfFinishedComputations = 0;
     private double step;
@@ -126,7 +131,7 @@ public class GraphBuilder<C extends Candidate<?>> extends BasicMasterJJob<Graph<
     protected Graph<C> compute() throws Exception {
         numberOfFinishedComputations = 0;
         if (graph.possibleFormulas.length==0){
-            graph.connections = new int[0][0];
+            graph.setConnections(new int[0][0]);
         } else {
             this.calculateWeight();
             this.setConnections();
@@ -183,6 +188,10 @@ public class GraphBuilder<C extends Candidate<?>> extends BasicMasterJJob<Graph<
 
         this.edgeFilter.setThreshold(minV);
         size = graph.getSize();
+
+        pairIndex = CandidatePairIndex.create(graph, edgeScorers);
+        if (pairIndex != null)
+            logInfo("Using candidate pair index with " + pairIndex.numberOfFormulas() + " fragment and loss formulas");
         step = Math.max(size/20, 1);
         updateProgress(0, size,0, "Computing edges");
 
@@ -212,13 +221,14 @@ public class GraphBuilder<C extends Candidate<?>> extends BasicMasterJJob<Graph<
             job.awaitResult();
         }
         logInfo("finished computing edges after "+(System.currentTimeMillis()-start));
+        pairIndex = null;
 
     }
 
 
     protected void setConnections() throws ExecutionException {
         long time = System.currentTimeMillis();
-        graph.connections = this.edgeFilter.postprocessCompleteGraph(graph, this);
+        graph.setConnections(this.edgeFilter.postprocessCompleteGraph(graph, this));
         HighQualityRandom random = new HighQualityRandom();
 
         if (GibbsMFCorrectionNetwork.DEBUG){
@@ -307,30 +317,15 @@ public class GraphBuilder<C extends Candidate<?>> extends BasicMasterJJob<Graph<
         @Override
         protected Object compute() throws Exception {
             final int edgesPerPercentagePoint = (int)Math.max(1, Math.floor(totalEdges/100d));
+            //only EdgeThresholdFilter discards all edges above its threshold, other filters need all scores
+            final double pruningThreshold = edgeFilter instanceof EdgeThresholdFilter ? ((EdgeThresholdFilter) edgeFilter).getLogThreshold() : Double.POSITIVE_INFINITY;
+            final int[] sharedBuffer = pairIndex == null ? null : new int[graph.getSize()];
             while (!remainingCandidates.isEmpty()){
                 Integer idx = remainingCandidates.poll();
                 if (idx==null) continue;
-                final C candidate = graph.getPossibleFormulas1D(idx).getCandidate();
-
-                TDoubleArrayList scores = new TDoubleArrayList(graph.getSize());
-
-                for(int j = 0; j < graph.getSize(); ++j) {
-                    if(graph.getPeakIdx(idx) == graph.getPeakIdx(j)) {
-                        scores.add(0.0D);
-                    } else {
-                        C candidate2 = graph.getPossibleFormulas1D(j).getCandidate();
-                        double score = 0.0D;
 
-                        for(int k = 0; k < edgeScorers.length; ++k) {
-                            EdgeScorer edgeScorer = edgeScorers[k];
-                            score += edgeScorer.score(candidate, candidate2);
-                        }
-
-                        scores.add(score);
-                    }
-                }
-
-                edgeFilter.filterEdgesAndSetThreshold(graph, idx, scores.toArray());
+                final double[] scores = pairIndex != null ? pairIndex.score(idx, pruningThreshold, sharedBuffer) : scoreAllPairs(idx);
+                edgeFilter.filterEdgesAndSetThreshold(graph, idx, scores);
 
                 ++computedEdges;
                 if (computedEdges%edgesPerPercentagePoint==0 && totalEdges>0) {
@@ -342,5 +337,29 @@ public class GraphBuilder<C extends Candidate<?>> extends BasicMasterJJob<Graph<
             }
             return null;
         }
+
+        private double[] scoreAllPairs(int idx) {
+            final C candidate = graph.getPossibleFormulas1D(idx).getCandidate();
+
+            TDoubleArrayList scores = new TDoubleArrayList(graph.getSize());
+
+            for(int j = 0; j < graph.getSize(); ++j) {
+                if(graph.getPeakIdx(idx) == graph.getPeakIdx(j)) {
+                    scores.add(0.0D);
+                } else {
+                    C candidate2 = graph.getPossibleFormulas1D(j).getCandidate();
+                    double score = 0.0D;
+
+                    for(int k = 0; k < edgeScorers.length; ++k) {
+                        EdgeScorer edgeScorer = edgeScorers[k];
+                        score += edgeScorer.score(candidate, candidate2);
+                    }
+
+                    scores.add(score);
+                }
+            }
+
+            return scores.toArray();
+        }
     }
 }
@@ -0,0 +1,222 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.GibbsSampling.model.scorer;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.GibbsSampling.model.*;
+import de.unijena.bioinf.GibbsSampling.model.distributions.ScoreProbabilityDistribution;
+import de.unijena.bioinf.GibbsSampling.model.distributions.ScoreProbabilityDistributionEstimator;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.map.hash.TObjectIntHashMap;
+import org.jetbrains.annotations.Nullable;
+
+import java.util.Arrays;
+
+/**
+ * Inverted index from fragment and loss formulas to the candidates of a {@link Graph} explaining them.
+ * It enumerates for one candidate all candidates sharing fragment or loss formulas, together with the number of shared
+ * formulas (counted with multiplicity, as in {@link CommonFragmentAndLossScorer#scoreCommons(FragmentWithIndex[], FragmentWithIndex[])}).
+ * <p>
+ * Pairs sharing too few formulas have a {@link CommonFragmentAndLossScorer} score of 0, so their edge score is known without
+ * scoring. For the remaining pairs, the number of shared formulas gives an upper bound of the similarity and hence a
+ * lower bound of the log p-value, such that pairs which cannot pass an {@link EdgeThresholdFilter} are not scored at all.
+ * This relies on log p-values being monotonically decreasing in the similarity.
+ */
+public class CandidatePairIndex {
+
+    private final Graph<?> graph;
+    private final EdgeScorer<FragmentsCandidate>[] edgeScorers;
+    private final CommonFragmentAndLossScorer[] innerScorers;
+    private final ScoreProbabilityDistribution[] distributions;
+    /**
+     * edge score of a pair that has no matching fragments or losses
+     */
+    private final double zeroScore;
+    /**
+     * pairs need to share more formulas than this to get a non-zero similarity from at least one scorer
+     */
+    private final double minSharedFormulas;
+
+    //formulas per candidate: formulaOffsets[i]..formulaOffsets[i+1] indexes formulaIds/formulaCounts
+    private final int[] formulaOffsets, formulaIds, formulaCounts;
+    //candidates per formula: postingOffsets[f]..postingOffsets[f+1] indexes postingCandidates/postingCounts
+    private final int[] postingOffsets, postingCandidates, postingCounts;
+
+    private CandidatePairIndex(Graph<?> graph, EdgeScorer<FragmentsCandidate>[] edgeScorers, CommonFragmentAndLossScorer[] innerScorers, ScoreProbabilityDistribution[] distributions) {
+        this.graph = graph;
+        this.edgeScorers = edgeScorers;
+        this.innerScorers = innerScorers;
+        this.distributions = distributions;
+
+        double zero = 0d, minShared = Double.POSITIVE_INFINITY;
+        for (int k = 0; k < innerScorers.length; k++) {
+            zero += distributions[k].toLogPvalue(0);
+            minShared = Math.min(minShared, innerScorers[k].getMinimumNumberMatchedPeaksLosses() / innerScorers[k].getMaximumMatchScore());
+        }
+        this.zeroScore = zero;
+        this.minSharedFormulas = minShared;
+
+        //fragments and losses get ids from the same counter, so they never match each other
+        final int size = graph.getSize();
+        final TObjectIntHashMap<MolecularFormula> fragmentIds = new TObjectIntHashMap<>(size, 0.75f, -1);
+        final TObjectIntHashMap<MolecularFormula> lossIds = new TObjectIntHashMap<>(size, 0.75f, -1);
+        this.formulaOffsets = new int[size + 1];
+        final TIntArrayList ids = new TIntArrayList(), counts = new TIntArrayList();
+        final TIntArrayList candidateIds = new TIntArrayList();
+        int numberOfFormulas = 0;
+        for (int i = 0; i < size; i++) {
+            final FragmentsCandidate candidate = (FragmentsCandidate) graph.getPossibleFormulas1D(i).getCandidate();
+            candidateIds.clear();
+            for (FragmentWithIndex fragment : candidate.getFragments()) {
+                int id = fragmentIds.get(fragment.getFormula());
+                if (id < 0) fragmentIds.put(fragment.getFormula(), id = numberOfFormulas++);
+                candidateIds.add(id);
+            }
+            for (FragmentWithIndex loss : candidate.getLosses()) {
+                int id = lossIds.get(loss.getFormula());
+                if (id < 0) lossIds.put(loss.getFormula(), id = numberOfFormulas++);
+                candidateIds.add(id);
+            }
+            candidateIds.sort();
+            for (int j = 0; j < candidateIds.size(); ) {
+                final int id = candidateIds.getQuick(j);
+                int count = 0;
+                while (j < candidateIds.size() && candidateIds.getQuick(j) == id) {
+                    ++count;
+                    ++j;
+                }
+                ids.add(id);
+                counts.add(count);
+            }
+            formulaOffsets[i + 1] = ids.size();
+        }
+        this.formulaIds = ids.toArray();
+        this.formulaCounts = counts.toArray();
+
+        this.postingOffsets = new int[numberOfFormulas + 1];
+        for (int id : formulaIds) ++postingOffsets[id + 1];
+        for (int f = 0; f < numberOfFormulas; f++) postingOffsets[f + 1] += postingOffsets[f];
+        this.postingCandidates = new int[formulaIds.length];
+        this.postingCounts = new int[formulaIds.length];
+        final int[] fill = Arrays.copyOf(postingOffsets, numberOfFormulas);
+        for (int i = 0; i < size; i++) {
+            for (int e = formulaOffsets[i]; e < formulaOffsets[i + 1]; e++) {
+                final int pos = fill[formulaIds[e]]++;
+                postingCandidates[pos] = i;
+                postingCounts[pos] = formulaCounts[e];
+            }
+        }
+    }
+
+    /**
+     * @return index for the given graph or null if the edge scorers are not supported. Supported are
+     * {@link ScoreProbabilityDistributionEstimator}s wrapping a {@link CommonFragmentAndLossScorer} with bounded match scores.
+     * The scorers have to be prepared already.
+     */
+    @Nullable
+    public static CandidatePairIndex create(Graph<?> graph, EdgeScorer<?>[] edgeScorers) {
+        if (edgeScorers.length == 0) return null;
+        final CommonFragmentAndLossScorer[] innerScorers = new CommonFragmentAndLossScorer[edgeScorers.length];
+        final ScoreProbabilityDistribution[] distributions = new ScoreProbabilityDistribution[edgeScorers.length];
+        for (int k = 0; k < edgeScorers.length; k++) {
+            if (!(edgeScorers[k] instanceof ScoreProbabilityDistributionEstimator<?> estimator)) return null;
+            if (!(estimator.getEdgeScorer() instanceof CommonFragmentAndLossScorer inner)) return null;
+            if (Double.isInfinite(inner.getMaximumMatchScore())) return null;
+            innerScorers[k] = inner;
+            distributions[k] = estimator.getProbabilityDistribution();
+        }
+        for (int i = 0; i < graph.getSize(); i++) {
+            if (!(graph.getPossibleFormulas1D(i).getCandidate() instanceof FragmentsCandidate)) return null;
+        }
+        return new CandidatePairIndex(graph, (EdgeScorer<FragmentsCandidate>[]) edgeScorers, innerScorers, distributions);
+    }
+
+    /**
+     * Computes the edge scores of the given candidate to all candidates of the graph, as the sum of all edge scorers.
+     * Candidates of the same compound get 0.
+     *
+     * @param logThreshold pairs whose score cannot be below this threshold are not scored and get a lower bound of their
+     *                     score instead. Use {@link Double#POSITIVE_INFINITY} to score all pairs exactly.
+     * @param sharedBuffer buffer of graph size, all zero. It is reset before returning.
+     */
+    public double[] score(int candidateIdx, double logThreshold, int[] sharedBuffer) {
+        final int size = graph.getSize();
+        final int peakIdx = graph.getPeakIdx(candidateIdx);
+        final double[] scores = new double[size];
+        for (int j = 0; j < size; j++) {
+            if (graph.getPeakIdx(j) != peakIdx) scores[j] = zeroScore;
+        }
+
+        final TIntArrayList sharing = collectSharing(candidateIdx, sharedBuffer);
+        final FragmentsCandidate candidate = (FragmentsCandidate) graph.getPossibleFormulas1D(candidateIdx).getCandidate();
+        for (int k = 0; k < sharing.size(); k++) {
+            final int j = sharing.getQuick(k);
+            final int shared = sharedBuffer[j];
+            sharedBuffer[j] = 0;
+            if (shared <= minSharedFormulas || graph.getPeakIdx(j) == peakIdx) continue;
+
+            final FragmentsCandidate candidate2 = (FragmentsCandidate) graph.getPossibleFormulas1D(j).getCandidate();
+            if (logThreshold < Double.POSITIVE_INFINITY) {
+                final double lowerBound = scoreLowerBound(candidate, candidate2, shared);
+                if (lowerBound >= logThreshold) {
+                    scores[j] = lowerBound;
+                    continue;
+                }
+            }
+            double score = 0d;
+            for (EdgeScorer<FragmentsCandidate> edgeScorer : edgeScorers) {
+                score += edgeScorer.score(candidate, candidate2);
+            }
+            scores[j] = score;
+        }
+        return scores;
+    }
+
+    /**
+     * @return all candidates sharing at least one formula with the given candidate. The number of shared formulas is
+     * added to sharedBuffer.
+     */
+    private TIntArrayList collectSharing(int candidateIdx, int[] sharedBuffer) {
+        final TIntArrayList sharing = new TIntArrayList();
+        for (int e = formulaOffsets[candidateIdx]; e < formulaOffsets[candidateIdx + 1]; e++) {
+            final int id = formulaIds[e], count = formulaCounts[e];
+            for (int p = postingOffsets[id]; p < postingOffsets[id + 1]; p++) {
+                final int j = postingCandidates[p];
+                if (j == candidateIdx) continue;
+                if (sharedBuffer[j] == 0) sharing.add(j);
+                sharedBuffer[j] += Math.min(count, postingCounts[p]);
+            }
+        }
+        return sharing;
+    }
+
+    private double scoreLowerBound(FragmentsCandidate candidate1, FragmentsCandidate candidate2, int shared) {
+        double bound = 0d;
+        for (int k = 0; k < innerScorers.length; k++) {
+            bound += distributions[k].toLogPvalue(innerScorers[k].scoreUpperBound(candidate1, candidate2, shared));
+        }
+        return bound;
+    }
+
+    public int numberOfFormulas() {
+        return postingOffsets.length - 1;
+    }
+}
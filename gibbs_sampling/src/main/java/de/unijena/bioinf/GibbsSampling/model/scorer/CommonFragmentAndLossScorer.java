@@ -278,6 +278,34 @@ public class CommonFragmentAndLossScorer implements EdgeScorer<FragmentsCandidat
         return score;
     }
 
+    /**
+     * upper bound of {@link #score(FragmentsCandidate, FragmentsCandidate)} if both candidates share at most the given
+     * number of fragment and loss formulas (counted with multiplicity, see {@link CandidatePairIndex}).
+     */
+    protected double scoreUpperBound(FragmentsCandidate candidate1, FragmentsCandidate candidate2, int numberOfSharedFormulas) {
+        final double sumFLMinusMinCount = getMaximumMatchScore()*numberOfSharedFormulas-MINIMUM_NUMBER_MATCHED_PEAKS_LOSSES;
+        if (sumFLMinusMinCount<=0) return 0;
+
+        int i = this.idxMap.get(candidate1.getExperiment());
+        int j = this.idxMap.get(candidate2.getExperiment());
+        if (!(i > j ? this.maybeSimilar[i].get(j) : this.maybeSimilar[j].get(i))) return 0;
+
+        final double norm1 = this.normalizationMap.get(candidate1.getExperiment());
+        final double norm2 = this.normalizationMap.get(candidate2.getExperiment());
+        return Math.max(0, ((sumFLMinusMinCount) / norm1) + ((sumFLMinusMinCount) / norm2));
+    }
+
+    /**
+     * @return maximum score a single matched fragment or loss can contribute, see {@link #scoreMatchedFragments(FragmentWithIndex, FragmentWithIndex)}
+     */
+    protected double getMaximumMatchScore() {
+        return 1d;
+    }
+
+    public double getMinimumNumberMatchedPeaksLosses() {
+        return MINIMUM_NUMBER_MATCHED_PEAKS_LOSSES;
+    }
+
     @Override
     public double scoreWithoutThreshold(FragmentsCandidate candidate1, FragmentsCandidate candidate2) {
         final double commonF = this.scoreCommons(candidate1.getFragments(), candidate2.getFragments());
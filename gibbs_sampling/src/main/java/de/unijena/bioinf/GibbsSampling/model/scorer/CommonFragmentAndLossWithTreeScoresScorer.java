@@ -161,6 +161,12 @@ public class CommonFragmentAndLossWithTreeScoresScorer extends CommonFragmentAnd
         return norm;
     }
 
+    @Override
+    protected double getMaximumMatchScore() {
+        //tree scores are not bounded
+        return Double.POSITIVE_INFINITY;
+    }
+
     @Override
     protected double scoreMatchedPeaks(PeakWithExplanation peak1, PeakWithExplanation peak2){
         return Math.max(0, Math.min(peak1.bestScore,peak2.bestScore));//changed to take minimum score of both (at least enables reasonable normalization)
@@ -0,0 +1,142 @@
+package de.unijena.bioinf.GibbsSampling.model;
+
+import de.unijena.bioinf.ChemistryBase.algorithm.scoring.Scored;
+import gnu.trove.list.array.TIntArrayList;
+import gnu.trove.set.hash.TIntHashSet;
+import org.junit.Test;
+
+import java.util.Random;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+public class GibbsMFCorrectionNetworkTest {
+
+    private static final int NUMBER_OF_COMPOUNDS = 40, CANDIDATES_PER_COMPOUND = 6;
+
+    /**
+     * random graph with symmetric edges, built like the one of the sampling benchmark
+     */
+    private static Graph<Candidate<String>> randomGraph(long seed) {
+        final Random random = new Random(seed);
+        final String[] ids = new String[NUMBER_OF_COMPOUNDS];
+        final Scored<Candidate<String>>[][] candidates = new Scored[NUMBER_OF_COMPOUNDS][];
+        for (int i = 0; i < NUMBER_OF_COMPOUNDS; ++i) {
+            ids[i] = "compound" + i;
+            candidates[i] = new Scored[CANDIDATES_PER_COMPOUND];
+            final double[] scores = new double[CANDIDATES_PER_COMPOUND];
+            double sum = 0d;
+            for (int j = 0; j < CANDIDATES_PER_COMPOUND; ++j) {
+                scores[j] = random.nextDouble();
+                sum += scores[j];
+            }
+            for (int j = 0; j < CANDIDATES_PER_COMPOUND; ++j) {
+                final double logScore = Math.log(scores[j] / sum);
+                candidates[i][j] = new Scored<>(new Candidate<>(ids[i] + "_" + j, logScore), logScore);
+            }
+        }
+        final Graph<Candidate<String>> graph = Graph.getGraph(ids, candidates);
+
+        final int size = graph.getSize();
+        final TIntArrayList[] connections = new TIntArrayList[size];
+        for (int i = 0; i < size; ++i) connections[i] = new TIntArrayList();
+        for (int i = 0; i < size; ++i) {
+            final int peak = graph.getPeakIdx(i);
+            for (int k = 0; k < 4; ++k) {
+                final int j = random.nextInt(size);
+                if (graph.getPeakIdx(j) == peak || graph.hasLogWeightConnections(i, j)) continue;
+                final double weight = random.nextDouble() * 3;
+                graph.setLogWeight(i, j, weight);
+                graph.setLogWeight(j, i, weight);
+                connections[i].add(j);
+                connections[j].add(i);
+            }
+        }
+        final int[][] conns = new int[size][];
+        for (int i = 0; i < size; ++i) conns[i] = connections[i].toArray();
+        graph.setConnections(conns);
+        return graph;
+    }
+
+    private static Scored<Candidate<String>>[][] sample(Graph<Candidate<String>> graph, TIntHashSet fixedCompounds) throws Exception {
+        final GibbsMFCorrectionNetwork<Candidate<String>> network = new GibbsMFCorrectionNetwork<>(graph, fixedCompounds);
+        network.setRandomSeed(42);
+        network.setIterationSteps(500, 100);
+        return network.compute();
+    }
+
+    private static void assertSampling(String[] expectedBest, double[] expectedScores, Scored<Candidate<String>>[][] result) {
+        assertEquals(NUMBER_OF_COMPOUNDS, result.length);
+        final String[] best = new String[result.length];
+        final double[] scores = new double[result.length];
+        for (int i = 0; i < result.length; ++i) {
+            best[i] = result[i][0].getCandidate().getCandidate();
+            scores[i] = result[i][0].getScore();
+        }
+        assertArrayEquals(expectedBest, best);
+        assertArrayEquals(expectedScores, scores, 1e-12);
+    }
+
+    /**
+     * the expected values are the output of the sampler before it was moved to the compact edges
+     */
+    @Test
+    public void testSamplingWithFixedSeedIsUnchanged() throws Exception {
+        assertSampling(EXPECTED_BEST, EXPECTED_SCORES, sample(randomGraph(4711), null));
+    }
+
+    @Test
+    public void testSamplingWithFixedCompoundsIsUnchanged() throws Exception {
+        assertSampling(EXPECTED_BEST_FIXED, EXPECTED_SCORES_FIXED, sample(randomGraph(4711), new TIntHashSet(new int[]{0, 5, 17})));
+    }
+
+    @Test
+    public void testReplacingConnectionsInvalidatesCompactEdges() {
+        final Graph<Candidate<String>> graph = randomGraph(4711);
+        final CompactEdges edges = graph.getCompactEdges();
+        graph.setConnections(new int[graph.getSize()][0]);
+        final CompactEdges replaced = graph.getCompactEdges();
+        assertEquals(0, replaced.numberOfEdges());
+        assertEquals(edges.numberOfNodes(), replaced.numberOfNodes());
+    }
+
+    private static final String[] EXPECTED_BEST = {
+            "compound0_2", "compound1_1", "compound2_3", "compound3_5", "compound4_1", "compound5_2",
+            "compound6_4", "compound7_1", "compound8_2", "compound9_5", "compound10_2", "compound11_4",
+            "compound12_1", "compound13_2", "compound14_1", "compound15_1", "compound16_1", "compound17_4",
+            "compound18_0", "compound19_3", "compound20_4", "compound21_3", "compound22_0", "compound23_1",
+            "compound24_2", "compound25_4", "compound26_0", "compound27_1", "compound28_1", "compound29_0",
+            "compound30_4", "compound31_0", "compound32_5", "compound33_3", "compound34_2", "compound35_2",
+            "compound36_5", "compound37_0", "compound38_1", "compound39_2"
+    };
+    private static final double[] EXPECTED_SCORES = {
+            0.5714285714285714, 0.9387755102040817, 1.0, 0.4489795918367347, 0.42857142857142855, 1.0,
+            0.40816326530612246, 0.5510204081632653, 0.7346938775510204, 0.9795918367346939, 0.7346938775510204,
+            0.5102040816326531, 0.3469387755102041, 0.5102040816326531, 0.8571428571428571, 0.7755102040816326,
+            0.9387755102040817, 0.7959183673469388, 0.7959183673469388, 0.8571428571428571, 0.8775510204081632,
+            0.4489795918367347, 0.3877551020408163, 0.40816326530612246, 0.673469387755102, 0.5918367346938775,
+            0.9795918367346939, 0.42857142857142855, 0.7755102040816326, 0.5714285714285714, 0.6122448979591837,
+            0.9795918367346939, 0.9387755102040817, 0.7346938775510204, 0.9591836734693877, 0.7346938775510204,
+            0.5306122448979592, 0.8571428571428571, 0.9591836734693877, 0.8571428571428571
+    };
+    private static final String[] EXPECTED_BEST_FIXED = {
+            "compound0_0", "compound1_3", "compound2_5", "compound3_5", "compound4_1", "compound5_0",
+            "compound6_0", "compound7_1", "compound8_2", "compound9_0", "compound10_2", "compound11_0",
+            "compound12_5", "compound13_4", "compound14_1", "compound15_4", "compound16_1", "compound17_0",
+            "compound18_0", "compound19_3", "compound20_1", "compound21_4", "compound22_5", "compound23_1",
+            "compound24_3", "compound25_2", "compound26_5", "compound27_0", "compound28_2", "compound29_0",
+            "compound30_4", "compound31_0", "compound32_5", "compound33_5", "compound34_0", "compound35_2",
+            "compound36_5", "compound37_1", "compound38_4", "compound39_2"
+    };
+    private static final double[] EXPECTED_SCORES_FIXED = {
+            0.027465966792736243, 0.5306122448979592, 0.5102040816326531, 0.3877551020408163,
+            0.42857142857142855, 0.3672361323705075, 0.40816326530612246, 0.4489795918367347,
+            0.5102040816326531, 0.5306122448979592, 0.7551020408163265, 0.42857142857142855,
+            0.32653061224489793, 0.6326530612244898, 0.2857142857142857, 0.46938775510204084,
+            0.3673469387755102, 0.0639797753633213, 0.7142857142857143, 0.7551020408163265, 0.32653061224489793,
+            0.5102040816326531, 0.7346938775510204, 0.8367346938775511, 0.42857142857142855, 0.3469387755102041,
+            0.6122448979591837, 0.24489795918367346, 0.4897959183673469, 0.46938775510204084,
+            0.6122448979591837, 0.5714285714285714, 0.42857142857142855, 0.3469387755102041, 0.3469387755102041,
+            0.4897959183673469, 0.5306122448979592, 0.6530612244897959, 0.5306122448979592, 0.46938775510204084
+    };
+}
@@ -91,9 +91,25 @@ public class GraphBuilderTest {
         Graph<FragmentsCandidate> graph = graphBuilder.graph;
 
         assertResults(graph);
+        assertCompactEdges(graph);
 
     }
 
+    private void assertCompactEdges(Graph<FragmentsCandidate> graph) {
+        CompactEdges edges = graph.getCompactEdges();
+        assertEquals(graph.getSize(), edges.numberOfNodes());
+        for (int i = 0; i < graph.getSize(); i++) {
+            int[] conns = graph.getConnections(i);
+            assertEquals(conns.length, edges.getNumberOfConnections(i));
+            for (int c : conns) {
+                assertEquals(graph.getLogWeight(i, c), edges.getLogWeight(i, c), 0d);
+            }
+            for (int e = edges.offsets[i]; e < edges.offsets[i + 1]; e++) {
+                assertEquals(graph.getPeakIdx(edges.targets[e]), edges.targetPeaks[e]);
+            }
+        }
+    }
+
     private void assertAfterCalculatingWeights(Graph<FragmentsCandidate> graph) {
         double[][] weights = new double[][]{
                 new double[]{0.6836898487475431, 0.6836898487475431},
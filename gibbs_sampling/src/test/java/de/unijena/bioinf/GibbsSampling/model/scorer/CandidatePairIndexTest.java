@@ -0,0 +1,87 @@
+package de.unijena.bioinf.GibbsSampling.model.scorer;
+
+import de.unijena.bioinf.ChemistryBase.algorithm.scoring.Scored;
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
+import de.unijena.bioinf.ChemistryBase.ms.MutableMs2Experiment;
+import de.unijena.bioinf.GibbsSampling.model.*;
+import de.unijena.bioinf.GibbsSampling.model.distributions.LogNormalDistribution;
+import de.unijena.bioinf.GibbsSampling.model.distributions.ScoreProbabilityDistributionFix;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.Random;
+
+import static org.junit.Assert.*;
+
+public class CandidatePairIndexTest {
+
+    @Test
+    public void testScoresEqualPairwiseScoring() {
+        assertSameEdges(new CommonFragmentAndLossScorer(0));
+        assertSameEdges(new CommonFragmentAndLossScorerNoiseIntensityWeighted(0));
+    }
+
+    @Test
+    public void testUnsupportedScorer() {
+        Graph<FragmentsCandidate> graph = Graph.getGraph(new String[0], new Scored[0][]);
+        assertNull(CandidatePairIndex.create(graph, new EdgeScorer[]{new CommonFragmentAndLossScorer(0)}));
+        assertNull(CandidatePairIndex.create(graph, new EdgeScorer[]{new ScoreProbabilityDistributionFix<>(new CommonFragmentAndLossWithTreeScoresScorer(0), new LogNormalDistribution(true), 0.5)}));
+    }
+
+    private void assertSameEdges(CommonFragmentAndLossScorer scorer) {
+        final Random random = new Random(42);
+        final PrecursorIonType ionType = PrecursorIonType.getPrecursorIonType("[M+H]+");
+        final MolecularFormula[] formulas = new MolecularFormula[60];
+        for (int i = 0; i < formulas.length; i++) {
+            formulas[i] = MolecularFormula.parseOrThrow("C" + (i + 1) + "H" + (2 * i + 2) + "O" + (i % 5));
+        }
+
+        final int numberOfCompounds = 50;
+        final String[] ids = new String[numberOfCompounds];
+        final FragmentsCandidate[][] candidates = new FragmentsCandidate[numberOfCompounds][];
+        final Scored<FragmentsCandidate>[][] scored = new Scored[numberOfCompounds][];
+        for (int i = 0; i < numberOfCompounds; i++) {
+            ids[i] = "compound" + i;
+            final MutableMs2Experiment experiment = new MutableMs2Experiment();
+            experiment.setName(ids[i]);
+            final int numberOfCandidates = 1 + random.nextInt(4);
+            candidates[i] = new FragmentsCandidate[numberOfCandidates];
+            scored[i] = new Scored[numberOfCandidates];
+            for (int j = 0; j < numberOfCandidates; j++) {
+                final int numberOfFragments = 2 + random.nextInt(10);
+                final FragmentWithIndex[] fragments = new FragmentWithIndex[numberOfFragments];
+                final FragmentWithIndex[] losses = new FragmentWithIndex[numberOfFragments - 1];
+                for (int k = 0; k < fragments.length; k++)
+                    fragments[k] = new FragmentWithIndex(formulas[random.nextInt(formulas.length)], ionType.getIonization(), (short) k, random.nextDouble());
+                for (int k = 0; k < losses.length; k++)
+                    losses[k] = new FragmentWithIndex(formulas[random.nextInt(20)], ionType.getIonization(), (short) (k + 1), random.nextDouble());
+                Arrays.sort(fragments);
+                Arrays.sort(losses);
+                candidates[i][j] = new FragmentsCandidate(new FragmentsAndLosses(fragments, losses), 0d, formulas[j], ionType, experiment) {};
+                scored[i][j] = new Scored<>(candidates[i][j], Math.log(1d / numberOfCandidates));
+            }
+        }
+
+        final ScoreProbabilityDistributionFix<FragmentsCandidate> edgeScorer = new ScoreProbabilityDistributionFix<>(scorer, new LogNormalDistribution(true), 0.5);
+        edgeScorer.setThresholdAndPrepare(candidates);
+        final Graph<FragmentsCandidate> graph = Graph.getGraph(ids, scored);
+        final CandidatePairIndex index = CandidatePairIndex.create(graph, new EdgeScorer[]{edgeScorer});
+        assertNotNull(index);
+
+        final double threshold = edgeScorer.getThreshold();
+        final int[] sharedBuffer = new int[graph.getSize()];
+        for (int i = 0; i < graph.getSize(); i++) {
+            final double[] exact = index.score(i, Double.POSITIVE_INFINITY, sharedBuffer);
+            final double[] pruned = index.score(i, threshold, sharedBuffer);
+            for (int j = 0; j < graph.getSize(); j++) {
+                final double expected = graph.getPeakIdx(i) == graph.getPeakIdx(j) ? 0d
+                        : edgeScorer.score(graph.getPossibleFormulas1D(i).getCandidate(), graph.getPossibleFormulas1D(j).getCandidate());
+                assertEquals(expected, exact[j], 0d);
+                assertEquals(expected < threshold, pruned[j] < threshold);
+                if (expected < threshold) assertEquals(expected, pruned[j], 0d);
+            }
+            for (int shared : sharedBuffer) assertEquals(0, shared);
+        }
+    }
+}
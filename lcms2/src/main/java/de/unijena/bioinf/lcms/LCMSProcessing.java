@@ -18,6 +18,7 @@ import de.unijena.bioinf.lcms.merge.MergeTracesWithoutGapFilling;
 import de.unijena.bioinf.lcms.merge.MergedTrace;
 import de.unijena.bioinf.lcms.merge.ScanPointInterpolator;
 import de.unijena.bioinf.lcms.msms.*;
+import de.unijena.bioinf.lcms.projectspace.MergedTraceImportAdapter;
 import de.unijena.bioinf.lcms.projectspace.PickFeaturesAndImportToSirius;
 import de.unijena.bioinf.lcms.projectspace.ProjectSpaceImporter;
 import de.unijena.bioinf.lcms.projectspace.SiriusDatabaseAdapter;
@@ -33,25 +34,33 @@ import de.unijena.bioinf.lcms.trace.segmentation.TraceSegmentationStrategy;
 import de.unijena.bioinf.lcms.traceextractor.*;
 import de.unijena.bioinf.lcms.utils.Tracker;
 import de.unijena.bioinf.ms.persistence.model.core.feature.AlignedFeatures;
+import de.unijena.bioinf.ms.persistence.model.core.run.AlignmentState;
 import de.unijena.bioinf.ms.persistence.model.core.run.Chromatography;
+import de.unijena.bioinf.ms.persistence.model.core.run.LCMSRun;
 import de.unijena.bioinf.ms.persistence.model.core.run.MergedLCMSRun;
 import de.unijena.bioinf.ms.persistence.model.core.run.RetentionTimeAxis;
 import de.unijena.bioinf.ms.persistence.model.core.run.SampleStatistics;
 import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import it.unimi.dsi.fastutil.doubles.DoubleList;
 import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMap;
+import it.unimi.dsi.fastutil.ints.Int2ObjectMaps;
+import it.unimi.dsi.fastutil.ints.Int2ObjectOpenHashMap;
 import it.unimi.dsi.fastutil.longs.LongArrayList;
 import it.unimi.dsi.fastutil.longs.LongList;
+import it.unimi.dsi.fastutil.longs.LongOpenHashSet;
 import lombok.Getter;
 import lombok.Setter;
 import org.apache.commons.text.similarity.LongestCommonSubsequence;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
 import java.net.URI;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicBoolean;
 
 public class LCMSProcessing {
 
@@ -85,6 +94,20 @@ public class LCMSProcessing {
      */
     @Getter @Setter private TraceCachingStrategy traceCachingStrategy = new RectbasedCachingStrategy();
 
+    /**
+     * Number of m/z slices whose traces are picked in parallel within a single sample. A value of 1 picks all traces
+     * sequentially, values below 1 use one slice per CPU thread of the global job manager (default). Both modes yield
+     * identical traces, see {@link ParallelTraceExtraction}.
+     * Only used when a single sample is processed at a time: {@link #processSamples(List, boolean, Chromatography, SampleListener)}
+     * already runs one job per sample and picks the traces of each sample sequentially if it processes several files,
+     * such that the slice jobs do not compete with the sample jobs for the same threads.
+     */
+    @Getter @Setter private int traceExtractionSlices = 0;
+
+    private int traceExtractionSlices() {
+        return traceExtractionSlices >= 1 ? traceExtractionSlices : Math.max(1, SiriusJobs.getGlobalJobManager().getCPUThreads());
+    }
+
     @Getter @Setter private TraceSegmentationStrategy segmentationStrategy = new PersistentHomology();
 
     @Getter @Setter private MassOfInterestConfidenceEstimatorStrategy confidenceEstimatorStrategy = new MassOfInterestCombinedStrategy(
@@ -124,17 +147,53 @@ public class LCMSProcessing {
     @Getter
     private LongList importedFeatureIds = new LongArrayList();
 
+    /**
+     * If true, the state of the alignment is kept after the export, such that further samples can be aligned into the
+     * merged run via {@link #alignIncrementally()}. The state is stored in the project space, too, such that the
+     * alignment can be continued via {@link #restoreAlignment(long)} after reopening the project. This requires a
+     * storage factory that keeps its storages, see {@link LCMSStorage#directoryStorage(java.io.File)}.
+     */
+    @Getter @Setter private boolean incremental = false;
+
+    // state of the last alignment and export, needed for aligning further samples incrementally
+    @Getter private ProcessedSample merged;
+    @Getter private AlignmentBackbone alignmentBackbone;
+    private Object importState;
+    private final Int2ObjectMap<MergedTraceImportAdapter> importedMergedTraces = Int2ObjectMaps.synchronize(new Int2ObjectOpenHashMap<>());
+
     @Getter @Setter
     private Tracker tracker = new Tracker.NOOP();
 
+    /**
+     * Bounds the number of samples that are processed concurrently by {@link #processSamples(List, boolean, Chromatography, SampleListener)}
+     */
+    @Getter @Setter
+    private MemoryAwareSampleScheduler sampleScheduler = MemoryAwareSampleScheduler.forCurrentJvm();
+
+    @FunctionalInterface
+    public interface SampleListener {
+        /**
+         * called from the processing thread as soon as the given sample is processed and before it is set inactive
+         */
+        void sampleProcessed(Path file, ProcessedSample sample);
+    }
+
     public LCMSProcessing(SiriusDatabaseAdapter siriusDatabaseAdapter, boolean saveFeatureIds) {
         this(siriusDatabaseAdapter, saveFeatureIds, null, false);
     }
 
     public LCMSProcessing(SiriusDatabaseAdapter siriusDatabaseAdapter, boolean saveFeatureIds, @Nullable Path tmpDir, boolean inMemoryOnMerged) {
+        this(siriusDatabaseAdapter, saveFeatureIds, LCMSStorage.temporaryStorage(tmpDir == null ? null : tmpDir.toFile(), inMemoryOnMerged));
+    }
+
+    /**
+     * @param storageFactory creates the storages of the samples and the merged sample, e.g.
+     *                       {@link LCMSStorage#mappedStorage(java.io.File)}. It is closed by {@link #closeStorages()}.
+     */
+    public LCMSProcessing(SiriusDatabaseAdapter siriusDatabaseAdapter, boolean saveFeatureIds, LCMSStorageFactory storageFactory) {
         this.siriusDatabaseAdapter = siriusDatabaseAdapter;
         this.saveFeatureIds = saveFeatureIds;
-        this.storageFactory = LCMSStorage.temporaryStorage(tmpDir == null ? null : tmpDir.toFile(), inMemoryOnMerged);
+        this.storageFactory = storageFactory;
     }
 
     /**
@@ -154,10 +213,19 @@ public class LCMSProcessing {
             Path file,
             boolean saveRawScans,
             Chromatography chromatography
+    ) throws IOException {
+        return processSample(file, saveRawScans, chromatography, traceExtractionSlices());
+    }
+
+    private ProcessedSample processSample(
+            Path file,
+            boolean saveRawScans,
+            Chromatography chromatography,
+            int slices
     ) throws IOException {
         ProcessedSample sample = LCMSImporter.importToProject(
                 file, storageFactory, siriusDatabaseAdapter, centroidingStrategy, saveRawScans, chromatography);
-        processSample(sample);
+        processSample(sample, slices);
         return sample;
     }
 
@@ -173,17 +241,85 @@ public class LCMSProcessing {
         // parse file and extract spectra
         ProcessedSample sample = LCMSImporter.importToProject(
                 input, storageFactory, siriusDatabaseAdapter, saveRawScans, chromatography);
-        processSample(sample);
+        processSample(sample, traceExtractionSlices());
         return sample;
     }
 
-    private void processSample(ProcessedSample sample) throws IOException {
-        sample.setUid(this.samples.size());
+    /**
+     * parses and processes the given files concurrently. The number of samples processed at the same time is bounded
+     * by the {@link #getSampleScheduler() sample scheduler}. Every processed sample is set inactive, such that its
+     * storage does not occupy memory until the alignment. Files that cannot be parsed are logged and ignored.
+     *
+     * @return processed samples in the order of the input files
+     */
+    public List<ProcessedSample> processSamples(
+            List<Path> files,
+            boolean saveRawScans,
+            Chromatography chromatography,
+            @Nullable SampleListener listener
+    ) throws IOException {
+        final List<BasicJJob<ProcessedSample>> jobs = new ArrayList<>(files.size());
+        // samples are already processed in parallel, slicing them too would oversubscribe the job manager
+        final int slices = files.size() > 1 ? 1 : traceExtractionSlices();
+        try (Closeable bulkImport = saveRawScans ? siriusDatabaseAdapter.bulkImport() : null) {
+            for (Path file : files) {
+                final MemoryAwareSampleScheduler.Reservation reservation = sampleScheduler.estimate(file, false);
+                sampleScheduler.acquire(reservation);
+                jobs.add(SiriusJobs.getGlobalJobManager().submitJob(new BasicJJob<ProcessedSample>() {
+                    // either the job or its cancellation releases the reservation, a job cancelled before it
+                    // started never runs compute
+                    private final AtomicBoolean claimed = new AtomicBoolean(false);
+
+                    @Override
+                    protected ProcessedSample compute() {
+                        if (!claimed.compareAndSet(false, true))
+                            return null;
+                        try {
+                            ProcessedSample sample = processSample(file, saveRawScans, chromatography, slices);
+                            if (listener != null) listener.sampleProcessed(file, sample);
+                            sample.inactive();
+                            return sample;
+                        } catch (IOException e) {
+                            LoggerFactory.getLogger(LCMSProcessing.class).warn("Ignore input file " + file, e);
+                            return null;
+                        } finally {
+                            sampleScheduler.release(reservation);
+                        }
+                    }
+
+                    @Override
+                    public void cancel(boolean mayInterruptIfRunning) {
+                        super.cancel(mayInterruptIfRunning);
+                        if (claimed.compareAndSet(false, true))
+                            sampleScheduler.release(reservation);
+                    }
+                }));
+            }
+            final List<ProcessedSample> processed = new ArrayList<>(jobs.size());
+            for (BasicJJob<ProcessedSample> job : jobs) {
+                ProcessedSample sample = job.takeResult();
+                if (sample != null) processed.add(sample);
+            }
+            return processed;
+        } catch (InterruptedException e) {
+            jobs.forEach(j -> j.cancel(false));
+            Thread.currentThread().interrupt();
+            throw new IOException("Interrupted while waiting for memory to process samples.", e);
+        }
+    }
+
+    private synchronized void registerSample(ProcessedSample sample) {
+        // samples restored from a previous alignment keep their ids, so new ids start after the largest one
+        sample.setUid(sampleByIdx.isEmpty() ? 0 : Collections.max(sampleByIdx.keySet()) + 1);
         this.samples.add(sample);
         this.sampleByIdx.put(sample.getUid(), sample);
+    }
+
+    private void processSample(ProcessedSample sample, int slices) throws IOException {
+        registerSample(sample);
         sample.active();
         collectStatistics(sample);
-        extractTraces(sample);
+        extractTraces(sample, slices);
         assignMs2Trace(sample);
         sample.setNormalizer(normalizationStrategy.computeNormalization(sample));
         extractMoIsForAlignment(sample);
@@ -211,9 +347,43 @@ public class LCMSProcessing {
         }
         merged.getStorage().getAlignmentStorage().setStatistics(alignmentBackbone.getStatistics());
         merged.getStorage().commit();
+        this.merged = merged;
+        this.alignmentBackbone = alignmentBackbone;
         return alignmentBackbone;
     }
 
+    /**
+     * Aligns all samples that were processed after the last alignment into the existing merged sample, without
+     * realigning or recalibrating the samples that are already aligned. Requires {@link #isIncremental() incremental}
+     * mode and that either {@link #align()}, {@link #merge(AlignmentBackbone)} and
+     * {@link #extractFeaturesAndExportToProjectSpace(ProcessedSample, AlignmentBackbone)} were called before on this
+     * instance or that the alignment was restored via {@link #restoreAlignment(long)}.
+     * Only the merged traces that get data from the new samples are picked again. Their aligned features are updated
+     * in place, such that ids and computed results of features that are found again are kept.
+     * @return number of aligned features that were imported or updated
+     */
+    public int alignIncrementally() throws IOException {
+        if (!incremental)
+            throw new IllegalStateException("Incremental alignment requires incremental mode.");
+        if (merged == null || alignmentBackbone == null || importState == null)
+            throw new IllegalStateException("Incremental alignment requires an alignment that was already exported to the project space.");
+        final Set<ProcessedSample> aligned = new HashSet<>(Arrays.asList(alignmentBackbone.getSamples()));
+        final List<ProcessedSample> newSamples = new ArrayList<>();
+        for (ProcessedSample sample : samples) {
+            if (sample != merged && !aligned.contains(sample)) newSamples.add(sample);
+        }
+        if (newSamples.isEmpty()) return 0;
+        alignmentBackbone = alignmentStrategy.alignIncrementally(merged, alignmentBackbone, newSamples, alignmentAlgorithm, alignmentThresholds, alignmentScorerFull, tracker);
+        for (ProcessedSample sample : newSamples) {
+            sample.setScanPointInterpolator(new ScanPointInterpolator(merged.getMapping(), sample.getMapping(), sample.getRtRecalibration()));
+            updateRetentionTimeAxis(sample);
+        }
+        merged.getStorage().commit();
+        final int[] rectIds = mergeStrategy.mergeIncrementally(merged, alignmentBackbone, newSamples, tracker);
+        merged.getStorage().commit();
+        return exportIncrementally(newSamples, rectIds);
+    }
+
     private void makeMergeStatistics(ProcessedSample merged, ProcessedSample[] samples) {
         FloatArrayList ms2NoiseLevels = new FloatArrayList();
         FloatArrayList ppmsWithinTraces = new FloatArrayList(), ppmsBetweenTraces = new FloatArrayList();
@@ -241,7 +411,7 @@ public class LCMSProcessing {
     }
 
     public ProcessedSample merge(AlignmentBackbone backbone) {
-        ProcessedSample merged = this.samples.get(samples.size()-1);
+        ProcessedSample merged = this.merged != null ? this.merged : this.samples.get(samples.size()-1);
         mergeStrategy.merge(merged, backbone, tracker);
         merged.getStorage().commit();
         return merged;
@@ -271,35 +441,45 @@ public class LCMSProcessing {
         System.out.println("Start importing features and peak picking");
         int featureCount = 0;
         long TIME1 = System.currentTimeMillis();
-        List<BasicJJob<long[]>> jobs = new ArrayList<>();
-        for (final Rect r : merged.getStorage().getMergeStorage().getRectangleMap()) {
-            jobs.add(SiriusJobs.getGlobalJobManager().submitJob(new BasicJJob<long[]>() {
-                @Override
-                protected long[] compute() throws Exception {
-                    MergedTrace mergedTrace = collectMergedTrace(merged, r.id);
-                    if (mergedTrace!=null && isSuitableForImport(mergedTrace)) {
-                        return Arrays.stream(importer.importMergedTrace(mergedTraceSegmentationStrategy, siriusDatabaseAdapter, obj,merged, mergedTrace, tracker)).mapToLong(AlignedFeatures::getAlignedFeatureId).toArray();
-                    } else {
-                        tracker.rejectedForFeatureExtraction(r, mergedTrace);
+        try (Closeable bulkImport = siriusDatabaseAdapter.bulkImport()) {
+            List<BasicJJob<long[]>> jobs = new ArrayList<>();
+            for (final Rect r : merged.getStorage().getMergeStorage().getRectangleMap()) {
+                jobs.add(SiriusJobs.getGlobalJobManager().submitJob(new BasicJJob<long[]>() {
+                    @Override
+                    protected long[] compute() throws Exception {
+                        if (incremental) {
+                            MergedTraceImportAdapter imported = importMergedTrace(importer, obj, merged, r, null);
+                            if (!imported.isEmpty()) importedMergedTraces.put(r.id, imported);
+                            return imported.getImportedFeatureIds();
+                        }
+                        MergedTrace mergedTrace = collectMergedTrace(merged, r.id);
+                        if (mergedTrace!=null && isSuitableForImport(mergedTrace)) {
+                            return Arrays.stream(importer.importMergedTrace(mergedTraceSegmentationStrategy, siriusDatabaseAdapter, obj,merged, mergedTrace, tracker)).mapToLong(AlignedFeatures::getAlignedFeatureId).toArray();
+                        } else {
+                            tracker.rejectedForFeatureExtraction(r, mergedTrace);
+                        }
+                        return new long[0];
+                    }
+                }));
+            }
+            for (BasicJJob<long[]> job : jobs) {
+                long[] ids = job.takeResult();
+                if (saveFeatureIds) {
+                    for (long id : ids) {
+                        importedFeatureIds.add(id);
                     }
-                    return new long[0];
-                }
-            }));
-        }
-        for (BasicJJob<long[]> job : jobs) {
-            long[] ids = job.takeResult();
-            if (saveFeatureIds) {
-                for (long id : ids) {
-                    importedFeatureIds.add(id);
                 }
+                featureCount += ids.length;
             }
-            featureCount += ids.length;
+            siriusDatabaseAdapter.flushTraces();
         }
         long TIME2 = System.currentTimeMillis();
         System.out.printf("Peak picking and import took %f seconds\n", (TIME2-TIME1)/1000d);
         if (featureCount > 0) {
             mergedRun.setSampleStats(collectFinalStatistics(merged, backbone));
             siriusDatabaseAdapter.updateMergedRun(mergedRun);
+            this.importState = obj;
+            if (incremental) saveAlignmentState();
         } else {
             siriusDatabaseAdapter.removeMergedRun(mergedRun);
         }
@@ -307,6 +487,195 @@ public class LCMSProcessing {
         return featureCount;
     }
 
+    private MergedTraceImportAdapter importMergedTrace(ProjectSpaceImporter<Object> importer, Object importState, ProcessedSample merged, Rect r, @Nullable MergedTraceImportAdapter previous) throws IOException {
+        final MergedTraceImportAdapter adapter = new MergedTraceImportAdapter(siriusDatabaseAdapter, previous);
+        MergedTrace mergedTrace = collectMergedTrace(merged, r.id);
+        if (mergedTrace!=null && isSuitableForImport(mergedTrace)) {
+            importer.importMergedTrace(mergedTraceSegmentationStrategy, adapter, importState, merged, mergedTrace, tracker);
+        } else {
+            tracker.rejectedForFeatureExtraction(r, mergedTrace);
+        }
+        return adapter;
+    }
+
+    /**
+     * picks the given merged traces again and updates the features imported for them
+     */
+    private int exportIncrementally(List<ProcessedSample> newSamples, int[] rectIds) throws IOException {
+        final MergedLCMSRun mergedRun = (MergedLCMSRun) merged.getRun();
+        mergedRun.setRunIds(Arrays.stream(alignmentBackbone.getSamples()).mapToLong(x->x.getRun().getRunId()).toArray());
+        ProjectSpaceImporter<Object> importer = (ProjectSpaceImporter<Object>) this.importer;
+        for (ProcessedSample sample : newSamples) {
+            importer.importRun(siriusDatabaseAdapter, importState, sample);
+        }
+        int featureCount = 0;
+        // no bulk import: updated and removed features are looked up by their non-unique alignedFeatureId indices
+        try {
+            List<BasicJJob<MergedTraceImportAdapter>> jobs = new ArrayList<>();
+            for (final int id : rectIds) {
+                final Rect r = merged.getStorage().getMergeStorage().getRectangleMap().getRect(id).orElseThrow();
+                final MergedTraceImportAdapter previous = importedMergedTraces.get(id);
+                jobs.add(SiriusJobs.getGlobalJobManager().submitJob(new BasicJJob<MergedTraceImportAdapter>() {
+                    @Override
+                    protected MergedTraceImportAdapter compute() throws Exception {
+                        return importMergedTrace(importer, importState, merged, r, previous);
+                    }
+                }));
+            }
+            for (int k=0; k < rectIds.length; ++k) {
+                final MergedTraceImportAdapter imported = jobs.get(k).takeResult();
+                final MergedTraceImportAdapter previous = importedMergedTraces.get(rectIds[k]);
+                final long[] removed = imported.finishImport();
+                if (imported.isEmpty()) importedMergedTraces.remove(rectIds[k]);
+                else importedMergedTraces.put(rectIds[k], imported);
+                final long[] ids = imported.getImportedFeatureIds();
+                if (saveFeatureIds) {
+                    final LongOpenHashSet known = new LongOpenHashSet(previous == null ? new long[0] : previous.getImportedFeatureIds());
+                    for (long id : removed) importedFeatureIds.rem(id);
+                    for (long id : ids) {
+                        if (!known.contains(id)) importedFeatureIds.add(id);
+                    }
+                }
+                featureCount += ids.length;
+            }
+        } finally {
+            siriusDatabaseAdapter.flushTraces();
+        }
+        mergedRun.setSampleStats(collectFinalStatistics(merged, alignmentBackbone));
+        siriusDatabaseAdapter.updateMergedRun(mergedRun);
+        saveAlignmentState();
+        return featureCount;
+    }
+
+    /**
+     * stores everything that is needed to continue the alignment in the project space. The storages of the samples
+     * are referenced by their file names, they are expected to be opened by the same storage factory again.
+     */
+    private void saveAlignmentState() throws IOException {
+        for (ProcessedSample sample : samples) sample.getStorage().commit();
+        final List<AlignmentState.AlignedSample> alignedSamples = new ArrayList<>();
+        for (ProcessedSample sample : alignmentBackbone.getSamples()) {
+            alignedSamples.add(AlignmentState.AlignedSample.builder()
+                    .runId(sample.getRun().getRunId())
+                    .sampleIdx(sample.getUid())
+                    .polarity(sample.getPolarity())
+                    .storage(storageName(sample))
+                    .normalizationFactor(sample.getNormalizer().normalize(1d))
+                    .rtRecalibration(sample.getRtRecalibration().toArray())
+                    .mzRecalibration(sample.getMzRecalibration().toArray())
+                    .build());
+        }
+        final List<AlignmentState.ImportedMergedTrace> traces = new ArrayList<>();
+        synchronized (importedMergedTraces) {
+            for (Int2ObjectMap.Entry<MergedTraceImportAdapter> e : importedMergedTraces.int2ObjectEntrySet()) {
+                traces.add(e.getValue().toState(e.getIntKey()));
+            }
+        }
+        final AlignmentStatistics stats = alignmentBackbone.getStatistics();
+        siriusDatabaseAdapter.importAlignmentState(AlignmentState.builder()
+                .runId(merged.getRun().getRunId())
+                .mergedSampleIdx(merged.getUid())
+                .mergedStorage(storageName(merged))
+                .samples(alignedSamples)
+                .expectedMassDeviationPpm(stats.getExpectedMassDeviationBetweenSamples().getPpm())
+                .expectedMassDeviationAbs(stats.getExpectedMassDeviationBetweenSamples().getAbsolute())
+                .expectedRetentionTimeDeviation(stats.getExpectedRetentionTimeDeviation())
+                .minRt(stats.getMinRt()).maxRt(stats.getMaxRt())
+                .minMz(stats.getMinMz()).maxMz(stats.getMaxMz())
+                .averageNumberOfAlignments(stats.getAverageNumberOfAlignments())
+                .medianNumberOfAlignments(stats.getMedianNumberOfAlignments())
+                .numberOfAlignments25Quantile(stats.getNumberOfAlignments25Quantile())
+                .importedMergedTraces(traces)
+                .build());
+    }
+
+    private static String storageName(ProcessedSample sample) {
+        return sample.getStorage().getPersistentLocation().orElseThrow(() -> new IllegalStateException(
+                "Incremental alignment requires storages that are kept after closing, see LCMSStorage.directoryStorage(File).")
+        ).getFileName().toString();
+    }
+
+    /**
+     * Restores the alignment of the given merged run from the project space, such that further samples can be aligned
+     * into it via {@link #alignIncrementally()}. The storages of the aligned samples are opened by the storage factory
+     * of this instance. Has to be called before processing new samples.
+     */
+    public void restoreAlignment(long mergedRunId) throws IOException {
+        if (!incremental)
+            throw new IllegalStateException("Restoring an alignment requires incremental mode.");
+        if (!samples.isEmpty())
+            throw new IllegalStateException("Alignment has to be restored before processing new samples.");
+        final AlignmentState state = siriusDatabaseAdapter.getAlignmentState(mergedRunId).orElseThrow(
+                () -> new IOException("No alignment state stored for merged run " + mergedRunId));
+        final MergedLCMSRun mergedRun = siriusDatabaseAdapter.getMergedRun(mergedRunId).orElseThrow(
+                () -> new IOException("Merged run " + mergedRunId + " does not exist."));
+
+        final List<ProcessedSample> restored = new ArrayList<>();
+        for (AlignmentState.AlignedSample s : state.getSamples()) {
+            final LCMSRun run = siriusDatabaseAdapter.getRun(s.getRunId()).orElseThrow(
+                    () -> new IOException("Run " + s.getRunId() + " does not exist."));
+            final ProcessedSample sample = openSample(s.getRunId(), s.getStorage(), s.getPolarity(), s.getSampleIdx());
+            sample.setRun(run);
+            final double normalizationFactor = s.getNormalizationFactor();
+            sample.setNormalizer(x -> x * normalizationFactor);
+            sample.setRtRecalibration(RecalibrationFunction.fromArray(s.getRtRecalibration()));
+            sample.setMzRecalibration(RecalibrationFunction.fromArray(s.getMzRecalibration()));
+            sample.inactive();
+            restored.add(sample);
+        }
+        final ProcessedSample merged = openSample(mergedRunId, state.getMergedStorage(), restored.isEmpty() ? 0 : restored.get(0).getPolarity(), state.getMergedSampleIdx());
+        merged.setRun(mergedRun);
+        for (ProcessedSample sample : restored) {
+            sample.setScanPointInterpolator(new ScanPointInterpolator(merged.getMapping(), sample.getMapping(), sample.getRtRecalibration()));
+        }
+
+        final AlignmentStatistics stats = new AlignmentStatistics();
+        stats.setExpectedMassDeviationBetweenSamples(new Deviation(state.getExpectedMassDeviationPpm(), state.getExpectedMassDeviationAbs()));
+        stats.setExpectedRetentionTimeDeviation(state.getExpectedRetentionTimeDeviation());
+        stats.setMinRt(state.getMinRt());
+        stats.setMaxRt(state.getMaxRt());
+        stats.setMinMz(state.getMinMz());
+        stats.setMaxMz(state.getMaxMz());
+        stats.setAverageNumberOfAlignments(state.getAverageNumberOfAlignments());
+        stats.setMedianNumberOfAlignments(state.getMedianNumberOfAlignments());
+        stats.setNumberOfAlignments25Quantile(state.getNumberOfAlignments25Quantile());
+        merged.getStorage().getAlignmentStorage().setStatistics(stats);
+
+        final List<ProcessedSample> all = new ArrayList<>(restored);
+        all.add(merged);
+        all.sort(Comparator.comparingInt(ProcessedSample::getUid));
+        for (ProcessedSample sample : all) {
+            samples.add(sample);
+            sampleByIdx.put(sample.getUid(), sample);
+        }
+        this.merged = merged;
+        this.alignmentBackbone = AlignmentBackbone.builder()
+                .samples(restored.toArray(ProcessedSample[]::new))
+                .scanPointMapping(merged.getMapping())
+                .statistics(stats)
+                .build();
+
+        ProjectSpaceImporter<Object> importer = (ProjectSpaceImporter<Object>) this.importer;
+        final Object importState = importer.initializeImport(siriusDatabaseAdapter);
+        for (ProcessedSample sample : restored) importer.importRun(siriusDatabaseAdapter, importState, sample);
+        importer.importMergedRun(siriusDatabaseAdapter, importState, merged);
+        this.importState = importState;
+
+        importedMergedTraces.clear();
+        for (AlignmentState.ImportedMergedTrace trace : state.getImportedMergedTraces()) {
+            importedMergedTraces.put(trace.getMergedTraceIdx(), MergedTraceImportAdapter.restore(siriusDatabaseAdapter, trace));
+        }
+    }
+
+    private ProcessedSample openSample(long runId, String storageName, int polarity, int uid) throws IOException {
+        final RetentionTimeAxis axis = siriusDatabaseAdapter.getRetentionTimeAxis(runId).orElseThrow(
+                () -> new IOException("No retention time axis stored for run " + runId));
+        final ScanPointMapping mapping = new ScanPointMapping(axis.getRetentionTimes(), axis.getScanIndizes(), axis.getScanIdentifiers());
+        final LCMSStorage storage = storageFactory.openExistingStorage(storageName);
+        storage.setMapping(mapping);
+        return new ProcessedSample(mapping, storage, polarity, uid);
+    }
+
     private SampleStatistics collectFinalStatistics(ProcessedSample merged, AlignmentBackbone alignmentBackbone) throws IOException {
         /*
          * this code relies on lazy evaluation of streams. If that is not the case we might have a huge memory peak here :/
@@ -385,14 +754,19 @@ public class LCMSProcessing {
     }
 
 
-    private void extractTraces(ProcessedSample sample) {
+    private void extractTraces(ProcessedSample sample, int slices) {
         final TracePicker tracePicker = new TracePicker(sample, traceCachingStrategy, segmentationStrategy);
         SampleStats statistics = sample.getStorage().getStatistics();
         tracePicker.setAllowedMassDeviation(sample.getStorage().getStatistics().getMs1MassDeviationWithinTraces());
-        traceDetectionStrategy.findPeaksForExtraction(sample, (sample1, spectrumIdx, peakIdx, spectrum) -> {
-            Optional<ContiguousTrace> peak = tracePicker.detectMostIntensivePeak(spectrumIdx, spectrum.getMzAt(peakIdx));
-            peak.ifPresent(p->tracker.tracePicked(p.averagedMz(), sample.getMapping().getRetentionTimeAt(p.apex()), sample, p));
-        });
+        if (slices > 1) {
+            new ParallelTraceExtraction(slices).extractTraces(sample, traceDetectionStrategy, tracePicker,
+                    p->tracker.tracePicked(p.averagedMz(), sample.getMapping().getRetentionTimeAt(p.apex()), sample, p));
+        } else {
+            traceDetectionStrategy.findPeaksForExtraction(sample, (sample1, spectrumIdx, peakIdx, spectrum) -> {
+                Optional<ContiguousTrace> peak = tracePicker.detectMostIntensivePeak(spectrumIdx, spectrum.getMzAt(peakIdx));
+                peak.ifPresent(p->tracker.tracePicked(p.averagedMz(), sample.getMapping().getRetentionTimeAt(p.apex()), sample, p));
+            });
+        }
         sample.getStorage().commit();
     }
 
@@ -12,6 +12,14 @@ public interface LCMSStorageFactory extends AutoCloseable {
         return createNewStorage();
     }
 
+    /**
+     * Opens a storage that was created by this factory before and kept after closing.
+     * @param name file name of the storage, see {@link LCMSStorage#getPersistentLocation()}
+     */
+    default LCMSStorage openExistingStorage(String name) throws IOException {
+        throw new UnsupportedOperationException("Storages of this factory are not kept after closing.");
+    }
+
     @Override
     default void close(){}
 }
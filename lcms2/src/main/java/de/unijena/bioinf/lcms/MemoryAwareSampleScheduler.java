@@ -0,0 +1,103 @@
+package de.unijena.bioinf.lcms;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * Decides how many samples are preprocessed concurrently. Each sample reserves an estimated amount of heap and
+ * off-heap memory before its processing starts and releases it as soon as it is finished and its storage is
+ * parked in low memory inactive mode. A sample is only admitted if its reservation fits into the remaining budget,
+ * but at least one sample is always admitted, such that large files are still processed (sequentially).
+ */
+@Slf4j
+public class MemoryAwareSampleScheduler {
+
+    /**
+     * heap memory we keep free for everything besides the preprocessing (e.g. the project database)
+     */
+    private static final long HEAP_RESERVE = 2048L * 1024 * 1024;
+
+    /**
+     * heap used while picking traces and estimating statistics, relative to the size of the input file
+     */
+    private static final double HEAP_PER_INPUT_BYTE = 0.5d;
+
+    /**
+     * page cache of a sample storage, see MVTraceStorage
+     */
+    private static final long STORAGE_CACHE = 1024L * 1024 * 1024;
+
+    public record Reservation(long heapBytes, long offHeapBytes) {
+    }
+
+    @Getter
+    private final long heapBudget, offHeapBudget;
+    @Getter
+    private final int maxConcurrentSamples;
+
+    private long heapInUse = 0, offHeapInUse = 0;
+    private int running = 0;
+
+    public MemoryAwareSampleScheduler(long heapBudget, long offHeapBudget, int maxConcurrentSamples) {
+        this.heapBudget = heapBudget;
+        this.offHeapBudget = offHeapBudget;
+        this.maxConcurrentSamples = Math.max(1, maxConcurrentSamples);
+    }
+
+    /**
+     * scheduler using the heap of this JVM and at most as many concurrent samples as CPU threads. The off-heap
+     * budget is set to the maximum heap size, which is the default limit of direct memory in the JVM.
+     */
+    public static MemoryAwareSampleScheduler forCurrentJvm() {
+        final long maxHeap = Runtime.getRuntime().maxMemory();
+        return new MemoryAwareSampleScheduler(Math.max(maxHeap / 2, maxHeap - HEAP_RESERVE), maxHeap,
+                SiriusJobs.getGlobalJobManager().getCPUThreads());
+    }
+
+    /**
+     * estimates the memory needed to preprocess the given file
+     *
+     * @param inMemoryStorage true if the storage of the sample is kept in (off-heap) memory instead of a file
+     */
+    public Reservation estimate(Path file, boolean inMemoryStorage) {
+        long size;
+        try {
+            size = Files.size(file);
+        } catch (IOException e) {
+            log.debug("Cannot determine size of {}", file, e);
+            size = 0;
+        }
+        final long cache = Math.min(STORAGE_CACHE, Math.max(16L * 1024 * 1024, heapBudget / maxConcurrentSamples / 2));
+        return new Reservation(cache + (long) (HEAP_PER_INPUT_BYTE * size), inMemoryStorage ? size : 0);
+    }
+
+    /**
+     * blocks until the given reservation fits into the memory budget
+     */
+    public synchronized void acquire(Reservation reservation) throws InterruptedException {
+        while (running > 0 && (running >= maxConcurrentSamples
+                || heapInUse + reservation.heapBytes > heapBudget
+                || offHeapInUse + reservation.offHeapBytes > offHeapBudget)) {
+            wait();
+        }
+        ++running;
+        heapInUse += reservation.heapBytes;
+        offHeapInUse += reservation.offHeapBytes;
+    }
+
+    public synchronized void release(Reservation reservation) {
+        --running;
+        heapInUse -= reservation.heapBytes;
+        offHeapInUse -= reservation.offHeapBytes;
+        notifyAll();
+    }
+
+    public synchronized int getRunningSamples() {
+        return running;
+    }
+}
@@ -18,7 +18,6 @@ import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
 
 import java.io.IOException;
 import java.util.Collections;
-import java.util.Iterator;
 import java.util.List;
 import java.util.Optional;
 
@@ -33,15 +32,11 @@ public class ProjectSpaceTraceProvider implements TraceProvider {
     @Override
     public Optional<MergedTrace> getMergeTrace(AbstractAlignedFeatures feature) {
         return feature.getTraceReference().map(id-> {
-            Iterator<MergedTrace> iter = null;
             try {
-                iter = storage.getStorage().find(Filter.where("mergedTraceId").eq(id.getTraceId()), MergedTrace.class).iterator();
+                return storage.getMergedTrace(id.getTraceId()).orElse(null);
             } catch (IOException e) {
                 throw new RuntimeException(e);
             }
-            if (iter.hasNext()) {
-                return iter.next();
-            } else return null;
         });
     }
 
@@ -51,12 +46,8 @@ public class ProjectSpaceTraceProvider implements TraceProvider {
         for (Feature f : getFeatures(features)) {
             if (f.getTraceReference().isPresent()) {
                 TraceRef traceRef = f.getTraceReference().get();
-                Iterator<SourceTrace> iter = null;
                 try {
-                    iter = storage.getStorage().find(Filter.where("sourceTraceId").eq(traceRef.getTraceId()), SourceTrace.class).iterator();
-                    if (iter.hasNext()) {
-                        traces.put(f.getRunId(), iter.next());
-                    }
+                    storage.getSourceTrace(traceRef.getTraceId()).ifPresent(trace -> traces.put(f.getRunId(), trace));
                 } catch (IOException e) {
                     throw new RuntimeException(e);
                 }
@@ -71,11 +62,10 @@ public class ProjectSpaceTraceProvider implements TraceProvider {
         for (Feature f : getFeatures(features)) {
             if (f.getTraceReference().isPresent() && f.getRunId()==runId) {
                 TraceRef traceRef = f.getTraceReference().get();
-                Iterator<SourceTrace> iter = null;
                 try {
-                    iter = storage.getStorage().find(Filter.where("sourceTraceId").eq(traceRef.getTraceId()), SourceTrace.class).iterator();
-                    if (iter.hasNext()) {
-                        return Optional.of(Pair.of(traceRef, iter.next()));
+                    Optional<SourceTrace> trace = storage.getSourceTrace(traceRef.getTraceId());
+                    if (trace.isPresent()) {
+                        return Optional.of(Pair.of(traceRef, trace.get()));
                     }
                 } catch (IOException e) {
                     throw new RuntimeException(e);
@@ -15,4 +15,12 @@ public interface AlignmentStrategy {
      */
     public AlignmentBackbone align(ProcessedSample merge, AlignmentBackbone backbone, List<ProcessedSample> samples, AlignmentAlgorithm algorithm, AlignmentThresholds thresholds, AlignmentScorer scorer, Tracker tracker);
 
+    /**
+     * Align the MoIs of samples that are not part of the backbone into an existing merge, without realigning or
+     * recalibrating the samples of the backbone. The new samples are recalibrated against the aligned MoIs of the merge.
+     * @param backbone the backbone returned by {@link #align}
+     * @return backbone containing the samples of the given backbone and the new samples
+     */
+    public AlignmentBackbone alignIncrementally(ProcessedSample merge, AlignmentBackbone backbone, List<ProcessedSample> newSamples, AlignmentAlgorithm algorithm, AlignmentThresholds thresholds, AlignmentScorer scorer, Tracker tracker);
+
 }
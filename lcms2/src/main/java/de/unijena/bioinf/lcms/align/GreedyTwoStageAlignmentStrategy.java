@@ -338,11 +338,9 @@ public class GreedyTwoStageAlignmentStrategy implements AlignmentStrategy{
     @Override
     public AlignmentBackbone align(ProcessedSample merge, AlignmentBackbone backbone, List<ProcessedSample> samples, AlignmentAlgorithm algorithm, AlignmentThresholds thresholds, AlignmentScorer scorer, Tracker tracker) {
         AlignmentStorage storage = merge.getStorage().getAlignmentStorage();
-        List<BasicJJob<Object>> todo = new ArrayList<>();
         // sort samples by number of confident annotations
         final AlignmentStatistics stats = backbone.getStatistics();
         samples.sort(Comparator.comparingInt((ProcessedSample x)->x.getTraceStats().getNumberOfHighQualityTraces()).reversed());
-        JobManager globalJobManager = SiriusJobs.getGlobalJobManager();
         final double[] bins = makeBins(stats.minMz, stats.maxMz);
         {
             storage.clearMoIs();
@@ -357,40 +355,7 @@ public class GreedyTwoStageAlignmentStrategy implements AlignmentStrategy{
         for (int k=1; k < samples.size(); ++k) {
             ProcessedSample S = samples.get(k);
             S.active();
-            for (int i=0; i < (bins.length-1); ++i) {
-                final double from = bins[i];
-                final double to = bins[i+1];
-                todo.add(globalJobManager.submitJob(new BasicJJob<Object>() {
-                    @Override
-                    protected Object compute() throws Exception {
-                        final MoI[] leftSet = storage.getMoIWithin(from, to).toArray(MoI[]::new);
-                        final MoI[] rightSet = S.getStorage().getAlignmentStorage().getMoIWithin(from, to).stream().
-                                toArray(MoI[]::new);
-                        if (leftSet.length>0 && rightSet.length > 0) {
-                            algorithm.align(stats, thresholds,scorer, backbone, leftSet, rightSet,
-                                    (al, left, right, leftIndex, rightIndex) -> {
-                                        storage.mergeMoIs(al, left[leftIndex], right[rightIndex]);
-                                        tracker.alignMois(S, left[leftIndex], right[rightIndex]);
-                                    },
-                                    (al, right, rightIndex) -> {
-                                        storage.addMoI(
-                                                AlignedMoI.merge(al, right[rightIndex])
-                                        );
-                                        tracker.unalignedMoI(S, right[rightIndex]);
-                                    }
-                            );
-                        } else {
-                            for (MoI m : rightSet) {
-                                storage.addMoI(AlignedMoI.merge(backbone, m));
-                                tracker.unalignedMoI(S, m);
-                            }
-                        }
-                        return true;
-                    };
-                }));
-            }
-            todo.forEach(JJob::takeResult);
-            todo.clear();
+            alignIntoMerge(storage, S, bins, algorithm, stats, thresholds, scorer, backbone, tracker);
             if (k > 10 && (k % 5 == 0)) cleanupOldMoIs(merge, samples, k, 5, tracker);
             S.inactive();
         }
@@ -456,6 +421,149 @@ public class GreedyTwoStageAlignmentStrategy implements AlignmentStrategy{
         return AlignmentBackbone.builder().statistics(stats).samples(samples.toArray(ProcessedSample[]::new)).build();
     }
 
+    @Override
+    public AlignmentBackbone alignIncrementally(ProcessedSample merge, AlignmentBackbone backbone, List<ProcessedSample> newSamples, AlignmentAlgorithm algorithm, AlignmentThresholds thresholds, AlignmentScorer scorer, Tracker tracker) {
+        final AlignmentStorage storage = merge.getStorage().getAlignmentStorage();
+        final AlignmentStatistics stats = backbone.getStatistics();
+        newSamples.sort(Comparator.comparingInt((ProcessedSample x)->x.getTraceStats().getNumberOfHighQualityTraces()).reversed());
+        // stage 1 for the new samples: recalibrate them against the MoIs that were used for the recalibration of the aligned samples
+        for (ProcessedSample S : newSamples) {
+            S.active();
+            final double[] err = recalibrateAgainstMerge(storage, merge.getMapping(), S, algorithm, thresholds, scorer);
+            LoggerFactory.getLogger(GreedyTwoStageAlignmentStrategy.class).debug("Incremental alignment: average alignment error of new sample is " + err[0]);
+            S.inactive();
+        }
+        final ProcessedSample[] allSamples = new ProcessedSample[backbone.getSamples().length + newSamples.size()];
+        System.arraycopy(backbone.getSamples(), 0, allSamples, 0, backbone.getSamples().length);
+        for (int k=0; k < newSamples.size(); ++k) allSamples[backbone.getSamples().length + k] = newSamples.get(k);
+        final AlignmentBackbone extended = AlignmentBackbone.builder().scanPointMapping(merge.getMapping()).samples(allSamples).statistics(stats).build();
+        // stage 2 for the new samples
+        double minMz = stats.minMz, maxMz = stats.maxMz;
+        for (ProcessedSample S : newSamples) {
+            minMz = Math.min(minMz, S.getTraceStats().getMinMz());
+            maxMz = Math.max(maxMz, S.getTraceStats().getMaxMz());
+        }
+        final double[] bins = makeBins(minMz, maxMz);
+        for (ProcessedSample S : newSamples) {
+            S.active();
+            alignIntoMerge(storage, S, bins, algorithm, stats, thresholds, scorer, extended, tracker);
+            S.inactive();
+        }
+        final IntOpenHashSet newSampleIds = new IntOpenHashSet();
+        for (ProcessedSample S : newSamples) newSampleIds.add(S.getUid());
+        final List<AlignedMoI> touched = new ArrayList<>();
+        for (MoI m : storage) {
+            if (m instanceof AlignedMoI && ((AlignedMoI) m).getAligned().length >= 2
+                    && Arrays.stream(((AlignedMoI) m).getAligned()).anyMatch(x -> newSampleIds.contains(x.getSampleIdx()))) {
+                touched.add((AlignedMoI) m);
+            }
+        }
+        final LongArrayList backboneMoisList = new LongArrayList();
+        for (AlignedMoI m : touched) {
+            storage.addMoI(m.finishMerging());
+            if (m.isSuitableForAlignment()) backboneMoisList.add(m.getUid());
+        }
+        // as in align(), the final recalibration of the new samples is computed from their alignments
+        final long[] backboneMois = backboneMoisList.toLongArray();
+        final HashMap<Integer, int[]> counts = getNumberOfSamplePointsPerRegions(storage, merge.getMapping(), Arrays.asList(extended.getSamples()), backboneMois);
+        for (ProcessedSample S : newSamples) {
+            recalibrateByAlignmentWithMzRecal(S, storage, backboneMois, counts);
+        }
+        cleanupOldMoIs(merge, newSamples, newSamples.size(), 0, tracker);
+        LoggerFactory.getLogger(GreedyTwoStageAlignmentStrategy.class).info("Incremental alignment: aligned " + newSamples.size() + " new samples into " + touched.size() + " aligned MoIs.");
+        return extended;
+    }
+
+    /**
+     * aligns the confident MoIs of the sample with the MoIs of the merge that are aligned over several samples and
+     * recalibrates the sample such that its retention times and masses match the ones of the merge.
+     * @return retention time error, m/z error, ppm error and absolute m/z error after recalibration
+     */
+    private double[] recalibrateAgainstMerge(AlignmentStorage storage, ScanPointMapping mergedMapping, ProcessedSample S, AlignmentAlgorithm algorithm, AlignmentThresholds thresholds, AlignmentScorer scorer) {
+        // the sample is not recalibrated yet, so we have to expect deviations as large as in the first stage
+        final AlignmentStatistics stats = collectStatistics(List.of(S));
+        final double[] bins = makeBins(stats.minMz, stats.maxMz);
+        final DoubleArrayList xs=new DoubleArrayList(), ys=new DoubleArrayList(), xs2 = new DoubleArrayList(), ys2 = new DoubleArrayList();
+        final List<BasicJJob<Object>> todo = new ArrayList<>();
+        for (int i=0; i < (bins.length-1); ++i) {
+            final double from = bins[i];
+            final double to = bins[i+1];
+            todo.add(SiriusJobs.getGlobalJobManager().submitJob(new BasicJJob<Object>() {
+                @Override
+                protected Object compute() throws Exception {
+                    final MoI[] leftSet = storage.getMoIWithin(from, to).stream().filter(x->x instanceof AlignedMoI
+                            && ((AlignedMoI) x).getAligned().length >= 2 && x.isSuitableForAlignment()).toArray(MoI[]::new);
+                    if (leftSet.length==0) return false;
+                    final MoI[] rightSet = S.getStorage().getAlignmentStorage().getMoIWithin(from, to).stream().
+                            filter(x->x.getConfidence()>=MassOfInterestConfidenceEstimatorStrategy.CONFIDENT && x.isSingleApex()).toArray(MoI[]::new);
+                    if (rightSet.length==0) return false;
+                    algorithm.align(stats, thresholds, scorer, AlignWithRecalibration.noRecalibration(), leftSet, rightSet,
+                            (al, left, right, leftIndex, rightIndex) -> {
+                                synchronized (xs) {
+                                    xs.add(right[rightIndex].getRetentionTime());
+                                    ys.add(left[leftIndex].getRetentionTime());
+                                    xs2.add(right[rightIndex].getMz());
+                                    ys2.add(left[leftIndex].getMz());
+                                }
+                            },
+                            (al, right, rightIndex) -> {}
+                    );
+                    return true;
+                }
+            }));
+        }
+        todo.forEach(JJob::takeResult);
+        // same region check as in getNumberOfSamplePointsPerRegions
+        final int MINBC = 3;
+        final int[] counts = new int[MINBC];
+        final double span = (mergedMapping.getRetentionTimeAt(mergedMapping.length()-1)-mergedMapping.getRetentionTimeAt(0))/MINBC;
+        for (int i=0; i < ys.size(); ++i) {
+            counts[Math.max(0, Math.min(MINBC-1, (int)(Math.round(ys.getDouble(i)-mergedMapping.getRetentionTimeAt(0))/span)))]++;
+        }
+        return recalibrateWithMzRecal(S, Arrays.stream(counts).min().orElse(0), xs, ys, xs2, ys2);
+    }
+
+    /**
+     * aligns all MoIs of the sample S into the merge storage. MoIs that cannot be aligned are added as new MoIs.
+     */
+    private void alignIntoMerge(AlignmentStorage storage, ProcessedSample S, double[] bins, AlignmentAlgorithm algorithm, AlignmentStatistics stats, AlignmentThresholds thresholds, AlignmentScorer scorer, AlignmentBackbone backbone, Tracker tracker) {
+        final JobManager globalJobManager = SiriusJobs.getGlobalJobManager();
+        final List<BasicJJob<Object>> todo = new ArrayList<>();
+        for (int i=0; i < (bins.length-1); ++i) {
+            final double from = bins[i];
+            final double to = bins[i+1];
+            todo.add(globalJobManager.submitJob(new BasicJJob<Object>() {
+                @Override
+                protected Object compute() throws Exception {
+                    final MoI[] leftSet = storage.getMoIWithin(from, to).toArray(MoI[]::new);
+                    final MoI[] rightSet = S.getStorage().getAlignmentStorage().getMoIWithin(from, to).stream().
+                            toArray(MoI[]::new);
+                    if (leftSet.length>0 && rightSet.length > 0) {
+                        algorithm.align(stats, thresholds,scorer, backbone, leftSet, rightSet,
+                                (al, left, right, leftIndex, rightIndex) -> {
+                                    storage.mergeMoIs(al, left[leftIndex], right[rightIndex]);
+                                    tracker.alignMois(S, left[leftIndex], right[rightIndex]);
+                                },
+                                (al, right, rightIndex) -> {
+                                    storage.addMoI(
+                                            AlignedMoI.merge(al, right[rightIndex])
+                                    );
+                                    tracker.unalignedMoI(S, right[rightIndex]);
+                                }
+                        );
+                    } else {
+                        for (MoI m : rightSet) {
+                            storage.addMoI(AlignedMoI.merge(backbone, m));
+                            tracker.unalignedMoI(S, m);
+                        }
+                    }
+                    return true;
+                };
+            }));
+        }
+        todo.forEach(JJob::takeResult);
+    }
+
 
     /**
      * we only do recalibration for samples for which we have enough data points distributed across the complete retention time
@@ -573,7 +681,6 @@ public class GreedyTwoStageAlignmentStrategy implements AlignmentStrategy{
     }
     private double[] recalibrateByAlignmentWithMzRecal(ProcessedSample sample, AlignmentStorage storage, long[] alignments, HashMap<Integer, int[]> bucketCounts) {
         final int minimumBuckSize;
-        double rtError=0d, rtErrorBeforeRecalibration, mzError=0d, mzPPMError=0d, mzAbsError=0d;
         {
             int minbc = Integer.MAX_VALUE;
             for (int c : bucketCounts.get(sample.getUid())) {
@@ -584,7 +691,16 @@ public class GreedyTwoStageAlignmentStrategy implements AlignmentStrategy{
 
         DoubleArrayList xs=new DoubleArrayList(), ys=new DoubleArrayList(), xs2 = new DoubleArrayList(), ys2 = new DoubleArrayList();
         populate(storage, xs, ys, xs2, ys2, alignments, sample.getUid());
+        return recalibrateWithMzRecal(sample, minimumBuckSize, xs, ys, xs2, ys2);
+    }
 
+    /**
+     * recalibrates retention time (xs to ys) and m/z (xs2 to ys2) of the sample
+     * @param minimumBuckSize minimum number of data points in a retention time region
+     * @return retention time error, m/z error, ppm error and absolute m/z error after recalibration
+     */
+    private double[] recalibrateWithMzRecal(ProcessedSample sample, int minimumBuckSize, DoubleArrayList xs, DoubleArrayList ys, DoubleArrayList xs2, DoubleArrayList ys2) {
+        double rtError=0d, mzError=0d, mzPPMError=0d, mzAbsError=0d;
         if (minimumBuckSize > 1 && minimumBuckSize < 25) {
             // linear recalibration
             PolynomialFunction medianLinearRecalibration, medianLinearRecalibrationMz;
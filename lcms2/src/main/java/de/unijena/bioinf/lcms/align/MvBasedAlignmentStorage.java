@@ -24,8 +24,11 @@ public class MvBasedAlignmentStorage implements AlignmentStorage {
 
     public MvBasedAlignmentStorage(MVStore store) {
         this.store = store;
-        this.ids = new AtomicInteger();
         this.mois = store.openMap("mois", new MVMap.Builder<Long,MoI>().valueType(new MoI.DataType()));
+        // the lower 30 bits of a key are the id, continue behind the largest one when the store is opened again
+        long maxId = 0;
+        for (long key : mois.keySet()) maxId = Math.max(maxId, key & ((1L<<30)-1));
+        this.ids = new AtomicInteger((int)maxId);
         this.statistics = null;
     }
 
@@ -1,11 +1,14 @@
 package de.unijena.bioinf.lcms.align;
 
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
 import org.apache.commons.lang3.Range;
 import org.apache.commons.math3.analysis.UnivariateFunction;
 import org.apache.commons.math3.analysis.function.Identity;
 import org.apache.commons.math3.analysis.polynomials.PolynomialFunction;
 import org.apache.commons.math3.analysis.polynomials.PolynomialSplineFunction;
 
+import java.util.Arrays;
+
 public class RecalibrationFunction implements UnivariateFunction {
     private final Range<Double> loessDomain;
     private final PolynomialSplineFunction loessFunction;
@@ -34,6 +37,48 @@ public class RecalibrationFunction implements UnivariateFunction {
         } else loessDomain=null;
     }
 
+    /**
+     * Encodes this function, such that it can be stored and restored with {@link #fromArray(double[])}. The array
+     * contains the coefficients of the linear function, followed by the knots of the loess function and the
+     * coefficients of its polynomials. Each of these blocks is prefixed by its length.
+     */
+    public double[] toArray() {
+        final DoubleArrayList values = new DoubleArrayList();
+        final double[] linear;
+        if (linearBackup instanceof Identity) linear = new double[]{0d, 1d};
+        else if (linearBackup instanceof PolynomialFunction p) linear = p.getCoefficients();
+        else throw new UnsupportedOperationException("Cannot encode recalibration function of type " + linearBackup.getClass());
+        addBlock(values, linear);
+        if (loessFunction != null) {
+            addBlock(values, loessFunction.getKnots());
+            for (PolynomialFunction p : loessFunction.getPolynomials()) addBlock(values, p.getCoefficients());
+        }
+        return values.toDoubleArray();
+    }
+
+    public static RecalibrationFunction fromArray(double[] values) {
+        int offset = 0;
+        final double[] linear = Arrays.copyOfRange(values, offset + 1, offset + 1 + (int) values[offset]);
+        offset += linear.length + 1;
+        if (offset >= values.length) {
+            return (linear.length == 2 && linear[0] == 0d && linear[1] == 1d) ? identity() : linear(new PolynomialFunction(linear));
+        }
+        final double[] knots = Arrays.copyOfRange(values, offset + 1, offset + 1 + (int) values[offset]);
+        offset += knots.length + 1;
+        final PolynomialFunction[] polynomials = new PolynomialFunction[knots.length - 1];
+        for (int k = 0; k < polynomials.length; ++k) {
+            final int length = (int) values[offset];
+            polynomials[k] = new PolynomialFunction(Arrays.copyOfRange(values, offset + 1, offset + 1 + length));
+            offset += length + 1;
+        }
+        return loess(new PolynomialSplineFunction(knots, polynomials), new PolynomialFunction(linear));
+    }
+
+    private static void addBlock(DoubleArrayList values, double[] block) {
+        values.add(block.length);
+        values.addAll(DoubleArrayList.wrap(block));
+    }
+
     public double value(double x) {
         if (loessDomain==null || !loessDomain.contains(x) ) {
             return linearBackup.value(x);
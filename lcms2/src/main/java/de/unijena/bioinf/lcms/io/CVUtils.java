@@ -27,15 +27,20 @@ import java.util.HashMap;
 public class CVUtils {
 
     public static double getTimeInSeconds(CVParam param) {
+        if (param.getUnitAccession()==null && param.getUnitName()==null)
+            throw new IllegalArgumentException("Unknown time unit for " + param);
+        return getTimeInSeconds(param.getValue(), param.getUnitAccession(), param.getUnitName());
+    }
+
+    public static double getTimeInSeconds(String value, String unitAccession, String unitName) {
         TimeUnit timeUnit;
-        if (param.getUnitAccession()!=null) {
-            timeUnit = getTimeUnit(param.getUnitAccession());
-        } else if (param.getUnitName()!=null) {
-            timeUnit = getTimeUnit(param.getUnitName());
+        if (unitAccession!=null) {
+            timeUnit = getTimeUnit(unitAccession);
+        } else if (unitName!=null) {
+            timeUnit = getTimeUnit(unitName);
         } else {
-            throw new IllegalArgumentException("Unknown time unit for " + param);
+            throw new IllegalArgumentException("Unknown time unit for time value " + value);
         }
-        String value = param.getValue();
         return Double.parseDouble(value) * timeUnit.inSeconds;
     }
 
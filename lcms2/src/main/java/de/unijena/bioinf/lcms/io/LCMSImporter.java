@@ -26,6 +26,7 @@ import de.unijena.bioinf.lcms.projectspace.SiriusDatabaseAdapter;
 import de.unijena.bioinf.lcms.trace.ProcessedSample;
 import de.unijena.bioinf.ms.persistence.model.core.run.Chromatography;
 import de.unijena.bioinf.ms.persistence.model.core.run.LCMSRun;
+import de.unijena.bioinf.ms.properties.PropertyManager;
 
 import java.io.IOException;
 import java.net.URI;
@@ -33,6 +34,15 @@ import java.nio.file.Path;
 
 public class LCMSImporter {
 
+    /**
+     * The streaming {@link MzMLStaxParser} is opt-in until it has proven to produce the same samples as the jmzml
+     * based {@link MzMLParser} on real world data.
+     */
+    private static LCMSParser mzMLParser() {
+        return PropertyManager.getBoolean("de.unijena.bioinf.lcms.mzml.streamingParser", false)
+                ? new MzMLStaxParser() : new MzMLParser();
+    }
+
     public static ProcessedSample importToProject(
             Path file,
             LCMSStorageFactory storageFactory,
@@ -43,7 +53,7 @@ public class LCMSImporter {
     ) throws IOException {
         LCMSParser parser;
         if (file.toString().toLowerCase().endsWith(".mzml")) {
-            parser = new MzMLParser();
+            parser = mzMLParser();
         } else if (file.toString().toLowerCase().endsWith(".mzxml")) {
             parser = new MzXMLParser();
         } else {
@@ -82,7 +92,7 @@ public class LCMSImporter {
     ) throws IOException {
         LCMSParser parser;
         if (source.getPath().toLowerCase().endsWith(".mzml")) {
-            parser = new MzMLParser();
+            parser = mzMLParser();
         } else if (source.getPath().toLowerCase().endsWith(".mzxml")) {
             parser = new MzXMLParser();
         } else {
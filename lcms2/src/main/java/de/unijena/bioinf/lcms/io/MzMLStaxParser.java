@@ -0,0 +1,790 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.lcms.io;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.ChemistryBase.ms.CollisionEnergy;
+import de.unijena.bioinf.ChemistryBase.ms.IsolationWindow;
+import de.unijena.bioinf.ChemistryBase.ms.lcms.MsDataSourceReference;
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import de.unijena.bioinf.ChemistryBase.ms.utils.Spectrums;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JJob;
+import de.unijena.bioinf.lcms.LCMSStorageFactory;
+import de.unijena.bioinf.lcms.ScanPointMapping;
+import de.unijena.bioinf.lcms.spectrum.Ms1SpectrumHeader;
+import de.unijena.bioinf.lcms.spectrum.Ms2SpectrumHeader;
+import de.unijena.bioinf.lcms.trace.LCMSStorage;
+import de.unijena.bioinf.lcms.trace.ProcessedSample;
+import de.unijena.bioinf.ms.persistence.model.core.run.Fragmentation;
+import de.unijena.bioinf.ms.persistence.model.core.run.Ionization;
+import de.unijena.bioinf.ms.persistence.model.core.run.LCMSRun;
+import de.unijena.bioinf.ms.persistence.model.core.run.MassAnalyzer;
+import de.unijena.bioinf.ms.persistence.model.core.scan.MSMSScan;
+import de.unijena.bioinf.ms.persistence.model.core.scan.Scan;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.ints.Int2IntMap;
+import it.unimi.dsi.fastutil.ints.Int2IntOpenHashMap;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.objects.Object2IntOpenHashMap;
+import lombok.extern.slf4j.Slf4j;
+import org.jetbrains.annotations.Nullable;
+
+import javax.xml.stream.XMLInputFactory;
+import javax.xml.stream.XMLStreamConstants;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamReader;
+import java.io.BufferedInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URI;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+import java.util.stream.Collectors;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+
+/**
+ * Streaming mzML parser based on StAX. In contrast to {@link MzMLParser}, the file is read in a single pass without
+ * building an object model or an index of the file and without copying files from non default file systems.
+ * The binary data arrays of the spectra are decoded (base64, zlib) in parallel in batches, while the next batch
+ * is read from the file. The spectra are processed in the order they appear in the file, such that the resulting
+ * {@link ProcessedSample} is identical to the one of {@link MzMLParser}.
+ */
+@Slf4j
+public class MzMLStaxParser implements LCMSParser {
+
+    private static final Pattern SUFFIX = Pattern.compile("\\.mzml$", Pattern.CASE_INSENSITIVE);
+
+    private static final Pattern SCAN_PATTERN = Pattern.compile("scan=(\\d+)");
+
+    /**
+     * number of spectra that are decoded together
+     */
+    private static final int BATCH_SIZE = 256;
+
+    private int noScanIDCount = 0;
+
+    @Override
+    public ProcessedSample parse(
+            URI input,
+            LCMSStorageFactory storageFactory,
+            LCMSParser.IOThrowingConsumer<LCMSRun> runConsumer,
+            LCMSParser.IOThrowingConsumer<LCMSRun> runUpdateConsumer,
+            @Nullable LCMSParser.IOThrowingConsumer<Scan> scanConsumer,
+            @Nullable LCMSParser.IOThrowingConsumer<MSMSScan> msmsScanConsumer,
+            LCMSRun run
+    ) throws IOException {
+        URI parent = input.getPath().endsWith("/") ? input.resolve("..") : input.resolve(".");
+        String fileName = parent.relativize(input).toString();
+        try (InputStream stream = new BufferedInputStream(input.toURL().openStream(), 1 << 16)) {
+            return parse(parent, fileName, stream, storageFactory, runConsumer, runUpdateConsumer, scanConsumer, msmsScanConsumer, run);
+        }
+    }
+
+    @Override
+    public ProcessedSample parse(
+            Path input,
+            LCMSStorageFactory storageFactory,
+            LCMSParser.IOThrowingConsumer<LCMSRun> runConsumer,
+            LCMSParser.IOThrowingConsumer<LCMSRun> runUpdateConsumer,
+            @Nullable LCMSParser.IOThrowingConsumer<Scan> scanConsumer,
+            @Nullable LCMSParser.IOThrowingConsumer<MSMSScan> msmsScanConsumer,
+            LCMSRun run
+    ) throws IOException {
+        try (InputStream stream = new BufferedInputStream(Files.newInputStream(input), 1 << 16)) {
+            return parse(input.toAbsolutePath().getParent().toUri(), input.getFileName().toString(), stream, storageFactory, runConsumer, runUpdateConsumer, scanConsumer, msmsScanConsumer, run);
+        }
+    }
+
+    private ProcessedSample parse(
+            URI parent,
+            String fileName,
+            InputStream stream,
+            LCMSStorageFactory storageFactory,
+            LCMSParser.IOThrowingConsumer<LCMSRun> runConsumer,
+            LCMSParser.IOThrowingConsumer<LCMSRun> runUpdateConsumer,
+            @Nullable LCMSParser.IOThrowingConsumer<Scan> scanConsumer,
+            @Nullable LCMSParser.IOThrowingConsumer<MSMSScan> msmsScanConsumer,
+            LCMSRun run
+    ) throws IOException {
+        try {
+            final XMLInputFactory factory = XMLInputFactory.newInstance();
+            factory.setProperty(XMLInputFactory.SUPPORT_DTD, false);
+            factory.setProperty(XMLInputFactory.IS_SUPPORTING_EXTERNAL_ENTITIES, false);
+            final XMLStreamReader reader = factory.createXMLStreamReader(stream);
+            try {
+                return new Import(parent, fileName, reader, storageFactory.createNewStorage(), runConsumer, runUpdateConsumer, scanConsumer, msmsScanConsumer, run).read();
+            } finally {
+                reader.close();
+            }
+        } catch (Exception e) {
+            log.error("Cannot parse input file {}.", parent.resolve(fileName), e);
+            throw new IOException("Cannot parse input file " + parent.resolve(fileName), e);
+        }
+    }
+
+    private int parseScanNumber(@Nullable String sid, int index) {
+        if (sid == null || sid.isEmpty())
+            return index;
+
+        Matcher m = SCAN_PATTERN.matcher(sid);
+        if (m.find()) {
+            return Integer.parseInt(m.group(1));
+        } else {
+            if (noScanIDCount == 0) {
+                log.warn("Spectrum has no valid scan ID. Using index instead. This won't effect the preprocessing at all, but might complicate mapping back the processed spectra to their raw datapoints.");
+            }
+            ++noScanIDCount;
+            return index;
+        }
+    }
+
+    private record Param(boolean cv, String accession, String name, String value, String unitAccession, String unitName) {
+        @Override
+        public String toString() {
+            return accession + " " + name + (value != null && !value.isEmpty() ? " = " + value : "");
+        }
+    }
+
+    /**
+     * encoded binary data array of a spectrum
+     */
+    private static class BinaryArray {
+        private boolean mz, intensity;
+        private boolean zlib, integer;
+        private int bytesPerValue = 8;
+        @Nullable private String unsupportedCompression;
+        private String content;
+    }
+
+    /**
+     * everything of a spectrum element we need, the binary arrays are decoded later in a batch
+     */
+    private static class RawSpectrum {
+        private String id;
+        private int index;
+        private int arrayLength;
+
+        private final List<Param> params = new ArrayList<>();
+        private final List<Param> scanParams = new ArrayList<>();
+        private final List<BinaryArray> arrays = new ArrayList<>(2);
+
+        private int precursors = 0;
+        @Nullable private String spectrumRef;
+        @Nullable private List<Param> isolationWindowParams;
+        @Nullable private List<Param> selectedIonParams;
+        @Nullable private List<Param> activationParams;
+
+        private double[] mzArray, intArray;
+
+        private void decode() {
+            for (BinaryArray array : arrays) {
+                if (!array.mz && !array.intensity) continue;
+                if (array.unsupportedCompression != null) {
+                    log.warn("Unsupported compression {} in spectrum with id: {}", array.unsupportedCompression, id);
+                    continue;
+                }
+                final double[] values = decode(array, arrayLength);
+                if (array.mz) mzArray = values;
+                else intArray = values;
+            }
+            // free the encoded data as early as possible
+            arrays.clear();
+        }
+
+        private static double[] decode(BinaryArray array, int expectedLength) {
+            if (array.content == null || array.content.isEmpty())
+                return new double[0];
+            byte[] bytes = Base64.getMimeDecoder().decode(array.content);
+            if (array.zlib)
+                bytes = inflate(bytes, expectedLength * array.bytesPerValue);
+            final ByteBuffer buffer = ByteBuffer.wrap(bytes).order(ByteOrder.LITTLE_ENDIAN);
+            final double[] values = new double[bytes.length / array.bytesPerValue];
+            if (array.integer) {
+                if (array.bytesPerValue == 4) for (int i = 0; i < values.length; ++i) values[i] = buffer.getInt();
+                else for (int i = 0; i < values.length; ++i) values[i] = buffer.getLong();
+            } else {
+                if (array.bytesPerValue == 4) for (int i = 0; i < values.length; ++i) values[i] = buffer.getFloat();
+                else for (int i = 0; i < values.length; ++i) values[i] = buffer.getDouble();
+            }
+            return values;
+        }
+
+        private static byte[] inflate(byte[] compressed, int expectedSize) {
+            final Inflater inflater = new Inflater();
+            try {
+                inflater.setInput(compressed);
+                byte[] out = new byte[Math.max(expectedSize, 64)];
+                int size = 0;
+                while (!inflater.finished()) {
+                    if (size == out.length) out = Arrays.copyOf(out, out.length * 2);
+                    final int written = inflater.inflate(out, size, out.length - size);
+                    if (written == 0 && (inflater.needsInput() || inflater.needsDictionary())) break;
+                    size += written;
+                }
+                return size == out.length ? out : Arrays.copyOf(out, size);
+            } catch (DataFormatException e) {
+                throw new IllegalArgumentException("Invalid zlib compressed binary data array.", e);
+            } finally {
+                inflater.end();
+            }
+        }
+    }
+
+    /**
+     * state of a single import
+     */
+    private class Import {
+        private final URI parent;
+        private final String fileName;
+        private final XMLStreamReader reader;
+        private final LCMSStorage storage;
+        private final LCMSParser.IOThrowingConsumer<LCMSRun> runConsumer;
+        private final LCMSParser.IOThrowingConsumer<LCMSRun> runUpdateConsumer;
+        @Nullable private final LCMSParser.IOThrowingConsumer<Scan> scanConsumer;
+        @Nullable private final LCMSParser.IOThrowingConsumer<MSMSScan> msmsScanConsumer;
+        private final LCMSRun run;
+
+        private final Map<String, List<Param>> paramGroups = new HashMap<>();
+        private final Object2IntOpenHashMap<String> spectrumIndices = new Object2IntOpenHashMap<>();
+
+        private String mzMlId;
+        private Ionization ionization = null;
+        private Fragmentation fragmentation = null;
+        private final List<MassAnalyzer> massAnalyzers = new ArrayList<>();
+        private boolean runStarted = false;
+
+        private int samplePolarity = 0;
+        private final ArrayList<String> surpressEmptySpectrumLog = new ArrayList<>();
+        private final DoubleArrayList retentionTimes = new DoubleArrayList();
+        private final IntArrayList scanids = new IntArrayList();
+        private final ArrayList<String> scanIdentifiers = new ArrayList<>();
+        private final Int2IntMap idmap = new Int2IntOpenHashMap();
+
+        private Import(URI parent, String fileName, XMLStreamReader reader, LCMSStorage storage, IOThrowingConsumer<LCMSRun> runConsumer, IOThrowingConsumer<LCMSRun> runUpdateConsumer, @Nullable IOThrowingConsumer<Scan> scanConsumer, @Nullable IOThrowingConsumer<MSMSScan> msmsScanConsumer, LCMSRun run) {
+            this.parent = parent;
+            this.fileName = fileName;
+            this.reader = reader;
+            this.storage = storage;
+            this.runConsumer = runConsumer;
+            this.runUpdateConsumer = runUpdateConsumer;
+            this.scanConsumer = scanConsumer;
+            this.msmsScanConsumer = msmsScanConsumer;
+            this.run = run;
+            this.spectrumIndices.defaultReturnValue(-1);
+        }
+
+        private ProcessedSample read() throws XMLStreamException, IOException {
+            List<RawSpectrum> batch = new ArrayList<>(BATCH_SIZE);
+            List<RawSpectrum> pendingBatch = null;
+            List<JJob<?>> pendingJobs = null;
+
+            while (reader.hasNext()) {
+                if (reader.next() != XMLStreamConstants.START_ELEMENT) continue;
+                switch (reader.getLocalName()) {
+                    case "mzML" -> mzMlId = reader.getAttributeValue(null, "id");
+                    case "referenceableParamGroup" -> paramGroups.put(reader.getAttributeValue(null, "id"), readParams("referenceableParamGroup"));
+                    case "instrumentConfiguration" -> readInstrumentConfiguration();
+                    case "run" -> startRun(reader.getAttributeValue(null, "id"));
+                    case "spectrum" -> {
+                        if (!runStarted) startRun(null);
+                        batch.add(readSpectrum());
+                        if (batch.size() >= BATCH_SIZE) {
+                            // decode this batch in background while the previous one is stored and the next one is read
+                            final List<JJob<?>> jobs = submitDecoding(batch);
+                            if (pendingBatch != null) processBatch(pendingBatch, pendingJobs);
+                            pendingBatch = batch;
+                            pendingJobs = jobs;
+                            batch = new ArrayList<>(BATCH_SIZE);
+                        }
+                    }
+                }
+            }
+            if (!runStarted) startRun(null);
+            if (pendingBatch != null) processBatch(pendingBatch, pendingJobs);
+            processBatch(batch, submitDecoding(batch));
+
+            return finish();
+        }
+
+        private void startRun(@Nullable String runId) throws IOException {
+            if (runStarted) return;
+            runStarted = true;
+            run.setSourceReference(new MsDataSourceReference(parent, fileName, runId, mzMlId));
+            if (runId != null && !runId.isBlank()) {
+                run.setName(runId);
+            } else if (mzMlId != null && !mzMlId.isBlank()) {
+                run.setName(mzMlId);
+            } else {
+                run.setName(SUFFIX.matcher(fileName).replaceAll(""));
+            }
+            run.setIonization(ionization);
+            run.setMassAnalyzers(!massAnalyzers.isEmpty() ? massAnalyzers : null);
+            runConsumer.consume(run);
+        }
+
+        //region reading
+        private boolean isParam(String elementName) {
+            return elementName.equals("cvParam") || elementName.equals("userParam") || elementName.equals("referenceableParamGroupRef");
+        }
+
+        /**
+         * reads a param element, referenceable param groups are resolved to their params
+         */
+        private void readParam(String elementName, List<Param> params) {
+            switch (elementName) {
+                case "cvParam" -> params.add(new Param(true,
+                        reader.getAttributeValue(null, "accession"),
+                        reader.getAttributeValue(null, "name"),
+                        reader.getAttributeValue(null, "value"),
+                        reader.getAttributeValue(null, "unitAccession"),
+                        reader.getAttributeValue(null, "unitName")));
+                case "userParam" -> params.add(new Param(false,
+                        null,
+                        reader.getAttributeValue(null, "name"),
+                        reader.getAttributeValue(null, "value"),
+                        reader.getAttributeValue(null, "unitAccession"),
+                        reader.getAttributeValue(null, "unitName")));
+                case "referenceableParamGroupRef" -> {
+                    final List<Param> group = paramGroups.get(reader.getAttributeValue(null, "ref"));
+                    if (group != null) params.addAll(group);
+                }
+            }
+        }
+
+        /**
+         * reads all params that are direct children of the current element
+         */
+        private List<Param> readParams(String elementName) throws XMLStreamException {
+            final List<Param> params = new ArrayList<>();
+            int depth = 0;
+            while (reader.hasNext()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.START_ELEMENT) {
+                    if (depth == 0 && isParam(reader.getLocalName())) readParam(reader.getLocalName(), params);
+                    ++depth;
+                } else if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (depth == 0 && reader.getLocalName().equals(elementName)) break;
+                    --depth;
+                }
+            }
+            return params;
+        }
+
+        private void readInstrumentConfiguration() throws XMLStreamException {
+            Ionization configIonization = null;
+            while (reader.hasNext()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT && reader.getLocalName().equals("instrumentConfiguration"))
+                    break;
+                if (event != XMLStreamConstants.START_ELEMENT) continue;
+                switch (reader.getLocalName()) {
+                    case "source" -> {
+                        final List<Param> params = readParams("source");
+                        if (configIonization == null)
+                            configIonization = params.stream().filter(Param::cv).map(p -> Ionization.byHupoId(p.accession()).or(() -> Ionization.byValue(p.name())))
+                                    .flatMap(Optional::stream).findFirst().orElse(null);
+                        if (configIonization == null && ionization == null)
+                            configIonization = params.stream().filter(p -> !p.cv() && !isParamValueNull(p)).map(p -> Ionization.byValue(p.value()))
+                                    .flatMap(Optional::stream).findFirst().orElse(null);
+                    }
+                    case "analyzer" -> {
+                        final List<Param> params = readParams("analyzer");
+                        params.stream().filter(Param::cv).map(p -> MassAnalyzer.byHupoId(p.accession()).or(() -> MassAnalyzer.byValue(p.name())))
+                                .flatMap(Optional::stream).findFirst()
+                                .or(() -> params.stream().filter(p -> !p.cv() && !isParamValueNull(p)).map(p -> MassAnalyzer.byValue(p.value())).flatMap(Optional::stream).findFirst())
+                                .ifPresent(massAnalyzers::add);
+                    }
+                }
+            }
+            if (configIonization != null) ionization = configIonization;
+        }
+
+        private RawSpectrum readSpectrum() throws XMLStreamException {
+            final RawSpectrum spectrum = new RawSpectrum();
+            spectrum.id = reader.getAttributeValue(null, "id");
+            spectrum.index = Integer.parseInt(reader.getAttributeValue(null, "index"));
+            final String length = reader.getAttributeValue(null, "defaultArrayLength");
+            spectrum.arrayLength = length != null ? Integer.parseInt(length) : 0;
+            if (spectrum.id != null) spectrumIndices.put(spectrum.id, spectrum.index);
+
+            final ArrayDeque<String> path = new ArrayDeque<>();
+            int scans = 0, selectedIons = 0;
+            BinaryArray array = null;
+            while (reader.hasNext()) {
+                final int event = reader.next();
+                if (event == XMLStreamConstants.END_ELEMENT) {
+                    if (path.isEmpty()) break; // end of spectrum
+                    path.pop();
+                    continue;
+                }
+                if (event != XMLStreamConstants.START_ELEMENT) continue;
+
+                final String name = reader.getLocalName();
+                final String context = path.isEmpty() ? "spectrum" : path.peek();
+                if (isParam(name)) {
+                    switch (context) {
+                        case "spectrum" -> readParam(name, spectrum.params);
+                        case "scan" -> {
+                            if (scans == 1) readParam(name, spectrum.scanParams);
+                        }
+                        case "isolationWindow" -> {
+                            if (spectrum.precursors == 1) readParam(name, spectrum.isolationWindowParams);
+                        }
+                        case "selectedIon" -> {
+                            if (spectrum.precursors == 1 && selectedIons == 1) readParam(name, spectrum.selectedIonParams);
+                        }
+                        case "activation" -> {
+                            if (spectrum.precursors == 1) readParam(name, spectrum.activationParams);
+                        }
+                        case "binaryDataArray" -> {
+                            final List<Param> params = new ArrayList<>(2);
+                            readParam(name, params);
+                            for (Param p : params) describeArray(array, p);
+                        }
+                    }
+                } else {
+                    switch (name) {
+                        case "scan" -> ++scans;
+                        case "precursor" -> {
+                            if (++spectrum.precursors == 1) {
+                                spectrum.spectrumRef = reader.getAttributeValue(null, "spectrumRef");
+                                spectrum.activationParams = new ArrayList<>();
+                            }
+                        }
+                        case "isolationWindow" -> {
+                            if (spectrum.precursors == 1) spectrum.isolationWindowParams = new ArrayList<>();
+                        }
+                        case "selectedIon" -> {
+                            if (spectrum.precursors == 1 && ++selectedIons == 1) spectrum.selectedIonParams = new ArrayList<>();
+                        }
+                        case "binaryDataArray" -> {
+                            array = new BinaryArray();
+                            spectrum.arrays.add(array);
+                        }
+                        case "binary" -> {
+                            // consumes the end element
+                            final String content = reader.getElementText();
+                            if (array != null) array.content = content;
+                            continue;
+                        }
+                    }
+                }
+                path.push(name);
+            }
+            return spectrum;
+        }
+
+        private void describeArray(BinaryArray array, Param p) {
+            if (array == null || !p.cv()) return;
+            switch (p.accession()) {
+                case "MS:1000514" -> array.mz = true; // m/z array
+                case "MS:1000515" -> array.intensity = true; // intensity array
+                case "MS:1000521" -> { // 32-bit float
+                    array.bytesPerValue = 4;
+                    array.integer = false;
+                }
+                case "MS:1000523" -> { // 64-bit float
+                    array.bytesPerValue = 8;
+                    array.integer = false;
+                }
+                case "MS:1000519" -> { // 32-bit integer
+                    array.bytesPerValue = 4;
+                    array.integer = true;
+                }
+                case "MS:1000522" -> { // 64-bit integer
+                    array.bytesPerValue = 8;
+                    array.integer = true;
+                }
+                case "MS:1000574" -> array.zlib = true; // zlib compression
+                case "MS:1000576" -> array.zlib = false; // no compression
+                default -> {
+                    // any other compression, e.g. MS-Numpress
+                    if (p.name() != null && p.name().toLowerCase(Locale.ROOT).contains("compression"))
+                        array.unsupportedCompression = p.accession() + " " + p.name();
+                }
+            }
+        }
+        //endregion
+
+        //region processing
+        private List<JJob<?>> submitDecoding(List<RawSpectrum> batch) {
+            final int threads = Math.max(1, SiriusJobs.getGlobalJobManager().getCPUThreads());
+            final int chunkSize = Math.max(16, (batch.size() + threads - 1) / threads);
+            final List<JJob<?>> jobs = new ArrayList<>();
+            for (int from = 0; from < batch.size(); from += chunkSize) {
+                final List<RawSpectrum> chunk = batch.subList(from, Math.min(batch.size(), from + chunkSize));
+                jobs.add(SiriusJobs.getGlobalJobManager().submitJob(new BasicJJob<Object>() {
+                    @Override
+                    protected Object compute() {
+                        chunk.forEach(RawSpectrum::decode);
+                        return true;
+                    }
+                }));
+            }
+            return jobs;
+        }
+
+        private void processBatch(List<RawSpectrum> batch, List<JJob<?>> jobs) throws IOException {
+            jobs.forEach(JJob::takeResult);
+            for (RawSpectrum spectrum : batch)
+                process(spectrum);
+        }
+
+        private void process(RawSpectrum spectrum) throws IOException {
+            final String sid = spectrum.id;
+            Polarity polarity = Polarity.UNKNOWN;
+            byte msLevel = 0;
+            double ccs = Double.NaN;
+            boolean centroided = true;
+            final List<Param> skipList = new ArrayList<>();
+            for (Param cvParam : spectrum.params) {
+                if (!cvParam.cv()) continue;
+                switch (cvParam.accession()) {
+                    case "MS:1000129", "MS:1000076" -> polarity = Polarity.NEGATIVE;
+                    case "MS:1000130", "MS:1000077" -> polarity = Polarity.POSITIVE;
+                    case "MS:1000511" -> msLevel = Byte.parseByte(cvParam.value());
+                    case "MS:1002954" -> ccs = Double.parseDouble(cvParam.value());
+                    case "MS:1000128" -> centroided = false;
+                    // skip this scan
+                    case "MS:1000804" -> skipList.add(cvParam);
+                }
+            }
+
+            if (!skipList.isEmpty()) {
+                log.error("Spectrum with ID '{}' contains parameters that indicate non Mass Spectrometry data (e.g. EMR spectra). Skipping! Parameters: {}", sid, skipList.stream().map(Param::accession).collect(Collectors.joining(", ")));
+                return;
+            }
+            if (msLevel < 1 && polarity == Polarity.UNKNOWN) {
+                log.error("Spectrum with ID '{}' does neither contain mslevel nor polarity information. Spectrum is likely to not be an Mass Spectrum. Skipping this entry.{}Spectrum information: {}", sid, System.lineSeparator(), spectrum.params.stream().filter(Param::cv).map(Param::toString).collect(Collectors.joining(System.lineSeparator())));
+                return;
+            }
+
+            msLevel = (byte) Math.max(1, msLevel);
+
+            double rt = 0d;
+            for (Param cvParam : spectrum.scanParams) {
+                if (!cvParam.cv()) continue;
+                switch (cvParam.accession()) {
+                    case "MS:1000016" -> rt = CVUtils.getTimeInSeconds(cvParam.value(), cvParam.unitAccession(), cvParam.unitName());
+                    case "MS:1002954" -> ccs = Double.parseDouble(cvParam.value());
+                }
+            }
+
+            final double[] mzArray = spectrum.mzArray, intArray = spectrum.intArray;
+            spectrum.mzArray = null;
+            spectrum.intArray = null;
+            if (mzArray == null || intArray == null || mzArray.length != intArray.length || mzArray.length == 0) {
+                logEmptySpectrum(spectrum);
+                return;
+            }
+
+            SimpleSpectrum peaks = Spectrums.getBaselined(Spectrums.wrap(mzArray, intArray), 0);
+            if (samplePolarity == 0) {
+                samplePolarity = polarity.charge;
+            } else if (polarity.charge != 0 && (polarity.charge > 0) != (samplePolarity > 0)) {
+                throw new RuntimeException("Preprocessing does not support LCMS runs with different polarities.");
+            }
+
+            if (peaks.isEmpty()) {
+                logEmptySpectrum(spectrum);
+                return;
+            }
+
+            if (msLevel == 1) {
+                if (scanConsumer != null) {
+                    Scan scan = Scan.builder()
+                            .runId(run.getRunId())
+                            .sourceScanId(sid)
+                            .scanTime(rt)
+                            .peaks(peaks)
+                            .centroided(centroided)
+                            .ccs(ccs)
+                            .build();
+
+                    scanConsumer.consume(scan);
+                    peaks = scan.getPeaks();
+                }
+
+                final Ms1SpectrumHeader header = new Ms1SpectrumHeader(scanids.size(), parseScanNumber(sid, spectrum.index), sid, polarity.charge, true);
+                retentionTimes.add(rt);
+                idmap.put(header.getScanId(), scanids.size());
+                scanids.add(header.getScanId());
+                if (sid == null || sid.startsWith("scan=")) {
+                    scanIdentifiers.add(null);
+                } else scanIdentifiers.add(sid);
+                storage.getSpectrumStorage().addSpectrum(header, peaks);
+
+            } else {
+                if (spectrum.precursors == 0) {
+                    log.error("No precursor information given for MS/MS spectrum with id: {} Skipping!", sid);
+                    return;
+                }
+                final List<Param> activation = spectrum.activationParams;
+                double collisionEnergy = activation.stream().filter(cv -> cv.cv() && cv.accession().equals("MS:1000045"))
+                        .findFirst().map(cv -> Double.parseDouble(cv.value())).orElse(Double.NaN);
+
+                if (fragmentation == null) {
+                    fragmentation = activation.stream().filter(Param::cv).map(p -> Fragmentation.byHupoId(p.accession()).or(() -> Fragmentation.byValue(p.name())))
+                            .flatMap(Optional::stream).findFirst()
+                            .or(() -> activation.stream().filter(p -> !p.cv() && !isParamValueNull(p)).map(p -> Fragmentation.byValue(p.value())).flatMap(Optional::stream).findFirst())
+                            .orElse(null);
+                }
+
+                Precursor prec = makePrecursor(spectrum);
+
+                if (msmsScanConsumer != null) {
+                    MSMSScan build = MSMSScan.builder()
+                            .runId(run.getRunId())
+                            .scanNumber(sid)
+                            .scanTime(rt)
+                            .peaks(peaks)
+                            .msLevel(msLevel)
+                            .ccs(ccs)
+                            .centroided(centroided)
+                            .collisionEnergy(Double.isFinite(collisionEnergy) ? new CollisionEnergy(collisionEnergy) : CollisionEnergy.none())
+                            .mzOfInterest(prec.getMass())
+                            .isolationWindow(prec.getIsolationWindow())
+                            .precursorScanId(prec.getScanId())
+                            .build();
+                    msmsScanConsumer.consume(build);
+                    peaks = build.getPeaks();
+                }
+
+                final Ms2SpectrumHeader header = new Ms2SpectrumHeader(
+                        sid,
+                        parseScanNumber(sid, spectrum.index),
+                        polarity.charge, msLevel, centroided,
+                        Double.isFinite(collisionEnergy) ? new CollisionEnergy(collisionEnergy) : CollisionEnergy.none(),
+                        prec.getIsolationWindow(),
+                        idmap.getOrDefault(prec.getScanId(), -1),
+                        prec.getMass(),
+                        prec.getMass(),
+                        rt
+                );
+                storage.getSpectrumStorage().addMs2Spectrum(header, peaks);
+            }
+        }
+
+        private Precursor makePrecursor(RawSpectrum spectrum) {
+            IsolationWindow w = new IsolationWindow(0, Double.NaN);
+            double target_mz = Double.NaN;
+            if (spectrum.isolationWindowParams != null) {
+                double lower = 0;
+                double higher = 0;
+                for (Param cvParam : spectrum.isolationWindowParams) {
+                    if (!cvParam.cv()) continue;
+                    switch (cvParam.accession()) {
+                        case "MS:1000827" -> target_mz = Double.parseDouble(cvParam.value()); // isolation window target m/z
+                        case "MS:1000828" -> lower = Double.parseDouble(cvParam.value());
+                        case "MS:1000829" -> higher = Double.parseDouble(cvParam.value());
+                    }
+                }
+                w = IsolationWindow.fromOffsets(lower, higher);
+            }
+
+            double intensity = Double.NaN;
+            double selectedIon_mz = Double.NaN;
+            int chargeState = 0;
+            if (spectrum.selectedIonParams != null) {
+                for (Param cvParam : spectrum.selectedIonParams) {
+                    if (!cvParam.cv()) continue;
+                    switch (cvParam.accession()) {
+                        case "MS:1000744" -> selectedIon_mz = Double.parseDouble(cvParam.value()); // selected ion m/z
+                        case "MS:1000042" -> intensity = Double.parseDouble(cvParam.value()); // intensity
+                        case "MS:1000041" -> chargeState = Integer.parseInt(cvParam.value()); // charge state
+                    }
+                }
+            }
+            //use isolation target m/z if available
+            //(it happens that the instrument targets the +2 isotope peak but the selected ion m/z is the monoisotopic m/z)
+            double mz = !Double.isNaN(target_mz) ? target_mz : selectedIon_mz;
+            final String ref = spectrum.spectrumRef;
+            return new Precursor(
+                    ref,
+                    parseScanNumber(ref, ref != null ? spectrumIndices.getInt(ref) : -1),
+                    mz, intensity, chargeState, w
+            );
+        }
+
+        private void logEmptySpectrum(RawSpectrum spectrum) {
+            if (surpressEmptySpectrumLog.isEmpty()) {
+                log.debug("No spectrum data found in Spectrum with id: {} Skipping!", spectrum.id);
+            }
+            surpressEmptySpectrumLog.add(spectrum.id != null ? spectrum.id.replace("scan=", "") : String.valueOf(spectrum.index));
+        }
+
+        private boolean isParamValueNull(Param userParam) {
+            if (userParam.value() == null) {
+                log.warn("Parameter value for '{}' missing in file '{}'.", userParam.name(), parent.resolve(fileName));
+                return true;
+            }
+            return false;
+        }
+
+        private ProcessedSample finish() throws IOException {
+            if (scanids.isEmpty()) {
+                throw new RuntimeException("No spectra imported from " + fileName);
+            }
+
+            if (surpressEmptySpectrumLog.size() > 1) {
+                if (surpressEmptySpectrumLog.size() > 50) {
+                    log.warn("There were {} spectra without any spectral data. Scan numbers: {} ... {}",
+                            surpressEmptySpectrumLog.size(),
+                            surpressEmptySpectrumLog.stream()
+                                    .limit(25)
+                                    .collect(Collectors.joining(",")),
+                            surpressEmptySpectrumLog.stream()
+                                    .sorted()
+                                    .skip(surpressEmptySpectrumLog.size() - 25)
+                                    .collect(Collectors.joining(",")));
+                } else {
+                    log.warn("The following spectra did not contain any spectral data. Scan numbers: {}",
+                            String.join(",", surpressEmptySpectrumLog));
+                }
+            }
+
+            if (fragmentation != null) {
+                run.setFragmentation(fragmentation);
+                runUpdateConsumer.consume(run);
+            }
+
+            String[] sids = scanIdentifiers.stream().allMatch(Objects::isNull) ? null : scanIdentifiers.toArray(String[]::new);
+
+            final ScanPointMapping mapping = new ScanPointMapping(retentionTimes.toDoubleArray(), scanids.toIntArray(), sids, idmap);
+            storage.setMapping(mapping);
+            ProcessedSample sample = new ProcessedSample(mapping, storage, samplePolarity, -1);
+            sample.setRun(run);
+
+            if (noScanIDCount > 0) {
+                log.warn("In total {} spectra have no valid scan ID. Using index instead. This won't effect the preprocessing at all, but might complicate mapping back the processed spectra to their raw datapoints.", noScanIDCount);
+            }
+            return sample;
+        }
+        //endregion
+    }
+}
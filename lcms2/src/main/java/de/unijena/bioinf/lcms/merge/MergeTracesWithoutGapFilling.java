@@ -23,6 +23,7 @@ import org.slf4j.LoggerFactory;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.List;
+import java.util.Locale;
 import java.util.Objects;
 
 /**
@@ -102,14 +103,48 @@ public class MergeTracesWithoutGapFilling {
     }
 
 
+    /**
+     * Merges the traces of samples that were aligned into the merged sample after it was merged
+     * (see {@link AlignmentStrategy#alignIncrementally}). The projected traces of the previous samples are stored by
+     * the id of their rectangle, so existing rectangles are only extended and never replaced. New rectangles are
+     * only created for aligned MoIs that do not overlap with an existing rectangle. The noise level of the merged
+     * sample is not updated.
+     * @return ids of all rectangles that got new projected traces, in ascending order
+     */
+    public int[] mergeIncrementally(ProcessedSample merged, AlignmentBackbone alignment, List<ProcessedSample> newSamples, Tracker tracker) {
+        JobManager globalJobManager = SiriusJobs.getGlobalJobManager();
+        final IntOpenHashSet newSampleIds = new IntOpenHashSet();
+        for (ProcessedSample sample : newSamples) newSampleIds.add(sample.getUid());
+        final int[] rectIds = prepareRectsIncrementally(merged, alignment, newSampleIds, tracker);
+        final TraceRectangleMap rectangleMap = merged.getStorage().getMergeStorage().getRectangleMap();
+        final int medianNumberOfAlignments = (int)(alignment.getStatistics().getMedianNumberOfAlignments());
+        long TIME1 = System.currentTimeMillis();
+        List<BasicJJob<Float>> jobs = new ArrayList<>();
+        for (ProcessedSample sample : newSamples) {
+            sample.active();
+            for (int id : rectIds) {
+                final Rect r = rectangleMap.getRect(id).orElseThrow();
+                jobs.add(globalJobManager.submitJob(new BasicJJob<Float>() {
+                    @Override
+                    protected Float compute() throws Exception {
+                        return mergeAllMoIsForSampleWithinRect(r, merged, sample, tracker, medianNumberOfAlignments);
+                    }
+                }));
+            }
+            jobs.forEach(JJob::takeResult);
+            jobs.clear();
+            sample.inactive();
+        }
+        long TIME2 = System.currentTimeMillis();
+        LoggerFactory.getLogger(MergeTracesWithoutGapFilling.class).debug(String.format(Locale.US, "Time for incremental merging: %f seconds", (TIME2-TIME1)/1000d));
+        return rectIds;
+    }
+
     private void prepareRects(ProcessedSample merged, AlignmentBackbone alignment, Tracker tracker) {
         long TIME1 = System.currentTimeMillis();
         final Int2ObjectOpenHashMap<RecalibrationFunction> mzRecalibration = new Int2ObjectOpenHashMap<>();
         final Int2ObjectOpenHashMap<RecalibrationFunction> rtRecalibration = new Int2ObjectOpenHashMap<>();
-        for (int k=0; k < alignment.getSamples().length; ++k) {
-            mzRecalibration.put(alignment.getSamples()[k].getUid(), alignment.getSamples()[k].getMzRecalibration());
-            rtRecalibration.put(alignment.getSamples()[k].getUid(), alignment.getSamples()[k].getRtRecalibration());
-        }
+        collectRecalibrations(alignment, mzRecalibration, rtRecalibration);
         MergeStorage mergeStorage = merged.getStorage().getMergeStorage();
         TraceRectangleMap rectangleMap = mergeStorage.getRectangleMap();
         for (MoI m : merged.getStorage().getAlignmentStorage()) {
@@ -118,25 +153,7 @@ public class MergeTracesWithoutGapFilling {
                 tracker.moiDeleted(moi);
                 continue;
             }
-            Rect r = new Rect(moi.getRect());
-            r.minMz = (float)moi.getMz();
-            r.maxMz = (float)moi.getMz();
-            r.minRt = r.maxRt = (float)moi.getRetentionTime();
-            for (MoI a : moi.getAligned()) {
-                RecalibrationFunction mz = mzRecalibration.get(a.getSampleIdx());
-                r.minMz = (float)Math.min(r.minMz, mz.value(a.getMz()));
-                r.maxMz = (float)Math.max(r.maxMz, mz.value(a.getMz()));
-                RecalibrationFunction rt = rtRecalibration.get(a.getSampleIdx());
-                r.minRt = (float)Math.min(r.minRt, rt.value(a.getRect().minRt));
-                r.maxRt = (float)Math.max(r.maxRt, rt.value(a.getRect().maxRt));
-            }
-
-            // account for rounding errors due to float 32 :/
-            r.minMz = Float.intBitsToFloat(Float.floatToIntBits(r.minMz)-1);
-            r.maxMz = Float.intBitsToFloat(Float.floatToIntBits(r.maxMz)+1);
-            r.minRt = Float.intBitsToFloat(Float.floatToIntBits(r.minRt)-1);
-            r.maxRt = Float.intBitsToFloat(Float.floatToIntBits(r.maxRt)+1);
-
+            Rect r = rectFor(moi, mzRecalibration, rtRecalibration);
             for (Rect other : rectangleMap.overlappingRectangle(r)) {
                 r.upgrade(other);
                 rectangleMap.removeRect(other);
@@ -148,6 +165,70 @@ public class MergeTracesWithoutGapFilling {
         System.out.printf("Time for preparing rects: %f seconds\n", (TIME2-TIME1)/1000d);
     }
 
+    private int[] prepareRectsIncrementally(ProcessedSample merged, AlignmentBackbone alignment, IntOpenHashSet newSampleIds, Tracker tracker) {
+        final Int2ObjectOpenHashMap<RecalibrationFunction> mzRecalibration = new Int2ObjectOpenHashMap<>();
+        final Int2ObjectOpenHashMap<RecalibrationFunction> rtRecalibration = new Int2ObjectOpenHashMap<>();
+        collectRecalibrations(alignment, mzRecalibration, rtRecalibration);
+        TraceRectangleMap rectangleMap = merged.getStorage().getMergeStorage().getRectangleMap();
+        final IntOpenHashSet rectIds = new IntOpenHashSet();
+        for (MoI m : merged.getStorage().getAlignmentStorage()) {
+            final AlignedMoI moi = (AlignedMoI)m;
+            if (Arrays.stream(moi.getAligned()).noneMatch(x -> newSampleIds.contains(x.getSampleIdx()))) continue;
+            if (moi.majorityIsIsotopeOrMulticharge()) {
+                tracker.moiDeleted(moi);
+                continue;
+            }
+            Rect r = rectFor(moi, mzRecalibration, rtRecalibration);
+            Rect existing = null;
+            for (Rect other : rectangleMap.overlappingRectangle(r)) {
+                if (existing == null || other.id < existing.id) existing = other;
+            }
+            if (existing == null) {
+                rectangleMap.addRect(r);
+                tracker.createRect(merged, r);
+                rectIds.add(r.id);
+            } else {
+                if (!existing.contains(r)) {
+                    existing.upgrade(r);
+                    rectangleMap.updateRect(existing);
+                }
+                rectIds.add(existing.id);
+            }
+        }
+        final int[] ids = rectIds.toIntArray();
+        Arrays.sort(ids);
+        return ids;
+    }
+
+    private static void collectRecalibrations(AlignmentBackbone alignment, Int2ObjectOpenHashMap<RecalibrationFunction> mzRecalibration, Int2ObjectOpenHashMap<RecalibrationFunction> rtRecalibration) {
+        for (int k=0; k < alignment.getSamples().length; ++k) {
+            mzRecalibration.put(alignment.getSamples()[k].getUid(), alignment.getSamples()[k].getMzRecalibration());
+            rtRecalibration.put(alignment.getSamples()[k].getUid(), alignment.getSamples()[k].getRtRecalibration());
+        }
+    }
+
+    private static Rect rectFor(AlignedMoI moi, Int2ObjectOpenHashMap<RecalibrationFunction> mzRecalibration, Int2ObjectOpenHashMap<RecalibrationFunction> rtRecalibration) {
+        Rect r = new Rect(moi.getRect());
+        r.minMz = (float)moi.getMz();
+        r.maxMz = (float)moi.getMz();
+        r.minRt = r.maxRt = (float)moi.getRetentionTime();
+        for (MoI a : moi.getAligned()) {
+            RecalibrationFunction mz = mzRecalibration.get(a.getSampleIdx());
+            r.minMz = (float)Math.min(r.minMz, mz.value(a.getMz()));
+            r.maxMz = (float)Math.max(r.maxMz, mz.value(a.getMz()));
+            RecalibrationFunction rt = rtRecalibration.get(a.getSampleIdx());
+            r.minRt = (float)Math.min(r.minRt, rt.value(a.getRect().minRt));
+            r.maxRt = (float)Math.max(r.maxRt, rt.value(a.getRect().maxRt));
+        }
+
+        // account for rounding errors due to float 32 :/
+        r.minMz = Float.intBitsToFloat(Float.floatToIntBits(r.minMz)-1);
+        r.maxMz = Float.intBitsToFloat(Float.floatToIntBits(r.maxMz)+1);
+        r.minRt = Float.intBitsToFloat(Float.floatToIntBits(r.minRt)-1);
+        r.maxRt = Float.intBitsToFloat(Float.floatToIntBits(r.maxRt)+1);
+        return r;
+    }
+
 
     ////////////////////////////////////////////////////////////////
     // if true, we check in the original data for each sample if we missed a trace
@@ -0,0 +1,252 @@
+package de.unijena.bioinf.lcms.projectspace;
+
+import de.unijena.bioinf.ms.persistence.model.core.feature.AlignedFeatures;
+import de.unijena.bioinf.ms.persistence.model.core.run.AlignmentState;
+import de.unijena.bioinf.ms.persistence.model.core.run.LCMSRun;
+import de.unijena.bioinf.ms.persistence.model.core.run.MergedLCMSRun;
+import de.unijena.bioinf.ms.persistence.model.core.run.RetentionTimeAxis;
+import de.unijena.bioinf.ms.persistence.model.core.scan.MSMSScan;
+import de.unijena.bioinf.ms.persistence.model.core.scan.Scan;
+import de.unijena.bioinf.ms.persistence.model.core.trace.AbstractTrace;
+import de.unijena.bioinf.ms.persistence.model.core.trace.MergedTrace;
+import de.unijena.bioinf.ms.persistence.model.core.trace.SourceTrace;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.stream.Stream;
+
+/**
+ * Adapter for importing the features of a single merged trace. It remembers the imported traces and aligned features,
+ * such that the merged trace can be imported again later, e.g. after new samples were aligned into it.
+ * <p>
+ * When importing again, each aligned feature is matched with the feature of the previous import whose retention time
+ * range contains its apex and is updated in place, keeping the id of the previous feature. {@link #finishImport()}
+ * removes the traces of the previous import and all previous features that were not updated.
+ */
+public class MergedTraceImportAdapter implements SiriusDatabaseAdapter {
+
+    private final SiriusDatabaseAdapter adapter;
+    @Nullable private final MergedTraceImportAdapter previous;
+
+    private final LongArrayList mergedTraceIds = new LongArrayList(), sourceTraceIds = new LongArrayList();
+    private final List<ImportedFeature> features = new ArrayList<>();
+
+    private static class ImportedFeature {
+        private final long alignedFeatureId;
+        private final double startTime, middleTime, endTime;
+        private boolean updated;
+
+        private ImportedFeature(AlignedFeatures feature) {
+            this(feature.getAlignedFeatureId(), feature.getRetentionTime().getStartTime(),
+                    feature.getRetentionTime().getMiddleTime(), feature.getRetentionTime().getEndTime());
+        }
+
+        private ImportedFeature(long alignedFeatureId, double startTime, double middleTime, double endTime) {
+            this.alignedFeatureId = alignedFeatureId;
+            this.startTime = startTime;
+            this.middleTime = middleTime;
+            this.endTime = endTime;
+        }
+    }
+
+    /**
+     * @param previous adapter of the previous import of the same merged trace, or null if the merged trace is imported
+     *                 for the first time
+     */
+    public MergedTraceImportAdapter(SiriusDatabaseAdapter adapter, @Nullable MergedTraceImportAdapter previous) {
+        this.adapter = adapter;
+        this.previous = previous;
+    }
+
+    /**
+     * Restores the adapter of a previous import from its persisted state, e.g. after the project was reopened.
+     */
+    public static MergedTraceImportAdapter restore(SiriusDatabaseAdapter adapter, AlignmentState.ImportedMergedTrace state) {
+        final MergedTraceImportAdapter restored = new MergedTraceImportAdapter(adapter, null);
+        restored.mergedTraceIds.addElements(0, state.getMergedTraceIds());
+        restored.sourceTraceIds.addElements(0, state.getSourceTraceIds());
+        for (int i = 0; i < state.getAlignedFeatureIds().length; ++i) {
+            restored.features.add(new ImportedFeature(state.getAlignedFeatureIds()[i], state.getStartTimes()[i],
+                    state.getMiddleTimes()[i], state.getEndTimes()[i]));
+        }
+        return restored;
+    }
+
+    /**
+     * @return persistable state of this import, such that it can be restored via {@link #restore}
+     */
+    public AlignmentState.ImportedMergedTrace toState(int mergedTraceIdx) {
+        return AlignmentState.ImportedMergedTrace.builder()
+                .mergedTraceIdx(mergedTraceIdx)
+                .mergedTraceIds(mergedTraceIds.toLongArray())
+                .sourceTraceIds(sourceTraceIds.toLongArray())
+                .alignedFeatureIds(features.stream().mapToLong(x -> x.alignedFeatureId).toArray())
+                .startTimes(features.stream().mapToDouble(x -> x.startTime).toArray())
+                .middleTimes(features.stream().mapToDouble(x -> x.middleTime).toArray())
+                .endTimes(features.stream().mapToDouble(x -> x.endTime).toArray())
+                .build();
+    }
+
+    /**
+     * @return true if neither a trace nor a feature of this import is stored
+     */
+    public boolean isEmpty() {
+        return mergedTraceIds.isEmpty() && sourceTraceIds.isEmpty() && features.isEmpty();
+    }
+
+    /**
+     * @return ids of all aligned features stored by this import, including the updated ones
+     */
+    public long[] getImportedFeatureIds() {
+        return features.stream().mapToLong(x -> x.alignedFeatureId).toArray();
+    }
+
+    /**
+     * Removes the traces of the previous import and all of its aligned features that were not updated.
+     * @return ids of the removed aligned features
+     */
+    public long[] finishImport() throws IOException {
+        if (previous == null) return new long[0];
+        for (long id : previous.mergedTraceIds) adapter.removeMergedTrace(id);
+        for (long id : previous.sourceTraceIds) adapter.removeSourceTrace(id);
+        final long[] removed = previous.features.stream().filter(x -> !x.updated).mapToLong(x -> x.alignedFeatureId).toArray();
+        if (removed.length > 0) adapter.removeAlignedFeatures(removed);
+        return removed;
+    }
+
+    @Override
+    public boolean importAlignedFeature(AlignedFeatures alignedFeatures) throws IOException {
+        ImportedFeature match = null;
+        if (previous != null) {
+            final double rt = alignedFeatures.getRetentionTime().getMiddleTime();
+            for (ImportedFeature f : previous.features) {
+                if (f.updated || rt < f.startTime || rt > f.endTime) continue;
+                if (match == null || Math.abs(f.middleTime - rt) < Math.abs(match.middleTime - rt)) match = f;
+            }
+        }
+        final boolean imported;
+        if (match != null) {
+            match.updated = true;
+            alignedFeatures.setAlignedFeatureId(match.alignedFeatureId);
+            imported = adapter.updateAlignedFeature(alignedFeatures);
+        } else {
+            imported = adapter.importAlignedFeature(alignedFeatures);
+        }
+        if (imported) features.add(new ImportedFeature(alignedFeatures));
+        return imported;
+    }
+
+    @Override
+    public boolean updateAlignedFeature(AlignedFeatures alignedFeatures) throws IOException {
+        return adapter.updateAlignedFeature(alignedFeatures);
+    }
+
+    @Override
+    public void removeAlignedFeatures(long[] alignedFeatureIds) throws IOException {
+        adapter.removeAlignedFeatures(alignedFeatureIds);
+    }
+
+    @Override
+    public void importTrace(AbstractTrace trace) throws IOException {
+        adapter.importTrace(trace);
+        if (trace instanceof MergedTrace merged) mergedTraceIds.add(merged.getMergedTraceId());
+        else if (trace instanceof SourceTrace source) sourceTraceIds.add(source.getSourceTraceId());
+    }
+
+    @Override
+    public void removeSourceTrace(long id) throws IOException {
+        adapter.removeSourceTrace(id);
+        sourceTraceIds.rem(id);
+    }
+
+    @Override
+    public void removeMergedTrace(long id) throws IOException {
+        adapter.removeMergedTrace(id);
+        mergedTraceIds.rem(id);
+    }
+
+    @Override
+    public void importRun(LCMSRun run) throws IOException {
+        adapter.importRun(run);
+    }
+
+    @Override
+    public void updateRun(LCMSRun run) throws IOException {
+        adapter.updateRun(run);
+    }
+
+    @Override
+    public void importMergedRun(MergedLCMSRun mergedRun) throws IOException {
+        adapter.importMergedRun(mergedRun);
+    }
+
+    @Override
+    public void updateMergedRun(MergedLCMSRun mergedRun) throws IOException {
+        adapter.updateMergedRun(mergedRun);
+    }
+
+    @Override
+    public void removeMergedRun(MergedLCMSRun run) throws IOException {
+        adapter.removeMergedRun(run);
+    }
+
+    @Override
+    public void importScan(Scan scan) throws IOException {
+        adapter.importScan(scan);
+    }
+
+    @Override
+    public void importMSMSScan(MSMSScan scan) throws IOException {
+        adapter.importMSMSScan(scan);
+    }
+
+    @Override
+    public void flushTraces() throws IOException {
+        adapter.flushTraces();
+    }
+
+    @Override
+    public Closeable bulkImport() throws IOException {
+        return adapter.bulkImport();
+    }
+
+    @Override
+    public void importRetentionTimeAxis(RetentionTimeAxis axis, boolean update) throws IOException {
+        adapter.importRetentionTimeAxis(axis, update);
+    }
+
+    @Override
+    public Optional<RetentionTimeAxis> getRetentionTimeAxis(long runId) throws IOException {
+        return adapter.getRetentionTimeAxis(runId);
+    }
+
+    @Override
+    public Optional<LCMSRun> getRun(long runId) throws IOException {
+        return adapter.getRun(runId);
+    }
+
+    @Override
+    public Optional<MergedLCMSRun> getMergedRun(long runId) throws IOException {
+        return adapter.getMergedRun(runId);
+    }
+
+    @Override
+    public void importAlignmentState(AlignmentState state) throws IOException {
+        adapter.importAlignmentState(state);
+    }
+
+    @Override
+    public Optional<AlignmentState> getAlignmentState(long mergedRunId) throws IOException {
+        return adapter.getAlignmentState(mergedRunId);
+    }
+
+    @Override
+    public Stream<AlignedFeatures> getImportedFeatureStream(long runId) throws IOException {
+        return adapter.getImportedFeatureStream(runId);
+    }
+}
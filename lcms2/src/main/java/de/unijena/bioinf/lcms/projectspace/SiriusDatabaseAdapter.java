@@ -1,6 +1,7 @@
 package de.unijena.bioinf.lcms.projectspace;
 
 import de.unijena.bioinf.ms.persistence.model.core.feature.AlignedFeatures;
+import de.unijena.bioinf.ms.persistence.model.core.run.AlignmentState;
 import de.unijena.bioinf.ms.persistence.model.core.run.LCMSRun;
 import de.unijena.bioinf.ms.persistence.model.core.run.MergedLCMSRun;
 import de.unijena.bioinf.ms.persistence.model.core.run.RetentionTimeAxis;
@@ -8,7 +9,9 @@ import de.unijena.bioinf.ms.persistence.model.core.scan.MSMSScan;
 import de.unijena.bioinf.ms.persistence.model.core.scan.Scan;
 import de.unijena.bioinf.ms.persistence.model.core.trace.AbstractTrace;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.Optional;
 import java.util.stream.Stream;
 
 public interface SiriusDatabaseAdapter {
@@ -29,13 +32,52 @@ public interface SiriusDatabaseAdapter {
 
     void importTrace(AbstractTrace trace) throws IOException;
 
+    /**
+     * Persists all traces imported so far. Traces might be buffered by {@link #importTrace(AbstractTrace)}.
+     */
+    void flushTraces() throws IOException;
+
+    /**
+     * Starts a bulk import. Index maintenance for imported scans and features is deferred until the returned handle
+     * is closed.
+     */
+    Closeable bulkImport() throws IOException;
+
     void removeSourceTrace(long id) throws IOException;
 
     void removeMergedTrace(long id) throws IOException;
 
     boolean importAlignedFeature(AlignedFeatures alignedFeatures) throws IOException;
 
+    /**
+     * Replaces the aligned feature with the id of the given feature, including its features, isotopic features and
+     * MS data. Results computed for the aligned feature are kept, unless its MS/MS spectra changed. Results computed
+     * from the old MS/MS are deleted in this case, such that the feature has to be computed again.
+     * Must not be called within a {@link #bulkImport()}, it looks up the old data by non-unique indices.
+     * @return false if the given feature cannot be imported, see {@link #importAlignedFeature(AlignedFeatures)}. The
+     * old aligned feature is removed together with its results in this case.
+     */
+    boolean updateAlignedFeature(AlignedFeatures alignedFeatures) throws IOException;
+
+    /**
+     * Removes the aligned features together with all data and results that belong to them.
+     */
+    void removeAlignedFeatures(long[] alignedFeatureIds) throws IOException;
+
     void importRetentionTimeAxis(RetentionTimeAxis axis, boolean update) throws IOException;
 
+    Optional<RetentionTimeAxis> getRetentionTimeAxis(long runId) throws IOException;
+
+    Optional<LCMSRun> getRun(long runId) throws IOException;
+
+    Optional<MergedLCMSRun> getMergedRun(long runId) throws IOException;
+
+    /**
+     * Stores the alignment state of a merged run, replacing the previous state of the same merged run.
+     */
+    void importAlignmentState(AlignmentState state) throws IOException;
+
+    Optional<AlignmentState> getAlignmentState(long mergedRunId) throws IOException;
+
     Stream<AlignedFeatures> getImportedFeatureStream(long runId) throws IOException;
 }
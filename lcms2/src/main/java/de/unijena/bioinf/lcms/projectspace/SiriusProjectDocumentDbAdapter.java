@@ -20,22 +20,33 @@
 
 package de.unijena.bioinf.lcms.projectspace;
 
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import de.unijena.bioinf.ChemistryBase.ms.utils.Spectrums;
 import de.unijena.bioinf.ms.persistence.model.core.feature.AlignedFeatures;
+import de.unijena.bioinf.ms.persistence.model.core.feature.AlignedIsotopicFeatures;
+import de.unijena.bioinf.ms.persistence.model.core.feature.Feature;
+import de.unijena.bioinf.ms.persistence.model.core.run.AlignmentState;
 import de.unijena.bioinf.ms.persistence.model.core.run.LCMSRun;
 import de.unijena.bioinf.ms.persistence.model.core.run.MergedLCMSRun;
 import de.unijena.bioinf.ms.persistence.model.core.run.RetentionTimeAxis;
 import de.unijena.bioinf.ms.persistence.model.core.scan.MSMSScan;
 import de.unijena.bioinf.ms.persistence.model.core.scan.Scan;
+import de.unijena.bioinf.ms.persistence.model.core.spectrum.MSData;
+import de.unijena.bioinf.ms.persistence.model.core.spectrum.MergedMSnSpectrum;
 import de.unijena.bioinf.ms.persistence.model.core.trace.AbstractTrace;
 import de.unijena.bioinf.ms.persistence.model.core.trace.MergedTrace;
 import de.unijena.bioinf.ms.persistence.model.core.trace.SourceTrace;
 import de.unijena.bioinf.ms.persistence.storage.SiriusProjectDocumentDatabase;
 import de.unijena.bioinf.storage.db.nosql.Filter;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.util.Arrays;
 import java.util.List;
 import java.util.Locale;
+import java.util.Optional;
 import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Stream;
 
@@ -81,6 +92,7 @@ public class SiriusProjectDocumentDbAdapter implements SiriusDatabaseAdapter {
             store.getStorage().removeAll(Filter.where("runId").eq(id), LCMSRun.class);
         }
         store.getStorage().removeAll(Filter.where("runId").eq(run.getRunId()), MergedLCMSRun.class);
+        store.getStorage().removeAll(Filter.where("runId").eq(run.getRunId()), AlignmentState.class);
     }
 
     @Override
@@ -95,17 +107,29 @@ public class SiriusProjectDocumentDbAdapter implements SiriusDatabaseAdapter {
 
     @Override
     public void importTrace(AbstractTrace trace) throws IOException {
-        store.getStorage().insert(trace);
+        store.getTraceStore().insert(trace);
+    }
+
+    @Override
+    public void flushTraces() throws IOException {
+        store.getTraceStore().flush();
+    }
+
+    @Override
+    public Closeable bulkImport() throws IOException {
+        return store.bulkImport();
     }
 
     @Override
     public void removeMergedTrace(long id) throws IOException {
-        store.getStorage().removeAll(Filter.where("mergedTraceId").eq(id), MergedTrace.class);
+        if (!store.getTraceStore().remove(id))
+            store.getStorage().removeAll(Filter.where("mergedTraceId").eq(id), MergedTrace.class);
     }
 
     @Override
     public void removeSourceTrace(long id) throws IOException {
-        store.getStorage().removeAll(Filter.where("sourceTraceId").eq(id), SourceTrace.class);
+        if (!store.getTraceStore().remove(id))
+            store.getStorage().removeAll(Filter.where("sourceTraceId").eq(id), SourceTrace.class);
     }
 
     @Override
@@ -126,6 +150,55 @@ public class SiriusProjectDocumentDbAdapter implements SiriusDatabaseAdapter {
         return true;
     }
 
+    @Override
+    public boolean updateAlignedFeature(AlignedFeatures alignedFeatures) throws IOException {
+        final long id = alignedFeatures.getAlignedFeatureId();
+        final Optional<AlignedFeatures> old = store.getStorage().getByPrimaryKey(id, AlignedFeatures.class);
+        final Optional<MSData> oldMsData = store.getStorage().getByPrimaryKey(id, MSData.class);
+        for (AlignedIsotopicFeatures isotopicFeatures : store.getStorage().find(Filter.where("alignedFeatureId").eq(id), AlignedIsotopicFeatures.class)) {
+            store.getStorage().removeAll(Filter.where("alignedFeatureId").eq(isotopicFeatures.getAlignedIsotopeFeatureId()), Feature.class);
+            store.getStorage().removeAll(Filter.where("alignedFeatureId").eq(isotopicFeatures.getAlignedIsotopeFeatureId()), MSData.class);
+        }
+        for (Class<?> clazz : List.of(AlignedFeatures.class, Feature.class, AlignedIsotopicFeatures.class, MSData.class)) {
+            store.getStorage().removeAll(Filter.where("alignedFeatureId").eq(id), clazz);
+        }
+        old.ifPresent(o -> {
+            alignedFeatures.setCompoundId(o.getCompoundId());
+            alignedFeatures.setExternalFeatureId(o.getExternalFeatureId());
+        });
+        if (importAlignedFeature(alignedFeatures)) {
+            if (msmsChanged(oldMsData.orElse(null), alignedFeatures.getMSData().orElse(null)))
+                store.deleteComputedResults(id);
+            return true;
+        }
+        store.cascadeDeleteAlignedFeatures(id);
+        return false;
+    }
+
+    /**
+     * @return true if the MS/MS spectra differ, such that results computed from the old spectra are stale
+     */
+    private static boolean msmsChanged(@Nullable MSData old, @Nullable MSData updated) {
+        final List<MergedMSnSpectrum> a = old == null || old.getMsnSpectra() == null ? List.of() : old.getMsnSpectra();
+        final List<MergedMSnSpectrum> b = updated == null || updated.getMsnSpectra() == null ? List.of() : updated.getMsnSpectra();
+        if (a.size() != b.size())
+            return true;
+        for (int k = 0; k < a.size(); ++k) {
+            if (!equalPeaks(a.get(k).getPeaks(), b.get(k).getPeaks()))
+                return true;
+        }
+        return !equalPeaks(old == null ? null : old.getMergedMSnSpectrum(), updated == null ? null : updated.getMergedMSnSpectrum());
+    }
+
+    private static boolean equalPeaks(@Nullable SimpleSpectrum a, @Nullable SimpleSpectrum b) {
+        return a == null ? b == null : b != null && Spectrums.haveEqualPeaks(a, b);
+    }
+
+    @Override
+    public void removeAlignedFeatures(long[] alignedFeatureIds) throws IOException {
+        store.cascadeDeleteAlignedFeatures(Arrays.stream(alignedFeatureIds).boxed().toList());
+    }
+
     @Override
     public void importRetentionTimeAxis(RetentionTimeAxis axis, boolean update) throws IOException {
         if (update) {
@@ -135,6 +208,31 @@ public class SiriusProjectDocumentDbAdapter implements SiriusDatabaseAdapter {
         }
     }
 
+    @Override
+    public Optional<RetentionTimeAxis> getRetentionTimeAxis(long runId) throws IOException {
+        return store.getStorage().getByPrimaryKey(runId, RetentionTimeAxis.class);
+    }
+
+    @Override
+    public Optional<LCMSRun> getRun(long runId) throws IOException {
+        return store.getStorage().getByPrimaryKey(runId, LCMSRun.class);
+    }
+
+    @Override
+    public Optional<MergedLCMSRun> getMergedRun(long runId) throws IOException {
+        return store.getStorage().getByPrimaryKey(runId, MergedLCMSRun.class);
+    }
+
+    @Override
+    public void importAlignmentState(AlignmentState state) throws IOException {
+        store.getStorage().upsert(state);
+    }
+
+    @Override
+    public Optional<AlignmentState> getAlignmentState(long mergedRunId) throws IOException {
+        return store.getStorage().getByPrimaryKey(mergedRunId, AlignmentState.class);
+    }
+
     @Override
     public Stream<AlignedFeatures> getImportedFeatureStream(long runId) throws IOException {
         return store.getStorage().findStr(Filter.where("runId").eq(runId), AlignedFeatures.class).map(x -> store.fetchMsData(x));
@@ -0,0 +1,81 @@
+package de.unijena.bioinf.lcms.spectrum;
+
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import de.unijena.bioinf.lcms.trace.MappedSegmentFile;
+import org.h2.mvstore.MVStore;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Spectrum storage that keeps the peaks of MS1 and MS/MS spectra as primitive arrays in a {@link MappedSegmentFile}.
+ * The spectrum headers are kept in the given {@link MVStore}.
+ * <p>
+ * Record layout: number of peaks (int), 4 bytes padding, masses (double[]), intensities (float[]).
+ */
+public class MappedSpectrumStorage extends SpectrumStorage.MvSpectrumStorage {
+
+    private final MappedSegmentFile segments;
+    private final MappedSegmentFile.AddressIndex ms1Index = new MappedSegmentFile.AddressIndex(), ms2Index = new MappedSegmentFile.AddressIndex();
+
+    public MappedSpectrumStorage(MVStore storage, MappedSegmentFile segments) {
+        super(storage, false);
+        this.segments = segments;
+    }
+
+    @Override
+    protected void writeSpectrum(int id, SimpleSpectrum spectrum) {
+        ms1Index.set(id, write(spectrum));
+    }
+
+    @Override
+    protected SimpleSpectrum readSpectrum(int id) {
+        return read(ms1Index.get(id));
+    }
+
+    @Override
+    protected void writeMs2Spectrum(int id, SimpleSpectrum spectrum) {
+        ms2Index.set(id, write(spectrum));
+    }
+
+    @Override
+    protected SimpleSpectrum readMs2Spectrum(int id) {
+        return read(ms2Index.get(id));
+    }
+
+    private long write(SimpleSpectrum spectrum) {
+        final int n = spectrum.size();
+        final double[] masses = new double[n];
+        final float[] intensities = new float[n];
+        for (int k = 0; k < n; ++k) {
+            masses[k] = spectrum.getMzAt(k);
+            intensities[k] = (float) spectrum.getIntensityAt(k);
+        }
+        return segments.append(2 * Integer.BYTES + n * (Double.BYTES + Float.BYTES), buffer -> {
+            buffer.putInt(n);
+            buffer.putInt(0); // align masses to 8 bytes
+            MappedSegmentFile.putDoubles(buffer, masses);
+            MappedSegmentFile.putFloats(buffer, intensities);
+        });
+    }
+
+    private SimpleSpectrum read(long address) {
+        if (address < 0) return null;
+        final ByteBuffer buffer = segments.read(address);
+        final int n = buffer.getInt();
+        buffer.getInt();
+        final double[] masses = MappedSegmentFile.getDoubles(buffer, n);
+        final float[] floats = MappedSegmentFile.getFloats(buffer, n);
+        final double[] intensities = new double[n];
+        for (int k = 0; k < n; ++k) intensities[k] = floats[k];
+        return new SimpleSpectrum(new OrderedSpectrum(masses, intensities));
+    }
+
+    /**
+     * the spectra are stored ordered by mass, so they can be wrapped without copying and sorting
+     */
+    private static class OrderedSpectrum extends SimpleSpectrum {
+        OrderedSpectrum(double[] masses, double[] intensities) {
+            super(masses, intensities, true);
+        }
+    }
+}
@@ -31,11 +31,21 @@ public abstract class SpectrumStorage {
         MVStore store;
 
         public MvSpectrumStorage(MVStore storage) {
+            this(storage, true);
+        }
+
+        /**
+         * @param storeSpectra if false, the spectra themselves are not stored in the MVStore but by the subclass,
+         *                     which has to override {@link #writeSpectrum(int, SimpleSpectrum)},
+         *                     {@link #readSpectrum(int)}, {@link #writeMs2Spectrum(int, SimpleSpectrum)} and
+         *                     {@link #readMs2Spectrum(int)}.
+         */
+        protected MvSpectrumStorage(MVStore storage, boolean storeSpectra) {
             this.store = storage;
-            this.spectraMap = storage.openMap("spectra",
+            if (storeSpectra) this.spectraMap = storage.openMap("spectra",
                     new MVMap.Builder<Integer,SimpleSpectrum>().valueType(new SpectrumDatatype()));
             this.ms2headers = storage.openMap("ms2headers", new MVMap.Builder<Integer,Ms2SpectrumHeader>().valueType(new MsSpectrumHeaderDatatype()));
-            this.ms2SpectraMap = storage.openMap("ms2spectraMap",
+            if (storeSpectra) this.ms2SpectraMap = storage.openMap("ms2spectraMap",
                     new MVMap.Builder<Integer,SimpleSpectrum>().valueType(new SpectrumDatatype()));
             this.ms1Headers = storage.openMap("ms1headerMap", new MVMap.Builder<Integer,Ms1SpectrumHeader>().valueType(new MsSpectrumHeaderDatatype()));
             this.ms2spectraIds = new AtomicInteger(0);
@@ -44,16 +54,32 @@ public abstract class SpectrumStorage {
 
         private AtomicInteger counter = new AtomicInteger();
 
+        protected void writeSpectrum(int id, SimpleSpectrum spectrum) {
+            spectraMap.put(id, spectrum);
+        }
+
+        protected SimpleSpectrum readSpectrum(int id) {
+            return spectraMap.get(id);
+        }
+
+        protected void writeMs2Spectrum(int id, SimpleSpectrum spectrum) {
+            ms2SpectraMap.put(id, spectrum);
+        }
+
+        protected SimpleSpectrum readMs2Spectrum(int id) {
+            return ms2SpectraMap.get(id);
+        }
+
         @Override
         public void addSpectrum(Ms1SpectrumHeader header, SimpleSpectrum spectrum) {
-            spectraMap.put(header.getUid(), spectrum);
+            writeSpectrum(header.getUid(), spectrum);
             ms1Headers.put(header.getUid(), header);
             if (counter.incrementAndGet() % 1000 == 0) store.commit();
         }
 
         @Override
         public SimpleSpectrum getSpectrum(int id) {
-            return spectraMap.get(id);
+            return readSpectrum(id);
         }
 
         @Override
@@ -66,7 +92,7 @@ public abstract class SpectrumStorage {
 
             }
 
-            ms2SpectraMap.put(id, spectrum);
+            writeMs2Spectrum(id, spectrum);
             ms2headers.put(id, ms2SpectrumHeader);
 
             if (counter.incrementAndGet() % 1000 == 0) store.commit();
@@ -91,7 +117,7 @@ public abstract class SpectrumStorage {
 
         @Override
         public SimpleSpectrum getMs2Spectrum(int id) {
-            return this.ms2SpectraMap.get(id);
+            return readMs2Spectrum(id);
         }
 
         @Override
@@ -65,13 +65,98 @@ public abstract class LCMSStorage implements Closeable {
         };
     }
 
+    /**
+     * Temporary storages that keep spectra and traces in append-only memory-mapped segment files instead of
+     * MVStore maps. Reading a trace or spectrum is an address lookup and a bulk copy of its arrays.
+     * The remaining (small) data of each storage is kept in an MVStore file next to the segment file.
+     */
+    public static LCMSStorageFactory mappedStorage(@Nullable File tmpDir) {
+        return new LCMSStorageFactory() {
+            final LinkedList<MappedLCMSStorage> storages = new LinkedList<>();
+
+            @Override
+            public synchronized LCMSStorage createNewStorage() throws IOException {
+                final File tempFile = File.createTempFile("sirius-tmp_", ".segments", tmpDir);
+                tempFile.deleteOnExit();
+                MappedLCMSStorage store = new MappedLCMSStorage(tempFile.toPath(), true);
+                storages.add(store);
+                return store;
+            }
+
+            @Override
+            public synchronized void close() {
+                while (!storages.isEmpty()) {
+                    MappedLCMSStorage s = storages.removeFirst();
+                    try {
+                        s.close();
+                    } catch (Exception e) {
+                        log.error("Error closing mapped storage", e);
+                    }
+                }
+            }
+        };
+    }
+
     public static LCMSStorageFactory persistentStorage(File filename) throws IOException {
         return () -> new MVTraceStorage(filename.getAbsolutePath(), false);
     }
 
+    /**
+     * Storages in the given directory that are kept after closing, such that an alignment can be continued later on.
+     * See {@link LCMSStorageFactory#openExistingStorage(String)}.
+     */
+    public static LCMSStorageFactory directoryStorage(File directory) throws IOException {
+        Files.createDirectories(directory.toPath());
+        return new LCMSStorageFactory() {
+            final LinkedList<MVTraceStorage> storages = new LinkedList<>();
+
+            @Override
+            public synchronized LCMSStorage createNewStorage() throws IOException {
+                return open(File.createTempFile("run_", ".mvstore", directory));
+            }
+
+            @Override
+            public synchronized LCMSStorage createNewMergedStorage() throws IOException {
+                return open(File.createTempFile("merged_", ".mvstore", directory));
+            }
+
+            @Override
+            public synchronized LCMSStorage openExistingStorage(String name) throws IOException {
+                final File file = new File(directory, name);
+                if (!file.exists()) throw new IOException("LC-MS storage '" + file + "' does not exist.");
+                return open(file);
+            }
+
+            private MVTraceStorage open(File file) {
+                MVTraceStorage store = new MVTraceStorage(file.getAbsolutePath(), false);
+                storages.add(store);
+                return store;
+            }
+
+            @Override
+            public synchronized void close() {
+                while (!storages.isEmpty()) {
+                    MVTraceStorage s = storages.removeFirst();
+                    try {
+                        s.close();
+                    } catch (Exception e) {
+                        log.error("Error closing MVStore storage on file '{}'", s.getFile(), e);
+                    }
+                }
+            }
+        };
+    }
+
 
     public abstract void commit();
 
+    /**
+     * @return file of this storage if it is kept after closing, such that it can be opened again
+     */
+    public Optional<Path> getPersistentLocation() {
+        return Optional.empty();
+    }
+
     public abstract TraceRectangleMap getRectangleMap(String prefix);
 
     /**
@@ -138,6 +223,11 @@ class MVTraceStorage extends LCMSStorage {
         storage.commit();
     }
 
+    @Override
+    public Optional<Path> getPersistentLocation() {
+        return deleteOnClose || file == null ? Optional.empty() : Optional.of(Path.of(file));
+    }
+
     @Override
     public AlignmentStorage getAlignmentStorage() {
         if (alignmentStorage == null) {
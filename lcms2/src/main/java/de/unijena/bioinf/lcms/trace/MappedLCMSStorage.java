@@ -0,0 +1,150 @@
+package de.unijena.bioinf.lcms.trace;
+
+import de.unijena.bioinf.lcms.ScanPointMapping;
+import de.unijena.bioinf.lcms.align.AlignmentStorage;
+import de.unijena.bioinf.lcms.align.MvBasedAlignmentStorage;
+import de.unijena.bioinf.lcms.merge.MergeMvStorage;
+import de.unijena.bioinf.lcms.merge.MergeStorage;
+import de.unijena.bioinf.lcms.spectrum.MappedSpectrumStorage;
+import de.unijena.bioinf.lcms.spectrum.SpectrumStorage;
+import de.unijena.bioinf.lcms.statistics.SampleStats;
+import de.unijena.bioinf.lcms.statistics.SampleStatsDataType;
+import lombok.Getter;
+import lombok.Setter;
+import org.h2.mvstore.MVMap;
+import org.h2.mvstore.MVStore;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.HashMap;
+
+/**
+ * Storage of a sample that keeps spectra and traces in an append-only {@link MappedSegmentFile}. All other data
+ * (spectrum headers, spatial trace index, alignment, merge and statistics) is small and stays in an {@link MVStore}
+ * next to the segment file.
+ */
+class MappedLCMSStorage extends LCMSStorage {
+
+    private static final int CACHE_SIZE_IN_MEGABYTES = 16;
+
+    private final MVStore storage;
+    private final MappedSegmentFile segments;
+    private final MVMap<Integer, SampleStats> statisticsObj;
+    private final Path storeFile;
+    private final boolean deleteOnClose;
+    @Setter
+    @Getter
+    private ScanPointMapping mapping;
+    private volatile MvBasedAlignmentStorage alignmentStorage;
+    private volatile MappedTraceStorage traceStorage;
+    private volatile MappedSpectrumStorage spectrumStorage;
+    private volatile MergeMvStorage mergeMvStorage;
+
+    /**
+     * @param file segment file. The MVStore is written to the same path with the suffix .mvstore
+     */
+    MappedLCMSStorage(Path file, boolean deleteOnClose) throws IOException {
+        this.deleteOnClose = deleteOnClose;
+        this.segments = new MappedSegmentFile(file, deleteOnClose);
+        this.storeFile = file.resolveSibling(file.getFileName() + ".mvstore");
+        if (deleteOnClose) storeFile.toFile().deleteOnExit();
+        this.storage = new MVStore.Builder().fileName(storeFile.toString()).autoCommitDisabled().cacheSize(CACHE_SIZE_IN_MEGABYTES).open();
+        this.statisticsObj = storage.openMap("statistics", new MVMap.Builder<Integer, SampleStats>().valueType(new SampleStatsDataType()));
+    }
+
+    @Override
+    public void commit() {
+        storage.commit();
+    }
+
+    @Override
+    public AlignmentStorage getAlignmentStorage() {
+        if (alignmentStorage == null) {
+            synchronized (this) {
+                if (alignmentStorage == null) alignmentStorage = new MvBasedAlignmentStorage(storage);
+            }
+        }
+        return alignmentStorage;
+    }
+
+    @Override
+    public SpectrumStorage getSpectrumStorage() {
+        if (spectrumStorage == null) {
+            synchronized (this) {
+                if (spectrumStorage == null) spectrumStorage = new MappedSpectrumStorage(storage, segments);
+            }
+        }
+        return spectrumStorage;
+    }
+
+    @Override
+    public TraceStorage getTraceStorage() {
+        if (traceStorage == null) {
+            synchronized (this) {
+                if (traceStorage == null) traceStorage = new MappedTraceStorage(storage, segments, mapping);
+            }
+        }
+        return traceStorage;
+    }
+
+    @Override
+    public MergeStorage getMergeStorage() {
+        if (mergeMvStorage == null) {
+            synchronized (this) {
+                if (mergeMvStorage == null) mergeMvStorage = new MergeMvStorage(storage);
+            }
+        }
+        return mergeMvStorage;
+    }
+
+    @Override
+    public void setStatistics(SampleStats stats) {
+        statisticsObj.put(0, stats);
+    }
+
+    @Override
+    public SampleStats getStatistics() {
+        return statisticsObj.get(0);
+    }
+
+    private boolean inactiveMode = false;
+
+    @Override
+    public synchronized void setLowMemoryInactiveMode(boolean inactive) {
+        if (inactive == this.inactiveMode) return;
+        this.inactiveMode = inactive;
+        if (inactive) {
+            segments.release();
+            storage.setCacheSize(1); // hacky workaround for clearing the cache
+        } else {
+            segments.remap();
+            storage.setCacheSize(CACHE_SIZE_IN_MEGABYTES);
+        }
+    }
+
+    @Override
+    public boolean isInactive() {
+        return this.inactiveMode;
+    }
+
+    private final HashMap<String, TraceRectangleMap> rectangleMaps = new HashMap<>();
+
+    @Override
+    public TraceRectangleMap getRectangleMap(String prefix) {
+        synchronized (this) {
+            return rectangleMaps.computeIfAbsent(prefix, p -> new TraceRectangleMapByRVMap(storage, p));
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (!storage.isClosed()) {
+            commit();
+            storage.close();
+            segments.close();
+            if (deleteOnClose)
+                Files.deleteIfExists(storeFile);
+        }
+    }
+}
@@ -0,0 +1,252 @@
+package de.unijena.bioinf.lcms.trace;
+
+import lombok.Getter;
+import lombok.extern.slf4j.Slf4j;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.function.Consumer;
+
+/**
+ * Append-only file of records that is memory mapped in segments. Records never span two segments, such that every
+ * record can be read from a single mapped buffer without any copy of the underlying bytes. Records are never
+ * overwritten: replacing a record means appending a new one and updating its address in the {@link AddressIndex}.
+ * <p>
+ * The address of a record encodes the segment (upper 32 bits) and the position within the segment (lower 32 bits).
+ * Appending is synchronized, reading is lock free. Records are 8 byte aligned and written in native byte order,
+ * so double, float and int arrays can be read with the bulk methods of the typed buffer views.
+ */
+@Slf4j
+public class MappedSegmentFile implements Closeable {
+
+    public static final int DEFAULT_SEGMENT_SIZE = 64 * 1024 * 1024;
+
+    @Getter
+    private final Path file;
+    private final int segmentSize;
+    private final boolean deleteOnClose;
+    private final FileChannel channel;
+
+    private volatile MappedByteBuffer[] segments = new MappedByteBuffer[0];
+    private long[] segmentOffsets = new long[0];
+    private long fileSize = 0L;
+    private int writePosition = 0;
+    private volatile boolean released = false, closed = false;
+
+    public MappedSegmentFile(Path file, boolean deleteOnClose) throws IOException {
+        this(file, DEFAULT_SEGMENT_SIZE, deleteOnClose);
+    }
+
+    public MappedSegmentFile(Path file, int segmentSize, boolean deleteOnClose) throws IOException {
+        this.file = file;
+        this.segmentSize = segmentSize;
+        this.deleteOnClose = deleteOnClose;
+        this.channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.READ, StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+    }
+
+    /**
+     * Appends a record of the given size.
+     *
+     * @param size   number of bytes of the record
+     * @param writer writes the record into the given buffer, which starts at the record and has exactly the record size
+     * @return address of the record
+     */
+    public synchronized long append(int size, Consumer<ByteBuffer> writer) {
+        checkAccessible();
+        final int alignedSize = (size + 7) & ~7;
+        int segment = segments.length - 1;
+        if (segment < 0 || writePosition + alignedSize > segments[segment].capacity()) {
+            segment = newSegment(Math.max(segmentSize, alignedSize));
+            writePosition = 0;
+        }
+        final int position = writePosition;
+        writer.accept(segments[segment].slice(position, size).order(ByteOrder.nativeOrder()));
+        writePosition += alignedSize;
+        return ((long) segment << 32) | position;
+    }
+
+    /**
+     * @return buffer that starts at the record with the given address. The buffer is not limited to the record,
+     * so the record has to describe its own length.
+     */
+    public ByteBuffer read(long address) {
+        final MappedByteBuffer[] segments = this.segments;
+        final int segment = (int) (address >>> 32), position = (int) address;
+        final MappedByteBuffer buffer = segment < segments.length ? segments[segment] : null;
+        if (buffer == null) {
+            checkAccessible();
+            throw new IllegalArgumentException("Unknown record address " + address);
+        }
+        return buffer.slice(position, buffer.capacity() - position).order(ByteOrder.nativeOrder());
+    }
+
+    private int newSegment(int size) {
+        try {
+            final MappedByteBuffer buffer = channel.map(FileChannel.MapMode.READ_WRITE, fileSize, size);
+            final int index = segments.length;
+            segmentOffsets = Arrays.copyOf(segmentOffsets, index + 1);
+            segmentOffsets[index] = fileSize;
+            final MappedByteBuffer[] newSegments = Arrays.copyOf(segments, index + 1);
+            newSegments[index] = buffer;
+            segments = newSegments;
+            fileSize += size;
+            return index;
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map segment of " + file, e);
+        }
+    }
+
+    /**
+     * Writes all segments to disc and drops the mappings, such that the pages can be reclaimed by the operating system.
+     * The file cannot be read or written until it is {@link #remap() remapped}.
+     */
+    public synchronized void release() {
+        if (released || closed) return;
+        for (MappedByteBuffer segment : segments) segment.force();
+        segments = new MappedByteBuffer[segments.length];
+        released = true;
+    }
+
+    /**
+     * maps all segments again after {@link #release()}
+     */
+    public synchronized void remap() {
+        if (!released || closed) return;
+        final MappedByteBuffer[] buffers = new MappedByteBuffer[segmentOffsets.length];
+        try {
+            for (int k = 0; k < buffers.length; ++k) {
+                final long end = k + 1 < segmentOffsets.length ? segmentOffsets[k + 1] : fileSize;
+                buffers[k] = channel.map(FileChannel.MapMode.READ_WRITE, segmentOffsets[k], end - segmentOffsets[k]);
+            }
+        } catch (IOException e) {
+            throw new UncheckedIOException("Cannot map segments of " + file, e);
+        }
+        segments = buffers;
+        released = false;
+    }
+
+    private void checkAccessible() {
+        if (closed) throw new IllegalStateException("Segment file " + file + " is closed.");
+        if (released) throw new IllegalStateException("Segment file " + file + " is inactive.");
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        if (closed) return;
+        closed = true;
+        segments = new MappedByteBuffer[0];
+        channel.close();
+        if (deleteOnClose) {
+            try {
+                Files.deleteIfExists(file);
+            } catch (IOException e) {
+                // mapped files cannot be deleted on some platforms until the mapping is garbage collected
+                log.debug("Could not delete segment file '{}'. Deleting on exit.", file, e);
+                file.toFile().deleteOnExit();
+            }
+        }
+    }
+
+    public static void putDoubles(ByteBuffer buffer, double[] values) {
+        buffer.asDoubleBuffer().put(values);
+        buffer.position(buffer.position() + values.length * Double.BYTES);
+    }
+
+    public static void putFloats(ByteBuffer buffer, float[] values) {
+        buffer.asFloatBuffer().put(values);
+        buffer.position(buffer.position() + values.length * Float.BYTES);
+    }
+
+    public static void putInts(ByteBuffer buffer, int[] values) {
+        buffer.asIntBuffer().put(values);
+        buffer.position(buffer.position() + values.length * Integer.BYTES);
+    }
+
+    public static double[] getDoubles(ByteBuffer buffer, int length) {
+        final double[] values = new double[length];
+        buffer.asDoubleBuffer().get(values);
+        buffer.position(buffer.position() + length * Double.BYTES);
+        return values;
+    }
+
+    public static float[] getFloats(ByteBuffer buffer, int length) {
+        final float[] values = new float[length];
+        buffer.asFloatBuffer().get(values);
+        buffer.position(buffer.position() + length * Float.BYTES);
+        return values;
+    }
+
+    public static int[] getInts(ByteBuffer buffer, int length) {
+        final int[] values = new int[length];
+        buffer.asIntBuffer().get(values);
+        buffer.position(buffer.position() + length * Integer.BYTES);
+        return values;
+    }
+
+    /**
+     * Maps dense integer ids to record addresses. Setting addresses is synchronized, reading is lock free.
+     */
+    public static class AddressIndex {
+        private static final long NONE = -1L;
+
+        private volatile AtomicLongArray addresses = newArray(1024);
+        private int size = 0;
+
+        private static AtomicLongArray newArray(int length) {
+            final AtomicLongArray array = new AtomicLongArray(length);
+            for (int k = 0; k < length; ++k) array.set(k, NONE);
+            return array;
+        }
+
+        /**
+         * @return the address of the given id or -1 if there is no record with this id
+         */
+        public long get(int id) {
+            final AtomicLongArray addresses = this.addresses;
+            return id >= 0 && id < addresses.length() ? addresses.get(id) : NONE;
+        }
+
+        public boolean contains(int id) {
+            return get(id) != NONE;
+        }
+
+        public synchronized void set(int id, long address) {
+            AtomicLongArray addresses = this.addresses;
+            if (id >= addresses.length()) {
+                final AtomicLongArray grown = newArray(Math.max(id + 1, addresses.length() * 2));
+                for (int k = 0; k < addresses.length(); ++k) grown.set(k, addresses.get(k));
+                this.addresses = addresses = grown;
+            }
+            if (addresses.getAndSet(id, address) == NONE) ++size;
+        }
+
+        public synchronized void remove(int id) {
+            final AtomicLongArray addresses = this.addresses;
+            if (id >= 0 && id < addresses.length() && addresses.getAndSet(id, NONE) != NONE) --size;
+        }
+
+        /**
+         * @return number of ids with a record
+         */
+        public synchronized int size() {
+            return size;
+        }
+
+        /**
+         * @return exclusive upper bound of all ids with a record
+         */
+        public int capacity() {
+            return addresses.length();
+        }
+    }
+}
@@ -0,0 +1,115 @@
+package de.unijena.bioinf.lcms.trace;
+
+import de.unijena.bioinf.lcms.ScanPointMapping;
+import de.unijena.bioinf.lcms.trace.segmentation.TraceSegment;
+import org.h2.mvstore.MVStore;
+
+import java.nio.ByteBuffer;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+import static de.unijena.bioinf.lcms.trace.MappedSegmentFile.*;
+
+/**
+ * Trace storage that keeps the traces as primitive arrays in a {@link MappedSegmentFile}. The spatial index and the
+ * MS/MS assignments are kept in the given {@link MVStore}, only the traces themselves are stored in the segment file.
+ * Reading a trace is an address lookup and a bulk copy of its arrays, without B-tree lookup or page deserialization.
+ * <p>
+ * Record layout: uid, startId, endId, apexId (int), averageMz, minMz, maxMz (double), mz (double[]),
+ * intensity (float[]), number of segments (int, -1 for none) and apex, leftEdge, rightEdge of each segment (int).
+ */
+class MappedTraceStorage extends TraceStorage.MvTraceStorage {
+
+    private final MappedSegmentFile segments;
+    private final AddressIndex index = new AddressIndex();
+
+    MappedTraceStorage(MVStore storage, MappedSegmentFile segments, ScanPointMapping mapping) {
+        super(storage, mapping, false);
+        this.segments = segments;
+    }
+
+    @Override
+    protected ContiguousTrace readTrace(int uid) {
+        final long address = index.get(uid);
+        if (address < 0) return null;
+        final ByteBuffer buffer = segments.read(address);
+        final int[] ints = getInts(buffer, 4);
+        final double[] doubles = getDoubles(buffer, 3);
+        final int length = ints[2] - ints[1] + 1;
+        final double[] mz = getDoubles(buffer, length);
+        final float[] intensity = getFloats(buffer, length);
+        final int numberOfSegments = buffer.getInt();
+        TraceSegment[] traceSegments = null;
+        if (numberOfSegments >= 0) {
+            traceSegments = new TraceSegment[numberOfSegments];
+            final int[] bf = getInts(buffer, numberOfSegments * 3);
+            for (int k = 0, j = 0; k < numberOfSegments; ++k) {
+                traceSegments[k] = new TraceSegment(bf[j++], bf[j++], bf[j++]);
+            }
+        }
+        return new ContiguousTrace(null, ints[0], ints[1], ints[2], ints[3], doubles[0], doubles[1], doubles[2], mz, intensity, traceSegments);
+    }
+
+    @Override
+    protected void writeTrace(ContiguousTrace trace) {
+        final int numberOfSegments = trace.segments == null ? 0 : trace.segments.length;
+        final int size = 4 * Integer.BYTES + 3 * Double.BYTES + trace.mz.length * Double.BYTES
+                + trace.intensity.length * Float.BYTES + Integer.BYTES + numberOfSegments * 3 * Integer.BYTES;
+        final long address = segments.append(size, buffer -> {
+            putInts(buffer, new int[]{trace.uid, trace.startId, trace.endId, trace.apexId});
+            putDoubles(buffer, new double[]{trace.averageMz, trace.minMz, trace.maxMz});
+            putDoubles(buffer, trace.mz);
+            putFloats(buffer, trace.intensity);
+            if (trace.segments == null) {
+                buffer.putInt(-1);
+            } else {
+                buffer.putInt(trace.segments.length);
+                final int[] segs = new int[trace.segments.length * 3];
+                int k = 0;
+                for (TraceSegment t : trace.segments) {
+                    segs[k++] = t.apex;
+                    segs[k++] = t.leftEdge;
+                    segs[k++] = t.rightEdge;
+                }
+                putInts(buffer, segs);
+            }
+        });
+        index.set(trace.uid, address);
+    }
+
+    @Override
+    protected void removeTrace(int uid) {
+        index.remove(uid);
+    }
+
+    @Override
+    protected int traceCount() {
+        return index.size();
+    }
+
+    @Override
+    protected Iterator<ContiguousTrace> traces() {
+        return new Iterator<>() {
+            private int next = advance(0);
+
+            private int advance(int from) {
+                final int capacity = index.capacity();
+                while (from < capacity && !index.contains(from)) ++from;
+                return from < capacity ? from : -1;
+            }
+
+            @Override
+            public boolean hasNext() {
+                return next >= 0;
+            }
+
+            @Override
+            public ContiguousTrace next() {
+                if (next < 0) throw new NoSuchElementException();
+                final ContiguousTrace trace = readTrace(next);
+                next = advance(next + 1);
+                return trace;
+            }
+        };
+    }
+}
@@ -0,0 +1,238 @@
+package de.unijena.bioinf.lcms.trace;
+
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.ints.IntArrays;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+/**
+ * In-memory columnar index over the bounding rectangles (minMz, maxMz, startScan, endScan) of the traces in a
+ * {@link TraceStorage}. Answers m/z window queries without touching the MVStore.
+ * <p>
+ * The index is a list of runs that are sorted by minMz, each run at least twice as large as the next one, plus a small
+ * unsorted buffer that receives new traces. Together with the sorted minMz every run keeps the running maximum of
+ * maxMz, so the first and last candidate of a query are found by binary search. A full buffer becomes a new run and
+ * runs of similar size are merged, such that there are only logarithmically many runs and every trace is merged
+ * logarithmically often. All runs are merged into one as soon as too many traces were removed.
+ * <p>
+ * Masses are stored as float to get exactly the same hits as the R-tree of the storage.
+ */
+final class TraceMzIndex {
+
+    private static final int BUFFER_SIZE = 64, MIN_REMOVED = 1024;
+
+    /**
+     * Immutable part of the index, sorted by minMz, then by uid.
+     */
+    private static final class Run {
+        private final float[] minMz, maxMz, maxMzPrefix;
+        private final int[] startScan, endScan, uid;
+
+        private Run(int size) {
+            minMz = new float[size];
+            maxMz = new float[size];
+            maxMzPrefix = new float[size];
+            startScan = new int[size];
+            endScan = new int[size];
+            uid = new int[size];
+        }
+
+        private int size() {
+            return uid.length;
+        }
+
+        private boolean before(int i, Run other, int j) {
+            final int c = Float.compare(minMz[i], other.minMz[j]);
+            return c != 0 ? c < 0 : uid[i] < other.uid[j];
+        }
+    }
+
+    private final ReentrantReadWriteLock lock = new ReentrantReadWriteLock();
+
+    // sorted runs of decreasing size
+    private final ArrayList<Run> runs = new ArrayList<>();
+    private int numberOfIndexed = 0;
+
+    // unsorted insertions that are not part of a run yet
+    private final float[] bufferMinMz = new float[BUFFER_SIZE], bufferMaxMz = new float[BUFFER_SIZE];
+    private final int[] bufferStartScan = new int[BUFFER_SIZE], bufferEndScan = new int[BUFFER_SIZE], bufferUid = new int[BUFFER_SIZE];
+    private int bufferSize = 0;
+
+    private final BitSet removed = new BitSet();
+    private int numberOfRemoved = 0;
+
+    void add(int id, float fromMz, float toMz, int fromScan, int toScan) {
+        lock.writeLock().lock();
+        try {
+            bufferMinMz[bufferSize] = fromMz;
+            bufferMaxMz[bufferSize] = toMz;
+            bufferStartScan[bufferSize] = fromScan;
+            bufferEndScan[bufferSize] = toScan;
+            bufferUid[bufferSize] = id;
+            if (++bufferSize == BUFFER_SIZE) {
+                runs.add(bufferToRun());
+                bufferSize = 0;
+                while (runs.size() > 1 && runs.get(runs.size() - 2).size() <= 2 * runs.getLast().size()) {
+                    final Run last = runs.removeLast();
+                    runs.add(merge(runs.removeLast(), last));
+                }
+            }
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    void remove(int id) {
+        lock.writeLock().lock();
+        try {
+            if (removed.get(id)) return;
+            removed.set(id);
+            ++numberOfRemoved;
+            if (numberOfRemoved > Math.max(MIN_REMOVED, numberOfIndexed / 4)) rebuild();
+        } finally {
+            lock.writeLock().unlock();
+        }
+    }
+
+    /**
+     * @return uids of all traces whose rectangle intersects the given m/z and scan range (all bounds inclusive),
+     * in ascending order of minMz (ties are ordered by uid).
+     */
+    int[] query(float fromMz, float toMz, int fromScan, int toScan) {
+        final IntArrayList hits = new IntArrayList();
+        final FloatArrayList keys = new FloatArrayList();
+        int sources = 0;
+        lock.readLock().lock();
+        try {
+            for (Run run : runs) {
+                final int before = hits.size();
+                // maxMzPrefix is monotonic: all entries before the first element >= fromMz end below the query window
+                for (int i = lowerBound(run.maxMzPrefix, fromMz); i < run.size() && run.minMz[i] <= toMz; ++i) {
+                    if (run.maxMz[i] >= fromMz && run.startScan[i] <= toScan && run.endScan[i] >= fromScan && !removed.get(run.uid[i])) {
+                        hits.add(run.uid[i]);
+                        keys.add(run.minMz[i]);
+                    }
+                }
+                if (hits.size() > before) ++sources;
+            }
+            final int before = hits.size();
+            for (int j = 0; j < bufferSize; ++j) {
+                if (bufferMinMz[j] <= toMz && bufferMaxMz[j] >= fromMz && bufferStartScan[j] <= toScan
+                        && bufferEndScan[j] >= fromScan && !removed.get(bufferUid[j])) {
+                    hits.add(bufferUid[j]);
+                    keys.add(bufferMinMz[j]);
+                }
+            }
+            // the buffer is unsorted
+            if (hits.size() > before) sources += 2;
+        } finally {
+            lock.readLock().unlock();
+        }
+        // keep the order of the result independent from the state of the index
+        if (sources <= 1) return hits.toIntArray();
+        else return sorted(hits.toIntArray(), keys.toFloatArray());
+    }
+
+    private static int[] sorted(int[] ids, float[] keys) {
+        final int[] order = new int[ids.length];
+        for (int k = 0; k < order.length; ++k) order[k] = k;
+        IntArrays.quickSort(order, (a, b) -> {
+            final int c = Float.compare(keys[a], keys[b]);
+            return c != 0 ? c : Integer.compare(ids[a], ids[b]);
+        });
+        final int[] xs = new int[ids.length];
+        for (int k = 0; k < order.length; ++k) xs[k] = ids[order[k]];
+        return xs;
+    }
+
+    /**
+     * sorts the buffer into a new run. Has to be called with the write lock held.
+     */
+    private Run bufferToRun() {
+        final int[] order = new int[bufferSize];
+        for (int k = 0; k < bufferSize; ++k) order[k] = k;
+        IntArrays.quickSort(order, (a, b) -> {
+            final int c = Float.compare(bufferMinMz[a], bufferMinMz[b]);
+            return c != 0 ? c : Integer.compare(bufferUid[a], bufferUid[b]);
+        });
+        final Run run = new Run(bufferSize);
+        for (int k = 0; k < bufferSize; ++k) {
+            final int o = order[k];
+            set(run, k, bufferMinMz[o], bufferMaxMz[o], bufferStartScan[o], bufferEndScan[o], bufferUid[o]);
+        }
+        numberOfIndexed += bufferSize;
+        return run;
+    }
+
+    /**
+     * merges two runs into one and drops removed traces. Has to be called with the write lock held.
+     */
+    private Run merge(Run a, Run b) {
+        int n = 0;
+        for (int id : a.uid) if (!removed.get(id)) ++n;
+        for (int id : b.uid) if (!removed.get(id)) ++n;
+        final Run run = new Run(n);
+        int i = 0, j = 0, k = 0;
+        while (i < a.size() || j < b.size()) {
+            final Run from;
+            final int x;
+            if (j >= b.size() || (i < a.size() && a.before(i, b, j))) {
+                from = a;
+                x = i++;
+            } else {
+                from = b;
+                x = j++;
+            }
+            if (removed.get(from.uid[x])) continue;
+            set(run, k++, from.minMz[x], from.maxMz[x], from.startScan[x], from.endScan[x], from.uid[x]);
+        }
+        numberOfIndexed -= a.size() + b.size() - n;
+        return run;
+    }
+
+    private static void set(Run run, int k, float minMz, float maxMz, int startScan, int endScan, int uid) {
+        run.minMz[k] = minMz;
+        run.maxMz[k] = maxMz;
+        run.maxMzPrefix[k] = k == 0 ? maxMz : Math.max(run.maxMzPrefix[k - 1], maxMz);
+        run.startScan[k] = startScan;
+        run.endScan[k] = endScan;
+        run.uid[k] = uid;
+    }
+
+    /**
+     * merges all runs into one and drops removed traces. Has to be called with the write lock held.
+     */
+    private void rebuild() {
+        while (runs.size() > 1) {
+            final Run last = runs.removeLast();
+            runs.add(merge(runs.removeLast(), last));
+        }
+        if (runs.size() == 1 && numberOfRemoved > 0)
+            runs.set(0, merge(runs.getFirst(), new Run(0)));
+        // uids are never reused, so traces can be forgotten as soon as they are dropped from all runs and the buffer
+        int m = 0;
+        for (int j = 0; j < bufferSize; ++j) {
+            if (removed.get(bufferUid[j])) continue;
+            bufferMinMz[m] = bufferMinMz[j]; bufferMaxMz[m] = bufferMaxMz[j]; bufferStartScan[m] = bufferStartScan[j];
+            bufferEndScan[m] = bufferEndScan[j]; bufferUid[m] = bufferUid[j];
+            ++m;
+        }
+        bufferSize = m;
+        removed.clear();
+        numberOfRemoved = 0;
+    }
+
+    private static int lowerBound(float[] xs, float value) {
+        int lo = 0, hi = xs.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (xs[mid] < value) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+}
@@ -24,7 +24,7 @@ public class TraceRectangleMapByRVMap implements TraceRectangleMap{
         this.store = store;
         this.plane = store.openMap(prefix  + "_plane", new MVRTreeMap.Builder<>());
         this.entries = store.openMap(prefix + "_entries");
-        ids = new AtomicInteger();
+        ids = new AtomicInteger(entries.isEmpty() ? 0 : entries.lastKey()+1);
     }
 
     @Override
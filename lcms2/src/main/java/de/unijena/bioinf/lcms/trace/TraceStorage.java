@@ -8,6 +8,7 @@ import org.h2.mvstore.MVStore;
 import org.h2.mvstore.rtree.MVRTreeMap;
 import org.h2.mvstore.rtree.Spatial;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
@@ -40,23 +41,58 @@ public abstract class TraceStorage implements Iterable<ContiguousTrace>  {
         private MVMap<Integer, int[]> trace2ms2;
         private MVMap<Integer, MsMsTraceReference> ms2headers2Traces;
         private MVRTreeMap<Integer> spatialTraceMap;
+        // in-memory copy of the spatial index for the m/z window queries
+        private final TraceMzIndex mzIndex = new TraceMzIndex();
         private ScanPointMapping mapping;
         private AtomicInteger uids;
+        private final Object insertLock = new Object();
 
         public MvTraceStorage(MVStore storage, ScanPointMapping mapping) {
+            this(storage, mapping, true);
+        }
+
+        /**
+         * @param storeTraces if false, the traces themselves are not stored in the MVStore but by the subclass, which
+         *                    has to override {@link #readTrace(int)}, {@link #writeTrace(ContiguousTrace)},
+         *                    {@link #removeTrace(int)}, {@link #traceCount()} and {@link #traces()}.
+         */
+        protected MvTraceStorage(MVStore storage, ScanPointMapping mapping, boolean storeTraces) {
             this.mapping = mapping;
-            this.traceMap = storage.openMap("contiguousTraces",
+            if (storeTraces) this.traceMap = storage.openMap("contiguousTraces",
                     new MVMap.Builder<Integer,ContiguousTrace>().valueType(new ContigousTraceDatatype()));
             this.ms2headers2Traces = storage.openMap("ms2headers2Traces");
             this.trace2ms2 = storage.openMap("trace2ms");
             this.uids = new AtomicInteger(0);
             this.spatialTraceMap = storage.openMap("contiguousTracesSpatialKey", new MVRTreeMap.Builder<>());
+            for (Spatial k : spatialTraceMap.keySet()) {
+                mzIndex.add((int)k.getId(), k.min(0), k.max(0), (int)k.min(1), (int)k.max(1));
+            }
+        }
+
+        protected ContiguousTrace readTrace(int uid) {
+            return traceMap.get(uid);
+        }
+
+        protected void writeTrace(ContiguousTrace trace) {
+            traceMap.put(trace.uid, trace);
+        }
 
+        protected void removeTrace(int uid) {
+            traceMap.remove(uid);
+        }
+
+        protected int traceCount() {
+            return traceMap.size();
+        }
+
+        protected Iterator<ContiguousTrace> traces() {
+            return traceMap.values().iterator();
         }
 
         @Override
         public ContiguousTrace getTraceForMs2(int ms2headerId) {
-            return traceMap.get(ms2headers2Traces.get(ms2headerId));
+            final MsMsTraceReference reference = ms2headers2Traces.get(ms2headerId);
+            return reference == null ? null : readTrace(reference.traceUid);
         }
 
         @Override
@@ -88,7 +124,7 @@ public abstract class TraceStorage implements Iterable<ContiguousTrace>  {
 
         @Override
         public void deleteTrace(int uid) {
-            ContiguousTrace t = this.traceMap.get(uid);
+            ContiguousTrace t = readTrace(uid);
             if (t!=null) {
                 if (t.endId >= t.startId) {
                     MVSpatialKey key = new MVSpatialKey(t.uid, (float)t.averageMz, (float)t.averageMz, t.startId, t.endId);
@@ -102,17 +138,15 @@ public abstract class TraceStorage implements Iterable<ContiguousTrace>  {
                     }
                 }
             }
-            this.traceMap.remove(uid);
+            mzIndex.remove(uid);
+            removeTrace(uid);
         }
 
 
         @Override
         public Optional<ContiguousTrace> getContigousTrace(double fromMz, double toMz, int scanId) {
-            MVSpatialKey key = new MVSpatialKey(0, (float)fromMz, (float)toMz, scanId, scanId);
-            MVRTreeMap.RTreeCursor<Integer> it = spatialTraceMap.findIntersectingKeys(key);
-            for(Spatial k; it.hasNext();) {
-                k = it.next();
-                ContiguousTrace tr = traceMap.get((int)k.getId());
+            for (int id : mzIndex.query((float)fromMz, (float)toMz, scanId, scanId)) {
+                ContiguousTrace tr = readTrace(id);
                 double avgmz = tr.averagedMz();
                 if (avgmz <= toMz && avgmz >= fromMz) {
                     return Optional.of(tr.withMapping(mapping));
@@ -123,12 +157,9 @@ public abstract class TraceStorage implements Iterable<ContiguousTrace>  {
 
         @Override
         public List<ContiguousTrace> getContigousTraces(double fromMz, double toMz, int fromScanId, int toScanId) {
-            MVSpatialKey key = new MVSpatialKey(0, (float)fromMz, (float)toMz, fromScanId, toScanId);
-            MVRTreeMap.RTreeCursor<Integer> it = spatialTraceMap.findIntersectingKeys(key);
             List<ContiguousTrace> outp = new ArrayList<>();
-            for(Spatial k; it.hasNext();) {
-                k = it.next();
-                ContiguousTrace tr = traceMap.get((int)k.getId());
+            for (int id : mzIndex.query((float)fromMz, (float)toMz, fromScanId, toScanId)) {
+                ContiguousTrace tr = readTrace(id);
                 double avgmz = tr.averagedMz();
                 if (avgmz <= toMz && avgmz >= fromMz /*&& tr.startId >= fromScanId && tr.endId() >= toScanId*/) {
                     outp.add(tr.withMapping(mapping));
@@ -139,24 +170,22 @@ public abstract class TraceStorage implements Iterable<ContiguousTrace>  {
 
         @Override
         public int numberOfTraces() {
-            return traceMap.size();
+            return traceCount();
         }
 
 
         @Override
         public ContiguousTrace getContigousTrace(int uid) {
-            return traceMap.get(uid).withMapping(mapping);
+            return readTrace(uid).withMapping(mapping);
         }
 
 
 
         @Override
         public List<ContiguousTrace> getContigousTracesByMass(double from, double to) {
-            final MVSpatialKey key = new MVSpatialKey(0, (float)from, (float)to, Integer.MIN_VALUE, Integer.MAX_VALUE);
             final ArrayList<ContiguousTrace> traces = new ArrayList<>();
-            MVRTreeMap.RTreeCursor<Integer> iter = spatialTraceMap.findIntersectingKeys(key);
-            while (iter.hasNext()) {
-                traces.add(traceMap.get((int)(iter.next().getId())).withMapping(mapping));
+            for (int id : mzIndex.query((float)from, (float)to, Integer.MIN_VALUE, Integer.MAX_VALUE)) {
+                traces.add(readTrace(id).withMapping(mapping));
             }
             return traces;
         }
@@ -166,36 +195,44 @@ public abstract class TraceStorage implements Iterable<ContiguousTrace>  {
         public ContiguousTrace addContigousTrace(ContiguousTrace trace) {
             if (trace.uid >= 0) {
                 // just replace entry in map
-                traceMap.put(trace.uid, trace);
+                writeTrace(trace);
                 return trace;
             }
-            while (true) {
-                int currentIndex = uids.get();
-                MVSpatialKey key = new MVSpatialKey(currentIndex, (float) trace.minMz(), (float) trace.maxMz(), trace.startId(), trace.endId());
-                MVRTreeMap.RTreeCursor<Integer> it = spatialTraceMap.findIntersectingKeys(key);
-                for (Spatial k; it.hasNext(); ) {
-                    k = it.next();
-                    ContiguousTrace contiguousTrace = traceMap.get((int)k.getId());
-                    if (contiguousTrace.apex() == trace.apex()) {
-                        return contiguousTrace.withMapping(mapping);
-                    } else {
-                        LoggerFactory.getLogger(LCMSStorage.class).debug("Overlapping traces found!");
-                    }
-                }
-                if (uids.compareAndSet(currentIndex, currentIndex + 1)) {
-                    ContiguousTrace value = trace.withUID((int)key.getId());
-                    spatialTraceMap.add(key, (int)key.getId());
-                    traceMap.put((int)key.getId(), value);
-                    return value.withMapping(mapping);
+            // traces that were already found by another slice do not have to wait for the lock
+            ContiguousTrace existing = findTraceWithApex(trace);
+            if (existing != null) return existing;
+            // lookup and insertion have to be atomic, otherwise two slices could both miss the other's trace
+            synchronized (insertLock) {
+                existing = findTraceWithApex(trace);
+                if (existing != null) return existing;
+                MVSpatialKey key = new MVSpatialKey(uids.getAndIncrement(), (float) trace.minMz(), (float) trace.maxMz(), trace.startId(), trace.endId());
+                ContiguousTrace value = trace.withUID((int)key.getId());
+                spatialTraceMap.add(key, (int)key.getId());
+                writeTrace(value);
+                // the trace is written before it becomes visible to queries
+                mzIndex.add((int)key.getId(), key.min(0), key.max(0), trace.startId(), trace.endId());
+                return value.withMapping(mapping);
+            }
+        }
+
+        @Nullable
+        private ContiguousTrace findTraceWithApex(ContiguousTrace trace) {
+            for (int id : mzIndex.query((float) trace.minMz(), (float) trace.maxMz(), trace.startId(), trace.endId())) {
+                ContiguousTrace contiguousTrace = readTrace(id);
+                if (contiguousTrace.apex() == trace.apex()) {
+                    return contiguousTrace.withMapping(mapping);
+                } else {
+                    LoggerFactory.getLogger(LCMSStorage.class).debug("Overlapping traces found!");
                 }
             }
+            return null;
         }
 
 
         @NotNull
         @Override
         public Iterator<ContiguousTrace> iterator() {
-            Iterator<ContiguousTrace> iterator = traceMap.values().iterator();
+            Iterator<ContiguousTrace> iterator = traces();
             return new Iterator<ContiguousTrace>() {
                 @Override
                 public boolean hasNext() {
@@ -1,12 +1,14 @@
 package de.unijena.bioinf.lcms.traceextractor;
 
 import de.unijena.bioinf.lcms.trace.ProcessedSample;
+import lombok.Getter;
 
 import java.util.Arrays;
 import java.util.List;
 
 public class CombinedTraceDetectionStrategy implements TraceDetectionStrategy {
 
+    @Getter
     private final List<TraceDetectionStrategy> strategies;
 
     public CombinedTraceDetectionStrategy(List<TraceDetectionStrategy> strategies) {
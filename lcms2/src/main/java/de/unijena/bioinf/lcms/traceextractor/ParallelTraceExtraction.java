@@ -0,0 +1,137 @@
+package de.unijena.bioinf.lcms.traceextractor;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.lcms.trace.ContiguousTrace;
+import de.unijena.bioinf.lcms.trace.ProcessedSample;
+
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Picks the traces for the peaks found by a {@link TraceDetectionStrategy} of a single sample concurrently in slices
+ * of the m/z range.
+ * <p>
+ * The peaks are collected in blocks. The peaks of a block are sorted by mass and split into slices which are picked in
+ * parallel, each with its own memory of the traces it already picked. A picked trace only depends on the spectra
+ * (two peaks are connected iff they are closest in mass from both sides), so slices never have to communicate and
+ * traces crossing a slice border are just picked by both neighbouring slices. Afterwards, the block is replayed in the
+ * original order of the peaks against the {@link TraceCachingStrategy.Cache}: the first peak of a trace adds it, all
+ * later peaks find it in the cache. This resolves the conflicts at slice borders deterministically and yields the same
+ * traces in the same order and with the same uids as {@link TracePicker#detectMostIntensivePeak(int, double)} called
+ * for one peak after another.
+ * <p>
+ * The strategies of a {@link CombinedTraceDetectionStrategy} are run one after another, such that each strategy sees
+ * the traces picked by the previous ones.
+ */
+public class ParallelTraceExtraction {
+
+    private static final int DEFAULT_BLOCK_SIZE = 100_000;
+
+    private final int numberOfSlices;
+    private final int blockSize;
+
+    public ParallelTraceExtraction(int numberOfSlices) {
+        this(numberOfSlices, DEFAULT_BLOCK_SIZE);
+    }
+
+    /**
+     * @param numberOfSlices number of m/z slices that are picked in parallel
+     * @param blockSize number of peaks that are picked before the traces are added to the cache. Bounds the number of
+     *                  picked traces kept in memory.
+     */
+    public ParallelTraceExtraction(int numberOfSlices, int blockSize) {
+        this.numberOfSlices = Math.max(1, numberOfSlices);
+        this.blockSize = Math.max(1, blockSize);
+    }
+
+    /**
+     * @param listener is called for every detected trace, in the same order as in the sequential mode
+     */
+    public void extractTraces(ProcessedSample sample, TraceDetectionStrategy strategy, TracePicker picker, Consumer<ContiguousTrace> listener) {
+        if (strategy instanceof CombinedTraceDetectionStrategy combined) {
+            for (TraceDetectionStrategy s : combined.getStrategies()) {
+                extractTraces(sample, s, picker, listener);
+            }
+            return;
+        }
+        final List<Seed> block = new ArrayList<>();
+        strategy.findPeaksForExtraction(sample, (sample1, spectrumIdx, peakIdx, spectrum) -> {
+            block.add(new Seed(spectrumIdx, spectrum.getMzAt(peakIdx)));
+            if (block.size() >= blockSize) {
+                extractBlock(block, picker, listener);
+                block.clear();
+            }
+        });
+        if (!block.isEmpty()) extractBlock(block, picker, listener);
+    }
+
+    private void extractBlock(List<Seed> seeds, TracePicker picker, Consumer<ContiguousTrace> listener) {
+        final Seed[] byMass = seeds.toArray(Seed[]::new);
+        Arrays.sort(byMass, Comparator.comparingDouble(s -> s.mz));
+        final int slices = Math.min(numberOfSlices, byMass.length);
+        final List<BasicJJob<Object>> jobs = new ArrayList<>(slices);
+        for (int i = 0; i < slices; ++i) {
+            final int from = (int) ((long) byMass.length * i / slices), to = (int) ((long) byMass.length * (i + 1) / slices);
+            jobs.add(SiriusJobs.getGlobalJobManager().submitJob(new BasicJJob<>() {
+                @Override
+                protected Object compute() {
+                    pickSlice(byMass, from, to, picker);
+                    return null;
+                }
+            }));
+        }
+        for (BasicJJob<Object> job : jobs) {
+            job.takeResult();
+        }
+        // replay in the original order, exactly as TracePicker.detectTrace does
+        for (Seed seed : seeds) {
+            if (Double.isNaN(seed.peakMz)) continue;
+            Optional<ContiguousTrace> trace = picker.getTraceFromCache(seed.spectrumId, seed.peakMz);
+            if (trace.isEmpty() && seed.trace != null) trace = Optional.of(picker.addTraceToCache(seed.trace));
+            trace.ifPresent(listener);
+        }
+    }
+
+    private static void pickSlice(Seed[] seeds, int from, int to, TracePicker picker) {
+        final HashMap<Peak, ContiguousTrace> picked = new HashMap<>();
+        for (int i = from; i < to; ++i) {
+            final Seed seed = seeds[i];
+            final SimpleSpectrum spectrum = picker.storage.getSpectrumStorage().getSpectrum(seed.spectrumId);
+            seed.peakMz = picker.mostIntensivePeakMz(spectrum, seed.mz);
+            if (Double.isNaN(seed.peakMz)) continue;
+            final int peakId = picker.findSeed(spectrum, seed.peakMz);
+            if (peakId < 0) continue;
+            final ContiguousTrace known = picked.get(new Peak(seed.spectrumId, spectrum.getMzAt(peakId)));
+            if (known != null) {
+                seed.trace = known;
+                continue;
+            }
+            picker.pickSegmentedTrace(seed.spectrumId, spectrum, peakId).ifPresent(trace -> {
+                seed.trace = trace;
+                // every peak of the trace would yield the same trace
+                for (int k = trace.startId(); k <= trace.endId(); ++k) {
+                    picked.put(new Peak(k, trace.mz(k)), trace);
+                }
+            });
+        }
+    }
+
+    private record Peak(int spectrumId, double mz) {
+    }
+
+    private static class Seed {
+        private final int spectrumId;
+        private final double mz;
+        // written by the slice jobs, read after all jobs are finished
+        private double peakMz = Double.NaN;
+        private ContiguousTrace trace;
+
+        private Seed(int spectrumId, double mz) {
+            this.spectrumId = spectrumId;
+            this.mz = mz;
+        }
+    }
+
+}
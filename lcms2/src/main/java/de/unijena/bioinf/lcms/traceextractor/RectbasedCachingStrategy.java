@@ -8,6 +8,8 @@ import java.util.Optional;
 /**
  * Store rectangles for each trace.
  * Fast lookup of traces using these rectangles.
+ * The cache is thread-safe: lookups run concurrently, adding traces is serialized such that the duplicate check of
+ * the trace storage cannot race with another insertion.
  */
 public class RectbasedCachingStrategy implements TraceCachingStrategy {
     // floating point accuracy for two traces to be equivalent
@@ -20,9 +22,11 @@ public class RectbasedCachingStrategy implements TraceCachingStrategy {
         return new Cache() {
             @Override
             public ContiguousTrace addTraceToCache(ContiguousTrace trace) {
-                ContiguousTrace contiguousTrace = storage.getTraceStorage().addContigousTrace(trace);
-                map.addRect(contiguousTrace.rectWithRts());
-                return contiguousTrace;
+                synchronized (map) {
+                    ContiguousTrace contiguousTrace = storage.getTraceStorage().addContigousTrace(trace);
+                    map.addRect(contiguousTrace.rectWithRts());
+                    return contiguousTrace;
+                }
             }
 
             @Override
@@ -132,7 +132,11 @@ public class TracePicker {
         return lastPeakId;
     }
 
-    private int findSeed(SimpleSpectrum spectrum, double mz) {
+    /**
+     * finds the peak a trace picked at the given mass would start from
+     * @return index of the peak in the spectrum or -1 if there is no such peak
+     */
+    int findSeed(SimpleSpectrum spectrum, double mz) {
         int peakId = Spectrums.mostIntensivePeakWithin(spectrum, mz, smallerDev);
         if (peakId < 0) peakId = Spectrums.mostIntensivePeakWithin(spectrum, mz, allowedMassDeviation);
         if (peakId >= 0) {
@@ -140,30 +144,38 @@ public class TracePicker {
         } else return -1;
     }
 
-    private int findSeed(SimpleSpectrum spectrum, int spectrumId, double mz, IntArrayList spectrumIds, DoubleArrayList mzs, FloatArrayList intensities) {
-        int peakId = findSeed(spectrum,mz);
-        spectrumIds.add(spectrumId);
-        intensities.add((float)spectrum.getIntensityAt(peakId));
-        mzs.add(spectrum.getMzAt(peakId));
-        return peakId;
+    public Optional<ContiguousTrace> detectTrace(int spectrumId, double mz) {
+        Optional<ContiguousTrace> traceFromCache = cache.getTraceFromCache(spectrumId, mz);
+        if (traceFromCache.isPresent()) return traceFromCache;
+        Optional<ContiguousTrace> detected = pickTrace(spectrumId, mz).map(this::segment);
+        return detected.map(cache::addTraceToCache);
     }
 
+    /**
+     * picks and segments the trace through the given peak without looking into or adding to the cache.
+     * Two peaks are only connected if they are the closest in mass from both sides, so every peak of the returned
+     * trace would yield the same trace. This method does not change any state and can be called concurrently.
+     */
+    Optional<ContiguousTrace> pickSegmentedTrace(int spectrumId, SimpleSpectrum spectrum, int peakId) {
+        return pickTrace(spectrumId, spectrum, peakId).map(this::segment);
+    }
 
+    private ContiguousTrace segment(ContiguousTrace x) {
+        // TODO: evtl. hier schon points of interests einfügen
+        x.setSegments(segmentationStrategy.detectSegments(storage.getStatistics(), x, new int[0]).toArray(TraceSegment[]::new));
+        if (x.getSegments().length==0) {
+            x.setSegments(new TraceSegment[]{new TraceSegment(x.apex(), x.startId(), x.endId())});
+            x.setNoisyTrace(true);
+        }
+        return x;
+    }
 
-    public Optional<ContiguousTrace> detectTrace(int spectrumId, double mz) {
-        Optional<ContiguousTrace> traceFromCache = cache.getTraceFromCache(spectrumId, mz);
-        if (traceFromCache.isPresent()) return traceFromCache;
-        Optional<ContiguousTrace> detected = pickTrace(spectrumId, mz);
-        return detected.map(x->{ // TODO: evtl. hier schon points of interests einfügen
-            //
-            x.setSegments(segmentationStrategy.detectSegments(storage.getStatistics(), x, new int[0]).toArray(TraceSegment[]::new));
-            if (x.getSegments().length==0) {
-                x.setSegments(new TraceSegment[]{new TraceSegment(x.apex(), x.startId(), x.endId())});
-                x.setNoisyTrace(true);
-            }
-
-            return cache.addTraceToCache(x);
-        });
+    ContiguousTrace addTraceToCache(ContiguousTrace trace) {
+        return cache.addTraceToCache(trace);
+    }
+
+    Optional<ContiguousTrace> getTraceFromCache(int spectrumId, double mz) {
+        return cache.getTraceFromCache(spectrumId, mz);
     }
 
     public Optional<ContiguousTrace> detectMostIntensivePeakWithin(int id, double startMz, double endMz) {
@@ -180,14 +192,30 @@ public class TracePicker {
         return detectMostIntensivePeakWithin(id, mz-abs, mz+abs);
     }
 
+    /**
+     * @return mass of the peak {@link #detectMostIntensivePeak(int, double)} would detect a trace for or NaN if there
+     * is no such peak
+     */
+    double mostIntensivePeakMz(SimpleSpectrum spectrum, double mz) {
+        final double abs = allowedMassDeviation.absoluteFor(mz);
+        final int index = Spectrums.mostIntensivePeakWithin(spectrum, mz-abs, mz+abs);
+        return index < 0 ? Double.NaN : spectrum.getMzAt(index);
+    }
+
 
     private Optional<ContiguousTrace> pickTrace(int spectrumId, double mz) {
         SimpleSpectrum spectrum = storage.getSpectrumStorage().getSpectrum(spectrumId);
+        return pickTrace(spectrumId, spectrum, findSeed(spectrum, mz));
+    }
+
+    private Optional<ContiguousTrace> pickTrace(int spectrumId, SimpleSpectrum spectrum, int initialId) {
+        if (initialId<0) return Optional.empty();
         final DoubleArrayList masses = new DoubleArrayList();
         final FloatArrayList intensities = new FloatArrayList();
         final IntArrayList spectrumIds = new IntArrayList();
-        final int initialId = findSeed(spectrum, spectrumId, mz, spectrumIds, masses, intensities);
-        if (initialId<0) return Optional.empty();
+        spectrumIds.add(spectrumId);
+        intensities.add((float)spectrum.getIntensityAt(initialId));
+        masses.add(spectrum.getMzAt(initialId));
         extendLeft(spectrumIds, masses, intensities, initialId);
         rev(spectrumIds,masses,intensities);
         extendRight(spectrumIds, masses, intensities, initialId);
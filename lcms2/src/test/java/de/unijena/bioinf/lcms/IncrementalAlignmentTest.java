@@ -0,0 +1,181 @@
+package de.unijena.bioinf.lcms;
+
+import de.unijena.bioinf.lcms.align.AlignmentBackbone;
+import de.unijena.bioinf.lcms.projectspace.InMemoryDatabaseAdapter;
+import de.unijena.bioinf.lcms.trace.LCMSStorage;
+import de.unijena.bioinf.ms.persistence.model.core.feature.AlignedFeatures;
+import de.unijena.bioinf.ms.persistence.model.core.run.AlignmentState;
+import de.unijena.bioinf.ms.persistence.model.core.run.Chromatography;
+import de.unijena.bioinf.ms.persistence.model.core.run.MergedLCMSRun;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class IncrementalAlignmentTest {
+
+    private static final int NUMBER_OF_SCANS = 400, NUMBER_OF_COMPOUNDS = 60;
+    private static final double ISOTOPE_DISTANCE = 1.00336;
+
+    @TempDir
+    Path tmp;
+
+    /**
+     * masses with a mass defect that is typical for organic ions, otherwise features are taken for multiply charged ions
+     */
+    private static double mz(int compound) {
+        final int nominal = 150 + compound * 7;
+        return nominal + nominal * 0.0004 + (compound % 7) * 0.003;
+    }
+
+    private static double apex(int compound) {
+        return 30 + (compound * 37) % 340;
+    }
+
+    /**
+     * writes a centroided positive mode run in which all compounds elute with an isotope pattern. The runs differ in
+     * their retention time shift, their intensities and their noise.
+     */
+    private Path writeRun(String name, double rtShift, double intensityScale, long seed) throws IOException {
+        final Random r = new Random(seed);
+        final double[] heights = new double[NUMBER_OF_COMPOUNDS];
+        for (int c = 0; c < NUMBER_OF_COMPOUNDS; ++c) heights[c] = intensityScale * 2e4 * Math.pow(50, (c * 13 % NUMBER_OF_COMPOUNDS) / (double) NUMBER_OF_COMPOUNDS);
+        final Path file = tmp.resolve(name + ".mzML");
+        try (Writer w = Files.newBufferedWriter(file)) {
+            w.write("<?xml version=\"1.0\" encoding=\"utf-8\"?>\n<mzML xmlns=\"http://psi.hupo.org/ms/mzml\" id=\"" + name + "\" version=\"1.1.0\">\n");
+            w.write("<run id=\"" + name + "\">\n<spectrumList count=\"" + NUMBER_OF_SCANS + "\">\n");
+            for (int k = 0; k < NUMBER_OF_SCANS; ++k) {
+                final double rt = k;
+                final TreeMap<Double, Double> peaks = new TreeMap<>();
+                for (int i = 0; i < 30; ++i) peaks.put(100 + r.nextDouble() * 600, 50 + r.nextDouble() * 100);
+                for (int c = 0; c < NUMBER_OF_COMPOUNDS; ++c) {
+                    final double x = (rt - apex(c) - rtShift) / 4d;
+                    if (Math.abs(x) > 4) continue;
+                    final double intensity = heights[c] * Math.exp(-x * x / 2) * (1 + r.nextGaussian() * 0.02);
+                    final double[] ratios = {1, 0.08 + mz(c) / 4000, 0.02};
+                    for (int iso = 0; iso < ratios.length; ++iso) {
+                        final double m = mz(c) + iso * ISOTOPE_DISTANCE;
+                        peaks.put(m + m * 1e-6 * r.nextGaussian(), intensity * ratios[iso]);
+                    }
+                }
+                w.write("<spectrum index=\"" + k + "\" id=\"scan=" + (k + 1) + "\" defaultArrayLength=\"" + peaks.size() + "\">\n");
+                w.write("<cvParam cvRef=\"MS\" accession=\"MS:1000511\" name=\"ms level\" value=\"1\"/>\n");
+                w.write("<cvParam cvRef=\"MS\" accession=\"MS:1000130\" name=\"positive scan\" value=\"\"/>\n");
+                w.write("<cvParam cvRef=\"MS\" accession=\"MS:1000127\" name=\"centroid spectrum\" value=\"\"/>\n");
+                w.write("<scanList count=\"1\"><scan><cvParam cvRef=\"MS\" accession=\"MS:1000016\" name=\"scan start time\" value=\"" + rt + "\" unitAccession=\"UO:0000010\" unitName=\"second\"/></scan></scanList>\n");
+                w.write("<binaryDataArrayList count=\"2\">\n");
+                writeArray(w, "MS:1000514", peaks.keySet());
+                writeArray(w, "MS:1000515", peaks.values());
+                w.write("</binaryDataArrayList>\n</spectrum>\n");
+            }
+            w.write("</spectrumList>\n</run>\n</mzML>\n");
+        }
+        return file;
+    }
+
+    private static void writeArray(Writer w, String accession, Collection<Double> values) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(values.size() * 8).order(ByteOrder.LITTLE_ENDIAN);
+        for (double v : values) buffer.putDouble(v);
+        w.write("<binaryDataArray><cvParam cvRef=\"MS\" accession=\"MS:1000523\" name=\"64-bit float\" value=\"\"/>");
+        w.write("<cvParam cvRef=\"MS\" accession=\"MS:1000576\" name=\"no compression\" value=\"\"/>");
+        w.write("<cvParam cvRef=\"MS\" accession=\"" + accession + "\" value=\"\"/>");
+        w.write("<binary>" + Base64.getEncoder().encodeToString(buffer.array()) + "</binary></binaryDataArray>\n");
+    }
+
+    /**
+     * @return for every compound the id of the feature of the merged run that matches its monoisotopic m/z and
+     * retention time, or -1 if it was not detected
+     */
+    private static long[] detectedCompounds(InMemoryDatabaseAdapter db, long mergedRunId) {
+        final long[] ids = new long[NUMBER_OF_COMPOUNDS];
+        Arrays.fill(ids, -1);
+        for (AlignedFeatures f : db.getFeatures(mergedRunId)) {
+            for (int c = 0; c < NUMBER_OF_COMPOUNDS; ++c) {
+                if (Math.abs(f.getAverageMass() - mz(c)) < 0.005 && Math.abs(f.getRetentionTime().getMiddleTime() - apex(c)) < 15)
+                    ids[c] = f.getAlignedFeatureId();
+            }
+        }
+        return ids;
+    }
+
+    private static long mergedRunId(InMemoryDatabaseAdapter db) {
+        assertEquals(1, db.mergedRuns.size());
+        return db.mergedRuns.keySet().iterator().next();
+    }
+
+    @Test
+    public void testIncrementalAlignmentMatchesAligningAllRuns() throws IOException {
+        final List<Path> runs = List.of(
+                writeRun("run1", 0, 1, 1),
+                writeRun("run2", 3, 0.8, 2),
+                writeRun("run3", -2, 1.2, 3)
+        );
+
+        // all runs at once
+        final InMemoryDatabaseAdapter full = new InMemoryDatabaseAdapter();
+        final LCMSProcessing all = new LCMSProcessing(full, false, LCMSStorage.temporaryStorage(tmp.toFile(), false));
+        try {
+            assertEquals(3, all.processSamples(runs, false, Chromatography.LC, null).size());
+            AlignmentBackbone backbone = all.align();
+            assertTrue(all.extractFeaturesAndExportToProjectSpace(all.merge(backbone), backbone) > 0);
+        } finally {
+            all.closeStorages();
+        }
+        assertTrue(full.alignmentStates.isEmpty());
+        final long[] expected = detectedCompounds(full, mergedRunId(full));
+
+        // two runs, then the third one after reopening the storages
+        final InMemoryDatabaseAdapter db = new InMemoryDatabaseAdapter();
+        final Path storageDir = tmp.resolve("lcms");
+        final LCMSProcessing first = new LCMSProcessing(db, true, LCMSStorage.directoryStorage(storageDir.toFile()));
+        first.setIncremental(true);
+        try {
+            first.processSamples(runs.subList(0, 2), false, Chromatography.LC, null);
+            AlignmentBackbone backbone = first.align();
+            assertTrue(first.extractFeaturesAndExportToProjectSpace(first.merge(backbone), backbone) > 0);
+        } finally {
+            first.closeStorages();
+        }
+        final long mergedRunId = mergedRunId(db);
+        final AlignmentState state = db.getAlignmentState(mergedRunId).orElseThrow();
+        assertEquals(2, state.getSamples().size());
+        final long[] beforeIncremental = detectedCompounds(db, mergedRunId);
+
+        final LCMSProcessing second = new LCMSProcessing(db, true, LCMSStorage.directoryStorage(storageDir.toFile()));
+        second.setIncremental(true);
+        try {
+            second.restoreAlignment(mergedRunId);
+            second.processSamples(runs.subList(2, 3), false, Chromatography.LC, null);
+            assertTrue(second.alignIncrementally() > 0);
+        } finally {
+            second.closeStorages();
+        }
+        assertEquals(mergedRunId, mergedRunId(db));
+        final MergedLCMSRun mergedRun = db.mergedRuns.get(mergedRunId);
+        assertEquals(3, mergedRun.getRunIds().length);
+        assertEquals(3, db.getAlignmentState(mergedRunId).orElseThrow().getSamples().size());
+        final long[] incremental = detectedCompounds(db, mergedRunId);
+
+        int detected = 0, keptIds = 0, detectedBefore = 0;
+        for (int c = 0; c < NUMBER_OF_COMPOUNDS; ++c) {
+            assertEquals(expected[c] >= 0, incremental[c] >= 0, "compound " + c + " at m/z " + mz(c));
+            if (incremental[c] >= 0) ++detected;
+            if (beforeIncremental[c] >= 0) {
+                ++detectedBefore;
+                if (beforeIncremental[c] == incremental[c]) ++keptIds;
+            }
+        }
+        assertTrue(detected >= NUMBER_OF_COMPOUNDS * 0.9, "only " + detected + " compounds detected");
+        // features found again keep their ids, such that their results are kept
+        assertTrue(keptIds >= detectedBefore * 0.9, "only " + keptIds + " of " + detectedBefore + " features kept their ids");
+    }
+
+}
@@ -0,0 +1,68 @@
+package de.unijena.bioinf.lcms;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MemoryAwareSampleSchedulerTest {
+
+    @Test
+    public void testAlwaysAdmitsOneSample() throws InterruptedException {
+        MemoryAwareSampleScheduler scheduler = new MemoryAwareSampleScheduler(100, 100, 4);
+        MemoryAwareSampleScheduler.Reservation huge = new MemoryAwareSampleScheduler.Reservation(1000, 1000);
+        scheduler.acquire(huge);
+        assertEquals(1, scheduler.getRunningSamples());
+        scheduler.release(huge);
+        assertEquals(0, scheduler.getRunningSamples());
+    }
+
+    @Test
+    public void testBlocksUntilMemoryIsReleased() throws InterruptedException {
+        MemoryAwareSampleScheduler scheduler = new MemoryAwareSampleScheduler(100, 100, 4);
+        MemoryAwareSampleScheduler.Reservation sample = new MemoryAwareSampleScheduler.Reservation(60, 10);
+        scheduler.acquire(sample);
+
+        CountDownLatch admitted = new CountDownLatch(1);
+        Thread second = new Thread(() -> {
+            try {
+                scheduler.acquire(sample);
+                admitted.countDown();
+            } catch (InterruptedException ignored) {
+            }
+        });
+        second.start();
+        assertFalse(admitted.await(200, TimeUnit.MILLISECONDS), "second sample does not fit into the heap budget");
+
+        scheduler.release(sample);
+        assertTrue(admitted.await(5, TimeUnit.SECONDS));
+        assertEquals(1, scheduler.getRunningSamples());
+        second.join();
+    }
+
+    @Test
+    public void testBoundsConcurrency() throws InterruptedException {
+        MemoryAwareSampleScheduler scheduler = new MemoryAwareSampleScheduler(1000, 1000, 2);
+        MemoryAwareSampleScheduler.Reservation small = new MemoryAwareSampleScheduler.Reservation(1, 0);
+        scheduler.acquire(small);
+        scheduler.acquire(small);
+
+        Thread third = new Thread(() -> {
+            try {
+                scheduler.acquire(small);
+            } catch (InterruptedException ignored) {
+            }
+        });
+        third.start();
+        third.join(200);
+        assertTrue(third.isAlive());
+        assertEquals(2, scheduler.getRunningSamples());
+
+        scheduler.release(small);
+        third.join(5000);
+        assertFalse(third.isAlive());
+        assertEquals(2, scheduler.getRunningSamples());
+    }
+}
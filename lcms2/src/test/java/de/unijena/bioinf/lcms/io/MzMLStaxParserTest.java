@@ -0,0 +1,198 @@
+package de.unijena.bioinf.lcms.io;
+
+import de.unijena.bioinf.ChemistryBase.ms.CollisionEnergy;
+import de.unijena.bioinf.ChemistryBase.ms.IsolationWindow;
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import de.unijena.bioinf.lcms.ScanPointMapping;
+import de.unijena.bioinf.lcms.spectrum.Ms1SpectrumHeader;
+import de.unijena.bioinf.lcms.spectrum.Ms2SpectrumHeader;
+import de.unijena.bioinf.lcms.spectrum.SpectrumStorage;
+import de.unijena.bioinf.lcms.trace.LCMSStorage;
+import de.unijena.bioinf.lcms.trace.ProcessedSample;
+import de.unijena.bioinf.ms.persistence.model.core.run.Chromatography;
+import de.unijena.bioinf.ms.persistence.model.core.run.LCMSRun;
+import de.unijena.bioinf.ms.persistence.model.core.scan.MSMSScan;
+import de.unijena.bioinf.ms.persistence.model.core.scan.Scan;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.net.URISyntaxException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.stream.StreamSupport;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MzMLStaxParserTest {
+
+    @TempDir
+    Path tmp;
+
+    /**
+     * MS1 spectra share a referenceableParamGroup, the binary arrays mix zlib compressed and uncompressed as well as
+     * 32 and 64-bit data and the MS/MS spectra have a precursor with isolation window and activation.
+     */
+    private static Path encodings() throws URISyntaxException {
+        return Path.of(MzMLStaxParserTest.class.getResource("/mzml/encodings.mzML").toURI());
+    }
+
+    private record Parsed(ProcessedSample sample, LCMSRun run, List<Scan> scans, List<MSMSScan> msmsScans) {
+        List<Ms2SpectrumHeader> ms2Headers() {
+            return StreamSupport.stream(sample.getStorage().getSpectrumStorage().ms2SpectraHeader().spliterator(), false)
+                    .sorted(Comparator.comparingInt(Ms1SpectrumHeader::getUid)).toList();
+        }
+    }
+
+    private Parsed parse(LCMSParser parser, Path file) throws IOException {
+        final List<Scan> scans = new ArrayList<>();
+        final List<MSMSScan> msmsScans = new ArrayList<>();
+        final LCMSRun run = LCMSRun.builder().chromatography(Chromatography.LC).build();
+        final ProcessedSample sample = parser.parse(file, LCMSStorage.temporaryStorage(tmp.toFile(), false),
+                r -> r.setRunId(1L), r -> {}, scans::add, msmsScans::add, run);
+        return new Parsed(sample, run, scans, msmsScans);
+    }
+
+    private static void assertSameSpectrum(SimpleSpectrum expected, SimpleSpectrum actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); ++i) {
+            assertEquals(expected.getMzAt(i), actual.getMzAt(i));
+            assertEquals(expected.getIntensityAt(i), actual.getIntensityAt(i));
+        }
+    }
+
+    private static void assertSameWindow(IsolationWindow expected, IsolationWindow actual) {
+        assertEquals(expected == null, actual == null);
+        if (expected == null) return;
+        assertEquals(expected.getWindowOffset(), actual.getWindowOffset());
+        assertEquals(expected.getWindowWidth(), actual.getWindowWidth());
+    }
+
+    private static void assertSameEnergy(CollisionEnergy expected, CollisionEnergy actual) {
+        assertEquals(expected == null, actual == null);
+        if (expected == null) return;
+        assertEquals(expected.getMinEnergy(), actual.getMinEnergy());
+        assertEquals(expected.getMaxEnergy(), actual.getMaxEnergy());
+    }
+
+    @Test
+    public void testStaxParserEqualsMzMLParser() throws Exception {
+        final Parsed expected = parse(new MzMLParser(), encodings()), actual = parse(new MzMLStaxParser(), encodings());
+
+        assertEquals(expected.run().getIonization(), actual.run().getIonization());
+        assertEquals(expected.run().getFragmentation(), actual.run().getFragmentation());
+        assertEquals(expected.run().getMassAnalyzers(), actual.run().getMassAnalyzers());
+        assertEquals(expected.sample().getPolarity(), actual.sample().getPolarity());
+
+        final ScanPointMapping em = expected.sample().getMapping(), am = actual.sample().getMapping();
+        assertArrayEquals(em.getRetentionTimeArray(), am.getRetentionTimeArray());
+        assertArrayEquals(em.getScanIdArray(), am.getScanIdArray());
+        assertArrayEquals(em.getScanIdentifiersArray(), am.getScanIdentifiersArray());
+
+        final SpectrumStorage es = expected.sample().getStorage().getSpectrumStorage(), as = actual.sample().getStorage().getSpectrumStorage();
+        for (int i = 0; i < em.length(); ++i) {
+            assertEquals(es.ms1SpectrumHeader(i).getScanId(), as.ms1SpectrumHeader(i).getScanId());
+            assertEquals(es.ms1SpectrumHeader(i).getSourceId(), as.ms1SpectrumHeader(i).getSourceId());
+            assertSameSpectrum(es.getSpectrum(i), as.getSpectrum(i));
+        }
+
+        final List<Ms2SpectrumHeader> eh = expected.ms2Headers(), ah = actual.ms2Headers();
+        assertEquals(eh.size(), ah.size());
+        for (int i = 0; i < eh.size(); ++i) {
+            final Ms2SpectrumHeader e = eh.get(i), a = ah.get(i);
+            assertEquals(e.getSourceId(), a.getSourceId());
+            assertEquals(e.getScanId(), a.getScanId());
+            assertEquals(e.getParentId(), a.getParentId());
+            assertEquals(e.getRetentionTime(), a.getRetentionTime());
+            assertEquals(e.getPrecursorMz(), a.getPrecursorMz());
+            assertEquals(e.getTargetedMz(), a.getTargetedMz());
+            assertEquals(e.getMsLevel(), a.getMsLevel());
+            assertSameEnergy(e.getEnergy().orElse(null), a.getEnergy().orElse(null));
+            assertSameWindow(e.getIsolationWindow().orElse(null), a.getIsolationWindow().orElse(null));
+            assertSameSpectrum(es.getMs2Spectrum(e.getUid()), as.getMs2Spectrum(a.getUid()));
+        }
+
+        assertEquals(expected.scans().size(), actual.scans().size());
+        for (int i = 0; i < expected.scans().size(); ++i) {
+            final Scan e = expected.scans().get(i), a = actual.scans().get(i);
+            assertEquals(e.getSourceScanId(), a.getSourceScanId());
+            assertEquals(e.getScanTime(), a.getScanTime());
+            assertSameSpectrum(e.getPeaks(), a.getPeaks());
+        }
+        assertEquals(expected.msmsScans().size(), actual.msmsScans().size());
+        for (int i = 0; i < expected.msmsScans().size(); ++i) {
+            final MSMSScan e = expected.msmsScans().get(i), a = actual.msmsScans().get(i);
+            assertEquals(e.getSourceScanId(), a.getSourceScanId());
+            assertEquals(e.getScanTime(), a.getScanTime());
+            assertEquals(e.getMzOfInterest(), a.getMzOfInterest());
+            assertEquals(e.getPrecursorScanId(), a.getPrecursorScanId());
+            assertSameWindow(e.getIsolationWindow(), a.getIsolationWindow());
+            assertSameEnergy(e.getCollisionEnergy(), a.getCollisionEnergy());
+            assertSameSpectrum(e.getPeaks(), a.getPeaks());
+        }
+    }
+
+    @Test
+    public void testStaxParserDecodesAllEncodings() throws Exception {
+        final Parsed parsed = parse(new MzMLStaxParser(), encodings());
+        final ScanPointMapping mapping = parsed.sample().getMapping();
+        assertArrayEquals(new int[]{1, 2, 4, 6}, mapping.getScanIdArray());
+        assertArrayEquals(new double[]{60, 61.5, 63, 64.5}, mapping.getRetentionTimeArray(), 1e-3);
+        assertArrayEquals(new String[]{null, null, "controllerType=0 controllerNumber=1 scan=4", null}, mapping.getScanIdentifiersArray());
+        assertEquals(1, parsed.sample().getPolarity());
+        assertEquals(4, parsed.scans().size());
+        assertEquals(2, parsed.msmsScans().size());
+
+        final SpectrumStorage storage = parsed.sample().getStorage().getSpectrumStorage();
+        // 64-bit m/z and 32-bit intensities, uncompressed
+        final SimpleSpectrum first = storage.getSpectrum(0);
+        assertEquals(3, first.size());
+        assertEquals(150.0625, first.getMzAt(0));
+        assertEquals(20000.25, first.getIntensityAt(1));
+        // 64-bit, zlib
+        final SimpleSpectrum second = storage.getSpectrum(1);
+        assertEquals(4, second.size());
+        assertEquals(301.25, second.getMzAt(3));
+        assertEquals(42.5, second.getIntensityAt(3));
+        // 32-bit, zlib
+        final SimpleSpectrum third = storage.getSpectrum(2);
+        assertEquals((float) 200.1249, third.getMzAt(1));
+        assertEquals(19000, third.getIntensityAt(1));
+
+        final List<Ms2SpectrumHeader> ms2 = parsed.ms2Headers();
+        assertEquals(2, ms2.size());
+        // 32-bit, uncompressed. The isolation window target is preferred over the selected ion m/z
+        final Ms2SpectrumHeader a = ms2.get(0);
+        assertEquals("scan=3", a.getSourceId());
+        assertEquals(3, a.getScanId());
+        assertEquals(1, a.getParentId());
+        assertEquals(200.12, a.getPrecursorMz(), 1e-9);
+        assertEquals(62, a.getRetentionTime(), 1e-3); // minutes are stored as float
+        assertSameWindow(IsolationWindow.fromOffsets(1.0, 0.5), a.getIsolationWindow().orElseThrow());
+        assertEquals(25, a.getEnergy().orElseThrow().getMinEnergy(), 1e-9);
+        assertEquals((float) 119.0495, storage.getMs2Spectrum(a.getUid()).getMzAt(1));
+        // 64-bit, zlib. The precursor references a spectrum whose id is not of the form scan=number
+        final Ms2SpectrumHeader b = ms2.get(1);
+        assertEquals(5, b.getScanId());
+        assertEquals(2, b.getParentId());
+        assertEquals(250.51, b.getPrecursorMz(), 1e-9);
+        assertEquals(133.065, storage.getMs2Spectrum(b.getUid()).getMzAt(1));
+        assertEquals(4, parsed.msmsScans().get(1).getPrecursorScanId());
+    }
+
+    @Test
+    public void testSpectraWithoutId() throws Exception {
+        final Path file = tmp.resolve("without-id.mzML");
+        Files.writeString(file, Files.readString(encodings()).replace(" id=\"scan=6\"", ""));
+        final Parsed parsed = parse(new MzMLStaxParser(), file);
+        final ScanPointMapping mapping = parsed.sample().getMapping();
+        assertEquals(4, mapping.length());
+        // the scan number falls back to the index of the spectrum
+        assertEquals(5, mapping.getScanIdAt(3));
+        assertNull(mapping.getScanIdentifiersArray()[3]);
+        assertNull(parsed.scans().get(3).getSourceScanId());
+    }
+}
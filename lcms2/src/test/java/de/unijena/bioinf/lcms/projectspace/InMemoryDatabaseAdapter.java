@@ -0,0 +1,164 @@
+package de.unijena.bioinf.lcms.projectspace;
+
+import de.unijena.bioinf.ms.persistence.model.core.feature.AlignedFeatures;
+import de.unijena.bioinf.ms.persistence.model.core.run.AlignmentState;
+import de.unijena.bioinf.ms.persistence.model.core.run.LCMSRun;
+import de.unijena.bioinf.ms.persistence.model.core.run.MergedLCMSRun;
+import de.unijena.bioinf.ms.persistence.model.core.run.RetentionTimeAxis;
+import de.unijena.bioinf.ms.persistence.model.core.scan.MSMSScan;
+import de.unijena.bioinf.ms.persistence.model.core.scan.Scan;
+import de.unijena.bioinf.ms.persistence.model.core.trace.AbstractTrace;
+import de.unijena.bioinf.ms.persistence.model.core.trace.MergedTrace;
+import de.unijena.bioinf.ms.persistence.model.core.trace.SourceTrace;
+
+import java.io.Closeable;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Keeps everything in maps and assigns ids like the project space does, such that the LC-MS preprocessing can be
+ * tested without a project space.
+ */
+public class InMemoryDatabaseAdapter implements SiriusDatabaseAdapter {
+
+    private final AtomicLong ids = new AtomicLong(1);
+
+    public final Map<Long, LCMSRun> runs = new ConcurrentHashMap<>();
+    public final Map<Long, MergedLCMSRun> mergedRuns = new ConcurrentHashMap<>();
+    public final Map<Long, RetentionTimeAxis> retentionTimeAxes = new ConcurrentHashMap<>();
+    public final Map<Long, AlignmentState> alignmentStates = new ConcurrentHashMap<>();
+    public final Map<Long, MergedTrace> mergedTraces = new ConcurrentHashMap<>();
+    public final Map<Long, SourceTrace> sourceTraces = new ConcurrentHashMap<>();
+    public final Map<Long, AlignedFeatures> features = new ConcurrentHashMap<>();
+
+    @Override
+    public void importRun(LCMSRun run) {
+        run.setRunId(ids.getAndIncrement());
+        runs.put(run.getRunId(), run);
+    }
+
+    @Override
+    public void updateRun(LCMSRun run) {
+        runs.put(run.getRunId(), run);
+    }
+
+    @Override
+    public void importMergedRun(MergedLCMSRun mergedRun) {
+        mergedRun.setRunId(ids.getAndIncrement());
+        mergedRuns.put(mergedRun.getRunId(), mergedRun);
+    }
+
+    @Override
+    public void updateMergedRun(MergedLCMSRun mergedRun) {
+        mergedRuns.put(mergedRun.getRunId(), mergedRun);
+    }
+
+    @Override
+    public void removeMergedRun(MergedLCMSRun run) {
+        for (long id : run.getRunIds()) runs.remove(id);
+        mergedRuns.remove(run.getRunId());
+        alignmentStates.remove(run.getRunId());
+    }
+
+    @Override
+    public void importScan(Scan scan) {
+    }
+
+    @Override
+    public void importMSMSScan(MSMSScan scan) {
+    }
+
+    @Override
+    public void importTrace(AbstractTrace trace) {
+        if (trace instanceof MergedTrace merged) {
+            merged.setMergedTraceId(ids.getAndIncrement());
+            mergedTraces.put(merged.getMergedTraceId(), merged);
+        } else if (trace instanceof SourceTrace source) {
+            source.setSourceTraceId(ids.getAndIncrement());
+            sourceTraces.put(source.getSourceTraceId(), source);
+        }
+    }
+
+    @Override
+    public void flushTraces() {
+    }
+
+    @Override
+    public Closeable bulkImport() {
+        return () -> {};
+    }
+
+    @Override
+    public void removeSourceTrace(long id) {
+        sourceTraces.remove(id);
+    }
+
+    @Override
+    public void removeMergedTrace(long id) {
+        mergedTraces.remove(id);
+    }
+
+    @Override
+    public boolean importAlignedFeature(AlignedFeatures alignedFeatures) {
+        if (Math.abs(alignedFeatures.getCharge()) > 1) return false;
+        alignedFeatures.setAlignedFeatureId(ids.getAndIncrement());
+        features.put(alignedFeatures.getAlignedFeatureId(), alignedFeatures);
+        return true;
+    }
+
+    @Override
+    public boolean updateAlignedFeature(AlignedFeatures alignedFeatures) {
+        if (Math.abs(alignedFeatures.getCharge()) > 1) {
+            features.remove(alignedFeatures.getAlignedFeatureId());
+            return false;
+        }
+        features.put(alignedFeatures.getAlignedFeatureId(), alignedFeatures);
+        return true;
+    }
+
+    @Override
+    public void removeAlignedFeatures(long[] alignedFeatureIds) {
+        for (long id : alignedFeatureIds) features.remove(id);
+    }
+
+    @Override
+    public void importRetentionTimeAxis(RetentionTimeAxis axis, boolean update) {
+        retentionTimeAxes.put(axis.getRunId(), axis);
+    }
+
+    @Override
+    public Optional<RetentionTimeAxis> getRetentionTimeAxis(long runId) {
+        return Optional.ofNullable(retentionTimeAxes.get(runId));
+    }
+
+    @Override
+    public Optional<LCMSRun> getRun(long runId) {
+        return Optional.ofNullable(runs.get(runId));
+    }
+
+    @Override
+    public Optional<MergedLCMSRun> getMergedRun(long runId) {
+        return Optional.ofNullable(mergedRuns.get(runId));
+    }
+
+    @Override
+    public void importAlignmentState(AlignmentState state) {
+        alignmentStates.put(state.getRunId(), state);
+    }
+
+    @Override
+    public Optional<AlignmentState> getAlignmentState(long mergedRunId) {
+        return Optional.ofNullable(alignmentStates.get(mergedRunId));
+    }
+
+    @Override
+    public Stream<AlignedFeatures> getImportedFeatureStream(long runId) {
+        return features.values().stream().filter(f -> f.getRunId() != null && f.getRunId() == runId);
+    }
+
+    public List<AlignedFeatures> getFeatures(long runId) {
+        return getImportedFeatureStream(runId).sorted(Comparator.comparingLong(AlignedFeatures::getAlignedFeatureId)).toList();
+    }
+}
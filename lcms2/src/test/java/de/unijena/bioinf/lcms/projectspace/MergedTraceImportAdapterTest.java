@@ -0,0 +1,112 @@
+package de.unijena.bioinf.lcms.projectspace;
+
+import de.unijena.bioinf.ChemistryBase.chem.RetentionTime;
+import de.unijena.bioinf.ms.persistence.model.core.feature.AlignedFeatures;
+import de.unijena.bioinf.ms.persistence.model.core.run.AlignmentState;
+import de.unijena.bioinf.ms.persistence.model.core.trace.MergedTrace;
+import de.unijena.bioinf.ms.persistence.model.core.trace.SourceTrace;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.Arrays;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MergedTraceImportAdapterTest {
+
+    private InMemoryDatabaseAdapter db;
+
+    @BeforeEach
+    public void createDatabase() {
+        db = new InMemoryDatabaseAdapter();
+    }
+
+    private static AlignedFeatures feature(double start, double middle, double end) {
+        return AlignedFeatures.builder()
+                .runId(1L)
+                .charge((byte) 1)
+                .averageMass(200)
+                .retentionTime(new RetentionTime(start, end, middle))
+                .build();
+    }
+
+    /**
+     * imports a merged trace with one source trace and the given features
+     */
+    private static MergedTraceImportAdapter importTrace(SiriusDatabaseAdapter db, MergedTraceImportAdapter previous, AlignedFeatures... features) throws IOException {
+        final MergedTraceImportAdapter adapter = new MergedTraceImportAdapter(db, previous);
+        adapter.importTrace(new MergedTrace());
+        adapter.importTrace(new SourceTrace());
+        for (AlignedFeatures f : features) adapter.importAlignedFeature(f);
+        return adapter;
+    }
+
+    @Test
+    public void testFeaturesAreMatchedByRetentionTime() throws IOException {
+        final AlignedFeatures a = feature(10, 15, 25), b = feature(20, 30, 40), c = feature(50, 55, 60);
+        final MergedTraceImportAdapter first = importTrace(db, null, a, b, c);
+        assertEquals(0, first.finishImport().length);
+        assertEquals(3, db.features.size());
+
+        // the apex of the first feature lies within both a and b, it is matched with the closest one (b). The apex of
+        // the second one lies within b, which is taken already, and the apex of the third one lies in no previous feature
+        final AlignedFeatures b2 = feature(18, 24, 45), x = feature(32, 36, 38), y = feature(70, 75, 80);
+        final MergedTraceImportAdapter second = importTrace(db, first, b2, x, y);
+        assertEquals(b.getAlignedFeatureId(), b2.getAlignedFeatureId());
+        assertNotEquals(b.getAlignedFeatureId(), x.getAlignedFeatureId());
+        assertNotEquals(c.getAlignedFeatureId(), y.getAlignedFeatureId());
+        assertSame(b2, db.features.get(b.getAlignedFeatureId()));
+
+        final long[] removed = second.finishImport();
+        Arrays.sort(removed);
+        assertArrayEquals(new long[]{a.getAlignedFeatureId(), c.getAlignedFeatureId()}, removed);
+        assertEquals(3, db.features.size());
+        assertTrue(db.features.keySet().containsAll(Arrays.stream(second.getImportedFeatureIds()).boxed().toList()));
+    }
+
+    @Test
+    public void testFinishImportRemovesPreviousTraces() throws IOException {
+        final MergedTraceImportAdapter first = importTrace(db, null, feature(10, 15, 20));
+        final long mergedTraceId = db.mergedTraces.keySet().iterator().next(), sourceTraceId = db.sourceTraces.keySet().iterator().next();
+        final MergedTraceImportAdapter second = importTrace(db, first, feature(12, 16, 19));
+        assertEquals(2, db.mergedTraces.size());
+        assertEquals(2, db.sourceTraces.size());
+
+        assertEquals(0, second.finishImport().length);
+        assertFalse(db.mergedTraces.containsKey(mergedTraceId));
+        assertFalse(db.sourceTraces.containsKey(sourceTraceId));
+        assertEquals(1, db.mergedTraces.size());
+        assertEquals(1, db.sourceTraces.size());
+        assertEquals(1, db.features.size());
+    }
+
+    @Test
+    public void testImportWithoutFeaturesRemovesAllPreviousFeatures() throws IOException {
+        final MergedTraceImportAdapter first = importTrace(db, null, feature(10, 15, 20), feature(30, 35, 40));
+        final MergedTraceImportAdapter second = new MergedTraceImportAdapter(db, first);
+        assertTrue(second.isEmpty());
+        assertEquals(2, second.finishImport().length);
+        assertTrue(db.features.isEmpty());
+        assertTrue(db.mergedTraces.isEmpty());
+        assertTrue(db.sourceTraces.isEmpty());
+    }
+
+    @Test
+    public void testRestoredStateMatchesLikeTheOriginal() throws IOException {
+        final AlignedFeatures a = feature(10, 15, 20), b = feature(30, 35, 40);
+        final MergedTraceImportAdapter first = importTrace(db, null, a, b);
+        final AlignmentState.ImportedMergedTrace state = first.toState(7);
+        assertEquals(7, state.getMergedTraceIdx());
+        final MergedTraceImportAdapter restored = MergedTraceImportAdapter.restore(db, state);
+        assertArrayEquals(first.getImportedFeatureIds(), restored.getImportedFeatureIds());
+
+        final AlignedFeatures a2 = feature(11, 16, 21);
+        final MergedTraceImportAdapter second = importTrace(db, restored, a2);
+        assertEquals(a.getAlignedFeatureId(), a2.getAlignedFeatureId());
+        assertArrayEquals(new long[]{b.getAlignedFeatureId()}, second.finishImport());
+        assertEquals(1, db.mergedTraces.size());
+        assertEquals(1, db.sourceTraces.size());
+    }
+
+}
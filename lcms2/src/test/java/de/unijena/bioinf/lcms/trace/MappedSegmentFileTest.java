@@ -0,0 +1,227 @@
+package de.unijena.bioinf.lcms.trace;
+
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import de.unijena.bioinf.lcms.ScanPointMapping;
+import de.unijena.bioinf.lcms.spectrum.MappedSpectrumStorage;
+import de.unijena.bioinf.lcms.spectrum.Ms1SpectrumHeader;
+import de.unijena.bioinf.lcms.trace.segmentation.TraceSegment;
+import org.h2.mvstore.MVStore;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MappedSegmentFileTest {
+
+    private static final int SEGMENT_SIZE = 256;
+
+    @TempDir
+    Path tempDir;
+
+    private static long appendInts(MappedSegmentFile file, int[] values) {
+        return file.append(Integer.BYTES + values.length * Integer.BYTES, buffer -> {
+            buffer.putInt(values.length);
+            MappedSegmentFile.putInts(buffer, values);
+        });
+    }
+
+    private static int[] readInts(MappedSegmentFile file, long address) {
+        final ByteBuffer buffer = file.read(address);
+        return MappedSegmentFile.getInts(buffer, buffer.getInt());
+    }
+
+    private static int[] values(int length, int offset) {
+        final int[] values = new int[length];
+        for (int k = 0; k < length; ++k) values[k] = offset + k;
+        return values;
+    }
+
+    @Test
+    public void testRecordsDoNotCrossSegmentBoundaries() throws IOException {
+        try (MappedSegmentFile file = new MappedSegmentFile(tempDir.resolve("segments"), SEGMENT_SIZE, true)) {
+            final List<Long> addresses = new ArrayList<>();
+            // records of 24 and 32 bytes, so the end of a segment is regularly too small for the next record
+            for (int k = 0; k < 100; ++k) addresses.add(appendInts(file, values(5 + k % 3, k * 10)));
+            for (int k = 0; k < addresses.size(); ++k) {
+                final long address = addresses.get(k);
+                final int position = (int) address;
+                final int size = Integer.BYTES * (6 + k % 3);
+                assertEquals(0, position % 8, "records are 8 byte aligned");
+                assertTrue(position + size <= SEGMENT_SIZE, "record " + k + " crosses a segment boundary");
+                assertArrayEquals(values(5 + k % 3, k * 10), readInts(file, address));
+            }
+            assertTrue((addresses.get(addresses.size() - 1) >>> 32) > 0, "records should be spread over several segments");
+        }
+    }
+
+    @Test
+    public void testRecordLargerThanSegmentSize() throws IOException {
+        try (MappedSegmentFile file = new MappedSegmentFile(tempDir.resolve("segments"), SEGMENT_SIZE, true)) {
+            final long small = appendInts(file, values(3, 0));
+            final long large = appendInts(file, values(1000, 7));
+            final long next = appendInts(file, values(3, 42));
+            assertNotEquals(small >>> 32, large >>> 32);
+            assertNotEquals(large >>> 32, next >>> 32, "record after an oversized segment starts a new segment");
+            assertEquals(0, (int) large);
+            assertArrayEquals(values(3, 0), readInts(file, small));
+            assertArrayEquals(values(1000, 7), readInts(file, large));
+            assertArrayEquals(values(3, 42), readInts(file, next));
+        }
+    }
+
+    @Test
+    public void testReleaseAndRemap() throws IOException {
+        try (MappedSegmentFile file = new MappedSegmentFile(tempDir.resolve("segments"), SEGMENT_SIZE, true)) {
+            final long[] addresses = new long[50];
+            for (int k = 0; k < addresses.length; ++k) addresses[k] = appendInts(file, values(k % 80, k));
+            file.release();
+            assertThrows(IllegalStateException.class, () -> file.read(addresses[0]));
+            assertThrows(IllegalStateException.class, () -> appendInts(file, values(1, 0)));
+            file.remap();
+            for (int k = 0; k < addresses.length; ++k) assertArrayEquals(values(k % 80, k), readInts(file, addresses[k]));
+            // appending after remap continues behind the last record
+            final long address = appendInts(file, values(4, 99));
+            assertArrayEquals(values(4, 99), readInts(file, address));
+            assertArrayEquals(values(49, 49), readInts(file, addresses[49]));
+        }
+    }
+
+    @Test
+    public void testReadAfterClose() throws IOException {
+        final Path path = tempDir.resolve("segments");
+        final MappedSegmentFile file = new MappedSegmentFile(path, SEGMENT_SIZE, true);
+        final long address = appendInts(file, values(4, 0));
+        file.close();
+        assertThrows(IllegalStateException.class, () -> file.read(address));
+        assertThrows(IllegalStateException.class, () -> appendInts(file, values(1, 0)));
+        file.close();
+        assertFalse(Files.exists(path));
+    }
+
+    @Test
+    public void testAddressIndexGrowth() {
+        final MappedSegmentFile.AddressIndex index = new MappedSegmentFile.AddressIndex();
+        final int initialCapacity = index.capacity();
+        for (int id = 0; id < initialCapacity; id += 2) index.set(id, id * 3L);
+        index.set(initialCapacity * 5, 17L);
+        assertTrue(index.capacity() > initialCapacity * 5);
+        for (int id = 0; id < initialCapacity; ++id) {
+            assertEquals(id % 2 == 0 ? id * 3L : -1L, index.get(id));
+        }
+        assertEquals(17L, index.get(initialCapacity * 5));
+        assertEquals(-1L, index.get(initialCapacity * 5 + 1));
+        assertEquals(-1L, index.get(index.capacity() + 10));
+        assertEquals(-1L, index.get(-1));
+        assertEquals(initialCapacity / 2 + 1, index.size());
+        index.set(0, 5L);
+        index.remove(2);
+        index.remove(3);
+        assertEquals(initialCapacity / 2, index.size());
+        assertEquals(5L, index.get(0));
+        assertFalse(index.contains(2));
+    }
+
+    @Test
+    public void testTraceStorageRoundTrip() throws IOException {
+        final int numberOfScans = 200;
+        final double[] rts = new double[numberOfScans];
+        final int[] scanIds = new int[numberOfScans];
+        for (int k = 0; k < numberOfScans; ++k) {
+            rts[k] = k * 0.5;
+            scanIds[k] = k;
+        }
+        final ScanPointMapping mapping = new ScanPointMapping(rts, scanIds, null);
+        final Random r = new Random(4711);
+        final MVStore store = new MVStore.Builder().open();
+        try (MappedSegmentFile file = new MappedSegmentFile(tempDir.resolve("traces"), SEGMENT_SIZE, true)) {
+            final MappedTraceStorage storage = new MappedTraceStorage(store, file, mapping);
+            final List<ContiguousTrace> expected = new ArrayList<>();
+            for (int k = 0; k < 60; ++k) {
+                // some traces are larger than a segment
+                final int length = 1 + r.nextInt(k % 10 == 0 ? 100 : 8);
+                final int start = r.nextInt(numberOfScans - length);
+                final double[] mz = new double[length];
+                final float[] intensity = new float[length];
+                for (int i = 0; i < length; ++i) {
+                    mz[i] = 100 + k * 5 + r.nextDouble() * 0.001;
+                    intensity[i] = 1 + r.nextFloat() * 1000;
+                }
+                final ContiguousTrace trace = new ContiguousTrace(mapping, start, start + length - 1, mz, intensity);
+                if (k % 3 == 0) trace.segments = new TraceSegment[]{new TraceSegment(trace.apex(), start, start + length - 1)};
+                expected.add(storage.addContigousTrace(trace));
+            }
+            storage.deleteTrace(expected.get(5).getUid());
+            expected.remove(5);
+            assertEquals(expected.size(), storage.numberOfTraces());
+
+            final Set<Integer> seen = new HashSet<>();
+            for (ContiguousTrace trace : storage) seen.add(trace.getUid());
+            assertEquals(expected.size(), seen.size());
+
+            for (ContiguousTrace e : expected) {
+                assertTrue(seen.contains(e.getUid()));
+                final ContiguousTrace t = storage.getContigousTrace(e.getUid());
+                assertEquals(e.startId(), t.startId());
+                assertEquals(e.endId(), t.endId());
+                assertEquals(e.apex(), t.apex());
+                assertEquals(e.averagedMz(), t.averagedMz());
+                assertEquals(e.minMz(), t.minMz());
+                assertEquals(e.maxMz(), t.maxMz());
+                assertArrayEquals(e.mz, t.mz);
+                assertArrayEquals(e.intensity, t.intensity);
+                assertEquals(e.segments == null, t.segments == null);
+                if (e.segments != null) {
+                    assertEquals(e.segments[0].apex, t.segments[0].apex);
+                    assertEquals(e.segments[0].leftEdge, t.segments[0].leftEdge);
+                    assertEquals(e.segments[0].rightEdge, t.segments[0].rightEdge);
+                }
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+    @Test
+    public void testSpectrumStorageRoundTrip() throws IOException {
+        final MVStore store = new MVStore.Builder().open();
+        try (MappedSegmentFile file = new MappedSegmentFile(tempDir.resolve("spectra"), SEGMENT_SIZE, true)) {
+            final MappedSpectrumStorage storage = new MappedSpectrumStorage(store, file);
+            final List<SimpleSpectrum> spectra = new ArrayList<>();
+            for (int k = 0; k < 20; ++k) {
+                // spectra with 50 peaks are larger than a segment
+                final int n = k % 5 == 0 ? 50 : k;
+                final double[] masses = new double[n], intensities = new double[n];
+                for (int i = 0; i < n; ++i) {
+                    masses[i] = 100 + i * 10.5 + k;
+                    intensities[i] = 1 + i * 2;
+                }
+                final SimpleSpectrum spectrum = new SimpleSpectrum(masses, intensities);
+                spectra.add(spectrum);
+                storage.addSpectrum(new Ms1SpectrumHeader(k, k, null, 1, true), spectrum);
+            }
+            file.release();
+            file.remap();
+            for (int k = 0; k < spectra.size(); ++k) {
+                final SimpleSpectrum e = spectra.get(k), s = storage.getSpectrum(k);
+                assertEquals(e.size(), s.size());
+                for (int i = 0; i < e.size(); ++i) {
+                    assertEquals(e.getMzAt(i), s.getMzAt(i));
+                    assertEquals(e.getIntensityAt(i), s.getIntensityAt(i));
+                }
+            }
+        } finally {
+            store.close();
+        }
+    }
+
+}
@@ -0,0 +1,71 @@
+package de.unijena.bioinf.lcms.trace;
+
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraceMzIndexTest {
+
+    private record Rect(int uid, float minMz, float maxMz, int startScan, int endScan) {
+    }
+
+    @Test
+    public void testQueriesMatchLinearScan() {
+        final Random r = new Random(4711);
+        final TraceMzIndex index = new TraceMzIndex();
+        final List<Rect> rects = new ArrayList<>();
+        // enough traces to create and merge many runs, queries in between hit several runs and the buffer
+        for (int uid = 0; uid < 20000; ++uid) {
+            float mz = 100f + r.nextFloat() * 900f;
+            float width = r.nextFloat() * (uid % 100 == 0 ? 5f : 0.01f);
+            int start = r.nextInt(3000);
+            Rect rect = new Rect(uid, mz, mz + width, start, start + r.nextInt(50));
+            rects.add(rect);
+            index.add(rect.uid, rect.minMz, rect.maxMz, rect.startScan, rect.endScan);
+            if (uid % 997 == 0)
+                assertQueriesMatchLinearScan(index, rects, r, 20);
+        }
+        for (int uid = 0; uid < 20000; uid += 7) {
+            index.remove(uid);
+        }
+        rects.removeIf(x -> x.uid % 7 == 0);
+        assertQueriesMatchLinearScan(index, rects, r, 500);
+
+        // removals of traces that are still in the buffer or in small runs
+        for (int uid = 20000; uid < 23000; ++uid) {
+            float mz = 100f + r.nextFloat() * 900f;
+            Rect rect = new Rect(uid, mz, mz + r.nextFloat() * 0.01f, 0, 100);
+            rects.add(rect);
+            index.add(rect.uid, rect.minMz, rect.maxMz, rect.startScan, rect.endScan);
+            if (uid % 3 == 0)
+                index.remove(uid);
+        }
+        rects.removeIf(x -> x.uid >= 20000 && x.uid % 3 == 0);
+        assertQueriesMatchLinearScan(index, rects, r, 500);
+    }
+
+    private static void assertQueriesMatchLinearScan(TraceMzIndex index, List<Rect> rects, Random r, int numberOfQueries) {
+        for (int i = 0; i < numberOfQueries; ++i) {
+            float from = 100f + r.nextFloat() * 900f;
+            float to = from + r.nextFloat() * 0.5f;
+            int fromScan = r.nextInt(3000);
+            int toScan = i % 2 == 0 ? fromScan : Integer.MAX_VALUE;
+            int[] expected = rects.stream()
+                    .filter(x -> x.minMz <= to && x.maxMz >= from && x.startScan <= toScan && x.endScan >= fromScan)
+                    .sorted(Comparator.comparing(Rect::minMz).thenComparing(Rect::uid))
+                    .mapToInt(Rect::uid).toArray();
+            assertArrayEquals(expected, index.query(from, to, fromScan, toScan));
+        }
+    }
+
+    @Test
+    public void testEmptyIndex() {
+        assertEquals(0, new TraceMzIndex().query(0f, 1000f, Integer.MIN_VALUE, Integer.MAX_VALUE).length);
+    }
+
+}
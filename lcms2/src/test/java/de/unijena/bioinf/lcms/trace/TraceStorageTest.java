@@ -0,0 +1,89 @@
+package de.unijena.bioinf.lcms.trace;
+
+import de.unijena.bioinf.lcms.ScanPointMapping;
+import org.h2.mvstore.MVStore;
+import org.junit.jupiter.api.Test;
+
+import java.util.*;
+import java.util.concurrent.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class TraceStorageTest {
+
+    private static final int NUMBER_OF_SCANS = 100, NUMBER_OF_TRACES = 250, THREADS = 8;
+
+    /**
+     * traces of 25 masses, traces of the same mass overlap in m/z but have different apexes. Every trace is contained
+     * twice, the copies have to be stored as the same trace.
+     */
+    private static List<ContiguousTrace> traces(ScanPointMapping mapping) {
+        final Random r = new Random(42);
+        final List<ContiguousTrace> traces = new ArrayList<>();
+        for (int t = 0; t < NUMBER_OF_TRACES; ++t) {
+            final double mz = 200 + (t % 25) * 0.5;
+            final int start = (t / 25) * 8, length = 5 + r.nextInt(8);
+            final double[] mzs = new double[length];
+            final float[] intensities = new float[length];
+            for (int k = 0; k < length; ++k) {
+                mzs[k] = mz + r.nextGaussian() * 1e-4;
+                intensities[k] = k == 2 ? 2000 : 100 + r.nextFloat() * 1000;
+            }
+            traces.add(new ContiguousTrace(mapping, start, start + length - 1, mzs, intensities));
+            traces.add(new ContiguousTrace(mapping, start, start + length - 1, mzs, intensities));
+        }
+        return traces;
+    }
+
+    /**
+     * All threads add the same traces in different order. Every trace has to be stored once and all threads have to
+     * get the same uid for it.
+     */
+    @Test
+    public void testConcurrentInsertsDoNotDuplicateTraces() throws Exception {
+        final double[] rts = new double[NUMBER_OF_SCANS];
+        final int[] scanIds = new int[NUMBER_OF_SCANS];
+        for (int k = 0; k < NUMBER_OF_SCANS; ++k) {
+            rts[k] = k;
+            scanIds[k] = k;
+        }
+        final ScanPointMapping mapping = new ScanPointMapping(rts, scanIds, null);
+        final List<ContiguousTrace> traces = traces(mapping);
+        final MVStore store = MVStore.open(null);
+        try {
+            final TraceStorage.MvTraceStorage storage = new TraceStorage.MvTraceStorage(store, mapping);
+            final List<Callable<Map<ContiguousTrace, Integer>>> jobs = new ArrayList<>();
+            for (int t = 0; t < THREADS; ++t) {
+                final List<ContiguousTrace> shuffled = new ArrayList<>(traces);
+                Collections.shuffle(shuffled, new Random(t));
+                jobs.add(() -> {
+                    final Map<ContiguousTrace, Integer> uids = new IdentityHashMap<>();
+                    for (ContiguousTrace trace : shuffled)
+                        uids.put(trace, storage.addContigousTrace(trace).getUid());
+                    return uids;
+                });
+            }
+            final List<Map<ContiguousTrace, Integer>> results = new ArrayList<>();
+            try (ExecutorService executor = Executors.newFixedThreadPool(THREADS)) {
+                for (Future<Map<ContiguousTrace, Integer>> future : executor.invokeAll(jobs))
+                    results.add(future.get());
+            }
+
+            final Set<Integer> stored = new HashSet<>();
+            for (ContiguousTrace trace : storage)
+                stored.add(trace.getUid());
+            for (ContiguousTrace trace : traces) {
+                final int uid = results.getFirst().get(trace);
+                assertTrue(stored.contains(uid));
+                for (Map<ContiguousTrace, Integer> result : results)
+                    assertEquals(uid, result.get(trace));
+            }
+            assertEquals(NUMBER_OF_TRACES, stored.size());
+            for (int t = 0; t < traces.size(); t += 2)
+                assertEquals(results.getFirst().get(traces.get(t)), results.getFirst().get(traces.get(t + 1)));
+        } finally {
+            store.close();
+        }
+    }
+
+}
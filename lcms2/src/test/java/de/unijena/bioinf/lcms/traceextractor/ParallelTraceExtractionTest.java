@@ -0,0 +1,145 @@
+package de.unijena.bioinf.lcms.traceextractor;
+
+import de.unijena.bioinf.ChemistryBase.ms.Deviation;
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleMutableSpectrum;
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import de.unijena.bioinf.ChemistryBase.ms.utils.Spectrums;
+import de.unijena.bioinf.lcms.LCMSStorageFactory;
+import de.unijena.bioinf.lcms.ScanPointMapping;
+import de.unijena.bioinf.lcms.spectrum.Ms1SpectrumHeader;
+import de.unijena.bioinf.lcms.statistics.SampleStats;
+import de.unijena.bioinf.lcms.trace.ContiguousTrace;
+import de.unijena.bioinf.lcms.trace.LCMSStorage;
+import de.unijena.bioinf.lcms.trace.ProcessedSample;
+import de.unijena.bioinf.lcms.trace.segmentation.PersistentHomology;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ParallelTraceExtractionTest {
+
+    private static final int NUMBER_OF_SCANS = 120, NUMBER_OF_COMPOUNDS = 40, SLICES = 7;
+
+    /**
+     * spectra of compounds whose traces drift in m/z and partially overlap in mass, such that the seeds of a trace are
+     * spread over several slices and neighbouring traces compete for the same peaks
+     */
+    private static SimpleSpectrum[] spectra() {
+        final Random r = new Random(1337);
+        final SimpleMutableSpectrum[] spectra = new SimpleMutableSpectrum[NUMBER_OF_SCANS];
+        for (int k = 0; k < NUMBER_OF_SCANS; ++k) spectra[k] = new SimpleMutableSpectrum();
+        for (int c = 0; c < NUMBER_OF_COMPOUNDS; ++c) {
+            final double mz = 200 + (c / 2) * 0.7 + (c % 2) * 0.004;
+            for (int peak = 0; peak < 2; ++peak) {
+                final int apex = 10 + r.nextInt(NUMBER_OF_SCANS - 20), width = 3 + r.nextInt(12);
+                final double height = 1000 + r.nextDouble() * 100000;
+                for (int k = Math.max(0, apex - width); k <= Math.min(NUMBER_OF_SCANS - 1, apex + width); ++k) {
+                    final double x = (k - apex) / (double) width;
+                    spectra[k].addPeak(mz + mz * 3e-6 * x + r.nextGaussian() * mz * 1e-6, height * Math.exp(-4 * x * x) + 50);
+                }
+            }
+        }
+        final SimpleSpectrum[] result = new SimpleSpectrum[NUMBER_OF_SCANS];
+        for (int k = 0; k < NUMBER_OF_SCANS; ++k) {
+            result[k] = Spectrums.mergePeaksWithinSpectrum(spectra[k], new Deviation(1), true, false);
+        }
+        return result;
+    }
+
+    private static ProcessedSample sample(LCMSStorageFactory factory, SimpleSpectrum[] spectra) throws IOException {
+        final double[] rts = new double[NUMBER_OF_SCANS];
+        final int[] scanIds = new int[NUMBER_OF_SCANS];
+        for (int k = 0; k < NUMBER_OF_SCANS; ++k) {
+            rts[k] = k * 1.5;
+            scanIds[k] = k;
+        }
+        final ScanPointMapping mapping = new ScanPointMapping(rts, scanIds, null);
+        final LCMSStorage storage = factory.createNewStorage();
+        storage.setMapping(mapping);
+        for (int k = 0; k < NUMBER_OF_SCANS; ++k) {
+            storage.getSpectrumStorage().addSpectrum(new Ms1SpectrumHeader(k, k, "scan=" + k, 1, true), spectra[k]);
+        }
+        final float[] noise = new float[NUMBER_OF_SCANS];
+        Arrays.fill(noise, 100f);
+        storage.setStatistics(SampleStats.builder().noiseLevelPerScan(noise).ms1MassDeviationWithinTraces(new Deviation(10))
+                .minimumMs1MassDeviationBetweenTraces(new Deviation(5)).build());
+        return new ProcessedSample(mapping, storage, 1, 0);
+    }
+
+    private static List<ContiguousTrace> extract(ProcessedSample sample, int slices) {
+        final TracePicker picker = new TracePicker(sample, new RectbasedCachingStrategy(), new PersistentHomology());
+        picker.setAllowedMassDeviation(sample.getStorage().getStatistics().getMs1MassDeviationWithinTraces());
+        final TraceDetectionStrategy strategy = new PickIntensivePeaksDetectionStrategy();
+        final List<ContiguousTrace> traces = new ArrayList<>();
+        if (slices > 1) {
+            // small blocks, such that some traces are picked in one block and found in the cache by a later one
+            new ParallelTraceExtraction(slices, 500).extractTraces(sample, strategy, picker, traces::add);
+        } else {
+            strategy.findPeaksForExtraction(sample, (s, spectrumIdx, peakIdx, spectrum) ->
+                    picker.detectMostIntensivePeak(spectrumIdx, spectrum.getMzAt(peakIdx)).ifPresent(traces::add));
+        }
+        return traces;
+    }
+
+    @Test
+    public void testSlicesYieldSameTracesAsSequentialPicking() throws IOException {
+        final SimpleSpectrum[] spectra = spectra();
+        final LCMSStorageFactory factory = LCMSStorage.temporaryStorage(null, true);
+        try {
+            final ProcessedSample sequentialSample = sample(factory, spectra), parallelSample = sample(factory, spectra);
+            final List<ContiguousTrace> sequential = extract(sequentialSample, 1);
+            final List<ContiguousTrace> parallel = extract(parallelSample, SLICES);
+
+            assertFalse(sequential.isEmpty());
+            assertTrue(crossesSliceBorder(parallelSample, sequential), "test data should contain traces crossing a slice border");
+            assertEquals(sequential.size(), parallel.size());
+            for (int k = 0; k < sequential.size(); ++k) assertSameTrace(sequential.get(k), parallel.get(k));
+
+            assertEquals(sequentialSample.getStorage().getTraceStorage().numberOfTraces(), parallelSample.getStorage().getTraceStorage().numberOfTraces());
+            for (ContiguousTrace trace : sequentialSample.getStorage().getTraceStorage()) {
+                assertSameTrace(trace, parallelSample.getStorage().getTraceStorage().getContigousTrace(trace.getUid()));
+            }
+        } finally {
+            factory.close();
+        }
+    }
+
+    /**
+     * @return true if the m/z range of one of the traces contains the mass at which the first block of seeds is split
+     * into slices
+     */
+    private static boolean crossesSliceBorder(ProcessedSample sample, List<ContiguousTrace> traces) {
+        final List<Double> seeds = new ArrayList<>();
+        new PickIntensivePeaksDetectionStrategy().findPeaksForExtraction(sample, (s, spectrumIdx, peakIdx, spectrum) -> {
+            if (seeds.size() < 500) seeds.add(spectrum.getMzAt(peakIdx));
+        });
+        final double[] byMass = seeds.stream().mapToDouble(Double::doubleValue).sorted().toArray();
+        for (int i = 1; i < SLICES; ++i) {
+            final double border = byMass[(int) ((long) byMass.length * i / SLICES)];
+            for (ContiguousTrace trace : traces) {
+                if (trace.minMz() < border && trace.maxMz() > border) return true;
+            }
+        }
+        return false;
+    }
+
+    private static void assertSameTrace(ContiguousTrace expected, ContiguousTrace actual) {
+        assertEquals(expected.getUid(), actual.getUid());
+        assertEquals(expected.startId(), actual.startId());
+        assertEquals(expected.endId(), actual.endId());
+        assertEquals(expected.apex(), actual.apex());
+        assertEquals(expected.averagedMz(), actual.averagedMz());
+        for (int k = expected.startId(); k <= expected.endId(); ++k) {
+            assertEquals(expected.mz(k), actual.mz(k));
+            assertEquals(expected.intensity(k), actual.intensity(k));
+        }
+        assertEquals(expected.getSegments().length, actual.getSegments().length);
+    }
+
+}
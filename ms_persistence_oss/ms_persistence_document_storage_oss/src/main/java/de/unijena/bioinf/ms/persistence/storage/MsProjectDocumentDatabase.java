@@ -25,14 +25,21 @@ import de.unijena.bioinf.ms.persistence.model.core.Compound;
 import de.unijena.bioinf.ms.persistence.model.core.QualityReport;
 import de.unijena.bioinf.ms.persistence.model.core.feature.*;
 import de.unijena.bioinf.ms.persistence.model.core.networks.AdductNetwork;
+import de.unijena.bioinf.ms.persistence.model.core.run.AlignmentState;
 import de.unijena.bioinf.ms.persistence.model.core.run.LCMSRun;
 import de.unijena.bioinf.ms.persistence.model.core.run.MergedLCMSRun;
 import de.unijena.bioinf.ms.persistence.model.core.run.RetentionTimeAxis;
 import de.unijena.bioinf.ms.persistence.model.core.scan.MSMSScan;
 import de.unijena.bioinf.ms.persistence.model.core.scan.Scan;
 import de.unijena.bioinf.ms.persistence.model.core.spectrum.MSData;
+import de.unijena.bioinf.ms.persistence.model.core.statistics.QuantBlock;
+import de.unijena.bioinf.ms.persistence.model.core.trace.AbstractTrace;
 import de.unijena.bioinf.ms.persistence.model.core.trace.MergedTrace;
 import de.unijena.bioinf.ms.persistence.model.core.trace.SourceTrace;
+import de.unijena.bioinf.ms.persistence.model.core.trace.TraceChunk;
+import de.unijena.bioinf.ms.persistence.model.core.trace.TraceLocation;
+import de.unijena.bioinf.ms.persistence.storage.quant.QuantMatrixStore;
+import de.unijena.bioinf.ms.persistence.storage.trace.TraceStore;
 import de.unijena.bioinf.storage.db.nosql.Database;
 import de.unijena.bioinf.storage.db.nosql.Filter;
 import de.unijena.bioinf.storage.db.nosql.Index;
@@ -41,7 +48,9 @@ import lombok.SneakyThrows;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.LoggerFactory;
 
+import java.io.Closeable;
 import java.io.IOException;
+import java.nio.FloatBuffer;
 import java.util.Arrays;
 import java.util.List;
 import java.util.Optional;
@@ -77,6 +86,11 @@ public interface MsProjectDocumentDatabase<Storage extends Database<?>> {
 
                 .addRepository(SourceTrace.class)
 
+                .addRepository(TraceChunk.class)
+
+                .addRepository(TraceLocation.class,
+                        Index.nonUnique("chunkId"))
+
                 .addRepository(MSData.class)
 
                 .addRepository(Feature.class,
@@ -109,13 +123,57 @@ public interface MsProjectDocumentDatabase<Storage extends Database<?>> {
 
                 .addRepository(RetentionTimeAxis.class)
 
+                .addRepository(AlignmentState.class)
+
                 .addRepository(QualityReport.class)
 
+                .addRepository(QuantBlock.class)
+
                 ;
 
 
     }
 
+    /**
+     * Binary storage for traces. Traces that were stored as documents by older versions are not contained, use
+     * {@link #getSourceTrace(long)} and {@link #getMergedTrace(long)} to read both.
+     */
+    TraceStore getTraceStore();
+
+    /**
+     * Materialized quantification matrix of all aligned features over all LC/MS runs.
+     */
+    QuantMatrixStore getQuantMatrixStore();
+
+    default Optional<SourceTrace> getSourceTrace(long sourceTraceId) throws IOException {
+        Optional<SourceTrace> trace = getTraceStore().getSourceTrace(sourceTraceId);
+        return trace.isPresent() ? trace : getStorage().getByPrimaryKey(sourceTraceId, SourceTrace.class);
+    }
+
+    default Optional<MergedTrace> getMergedTrace(long mergedTraceId) throws IOException {
+        Optional<MergedTrace> trace = getTraceStore().getMergedTrace(mergedTraceId);
+        return trace.isPresent() ? trace : getStorage().getByPrimaryKey(mergedTraceId, MergedTrace.class);
+    }
+
+    /**
+     * Intensities of a source or merged trace within the scan window [fromScanIndex, toScanIndex).
+     * See {@link TraceStore#getIntensities(long, int, int)}.
+     */
+    default Optional<TraceStore.TraceWindow> getTraceIntensities(long traceId, int fromScanIndex, int toScanIndex) throws IOException {
+        Optional<TraceStore.TraceWindow> window = getTraceStore().getIntensities(traceId, fromScanIndex, toScanIndex);
+        if (window.isPresent())
+            return window;
+        Optional<? extends AbstractTrace> trace = getStorage().getByPrimaryKey(traceId, SourceTrace.class);
+        if (trace.isEmpty())
+            trace = getStorage().getByPrimaryKey(traceId, MergedTrace.class);
+        return trace.map(t -> {
+            final int size = t.getIntensities().size();
+            final int from = Math.max(fromScanIndex, t.getScanIndexOffset());
+            final int to = Math.max(from, Math.min(toScanIndex, t.getScanIndexOffset() + size));
+            return new TraceStore.TraceWindow(from, FloatBuffer.wrap(t.getIntensities().toFloatArray(), from - t.getScanIndexOffset(), to - from).slice().asReadOnlyBuffer());
+        });
+    }
+
     default <T> Stream<T> stream(Iterable<T> iterable){
         return StreamSupport.stream(iterable.spliterator(), false);
     }
@@ -175,6 +233,23 @@ public interface MsProjectDocumentDatabase<Storage extends Database<?>> {
         return run;
     }
 
+    /**
+     * Starts a bulk import of LC-MS data. Non-unique indices of scans and features are not maintained until the
+     * returned handle is closed and are then rebuilt in a single pass, see {@link Database#bulkLoad(Class[])}.
+     * Closing the handle also flushes the {@link #getTraceStore() trace store}, such that the traces of all imported
+     * features are persisted per import, even if the import failed.
+     */
+    default Closeable bulkImport() throws IOException {
+        final Closeable bulkLoad = getStorage().bulkLoad(Scan.class, MSMSScan.class, AlignedFeatures.class, AlignedIsotopicFeatures.class, Feature.class, MSData.class);
+        return () -> {
+            try {
+                getTraceStore().flush();
+            } finally {
+                bulkLoad.close();
+            }
+        };
+    }
+
     default void importCompounds(List<Compound> compounds) throws IOException {
         getStorage().insertAll(compounds);
 
@@ -202,6 +277,7 @@ public interface MsProjectDocumentDatabase<Storage extends Database<?>> {
 
     default void importAlignedFeatures(List<AlignedFeatures> featureAlignments) throws IOException {
         getStorage().insertAll(featureAlignments);
+        getQuantMatrixStore().featuresChanged(featureAlignments.stream().mapToLong(AlignedFeatures::getAlignedFeatureId).toArray());
         for (AlignedFeatures f : featureAlignments) {
             importOptionals(f.getFeatures(), f.getAlignedFeatureId(), this::importFeatures);
             importOptionals(f.getIsotopicFeatures(), f.getAlignedFeatureId(), this::importAlignedIsotopicFeatures);
@@ -248,6 +324,7 @@ public interface MsProjectDocumentDatabase<Storage extends Database<?>> {
         }
 
         getStorage().insertAll(features);
+        getQuantMatrixStore().featuresChanged(parentId);
     }
 
     private <T> void importOptionals(Optional<List<T>> optionals, long parentId, IOFunctions.BiIOConsumer<List<T>, Long> importer) throws IOException {
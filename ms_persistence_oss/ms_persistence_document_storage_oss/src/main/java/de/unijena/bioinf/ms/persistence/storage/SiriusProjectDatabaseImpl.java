@@ -21,6 +21,9 @@ package de.unijena.bioinf.ms.persistence.storage;
 
 import de.unijena.bioinf.ms.persistence.model.core.Compound;
 import de.unijena.bioinf.ms.persistence.model.core.feature.AlignedFeatures;
+import de.unijena.bioinf.ms.persistence.storage.quant.QuantMatrixStore;
+import de.unijena.bioinf.ms.persistence.storage.trace.ChunkedTraceStore;
+import de.unijena.bioinf.ms.persistence.storage.trace.TraceStore;
 import de.unijena.bioinf.storage.db.nosql.Database;
 import de.unijena.bioinf.storage.db.nosql.Filter;
 import de.unijena.bioinf.storage.db.nosql.Metadata;
@@ -45,10 +48,16 @@ public abstract class SiriusProjectDatabaseImpl<Storage extends Database<?>> imp
 
     protected final Storage storage;
 
+    protected final TraceStore traceStore;
+
+    protected final QuantMatrixStore quantMatrixStore;
+
     private static Set<Class<?>> relatedToAF = null;
 
-    public SiriusProjectDatabaseImpl(Storage storage) {
+    public SiriusProjectDatabaseImpl(Storage storage) throws IOException {
         this.storage = storage;
+        this.traceStore = new ChunkedTraceStore(storage);
+        this.quantMatrixStore = new QuantMatrixStore(storage);
     }
 
     @Override
@@ -56,9 +65,27 @@ public abstract class SiriusProjectDatabaseImpl<Storage extends Database<?>> imp
         return storage;
     }
 
+    @Override
+    public TraceStore getTraceStore() {
+        return traceStore;
+    }
+
+    @Override
+    public QuantMatrixStore getQuantMatrixStore() {
+        return quantMatrixStore;
+    }
+
     @Override
     public void close() throws IOException {
-        storage.close();
+        try {
+            try {
+                quantMatrixStore.close();
+            } finally {
+                traceStore.close();
+            }
+        } finally {
+            storage.close();
+        }
     }
 
     private Set<Class<?>> getRelatedToAF() {
@@ -85,13 +112,17 @@ public abstract class SiriusProjectDatabaseImpl<Storage extends Database<?>> imp
 
     @Override
     public long cascadeDeleteAlignedFeatures(long alignedFeatureId) throws IOException {
-        return this.getStorage().write(() -> {
-            long count = 0;
-            for (Class<?> clazz : getRelatedToAF()) {
-                count += getStorage().removeAll(Filter.where("alignedFeatureId").eq(alignedFeatureId), clazz);
-            }
-            return count;
-        });
+        try {
+            return this.getStorage().write(() -> {
+                long count = 0;
+                for (Class<?> clazz : getRelatedToAF()) {
+                    count += getStorage().removeAll(Filter.where("alignedFeatureId").eq(alignedFeatureId), clazz);
+                }
+                return count;
+            });
+        } finally {
+            quantMatrixStore.featuresChanged(alignedFeatureId);
+        }
     }
 
 
@@ -102,17 +133,21 @@ public abstract class SiriusProjectDatabaseImpl<Storage extends Database<?>> imp
         if (alignedFeatureIds.size() == 1)
             return cascadeDeleteAlignedFeatures(alignedFeatureIds.get(0));
 
-        return this.getStorage().write(() -> {
-            long count = 0;
-            for (Class<?> clazz : getRelatedToAF()) {
-                try {
-                    count += getStorage().removeAll(Filter.where("alignedFeatureId").in(alignedFeatureIds.toArray(Long[]::new)), clazz);
-                } finally {
-                    getStorage().flush();
-                    System.gc();
+        try {
+            return this.getStorage().write(() -> {
+                long count = 0;
+                for (Class<?> clazz : getRelatedToAF()) {
+                    try {
+                        count += getStorage().removeAll(Filter.where("alignedFeatureId").in(alignedFeatureIds.toArray(Long[]::new)), clazz);
+                    } finally {
+                        getStorage().flush();
+                        System.gc();
+                    }
                 }
-            }
-            return count;
-        });
+                return count;
+            });
+        } finally {
+            quantMatrixStore.featuresChanged(alignedFeatureIds.stream().mapToLong(Long::longValue).toArray());
+        }
     }
 }
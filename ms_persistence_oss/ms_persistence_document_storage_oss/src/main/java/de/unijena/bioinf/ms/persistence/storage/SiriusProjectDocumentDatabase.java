@@ -405,6 +405,22 @@ public interface SiriusProjectDocumentDatabase<Storage extends Database<?>> exte
         return this.getStorage().removeAll(Filter.where("formulaId").eq(formulaId), clzz);
     }
 
+    /**
+     * Deletes all computed results of the given aligned feature and resets its {@link ComputedSubtools}, e.g. because
+     * the input data of the feature changed. The parameters of the computations are kept.
+     * @return number of deleted documents
+     */
+    default long deleteComputedResults(long alignedFeatureId) throws IOException {
+        return getStorage().write(() -> {
+            long count = 0;
+            for (Class<?> clazz : List.of(FormulaCandidate.class, FTreeResult.class, CsiPrediction.class, CanopusPrediction.class,
+                    CsiStructureSearchResult.class, CsiStructureMatch.class, DenovoStructureMatch.class, SpectraMatch.class,
+                    ComputedSubtools.class))
+                count += deleteAllByFeatureId(alignedFeatureId, clazz);
+            return count;
+        });
+    }
+
     long cascadeDeleteCompound(long compoundId) throws IOException;
 
     long cascadeDeleteAlignedFeatures(long alignedFeatureId) throws IOException;
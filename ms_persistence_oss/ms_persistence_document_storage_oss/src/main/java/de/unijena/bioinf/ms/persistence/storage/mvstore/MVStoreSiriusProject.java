@@ -0,0 +1,48 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.persistence.storage.mvstore;
+
+import de.unijena.bioinf.ms.persistence.storage.DocumentSiriusProject;
+import de.unijena.bioinf.storage.db.nosql.Metadata;
+import de.unijena.bioinf.storage.db.nosql.mvstore.MVStoreDatabase;
+import org.jetbrains.annotations.NotNull;
+
+import java.io.IOException;
+import java.nio.file.Path;
+
+/**
+ * Project that is stored by a {@link MVStoreDatabase} instead of nitrite. Reads do not lock and writes to different
+ * repositories run concurrently. Project files are not compatible with the ones of {@link de.unijena.bioinf.ms.persistence.storage.nitrite.NitriteSirirusProject}.
+ */
+public class MVStoreSiriusProject extends DocumentSiriusProject<MVStoreDatabase> {
+
+    public MVStoreSiriusProject(@NotNull Path location) throws IOException {
+        this(location, buildMetadata(), MVStoreDatabase.Compression.DEFLATE); //highest compression rate
+    }
+
+    private MVStoreSiriusProject(@NotNull Path location, @NotNull final Metadata metadata, MVStoreDatabase.Compression compression) throws IOException {
+        this(location, metadata, compression, 256, 64);
+    }
+
+    private MVStoreSiriusProject(@NotNull Path location, @NotNull final Metadata metadata, MVStoreDatabase.Compression compression, int cacheSizeMiB, int commitBufferKiB) throws IOException {
+        super(new MVStoreDatabase(location, metadata, compression, cacheSizeMiB, commitBufferKiB, false), metadata);
+    }
+}
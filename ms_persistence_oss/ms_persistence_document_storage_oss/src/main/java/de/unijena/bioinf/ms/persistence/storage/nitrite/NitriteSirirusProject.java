@@ -20,39 +20,16 @@
 
 package de.unijena.bioinf.ms.persistence.storage.nitrite;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.databind.ObjectMapper;
-import de.unijena.bioinf.ChemistryBase.fp.FingerprintData;
-import de.unijena.bioinf.ChemistryBase.fp.StandardFingerprintData;
-import de.unijena.bioinf.chemdb.FingerprintCandidate;
-import de.unijena.bioinf.chemdb.nitrite.serializers.NitriteCompoundSerializers;
-import de.unijena.bioinf.ms.persistence.model.sirius.CanopusPrediction;
-import de.unijena.bioinf.ms.persistence.model.sirius.CsiPrediction;
-import de.unijena.bioinf.ms.persistence.model.sirius.serializers.CanopusPredictionDeserializer;
-import de.unijena.bioinf.ms.persistence.model.sirius.serializers.CsiPredictionDeserializer;
-import de.unijena.bioinf.ms.persistence.storage.SiriusProjectDatabaseImpl;
-import de.unijena.bioinf.ms.rest.model.canopus.CanopusCfData;
-import de.unijena.bioinf.ms.rest.model.canopus.CanopusNpcData;
-import de.unijena.bioinf.ms.rest.model.fingerid.FingerIdData;
-import de.unijena.bioinf.storage.db.nosql.Filter;
+import de.unijena.bioinf.ms.persistence.storage.DocumentSiriusProject;
 import de.unijena.bioinf.storage.db.nosql.Metadata;
 import de.unijena.bioinf.storage.db.nosql.nitrite.NitriteDatabase;
-import lombok.SneakyThrows;
-import org.dizitart.no2.collection.Document;
 import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
 import java.nio.file.Path;
-import java.util.Map;
-import java.util.Optional;
-import java.util.function.Function;
 
 
-public class NitriteSirirusProject extends SiriusProjectDatabaseImpl<NitriteDatabase> {
-    private final ObjectMapper mapper = new ObjectMapper();
-
-    //this is just needed to update json serializers with fingerprint data if it arrives
-    private final Metadata metadata;
+public class NitriteSirirusProject extends DocumentSiriusProject<NitriteDatabase> {
 
     public NitriteSirirusProject(@NotNull Path location) throws IOException {
         this(location, buildMetadata(), NitriteDatabase.MVStoreCompression.DEFLATE); //highest compression rate
@@ -63,123 +40,6 @@ public class NitriteSirirusProject extends SiriusProjectDatabaseImpl<NitriteData
     }
 
     private NitriteSirirusProject(@NotNull Path location, @NotNull final Metadata metadata, NitriteDatabase.MVStoreCompression compression, int cacheSizeMiB, int commitBufferByte) throws IOException {
-        super(new NitriteDatabase(location, metadata, compression, cacheSizeMiB, commitBufferByte, false));
-        this.metadata = metadata;
-        updateSerializers();
-    }
-
-    private void updateSerializers() {
-        synchronized (metadata) {
-            Optional<FingerIdData> csiPos = findFingerprintData(FingerIdData.class, 1);
-            Optional<FingerIdData> csiNeg = findFingerprintData(FingerIdData.class, -1);
-
-            Optional<CanopusCfData> cfPos = findFingerprintData(CanopusCfData.class, 1);
-            Optional<CanopusCfData> cfNeg = findFingerprintData(CanopusCfData.class, -1);
-
-            Optional<CanopusNpcData> npcPos = findFingerprintData(CanopusNpcData.class, 1);
-            Optional<CanopusNpcData> npcNeg = findFingerprintData(CanopusNpcData.class, -1);
-
-            csiPos.ifPresent(data ->
-                    ((NitriteCompoundSerializers.FingerprintCandidateDeserializer) metadata.deserializers.get(FingerprintCandidate.class))
-                            .setVersion(data.getFingerprintVersion()));
-
-            ((CsiPredictionDeserializer) metadata.deserializers.get(CsiPrediction.class)).setVersions(
-                    csiPos.map(FingerprintData::getFingerprintVersion).orElse(null),
-                    csiNeg.map(FingerprintData::getFingerprintVersion).orElse(null));
-
-
-            ((CanopusPredictionDeserializer) metadata.deserializers.get(CanopusPrediction.class)).setVersions(
-                    cfPos.map(FingerprintData::getFingerprintVersion).orElse(null),
-                    cfNeg.map(FingerprintData::getFingerprintVersion).orElse(null),
-                    npcPos.map(FingerprintData::getFingerprintVersion).orElse(null),
-                    npcNeg.map(FingerprintData::getFingerprintVersion).orElse(null));
-        }
-    }
-
-    @SneakyThrows
-    @Override
-    public <T> Optional<T> findProjectProperty(@NotNull String key, Class<T> valueType) {
-        return getStorage().findStr(PROJECT_PROPERTIES_COLLECTION, Filter.where("key").eq(key))
-                .findFirst().map(d -> d.get("value", valueType));
-    }
-
-    @SneakyThrows
-    @Override
-    public <T> Optional<T> findJsonProjectProperty(@NotNull String key, Class<T> valueType) {
-        return getStorage().findStr(PROJECT_PROPERTIES_COLLECTION, Filter.where("key").eq(key))
-                .findFirst().map(d -> d.get("value", String.class))
-                .map(v -> {
-                    try {
-                        return mapper.readValue(v, valueType);
-                    } catch (JsonProcessingException e) {
-                        throw new RuntimeException(e);
-                    }
-                });
-    }
-
-
-    @Override
-    public <T> Optional<T> upsertJsonProjectProperty(String key, T value) {
-        try {
-            return (Optional<T>) upsertProjectProperty(key, mapper.writeValueAsString(value)).map(v -> {
-                try {
-                    return mapper.readValue(v, value.getClass());
-                } catch (JsonProcessingException e) {
-                    throw new RuntimeException(e);
-                }
-            });
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
-        }
-    }
-
-    @SneakyThrows
-    @Override
-    public <T> Optional<T> upsertProjectProperty(@NotNull String key, T value) {
-        return (Optional<T>) getStorage().write(() -> {
-            Optional<Document> old = getStorage().findStr(PROJECT_PROPERTIES_COLLECTION, Filter.where("key").eq(key))
-                    .findFirst();
-
-            Document nu;
-            if (old.isPresent()) {
-                nu = old.get();
-                nu.put("value", value);
-            } else {
-                nu = Document.createDocument(Map.of("key", key, "value", value));
-            }
-
-            getStorage().upsert(PROJECT_PROPERTIES_COLLECTION, nu);
-
-            return old.map(d -> d.get("value", value.getClass()));
-        });
-    }
-
-    private <T extends FingerprintData<?>> Optional<T> findFpData(@NotNull Class<T> clzz, int charge, @NotNull Function<Document, T> expander) throws IOException {
-        return getStorage().findStr(FP_DATA_COLLECTION, Filter.and(
-                        Filter.where("type").eq(clzz.getSimpleName()),
-                        Filter.where("charge").eq(charge)))
-                .findFirst().map(expander);
-    }
-
-    @SneakyThrows
-    @Override
-    public <T extends FingerprintData<?>> Optional<T> findFingerprintData(Class<T> dataClazz, int charge) {
-        return findFpData(dataClazz, charge, FpDataDocs.toDataFunction(dataClazz));
-    }
-
-    @SneakyThrows
-    @Override
-    public void insertFingerprintData(StandardFingerprintData<?> fpData, int charge) {
-        // this should not be easy to update sind changing this data can make parts of the project unreadable
-        // wie should provide a project update method that takes care of deleting/updating the related data.
-        getStorage().insert(FP_DATA_COLLECTION, FpDataDocs.toDoc(fpData, charge));
-        updateSerializers();
-    }
-
-    @SneakyThrows
-    @Override
-    public void insertFingerprintData(FingerIdData fpData, int charge) {
-        getStorage().upsert(FP_DATA_COLLECTION, FpDataDocs.toDoc(fpData, charge));
-        updateSerializers();
+        super(new NitriteDatabase(location, metadata, compression, cacheSizeMiB, commitBufferByte, false), metadata);
     }
 }
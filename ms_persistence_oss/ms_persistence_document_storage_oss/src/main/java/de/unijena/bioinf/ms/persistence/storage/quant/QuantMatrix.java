@@ -0,0 +1,216 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.persistence.storage.quant;
+
+import de.unijena.bioinf.ms.persistence.model.core.statistics.QuantBlock;
+import de.unijena.bioinf.ms.persistence.model.core.statistics.QuantMeasure;
+import it.unimi.dsi.fastutil.ints.IntArrayList;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import org.jetbrains.annotations.NotNull;
+
+import java.nio.ByteBuffer;
+import java.util.List;
+
+/**
+ * Immutable snapshot of the materialized quantification matrix with one row per aligned feature and one column per
+ * LC/MS run (ascending run id). Rows are kept in the {@link Block}s they are stored in, so a snapshot shares its
+ * blocks with the {@link QuantMatrixStore} and later snapshots.
+ */
+public final class QuantMatrix {
+
+    private final long[] runIds;
+    private final List<Block> blocks;
+    // first row of each block, plus total number of rows
+    private final int[] offsets;
+
+    // built on first request
+    private volatile Long2IntMap rowIndex;
+    private volatile Long2ObjectMap<int[]> compoundRows;
+
+    QuantMatrix(long[] runIds, List<Block> blocks) {
+        this.runIds = runIds;
+        this.blocks = List.copyOf(blocks);
+        this.offsets = new int[blocks.size() + 1];
+        for (int i = 0; i < blocks.size(); ++i)
+            offsets[i + 1] = offsets[i] + blocks.get(i).size();
+    }
+
+    public int getNumberOfRows() {
+        return offsets[offsets.length - 1];
+    }
+
+    public int getNumberOfColumns() {
+        return runIds.length;
+    }
+
+    public long getRunId(int column) {
+        return runIds[column];
+    }
+
+    public long getAlignedFeatureId(int row) {
+        final int b = blockOf(row);
+        return blocks.get(b).alignedFeatureIds[row - offsets[b]];
+    }
+
+    /**
+     * @return compound id of the row or -1 if the feature does not belong to a compound
+     */
+    public long getCompoundId(int row) {
+        final int b = blockOf(row);
+        return blocks.get(b).compoundIds[row - offsets[b]];
+    }
+
+    public String getName(int row) {
+        final int b = blockOf(row);
+        return blocks.get(b).names[row - offsets[b]];
+    }
+
+    /**
+     * @return quantity of the row in the given column or NaN if the feature was not detected in this run
+     */
+    public float getValue(@NotNull QuantMeasure measure, int row, int column) {
+        final int b = blockOf(row);
+        final Block block = blocks.get(b);
+        return block.column(measure)[column * block.size() + row - offsets[b]];
+    }
+
+    /**
+     * Copies the values of the given row into dst, which needs at least {@link #getNumberOfColumns()} elements.
+     */
+    public void getRow(@NotNull QuantMeasure measure, int row, float[] dst) {
+        final int b = blockOf(row);
+        final Block block = blocks.get(b);
+        final float[] values = block.column(measure);
+        final int r = row - offsets[b], n = block.size();
+        for (int c = 0; c < runIds.length; ++c)
+            dst[c] = values[c * n + r];
+    }
+
+    /**
+     * @return row of the given aligned feature or -1 if it is not contained
+     */
+    public int indexOf(long alignedFeatureId) {
+        Long2IntMap index = rowIndex;
+        if (index == null) {
+            index = new Long2IntOpenHashMap(getNumberOfRows());
+            index.defaultReturnValue(-1);
+            int row = 0;
+            for (Block block : blocks)
+                for (long id : block.alignedFeatureIds)
+                    index.put(id, row++);
+            rowIndex = index;
+        }
+        return index.get(alignedFeatureId);
+    }
+
+    /**
+     * @return rows of all features of the given compound, in row order
+     */
+    public int[] rowsOfCompound(long compoundId) {
+        Long2ObjectMap<int[]> index = compoundRows;
+        if (index == null) {
+            final Long2ObjectMap<IntArrayList> rows = new Long2ObjectOpenHashMap<>();
+            int row = 0;
+            for (Block block : blocks)
+                for (long id : block.compoundIds)
+                    rows.computeIfAbsent(id, k -> new IntArrayList(2)).add(row++);
+            index = new Long2ObjectOpenHashMap<>(rows.size());
+            for (Long2ObjectMap.Entry<IntArrayList> e : rows.long2ObjectEntrySet())
+                index.put(e.getLongKey(), e.getValue().toIntArray());
+            compoundRows = index;
+        }
+        final int[] rows = index.get(compoundId);
+        return rows == null ? new int[0] : rows;
+    }
+
+    /**
+     * @return true if at least one feature was detected in at least one run
+     */
+    public boolean hasValues() {
+        for (Block block : blocks)
+            for (float v : block.areasUnderCurve)
+                if (!Float.isNaN(v))
+                    return true;
+        return false;
+    }
+
+    private int blockOf(int row) {
+        if (row < 0 || row >= getNumberOfRows())
+            throw new IndexOutOfBoundsException(row);
+        int lo = 0, hi = blocks.size() - 1;
+        while (lo < hi) {
+            final int mid = (lo + hi + 1) >>> 1;
+            if (offsets[mid] <= row) lo = mid;
+            else hi = mid - 1;
+        }
+        return lo;
+    }
+
+    /**
+     * Decoded {@link QuantBlock}. Values are column-major, the arrays must not be modified.
+     */
+    record Block(long blockId, long[] alignedFeatureIds, long[] compoundIds, String[] names,
+                 float[] apexIntensities, float[] areasUnderCurve) {
+
+        int size() {
+            return alignedFeatureIds.length;
+        }
+
+        float[] column(QuantMeasure measure) {
+            return switch (measure) {
+                case APEX_INTENSITY -> apexIntensities;
+                case AREA_UNDER_CURVE -> areasUnderCurve;
+            };
+        }
+
+        static Block decode(QuantBlock block) {
+            return new Block(block.getBlockId(), block.getAlignedFeatureIds(), block.getCompoundIds(), block.getNames(),
+                    decodeFloats(block.getApexIntensities()), decodeFloats(block.getAreasUnderCurve()));
+        }
+
+        QuantBlock encode(long[] runIds) {
+            return QuantBlock.builder()
+                    .blockId(blockId)
+                    .runIds(runIds)
+                    .alignedFeatureIds(alignedFeatureIds)
+                    .compoundIds(compoundIds)
+                    .names(names)
+                    .apexIntensities(encodeFloats(apexIntensities))
+                    .areasUnderCurve(encodeFloats(areasUnderCurve))
+                    .build();
+        }
+
+        private static float[] decodeFloats(byte[] data) {
+            final float[] values = new float[data.length / 4];
+            ByteBuffer.wrap(data).asFloatBuffer().get(values);
+            return values;
+        }
+
+        private static byte[] encodeFloats(float[] values) {
+            final ByteBuffer buf = ByteBuffer.allocate(values.length * 4);
+            buf.asFloatBuffer().put(values);
+            return buf.array();
+        }
+    }
+}
@@ -0,0 +1,409 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.persistence.storage.quant;
+
+import de.unijena.bioinf.ms.persistence.model.core.feature.AlignedFeatures;
+import de.unijena.bioinf.ms.persistence.model.core.feature.Feature;
+import de.unijena.bioinf.ms.persistence.model.core.run.LCMSRun;
+import de.unijena.bioinf.ms.persistence.model.core.statistics.QuantBlock;
+import de.unijena.bioinf.storage.db.nosql.Database;
+import de.unijena.bioinf.storage.db.nosql.Filter;
+import de.unijena.bioinf.storage.db.nosql.utils.PKSuppliers;
+import it.unimi.dsi.fastutil.longs.*;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.function.Consumer;
+
+/**
+ * Materialized quantification matrix of a project, persisted as {@link QuantBlock}s of about {@link #DEFAULT_BLOCK_SIZE}
+ * rows each. The matrix is built on first request from all {@link Feature}s that belong to an LC/MS run and kept in memory.
+ * <p>
+ * The write paths of the project record which aligned features changed via {@link #featuresChanged(long...)}, such that
+ * the next read sees the change. Listeners on {@link AlignedFeatures}, {@link Feature} and {@link LCMSRun} record changes
+ * made directly in the database, but are notified asynchronously: such changes become visible with a delay and are lost
+ * if the store is closed before the listeners are notified.
+ * Recorded changes are applied before the next read and on close: rows of changed features are recomputed and only
+ * the affected blocks are rewritten, new features are appended and blocks of removed features are compacted.
+ * If too many features changed or runs were added or removed the matrix is rebuilt from scratch.
+ * <p>
+ * Persisted blocks are reused when the project is opened again, as long as they have the current runs as columns and
+ * their rows match the aligned features of the project in id, name and compound.
+ */
+public class QuantMatrixStore implements Closeable {
+
+    public static final int DEFAULT_BLOCK_SIZE = 1024;
+    /**
+     * changes of more features than this (or of more than a tenth of all rows) are applied by a rebuild
+     */
+    private static final int MAX_INCREMENTAL_UPDATES = 1000;
+
+    private final Database<?> storage;
+    private final int blockSize;
+    private final List<Map.Entry<Class<?>, Long>> listenerIds = new ArrayList<>();
+
+    private final LongSet changedFeatures = LongSets.synchronize(new LongOpenHashSet());
+    private volatile boolean runsChanged = false;
+    /**
+     * false if no blocks are stored, changes do not need to be recorded then
+     */
+    private volatile boolean materialized;
+
+    // guarded by this
+    private long[] runIds;
+    private final TreeMap<Long, QuantMatrix.Block> blocks = new TreeMap<>();
+    private final Long2LongMap featureToBlock = new Long2LongOpenHashMap();
+    private QuantMatrix matrix;
+
+    public QuantMatrixStore(@NotNull Database<?> storage) throws IOException {
+        this(storage, DEFAULT_BLOCK_SIZE);
+    }
+
+    public QuantMatrixStore(@NotNull Database<?> storage, int blockSize) throws IOException {
+        this.storage = storage;
+        this.blockSize = blockSize;
+        this.materialized = storage.countAll(QuantBlock.class) > 0;
+        listen(AlignedFeatures.class, f -> featureChanged(f.getAlignedFeatureId()));
+        listen(Feature.class, f -> featureChanged(f.getAlignedFeatureId()));
+        // renaming a run does not change the columns
+        listenerIds.add(Map.entry(LCMSRun.class, storage.onInsert(LCMSRun.class, r -> runsChanged())));
+        listenerIds.add(Map.entry(LCMSRun.class, storage.onRemove(LCMSRun.class, r -> runsChanged())));
+    }
+
+    private <T> void listen(Class<T> clazz, Consumer<T> listener) throws IOException {
+        listenerIds.add(Map.entry(clazz, storage.onInsert(clazz, listener)));
+        listenerIds.add(Map.entry(clazz, storage.onUpdate(clazz, listener)));
+        listenerIds.add(Map.entry(clazz, storage.onRemove(clazz, listener)));
+    }
+
+    private void featureChanged(long alignedFeatureId) {
+        if (materialized)
+            changedFeatures.add(alignedFeatureId);
+    }
+
+    /**
+     * Records that the given aligned features or their features were inserted, modified or removed. Called by the
+     * write paths of the project right after writing, unlike the storage listeners that record the same changes
+     * asynchronously.
+     */
+    public void featuresChanged(long... alignedFeatureIds) {
+        if (materialized)
+            changedFeatures.addAll(LongArrayList.wrap(alignedFeatureIds));
+    }
+
+    private void runsChanged() {
+        if (materialized)
+            runsChanged = true;
+    }
+
+    /**
+     * @return current quantification matrix, empty if the project has no LC/MS runs.
+     */
+    public synchronized Optional<QuantMatrix> getMatrix() throws IOException {
+        if (matrix == null && !load())
+            rebuild();
+        else if (needsRebuild())
+            rebuild();
+        else if (!changedFeatures.isEmpty())
+            applyChanges();
+        return matrix.getNumberOfColumns() == 0 ? Optional.empty() : Optional.of(matrix);
+    }
+
+    /**
+     * Discards the stored matrix, it is rebuilt on next request.
+     */
+    public synchronized void invalidate() throws IOException {
+        matrix = null;
+        blocks.clear();
+        featureToBlock.clear();
+        materialized = false;
+        storage.removeAll(storage.findAll(QuantBlock.class));
+    }
+
+    private boolean needsRebuild() {
+        if (runsChanged)
+            return true;
+        final int changes = changedFeatures.size();
+        return changes > MAX_INCREMENTAL_UPDATES && changes > featureToBlock.size() / 10;
+    }
+
+    /**
+     * Loads stored blocks.
+     *
+     * @return false if there are no stored blocks or they do not match the current project
+     */
+    private boolean load() throws IOException {
+        if (!materialized || needsRebuild())
+            return false;
+        final long[] currentRunIds = currentRunIds();
+        blocks.clear();
+        featureToBlock.clear();
+        for (QuantBlock b : storage.findAll(QuantBlock.class)) {
+            if (!Arrays.equals(currentRunIds, b.getRunIds()))
+                return false;
+            final QuantMatrix.Block block = QuantMatrix.Block.decode(b);
+            blocks.put(block.blockId(), block);
+            for (long id : block.alignedFeatureIds())
+                featureToBlock.put(id, block.blockId());
+        }
+        if (!rowsMatchAlignedFeatures())
+            return false;
+        runIds = currentRunIds;
+        if (!changedFeatures.isEmpty())
+            applyChanges();
+        else
+            matrix = new QuantMatrix(runIds, new ArrayList<>(blocks.values()));
+        return true;
+    }
+
+    /**
+     * Rows without recorded changes only differ from the aligned features if the project was modified without this
+     * store or changes were not recorded before it was closed. Reads all aligned features but none of their features,
+     * so unrecorded changes of feature values are not detected.
+     */
+    private boolean rowsMatchAlignedFeatures() throws IOException {
+        final Long2ObjectMap<AlignedFeatures> stored = new Long2ObjectOpenHashMap<>();
+        storage.findAllStr(AlignedFeatures.class).forEach(f -> stored.put(f.getAlignedFeatureId(), f));
+        for (QuantMatrix.Block block : blocks.values()) {
+            for (int r = 0; r < block.size(); ++r) {
+                final long id = block.alignedFeatureIds()[r];
+                final AlignedFeatures feature = stored.remove(id);
+                if (changedFeatures.contains(id))
+                    continue;
+                if (feature == null || compoundId(feature) != block.compoundIds()[r] || !Objects.equals(feature.getName(), block.names()[r]))
+                    return false;
+            }
+        }
+        for (long id : stored.keySet()) {
+            if (!changedFeatures.contains(id))
+                return false;
+        }
+        return true;
+    }
+
+    private static long compoundId(AlignedFeatures feature) {
+        return feature.getCompoundId() == null ? -1 : feature.getCompoundId();
+    }
+
+    private long[] currentRunIds() throws IOException {
+        return storage.findAllStr(LCMSRun.class).mapToLong(LCMSRun::getRunId).sorted().toArray();
+    }
+
+    private void rebuild() throws IOException {
+        // record changes while reading, they are applied on next request
+        materialized = true;
+        runsChanged = false;
+        changedFeatures.clear();
+        storage.removeAll(storage.findAll(QuantBlock.class));
+        blocks.clear();
+        featureToBlock.clear();
+
+        runIds = currentRunIds();
+        final Long2IntMap columns = columnIndex(runIds);
+        final Long2ObjectMap<float[][]> values = new Long2ObjectOpenHashMap<>();
+        if (runIds.length > 0) {
+            storage.findAllStr(Feature.class).filter(f -> f.getRunId() != null).forEach(f ->
+                    setValues(values.computeIfAbsent(f.getAlignedFeatureId(), k -> emptyRow(runIds.length)), columns, f));
+        }
+
+        final List<Row> rows = new ArrayList<>(blockSize);
+        final List<QuantBlock> encoded = new ArrayList<>();
+        for (AlignedFeatures f : storage.findAll(AlignedFeatures.class)) {
+            final float[][] v = values.remove(f.getAlignedFeatureId());
+            rows.add(new Row(f, v == null ? emptyRow(runIds.length) : v));
+            if (rows.size() == blockSize) {
+                encoded.add(addBlock(PKSuppliers.getLongKey().get(), rows));
+                rows.clear();
+            }
+        }
+        if (!rows.isEmpty())
+            encoded.add(addBlock(PKSuppliers.getLongKey().get(), rows));
+        storage.insertAll(encoded);
+        matrix = new QuantMatrix(runIds, new ArrayList<>(blocks.values()));
+        LoggerFactory.getLogger(getClass()).debug("Built quantification matrix with {} rows and {} columns.", matrix.getNumberOfRows(), runIds.length);
+    }
+
+    private void applyChanges() throws IOException {
+        final long[] changed;
+        synchronized (changedFeatures) {
+            changed = changedFeatures.toLongArray();
+            changedFeatures.clear();
+        }
+        final Long2IntMap columns = columnIndex(runIds);
+        final Long2ObjectMap<Row> updated = new Long2ObjectLinkedOpenHashMap<>();
+        final LongSet removed = new LongOpenHashSet();
+        final LongSet affectedBlocks = new LongOpenHashSet();
+        for (long id : changed) {
+            final Optional<AlignedFeatures> feature = storage.getByPrimaryKey(id, AlignedFeatures.class);
+            if (feature.isPresent()) {
+                final float[][] v = emptyRow(runIds.length);
+                storage.findStr(Filter.where("alignedFeatureId").eq(id), Feature.class)
+                        .filter(f -> f.getRunId() != null).forEach(f -> setValues(v, columns, f));
+                updated.put(id, new Row(feature.get(), v));
+            } else {
+                removed.add(id);
+            }
+            if (featureToBlock.containsKey(id))
+                affectedBlocks.add(featureToBlock.get(id));
+        }
+
+        final List<QuantBlock> upserts = new ArrayList<>();
+        final List<Row> rows = new ArrayList<>(blockSize);
+        for (long blockId : affectedBlocks) {
+            final QuantMatrix.Block block = blocks.remove(blockId);
+            rows.clear();
+            for (int r = 0; r < block.size(); ++r) {
+                final long id = block.alignedFeatureIds()[r];
+                final Row row = updated.remove(id);
+                if (row != null)
+                    rows.add(row);
+                else if (!removed.contains(id))
+                    rows.add(new Row(block, r, runIds.length));
+            }
+            for (long id : block.alignedFeatureIds())
+                featureToBlock.remove(id);
+            if (rows.isEmpty())
+                storage.removeByPrimaryKey(blockId, QuantBlock.class);
+            else
+                upserts.add(addBlock(blockId, rows));
+        }
+
+        // remaining updates are new features, they fill up the last block first
+        final Iterator<Row> added = updated.values().iterator();
+        if (added.hasNext() && !blocks.isEmpty() && blocks.lastEntry().getValue().size() < blockSize) {
+            final QuantMatrix.Block last = blocks.pollLastEntry().getValue();
+            rows.clear();
+            for (int r = 0; r < last.size(); ++r)
+                rows.add(new Row(last, r, runIds.length));
+            while (rows.size() < blockSize && added.hasNext())
+                rows.add(added.next());
+            upserts.removeIf(b -> b.getBlockId() == last.blockId());
+            upserts.add(addBlock(last.blockId(), rows));
+        }
+        while (added.hasNext()) {
+            rows.clear();
+            while (rows.size() < blockSize && added.hasNext())
+                rows.add(added.next());
+            upserts.add(addBlock(PKSuppliers.getLongKey().get(), rows));
+        }
+        storage.upsertAll(upserts);
+        matrix = new QuantMatrix(runIds, new ArrayList<>(blocks.values()));
+    }
+
+    private QuantBlock addBlock(long blockId, List<Row> rows) {
+        final int n = rows.size(), columns = runIds.length;
+        final long[] ids = new long[n], compoundIds = new long[n];
+        final String[] names = new String[n];
+        final float[] apex = new float[n * columns], auc = new float[n * columns];
+        for (int r = 0; r < n; ++r) {
+            final Row row = rows.get(r);
+            ids[r] = row.alignedFeatureId;
+            compoundIds[r] = row.compoundId;
+            names[r] = row.name;
+            for (int c = 0; c < columns; ++c) {
+                apex[c * n + r] = row.values[0][c];
+                auc[c * n + r] = row.values[1][c];
+            }
+        }
+        final QuantMatrix.Block block = new QuantMatrix.Block(blockId, ids, compoundIds, names, apex, auc);
+        blocks.put(blockId, block);
+        for (long id : ids)
+            featureToBlock.put(id, blockId);
+        return block.encode(runIds);
+    }
+
+    private static Long2IntMap columnIndex(long[] runIds) {
+        final Long2IntMap columns = new Long2IntOpenHashMap(runIds.length);
+        for (int c = 0; c < runIds.length; ++c)
+            columns.put(runIds[c], c);
+        return columns;
+    }
+
+    private static float[][] emptyRow(int columns) {
+        final float[][] row = new float[2][columns];
+        Arrays.fill(row[0], Float.NaN);
+        Arrays.fill(row[1], Float.NaN);
+        return row;
+    }
+
+    /**
+     * a feature per run, if there are several the last one wins
+     */
+    private static void setValues(float[][] row, Long2IntMap columns, Feature feature) {
+        if (!columns.containsKey((long) feature.getRunId()))
+            return;
+        final int c = columns.get((long) feature.getRunId());
+        row[0][c] = feature.getApexIntensity() == null ? Float.NaN : feature.getApexIntensity().floatValue();
+        row[1][c] = (float) feature.getAreaUnderCurve();
+    }
+
+    private static final class Row {
+        final long alignedFeatureId, compoundId;
+        final String name;
+        // apex intensities and areas under curve
+        final float[][] values;
+
+        Row(AlignedFeatures feature, float[][] values) {
+            this.alignedFeatureId = feature.getAlignedFeatureId();
+            this.compoundId = compoundId(feature);
+            this.name = feature.getName();
+            this.values = values;
+        }
+
+        Row(QuantMatrix.Block block, int r, int columns) {
+            this.alignedFeatureId = block.alignedFeatureIds()[r];
+            this.compoundId = block.compoundIds()[r];
+            this.name = block.names()[r];
+            this.values = new float[2][columns];
+            for (int c = 0; c < columns; ++c) {
+                values[0][c] = block.apexIntensities()[c * block.size() + r];
+                values[1][c] = block.areasUnderCurve()[c * block.size() + r];
+            }
+        }
+    }
+
+    /**
+     * Applies recorded changes (or discards the stored matrix if it would need a rebuild) and removes all listeners.
+     * Changes whose listeners are not notified yet are lost. When the project is opened again, stored rows are only
+     * reused if they still match the aligned features.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        try {
+            for (Map.Entry<Class<?>, Long> e : listenerIds)
+                storage.unsubscribe(e.getKey(), e.getValue());
+            listenerIds.clear();
+            if (!materialized || (changedFeatures.isEmpty() && !runsChanged))
+                return;
+            if (needsRebuild() || (matrix == null && !load()))
+                invalidate();
+            else if (!changedFeatures.isEmpty())
+                applyChanges();
+        } finally {
+            matrix = null;
+            blocks.clear();
+            featureToBlock.clear();
+        }
+    }
+}
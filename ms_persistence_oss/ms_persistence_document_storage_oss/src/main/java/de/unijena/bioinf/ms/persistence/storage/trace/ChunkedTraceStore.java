@@ -0,0 +1,431 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.persistence.storage.trace;
+
+import de.unijena.bioinf.ms.persistence.model.core.trace.*;
+import de.unijena.bioinf.storage.db.nosql.Database;
+import de.unijena.bioinf.storage.db.nosql.Filter;
+import de.unijena.bioinf.storage.db.nosql.utils.PKSuppliers;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.doubles.DoubleList;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import it.unimi.dsi.fastutil.floats.FloatList;
+import it.unimi.dsi.fastutil.longs.Long2IntMap;
+import it.unimi.dsi.fastutil.longs.Long2IntOpenHashMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectMap;
+import it.unimi.dsi.fastutil.longs.Long2ObjectOpenHashMap;
+import it.unimi.dsi.fastutil.longs.LongArrayList;
+import it.unimi.dsi.fastutil.longs.LongList;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.*;
+import java.util.function.Consumer;
+import java.util.zip.DataFormatException;
+import java.util.zip.Deflater;
+import java.util.zip.Inflater;
+
+/**
+ * {@link TraceStore} that appends traces in a fixed binary layout to chunks of about {@link #DEFAULT_CHUNK_SIZE} bytes.
+ * Sealed chunks are stored (optionally deflate compressed) as {@link TraceChunk}s in the given database, together with a
+ * {@link TraceLocation} per trace as offset index. Reads decode the chunk once and keep a few decoded chunks in memory,
+ * such that intensity windows are just views on the chunk.
+ * <p>
+ * Traces of the open chunk are readable from this store right away, but are only written to the database when the
+ * chunk is sealed, that is when it is full or on {@link #flush()}. Bulk imports of the project flush once per import.
+ * <p>
+ * Layout of one trace: type (byte), runId (long), scanIndexOffset (int), averageMz (double), intensities (int length + floats),
+ * followed by rawScanIndexOffset (int) and rawIntensities (int length + floats) for source traces or mz (int length + doubles)
+ * for merged traces. A length of -1 encodes null.
+ * <p>
+ * Removing a trace only removes it from the index, its bytes stay in the chunk. On {@link #close()}, chunks in which
+ * more than {@link #DEFAULT_MAX_DEAD_RATIO} of the bytes belong to traces removed since the store was opened are
+ * {@link #compact(double) compacted}: their remaining traces are copied into new chunks and the old chunks are deleted.
+ * Reads may run concurrently to compaction, a read that finds the chunk of a moved trace deleted looks the trace up again.
+ */
+public class ChunkedTraceStore implements TraceStore {
+
+    public static final int DEFAULT_CHUNK_SIZE = 1 << 20;
+    public static final int DEFAULT_CACHED_CHUNKS = 16;
+    public static final double DEFAULT_MAX_DEAD_RATIO = 0.5;
+
+    private static final byte SOURCE = 0, MERGED = 1;
+    private static final int INTENSITY_LENGTH_POS = 1 + 8 + 4 + 8, INTENSITY_POS = INTENSITY_LENGTH_POS + 4;
+
+    private final Database<?> storage;
+    private final int chunkSize;
+    private final boolean compress;
+
+    // open chunk, guarded by this
+    private ByteBuffer buffer;
+    private long bufferChunkId;
+    private final Long2ObjectMap<TraceLocation> pending = new Long2ObjectOpenHashMap<>();
+    // bytes of traces removed since the store was opened, by chunk id, guarded by this
+    private final Long2IntMap removedBytes = new Long2IntOpenHashMap();
+
+    private final Map<Long, ByteBuffer> decodedChunks;
+
+    public ChunkedTraceStore(@NotNull Database<?> storage) {
+        this(storage, DEFAULT_CHUNK_SIZE, true, DEFAULT_CACHED_CHUNKS);
+    }
+
+    public ChunkedTraceStore(@NotNull Database<?> storage, int chunkSize, boolean compress, int cachedChunks) {
+        this.storage = storage;
+        this.chunkSize = chunkSize;
+        this.compress = compress;
+        this.decodedChunks = Collections.synchronizedMap(new LinkedHashMap<>(cachedChunks, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Long, ByteBuffer> eldest) {
+                return size() > cachedChunks;
+            }
+        });
+    }
+
+    @Override
+    public synchronized void insert(AbstractTrace trace) throws IOException {
+        final boolean merged;
+        final long traceId;
+        if (trace instanceof MergedTrace m) {
+            if (m.getMergedTraceId() == 0)
+                m.setMergedTraceId(PKSuppliers.getLongKey().get());
+            merged = true;
+            traceId = m.getMergedTraceId();
+        } else if (trace instanceof SourceTrace s) {
+            if (s.getSourceTraceId() == 0)
+                s.setSourceTraceId(PKSuppliers.getLongKey().get());
+            merged = false;
+            traceId = s.getSourceTraceId();
+        } else {
+            throw new IllegalArgumentException("Unsupported trace type: " + trace.getClass().getName());
+        }
+
+        append(traceId, merged, encodedSize(trace), buf -> encode(trace, buf));
+    }
+
+    // guarded by this
+    private void append(long traceId, boolean merged, int length, Consumer<ByteBuffer> writer) throws IOException {
+        if (buffer != null && buffer.remaining() < length)
+            seal();
+        if (buffer == null) {
+            buffer = ByteBuffer.allocate(Math.max(chunkSize, length));
+            bufferChunkId = PKSuppliers.getLongKey().get();
+        }
+        final int offset = buffer.position();
+        writer.accept(buffer);
+        pending.put(traceId, new TraceLocation(traceId, merged, bufferChunkId, offset, length));
+    }
+
+    @Override
+    public Optional<SourceTrace> getSourceTrace(long sourceTraceId) throws IOException {
+        return locate(sourceTraceId).filter(r -> r.get(0) == SOURCE).map(r -> (SourceTrace) decode(r, sourceTraceId));
+    }
+
+    @Override
+    public Optional<MergedTrace> getMergedTrace(long mergedTraceId) throws IOException {
+        return locate(mergedTraceId).filter(r -> r.get(0) == MERGED).map(r -> (MergedTrace) decode(r, mergedTraceId));
+    }
+
+    @Override
+    public Optional<TraceWindow> getIntensities(long traceId, int fromScanIndex, int toScanIndex) throws IOException {
+        return locate(traceId).map(r -> {
+            final int scanIndexOffset = r.getInt(9);
+            final int size = Math.max(0, r.getInt(INTENSITY_LENGTH_POS));
+            final int from = Math.max(fromScanIndex, scanIndexOffset);
+            final int to = Math.max(from, Math.min(toScanIndex, scanIndexOffset + size));
+            final int pos = INTENSITY_POS + 4 * (from - scanIndexOffset);
+            return new TraceWindow(from, r.slice(pos, 4 * (to - from)).asFloatBuffer());
+        });
+    }
+
+    /**
+     * Holds the store lock, such that a concurrent compaction cannot store the location of a removed trace again.
+     */
+    @Override
+    public synchronized boolean remove(long traceId) throws IOException {
+        final TraceLocation pendingLocation = pending.remove(traceId);
+        if (pendingLocation != null) {
+            removedBytes.mergeInt(pendingLocation.getChunkId(), pendingLocation.getLength(), Integer::sum);
+            return true;
+        }
+        final Optional<TraceLocation> location = storage.getByPrimaryKey(traceId, TraceLocation.class);
+        if (location.isEmpty() || storage.removeByPrimaryKey(traceId, TraceLocation.class) == 0)
+            return false;
+        removedBytes.mergeInt(location.get().getChunkId(), location.get().getLength(), Integer::sum);
+        return true;
+    }
+
+    @Override
+    public synchronized void flush() throws IOException {
+        seal();
+    }
+
+    /**
+     * Flushes the store and compacts the chunks whose traces were removed.
+     */
+    @Override
+    public synchronized void close() throws IOException {
+        compact(DEFAULT_MAX_DEAD_RATIO);
+    }
+
+    /**
+     * Rewrites all chunks in which more than maxDeadRatio of the bytes belong to removed traces. The remaining traces
+     * of these chunks are appended to new chunks, afterwards the old chunks are deleted. Only chunks with traces removed
+     * since this store was opened are considered, such that compaction never has to read the whole store.
+     * Inserts and removals wait for the compaction, reads do not.
+     *
+     * @return number of deleted chunks
+     */
+    public synchronized int compact(double maxDeadRatio) throws IOException {
+        seal();
+        final LongList obsolete = new LongArrayList();
+        for (long chunkId : removedBytes.keySet().toLongArray()) {
+            final Optional<TraceChunk> chunk = storage.getByPrimaryKey(chunkId, TraceChunk.class);
+            if (chunk.isEmpty())
+                continue;
+            final List<TraceLocation> locations = new ArrayList<>();
+            storage.find(Filter.where("chunkId").eq(chunkId), TraceLocation.class).forEach(locations::add);
+            final long liveBytes = locations.stream().mapToLong(TraceLocation::getLength).sum();
+            if (liveBytes > (1d - maxDeadRatio) * chunk.get().getSize())
+                continue;
+            final ByteBuffer data = ByteBuffer.wrap(chunk.get().isCompressed() ? inflate(chunk.get()) : chunk.get().getData());
+            for (TraceLocation location : locations)
+                append(location.getTraceId(), location.isMerged(), location.getLength(),
+                        buf -> buf.put(data.slice(location.getOffset(), location.getLength())));
+            obsolete.add(chunkId);
+        }
+        // the old chunks are only deleted after the new locations are stored
+        seal();
+        for (long chunkId : obsolete) {
+            storage.removeByPrimaryKey(chunkId, TraceChunk.class);
+            decodedChunks.remove(chunkId);
+        }
+        removedBytes.clear();
+        return obsolete.size();
+    }
+
+    /**
+     * @return read only view on the encoded trace
+     */
+    private Optional<ByteBuffer> locate(long traceId) throws IOException {
+        synchronized (this) {
+            final TraceLocation location = pending.get(traceId);
+            if (location != null)
+                return Optional.of(buffer.asReadOnlyBuffer().slice(location.getOffset(), location.getLength()));
+        }
+        Optional<TraceLocation> location = storage.getByPrimaryKey(traceId, TraceLocation.class);
+        while (location.isPresent()) {
+            final ByteBuffer chunk = getChunk(location.get().getChunkId());
+            if (chunk != null)
+                return Optional.of(chunk.slice(location.get().getOffset(), location.get().getLength()));
+            // the chunk was deleted by a compaction after the location was read. Compaction stores the new location
+            // before deleting the old chunk, so the trace is either moved or removed.
+            final long deletedChunkId = location.get().getChunkId();
+            location = storage.getByPrimaryKey(traceId, TraceLocation.class)
+                    .filter(moved -> moved.getChunkId() != deletedChunkId);
+        }
+        return Optional.empty();
+    }
+
+    @Nullable
+    private ByteBuffer getChunk(long chunkId) throws IOException {
+        ByteBuffer chunk = decodedChunks.get(chunkId);
+        if (chunk != null)
+            return chunk;
+        final Optional<TraceChunk> stored = storage.getByPrimaryKey(chunkId, TraceChunk.class);
+        if (stored.isEmpty())
+            return null;
+        chunk = ByteBuffer.wrap(stored.get().isCompressed() ? inflate(stored.get()) : stored.get().getData()).asReadOnlyBuffer();
+        decodedChunks.put(chunkId, chunk);
+        return chunk;
+    }
+
+    // guarded by this
+    private void seal() throws IOException {
+        if (buffer == null)
+            return;
+        if (!pending.isEmpty()) {
+            final int size = buffer.position();
+            byte[] data = null;
+            if (compress)
+                data = deflate(buffer.array(), size);
+            final boolean compressed = data != null;
+            if (!compressed)
+                data = Arrays.copyOf(buffer.array(), size);
+
+            final TraceChunk chunk = new TraceChunk(bufferChunkId, compressed, size, data);
+            final List<TraceLocation> locations = new ArrayList<>(pending.values());
+            storage.write(() -> {
+                storage.insert(chunk);
+                // locations of traces moved by compaction already exist
+                storage.upsertAll(locations);
+            });
+            decodedChunks.put(bufferChunkId, ByteBuffer.wrap(buffer.array(), 0, size).slice().asReadOnlyBuffer());
+            pending.clear();
+        }
+        buffer = null;
+    }
+
+    /**
+     * @return compressed data or null if compression does not reduce the size
+     */
+    @Nullable
+    private static byte[] deflate(byte[] data, int size) {
+        final Deflater deflater = new Deflater(Deflater.BEST_SPEED);
+        try {
+            deflater.setInput(data, 0, size);
+            deflater.finish();
+            final ByteArrayOutputStream out = new ByteArrayOutputStream(size / 2);
+            final byte[] tmp = new byte[64 * 1024];
+            while (!deflater.finished()) {
+                out.write(tmp, 0, deflater.deflate(tmp));
+                if (out.size() >= size)
+                    return null;
+            }
+            return out.toByteArray();
+        } finally {
+            deflater.end();
+        }
+    }
+
+    private static byte[] inflate(TraceChunk chunk) throws IOException {
+        final Inflater inflater = new Inflater();
+        try {
+            inflater.setInput(chunk.getData());
+            final byte[] data = new byte[chunk.getSize()];
+            int length = 0;
+            while (length < data.length && !inflater.finished()) {
+                final int n = inflater.inflate(data, length, data.length - length);
+                if (n == 0 && (inflater.needsInput() || inflater.needsDictionary()))
+                    break;
+                length += n;
+            }
+            if (length != data.length)
+                throw new IOException("Corrupted trace chunk " + chunk.getChunkId() + ": expected " + data.length + " bytes but got " + length);
+            return data;
+        } catch (DataFormatException e) {
+            throw new IOException("Corrupted trace chunk " + chunk.getChunkId(), e);
+        } finally {
+            inflater.end();
+        }
+    }
+
+    //region encoding
+    private static int encodedSize(AbstractTrace trace) {
+        int size = INTENSITY_POS + 4 * length(trace.getIntensities());
+        if (trace instanceof SourceTrace s)
+            size += 4 + 4 + 4 * length(s.getRawIntensities());
+        else if (trace instanceof MergedTrace m)
+            size += 4 + 8 * (m.getMz() == null ? 0 : m.getMz().size());
+        return size;
+    }
+
+    private static int length(FloatList values) {
+        return values == null ? 0 : values.size();
+    }
+
+    private static void encode(AbstractTrace trace, ByteBuffer buf) {
+        buf.put(trace instanceof MergedTrace ? MERGED : SOURCE);
+        buf.putLong(trace.getRunId());
+        buf.putInt(trace.getScanIndexOffset());
+        buf.putDouble(trace.getAverageMz());
+        putFloats(buf, trace.getIntensities());
+        if (trace instanceof SourceTrace s) {
+            buf.putInt(s.getRawScanIndexOffset());
+            putFloats(buf, s.getRawIntensities());
+        } else if (trace instanceof MergedTrace m) {
+            putDoubles(buf, m.getMz());
+        }
+    }
+
+    private static void putFloats(ByteBuffer buf, FloatList values) {
+        if (values == null) {
+            buf.putInt(-1);
+            return;
+        }
+        final int size = values.size();
+        buf.putInt(size);
+        final float[] array = values instanceof FloatArrayList l ? l.elements() : values.toFloatArray();
+        buf.asFloatBuffer().put(array, 0, size);
+        buf.position(buf.position() + 4 * size);
+    }
+
+    private static void putDoubles(ByteBuffer buf, DoubleList values) {
+        if (values == null) {
+            buf.putInt(-1);
+            return;
+        }
+        final int size = values.size();
+        buf.putInt(size);
+        final double[] array = values instanceof DoubleArrayList l ? l.elements() : values.toDoubleArray();
+        buf.asDoubleBuffer().put(array, 0, size);
+        buf.position(buf.position() + 8 * size);
+    }
+
+    private static AbstractTrace decode(ByteBuffer r, long traceId) {
+        final ByteBuffer buf = r.duplicate();
+        final byte type = buf.get();
+        final AbstractTrace trace;
+        if (type == MERGED) {
+            MergedTrace m = new MergedTrace();
+            m.setMergedTraceId(traceId);
+            trace = m;
+        } else {
+            SourceTrace s = new SourceTrace();
+            s.setSourceTraceId(traceId);
+            trace = s;
+        }
+        trace.setRunId(buf.getLong());
+        trace.setScanIndexOffset(buf.getInt());
+        trace.setAverageMz(buf.getDouble());
+        trace.setIntensities(getFloats(buf));
+        if (trace instanceof SourceTrace s) {
+            s.setRawScanIndexOffset(buf.getInt());
+            s.setRawIntensities(getFloats(buf));
+        } else if (trace instanceof MergedTrace m) {
+            m.setMz(getDoubles(buf));
+        }
+        return trace;
+    }
+
+    private static FloatList getFloats(ByteBuffer buf) {
+        final int size = buf.getInt();
+        if (size < 0)
+            return null;
+        final float[] values = new float[size];
+        buf.asFloatBuffer().get(values);
+        buf.position(buf.position() + 4 * size);
+        return FloatArrayList.wrap(values);
+    }
+
+    private static DoubleList getDoubles(ByteBuffer buf) {
+        final int size = buf.getInt();
+        if (size < 0)
+            return null;
+        final double[] values = new double[size];
+        buf.asDoubleBuffer().get(values);
+        buf.position(buf.position() + 8 * size);
+        return DoubleArrayList.wrap(values);
+    }
+    //endregion
+}
@@ -0,0 +1,77 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Lesser General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.persistence.storage.trace;
+
+import de.unijena.bioinf.ms.persistence.model.core.trace.AbstractTrace;
+import de.unijena.bioinf.ms.persistence.model.core.trace.MergedTrace;
+import de.unijena.bioinf.ms.persistence.model.core.trace.SourceTrace;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.nio.FloatBuffer;
+import java.util.Optional;
+
+/**
+ * Storage for {@link SourceTrace}s and {@link MergedTrace}s that bypasses the generic document mapping of the
+ * {@link de.unijena.bioinf.storage.db.nosql.Database}. Traces are identified by their sourceTraceId or mergedTraceId.
+ */
+public interface TraceStore extends Closeable {
+
+    /**
+     * Stores the given trace and assigns a new id if it does not have one yet. The trace is readable immediately,
+     * but might only be persisted with the next {@link #flush()}.
+     */
+    void insert(AbstractTrace trace) throws IOException;
+
+    Optional<SourceTrace> getSourceTrace(long sourceTraceId) throws IOException;
+
+    Optional<MergedTrace> getMergedTrace(long mergedTraceId) throws IOException;
+
+    /**
+     * Intensities of the given trace within the scan window [fromScanIndex, toScanIndex), without copying them if possible.
+     * The window is cut to the scans covered by the trace.
+     */
+    Optional<TraceWindow> getIntensities(long traceId, int fromScanIndex, int toScanIndex) throws IOException;
+
+    /**
+     * @return true if the trace was found and removed
+     */
+    boolean remove(long traceId) throws IOException;
+
+    /**
+     * Persists all inserted traces.
+     */
+    void flush() throws IOException;
+
+    @Override
+    default void close() throws IOException {
+        flush();
+    }
+
+    /**
+     * Read only view on the intensities of a trace. The first value belongs to scan index scanIndexOffset.
+     */
+    record TraceWindow(int scanIndexOffset, FloatBuffer intensities) {
+        public int size() {
+            return intensities.remaining();
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package de.unijena.bioinf.ms.persistence.storage.quant;
+
+import de.unijena.bioinf.ChemistryBase.utils.FileUtils;
+import de.unijena.bioinf.ms.persistence.model.core.feature.AlignedFeatures;
+import de.unijena.bioinf.ms.persistence.model.core.feature.Feature;
+import de.unijena.bioinf.ms.persistence.model.core.run.LCMSRun;
+import de.unijena.bioinf.ms.persistence.model.core.statistics.QuantBlock;
+import de.unijena.bioinf.ms.persistence.model.core.statistics.QuantMeasure;
+import de.unijena.bioinf.ms.persistence.storage.SiriusProjectDocumentDatabase;
+import de.unijena.bioinf.ms.persistence.storage.nitrite.NitriteSirirusProject;
+import de.unijena.bioinf.storage.db.nosql.Database;
+import de.unijena.bioinf.storage.db.nosql.Filter;
+import org.junit.jupiter.api.Test;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.Predicate;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class QuantMatrixStoreTest {
+
+    private static final long[] RUN_IDS = {10, 20, 30};
+
+    /**
+     * storage listeners may be notified asynchronously, so changes are only expected to be visible within this time
+     */
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @Test
+    public void testIncrementalUpdates() throws Exception {
+        Path location = FileUtils.createTmpProjectSpaceLocation(SiriusProjectDocumentDatabase.SIRIUS_PROJECT_SUFFIX);
+        try (NitriteSirirusProject ps = new NitriteSirirusProject(location)) {
+            Database<?> storage = ps.getStorage();
+            for (long runId : RUN_IDS)
+                storage.insert(LCMSRun.builder().runId(runId).name("run" + runId).build());
+            for (long id = 1; id <= 25; id++)
+                insertFeature(storage, id);
+
+            // small blocks to test block boundaries
+            QuantMatrixStore store = new QuantMatrixStore(storage, 4);
+            assertMatrixEquals(storage, store.getMatrix().orElseThrow());
+            assertEquals(7, storage.countAll(QuantBlock.class));
+
+            storage.modify(3L * 100 + 20, Feature.class, (Feature f) -> f.setApexIntensity(12345d));
+            ps.cascadeDeleteAlignedFeatures(List.of(5L, 9L, 10L, 11L, 12L));
+            insertFeature(storage, 100);
+
+            // the changes are only seen by the listeners of this store
+            QuantMatrix matrix = awaitMatrix(store, m -> m.getNumberOfRows() == 21 && m.indexOf(100) >= 0
+                    && m.getValue(QuantMeasure.APEX_INTENSITY, m.indexOf(3), 1) == 12345f);
+            assertEquals(-1, matrix.indexOf(5));
+            assertMatrixEquals(storage, matrix);
+            store.close();
+
+            // stored blocks are reused
+            QuantMatrixStore reopened = new QuantMatrixStore(storage, 4);
+            assertMatrixEquals(storage, reopened.getMatrix().orElseThrow());
+
+            // a new run adds a column
+            storage.insert(LCMSRun.builder().runId(5).name("run5").build());
+            matrix = awaitMatrix(reopened, m -> m.getNumberOfColumns() == 4);
+            assertEquals(5, matrix.getRunId(0));
+            assertMatrixEquals(storage, matrix);
+            reopened.close();
+        } finally {
+            Files.deleteIfExists(location);
+        }
+    }
+
+    @Test
+    public void testProjectWritesAreVisibleImmediately() throws Exception {
+        Path location = FileUtils.createTmpProjectSpaceLocation(SiriusProjectDocumentDatabase.SIRIUS_PROJECT_SUFFIX);
+        try (NitriteSirirusProject ps = new NitriteSirirusProject(location)) {
+            Database<?> storage = ps.getStorage();
+            for (long runId : RUN_IDS)
+                storage.insert(LCMSRun.builder().runId(runId).name("run" + runId).build());
+            for (long id = 1; id <= 10; id++)
+                insertFeature(storage, id);
+            QuantMatrixStore store = ps.getQuantMatrixStore();
+            assertMatrixEquals(storage, store.getMatrix().orElseThrow());
+
+            // written by the project, which records the changes without waiting for the listeners
+            ps.cascadeDeleteAlignedFeatures(List.of(2L, 3L));
+            ps.importAlignedFeatures(List.of(AlignedFeatures.builder().alignedFeatureId(50).name("f50")
+                    .features(List.of(Feature.builder().featureId(5010).runId(10L).apexIntensity(7d).areaUnderCurve(8).build()))
+                    .build()));
+            QuantMatrix matrix = store.getMatrix().orElseThrow();
+            assertEquals(9, matrix.getNumberOfRows());
+            assertEquals(-1, matrix.indexOf(2));
+            assertEquals(7f, matrix.getValue(QuantMeasure.APEX_INTENSITY, matrix.indexOf(50), 0));
+            assertMatrixEquals(storage, matrix);
+        } finally {
+            Files.deleteIfExists(location);
+        }
+    }
+
+    @Test
+    public void testUnrecordedChangesAreDetectedOnReopen() throws Exception {
+        Path location = FileUtils.createTmpProjectSpaceLocation(SiriusProjectDocumentDatabase.SIRIUS_PROJECT_SUFFIX);
+        try (NitriteSirirusProject ps = new NitriteSirirusProject(location)) {
+            Database<?> storage = ps.getStorage();
+            for (long runId : RUN_IDS)
+                storage.insert(LCMSRun.builder().runId(runId).name("run" + runId).build());
+            for (long id = 1; id <= 10; id++)
+                insertFeature(storage, id);
+            QuantMatrixStore store = new QuantMatrixStore(storage, 4);
+            assertMatrixEquals(storage, store.getMatrix().orElseThrow());
+            store.close();
+
+            // neither the number of rows nor the runs change, but names and compounds do
+            storage.modify(4L, AlignedFeatures.class, (AlignedFeatures f) -> f.setName("renamed"));
+            storage.modify(7L, AlignedFeatures.class, (AlignedFeatures f) -> f.setCompoundId(1000L));
+            QuantMatrixStore reopened = new QuantMatrixStore(storage, 4);
+            QuantMatrix matrix = reopened.getMatrix().orElseThrow();
+            assertEquals("renamed", matrix.getName(matrix.indexOf(4)));
+            assertMatrixEquals(storage, matrix);
+            reopened.close();
+
+            // a removed and an added feature
+            storage.removeAll(Filter.where("alignedFeatureId").eq(5L), Feature.class);
+            storage.removeByPrimaryKey(5L, AlignedFeatures.class);
+            insertFeature(storage, 11);
+            reopened = new QuantMatrixStore(storage, 4);
+            matrix = reopened.getMatrix().orElseThrow();
+            assertEquals(-1, matrix.indexOf(5));
+            assertMatrixEquals(storage, matrix);
+            reopened.close();
+        } finally {
+            Files.deleteIfExists(location);
+        }
+    }
+
+    @Test
+    public void testNoRuns() throws Exception {
+        Path location = FileUtils.createTmpProjectSpaceLocation(SiriusProjectDocumentDatabase.SIRIUS_PROJECT_SUFFIX);
+        try (NitriteSirirusProject ps = new NitriteSirirusProject(location)) {
+            ps.getStorage().insert(AlignedFeatures.builder().alignedFeatureId(1).name("f1").build());
+            assertTrue(ps.getQuantMatrixStore().getMatrix().isEmpty());
+        } finally {
+            Files.deleteIfExists(location);
+        }
+    }
+
+    private static void insertFeature(Database<?> storage, long id) throws Exception {
+        storage.insert(AlignedFeatures.builder().alignedFeatureId(id).compoundId(id % 3 == 0 ? null : id / 3).name("f" + id).build());
+        for (long runId : RUN_IDS) {
+            if ((id + runId / 10) % 4 == 0)
+                continue;
+            storage.insert(Feature.builder().featureId(id * 100 + runId).alignedFeatureId(id).runId(runId)
+                    .apexIntensity((double) id * runId).areaUnderCurve(id + runId).build());
+        }
+    }
+
+    private static QuantMatrix awaitMatrix(QuantMatrixStore store, Predicate<QuantMatrix> condition) throws Exception {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        QuantMatrix matrix = store.getMatrix().orElseThrow();
+        while (!condition.test(matrix) && System.currentTimeMillis() < deadline) {
+            Thread.sleep(20);
+            matrix = store.getMatrix().orElseThrow();
+        }
+        assertTrue(condition.test(matrix));
+        return matrix;
+    }
+
+    private static void assertMatrixEquals(Database<?> storage, QuantMatrix matrix) throws Exception {
+        assertEquals(storage.countAll(AlignedFeatures.class), matrix.getNumberOfRows());
+        for (AlignedFeatures af : storage.findAll(AlignedFeatures.class)) {
+            final int row = matrix.indexOf(af.getAlignedFeatureId());
+            assertTrue(row >= 0);
+            assertEquals(af.getName(), matrix.getName(row));
+            assertEquals(af.getCompoundId() == null ? -1 : af.getCompoundId(), matrix.getCompoundId(row));
+            for (int c = 0; c < matrix.getNumberOfColumns(); c++) {
+                final long runId = matrix.getRunId(c);
+                Optional<Feature> feature = storage.findStr(Filter.where("alignedFeatureId").eq(af.getAlignedFeatureId()), Feature.class)
+                        .filter(f -> f.getRunId() == runId).findFirst();
+                if (feature.isPresent()) {
+                    assertEquals(feature.get().getApexIntensity().floatValue(), matrix.getValue(QuantMeasure.APEX_INTENSITY, row, c));
+                    assertEquals((float) feature.get().getAreaUnderCurve(), matrix.getValue(QuantMeasure.AREA_UNDER_CURVE, row, c));
+                } else {
+                    assertTrue(Float.isNaN(matrix.getValue(QuantMeasure.APEX_INTENSITY, row, c)));
+                }
+            }
+        }
+    }
+}
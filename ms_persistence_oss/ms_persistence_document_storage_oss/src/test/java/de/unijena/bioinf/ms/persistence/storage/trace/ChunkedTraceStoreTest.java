@@ -0,0 +1,282 @@
+package de.unijena.bioinf.ms.persistence.storage.trace;
+
+import de.unijena.bioinf.ChemistryBase.utils.FileUtils;
+import de.unijena.bioinf.ms.persistence.model.core.trace.MergedTrace;
+import de.unijena.bioinf.ms.persistence.model.core.trace.SourceTrace;
+import de.unijena.bioinf.ms.persistence.model.core.trace.TraceChunk;
+import de.unijena.bioinf.ms.persistence.storage.SiriusProjectDocumentDatabase;
+import de.unijena.bioinf.ms.persistence.storage.nitrite.NitriteSirirusProject;
+import it.unimi.dsi.fastutil.doubles.DoubleArrayList;
+import it.unimi.dsi.fastutil.floats.FloatArrayList;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.params.ParameterizedTest;
+import org.junit.jupiter.params.provider.ValueSource;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ChunkedTraceStoreTest {
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    public void testRoundTrip(boolean compress) throws Exception {
+        Path location = FileUtils.createTmpProjectSpaceLocation(SiriusProjectDocumentDatabase.SIRIUS_PROJECT_SUFFIX);
+        try (NitriteSirirusProject ps = new NitriteSirirusProject(location)) {
+            // small chunks and cache to test chunk boundaries and reloading
+            ChunkedTraceStore store = new ChunkedTraceStore(ps.getStorage(), 512, compress, 2);
+            Random random = new Random(42);
+            List<SourceTrace> sources = new ArrayList<>();
+            List<MergedTrace> merged = new ArrayList<>();
+            for (int i = 0; i < 50; i++) {
+                SourceTrace s = sourceTrace(random);
+                store.insert(s);
+                assertNotEquals(0, s.getSourceTraceId());
+                sources.add(s);
+                MergedTrace m = mergedTrace(random);
+                store.insert(m);
+                merged.add(m);
+            }
+            // pending traces are readable
+            assertSourceTraceEquals(sources.getLast(), store.getSourceTrace(sources.getLast().getSourceTraceId()).orElseThrow());
+            store.flush();
+
+            for (SourceTrace s : sources)
+                assertSourceTraceEquals(s, store.getSourceTrace(s.getSourceTraceId()).orElseThrow());
+            for (MergedTrace m : merged) {
+                assertMergedTraceEquals(m, store.getMergedTrace(m.getMergedTraceId()).orElseThrow());
+                assertTrue(store.getSourceTrace(m.getMergedTraceId()).isEmpty());
+            }
+
+            assertTrue(store.remove(sources.getFirst().getSourceTraceId()));
+            assertTrue(store.getSourceTrace(sources.getFirst().getSourceTraceId()).isEmpty());
+            assertFalse(store.remove(sources.getFirst().getSourceTraceId()));
+        } finally {
+            Files.deleteIfExists(location);
+        }
+    }
+
+    @Test
+    public void testIntensityWindow() throws Exception {
+        Path location = FileUtils.createTmpProjectSpaceLocation(SiriusProjectDocumentDatabase.SIRIUS_PROJECT_SUFFIX);
+        try (NitriteSirirusProject ps = new NitriteSirirusProject(location)) {
+            SourceTrace s = new SourceTrace();
+            s.setScanIndexOffset(10);
+            s.setIntensities(new FloatArrayList(new float[]{1, 2, 3, 4, 5}));
+            ps.getTraceStore().insert(s);
+            ps.getTraceStore().flush();
+
+            TraceStore.TraceWindow window = ps.getTraceIntensities(s.getSourceTraceId(), 12, 100).orElseThrow();
+            assertEquals(12, window.scanIndexOffset());
+            assertEquals(3, window.size());
+            assertEquals(3f, window.intensities().get(0));
+            assertEquals(5f, window.intensities().get(2));
+
+            window = ps.getTraceIntensities(s.getSourceTraceId(), 0, 11).orElseThrow();
+            assertEquals(10, window.scanIndexOffset());
+            assertEquals(1, window.size());
+
+            assertEquals(0, ps.getTraceIntensities(s.getSourceTraceId(), 20, 30).orElseThrow().size());
+            assertTrue(ps.getTraceIntensities(s.getSourceTraceId() + 1, 0, 30).isEmpty());
+        } finally {
+            Files.deleteIfExists(location);
+        }
+    }
+
+    @Test
+    public void testPersistedOnClose() throws Exception {
+        Path location = FileUtils.createTmpProjectSpaceLocation(SiriusProjectDocumentDatabase.SIRIUS_PROJECT_SUFFIX);
+        try {
+            SourceTrace s = sourceTrace(new Random(7));
+            try (NitriteSirirusProject ps = new NitriteSirirusProject(location)) {
+                ps.getTraceStore().insert(s);
+            }
+            try (NitriteSirirusProject ps = new NitriteSirirusProject(location)) {
+                assertSourceTraceEquals(s, ps.getSourceTrace(s.getSourceTraceId()).orElseThrow());
+            }
+        } finally {
+            Files.deleteIfExists(location);
+        }
+    }
+
+    @ParameterizedTest
+    @ValueSource(booleans = {true, false})
+    public void testRoundTripAfterReopen(boolean compress) throws Exception {
+        Path location = FileUtils.createTmpProjectSpaceLocation(SiriusProjectDocumentDatabase.SIRIUS_PROJECT_SUFFIX);
+        try {
+            Random random = new Random(13);
+            List<SourceTrace> sources = new ArrayList<>();
+            List<MergedTrace> merged = new ArrayList<>();
+            try (NitriteSirirusProject ps = new NitriteSirirusProject(location)) {
+                ChunkedTraceStore store = new ChunkedTraceStore(ps.getStorage(), 1024, compress, 2);
+                for (int i = 0; i < 100; i++) {
+                    SourceTrace s = sourceTrace(random);
+                    store.insert(s);
+                    sources.add(s);
+                    MergedTrace m = mergedTrace(random);
+                    store.insert(m);
+                    merged.add(m);
+                }
+                store.close();
+                assertTrue(ps.getStorage().countAll(TraceChunk.class) > 1);
+            }
+            try (NitriteSirirusProject ps = new NitriteSirirusProject(location)) {
+                for (SourceTrace s : sources)
+                    assertSourceTraceEquals(s, ps.getSourceTrace(s.getSourceTraceId()).orElseThrow());
+                for (MergedTrace m : merged)
+                    assertMergedTraceEquals(m, ps.getMergedTrace(m.getMergedTraceId()).orElseThrow());
+            }
+        } finally {
+            Files.deleteIfExists(location);
+        }
+    }
+
+    @Test
+    public void testCompaction() throws Exception {
+        Path location = FileUtils.createTmpProjectSpaceLocation(SiriusProjectDocumentDatabase.SIRIUS_PROJECT_SUFFIX);
+        try (NitriteSirirusProject ps = new NitriteSirirusProject(location)) {
+            Random random = new Random(21);
+            ChunkedTraceStore store = new ChunkedTraceStore(ps.getStorage(), 4096, true, 2);
+            List<SourceTrace> sources = new ArrayList<>();
+            for (int i = 0; i < 200; i++) {
+                SourceTrace s = sourceTrace(random);
+                store.insert(s);
+                sources.add(s);
+            }
+            store.flush();
+            final long chunks = ps.getStorage().countAll(TraceChunk.class);
+            assertTrue(chunks > 2);
+
+            // nothing removed, nothing to compact
+            assertEquals(0, store.compact(ChunkedTraceStore.DEFAULT_MAX_DEAD_RATIO));
+
+            // removing a single trace does not exceed the dead ratio
+            assertTrue(store.remove(sources.removeFirst().getSourceTraceId()));
+            assertEquals(0, store.compact(ChunkedTraceStore.DEFAULT_MAX_DEAD_RATIO));
+            assertEquals(chunks, ps.getStorage().countAll(TraceChunk.class));
+
+            // remove three out of four traces
+            List<SourceTrace> kept = new ArrayList<>();
+            for (int i = 0; i < sources.size(); i++) {
+                if (i % 4 == 0) kept.add(sources.get(i));
+                else assertTrue(store.remove(sources.get(i).getSourceTraceId()));
+            }
+            store.close();
+            assertTrue(ps.getStorage().countAll(TraceChunk.class) < chunks);
+
+            for (SourceTrace s : kept)
+                assertSourceTraceEquals(s, store.getSourceTrace(s.getSourceTraceId()).orElseThrow());
+            for (SourceTrace s : sources)
+                if (!kept.contains(s))
+                    assertTrue(store.getSourceTrace(s.getSourceTraceId()).isEmpty());
+        } finally {
+            Files.deleteIfExists(location);
+        }
+    }
+
+    @Test
+    public void testReadsDuringCompaction() throws Exception {
+        Path location = FileUtils.createTmpProjectSpaceLocation(SiriusProjectDocumentDatabase.SIRIUS_PROJECT_SUFFIX);
+        ExecutorService readers = Executors.newFixedThreadPool(2);
+        try (NitriteSirirusProject ps = new NitriteSirirusProject(location)) {
+            Random random = new Random(34);
+            // a single cached chunk, such that readers load the chunks again and again
+            ChunkedTraceStore store = new ChunkedTraceStore(ps.getStorage(), 2048, true, 1);
+            List<SourceTrace> kept = new ArrayList<>();
+            List<Long> removed = new ArrayList<>();
+            for (int i = 0; i < 400; i++) {
+                SourceTrace s = sourceTrace(random);
+                store.insert(s);
+                if (i % 4 == 0) kept.add(s);
+                else removed.add(s.getSourceTraceId());
+            }
+            store.flush();
+            for (long id : removed)
+                assertTrue(store.remove(id));
+
+            AtomicBoolean compacted = new AtomicBoolean(false);
+            List<Future<Integer>> reads = new ArrayList<>();
+            for (int t = 0; t < 2; t++) {
+                reads.add(readers.submit(() -> {
+                    int count = 0;
+                    do {
+                        for (SourceTrace s : kept) {
+                            assertSourceTraceEquals(s, store.getSourceTrace(s.getSourceTraceId()).orElseThrow());
+                            ++count;
+                        }
+                    } while (!compacted.get());
+                    return count;
+                }));
+            }
+            try {
+                assertTrue(store.compact(ChunkedTraceStore.DEFAULT_MAX_DEAD_RATIO) > 0);
+            } finally {
+                compacted.set(true);
+            }
+            for (Future<Integer> read : reads)
+                assertTrue(read.get() >= kept.size());
+            for (long id : removed)
+                assertTrue(store.getSourceTrace(id).isEmpty());
+        } finally {
+            readers.shutdownNow();
+            Files.deleteIfExists(location);
+        }
+    }
+
+    private static SourceTrace sourceTrace(Random random) {
+        SourceTrace s = new SourceTrace();
+        s.setRunId(random.nextInt(5));
+        s.setScanIndexOffset(random.nextInt(1000));
+        s.setIntensities(randomFloats(random));
+        s.setRawScanIndexOffset(random.nextInt(1000));
+        s.setRawIntensities(randomFloats(random));
+        return s;
+    }
+
+    private static MergedTrace mergedTrace(Random random) {
+        MergedTrace m = new MergedTrace();
+        m.setRunId(random.nextInt(5));
+        m.setScanIndexOffset(random.nextInt(1000));
+        m.setAverageMz(random.nextDouble() * 1000);
+        m.setIntensities(randomFloats(random));
+        DoubleArrayList mz = new DoubleArrayList();
+        for (int i = 0; i < m.getIntensities().size(); i++)
+            mz.add(random.nextDouble() * 1000);
+        m.setMz(mz);
+        return m;
+    }
+
+    private static FloatArrayList randomFloats(Random random) {
+        FloatArrayList values = new FloatArrayList();
+        int size = random.nextInt(100);
+        for (int i = 0; i < size; i++)
+            values.add(random.nextFloat() * 1e5f);
+        return values;
+    }
+
+    private static void assertSourceTraceEquals(SourceTrace expected, SourceTrace actual) {
+        assertEquals(expected.getSourceTraceId(), actual.getSourceTraceId());
+        assertEquals(expected.getRunId(), actual.getRunId());
+        assertEquals(expected.getScanIndexOffset(), actual.getScanIndexOffset());
+        assertEquals(expected.getIntensities(), actual.getIntensities());
+        assertEquals(expected.getRawScanIndexOffset(), actual.getRawScanIndexOffset());
+        assertEquals(expected.getRawIntensities(), actual.getRawIntensities());
+    }
+
+    private static void assertMergedTraceEquals(MergedTrace expected, MergedTrace actual) {
+        assertEquals(expected.getMergedTraceId(), actual.getMergedTraceId());
+        assertEquals(expected.getRunId(), actual.getRunId());
+        assertEquals(expected.getScanIndexOffset(), actual.getScanIndexOffset());
+        assertEquals(expected.getAverageMz(), actual.getAverageMz());
+        assertEquals(expected.getIntensities(), actual.getIntensities());
+        assertEquals(expected.getMz(), actual.getMz());
+    }
+}
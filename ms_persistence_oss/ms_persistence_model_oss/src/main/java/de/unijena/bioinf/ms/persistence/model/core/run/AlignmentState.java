@@ -0,0 +1,76 @@
+package de.unijena.bioinf.ms.persistence.model.core.run;
+
+import jakarta.persistence.Id;
+import lombok.*;
+import lombok.experimental.SuperBuilder;
+
+import java.util.List;
+
+/**
+ * State of the alignment of a merged run that is needed to align further runs into it later on. Spectra, traces
+ * and alignments of the runs are not part of the project; they are kept in LC-MS storage files, this document only
+ * references them by their file names.
+ */
+@Getter
+@Setter
+@SuperBuilder
+@AllArgsConstructor
+@NoArgsConstructor
+public class AlignmentState {
+
+    /**
+     * ID of the merged run
+     */
+    @Id
+    private long runId;
+
+    private int mergedSampleIdx;
+    private String mergedStorage;
+
+    private List<AlignedSample> samples;
+
+    /**
+     * alignment statistics, the expected mass deviation is stored as ppm and absolute value
+     */
+    private double expectedMassDeviationPpm, expectedMassDeviationAbs;
+    private double expectedRetentionTimeDeviation;
+    private double minRt, maxRt, minMz, maxMz;
+    private float averageNumberOfAlignments, medianNumberOfAlignments, numberOfAlignments25Quantile;
+
+    /**
+     * traces and features that were imported for each merged trace, such that they can be updated when new runs are
+     * aligned into the merged trace
+     */
+    private List<ImportedMergedTrace> importedMergedTraces;
+
+    @Getter
+    @Setter
+    @SuperBuilder
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class AlignedSample {
+        private long runId;
+        private int sampleIdx;
+        private int polarity;
+        private String storage;
+        private double normalizationFactor;
+        /**
+         * encoded recalibration functions, in contrast to {@link RetentionTimeAxis} we store the functions itself,
+         * because the m/z recalibration cannot be derived from the scan points
+         */
+        private double[] rtRecalibration, mzRecalibration;
+    }
+
+    @Getter
+    @Setter
+    @SuperBuilder
+    @AllArgsConstructor
+    @NoArgsConstructor
+    public static class ImportedMergedTrace {
+        private int mergedTraceIdx;
+        private long[] mergedTraceIds, sourceTraceIds;
+        private long[] alignedFeatureIds;
+        private double[] startTimes, middleTimes, endTimes;
+    }
+
+}
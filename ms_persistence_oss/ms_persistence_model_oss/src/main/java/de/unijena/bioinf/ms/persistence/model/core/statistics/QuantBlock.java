@@ -0,0 +1,57 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.persistence.model.core.statistics;
+
+import jakarta.persistence.Id;
+import lombok.*;
+
+/**
+ * A block of consecutive rows of the materialized quantification matrix (one row per aligned feature, one column per
+ * LC/MS run). Values are stored column-major as binary floats, the value of row r in column c is at float index
+ * c * rows + r. Missing values are NaN.
+ */
+@Getter
+@Setter
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class QuantBlock {
+    @Id
+    private long blockId;
+
+    /**
+     * column ids, the same for all blocks
+     */
+    private long[] runIds;
+
+    private long[] alignedFeatureIds;
+
+    /**
+     * compound id per row or -1 if the feature does not belong to a compound
+     */
+    private long[] compoundIds;
+
+    private String[] names;
+
+    private byte[] apexIntensities;
+
+    private byte[] areasUnderCurve;
+}
@@ -0,0 +1,50 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.persistence.model.core.trace;
+
+import jakarta.persistence.Id;
+import lombok.*;
+
+/**
+ * A segment of binary encoded traces written by the trace store. Many traces are packed into one chunk,
+ * their positions are stored as {@link TraceLocation}s.
+ */
+@Getter
+@Setter
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class TraceChunk {
+    @Id
+    private long chunkId;
+
+    /**
+     * true if data is deflate compressed
+     */
+    private boolean compressed;
+
+    /**
+     * size of the chunk in bytes after decompression
+     */
+    private int size;
+
+    private byte[] data;
+}
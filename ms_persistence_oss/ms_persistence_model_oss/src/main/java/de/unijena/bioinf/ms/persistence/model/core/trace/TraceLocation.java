@@ -0,0 +1,51 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.persistence.model.core.trace;
+
+import jakarta.persistence.Id;
+import lombok.*;
+
+/**
+ * Position of a binary encoded {@link SourceTrace} or {@link MergedTrace} within a {@link TraceChunk}.
+ */
+@Getter
+@Setter
+@Builder
+@AllArgsConstructor
+@NoArgsConstructor
+public class TraceLocation {
+    /**
+     * sourceTraceId or mergedTraceId of the stored trace
+     */
+    @Id
+    private long traceId;
+
+    private boolean merged;
+
+    private long chunkId;
+
+    /**
+     * start of the encoded trace within the uncompressed chunk
+     */
+    private int offset;
+
+    private int length;
+}
@@ -42,7 +42,9 @@ public enum Solver {
   
   GLPK("GLPK"),
   
-  CLP("CLP");
+  CLP("CLP"),
+  
+  JAVA("JAVA");
 
   private String value;
 
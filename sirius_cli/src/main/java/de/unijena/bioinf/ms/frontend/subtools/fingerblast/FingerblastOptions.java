@@ -19,6 +19,7 @@
 
 package de.unijena.bioinf.ms.frontend.subtools.fingerblast;
 
+import de.unijena.bioinf.fingerid.CandidateRegistry;
 import de.unijena.bioinf.ms.frontend.DefaultParameter;
 import de.unijena.bioinf.ms.frontend.completion.DataSourceCandidates;
 import de.unijena.bioinf.ms.frontend.subtools.InstanceJob;
@@ -75,8 +76,10 @@ public class FingerblastOptions implements ToolChainOptions<FingerblastSubToolJo
 
     @Override
     public InstanceJob.Factory<FingerblastSubToolJob> call() throws Exception {
+        // candidates of a formula are shared between all features of this run
+        final CandidateRegistry candidateRegistry = new CandidateRegistry();
         return new InstanceJob.Factory<>(
-                FingerblastSubToolJob::new,
+                sub -> new FingerblastSubToolJob(sub, candidateRegistry),
                 getInvalidator()
         );
     }
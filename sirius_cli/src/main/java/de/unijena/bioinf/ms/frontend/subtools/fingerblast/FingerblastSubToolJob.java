@@ -29,6 +29,7 @@ import de.unijena.bioinf.canopus.CanopusResult;
 import de.unijena.bioinf.chemdb.DBLink;
 import de.unijena.bioinf.chemdb.FingerprintCandidate;
 import de.unijena.bioinf.fingerid.CSIPredictor;
+import de.unijena.bioinf.fingerid.CandidateRegistry;
 import de.unijena.bioinf.fingerid.FingerIdResult;
 import de.unijena.bioinf.fingerid.FingerblastJJob;
 import de.unijena.bioinf.fingerid.FingerprintResult;
@@ -45,6 +46,7 @@ import de.unijena.bioinf.projectspace.Instance;
 import de.unijena.bioinf.rest.NetUtils;
 import org.apache.commons.math3.util.Pair;
 import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
 import org.openscience.cdk.exception.InvalidSmilesException;
 import org.openscience.cdk.interfaces.IAtomContainer;
 import org.openscience.cdk.silent.SilentChemObjectBuilder;
@@ -61,8 +63,16 @@ import java.util.stream.Collectors;
  */
 public class FingerblastSubToolJob extends InstanceJob {
 
+    @Nullable
+    private final CandidateRegistry candidateRegistry;
+
     public FingerblastSubToolJob(JobSubmitter submitter) {
+        this(submitter, null);
+    }
+
+    public FingerblastSubToolJob(JobSubmitter submitter, @Nullable CandidateRegistry candidateRegistry) {
         super(submitter);
+        this.candidateRegistry = candidateRegistry;
         asSCHEDULER();
     }
 
@@ -110,6 +120,7 @@ public class FingerblastSubToolJob extends InstanceJob {
         {
             final FingerblastJJob job = new FingerblastJJob(csi, ApplicationCore.WEB_API(), inst.getExperiment(),
                     inputData.stream().map(fc -> fc.getAnnotationOrThrow(FingerIdResult.class)).toList());
+            job.setCandidateRegistry(candidateRegistry);
 
             checkForInterruption();
             // do computation and await results -> objects are already in formulaResultsMap
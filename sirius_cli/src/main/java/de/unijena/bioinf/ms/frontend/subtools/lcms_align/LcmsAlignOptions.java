@@ -49,6 +49,12 @@ public class LcmsAlignOptions implements PreprocessingTool<PreprocessingJob<? ex
     @CommandLine.Option(names={"--in-memory"}, description = "Keep the merged traces and alignments in memory. This might speed up the preprocessing, but increases the RAM requirement by a significant amount..", hidden = true)
     public boolean inMemory;
 
+    @CommandLine.Option(names={"--mapped-storage"}, description = "Store spectra and traces of the LC/MS runs in memory-mapped files instead of MVStore databases. This speeds up trace picking, merging and feature extraction, but the files are not compressed and need more disc space.", hidden = true)
+    public boolean mappedStorage;
+
+    @CommandLine.Option(names={"--incremental"}, description = "Keep the alignment, such that further LC/MS runs can be aligned into the merged run of this project later on. The traces and spectra of the runs are kept in a '.lcms' directory next to the project. If the project already contains such an alignment, the given runs are aligned into it instead of being aligned from scratch.", hidden = true)
+    public boolean incremental;
+
     @Override
     public PreprocessingJob<ProjectSpaceManager> makePreprocessingJob(@NotNull RootOptions<?> rootOptions, @NotNull ProjectSpaceManagerFactory<?> projectFactory, @Nullable ParameterConfig config) {
        if (projectFactory instanceof NitriteProjectSpaceManagerFactory psmf)
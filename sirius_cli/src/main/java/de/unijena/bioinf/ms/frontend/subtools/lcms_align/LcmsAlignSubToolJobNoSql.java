@@ -37,6 +37,7 @@ import de.unijena.bioinf.lcms.align.MoI;
 import de.unijena.bioinf.lcms.projectspace.SiriusProjectDocumentDbAdapter;
 import de.unijena.bioinf.lcms.quality.*;
 import de.unijena.bioinf.lcms.statistics.UserSpecifiedThresholds;
+import de.unijena.bioinf.lcms.trace.LCMSStorage;
 import de.unijena.bioinf.lcms.trace.ProcessedSample;
 import de.unijena.bioinf.lcms.trace.filter.GaussFilter;
 import de.unijena.bioinf.lcms.trace.filter.NoFilter;
@@ -53,6 +54,8 @@ import de.unijena.bioinf.ms.persistence.model.core.QualityReport;
 import de.unijena.bioinf.ms.persistence.model.core.feature.AbstractFeature;
 import de.unijena.bioinf.ms.persistence.model.core.feature.AlignedFeatures;
 import de.unijena.bioinf.ms.persistence.model.core.feature.CorrelatedIonPair;
+import de.unijena.bioinf.ms.persistence.model.core.run.AlignmentState;
+import de.unijena.bioinf.ms.persistence.model.core.run.Chromatography;
 import de.unijena.bioinf.ms.persistence.model.core.run.MergedLCMSRun;
 import de.unijena.bioinf.ms.persistence.model.core.run.RetentionTimeAxis;
 import de.unijena.bioinf.ms.persistence.model.core.spectrum.MSData;
@@ -79,6 +82,7 @@ import java.io.File;
 import java.io.IOException;
 import java.nio.file.Path;
 import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
 public class LcmsAlignSubToolJobNoSql extends PreprocessingJob<ProjectSpaceManager> {
@@ -95,6 +99,10 @@ public class LcmsAlignSubToolJobNoSql extends PreprocessingJob<ProjectSpaceManag
 
     private boolean inMemoryOnMerged = false;
 
+    private boolean mappedStorage = false;
+
+    private boolean incremental = false;
+
     @Getter
     @Nullable
     private LongLinkedOpenHashSet importedFeatureIds = null;
@@ -131,6 +139,8 @@ public class LcmsAlignSubToolJobNoSql extends PreprocessingJob<ProjectSpaceManag
         if (options.ppmMax!=null) this.userSpecifiedThresholds.setAllowedMassDeviationInMs1(new Deviation(options.ppmMax));
 
         this.inMemoryOnMerged = options.inMemory;
+        this.mappedStorage = options.mappedStorage;
+        this.incremental = options.incremental && this.alignRuns;
 
         this.filter = switch (options.smoothing) {
             case AUTO -> inputFiles.size() < 3 ? new GaussFilter(0.5) : new NoFilter();
@@ -204,10 +214,26 @@ public class LcmsAlignSubToolJobNoSql extends PreprocessingJob<ProjectSpaceManag
     private void compute(SiriusProjectDatabaseImpl<? extends Database<?>> ps, List<Path> files) throws IOException {
         StopWatch stopWatch = new StopWatch();
         stopWatch.start();
-        setProjectTypeOrThrow(ps);
+        // alignment of a previous incremental import the given runs are aligned into
+        final Optional<AlignmentState> previousAlignment = incremental
+                ? ps.getStorage().findAllStr(AlignmentState.class).max(Comparator.comparingLong(AlignmentState::getRunId))
+                : Optional.empty();
+        if (previousAlignment.isEmpty()) setProjectTypeOrThrow(ps);
         setProjectSourceFormats(ps);
 
-        LCMSProcessing processing = new LCMSProcessing(new SiriusProjectDocumentDbAdapter(ps), saveImportedCompounds, ps.getStorage().location().getParent(), inMemoryOnMerged);
+        final Path location = ps.getStorage().location();
+        final Path tmpDir = location.getParent();
+        final LCMSProcessing processing;
+        if (incremental) {
+            // the storages of the runs are needed for aligning further runs, so they are kept next to the project
+            processing = new LCMSProcessing(new SiriusProjectDocumentDbAdapter(ps), saveImportedCompounds,
+                    LCMSStorage.directoryStorage(location.resolveSibling(location.getFileName() + ".lcms").toFile()));
+            processing.setIncremental(true);
+        } else {
+            processing = mappedStorage
+                    ? new LCMSProcessing(new SiriusProjectDocumentDbAdapter(ps), saveImportedCompounds, LCMSStorage.mappedStorage(tmpDir == null ? null : tmpDir.toFile()))
+                    : new LCMSProcessing(new SiriusProjectDocumentDbAdapter(ps), saveImportedCompounds, tmpDir, inMemoryOnMerged);
+        }
         processing.setMergedTraceSegmentationStrategy(mergedTraceSegmenter);
         // the segmentationStrategy is used for picking the mass traces and corresponding peaks
         // the mergedSegmentationStrategy is then used at the final feature detection step
@@ -222,61 +248,57 @@ public class LcmsAlignSubToolJobNoSql extends PreprocessingJob<ProjectSpaceManag
         } else this.tracker = new Tracker.NOOP();
 
         try {
+            if (previousAlignment.isPresent()) processing.restoreAlignment(previousAlignment.get().getRunId());
             {
                 updateProgress(totalProgress, progress, "Processing Runs");
-                List<BasicJJob<ProcessedSample>> jobs = new ArrayList<>();
-                int atmost = Integer.MAX_VALUE;
-                for (Path f : files) {
-                    if (--atmost < 0) break;
-                    jobs.add(SiriusJobs.getGlobalJobManager().submitJob(new BasicJJob<ProcessedSample>() {
-                        @Override
-                        protected ProcessedSample compute() throws Exception {
-                            ProcessedSample sample;
-                            try {
-                                sample = processing.processSample(f);
-                            } catch (IOException e) {
-                                e.printStackTrace();
-                                LoggerFactory.getLogger(LCMSProcessing.class).warn("Ignore input file " + f);
-                                return null;
-                            }
-                            int hasIsotopes = 0, hasNoIsotopes = 0;
-                            for (MoI m : sample.getStorage().getAlignmentStorage()) {
-                                if (m.hasIsotopes()) ++hasIsotopes;
-                                else ++hasNoIsotopes;
-                            }
-                            sample.inactive();
-                            System.out.println(sample.getUid() + " with " + hasIsotopes + " / " + (hasIsotopes + hasNoIsotopes) + " isotope features");
-                            return sample;
-                        }
-                    }));
-                }
-
-                int count = 0;
-                for (BasicJJob<ProcessedSample> job : jobs) {
-                    ProcessedSample processedSample = job.takeResult();
-                    if (processedSample==null) continue;
-                    System.out.println(processedSample.getUid() + " (" + ++count + " / " + jobs.size() + ")");
-                    updateProgress(totalProgress, ++progress, "Processing Runs");
-                }
+                final AtomicInteger count = new AtomicInteger();
+                processing.processSamples(files, false, Chromatography.LC, (f, sample) -> {
+                    int hasIsotopes = 0, hasNoIsotopes = 0;
+                    for (MoI m : sample.getStorage().getAlignmentStorage()) {
+                        if (m.hasIsotopes()) ++hasIsotopes;
+                        else ++hasNoIsotopes;
+                    }
+                    System.out.println(sample.getUid() + " with " + hasIsotopes + " / " + (hasIsotopes + hasNoIsotopes) + " isotope features");
+                    synchronized (this) {
+                        System.out.println(sample.getUid() + " (" + count.incrementAndGet() + " / " + files.size() + ")");
+                        updateProgress(totalProgress, ++progress, "Processing Runs");
+                    }
+                });
             }
 
-            updateProgress(totalProgress, progress, "Aligning runs");
-            AlignmentBackbone bac = processing.align();
+            final AlignmentBackbone bac;
+            final ProcessedSample merged;
             HashMap<DataQuality, Integer> countMap, countMapMs2;
-
-            updateProgress(totalProgress, ++progress, "Merging runs");
-            ProcessedSample merged = processing.merge(bac);
-            /*
-            DoubleArrayList avgAl = new DoubleArrayList();
-            System.out.println("AVERAGE = " + avgAl.doubleStream().sum() / avgAl.size());
-            System.out.println("Good Traces = " + avgAl.doubleStream().filter(x -> x >= 5).sum());
-            */
-            updateProgress(totalProgress, ++progress, "Importing features");
-            if (processing.extractFeaturesAndExportToProjectSpace(merged, bac) == 0) {
-                System.err.println("No features found.");
+            if (previousAlignment.isPresent()) {
+                updateProgress(totalProgress, progress, "Aligning runs");
                 progress += 2;
-                updateProgress(totalProgress, progress, "No features");
-                return;
+                updateProgress(totalProgress, progress, "Importing features");
+                if (processing.alignIncrementally() == 0) {
+                    System.err.println("No features found.");
+                    progress += 2;
+                    updateProgress(totalProgress, progress, "No features");
+                    return;
+                }
+                bac = processing.getAlignmentBackbone();
+                merged = processing.getMerged();
+            } else {
+                updateProgress(totalProgress, progress, "Aligning runs");
+                bac = processing.align();
+
+                updateProgress(totalProgress, ++progress, "Merging runs");
+                merged = processing.merge(bac);
+                /*
+                DoubleArrayList avgAl = new DoubleArrayList();
+                System.out.println("AVERAGE = " + avgAl.doubleStream().sum() / avgAl.size());
+                System.out.println("Good Traces = " + avgAl.doubleStream().filter(x -> x >= 5).sum());
+                */
+                updateProgress(totalProgress, ++progress, "Importing features");
+                if (processing.extractFeaturesAndExportToProjectSpace(merged, bac) == 0) {
+                    System.err.println("No features found.");
+                    progress += 2;
+                    updateProgress(totalProgress, progress, "No features");
+                    return;
+                }
             }
             importedFeatureIds.addAll(processing.getImportedFeatureIds());
 
@@ -311,7 +333,11 @@ public class LcmsAlignSubToolJobNoSql extends PreprocessingJob<ProjectSpaceManag
             // Multimere in die AductSettings reinpacken, das zu debuggen wird die Hoelle. Machen wir ein andern Mal.
             ProjectSpaceTraceProvider provider = new ProjectSpaceTraceProvider(ps);
             {
-                AlignedFeatures[] alignedFeatures = ps.getStorage().findAllStr(AlignedFeatures.class)
+                // features that were updated by an incremental alignment keep their compounds, so only the new ones
+                // are grouped into compounds
+                AlignedFeatures[] alignedFeatures = (previousAlignment.isPresent()
+                        ? ps.getStorage().findStr(Filter.where("runId").eq(merged.getRun().getRunId()), AlignedFeatures.class).filter(f -> f.getCompoundId() == null)
+                        : ps.getStorage().findAllStr(AlignedFeatures.class))
                         .filter(f -> f.getApexIntensity() != null)
                         .filter(AbstractFeature::isRTInterval)
                         .toArray(AlignedFeatures[]::new);
@@ -367,7 +393,8 @@ public class LcmsAlignSubToolJobNoSql extends PreprocessingJob<ProjectSpaceManag
                             qa.addToReport(report, (MergedLCMSRun) merged.getRun(), feature, provider);
                             report.setAlignedFeatureId(feature.getAlignedFeatureId());
                             feature.setDataQuality(report.getOverallQuality());
-                            ps.getStorage().insert(report);
+                            // features updated by an incremental alignment already have a report
+                            ps.getStorage().upsert(report);
                             ps.getStorage().upsert(feature);
                         } catch (IOException e) {
                             throw new RuntimeException(e);
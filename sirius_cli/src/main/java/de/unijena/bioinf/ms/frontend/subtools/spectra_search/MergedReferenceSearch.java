@@ -0,0 +1,221 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.spectra_search;
+
+import de.unijena.bioinf.ChemistryBase.ms.Deviation;
+import de.unijena.bioinf.ChemistryBase.ms.MutableMs2Experiment;
+import de.unijena.bioinf.spectraldb.*;
+import de.unijena.bioinf.spectraldb.entities.MergedReferenceSpectrum;
+import de.unijena.bionf.fastcosine.SearchPreparedSpectrum;
+import org.jetbrains.annotations.Nullable;
+
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static de.unijena.bioinf.spectraldb.SpectralLibrary.FAST_COSINE;
+
+/**
+ * Search of the MS/MS spectra of a feature against merged reference spectra, shared by the per feature
+ * {@link SpectraSearchSubtoolJob} and the dataset level {@link SpectraSearchDataSetJob}. References within the identity
+ * window of a feature are identity candidates, references outside of the analogue window are analogue candidates.
+ */
+final class MergedReferenceSearch {
+
+    private static final double WINDOW_MARGIN = 1e-6;
+
+    private MergedReferenceSearch() {
+    }
+
+    /**
+     * The spectra, settings and hit queues of one feature. Settings are copies, because their similarity threshold
+     * is raised as soon as the hit queue is full.
+     */
+    static class Query {
+        final MutableMs2Experiment exp;
+        final double precursorMz, lowerBound, upperBound;
+        final List<SearchPreparedSpectrum> queries;
+        final SearchPreparedSpectrum mergedQuery;
+        final SpectralLibrarySearchSettings identitySettings, analogueSettings;
+        final boolean analogueEnabled;
+        final PriorityQueue<LibraryHit> identityHits = new PriorityQueue<>();
+        final PriorityQueue<LibraryHit> analogHits = new PriorityQueue<>();
+
+        Query(MutableMs2Experiment exp) {
+            this.exp = exp;
+            this.precursorMz = exp.getIonMass();
+            this.identitySettings = exp.getAnnotationOrDefault(IdentitySearchSettings.class).clone();
+            this.analogueSettings = exp.getAnnotationOrDefault(AnalogueSearchSettings.class).clone();
+            this.analogueEnabled = exp.getAnnotationOrDefault(AnalogueSearchSettings.class).enabled;
+            final Deviation dev = identitySettings.getPrecursorDeviation();
+            this.lowerBound = precursorMz - dev.absoluteFor(precursorMz);
+            this.upperBound = precursorMz + dev.absoluteFor(precursorMz);
+            this.queries = exp.getMs2Spectra().stream().map(x -> FAST_COSINE.prepareQuery(precursorMz, x)).toList();
+            this.mergedQuery = FAST_COSINE.prepareQuery(precursorMz, exp.getMergedMs2Spectrum());
+        }
+
+        boolean isIdentityCandidate(double referenceMass) {
+            return identitySettings.getPrecursorDeviation().inErrorWindow(precursorMz, referenceMass);
+        }
+
+        boolean isAnalogueCandidate(double referenceMass) {
+            return analogueEnabled && !isIdentityCandidate(referenceMass)
+                    && !analogueSettings.getPrecursorDeviation().inErrorWindow(precursorMz, referenceMass);
+        }
+
+        /**
+         * @return ranked hits or null if there are no hits at all
+         */
+        @Nullable
+        List<SpectralSearchResult.SearchResult> rankedHits() {
+            return rankHits(identityHits, analogHits);
+        }
+    }
+
+    /**
+     * Searches the query against the given references of one library.
+     */
+    static void search(Query q, SpectralLibrary db, List<MergedReferenceSpectrum> references) throws IOException {
+        // references are passed to the library as a whole, such that upper bounds can be computed in one batch
+        final List<MergedReferenceSpectrum> identityRefs = new ArrayList<>();
+        final List<MergedReferenceSpectrum> analogRefs = new ArrayList<>();
+        for (MergedReferenceSpectrum mergedRefSpec : references) {
+            if (q.isIdentityCandidate(mergedRefSpec.getExactMass()))
+                identityRefs.add(mergedRefSpec);
+            else if (!q.analogueSettings.getPrecursorDeviation().inErrorWindow(q.precursorMz, mergedRefSpec.getExactMass()))
+                analogRefs.add(mergedRefSpec);
+        }
+        if (!identityRefs.isEmpty())
+            addHitsAndUpdateBounds(q.identityHits, db.queryAgainstLibraryByMergedReference(identityRefs, q.identitySettings, q.queries, q.mergedQuery).toList(), q.identitySettings);
+        if (!analogRefs.isEmpty())
+            addHitsAndUpdateBounds(q.analogHits, db.queryAgainstLibraryByMergedReference(analogRefs, q.analogueSettings, q.queries, q.mergedQuery).toList(), q.analogueSettings);
+    }
+
+    /**
+     * The merged references of one library sorted by mass. All references are only prepared if they are searched
+     * for analogues.
+     */
+    static final class LibraryReferences {
+        final SpectralLibrary db;
+        final List<MergedReferenceSpectrum> references;
+        final double[] masses;
+        @Nullable
+        final PreparedMergedReferences all;
+
+        LibraryReferences(SpectralLibrary db, Collection<MergedReferenceSpectrum> references, boolean prepareAll) {
+            this.db = db;
+            this.references = references.stream().sorted(Comparator.comparingDouble(MergedReferenceSpectrum::getExactMass)).toList();
+            this.masses = this.references.stream().mapToDouble(MergedReferenceSpectrum::getExactMass).toArray();
+            this.all = prepareAll ? PreparedMergedReferences.of(this.references) : null;
+        }
+
+        /**
+         * @return the references that are within the identity window of any query of the block, prepared once for
+         * all queries of the block
+         */
+        BlockReferences forBlock(List<Query> block) {
+            double lower = Double.POSITIVE_INFINITY, upper = Double.NEGATIVE_INFINITY;
+            for (Query q : block) {
+                lower = Math.min(lower, q.lowerBound);
+                upper = Math.max(upper, q.upperBound);
+            }
+            // the margin only adds references, which are rejected by the exact window test of each query
+            final int from = firstIndex(masses, lower - WINDOW_MARGIN), to = firstIndex(masses, upper + WINDOW_MARGIN);
+            return new BlockReferences(this, from, PreparedMergedReferences.of(references.subList(from, to)));
+        }
+    }
+
+    /**
+     * @param offset     index of the first identity reference within the library references
+     * @param identities references within the identity windows of the block
+     */
+    record BlockReferences(LibraryReferences library, int offset, PreparedMergedReferences identities) {
+    }
+
+    /**
+     * Searches the query against the references of one library that were prepared for its block. Yields the same
+     * hits as {@link #search(Query, SpectralLibrary, List)} with the references of the library sorted by mass.
+     */
+    static void search(Query q, BlockReferences refs) throws IOException {
+        final LibraryReferences library = refs.library();
+        final List<LibraryHit> identityHits = library.db.queryAgainstLibraryByMergedReference(refs.identities(),
+                k -> q.isIdentityCandidate(library.masses[refs.offset() + k]), q.identitySettings, q.queries, q.mergedQuery).toList();
+        addHitsAndUpdateBounds(q.identityHits, identityHits, q.identitySettings);
+        if (q.analogueEnabled && library.all != null) {
+            final List<LibraryHit> analogHits = library.db.queryAgainstLibraryByMergedReference(library.all,
+                    k -> q.isAnalogueCandidate(library.masses[k]), q.analogueSettings, q.queries, q.mergedQuery).toList();
+            addHitsAndUpdateBounds(q.analogHits, analogHits, q.analogueSettings);
+        }
+    }
+
+    /**
+     * @return index of the first mass that is not smaller than the given one
+     */
+    static int firstIndex(double[] masses, double mass) {
+        int lo = 0, hi = masses.length;
+        while (lo < hi) {
+            final int mid = (lo + hi) >>> 1;
+            if (masses[mid] < mass) lo = mid + 1;
+            else hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Ranks identity and analogue hits separately by descending similarity.
+     *
+     * @return ranked hits or null if there are no hits at all
+     */
+    @Nullable
+    static List<SpectralSearchResult.SearchResult> rankHits(PriorityQueue<LibraryHit> identityHits, PriorityQueue<LibraryHit> analogHits) {
+        if (identityHits.isEmpty() && analogHits.isEmpty())
+            return null;
+
+        List<SpectralSearchResult.SearchResult> rankedHits = new ArrayList<>(identityHits.size() + analogHits.size());
+
+        AtomicInteger rank = new AtomicInteger(0);
+        identityHits.stream().sorted(Comparator.reverseOrder()).forEach(hit -> rankedHits.add(new SpectralSearchResult.SearchResult(hit, rank.incrementAndGet())));
+        rank.set(0);
+        analogHits.stream().sorted(Comparator.reverseOrder()).forEach(hit -> rankedHits.add(new SpectralSearchResult.SearchResult(hit, rank.incrementAndGet())));
+
+        return rankedHits;
+    }
+
+    static void addHitsAndUpdateBounds(PriorityQueue<LibraryHit> allHits, List<LibraryHit> nuHits, SpectralLibrarySearchSettings settings) {
+        for (LibraryHit hit : nuHits) {
+            if (allHits.size() < settings.getMaxNumOfHits()) {
+                allHits.add(hit);
+                // increase bound
+                if (allHits.size() == settings.getMaxNumOfHits()) {
+                    settings.setMinSimilarity(
+                            Math.max(settings.getMinSimilarity(), allHits.peek().getSimilarity().similarity));
+                }
+            } else {
+                if (hit.compareTo(allHits.peek()) > 0){
+                    allHits.poll();
+                    allHits.add(hit);
+                    //increase bound
+                    settings.setMinSimilarity(
+                            Math.max(settings.getMinSimilarity(), allHits.peek().getSimilarity().similarity));
+                }
+            }
+        }
+    }
+}
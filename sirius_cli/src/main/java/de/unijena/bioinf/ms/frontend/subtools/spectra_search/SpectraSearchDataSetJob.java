@@ -0,0 +1,175 @@
+/*
+ *  This file is part of the SIRIUS Software for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman, Fleming Kretschmer, Marvin Meusel and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schiller University.
+ *
+ *  This program is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Affero General Public License
+ *  as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This program is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Affero General Public License for more details.
+ *
+ *  You should have received a copy of the GNU Affero General Public License along with SIRIUS.  If not, see <https://www.gnu.org/licenses/agpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.frontend.subtools.spectra_search;
+
+import de.unijena.bioinf.ChemistryBase.jobs.SiriusJobs;
+import de.unijena.bioinf.ChemistryBase.ms.MutableMs2Experiment;
+import de.unijena.bioinf.ChemistryBase.ms.inputValidators.Warning;
+import de.unijena.bioinf.chemdb.custom.CustomDataSources;
+import de.unijena.bioinf.jjobs.BasicJJob;
+import de.unijena.bioinf.jjobs.JJob;
+import de.unijena.bioinf.jjobs.JobSubmitter;
+import de.unijena.bioinf.jjobs.Partition;
+import de.unijena.bioinf.ms.frontend.subtools.DataSetJob;
+import de.unijena.bioinf.ms.frontend.utils.PicoUtils;
+import de.unijena.bioinf.projectspace.Instance;
+import de.unijena.bioinf.sirius.validation.Ms2Validator;
+import de.unijena.bioinf.spectraldb.SpectralLibrary;
+import de.unijena.bioinf.spectraldb.SpectralSearchResult;
+import de.unijena.bioinf.spectraldb.entities.MergedReferenceSpectrum;
+import org.jetbrains.annotations.NotNull;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.util.*;
+import java.util.stream.Collectors;
+
+/**
+ * Dataset level variant of {@link SpectraSearchSubtoolJob}. Instead of searching the library once per feature,
+ * all queries and all merged reference spectra of the selected databases are loaded once and sorted by precursor mass.
+ * Results of all features are written in bulk at the end.
+ * <p>
+ * Queries are partitioned into blocks of consecutive precursor masses that are searched in parallel. The references
+ * within the identity windows of a block are prepared once per block and all references are prepared once for the
+ * analogue search, such that the upper bounds of a query against these references are computed in one batch.
+ * Each block owns the hit queues of its queries, so no synchronization is needed.
+ */
+public class SpectraSearchDataSetJob extends DataSetJob {
+
+    private final Logger logger = LoggerFactory.getLogger(this.getClass());
+    private final SpectraCache cache;
+
+    public SpectraSearchDataSetJob(JobSubmitter jobSubmitter, @NotNull SpectraCache cache) {
+        super(jobSubmitter);
+        this.cache = cache;
+    }
+
+    @Override
+    protected boolean isInstanceValid(Instance instance) {
+        return instance.hasMsMs();
+    }
+
+    @Override
+    public boolean isAlreadyComputed(@NotNull Instance inst) {
+        return inst.hasSpectraSearchResult();
+    }
+
+    @Override
+    protected void computeAndAnnotateResult(@NotNull List<Instance> instances) throws Exception {
+        final List<Feature> positive = new ArrayList<>();
+        final List<Feature> negative = new ArrayList<>();
+        for (Instance instance : instances) {
+            checkForInterruption();
+            final Feature f = Feature.of(instance);
+            (f.charge > 0 ? positive : negative).add(f);
+        }
+        updateProgress(Math.round(.1 * maxProgress), "Queries prepared.");
+
+        searchPolarity(positive, 1);
+        updateProgress(Math.round(.5 * maxProgress));
+        searchPolarity(negative, -1);
+        updateProgress(Math.round(.9 * maxProgress), "Writing results.");
+
+        final Map<Instance, List<SpectralSearchResult.SearchResult>> results = new LinkedHashMap<>(instances.size());
+        for (Feature f : positive)
+            results.put(f.instance, f.query.rankedHits());
+        for (Feature f : negative)
+            results.put(f.instance, f.query.rankedHits());
+        instances.getFirst().getProjectSpaceManager().saveSpectraSearchResults(results);
+
+        positive.forEach(f -> printResults(f, results.get(f.instance)));
+        negative.forEach(f -> printResults(f, results.get(f.instance)));
+    }
+
+    private void printResults(Feature f, List<SpectralSearchResult.SearchResult> result) {
+        if (result != null)
+            SpectraSearchSubtoolJob.printResults(logger, f.query.exp, result);
+    }
+
+    private void searchPolarity(List<Feature> features, int polarity) throws Exception {
+        if (features.isEmpty())
+            return;
+
+        final boolean anyAnalogue = features.stream().anyMatch(f -> f.query.analogueEnabled);
+        final List<MergedReferenceSearch.LibraryReferences> libraries = new ArrayList<>();
+        int numberOfReferences = 0;
+        for (Map.Entry<CustomDataSources.Source, List<MergedReferenceSpectrum>> e : cache.getAllMergedSpectra(polarity).entrySet()) {
+            if (e.getValue().isEmpty())
+                continue;
+            final SpectralLibrary db = cache.getChemDB().asCustomDB(e.getKey()).toSpectralLibrary().orElseThrow();
+            libraries.add(new MergedReferenceSearch.LibraryReferences(db, e.getValue(), anyAnalogue));
+            numberOfReferences += e.getValue().size();
+        }
+        if (libraries.isEmpty())
+            return;
+
+        final List<MergedReferenceSearch.Query> queries = features.stream().map(f -> f.query)
+                .sorted(Comparator.comparingDouble(q -> q.lowerBound)).collect(Collectors.toList());
+        logInfo("Searching " + queries.size() + " queries against " + numberOfReferences + " merged reference spectra.");
+
+        final List<BlockSearchJob> jobs = Partition.ofNumber(queries, 2 * SiriusJobs.getCPUThreads())
+                .stream().map(block -> new BlockSearchJob(block, libraries)).collect(Collectors.toList());
+        jobs.forEach(this::submitJob);
+        for (JJob<Boolean> job : jobs)
+            job.awaitResult();
+    }
+
+    /**
+     * Searches a block of queries against the references of all libraries, see
+     * {@link MergedReferenceSearch#search(MergedReferenceSearch.Query, MergedReferenceSearch.BlockReferences)}.
+     */
+    static class BlockSearchJob extends BasicJJob<Boolean> {
+        private final List<MergedReferenceSearch.Query> block;
+        private final List<MergedReferenceSearch.LibraryReferences> libraries;
+
+        BlockSearchJob(List<MergedReferenceSearch.Query> block, List<MergedReferenceSearch.LibraryReferences> libraries) {
+            super(JobType.CPU);
+            this.block = block;
+            this.libraries = libraries;
+        }
+
+        @Override
+        protected Boolean compute() throws Exception {
+            final List<MergedReferenceSearch.BlockReferences> references = new ArrayList<>(libraries.size());
+            for (MergedReferenceSearch.LibraryReferences library : libraries)
+                references.add(library.forBlock(block));
+            for (MergedReferenceSearch.Query q : block) {
+                checkForInterruption();
+                for (MergedReferenceSearch.BlockReferences refs : references)
+                    MergedReferenceSearch.search(q, refs);
+            }
+            return Boolean.TRUE;
+        }
+    }
+
+    private record Feature(Instance instance, MergedReferenceSearch.Query query, int charge) {
+        static Feature of(Instance instance) {
+            final MutableMs2Experiment exp = instance.getExperiment().mutate();
+            // ensure that precursor mass is correct
+            new Ms2Validator().validate(exp, Warning.Logger, true);
+            return new Feature(instance, new MergedReferenceSearch.Query(exp), exp.getPrecursorIonType().getCharge());
+        }
+    }
+
+    @Override
+    public String getToolName() {
+        return PicoUtils.getCommand(SpectraSearchOptions.class).name();
+    }
+}
@@ -23,8 +23,10 @@ import de.unijena.bioinf.chemdb.annotations.SpectralSearchDB;
 import de.unijena.bioinf.ms.frontend.DefaultParameter;
 import de.unijena.bioinf.ms.frontend.completion.DataSourceCandidates;
 import de.unijena.bioinf.ms.frontend.core.ApplicationCore;
+import de.unijena.bioinf.ms.frontend.subtools.DataSetJob;
 import de.unijena.bioinf.ms.frontend.subtools.InstanceJob;
 import de.unijena.bioinf.ms.frontend.subtools.Provide;
+import de.unijena.bioinf.ms.frontend.subtools.ToolChainJob;
 import de.unijena.bioinf.ms.frontend.subtools.ToolChainOptions;
 import de.unijena.bioinf.ms.frontend.subtools.config.DefaultParameterConfigLoader;
 import de.unijena.bioinf.ms.frontend.subtools.sirius.SiriusOptions;
@@ -37,7 +39,7 @@ import picocli.CommandLine.Command;
 
 
 @Command(name = "spectra-search", aliases = {"library-search"}, description = "@|bold <COMPOUND TOOL>|@ Computes the similarity between all compounds/features in the project-space (queries) one vs all spectra in the selected databases. %n %n",  versionProvider = Provide.Versions.class, mixinStandardHelpOptions = true, showDefaultValues = true)
-public class SpectraSearchOptions implements ToolChainOptions<SpectraSearchSubtoolJob, InstanceJob.Factory<SpectraSearchSubtoolJob>> {
+public class SpectraSearchOptions implements ToolChainOptions<ToolChainJob<?>, ToolChainJob.Factory<ToolChainJob<?>>> {
 
     protected final DefaultParameterConfigLoader defaultConfigOptions;
 
@@ -99,6 +101,12 @@ public class SpectraSearchOptions implements ToolChainOptions<SpectraSearchSubto
     }
 
 
+    @Option(names = "--batch", defaultValue = "false",
+            description = {"Search all compounds/features of the project at once instead of one by one.",
+                    "Queries and reference spectra are sorted by precursor mass and joined, so every reference spectrum is loaded only once per project.",
+                    "Results are available only after all compounds/features have been searched."})
+    private boolean batch;
+
     @Override
     public Consumer<Instance> getInvalidator() {
         return Instance::deleteSpectraSearchResult;
@@ -109,13 +117,18 @@ public class SpectraSearchOptions implements ToolChainOptions<SpectraSearchSubto
         return List.of(SiriusOptions.class);
     }
 
+    @SuppressWarnings("unchecked")
     @Override
-    public InstanceJob.Factory<SpectraSearchSubtoolJob> call() throws Exception {
+    public ToolChainJob.Factory<ToolChainJob<?>> call() throws Exception {
         SpectraCache cache = new SpectraCache(
                 ApplicationCore.WEB_API().getChemDB(),
                 defaultConfigOptions.config.createInstanceWithDefaults(SpectralSearchDB.class).searchDBs
         );
-        return new InstanceJob.Factory<>(sub -> new SpectraSearchSubtoolJob(sub, cache), getInvalidator());
+        // the workflow dispatches on the factory type, so both modes can be provided by the same command
+        final ToolChainJob.Factory<?> factory = batch
+                ? new DataSetJob.Factory<>(sub -> new SpectraSearchDataSetJob(sub, cache), getInvalidator())
+                : new InstanceJob.Factory<>(sub -> new SpectraSearchSubtoolJob(sub, cache), getInvalidator());
+        return (ToolChainJob.Factory<ToolChainJob<?>>) factory;
     }
 
 }
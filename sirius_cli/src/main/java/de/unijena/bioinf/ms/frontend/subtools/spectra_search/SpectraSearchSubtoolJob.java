@@ -34,7 +34,6 @@ import de.unijena.bioinf.sirius.validation.Ms2Validator;
 import de.unijena.bioinf.spectraldb.*;
 import de.unijena.bioinf.spectraldb.entities.MergedReferenceSpectrum;
 import de.unijena.bioinf.spectraldb.entities.Ms2ReferenceSpectrum;
-import de.unijena.bionf.fastcosine.SearchPreparedSpectrum;
 import de.unijena.bionf.spectral_alignment.SpectralSimilarity;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
@@ -42,11 +41,8 @@ import org.slf4j.Logger;
 import org.slf4j.LoggerFactory;
 
 import java.util.*;
-import java.util.concurrent.atomic.AtomicInteger;
 import java.util.stream.Collectors;
 
-import static de.unijena.bioinf.spectraldb.SpectralLibrary.FAST_COSINE;
-
 public class SpectraSearchSubtoolJob extends InstanceJob {
 
     private final Logger logger = LoggerFactory.getLogger(this.getClass());
@@ -105,8 +101,7 @@ public class SpectraSearchSubtoolJob extends InstanceJob {
 
         double precursorMz = exp.getIonMass();
 
-        SpectralLibrarySearchSettings analogueSearchSettings = exp.getAnnotationOrDefault(AnalogueSearchSettings.class).clone();
-        SpectralLibrarySearchSettings identitySearchSettings = exp.getAnnotationOrDefault(IdentitySearchSettings.class).clone();
+        SpectralLibrarySearchSettings identitySearchSettings = exp.getAnnotationOrDefault(IdentitySearchSettings.class);
 
         Map<CustomDataSources.Source, List<MergedReferenceSpectrum>> mergedReferenceSpectra;
 
@@ -124,40 +119,12 @@ public class SpectraSearchSubtoolJob extends InstanceJob {
         List<SpectralSearchResult.SearchResult> result = submitJob(new BasicJJob<List<SpectralSearchResult.SearchResult>>() {
             @Override
             protected List<SpectralSearchResult.SearchResult> compute() throws Exception {
-                final List<SearchPreparedSpectrum> queries = exp.getMs2Spectra().stream().map(x -> FAST_COSINE.prepareQuery(exp.getIonMass(), x)).toList();
-                SearchPreparedSpectrum mergedQuery = FAST_COSINE.prepareQuery(exp.getIonMass(), exp.getMergedMs2Spectrum());
-
-                PriorityQueue<LibraryHit> identityHits = new PriorityQueue<>();
-                PriorityQueue<LibraryHit> analogHits = new PriorityQueue<>();
-
+                final MergedReferenceSearch.Query query = new MergedReferenceSearch.Query(exp);
                 for (Map.Entry<CustomDataSources.Source, List<MergedReferenceSpectrum>> e : mergedReferenceSpectra.entrySet()) {
                     SpectralLibrary db = cache.getChemDB().asCustomDB(e.getKey()).toSpectralLibrary().orElseThrow();
-                    for (MergedReferenceSpectrum mergedRefSpec : e.getValue()) {
-//                        final String refStructInchi = mergedRefSpec.getCandidateInChiKey();
-                        if (identitySearchSettings.getPrecursorDeviation().inErrorWindow(precursorMz, mergedRefSpec.getExactMass())) {
-                            List<LibraryHit> hits = db.queryAgainstLibraryByMergedReference(mergedRefSpec, identitySearchSettings, queries, mergedQuery).toList();
-                            addHitsAndUpdateBounds(identityHits, hits, identitySearchSettings);
-                        } else if (!analogueSearchSettings.getPrecursorDeviation().inErrorWindow(precursorMz, mergedRefSpec.getExactMass())) {
-                            List<LibraryHit> hits = db.queryAgainstLibraryByMergedReference(mergedRefSpec, analogueSearchSettings, queries, mergedQuery).toList();
-                            addHitsAndUpdateBounds(analogHits, hits, analogueSearchSettings);
-                        }
-                    }
+                    MergedReferenceSearch.search(query, db, e.getValue());
                 }
-
-                if (identityHits.isEmpty() && analogHits.isEmpty())
-                    return null;
-
-
-
-                List<SpectralSearchResult.SearchResult> rankedHits = new ArrayList<>(
-                        analogueSearchSettings.getMaxNumOfHits() + identitySearchSettings.getMaxNumOfHits());
-
-                AtomicInteger rank = new AtomicInteger(0);
-                identityHits.stream().sorted(Comparator.reverseOrder()).forEach(hit -> rankedHits.add(new SpectralSearchResult.SearchResult(hit, rank.incrementAndGet())));
-                rank.set(0);
-                analogHits.stream().sorted(Comparator.reverseOrder()).forEach(hit -> rankedHits.add(new SpectralSearchResult.SearchResult(hit, rank.incrementAndGet())));
-
-                return rankedHits;
+                return query.rankedHits();
             }
         }.asCPU()).awaitResult();
 
@@ -167,6 +134,13 @@ public class SpectraSearchSubtoolJob extends InstanceJob {
 
         checkForInterruption();
 
+        printResults(logger, exp, result);
+    }
+
+    /**
+     * Logs the best hits per query spectrum, the number of printed hits is defined by {@link SpectralSearchLog}.
+     */
+    static void printResults(Logger logger, MutableMs2Experiment exp, List<SpectralSearchResult.SearchResult> result) {
         int print = exp.getAnnotationOrDefault(SpectralSearchLog.class).value;
 
         if (print < 1)
@@ -237,27 +211,6 @@ public class SpectraSearchSubtoolJob extends InstanceJob {
         }
     }
 
-    private static void addHitsAndUpdateBounds(PriorityQueue<LibraryHit> allHits, List<LibraryHit> nuHits, SpectralLibrarySearchSettings settings) {
-        for (LibraryHit hit : nuHits) {
-            if (allHits.size() < settings.getMaxNumOfHits()) {
-                allHits.add(hit);
-                // increase bound
-                if (allHits.size() == settings.getMaxNumOfHits()) {
-                    settings.setMinSimilarity(
-                            Math.max(settings.getMinSimilarity(), allHits.peek().getSimilarity().similarity));
-                }
-            } else {
-                if (hit.compareTo(allHits.peek()) > 0){
-                    allHits.poll();
-                    allHits.add(hit);
-                    //increase bound
-                    settings.setMinSimilarity(
-                            Math.max(settings.getMinSimilarity(), allHits.peek().getSimilarity().similarity));
-                }
-            }
-        }
-    };
-
     @Override
     public String getToolName() {
         return PicoUtils.getCommand(SpectraSearchOptions.class).name();
@@ -24,12 +24,15 @@ import de.unijena.bioinf.ChemistryBase.ms.Ms2Experiment;
 import de.unijena.bioinf.ms.persistence.model.core.Compound;
 import de.unijena.bioinf.ms.persistence.model.core.feature.AlignedFeatures;
 import de.unijena.bioinf.ms.persistence.model.properties.ProjectType;
+import de.unijena.bioinf.ms.persistence.model.sirius.ComputedSubtools;
+import de.unijena.bioinf.ms.persistence.model.sirius.SpectraMatch;
 import de.unijena.bioinf.ms.persistence.storage.SiriusProjectDatabaseImpl;
 import de.unijena.bioinf.ms.persistence.storage.SiriusProjectDocumentDatabase;
 import de.unijena.bioinf.ms.rest.model.canopus.CanopusCfData;
 import de.unijena.bioinf.ms.rest.model.canopus.CanopusNpcData;
 import de.unijena.bioinf.ms.rest.model.fingerid.FingerIdData;
 import de.unijena.bioinf.rest.NetUtils;
+import de.unijena.bioinf.spectraldb.SpectralSearchResult;
 import de.unijena.bioinf.storage.db.nosql.Database;
 import de.unijena.bioinf.storage.db.nosql.Filter;
 import lombok.Getter;
@@ -39,8 +42,7 @@ import org.jetbrains.annotations.NotNull;
 
 import java.io.IOException;
 import java.nio.file.Files;
-import java.util.Iterator;
-import java.util.Optional;
+import java.util.*;
 
 @Getter
 public class NoSQLProjectSpaceManager extends AbstractProjectSpaceManager {
@@ -86,6 +88,30 @@ public class NoSQLProjectSpaceManager extends AbstractProjectSpaceManager {
                 .map(af -> new NoSQLInstance(af, this));
     }
 
+    /**
+     * Inserts the matches of all instances and marks them as searched within one write transaction.
+     */
+    @SneakyThrows
+    @Override
+    public void saveSpectraSearchResults(@NotNull Map<? extends Instance, List<SpectralSearchResult.SearchResult>> results) {
+        final List<SpectraMatch> matches = new ArrayList<>();
+        final List<ComputedSubtools> computedSubtools = new ArrayList<>(results.size());
+        results.forEach((instance, hits) -> {
+            final NoSQLInstance inst = (NoSQLInstance) instance;
+            if (hits != null)
+                hits.forEach(s -> matches.add(SpectraMatch.builder().alignedFeatureId(inst.getLongId()).searchResult(s).build()));
+            final ComputedSubtools cs = inst.getComputedSubtools();
+            cs.setLibrarySearch(true);
+            computedSubtools.add(cs);
+        });
+
+        getProject().getStorage().write(() -> {
+            if (!matches.isEmpty())
+                getProject().getStorage().insertAll(matches);
+            getProject().getStorage().upsertAll(computedSubtools);
+        });
+    }
+
     @Override
     public void writeFingerIdData(@NotNull FingerIdData pos, @NotNull FingerIdData neg) {
         getProject().insertFingerprintData(pos, 1);
@@ -27,11 +27,14 @@ import de.unijena.bioinf.ms.rest.model.canopus.CanopusCfData;
 import de.unijena.bioinf.ms.rest.model.canopus.CanopusNpcData;
 import de.unijena.bioinf.ms.rest.model.fingerid.FingerIdData;
 import de.unijena.bioinf.rest.NetUtils;
+import de.unijena.bioinf.spectraldb.SpectralSearchResult;
 import de.unijena.bioinf.webapi.WebAPI;
 import org.jetbrains.annotations.NotNull;
 import org.slf4j.LoggerFactory;
 
 import java.io.IOException;
+import java.util.List;
+import java.util.Map;
 import java.util.Optional;
 import java.util.concurrent.TimeoutException;
 import java.util.regex.Pattern;
@@ -83,6 +86,16 @@ public interface ProjectSpaceManager extends IterableWithSize<Instance> {
         return size() == 0;
     }
 
+    /**
+     * Stores the spectral library search results of many instances at once. Implementations may write all results
+     * within a single transaction instead of one transaction per instance.
+     *
+     * @param results search results per instance, null values mark instances that have been searched without hits
+     */
+    default void saveSpectraSearchResults(@NotNull Map<? extends Instance, List<SpectralSearchResult.SearchResult>> results) {
+        results.forEach(Instance::saveSpectraSearchResult);
+    }
+
     void close() throws IOException;
 
     /**
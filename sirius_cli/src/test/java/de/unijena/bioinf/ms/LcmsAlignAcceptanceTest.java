@@ -229,7 +229,7 @@ class LcmsAlignAcceptanceTest {
             float mzd = (float) MZ_DEV.absoluteFor(f.getAverageMass());
 
             TraceRef traceRef = f.getTraceRef();
-            Optional<MergedTrace> optTrace = project.getStorage().getByPrimaryKey(f.getTraceRef().getTraceId(), MergedTrace.class);
+            Optional<MergedTrace> optTrace = project.getMergedTrace(f.getTraceRef().getTraceId());
             Assertions.assertTrue(optTrace.isPresent());
             MergedTrace trace = optTrace.get();
             FloatList sublist = trace.getIntensities().subList(traceRef.getStart(), traceRef.getEnd() + 1);
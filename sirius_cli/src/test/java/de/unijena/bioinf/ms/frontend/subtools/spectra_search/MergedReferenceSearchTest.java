@@ -0,0 +1,200 @@
+package de.unijena.bioinf.ms.frontend.subtools.spectra_search;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.ChemistryBase.chem.PrecursorIonType;
+import de.unijena.bioinf.ChemistryBase.ms.CollisionEnergy;
+import de.unijena.bioinf.ChemistryBase.ms.Deviation;
+import de.unijena.bioinf.ChemistryBase.ms.MutableMs2Experiment;
+import de.unijena.bioinf.ChemistryBase.ms.MutableMs2Spectrum;
+import de.unijena.bioinf.ChemistryBase.ms.ft.FTree;
+import de.unijena.bioinf.ChemistryBase.ms.utils.SimpleSpectrum;
+import de.unijena.bioinf.chemdb.nitrite.ChemicalNitriteDatabase;
+import de.unijena.bioinf.spectraldb.SpectralSearchResult;
+import de.unijena.bioinf.spectraldb.SpectrumType;
+import de.unijena.bioinf.spectraldb.entities.MergedReferenceSpectrum;
+import de.unijena.bioinf.spectraldb.entities.Ms2ReferenceSpectrum;
+import de.unijena.bioinf.spectraldb.entities.ReferenceFragmentationTree;
+import de.unijena.bionf.spectral_alignment.SpectralMatchingType;
+import org.junit.jupiter.api.AfterAll;
+import org.junit.jupiter.api.BeforeAll;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.*;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class MergedReferenceSearchTest {
+
+    private static final int NUMBER_OF_COMPOUNDS = 30, SPECTRA_PER_COMPOUND = 2;
+    private static final PrecursorIonType ION_TYPE = PrecursorIonType.getPrecursorIonType("[M+H]+");
+
+    private static ChemicalNitriteDatabase library;
+    private static List<MergedReferenceSpectrum> references;
+    private static final List<SimpleSpectrum> compoundPeaks = new ArrayList<>();
+    private static final List<Double> compoundMz = new ArrayList<>();
+
+    /**
+     * Small library of random spectra, built like the one of the SpectralNoSQLDatabaseTest.
+     */
+    @BeforeAll
+    public static void buildLibrary() throws IOException {
+        final Random r = new Random(42);
+        final Path file = Files.createTempFile("spectral-library_", "_unitTest");
+        library = new ChemicalNitriteDatabase(file);
+
+        for (int c = 0; c < NUMBER_OF_COMPOUNDS; ++c) {
+            final MolecularFormula formula = MolecularFormula.parseOrThrow("C" + (10 + c) + "H" + (12 + 2 * c) + "O4");
+            final double precursorMz = ION_TYPE.neutralMassToPrecursorMass(formula.getMass());
+            final SimpleSpectrum peaks = randomSpectrum(r, precursorMz, 12);
+            compoundPeaks.add(peaks);
+            compoundMz.add(precursorMz);
+
+            final List<Ms2ReferenceSpectrum> spectra = new ArrayList<>();
+            for (int s = 0; s < SPECTRA_PER_COMPOUND; ++s) {
+                final SimpleSpectrum spectrum = perturb(r, peaks, 0);
+                spectra.add(Ms2ReferenceSpectrum.builder()
+                        .candidateInChiKey("COMPOUND" + c)
+                        .precursorIonType(ION_TYPE)
+                        .precursorMz(precursorMz)
+                        .exactMass(precursorMz)
+                        .msLevel(2)
+                        .formula(formula)
+                        .name("compound " + c)
+                        .spectrum(spectrum)
+                        .searchPreparedSpectrum(library.getFastCosine().prepareQuery(precursorMz, spectrum))
+                        .build());
+            }
+            library.upsertSpectra(spectra);
+
+            final MergedReferenceSpectrum merged = new MergedReferenceSpectrum();
+            merged.setName("compound " + c);
+            merged.setFormula(formula);
+            merged.setPrecursorMz(precursorMz);
+            merged.setExactMass(precursorMz);
+            merged.setCandidateInChiKey("COMPOUND" + c);
+            merged.setPrecursorIonType(ION_TYPE);
+            merged.setIndividualSpectraUIDs(spectra.stream().mapToLong(Ms2ReferenceSpectrum::getUuid).toArray());
+            merged.setSearchPreparedSpectrum(library.getFastCosine().prepareMergedQuery(spectra.stream().map(Ms2ReferenceSpectrum::getSearchPreparedSpectrum).toList()));
+            library.insertMergedSpecAndTree(merged, ReferenceFragmentationTree.from(new FTree(formula, ION_TYPE.getIonization()), merged));
+        }
+
+        references = new ArrayList<>();
+        library.forEachMergedSpectrum(references::add);
+        // the dataset search sorts the references itself
+        Collections.shuffle(references, r);
+    }
+
+    @AfterAll
+    public static void closeLibrary() throws IOException {
+        library.close();
+    }
+
+    private static SimpleSpectrum randomSpectrum(Random r, double precursorMz, int numberOfPeaks) {
+        final double[] mz = new double[numberOfPeaks], intensities = new double[numberOfPeaks];
+        for (int k = 0; k < numberOfPeaks; ++k) {
+            mz[k] = 50 + Math.round(r.nextDouble() * (precursorMz - 60) * 2) / 2d;
+            intensities[k] = 1 + r.nextDouble() * 100;
+        }
+        return new SimpleSpectrum(mz, intensities);
+    }
+
+    private static SimpleSpectrum perturb(Random r, SimpleSpectrum spectrum, double shift) {
+        final double[] mz = new double[spectrum.size()], intensities = new double[spectrum.size()];
+        for (int k = 0; k < spectrum.size(); ++k) {
+            mz[k] = spectrum.getMzAt(k) + (shift > 0 && r.nextBoolean() ? shift : 0) + r.nextGaussian() * 0.0005;
+            intensities[k] = spectrum.getIntensityAt(k) * (0.5 + r.nextDouble());
+        }
+        return new SimpleSpectrum(mz, intensities);
+    }
+
+    private static final Set<SpectrumType> QUERY_TYPES = EnumSet.of(SpectrumType.SPECTRUM, SpectrumType.MERGED_SPECTRUM),
+            TARGET_TYPES = EnumSet.of(SpectrumType.SPECTRUM, SpectrumType.MERGED_SPECTRUM);
+
+    /**
+     * Features are compounds of the library measured again (identities) and analogs with an additional oxygen, that is
+     * shifted precursor and partially shifted peaks. Few hits are stored, such that the similarity thresholds are
+     * raised during the search.
+     */
+    private static List<MutableMs2Experiment> features(boolean analogueEnabled) {
+        final Random r = new Random(7);
+        final List<MutableMs2Experiment> features = new ArrayList<>();
+        for (int c = 0; c < NUMBER_OF_COMPOUNDS; ++c) {
+            final boolean analog = c % 3 == 0;
+            final double precursorMz = compoundMz.get(c) + (analog ? 15.99491 : 0);
+            final SimpleSpectrum peaks = perturb(r, compoundPeaks.get(c), analog ? 15.99491 : 0);
+            final MutableMs2Experiment exp = new MutableMs2Experiment();
+            exp.setName("feature " + c);
+            exp.setPrecursorIonType(ION_TYPE);
+            exp.setIonMass(precursorMz);
+            exp.getMs2Spectra().add(new MutableMs2Spectrum(peaks, precursorMz, new CollisionEnergy(20), 2));
+            exp.getMs2Spectra().add(new MutableMs2Spectrum(perturb(r, peaks, 0), precursorMz, new CollisionEnergy(40), 2));
+            exp.setMergedMs2Spectrum(peaks);
+            exp.setAnnotation(IdentitySearchSettings.class, new IdentitySearchSettings(true, 0.1f, 2, 3,
+                    SpectralMatchingType.FAST_COSINE, new Deviation(10), QUERY_TYPES, TARGET_TYPES));
+            exp.setAnnotation(AnalogueSearchSettings.class, new AnalogueSearchSettings(analogueEnabled, 0.1f, 2, 3,
+                    SpectralMatchingType.MODIFIED_COSINE, new Deviation(10), QUERY_TYPES, TARGET_TYPES));
+            features.add(exp);
+        }
+        return features;
+    }
+
+    private static void assertSameResults(List<SpectralSearchResult.SearchResult> expected, List<SpectralSearchResult.SearchResult> actual) {
+        assertEquals(expected == null, actual == null);
+        if (expected == null)
+            return;
+        assertEquals(expected.size(), actual.size());
+        for (int k = 0; k < expected.size(); ++k) {
+            final SpectralSearchResult.SearchResult e = expected.get(k), a = actual.get(k);
+            assertEquals(e.getRank(), a.getRank());
+            assertEquals(e.getUuid(), a.getUuid());
+            assertEquals(e.getQuerySpectrumIndex(), a.getQuerySpectrumIndex());
+            assertEquals(e.getSpectrumType(), a.getSpectrumType());
+            assertEquals(e.isAnalog(), a.isAnalog());
+            assertEquals(e.getSimilarity().similarity, a.getSimilarity().similarity, 0d);
+            assertEquals(e.getSimilarity().sharedPeaks, a.getSimilarity().sharedPeaks);
+        }
+    }
+
+    /**
+     * Searching blocks of features against prepared references yields the same hits as searching each feature on its
+     * own, as done by the per feature job.
+     */
+    private static void assertBlockSearchEqualsFeatureSearch(boolean analogueEnabled, int blockSize) throws IOException {
+        final List<MergedReferenceSearch.Query> single = features(analogueEnabled).stream().map(MergedReferenceSearch.Query::new).toList();
+        for (MergedReferenceSearch.Query q : single)
+            MergedReferenceSearch.search(q, library, references);
+
+        final List<MergedReferenceSearch.Query> batch = features(analogueEnabled).stream().map(MergedReferenceSearch.Query::new)
+                .sorted(Comparator.comparingDouble(q -> q.lowerBound)).toList();
+        final MergedReferenceSearch.LibraryReferences lib = new MergedReferenceSearch.LibraryReferences(library, references, analogueEnabled);
+        for (int from = 0; from < batch.size(); from += blockSize) {
+            final List<MergedReferenceSearch.Query> block = batch.subList(from, Math.min(batch.size(), from + blockSize));
+            final MergedReferenceSearch.BlockReferences blockRefs = lib.forBlock(block);
+            for (MergedReferenceSearch.Query q : block)
+                MergedReferenceSearch.search(q, blockRefs);
+        }
+
+        int withHits = 0;
+        for (MergedReferenceSearch.Query expected : single) {
+            final MergedReferenceSearch.Query actual = batch.stream().filter(q -> q.exp.getName().equals(expected.exp.getName())).findFirst().orElseThrow();
+            final List<SpectralSearchResult.SearchResult> expectedHits = expected.rankedHits();
+            assertSameResults(expectedHits, actual.rankedHits());
+            if (expectedHits != null) ++withHits;
+        }
+        assertTrue(withHits > 0);
+    }
+
+    @Test
+    public void testIdentityBlockSearchEqualsFeatureSearch() throws IOException {
+        assertBlockSearchEqualsFeatureSearch(false, 4);
+    }
+
+    @Test
+    public void testAnalogueBlockSearchEqualsFeatureSearch() throws IOException {
+        assertBlockSearchEqualsFeatureSearch(true, 4);
+        assertBlockSearchEqualsFeatureSearch(true, NUMBER_OF_COMPOUNDS);
+    }
+}
@@ -24,7 +24,7 @@ import de.unijena.bioinf.ms.middleware.service.compute.ComputeService;
 import de.unijena.bioinf.ms.middleware.service.events.EventService;
 import de.unijena.bioinf.ms.middleware.service.projects.NoSQLProjectProviderImpl;
 import de.unijena.bioinf.ms.middleware.service.projects.ProjectsProvider;
-import de.unijena.bioinf.ms.middleware.service.search.FakeLuceneSearchService;
+import de.unijena.bioinf.ms.middleware.service.search.LuceneSearchService;
 import de.unijena.bioinf.ms.middleware.service.search.SearchService;
 import de.unijena.bioinf.projectspace.NitriteProjectSpaceManagerFactory;
 import de.unijena.bioinf.projectspace.NoSQLProjectSpaceManager;
@@ -46,7 +46,7 @@ public class NitriteNoSqlProjectConfig {
 
     @Bean
     public SearchService searchService() {
-        return new FakeLuceneSearchService();
+        return new LuceneSearchService();
     }
 
     @Bean
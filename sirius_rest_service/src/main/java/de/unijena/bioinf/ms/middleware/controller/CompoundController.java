@@ -44,12 +44,18 @@ import org.springdoc.core.annotations.ParameterObject;
 import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
+import org.springframework.http.HttpHeaders;
 import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
 import org.springframework.security.core.context.SecurityContextHolder;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.server.ResponseStatusException;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
+import java.io.BufferedWriter;
+import java.io.OutputStreamWriter;
+import java.nio.charset.StandardCharsets;
 import java.util.EnumSet;
 import java.util.List;
 import java.util.Optional;
@@ -217,6 +223,48 @@ public class CompoundController implements TaggableController<Compound, Compound
         else return quantificationForAlignedFeature.get();
     }
 
+    /**
+     * [EXPERIMENTAL] Returns a page of the quantification table of compounds.
+     * <p>
+     * Rows are in the same order as in the full quantification table.
+     * <p>
+     * [EXPERIMENTAL] This endpoint is experimental and not part of the stable API specification. This endpoint can change at any time, even in minor updates.
+     *
+     * @param projectId project-space to read from.
+     * @param pageable  rows to return.
+     * @param type      quantification type.
+     * @return Quant table containing the requested rows
+     */
+    @Operation(operationId = "getCompoundQuantTablePageExperimental")
+    @GetMapping(value = "/quant-table/page", produces = MediaType.APPLICATION_JSON_VALUE)
+    public QuantTable getQuantTablePage(@PathVariable String projectId, @ParameterObject Pageable pageable, @RequestParam(defaultValue = "APEX_INTENSITY") QuantMeasure type) {
+        Optional<QuantTable> quantTable = projectsProvider.getProjectOrThrow(projectId).getQuantification(type, QuantRowType.COMPOUNDS, pageable);
+        if (quantTable.isEmpty())
+            throw new ResponseStatusException(HttpStatus.NOT_FOUND, "No quantification information available for " + projectId + " and quantification type " + type);
+        else return quantTable.get();
+    }
+
+    /**
+     * [EXPERIMENTAL] Downloads the full quantification table of compounds as CSV.
+     * <p>
+     * The table is streamed, one line per row. Runs a compound was not detected in are empty cells.
+     * The body is empty if there is no quantification information.
+     * <p>
+     * [EXPERIMENTAL] This endpoint is experimental and not part of the stable API specification. This endpoint can change at any time, even in minor updates.
+     *
+     * @param projectId project-space to read from.
+     * @param type      quantification type.
+     * @return Quant table as CSV
+     */
+    @Operation(operationId = "getCompoundQuantTableCsvExperimental")
+    @GetMapping(value = "/quant-table/csv", produces = "text/csv")
+    public ResponseEntity<StreamingResponseBody> getQuantTableCsv(@PathVariable String projectId, @RequestParam(defaultValue = "APEX_INTENSITY") QuantMeasure type) {
+        Project<?> project = projectsProvider.getProjectOrThrow(projectId);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"compound-quant-table.csv\"")
+                .body(out -> project.writeQuantification(type, QuantRowType.COMPOUNDS, new BufferedWriter(new OutputStreamWriter(out, StandardCharsets.UTF_8))));
+    }
+
     /**
      * [EXPERIMENTAL] Returns the traces of the given compound.
      * <p>
@@ -23,6 +23,11 @@ package de.unijena.bioinf.ms.middleware.service.lucene;
 import de.unijena.bioinf.ms.persistence.model.core.tags.TagDefinition;
 import de.unijena.bioinf.ms.persistence.model.core.tags.ValueType;
 import de.unijena.bioinf.storage.db.nosql.Filter;
+import org.apache.lucene.analysis.Analyzer;
+import org.apache.lucene.analysis.LowerCaseFilter;
+import org.apache.lucene.analysis.Tokenizer;
+import org.apache.lucene.analysis.core.KeywordTokenizer;
+import org.apache.lucene.analysis.miscellaneous.PerFieldAnalyzerWrapper;
 import org.apache.lucene.analysis.standard.StandardAnalyzer;
 import org.apache.lucene.document.*;
 import org.apache.lucene.index.Term;
@@ -137,8 +142,11 @@ public class LuceneUtils {
     }
 
     public static StandardQueryParser makeDefaultQueryParser(@NotNull Stream<TagDefinition> tagDefinitions) {
-        StandardQueryParser parser = new StandardQueryParser(new StandardAnalyzer());
+        StandardQueryParser parser = new StandardQueryParser(makeDefaultAnalyzer());
         parser.setPointsConfigMap(new HashMap<>());
+        for (String field : List.of(MZ_FIELD, RT_FIELD, RT_START_FIELD, RT_END_FIELD, CONFIDENCE_FIELD, CONFIDENCE_APPROX_FIELD))
+            parser.getPointsConfigMap().put(field, new PointsConfig(DecimalFormat.getInstance(Locale.US), Double.class));
+        parser.getPointsConfigMap().put(COMPOUND_ID_FIELD, new PointsConfig(DecimalFormat.getInstance(Locale.US), Long.class));
         tagDefinitions.forEach(tagDef -> updatePointValue(parser.getPointsConfigMap(), tagDef));;
         return parser;
     }
@@ -158,6 +166,46 @@ public class LuceneUtils {
 
     public static final String TAG_FIELD_PREFIX = "tags.";
 
+    /*
+     * Fields of the project search index. Text fields are searched via "text" by default.
+     */
+    public static final String TEXT_FIELD = "text";
+    public static final String TAG_NAME_FIELD = "tagName";
+    public static final String NAME_FIELD = "name";
+    public static final String EXTERNAL_ID_FIELD = "externalFeatureId";
+    public static final String COMPOUND_ID_FIELD = "compoundId";
+    public static final String MZ_FIELD = "mz";
+    public static final String RT_FIELD = "rt";
+    public static final String RT_START_FIELD = "rtStart";
+    public static final String RT_END_FIELD = "rtEnd";
+    public static final String QUALITY_FIELD = "quality";
+    public static final String FORMULA_FIELD = "formula";
+    public static final String ADDUCT_FIELD = "adduct";
+    public static final String INCHIKEY_FIELD = "inchikey";
+    public static final String CONFIDENCE_FIELD = "confidence";
+    public static final String CONFIDENCE_APPROX_FIELD = "confidenceApprox";
+
+    /**
+     * Identifiers like formulas, adducts and InChIKeys are not tokenized but matched case-insensitive as a whole,
+     * everything else is analyzed by the {@link StandardAnalyzer}. Used for indexing and query parsing.
+     */
+    public static Analyzer makeDefaultAnalyzer() {
+        Analyzer keyword = new Analyzer() {
+            @Override
+            protected TokenStreamComponents createComponents(String fieldName) {
+                Tokenizer tokenizer = new KeywordTokenizer();
+                return new TokenStreamComponents(tokenizer, new LowerCaseFilter(tokenizer));
+            }
+        };
+        return new PerFieldAnalyzerWrapper(new StandardAnalyzer(), Map.of(
+                EXTERNAL_ID_FIELD, keyword,
+                QUALITY_FIELD, keyword,
+                FORMULA_FIELD, keyword,
+                ADDUCT_FIELD, keyword,
+                INCHIKEY_FIELD, keyword
+        ));
+    }
+
    public static void updatePointValue(@NotNull final Map<String, PointsConfig> pointsConfigMap, @NotNull final TagDefinition tagDefinition) {
         String indexFieldName = TAG_FIELD_PREFIX + tagDefinition.getTagName();
 
@@ -0,0 +1,147 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2023 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.middleware.service.projects;
+
+import de.unijena.bioinf.ms.gui.configs.ColorGenerator;
+import de.unijena.bioinf.ms.persistence.model.core.run.LCMSRun;
+import de.unijena.bioinf.ms.persistence.model.core.run.MergedLCMSRun;
+import de.unijena.bioinf.ms.persistence.model.core.run.RetentionTimeAxis;
+import de.unijena.bioinf.storage.db.nosql.Database;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+
+import java.awt.*;
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Project scoped cache of the LC/MS run metadata and retention time axes needed by the trace endpoints.
+ * Without it, every trace request loads all runs of the project and the axes of all involved samples.
+ * <p>
+ * The cache is invalidated completely whenever a run or retention time axis is inserted, updated or removed.
+ * Invalidation never blocks, because storage listeners may be called while the database is locked.
+ * Loaded values are only kept if no invalidation happened during loading.
+ */
+class LCMSRunCache {
+
+    /**
+     * All sample runs of the project sorted by run id, with their display colors.
+     */
+    record Samples(long[] runIds, String[] names, String[] colors) {
+        int indexOf(long runId) {
+            return Arrays.binarySearch(runIds, runId);
+        }
+
+        @Nullable
+        String name(long runId) {
+            final int i = indexOf(runId);
+            return i < 0 ? null : names[i];
+        }
+
+        @Nullable
+        String color(long runId) {
+            final int i = indexOf(runId);
+            return i < 0 ? null : colors[i];
+        }
+    }
+
+    /**
+     * Fields of the {@link RetentionTimeAxis} of a sample run that are needed for trace projection.
+     */
+    record SampleAxis(double normalizationFactor, float[] noiseLevelPerScan) {
+    }
+
+    private final Database<?> storage;
+    private final AtomicLong generation = new AtomicLong();
+    private volatile Samples samples;
+    private final ConcurrentHashMap<Long, Optional<SampleAxis>> sampleAxes = new ConcurrentHashMap<>();
+    private final ConcurrentHashMap<Long, Optional<MergedLCMSRun>> mergedRuns = new ConcurrentHashMap<>();
+
+    LCMSRunCache(@NotNull Database<?> storage) throws IOException {
+        this.storage = storage;
+        for (Class<?> clazz : List.of(LCMSRun.class, MergedLCMSRun.class, RetentionTimeAxis.class)) {
+            storage.onInsert(clazz, x -> invalidate());
+            storage.onUpdate(clazz, x -> invalidate());
+            storage.onRemove(clazz, x -> invalidate());
+        }
+    }
+
+    void invalidate() {
+        generation.incrementAndGet();
+        samples = null;
+        sampleAxes.clear();
+        mergedRuns.clear();
+    }
+
+    Samples getSamples() throws IOException {
+        Samples s = samples;
+        if (s != null)
+            return s;
+        final long gen = generation.get();
+        final List<LCMSRun> runs = storage.findAllStr(LCMSRun.class, "runId", Database.SortOrder.ASCENDING).toList();
+        final List<Color> colors = ColorGenerator.generateColors(runs.size());
+        s = new Samples(
+                runs.stream().mapToLong(LCMSRun::getRunId).toArray(),
+                runs.stream().map(LCMSRun::getName).toArray(String[]::new),
+                colors.stream().map(ColorGenerator::colorToCss).toArray(String[]::new));
+        if (generation.get() == gen)
+            samples = s;
+        return s;
+    }
+
+    Optional<SampleAxis> getSampleAxis(long runId) throws IOException {
+        Optional<SampleAxis> axis = sampleAxes.get(runId);
+        if (axis != null)
+            return axis;
+        final long gen = generation.get();
+        axis = storage.getByPrimaryKey(runId, RetentionTimeAxis.class)
+                .map(a -> new SampleAxis(a.getNormalizationFactor(), a.getNoiseLevelPerScan()));
+        return keep(sampleAxes, runId, axis, gen);
+    }
+
+    /**
+     * @return merged run with fetched retention time axis. The instance is shared between requests and must not be modified.
+     */
+    Optional<MergedLCMSRun> getMergedRun(long runId) throws IOException {
+        Optional<MergedLCMSRun> merged = mergedRuns.get(runId);
+        if (merged != null)
+            return merged;
+        final long gen = generation.get();
+        merged = storage.getByPrimaryKey(runId, MergedLCMSRun.class);
+        if (merged.isPresent())
+            storage.fetchChild(merged.get(), "runId", "retentionTimeAxis", RetentionTimeAxis.class);
+        return keep(mergedRuns, runId, merged, gen);
+    }
+
+    private <V> V keep(ConcurrentHashMap<Long, V> cache, long key, V value, long gen) {
+        if (generation.get() == gen) {
+            cache.put(key, value);
+            // invalidated in the meantime
+            if (generation.get() != gen)
+                cache.remove(key, value);
+        }
+        return value;
+    }
+}
@@ -68,6 +68,8 @@ import de.unijena.bioinf.ms.persistence.model.properties.ProjectType;
 import de.unijena.bioinf.ms.persistence.model.sirius.*;
 import de.unijena.bioinf.ms.persistence.storage.SiriusProjectDocumentDatabase;
 import de.unijena.bioinf.ms.persistence.storage.exceptions.ProjectTypeException;
+import de.unijena.bioinf.ms.persistence.storage.quant.QuantMatrix;
+import de.unijena.bioinf.ms.persistence.storage.trace.TraceStore;
 import de.unijena.bioinf.ms.rest.model.canopus.CanopusCfData;
 import de.unijena.bioinf.ms.rest.model.canopus.CanopusNpcData;
 import de.unijena.bioinf.ms.rest.model.fingerid.FingerIdData;
@@ -85,6 +87,7 @@ import lombok.extern.slf4j.Slf4j;
 import org.apache.commons.lang3.time.StopWatch;
 import org.apache.commons.lang3.tuple.Pair;
 import org.apache.commons.text.similarity.LongestCommonSubsequence;
+import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
 import org.jetbrains.annotations.NotNull;
 import org.jetbrains.annotations.Nullable;
 import org.slf4j.LoggerFactory;
@@ -98,6 +101,8 @@ import org.springframework.web.server.ResponseStatusException;
 import java.awt.*;
 import java.io.IOException;
 import java.io.StringWriter;
+import java.io.Writer;
+import java.nio.FloatBuffer;
 import java.util.*;
 import java.util.List;
 import java.util.concurrent.atomic.AtomicReference;
@@ -124,12 +129,15 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
 
     private final @NotNull BiFunction<Project<?>, String, Boolean> computeStateProvider;
 
+    private final LCMSRunCache runCache;
+
     @SneakyThrows
     public NoSQLProjectImpl(@NotNull String projectId, @NotNull NoSQLProjectSpaceManager projectSpaceManager, SearchService searchService, @NotNull BiFunction<Project<?>, String, Boolean> computeStateProvider) {
         this.projectId = projectId;
         this.projectSpaceManager = projectSpaceManager;
         this.computeStateProvider = computeStateProvider;
         this.searchService = searchService;
+        this.runCache = new LCMSRunCache(storage());
 
         if (searchService != null) {
             storage().onInsert(de.unijena.bioinf.ms.persistence.model.core.tags.TagDefinition.class, tagDef -> searchService.addTagDefinition(projectId, tagDef));
@@ -160,134 +168,168 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
 
     @SneakyThrows
     @Override
-    public Optional<QuantTable> getQuantification(QuantMeasure type, QuantRowType rowType) {
-        Optional<QuantTable> table = initQuantTable(type, rowType);
-        if (table.isEmpty())
+    public Optional<QuantTable> getQuantification(QuantMeasure type, QuantRowType rowType, @NotNull Pageable pageable) {
+        Optional<QuantMatrix> matrix = getQuantMatrix();
+        if (matrix.isEmpty())
             return Optional.empty();
+        QuantMatrix m = matrix.get();
+        QuantTable table = initQuantTable(m, type, rowType);
 
         List<double[]> values = new ArrayList<>();
         LongList rowIds = new LongArrayList();
         List<String> rowNames = new ArrayList<>();
 
-        int quantified = rowType == QuantRowType.FEATURES
-                ? storage().findAllStr(AlignedFeatures.class)
-                        .mapToInt(alignedFeatures -> addToTable(alignedFeatures, values, rowIds, rowNames, table.get())).sum()
-                : storage().findAllStr(de.unijena.bioinf.ms.persistence.model.core.Compound.class)
-                        .mapToInt(compound -> addToTable(compound, values, rowIds, rowNames, table.get())).sum();
-
-        // nothing in this project belongs to an LC/MS run, so there is nothing to quantify
-        if (quantified == 0)
-            return Optional.empty();
+        if (rowType == QuantRowType.FEATURES) {
+            final int from = pageable.isPaged() ? (int) Math.min(pageable.getOffset(), m.getNumberOfRows()) : 0;
+            final int to = pageable.isPaged() ? Math.min(from + pageable.getPageSize(), m.getNumberOfRows()) : m.getNumberOfRows();
+            final float[] buffer = new float[m.getNumberOfColumns()];
+            for (int row = from; row < to; row++) {
+                rowIds.add(m.getAlignedFeatureId(row));
+                rowNames.add(m.getName(row));
+                values.add(getQuantTableRow(m, type, new int[]{row}, buffer));
+            }
+        } else { //must be COMPOUND
+            try (Stream<de.unijena.bioinf.ms.persistence.model.core.Compound> compounds = pageable.isPaged()
+                    ? storage().findAllStr(de.unijena.bioinf.ms.persistence.model.core.Compound.class, pageable.getOffset(), pageable.getPageSize())
+                    : storage().findAllStr(de.unijena.bioinf.ms.persistence.model.core.Compound.class)) {
+                final float[] buffer = new float[m.getNumberOfColumns()];
+                compounds.forEach(compound -> {
+                    rowIds.add(compound.getCompoundId());
+                    rowNames.add(compound.getName());
+                    values.add(getQuantTableRow(m, type, m.rowsOfCompound(compound.getCompoundId()), buffer));
+                });
+            }
+        }
 
-        table.get().setValues(values.toArray(double[][]::new));
-        table.get().setRowIds(rowIds.toLongArray());
-        table.get().setRowNames(rowNames.toArray(String[]::new));
+        table.setValues(values.toArray(double[][]::new));
+        table.setRowIds(rowIds.toLongArray());
+        table.setRowNames(rowNames.toArray(String[]::new));
 
-        return table;
+        return Optional.of(table);
     }
 
     @SneakyThrows
     @Override
     public Optional<QuantTable> getQuantificationForAlignedFeatureOrCompound(String objectId, QuantMeasure type, QuantRowType rowType) {
-        Optional<QuantTable> table = initQuantTable(type, rowType);
-        if (table.isEmpty())
+        Optional<QuantMatrix> matrix = getQuantMatrix();
+        if (matrix.isEmpty())
             return Optional.empty();
+        QuantMatrix m = matrix.get();
+        QuantTable table = initQuantTable(m, type, rowType);
 
-        List<double[]> values = new ArrayList<>();
-        LongList rowIds = new LongArrayList();
-        List<String> rowNames = new ArrayList<>();
-
+        final long id = Long.parseLong(objectId);
+        final int[] rows;
+        final String name;
         if (rowType == QuantRowType.FEATURES) {
-            Optional<AlignedFeatures> alignedFeature = storage().getByPrimaryKey(Long.parseLong(objectId), AlignedFeatures.class);
-            if (alignedFeature.isEmpty())
-                return Optional.empty();
-
-            if (addToTable(alignedFeature.get(), values, rowIds, rowNames, table.get()) == 0)
+            final int row = m.indexOf(id);
+            if (row < 0)
                 return Optional.empty();
+            rows = new int[]{row};
+            name = m.getName(row);
         } else { //must be COMPOUND
-            Optional<de.unijena.bioinf.ms.persistence.model.core.Compound> compound = storage().getByPrimaryKey(Long.parseLong(objectId), de.unijena.bioinf.ms.persistence.model.core.Compound.class);
+            Optional<de.unijena.bioinf.ms.persistence.model.core.Compound> compound = storage().getByPrimaryKey(id, de.unijena.bioinf.ms.persistence.model.core.Compound.class);
             if (compound.isEmpty())
                 return Optional.empty();
+            rows = m.rowsOfCompound(id);
+            name = compound.get().getName();
+        }
 
-            if (addToTable(compound.get(), values, rowIds, rowNames, table.get()) == 0)
-                return Optional.empty();
+        double[] values = getQuantTableRow(m, type, rows, new float[m.getNumberOfColumns()]);
+        // features without LC/MS information cannot be quantified
+        if (Arrays.stream(values).allMatch(Double::isNaN))
+            return Optional.empty();
+
+        table.setValues(new double[][]{values});
+        table.setRowIds(new long[]{id});
+        table.setRowNames(new String[]{name});
+
+        return Optional.of(table);
+    }
+
+    @Override
+    public void writeQuantification(QuantMeasure type, QuantRowType rowType, @NotNull Writer writer) throws IOException {
+        Optional<QuantMatrix> matrix = getQuantMatrix();
+        if (matrix.isEmpty())
+            return;
+        QuantMatrix m = matrix.get();
+        LCMSRunCache.Samples runs = runCache.getSamples();
+
+        writer.write(rowType == QuantRowType.FEATURES ? "alignedFeatureId,name" : "compoundId,name");
+        for (int c = 0; c < m.getNumberOfColumns(); c++) {
+            writer.write(',');
+            writer.write(csvEscape(runs.name(m.getRunId(c))));
         }
+        writer.write('\n');
 
-        table.get().setValues(values.toArray(double[][]::new));
-        table.get().setRowIds(rowIds.toLongArray());
-        table.get().setRowNames(rowNames.toArray(String[]::new));
+        final float[] buffer = new float[m.getNumberOfColumns()];
+        if (rowType == QuantRowType.FEATURES) {
+            for (int row = 0; row < m.getNumberOfRows(); row++)
+                writeCsvRow(writer, m.getAlignedFeatureId(row), m.getName(row), getQuantTableRow(m, type, new int[]{row}, buffer));
+        } else { //must be COMPOUND
+            try (Stream<de.unijena.bioinf.ms.persistence.model.core.Compound> compounds = storage().findAllStr(de.unijena.bioinf.ms.persistence.model.core.Compound.class)) {
+                for (de.unijena.bioinf.ms.persistence.model.core.Compound compound : (Iterable<de.unijena.bioinf.ms.persistence.model.core.Compound>) compounds::iterator)
+                    writeCsvRow(writer, compound.getCompoundId(), compound.getName(), getQuantTableRow(m, type, m.rowsOfCompound(compound.getCompoundId()), buffer));
+            }
+        }
+        writer.flush();
+    }
 
-        return table;
+    private static void writeCsvRow(Writer writer, long id, String name, double[] values) throws IOException {
+        writer.write(Long.toString(id));
+        writer.write(',');
+        writer.write(csvEscape(name));
+        for (double value : values) {
+            writer.write(',');
+            if (!Double.isNaN(value))
+                writer.write(Double.toString(value));
+        }
+        writer.write('\n');
     }
 
-    private Optional<QuantTable> initQuantTable(QuantMeasure type, QuantRowType rowType) throws IOException {
-        List<LCMSRun> runs = storage().findAllStr(LCMSRun.class, "runId", Database.SortOrder.ASCENDING).toList();
+    private static String csvEscape(@Nullable String value) {
+        if (value == null)
+            return "";
+        if (value.indexOf(',') < 0 && value.indexOf('"') < 0 && value.indexOf('\n') < 0 && value.indexOf('\r') < 0)
+            return value;
+        return '"' + value.replace("\"", "\"\"") + '"';
+    }
 
-        if (runs.isEmpty())
-            return Optional.empty();
+    /**
+     * @return quantification matrix or empty if nothing in this project belongs to an LC/MS run
+     */
+    private Optional<QuantMatrix> getQuantMatrix() throws IOException {
+        return project().getQuantMatrixStore().getMatrix().filter(QuantMatrix::hasValues);
+    }
 
-        long[] runIds = new long[runs.size()];
-        String[] runNames = new String[runs.size()];
-        for (int i = 0; i < runs.size(); i++) {
-            runIds[i] = runs.get(i).getRunId();
-            runNames[i] = runs.get(i).getName();
+    private QuantTable initQuantTable(QuantMatrix matrix, QuantMeasure type, QuantRowType rowType) throws IOException {
+        LCMSRunCache.Samples runs = runCache.getSamples();
+        long[] columnIds = new long[matrix.getNumberOfColumns()];
+        String[] columnNames = new String[columnIds.length];
+        for (int c = 0; c < columnIds.length; c++) {
+            columnIds[c] = matrix.getRunId(c);
+            columnNames[c] = runs.name(columnIds[c]);
         }
 
-        return Optional.of(QuantTable
+        return QuantTable
                 .builder()
                 .rowType(rowType)
                 .quantificationMeasure(type)
-                .columnIds(runIds)
-                .columnNames(runNames)
-                .build()
-        );
+                .columnIds(columnIds)
+                .columnNames(columnNames)
+                .build();
     }
 
     /**
-     * @return the number of features that could be quantified, that is features that belong to an LC/MS run
+     * @return sum of the given matrix rows per run, NaN for runs none of the rows was detected in
      */
-    @SneakyThrows
-    private <T> int addToTable(T parent, List<double[]> values, LongList rowIds, List<String> rowNames, QuantTable table) {
-        Long2ObjectMap<List<Feature>> features = new Long2ObjectOpenHashMap<>();
-        if (parent instanceof AlignedFeatures alignedFeature) {
-            rowIds.add(alignedFeature.getAlignedFeatureId());
-            rowNames.add(alignedFeature.getName());
-
-            storage().findStr(Filter.where("alignedFeatureId").eq(alignedFeature.getAlignedFeatureId()), Feature.class)
-                    // only features with LC/MS information can be quantified per run. Features of a project that
-                    // was imported from preprocessed data have no run, quantifying them would throw an NPE.
-                    .filter(feature -> feature.getRunId() != null)
-                    .forEach(feature -> features.put((long) feature.getRunId(), List.of(feature)));
-        } else if (parent instanceof de.unijena.bioinf.ms.persistence.model.core.Compound compound) {
-            rowIds.add(compound.getCompoundId());
-            rowNames.add(compound.getName());
-
-            storage().findStr(Filter.where("compoundId").eq(compound.getCompoundId()), AlignedFeature.class).forEach(alignedFeature -> {
-                try {
-                    storage().findStr(Filter.where("alignedFeatureId").eq(alignedFeature.getAlignedFeatureId()), Feature.class)
-                            .filter(feature -> feature.getRunId() != null)
-                            .forEach(feature -> features.computeIfAbsent((long) feature.getRunId(), k -> new ArrayList<>()).add(feature));
-                } catch (IOException e) {
-                    throw new RuntimeException(e);
-                }
-            });
-        }
-        values.add(getQuantTableRow(features, table));
-        return features.size();
-    }
-
-    private double[] getQuantTableRow(Long2ObjectMap<List<Feature>> features, QuantTable table) {
-        double[] row = new double[table.getColumnIds().length];
-        for (int i = 0; i < row.length; i++) {
-            if (features.containsKey(table.getColumnIds()[i])) {
-                row[i] = switch (table.getQuantificationMeasure()) {
-                    case APEX_INTENSITY ->
-                            features.get(table.getColumnIds()[i]).stream().mapToDouble(Feature::getApexIntensity).sum();
-                    case AREA_UNDER_CURVE ->
-                            features.get(table.getColumnIds()[i]).stream().mapToDouble(Feature::getAreaUnderCurve).sum();
-                };
-            } else {
-                row[i] = Double.NaN;
+    private static double[] getQuantTableRow(QuantMatrix matrix, QuantMeasure type, int[] rows, float[] buffer) {
+        double[] row = new double[matrix.getNumberOfColumns()];
+        Arrays.fill(row, Double.NaN);
+        for (int r : rows) {
+            matrix.getRow(type, r, buffer);
+            for (int c = 0; c < row.length; c++) {
+                if (!Float.isNaN(buffer[c]))
+                    row[c] = Double.isNaN(row[c]) ? buffer[c] : row[c] + buffer[c];
             }
         }
         return row;
@@ -307,30 +349,16 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
         List<Feature> features = feature.getFeatures().stream().flatMap(List::stream).filter(x -> x.getApexIntensity() != null).toList();
 
         // get all samples in the project
-        List<LCMSRun> allSamples = storage.findAllStr(LCMSRun.class, "runId", Database.SortOrder.ASCENDING).toList();
-        long[] allSampleIds = allSamples.stream().mapToLong(AbstractLCMSRun::getRunId).toArray();
-        // generate colors
-        List<Color> allColors = ColorGenerator.generateColors(allSamples.size());
-
-        List<LCMSRun> samples = new ArrayList<>();
-        List<Color> colors = new ArrayList<>();
-        for (int k = 0; k < features.size(); ++k) {
-            int index = Arrays.binarySearch(allSampleIds, features.get(k).getRunId());
-            samples.add(index >= 0 ? allSamples.get(index) : null);
-            colors.add(index >= 0 ? allColors.get(index) : null);
-            if (index >= 0)
-                storage.fetchChild(samples.get(k), "runId", "retentionTimeAxis", RetentionTimeAxis.class);
-        }
+        LCMSRunCache.Samples allSamples = runCache.getSamples();
 
-        MergedLCMSRun merged = storage.getByPrimaryKey(feature.getRunId(), MergedLCMSRun.class).orElse(null);
+        MergedLCMSRun merged = runCache.getMergedRun(feature.getRunId()).orElse(null);
         if (merged == null) return Optional.empty();
-        storage.fetchChild(merged, "runId", "retentionTimeAxis", RetentionTimeAxis.class);
         if (merged.getRetentionTimeAxis().isEmpty()) return Optional.empty();
         RetentionTimeAxis mergedAxis = merged.getRetentionTimeAxis().get();
         TraceSet traceSet = new TraceSet();
 
         TraceRef ref = feature.getTraceRef();
-        Optional<MergedTrace> maybeMergedTrace = storage.getByPrimaryKey(ref.getTraceId(), MergedTrace.class);
+        Optional<MergedTrace> maybeMergedTrace = project().getMergedTrace(ref.getTraceId());
         if (maybeMergedTrace.isEmpty()) return Optional.empty();
         MergedTrace mergedTrace = maybeMergedTrace.get();
 
@@ -372,40 +400,27 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
             Optional<RawTraceRef> traceReference = features.get(k).getTraceReference();
             if (traceReference.isPresent()) {
                 RawTraceRef r = traceReference.get();
-                Optional<SourceTrace> sourceTrace = storage.getByPrimaryKey(r.getTraceId(), SourceTrace.class);
+                // this should never happen. Just in case the single trace appears before the merged trace
+                // we cut it of
+                Optional<TraceStore.TraceWindow> sourceTrace = project().getTraceIntensities(r.getTraceId(), firstTraceId, Integer.MAX_VALUE);
                 if (sourceTrace.isPresent()) {
                     // remap trace
-                    FloatList intensities = sourceTrace.get().getIntensities();
-                    int offset = sourceTrace.get().getScanIndexOffset();
-
-                    int len = intensities.size();
-                    int startIdx = 0, shift = 0;
-                    // this should never happen. Just in case the single trace appears before the merged trace
-                    // we cut it of
-                    if (offset < firstTraceId) {
-                        startIdx = firstTraceId - offset;
-                        shift = 0;
-                        len -= startIdx;
-                    }
-
+                    FloatBuffer intensities = sourceTrace.get().intensities();
                     // this might happen from time to time
-                    if (offset > firstTraceId) {
-                        startIdx = 0;
-                        shift = offset - firstTraceId;
-                        len += shift;
-                    }
+                    int shift = sourceTrace.get().scanIndexOffset() - firstTraceId;
 
-                    double[] vec = new double[len];
-                    for (int i = startIdx; i < intensities.size(); ++i) {
-                        vec[i + shift] = intensities.getFloat(i);
+                    double[] vec = new double[intensities.remaining() + shift];
+                    for (int i = 0; i < intensities.remaining(); ++i) {
+                        vec[i + shift] = intensities.get(i);
                     }
 
                     TraceSet.Trace trace = new TraceSet.Trace();
                     trace.setId(String.valueOf(features.get(k).getFeatureId()));
                     trace.setSampleId(String.valueOf(features.get(k).getRunId()));
-                    trace.setSampleName(samples.get(k) == null ? "unknown" : samples.get(k).getName());
+                    String sampleName = allSamples.name(features.get(k).getRunId());
+                    trace.setSampleName(sampleName == null ? "unknown" : sampleName);
 
-                    trace.setColor(ColorGenerator.colorToCss(colors.get(k)));
+                    trace.setColor(allSamples.color(features.get(k).getRunId()));
 
                     trace.setIntensities(vec);
                     trace.setLabel(trace.getSampleName());
@@ -427,9 +442,9 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
                         }
                     }
                     trace.setAnnotations(annotations.toArray(TraceSet.Annotation[]::new));
-                    RetentionTimeAxis axis = samples.get(k).getRetentionTimeAxis().get();
-                    trace.setNormalizationFactor(axis.getNormalizationFactor());
-                    trace.setNoiseLevel((double) axis.getNoiseLevelPerScan()[r.getRawScanIndexOfset() + r.getRawApex()]);
+                    LCMSRunCache.SampleAxis axis = runCache.getSampleAxis(features.get(k).getRunId()).orElseThrow();
+                    trace.setNormalizationFactor(axis.normalizationFactor());
+                    trace.setNoiseLevel((double) axis.noiseLevelPerScan()[r.getRawScanIndexOfset() + r.getRawApex()]);
                     traces.add(trace);
                 }
             }
@@ -462,14 +477,13 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
         if (maybeMainFeature.isEmpty()) return Optional.empty();
         AlignedFeatures mainFeature = maybeMainFeature.get();
         if (mainFeature.getTraceReference().isEmpty()) return Optional.empty(); // no trace information available
-        Optional<MergedTrace> maybeMergedTrace = storage.getByPrimaryKey(mainFeature.getTraceRef().getTraceId(), MergedTrace.class);
+        Optional<MergedTrace> maybeMergedTrace = project().getMergedTrace(mainFeature.getTraceRef().getTraceId());
         if (maybeMergedTrace.isEmpty()) return Optional.empty(); // no trace information available
 
         TraceSet traceSet = new TraceSet();
         IntArrayList offsets = new IntArrayList();
-        MergedLCMSRun merged = storage.getByPrimaryKey(mainFeature.getRunId(), MergedLCMSRun.class).orElse(null);
+        MergedLCMSRun merged = runCache.getMergedRun(mainFeature.getRunId()).orElse(null);
         if (merged == null) return Optional.empty();
-        storage.fetchChild(merged, "runId", "retentionTimeAxis", RetentionTimeAxis.class);
         if (merged.getRetentionTimeAxis().isEmpty()) return Optional.empty();
         RetentionTimeAxis retentionTimeAxis = merged.getRetentionTimeAxis().get();
         ArrayList<TraceSet.Trace> traces = new ArrayList<>();
@@ -485,7 +499,7 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
             for (AlignedIsotopicFeatures g : mainFeature.getIsotopicFeatures().orElse(Collections.emptyList())) {
                 Optional<MergedTrace> isotopicTrace = Optional.empty();
                 if (g.getTraceReference().isPresent()) {
-                    isotopicTrace = storage.getByPrimaryKey(g.getTraceReference().get().getTraceId(), MergedTrace.class);
+                    isotopicTrace = project().getMergedTrace(g.getTraceReference().get().getTraceId());
                 }
                 if (isotopicTrace.isPresent()) {
                     traces.add(TraceSet.Trace.of("[ISOTOPE]", merged, g, isotopicTrace.get(), retentionTimeAxis));
@@ -503,7 +517,7 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
                 AdductNetwork network = maybeNetwork.get();
                 for (AdductNode node : network.getNodes()) {
                     if (node.getAlignedFeatureId() == mainFeature.getAlignedFeatureId()) continue;
-                    Optional<MergedTrace> tr = storage.getByPrimaryKey(node.getTraceId(), MergedTrace.class);
+                    Optional<MergedTrace> tr = project().getMergedTrace(node.getTraceId());
                     Optional<AlignedFeatures> fr = storage.getByPrimaryKey(node.getAlignedFeatureId(), AlignedFeatures.class);
                     if (tr.isPresent() && fr.isPresent()) {
                         traces.add(TraceSet.Trace.of(String.format(Locale.US, "[CORRELATED] m/z = %.4f", fr.get().getAverageMass()), merged, fr.get(), tr.get(), retentionTimeAxis));
@@ -513,7 +527,7 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
                         for (AlignedIsotopicFeatures g : fr.get().getIsotopicFeatures().orElse(Collections.emptyList())) {
                             Optional<MergedTrace> isotopicTrace = Optional.empty();
                             if (g.getTraceReference().isPresent()) {
-                                isotopicTrace = storage.getByPrimaryKey(g.getTraceReference().get().getTraceId(), MergedTrace.class);
+                                isotopicTrace = project().getMergedTrace(g.getTraceReference().get().getTraceId());
                             }
                             if (isotopicTrace.isPresent()) {
                                 traces.add(TraceSet.Trace.of("[CORRELATED][ISOTOPE]", merged, g, isotopicTrace.get(), retentionTimeAxis));
@@ -560,15 +574,14 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
         final AlignedFeatures mainFeature = maybeFeature.get();
 
         // now get the corresponding merged trace
-        MergedLCMSRun merged = storage.getByPrimaryKey(mainFeature.getRunId(), MergedLCMSRun.class).orElse(null);
+        MergedLCMSRun merged = runCache.getMergedRun(mainFeature.getRunId()).orElse(null);
         if (merged == null) return Optional.empty();
-        storage.fetchChild(merged, "runId", "retentionTimeAxis", RetentionTimeAxis.class);
         if (merged.getRetentionTimeAxis().isEmpty()) return Optional.empty();
         RetentionTimeAxis mergedAxis = merged.getRetentionTimeAxis().get();
         TraceSet traceSet = new TraceSet();
 
         TraceRef ref = mainFeature.getTraceRef();
-        Optional<MergedTrace> maybeMergedTrace = storage.getByPrimaryKey(ref.getTraceId(), MergedTrace.class);
+        Optional<MergedTrace> maybeMergedTrace = project().getMergedTrace(ref.getTraceId());
         if (maybeMergedTrace.isEmpty()) return Optional.empty();
         MergedTrace mergedTrace = maybeMergedTrace.get();
 
@@ -584,32 +597,24 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
         // only use features with LC/MS information
         //List<Feature> features = feature.getFeatures().stream().flatMap(List::stream).filter(x -> x.getApexIntensity() != null).toList();
 
-        HashMap<Long, LCMSRun> samples = new HashMap<>();
+        HashSet<Long> samples = new HashSet<>();
         HashMap<Long, SourceTrace> sources = new HashMap<>();
         HashMap<Long, Set<Long>> sample2sources = new HashMap<>();
 
         // get all samples in the project
-        long[] allSampleIds = storage.findAllStr(LCMSRun.class, "runId", Database.SortOrder.ASCENDING).mapToLong(LCMSRun::getRunId).toArray();
-        // generate colors
-        List<Color> allColors = ColorGenerator.generateColors(allSampleIds.length);
+        LCMSRunCache.Samples allSamples = runCache.getSamples();
 
         HashMap<Long, List<Feature>> sample2Feature = new HashMap<>();
         for (int k = 0; k < allMergedFeatures.size(); ++k) {
             for (Feature sampleFeature : allMergedFeatures.get(k).getFeatures().orElse(Collections.emptyList())) {
                 if (sampleFeature.getRunId() != null) {
                     sample2Feature.computeIfAbsent(sampleFeature.getRunId(), (x) -> new ArrayList<>()).add(sampleFeature);
-                    samples.computeIfAbsent(sampleFeature.getRunId(), (key) -> {
-                        try {
-                            return storage.getByPrimaryKey(key, LCMSRun.class).orElse(null);
-                        } catch (IOException e) {
-                            throw new RuntimeException(e);
-                        }
-                    });
+                    samples.add(sampleFeature.getRunId());
                     Long tr = sampleFeature.getTraceReference().map(TraceRef::getTraceId).orElse(null);
                     if (tr != null) {
                         sources.computeIfAbsent(tr, (key) -> {
                             try {
-                                return storage.getByPrimaryKey(key, SourceTrace.class).orElse(null);
+                                return project().getSourceTrace(key).orElse(null);
                             } catch (IOException e) {
                                 throw new RuntimeException(e);
                             }
@@ -620,10 +625,6 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
                 }
             }
         }
-        for (LCMSRun r : samples.values()) {
-            storage.fetchChild(r, "runId", "retentionTimeAxis", RetentionTimeAxis.class);
-        }
-
         Long2ObjectOpenHashMap<IntArrayList> ms2annotations = new Long2ObjectOpenHashMap<>();
 
         mainFeature.getMSData().ifPresent(x -> {
@@ -664,7 +665,7 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
             traces.add(mergedtrace);
         }
         final TraceSet.Trace primaryTrace = traces.get(0);
-        Long[] sampleKeys = samples.keySet().toArray(Long[]::new);
+        Long[] sampleKeys = samples.toArray(Long[]::new);
 
         for (long sampleKey : sampleKeys) {
             List<SourceTrace> sourceTraces = sample2sources.getOrDefault(sampleKey, Collections.emptySet()).stream().map(sources::get).toList();
@@ -686,10 +687,10 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
             TraceSet.Trace trace = new TraceSet.Trace();
             trace.setId("-1");
             trace.setSampleId(String.valueOf(sampleKey));
-            trace.setSampleName(samples.get(sampleKey) == null ? "unknown" : samples.get(sampleKey).getName());
+            String sampleName = allSamples.name(sampleKey);
+            trace.setSampleName(sampleName == null ? "unknown" : sampleName);
 
-            int colorIndex = Arrays.binarySearch(allSampleIds, sampleKey);
-            trace.setColor(colorIndex >= 0 ? ColorGenerator.colorToCss(allColors.get(colorIndex)) : null);
+            trace.setColor(allSamples.color(sampleKey));
 
             trace.setIntensities(traceIntensities);
             trace.setLabel(trace.getSampleName());
@@ -719,8 +720,8 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
                 }
             }
             trace.setAnnotations(annotations.toArray(TraceSet.Annotation[]::new));
-            RetentionTimeAxis axis = samples.get(sampleKey).getRetentionTimeAxis().get();
-            trace.setNormalizationFactor(axis.getNormalizationFactor());
+            LCMSRunCache.SampleAxis axis = runCache.getSampleAxis(sampleKey).orElseThrow();
+            trace.setNormalizationFactor(axis.normalizationFactor());
             trace.setNoiseLevel(/*(double) axis.getNoiseLevelPerScan()[mainFeature.getTraceRef().absoluteApexId()]*/0d); // this value makes no sense for projected anyways
             traces.add(trace);
         }
@@ -782,9 +783,8 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
         if (allFeatures.isEmpty()) return Optional.empty();
 
         TraceSet traceSet = new TraceSet();
-        MergedLCMSRun merged = storage.getByPrimaryKey(allFeatures.get(0).getRunId(), MergedLCMSRun.class).orElse(null);
+        MergedLCMSRun merged = runCache.getMergedRun(allFeatures.get(0).getRunId()).orElse(null);
         if (merged == null) return Optional.empty();
-        storage.fetchChild(merged, "runId", "retentionTimeAxis", RetentionTimeAxis.class);
         if (merged.getRetentionTimeAxis().isEmpty()) return Optional.empty();
 
         traceSet.setSampleId(String.valueOf(merged.getRunId()));
@@ -801,7 +801,7 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
             AbstractAlignedFeatures f = allFeatures.get(k);
             String label = labels.get(k);
             TraceRef r = f.getTraceRef();
-            MergedTrace mergedTrace = storage.getByPrimaryKey(r.getTraceId(), MergedTrace.class).orElse(null);
+            MergedTrace mergedTrace = project().getMergedTrace(r.getTraceId()).orElse(null);
             if (mergedTrace == null) continue;
             maximumIndex = Math.max(maximumIndex, mergedTrace.getScanIndexOffset() + mergedTrace.getIntensities().size());
             TraceSet.Trace trace = new TraceSet.Trace();
@@ -1560,14 +1560,16 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
     public <T, O extends Enum<O>> Page<T> findObjectsByTagFilter(Class<?> target, @NotNull String luceneQuery, Pageable pageable, @NotNull EnumSet<O> optFields) {
         Class<?> taggedObjectClass = convertToProjectObjectClass(target);
 
-        // find id field of tagged object.
-        AtomicReference<String> fieldName = new AtomicReference<>(null);
-        ReflectionUtils.doWithFields(
-                taggedObjectClass,
-                field -> fieldName.set(field.getName()),
-                field -> field.getAnnotation(Id.class) != null);
-        if (fieldName.get() == null)
-            throw new ResponseStatusException(INTERNAL_SERVER_ERROR, "No @Id field in " + taggedObjectClass);
+        Optional<Page<Long>> indexedIds;
+        try {
+            indexedIds = searchService.findObjectIds(getProjectId(), taggedObjectClass, luceneQuery, pageable);
+        } catch (QueryNodeException | IllegalArgumentException e) {
+            throw new ResponseStatusException(BAD_REQUEST, "Parse error: " + luceneQuery);
+        }
+        if (indexedIds.isPresent()) {
+            Page<Long> ids = indexedIds.get();
+            return new PageImpl<>((List<T>) findObjectsByIds(taggedObjectClass, ids.getContent(), optFields), pageable, ids.getTotalElements());
+        }
 
         Filter tagFilter;
         try {
@@ -1577,13 +1579,60 @@ public class NoSQLProjectImpl implements Project<NoSQLProjectSpaceManager> {
         }
 
         Long[] objectIds = storage().findStr(tagFilter, de.unijena.bioinf.ms.persistence.model.core.tags.Tag.class)
-                .map(de.unijena.bioinf.ms.persistence.model.core.tags.Tag::getTaggedObjectId).toArray(Long[]::new);
+                .map(de.unijena.bioinf.ms.persistence.model.core.tags.Tag::getTaggedObjectId).distinct().toArray(Long[]::new);
 
         if (objectIds.length == 0)
             return Page.empty();
 
-        Filter objectFilter = Filter.where(fieldName.get()).in(objectIds);
-        return (Page<T>) findRunsByFilter(pageable, objectFilter, (EnumSet<Run.OptField>) optFields);
+        if (taggedObjectClass.equals(LCMSRun.class))
+            return (Page<T>) findRunsByFilter(pageable, Filter.where(idFieldOf(taggedObjectClass)).in(objectIds), (EnumSet<Run.OptField>) optFields);
+
+        // without search index, other objects are paginated in id order
+        Arrays.sort(objectIds);
+        List<Long> ids = Arrays.asList(objectIds);
+        if (pageable.isPaged())
+            ids = ids.subList((int) Math.min(ids.size(), pageable.getOffset()), (int) Math.min(ids.size(), pageable.getOffset() + pageable.getPageSize()));
+        return new PageImpl<>((List<T>) findObjectsByIds(taggedObjectClass, ids, optFields), pageable, objectIds.length);
+    }
+
+    /**
+     * @return api objects for the given ids of runs, compounds or aligned features in the order of the ids.
+     */
+    @SuppressWarnings("unchecked")
+    private List<?> findObjectsByIds(Class<?> projectObjectClass, List<Long> ids, EnumSet<?> optFields) throws IOException {
+        if (ids.isEmpty())
+            return List.of();
+
+        Long2IntMap order = new Long2IntOpenHashMap(ids.size());
+        for (int i = 0; i < ids.size(); i++)
+            order.put(ids.get(i).longValue(), i);
+        Filter filter = Filter.where(idFieldOf(projectObjectClass)).in(ids.toArray(Long[]::new));
+
+        if (projectObjectClass.equals(LCMSRun.class))
+            return storage().findStr(filter, LCMSRun.class)
+                    .sorted(Comparator.comparingInt(run -> order.get(run.getRunId())))
+                    .map(run -> convertToApiRun(run, (EnumSet<Run.OptField>) optFields)).toList();
+
+        if (projectObjectClass.equals(AlignedFeatures.class))
+            return storage().findStr(filter, AlignedFeatures.class)
+                    .sorted(Comparator.comparingInt(f -> order.get(f.getAlignedFeatureId())))
+                    .map(f -> convertToApiFeature(f, false, (EnumSet<AlignedFeature.OptField>) optFields)).toList();
+
+        return storage().findStr(filter, de.unijena.bioinf.ms.persistence.model.core.Compound.class)
+                .sorted(Comparator.comparingInt(c -> order.get(c.getCompoundId())))
+                .peek(project()::fetchAdductFeatures)
+                .map(c -> convertToApiCompound(c, false, (EnumSet<Compound.OptField>) optFields, EnumSet.of(AlignedFeature.OptField.none))).toList();
+    }
+
+    private String idFieldOf(Class<?> projectObjectClass) {
+        AtomicReference<String> fieldName = new AtomicReference<>(null);
+        ReflectionUtils.doWithFields(
+                projectObjectClass,
+                field -> fieldName.set(field.getName()),
+                field -> field.getAnnotation(Id.class) != null);
+        if (fieldName.get() == null)
+            throw new ResponseStatusException(INTERNAL_SERVER_ERROR, "No @Id field in " + projectObjectClass);
+        return fieldName.get();
     }
 
     private Class<?> convertToProjectObjectClass(Class<?> taggable) {
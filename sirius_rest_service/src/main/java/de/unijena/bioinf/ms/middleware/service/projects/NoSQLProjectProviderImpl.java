@@ -88,6 +88,13 @@ public class NoSQLProjectProviderImpl extends ProjectSpaceManagerProvider<NoSQLP
         }
     }
 
+    @Override
+    public void closeProjectSpace(String projectId) throws IOException {
+        super.closeProjectSpace(projectId);
+        if (searchService != null)
+            searchService.closeProject(projectId);
+    }
+
     @SneakyThrows
     @Override
     protected void registerEventListeners(@NotNull String id, @NotNull NoSQLProjectSpaceManager psm) {
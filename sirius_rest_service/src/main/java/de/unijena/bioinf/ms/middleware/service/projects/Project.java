@@ -40,6 +40,8 @@ import org.jetbrains.annotations.Nullable;
 import org.springframework.data.domain.Page;
 import org.springframework.data.domain.Pageable;
 
+import java.io.IOException;
+import java.io.Writer;
 import java.util.*;
 
 import static de.unijena.bioinf.ms.middleware.service.annotations.AnnotationUtils.toEnumSet;
@@ -52,7 +54,20 @@ public interface Project<PSM extends ProjectSpaceManager> {
     @NotNull
     PSM getProjectSpaceManager();
 
-    Optional<QuantTable> getQuantification(QuantMeasure type, QuantRowType rowType);
+    default Optional<QuantTable> getQuantification(QuantMeasure type, QuantRowType rowType) {
+        return getQuantification(type, rowType, Pageable.unpaged());
+    }
+
+    /**
+     * @return quantification table containing only the rows of the requested page
+     */
+    Optional<QuantTable> getQuantification(QuantMeasure type, QuantRowType rowType, @NotNull Pageable pageable);
+
+    /**
+     * Streams the full quantification table as CSV with one row per feature or compound and one column per run.
+     * Missing values are empty cells. Nothing is written if there is no quantification information.
+     */
+    void writeQuantification(QuantMeasure type, QuantRowType rowType, @NotNull Writer writer) throws IOException;
 
     Optional<QuantTable> getQuantificationForAlignedFeatureOrCompound(String objectId, QuantMeasure type, QuantRowType rowType);
 
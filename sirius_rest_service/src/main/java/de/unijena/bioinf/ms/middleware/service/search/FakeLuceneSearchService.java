@@ -8,6 +8,7 @@ import de.unijena.bioinf.storage.db.nosql.Filter;
 import lombok.Getter;
 import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
 import org.apache.lucene.queryparser.flexible.standard.StandardQueryParser;
+import org.apache.lucene.search.Query;
 
 import java.io.IOException;
 import java.util.*;
@@ -99,6 +100,15 @@ public class FakeLuceneSearchService implements SearchService {
         }
     }
 
+    protected ProjectSearchContext getProjectSearchContext(String projectId) {
+        projectSpaceLock.readLock().lock();
+        try {
+            return projectSearchContexts.get(projectId);
+        } finally {
+            projectSpaceLock.readLock().unlock();
+        }
+    }
+
     public static class ProjectSearchContext {
         private final Map<String, TagDefinition> tagDefinitions;
         @Getter
@@ -125,7 +135,7 @@ public class FakeLuceneSearchService implements SearchService {
         public TagDefinition removeTagDefinition(String tagName) {
             lock.writeLock().lock();
             try {
-                parser.getPointsConfigMap().remove(tagName);
+                parser.getPointsConfigMap().remove(LuceneUtils.TAG_FIELD_PREFIX + tagName);
                 return tagDefinitions.remove(tagName);
             } finally {
                 lock.writeLock().unlock();
@@ -141,6 +151,15 @@ public class FakeLuceneSearchService implements SearchService {
             }
         }
 
+        public Query parseQuery(String luceneQuery) throws QueryNodeException {
+            lock.readLock().lock();
+            try {
+                return parser.parse(luceneQuery, LuceneUtils.TEXT_FIELD);
+            } finally {
+                lock.readLock().unlock();
+            }
+        }
+
         public TagDefinition getTagDefinition(String tagName) {
             lock.readLock().lock();
             try {
@@ -0,0 +1,88 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2024 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.middleware.service.search;
+
+import de.unijena.bioinf.ms.persistence.storage.SiriusProjectDatabaseImpl;
+import de.unijena.bioinf.storage.db.nosql.Database;
+import lombok.SneakyThrows;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
+
+import java.io.IOException;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * {@link SearchService} that additionally keeps a {@link ProjectSearchIndex} per project. Objects are searched by
+ * tags, names, m/z and retention time, top formula and structure annotations and confidence via lucene query syntax
+ * and sorted and paginated by the index, so filtering does not need to scan the project.
+ * Tag definitions and tag group queries are handled like in {@link FakeLuceneSearchService}.
+ */
+@Slf4j
+public class LuceneSearchService extends FakeLuceneSearchService {
+    private final Map<String, ProjectSearchIndex> indices = new ConcurrentHashMap<>();
+
+    @SneakyThrows
+    @Override
+    public void indexProject(String projectId, SiriusProjectDatabaseImpl<? extends Database<?>> project) {
+        super.indexProject(projectId, project);
+        ProjectSearchIndex old = indices.put(projectId, new ProjectSearchIndex(project.getStorage()));
+        if (old != null)
+            old.close();
+    }
+
+    @Override
+    public void closeProject(String projectId) {
+        super.closeProject(projectId);
+        ProjectSearchIndex index = indices.remove(projectId);
+        if (index != null) {
+            try {
+                index.close();
+            } catch (IOException e) {
+                log.warn("Error when closing search index of project '{}'.", projectId, e);
+            }
+        }
+    }
+
+    @Override
+    public boolean removeTagDefinition(String projectId, String tagName) {
+        boolean removed = super.removeTagDefinition(projectId, tagName);
+        // a new tag with the same name may have a different value type
+        if (removed)
+            Optional.ofNullable(indices.get(projectId)).ifPresent(ProjectSearchIndex::invalidate);
+        return removed;
+    }
+
+    @Override
+    public Optional<Page<Long>> findObjectIds(String projectId, Class<?> objectClass, String luceneFilterQuery, Pageable pageable) throws QueryNodeException, IOException {
+        ProjectSearchIndex index = indices.get(projectId);
+        ProjectSearchContext context = getProjectSearchContext(projectId);
+        if (index == null || context == null)
+            return Optional.empty();
+        Query query = luceneFilterQuery == null || luceneFilterQuery.isBlank() ? new MatchAllDocsQuery() : context.parseQuery(luceneFilterQuery);
+        return index.search(objectClass, query, pageable);
+    }
+}
@@ -0,0 +1,410 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2024 Bright Giant GmbH
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS.
+ *  If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.ms.middleware.service.search;
+
+import de.unijena.bioinf.ChemistryBase.chem.RetentionTime;
+import de.unijena.bioinf.ms.persistence.model.core.Compound;
+import de.unijena.bioinf.ms.persistence.model.core.feature.AlignedFeatures;
+import de.unijena.bioinf.ms.persistence.model.core.run.LCMSRun;
+import de.unijena.bioinf.ms.persistence.model.core.tags.Tag;
+import de.unijena.bioinf.ms.persistence.model.sirius.CsiStructureMatch;
+import de.unijena.bioinf.ms.persistence.model.sirius.CsiStructureSearchResult;
+import de.unijena.bioinf.ms.persistence.model.sirius.FormulaCandidate;
+import de.unijena.bioinf.storage.db.nosql.Database;
+import de.unijena.bioinf.storage.db.nosql.Filter;
+import lombok.extern.slf4j.Slf4j;
+import org.apache.lucene.document.*;
+import org.apache.lucene.index.DirectoryReader;
+import org.apache.lucene.index.IndexWriter;
+import org.apache.lucene.index.IndexWriterConfig;
+import org.apache.lucene.index.StoredFields;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.*;
+import org.apache.lucene.store.ByteBuffersDirectory;
+import org.apache.lucene.util.BytesRef;
+import org.jetbrains.annotations.NotNull;
+import org.jetbrains.annotations.Nullable;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageImpl;
+import org.springframework.data.domain.Pageable;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.function.Consumer;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+import static de.unijena.bioinf.ms.middleware.service.lucene.LuceneUtils.*;
+
+/**
+ * In memory lucene index of the runs, compounds and aligned features of one project with their tags and
+ * their top formula and structure annotation. Each object is one document, identified by its class and id.
+ * <p>
+ * The index is built on the first search. Afterward, storage listeners only collect the keys of changed objects,
+ * which are re-indexed before the next search. Listeners never block, because they may be called while the database is locked.
+ * <p>
+ * The index is intentionally not persisted next to the project. It only holds data derived from the project and is
+ * built in a single pass over runs, compounds, features, tags and top annotations, which is cheap compared to opening
+ * and reading the project. A persisted index would also be stale whenever the project was modified while no index was
+ * attached (e.g. by the command line tools), which cannot be detected reliably from the project file.
+ */
+@Slf4j
+class ProjectSearchIndex implements Closeable {
+    private static final String KEY_FIELD = "_key";
+    private static final String TYPE_FIELD = "_type";
+    private static final String ID_FIELD = "_id";
+    private static final String NAME_SORT_FIELD = "_name";
+
+    /**
+     * Re-indexing an object needs several lookups, so for larger changes rebuilding the whole index is faster.
+     */
+    private static final int MAX_INCREMENTAL_UPDATES = 1000;
+
+    private static final List<Class<?>> INDEXED_CLASSES = List.of(LCMSRun.class, Compound.class, AlignedFeatures.class);
+
+    private record Key(Class<?> type, long id) {
+        String term() {
+            return type.getName() + ":" + id;
+        }
+    }
+
+    private final Database<?> storage;
+    private final List<Map.Entry<Class<?>, Long>> listenerIds = new ArrayList<>();
+    private final Set<Key> changed = ConcurrentHashMap.newKeySet();
+    private volatile boolean rebuild = true;
+
+    private IndexWriter writer;
+    private DirectoryReader reader;
+
+    ProjectSearchIndex(@NotNull Database<?> storage) throws IOException {
+        this.storage = storage;
+        listen(LCMSRun.class, run -> markChanged(LCMSRun.class, run.getRunId()));
+        listen(Compound.class, compound -> markChanged(Compound.class, compound.getCompoundId()));
+        listen(AlignedFeatures.class, feature -> markChanged(AlignedFeatures.class, feature.getAlignedFeatureId()));
+        listen(FormulaCandidate.class, candidate -> markChanged(AlignedFeatures.class, candidate.getAlignedFeatureId()));
+        listen(CsiStructureMatch.class, match -> markChanged(AlignedFeatures.class, match.getAlignedFeatureId()));
+        listen(CsiStructureSearchResult.class, result -> markChanged(AlignedFeatures.class, result.getAlignedFeatureId()));
+        listen(Tag.class, tag -> INDEXED_CLASSES.stream()
+                .filter(c -> c.getName().equals(tag.getTaggedObjectClass()))
+                .findFirst().ifPresent(c -> markChanged(c, tag.getTaggedObjectId())));
+    }
+
+    private <T> void listen(Class<T> clazz, Consumer<T> listener) throws IOException {
+        listenerIds.add(Map.entry(clazz, storage.onInsert(clazz, listener)));
+        listenerIds.add(Map.entry(clazz, storage.onUpdate(clazz, listener)));
+        listenerIds.add(Map.entry(clazz, storage.onRemove(clazz, listener)));
+    }
+
+    private void markChanged(Class<?> type, long id) {
+        if (!rebuild)
+            changed.add(new Key(type, id));
+    }
+
+    /**
+     * Drops the index such that it is built from scratch on the next search, e.g. if a tag changed its value type.
+     */
+    void invalidate() {
+        rebuild = true;
+    }
+
+    /**
+     * @return ids of the objects of the given class matching the query for the requested page, or empty if the requested
+     * sort order is not supported by the index.
+     */
+    synchronized Optional<Page<Long>> search(@NotNull Class<?> type, @NotNull Query query, @NotNull Pageable pageable) throws IOException {
+        Optional<Sort> sort = translateSort(type, pageable.getSort());
+        if (sort.isEmpty())
+            return Optional.empty();
+
+        refresh();
+        IndexSearcher searcher = new IndexSearcher(reader);
+        Query typedQuery = new BooleanQuery.Builder()
+                .add(new TermQuery(new Term(TYPE_FIELD, type.getName())), BooleanClause.Occur.FILTER)
+                .add(query, BooleanClause.Occur.MUST)
+                .build();
+
+        int total = searcher.count(typedQuery);
+        if (total == 0 || (pageable.isPaged() && pageable.getOffset() >= total))
+            return Optional.of(new PageImpl<>(List.of(), pageable, total));
+
+        int offset = pageable.isPaged() ? (int) pageable.getOffset() : 0;
+        int limit = pageable.isPaged() ? (int) Math.min(total, pageable.getOffset() + pageable.getPageSize()) : total;
+        TopFieldDocs hits = searcher.search(typedQuery, limit, sort.get(), false);
+        StoredFields storedFields = searcher.storedFields();
+        List<Long> ids = new ArrayList<>(Math.max(0, hits.scoreDocs.length - offset));
+        for (int i = offset; i < hits.scoreDocs.length; i++)
+            ids.add(storedFields.document(hits.scoreDocs[i].doc).getField(ID_FIELD).numericValue().longValue());
+
+        return Optional.of(new PageImpl<>(ids, pageable, total));
+    }
+
+    private void refresh() throws IOException {
+        if (rebuild || changed.size() > MAX_INCREMENTAL_UPDATES) {
+            buildIndex();
+            return;
+        }
+        if (changed.isEmpty())
+            return;
+
+        Iterator<Key> it = changed.iterator();
+        while (it.hasNext()) {
+            Key key = it.next();
+            it.remove();
+            Optional<Document> doc = loadDocument(key);
+            if (doc.isPresent())
+                writer.updateDocument(new Term(KEY_FIELD, key.term()), doc.get());
+            else
+                writer.deleteDocuments(new Term(KEY_FIELD, key.term()));
+        }
+        DirectoryReader newReader = DirectoryReader.openIfChanged(reader, writer);
+        if (newReader != null) {
+            reader.close();
+            reader = newReader;
+        }
+    }
+
+    private void buildIndex() throws IOException {
+        long start = System.currentTimeMillis();
+        closeIndex();
+        // changes that happen while building are applied on the next search
+        rebuild = false;
+        changed.clear();
+
+        writer = new IndexWriter(new ByteBuffersDirectory(), new IndexWriterConfig(makeDefaultAnalyzer()).setOpenMode(IndexWriterConfig.OpenMode.CREATE));
+        try {
+            Map<Key, List<Tag>> tags = storage.findAllStr(Tag.class)
+                    .collect(Collectors.groupingBy(tag -> new Key(classOf(tag), tag.getTaggedObjectId())));
+            Map<Long, FormulaCandidate> topFormulas = storage.findStr(Filter.where("formulaRank").eq(1), FormulaCandidate.class)
+                    .collect(Collectors.toMap(FormulaCandidate::getAlignedFeatureId, Function.identity(), (a, b) -> a));
+            Map<Long, CsiStructureMatch> topStructures = storage.findStr(Filter.where("structureRank").eq(1), CsiStructureMatch.class)
+                    .collect(Collectors.toMap(CsiStructureMatch::getAlignedFeatureId, Function.identity(), (a, b) -> a));
+            Map<Long, CsiStructureSearchResult> structureSearchResults = storage.findAllStr(CsiStructureSearchResult.class)
+                    .collect(Collectors.toMap(CsiStructureSearchResult::getAlignedFeatureId, Function.identity(), (a, b) -> a));
+
+            for (LCMSRun run : storage.findAllStr(LCMSRun.class).toList()) {
+                Key key = new Key(LCMSRun.class, run.getRunId());
+                writer.addDocument(runDocument(key, run, tags.getOrDefault(key, List.of())));
+            }
+            for (Compound compound : storage.findAllStr(Compound.class).toList()) {
+                Key key = new Key(Compound.class, compound.getCompoundId());
+                writer.addDocument(compoundDocument(key, compound, tags.getOrDefault(key, List.of())));
+            }
+            for (AlignedFeatures feature : storage.findAllStr(AlignedFeatures.class).toList()) {
+                Key key = new Key(AlignedFeatures.class, feature.getAlignedFeatureId());
+                writer.addDocument(featureDocument(key, feature, tags.getOrDefault(key, List.of()),
+                        topFormulas.get(key.id()), topStructures.get(key.id()), structureSearchResults.get(key.id())));
+            }
+            writer.commit();
+            reader = DirectoryReader.open(writer);
+        } catch (IOException | RuntimeException e) {
+            rebuild = true;
+            throw e;
+        }
+        log.debug("Built search index of {} objects in {} ms.", reader.numDocs(), System.currentTimeMillis() - start);
+    }
+
+    private Class<?> classOf(Tag tag) {
+        return INDEXED_CLASSES.stream().filter(c -> c.getName().equals(tag.getTaggedObjectClass())).findFirst().orElse(Tag.class);
+    }
+
+    private Optional<Document> loadDocument(Key key) throws IOException {
+        List<Tag> tags = storage.findStr(Filter.and(
+                Filter.where("taggedObjectClass").eq(key.type().getName()),
+                Filter.where("taggedObjectId").eq(key.id())), Tag.class).toList();
+
+        if (key.type() == LCMSRun.class)
+            return storage.getByPrimaryKey(key.id(), LCMSRun.class).map(run -> runDocument(key, run, tags));
+        if (key.type() == Compound.class)
+            return storage.getByPrimaryKey(key.id(), Compound.class).map(compound -> compoundDocument(key, compound, tags));
+
+        Optional<AlignedFeatures> feature = storage.getByPrimaryKey(key.id(), AlignedFeatures.class);
+        if (feature.isEmpty())
+            return Optional.empty();
+        FormulaCandidate topFormula = storage.findStr(Filter.and(
+                Filter.where("alignedFeatureId").eq(key.id()), Filter.where("formulaRank").eq(1)), FormulaCandidate.class).findFirst().orElse(null);
+        CsiStructureMatch topStructure = storage.findStr(Filter.and(
+                Filter.where("alignedFeatureId").eq(key.id()), Filter.where("structureRank").eq(1)), CsiStructureMatch.class).findFirst().orElse(null);
+        CsiStructureSearchResult structureSearchResult = storage.getByPrimaryKey(key.id(), CsiStructureSearchResult.class).orElse(null);
+        return Optional.of(featureDocument(key, feature.get(), tags, topFormula, topStructure, structureSearchResult));
+    }
+
+    //region documents
+    private Document runDocument(Key key, LCMSRun run, List<Tag> tags) {
+        return baseDocument(key, run.getName(), tags);
+    }
+
+    private Document compoundDocument(Key key, Compound compound, List<Tag> tags) {
+        Document doc = baseDocument(key, compound.getName(), tags);
+        addDouble(doc, MZ_FIELD, compound.getNeutralMass());
+        addRetentionTime(doc, compound.getRt());
+        return doc;
+    }
+
+    private Document featureDocument(Key key, AlignedFeatures feature, List<Tag> tags,
+                                     @Nullable FormulaCandidate topFormula,
+                                     @Nullable CsiStructureMatch topStructure,
+                                     @Nullable CsiStructureSearchResult structureSearchResult
+    ) {
+        Document doc = baseDocument(key, feature.getName(), tags);
+        addKeyword(doc, EXTERNAL_ID_FIELD, feature.getExternalFeatureId());
+        addDouble(doc, MZ_FIELD, feature.getAverageMass());
+        addRetentionTime(doc, feature.getRetentionTime());
+        if (feature.getCompoundId() != null)
+            doc.add(new LongField(COMPOUND_ID_FIELD, feature.getCompoundId(), Field.Store.NO));
+        if (feature.getDataQuality() != null)
+            addKeyword(doc, QUALITY_FIELD, feature.getDataQuality().name());
+
+        if (topFormula != null) {
+            if (topFormula.getMolecularFormula() != null)
+                addKeyword(doc, FORMULA_FIELD, topFormula.getMolecularFormula().toString());
+            if (topFormula.getAdduct() != null)
+                addKeyword(doc, ADDUCT_FIELD, topFormula.getAdduct().toString());
+        } else if (feature.getMolecularFormula() != null) {
+            addKeyword(doc, FORMULA_FIELD, feature.getMolecularFormula().toString());
+        }
+        if (topStructure != null)
+            addKeyword(doc, INCHIKEY_FIELD, topStructure.getCandidateInChiKey());
+        if (structureSearchResult != null) {
+            addDouble(doc, CONFIDENCE_FIELD, structureSearchResult.getConfidenceExact());
+            addDouble(doc, CONFIDENCE_APPROX_FIELD, structureSearchResult.getConfidenceApprox());
+        }
+        return doc;
+    }
+
+    private Document baseDocument(Key key, @Nullable String name, List<Tag> tags) {
+        Document doc = new Document();
+        doc.add(new StringField(KEY_FIELD, key.term(), Field.Store.NO));
+        doc.add(new StringField(TYPE_FIELD, key.type().getName(), Field.Store.NO));
+        doc.add(new LongField(ID_FIELD, key.id(), Field.Store.YES));
+        if (name != null) {
+            doc.add(new TextField(NAME_FIELD, name, Field.Store.NO));
+            doc.add(new TextField(TEXT_FIELD, name, Field.Store.NO));
+            doc.add(new SortedDocValuesField(NAME_SORT_FIELD, new BytesRef(name.toLowerCase(Locale.ROOT))));
+        }
+        for (Tag tag : tags)
+            addTag(doc, tag);
+        return doc;
+    }
+
+    /**
+     * Tag values are indexed as the point types expected by the query parser, see {@link de.unijena.bioinf.ms.middleware.service.lucene.LuceneUtils#updatePointValue}.
+     */
+    private void addTag(Document doc, Tag tag) {
+        doc.add(new TextField(TAG_NAME_FIELD, tag.getTagName(), Field.Store.NO));
+        String field = TAG_FIELD_PREFIX + tag.getTagName();
+        if (tag.getValue() == null)
+            return;
+        switch (tag.getValueType()) {
+            case BOOLEAN -> doc.add(new StringField(field, tag.getValue().toString().toLowerCase(Locale.ROOT), Field.Store.NO));
+            case INTEGER, TIME -> doc.add(new IntField(field, ((Number) tag.getValue()).intValue(), Field.Store.NO));
+            case REAL -> doc.add(new DoubleField(field, ((Number) tag.getValue()).doubleValue(), Field.Store.NO));
+            case DATE -> doc.add(new LongField(field, ((Number) tag.getValue()).longValue(), Field.Store.NO));
+            case TEXT -> {
+                doc.add(new TextField(field, tag.getValue().toString(), Field.Store.NO));
+                doc.add(new TextField(TEXT_FIELD, tag.getValue().toString(), Field.Store.NO));
+            }
+            default -> {
+            }
+        }
+    }
+
+    private static void addKeyword(Document doc, String field, @Nullable String value) {
+        if (value == null)
+            return;
+        doc.add(new TextField(field, value, Field.Store.NO));
+        doc.add(new TextField(TEXT_FIELD, value, Field.Store.NO));
+    }
+
+    private static void addDouble(Document doc, String field, @Nullable Double value) {
+        if (value != null && !value.isNaN())
+            doc.add(new DoubleField(field, value, Field.Store.NO));
+    }
+
+    private static void addRetentionTime(Document doc, @Nullable RetentionTime rt) {
+        if (rt == null)
+            return;
+        addDouble(doc, RT_FIELD, rt.getMiddleTime());
+        if (rt.isInterval()) {
+            addDouble(doc, RT_START_FIELD, rt.getStartTime());
+            addDouble(doc, RT_END_FIELD, rt.getEndTime());
+        }
+    }
+    //endregion
+
+    /**
+     * Translates the sort properties of the api models into index fields. Objects are ordered like in the unfiltered
+     * listings if no sort is given, ties are broken by id.
+     */
+    private static Optional<Sort> translateSort(Class<?> type, org.springframework.data.domain.Sort sort) {
+        List<SortField> fields = new ArrayList<>();
+        if (sort == null || sort.isUnsorted()) {
+            fields.add(type == LCMSRun.class ? new SortField(NAME_SORT_FIELD, SortField.Type.STRING) : doubleSort(RT_FIELD, false));
+        } else {
+            for (org.springframework.data.domain.Sort.Order order : sort) {
+                boolean reverse = order.isDescending();
+                SortField field = switch (order.getProperty()) {
+                    case "name" -> new SortField(NAME_SORT_FIELD, SortField.Type.STRING, reverse);
+                    case "ionMass", "neutralMass", "averageMass", MZ_FIELD -> doubleSort(MZ_FIELD, reverse);
+                    case "rtStartSeconds", RT_START_FIELD -> doubleSort(RT_START_FIELD, reverse);
+                    case "rtEndSeconds", RT_END_FIELD -> doubleSort(RT_END_FIELD, reverse);
+                    case RT_FIELD -> doubleSort(RT_FIELD, reverse);
+                    case CONFIDENCE_FIELD, "confidenceExact" -> doubleSort(CONFIDENCE_FIELD, reverse);
+                    case CONFIDENCE_APPROX_FIELD -> doubleSort(CONFIDENCE_APPROX_FIELD, reverse);
+                    case "runId", "compoundId", "alignedFeatureId" -> new SortedNumericSortField(ID_FIELD, SortField.Type.LONG, reverse);
+                    default -> null;
+                };
+                if (field == null)
+                    return Optional.empty();
+                fields.add(field);
+            }
+        }
+        fields.add(new SortedNumericSortField(ID_FIELD, SortField.Type.LONG));
+        return Optional.of(new Sort(fields.toArray(SortField[]::new)));
+    }
+
+    private static SortField doubleSort(String field, boolean reverse) {
+        SortField sortField = new SortedNumericSortField(field, SortField.Type.DOUBLE, reverse);
+        // objects without value are always last
+        sortField.setMissingValue(reverse ? Double.NEGATIVE_INFINITY : Double.POSITIVE_INFINITY);
+        return sortField;
+    }
+
+    private void closeIndex() throws IOException {
+        if (reader != null) {
+            reader.close();
+            reader = null;
+        }
+        if (writer != null) {
+            writer.close();
+            writer = null;
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Map.Entry<Class<?>, Long> e : listenerIds)
+            storage.unsubscribe(e.getKey(), e.getValue());
+        listenerIds.clear();
+        closeIndex();
+    }
+}
@@ -5,8 +5,11 @@ import de.unijena.bioinf.ms.persistence.storage.SiriusProjectDatabaseImpl;
 import de.unijena.bioinf.storage.db.nosql.Database;
 import de.unijena.bioinf.storage.db.nosql.Filter;
 import org.apache.lucene.queryparser.flexible.core.QueryNodeException;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.Pageable;
 
 import java.io.IOException;
+import java.util.Optional;
 import java.util.stream.Stream;
 
 public interface SearchService {
@@ -22,4 +25,14 @@ public interface SearchService {
     Filter parseFindTagsByObjectType(String projectId, Class<?> targeObjectClass, String luceneFilterQuery) throws QueryNodeException, IOException;
     Filter parseFindTags(String projectId, String luceneFilterQuery) throws QueryNodeException, IOException;
 
+    /**
+     * Search objects of the given project class (runs, compounds or aligned features) by tags and metadata.
+     *
+     * @return ids of the matching objects for the requested page in the requested order, or empty if this service
+     * cannot evaluate the query directly and {@link #parseFindTagsByObjectType} has to be used instead.
+     */
+    default Optional<Page<Long>> findObjectIds(String projectId, Class<?> objectClass, String luceneFilterQuery, Pageable pageable) throws QueryNodeException, IOException {
+        return Optional.empty();
+    }
+
 }
@@ -0,0 +1,110 @@
+package de.unijena.bioinf.ms.middleware.service.projects;
+
+import de.unijena.bioinf.ChemistryBase.utils.FileUtils;
+import de.unijena.bioinf.ms.persistence.model.core.run.LCMSRun;
+import de.unijena.bioinf.ms.persistence.model.core.run.RetentionTimeAxis;
+import de.unijena.bioinf.ms.persistence.storage.SiriusProjectDocumentDatabase;
+import de.unijena.bioinf.ms.persistence.storage.nitrite.NitriteSirirusProject;
+import de.unijena.bioinf.storage.db.nosql.Database;
+import org.junit.jupiter.api.AutoClose;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.Optional;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+public class LCMSRunCacheTest {
+
+    /**
+     * storage listeners may be notified asynchronously, so changes are only expected to be visible within this time
+     */
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @AutoClose
+    private NitriteSirirusProject ps;
+    private Database<?> storage;
+    private LCMSRunCache cache;
+
+    @BeforeEach
+    public void createTestProject() throws IOException {
+        Path location = FileUtils.createTmpProjectSpaceLocation(SiriusProjectDocumentDatabase.SIRIUS_PROJECT_SUFFIX);
+        ps = new NitriteSirirusProject(location);
+        storage = ps.getStorage();
+        cache = new LCMSRunCache(storage);
+    }
+
+    private LCMSRun addRun(String name) throws IOException {
+        LCMSRun run = LCMSRun.builder().name(name).build();
+        storage.insert(run);
+        return run;
+    }
+
+    private static long[] ids(LCMSRun... runs) {
+        return Arrays.stream(runs).mapToLong(LCMSRun::getRunId).sorted().toArray();
+    }
+
+    private interface CacheCheck {
+        boolean test() throws IOException;
+    }
+
+    private static void await(CacheCheck condition) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!condition.test() && System.currentTimeMillis() < deadline)
+            Thread.sleep(20);
+        assertTrue(condition.test());
+    }
+
+    @Test
+    public void testInvalidationOnRunChanges() throws Exception {
+        LCMSRun a = addRun("alpha");
+        LCMSRun b = addRun("beta");
+        await(() -> Arrays.equals(ids(a, b), cache.getSamples().runIds()));
+
+        LCMSRunCache.Samples samples = cache.getSamples();
+        assertEquals("alpha", samples.name(a.getRunId()));
+        assertNotNull(samples.color(b.getRunId()));
+
+        LCMSRun c = addRun("gamma");
+        await(() -> Arrays.equals(ids(a, b, c), cache.getSamples().runIds()));
+        assertEquals("gamma", cache.getSamples().name(c.getRunId()));
+        assertEquals(3, Arrays.stream(cache.getSamples().colors()).filter(Objects::nonNull).count());
+
+        a.setName("delta");
+        storage.upsert(a);
+        await(() -> "delta".equals(cache.getSamples().name(a.getRunId())));
+
+        storage.remove(b);
+        await(() -> Arrays.equals(ids(a, c), cache.getSamples().runIds()));
+        assertNull(cache.getSamples().name(b.getRunId()));
+        LCMSRunCache.Samples remaining = cache.getSamples();
+        assertEquals("delta", remaining.name(a.getRunId()));
+        assertEquals("gamma", remaining.name(c.getRunId()));
+    }
+
+    @Test
+    public void testInvalidationOnAxisChanges() throws Exception {
+        LCMSRun run = addRun("alpha");
+        assertEquals(Optional.empty(), cache.getSampleAxis(run.getRunId()));
+
+        RetentionTimeAxis axis = RetentionTimeAxis.builder()
+                .runId(run.getRunId())
+                .normalizationFactor(2d)
+                .noiseLevelPerScan(new float[]{1f, 2f})
+                .build();
+        storage.insert(axis);
+        await(() -> cache.getSampleAxis(run.getRunId()).isPresent());
+        assertEquals(2d, cache.getSampleAxis(run.getRunId()).orElseThrow().normalizationFactor());
+
+        axis.setNormalizationFactor(4d);
+        storage.upsert(axis);
+        await(() -> cache.getSampleAxis(run.getRunId()).map(LCMSRunCache.SampleAxis::normalizationFactor).orElse(0d) == 4d);
+
+        storage.remove(axis);
+        await(() -> cache.getSampleAxis(run.getRunId()).isEmpty());
+    }
+}
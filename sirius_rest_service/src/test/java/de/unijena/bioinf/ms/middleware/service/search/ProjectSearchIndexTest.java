@@ -0,0 +1,208 @@
+package de.unijena.bioinf.ms.middleware.service.search;
+
+import de.unijena.bioinf.ChemistryBase.chem.RetentionTime;
+import de.unijena.bioinf.ChemistryBase.utils.FileUtils;
+import de.unijena.bioinf.ms.persistence.model.core.feature.AlignedFeatures;
+import de.unijena.bioinf.ms.persistence.model.core.tags.Tag;
+import de.unijena.bioinf.ms.persistence.model.core.tags.TagDefinition;
+import de.unijena.bioinf.ms.persistence.model.core.tags.ValueDefinition;
+import de.unijena.bioinf.ms.persistence.model.core.tags.ValueType;
+import de.unijena.bioinf.ms.persistence.storage.SiriusProjectDocumentDatabase;
+import de.unijena.bioinf.ms.persistence.storage.nitrite.NitriteSirirusProject;
+import de.unijena.bioinf.storage.db.nosql.Database;
+import org.apache.lucene.document.DoubleField;
+import org.apache.lucene.index.Term;
+import org.apache.lucene.search.MatchAllDocsQuery;
+import org.apache.lucene.search.Query;
+import org.apache.lucene.search.TermQuery;
+import org.junit.jupiter.api.AutoClose;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.data.domain.Page;
+import org.springframework.data.domain.PageRequest;
+import org.springframework.data.domain.Pageable;
+import org.springframework.data.domain.Sort;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.*;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+
+import static de.unijena.bioinf.ms.middleware.service.lucene.LuceneUtils.*;
+import static org.junit.jupiter.api.Assertions.*;
+
+public class ProjectSearchIndexTest {
+
+    /**
+     * storage listeners may be notified asynchronously, so changes are only expected to be visible within this time
+     */
+    private static final long TIMEOUT_MILLIS = 10000;
+
+    @AutoClose
+    private NitriteSirirusProject ps;
+    @AutoClose
+    private ProjectSearchIndex index;
+    private Database<?> storage;
+
+    @BeforeEach
+    public void createTestProject() throws IOException {
+        Path location = FileUtils.createTmpProjectSpaceLocation(SiriusProjectDocumentDatabase.SIRIUS_PROJECT_SUFFIX);
+        ps = new NitriteSirirusProject(location);
+        storage = ps.getStorage();
+        index = new ProjectSearchIndex(storage);
+    }
+
+    private AlignedFeatures addFeature(String name, double mass, Double rt) throws IOException {
+        AlignedFeatures feature = AlignedFeatures.builder()
+                .name(name)
+                .averageMass(mass)
+                .retentionTime(rt == null ? null : new RetentionTime(rt))
+                .build();
+        storage.insert(feature);
+        return feature;
+    }
+
+    private static TagDefinition tagDefinition(String name, ValueType valueType) {
+        return TagDefinition.builder()
+                .tagName(name)
+                .valueDefinition(new ValueDefinition<>(valueType, null, null, null))
+                .build();
+    }
+
+    private List<Long> search(Query query, Pageable pageable) throws IOException {
+        return index.search(AlignedFeatures.class, query, pageable).orElseThrow().getContent();
+    }
+
+    private Set<Long> search(Query query) throws IOException {
+        return new HashSet<>(search(query, Pageable.unpaged()));
+    }
+
+    private static Set<Long> ids(AlignedFeatures... features) {
+        return Arrays.stream(features).map(AlignedFeatures::getAlignedFeatureId).collect(Collectors.toSet());
+    }
+
+    private void awaitResult(Set<Long> expected, Query query) throws IOException, InterruptedException {
+        long deadline = System.currentTimeMillis() + TIMEOUT_MILLIS;
+        while (!expected.equals(search(query)) && System.currentTimeMillis() < deadline)
+            Thread.sleep(20);
+        assertEquals(expected, search(query));
+    }
+
+    @Test
+    public void testIncrementalUpdatesOnFeatureChanges() throws Exception {
+        AlignedFeatures a = addFeature("alpha", 100, 10d);
+        AlignedFeatures b = addFeature("beta", 200, 20d);
+        AlignedFeatures c = addFeature("gamma", 300, 30d);
+        awaitResult(ids(a, b, c), new MatchAllDocsQuery());
+
+        // added after the index was built
+        AlignedFeatures d = addFeature("delta", 400, 40d);
+        awaitResult(ids(a, b, c, d), new MatchAllDocsQuery());
+        awaitResult(ids(d), new TermQuery(new Term(NAME_FIELD, "delta")));
+
+        storage.remove(b);
+        awaitResult(ids(a, c, d), new MatchAllDocsQuery());
+        awaitResult(Set.of(), new TermQuery(new Term(NAME_FIELD, "beta")));
+
+        a.setName("epsilon");
+        a.setAverageMass(500);
+        storage.upsert(a);
+        awaitResult(ids(a), new TermQuery(new Term(NAME_FIELD, "epsilon")));
+        awaitResult(Set.of(), new TermQuery(new Term(NAME_FIELD, "alpha")));
+        awaitResult(ids(a), DoubleField.newRangeQuery(MZ_FIELD, 450, 550));
+    }
+
+    @Test
+    public void testIncrementalUpdatesOnTagChanges() throws Exception {
+        AlignedFeatures a = addFeature("alpha", 100, 10d);
+        AlignedFeatures b = addFeature("beta", 200, 20d);
+        TagDefinition comment = tagDefinition("comment", ValueType.TEXT);
+        TagDefinition score = tagDefinition("score", ValueType.REAL);
+        Query commentQuery = new TermQuery(new Term(TAG_FIELD_PREFIX + "comment", "interesting"));
+        Query scoreQuery = DoubleField.newRangeQuery(TAG_FIELD_PREFIX + "score", 0.5, 1.0);
+        awaitResult(Set.of(), commentQuery);
+
+        Tag commentTag = comment.newTagWithValue("interesting", AlignedFeatures.class, a.getAlignedFeatureId());
+        Tag scoreTag = score.newTagWithValue(0.9, AlignedFeatures.class, b.getAlignedFeatureId());
+        storage.insert(commentTag);
+        storage.insert(scoreTag);
+        awaitResult(ids(a), commentQuery);
+        awaitResult(ids(b), scoreQuery);
+        awaitResult(ids(a, b), new MatchAllDocsQuery());
+
+        score.setValueOfTag(scoreTag, 0.1);
+        storage.upsert(scoreTag);
+        awaitResult(Set.of(), scoreQuery);
+        awaitResult(ids(b), DoubleField.newRangeQuery(TAG_FIELD_PREFIX + "score", 0.0, 0.2));
+
+        storage.remove(commentTag);
+        awaitResult(Set.of(), commentQuery);
+        awaitResult(Set.of(), new TermQuery(new Term(TAG_NAME_FIELD, "comment")));
+        awaitResult(ids(a, b), new MatchAllDocsQuery());
+    }
+
+    @Test
+    public void testRebuildAfterManyChanges() throws Exception {
+        addFeature("first", 100, 10d);
+        assertEquals(1, search(new MatchAllDocsQuery()).size());
+
+        List<AlignedFeatures> features = IntStream.range(0, 1500)
+                .<AlignedFeatures>mapToObj(i -> AlignedFeatures.builder().name("feature" + i).averageMass(100 + i).build())
+                .toList();
+        storage.insertAll(features);
+        Set<Long> expected = new HashSet<>(search(new MatchAllDocsQuery()));
+        features.forEach(f -> expected.add(f.getAlignedFeatureId()));
+        assertEquals(1501, expected.size());
+        awaitResult(expected, new MatchAllDocsQuery());
+    }
+
+    @Test
+    public void testPagingAndSorting() throws Exception {
+        List<AlignedFeatures> features = new ArrayList<>();
+        for (int i = 0; i < 25; ++i) {
+            // masses and retention times in different orders, some features without retention time
+            features.add(addFeature("feature" + (char) ('a' + (i * 7) % 25), 100 + (i * 11) % 25, i % 5 == 4 ? null : 1000d - i));
+        }
+        awaitResult(features.stream().map(AlignedFeatures::getAlignedFeatureId).collect(Collectors.toSet()), new MatchAllDocsQuery());
+
+        // by mass, paged
+        List<Long> byMass = features.stream().sorted(Comparator.comparingDouble(AlignedFeatures::getAverageMass))
+                .map(AlignedFeatures::getAlignedFeatureId).toList();
+        List<Long> pagedByMass = new ArrayList<>();
+        for (int page = 0; page < 3; ++page) {
+            Page<Long> result = index.search(AlignedFeatures.class, new MatchAllDocsQuery(), PageRequest.of(page, 10, Sort.by("averageMass"))).orElseThrow();
+            assertEquals(25, result.getTotalElements());
+            assertEquals(page < 2 ? 10 : 5, result.getContent().size());
+            pagedByMass.addAll(result.getContent());
+        }
+        assertEquals(byMass, pagedByMass);
+        assertEquals(byMass.reversed(), search(new MatchAllDocsQuery(), PageRequest.of(0, 25, Sort.by(Sort.Direction.DESC, "averageMass"))));
+
+        // by name
+        List<Long> byName = features.stream().sorted(Comparator.comparing(AlignedFeatures::getName))
+                .map(AlignedFeatures::getAlignedFeatureId).toList();
+        assertEquals(byName.subList(5, 10), search(new MatchAllDocsQuery(), PageRequest.of(1, 5, Sort.by("name"))));
+
+        // unsorted: by retention time, features without retention time last and ordered by id
+        List<Long> byRt = features.stream().sorted(Comparator
+                        .comparingDouble((AlignedFeatures f) -> f.getRetentionTime() == null ? Double.POSITIVE_INFINITY : f.getRetentionTime().getMiddleTime())
+                        .thenComparingLong(AlignedFeatures::getAlignedFeatureId))
+                .map(AlignedFeatures::getAlignedFeatureId).toList();
+        assertEquals(byRt, search(new MatchAllDocsQuery(), Pageable.unpaged()));
+
+        // filtered and paged
+        Page<Long> filtered = index.search(AlignedFeatures.class, DoubleField.newRangeQuery(MZ_FIELD, 110, 119), PageRequest.of(0, 4, Sort.by("averageMass"))).orElseThrow();
+        assertEquals(10, filtered.getTotalElements());
+        assertEquals(byMass.subList(10, 14), filtered.getContent());
+
+        // page behind the last result
+        Page<Long> empty = index.search(AlignedFeatures.class, new MatchAllDocsQuery(), PageRequest.of(3, 10)).orElseThrow();
+        assertTrue(empty.getContent().isEmpty());
+        assertEquals(25, empty.getTotalElements());
+
+        // sort orders the index does not know are left to the caller
+        assertTrue(index.search(AlignedFeatures.class, new MatchAllDocsQuery(), PageRequest.of(0, 10, Sort.by("unknownProperty"))).isEmpty());
+    }
+
+}
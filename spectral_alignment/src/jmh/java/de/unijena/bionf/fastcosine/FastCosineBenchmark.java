@@ -0,0 +1,96 @@
+package de.unijena.bionf.fastcosine;
+
+import de.unijena.bioinf.ChemistryBase.ms.Deviation;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the pairwise fast cosine with the batch fast cosine (scalar and Vector API kernel) when scoring
+ * one query against a block of references. Spectra are generated with a fixed seed.
+ * Run with ./gradlew :spectral_alignment:jmh
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FastCosineBenchmark {
+
+    @Param({"1000", "10000"})
+    public int numberOfReferences;
+
+    @Param({"50"})
+    public int peaksPerSpectrum;
+
+    private FastCosine fastCosine;
+    private SearchPreparedSpectrum query;
+    private List<SearchPreparedSpectrum> references;
+    private PackedSpectra packedReferences;
+    private BatchCosineKernel scalarKernel, defaultKernel;
+
+    @Setup
+    public void setup() {
+        final Random random = new Random(4711);
+        final Deviation deviation = new Deviation(15);
+        fastCosine = new FastCosine(deviation, true, null);
+        query = randomSpectrum(random, 500d);
+        references = new ArrayList<>(numberOfReferences);
+        for (int k = 0; k < numberOfReferences; ++k)
+            references.add(randomSpectrum(random, 500d));
+        packedReferences = PackedSpectra.of(references);
+        scalarKernel = new ScalarBatchCosineKernel(deviation);
+        defaultKernel = BatchCosineKernel.create(deviation);
+    }
+
+    private SearchPreparedSpectrum randomSpectrum(Random random, double parentMass) {
+        // masses on a coarse grid so that a realistic fraction of peaks match between spectra
+        final double[] mz = random.doubles(peaksPerSpectrum, 30, parentMass - 1)
+                .map(x -> Math.round(x * 20) / 20d).sorted().distinct().toArray();
+        final float[] intensities = new float[mz.length];
+        double norm = 0d;
+        for (int k = 0; k < mz.length; ++k) {
+            intensities[k] = random.nextFloat();
+            norm += intensities[k] * intensities[k];
+        }
+        for (int k = 0; k < mz.length; ++k) intensities[k] /= (float) Math.sqrt(norm);
+        return new SearchPreparedSpectrum(parentMass, 0f, mz, intensities);
+    }
+
+    @Benchmark
+    public void pairwise(Blackhole bh) {
+        for (SearchPreparedSpectrum ref : references)
+            bh.consume(fastCosine.fastCosine(query, ref));
+    }
+
+    @Benchmark
+    public BatchSimilarity batchScalar() {
+        final BatchSimilarity result = new BatchSimilarity(packedReferences.size());
+        for (int k = 0; k < packedReferences.size(); ++k)
+            scalarKernel.fastCosine(query, packedReferences, k, result);
+        return result;
+    }
+
+    @Benchmark
+    public BatchSimilarity batchDefault() {
+        final BatchSimilarity result = new BatchSimilarity(packedReferences.size());
+        for (int k = 0; k < packedReferences.size(); ++k)
+            defaultKernel.fastCosine(query, packedReferences, k, result);
+        return result;
+    }
+
+    @Benchmark
+    public BatchSimilarity batchModifiedCosine() {
+        return fastCosine.fastModifiedCosine(query, packedReferences);
+    }
+
+    @Benchmark
+    public BatchSimilarity packAndBatch() {
+        return fastCosine.fastCosine(query, PackedSpectra.of(references));
+    }
+}
@@ -0,0 +1,36 @@
+package de.unijena.bionf.fastcosine;
+
+import de.unijena.bioinf.ChemistryBase.ms.Deviation;
+import org.slf4j.LoggerFactory;
+
+/**
+ * Computes the fast cosine between a query and one spectrum of a {@link PackedSpectra} block.
+ * Implementations must give exactly the same results as {@link FastCosine#fastCosine(SearchPreparedSpectrum, SearchPreparedSpectrum)}.
+ */
+interface BatchCosineKernel {
+
+    /**
+     * Set this system property to true to use the scalar kernel even if the Vector API is available.
+     */
+    String DISABLE_VECTOR_API_KEY = "de.unijena.bionf.fastcosine.disableVectorApi";
+
+    /**
+     * scores the query against reference k and stores similarity and number of shared peaks at position k of the result.
+     */
+    void fastCosine(SearchPreparedSpectrum query, PackedSpectra references, int k, BatchSimilarity result);
+
+    /**
+     * @return the kernel that skips unmatched peaks with the Vector API if the jdk.incubator.vector module is available (JVM was started with
+     * --add-modules jdk.incubator.vector), the scalar kernel otherwise.
+     */
+    static BatchCosineKernel create(Deviation maxDeviation) {
+        if (!Boolean.getBoolean(DISABLE_VECTOR_API_KEY) && ModuleLayer.boot().findModule("jdk.incubator.vector").isPresent()) {
+            try {
+                return new VectorSkipBatchCosineKernel(maxDeviation);
+            } catch (Throwable e) {
+                LoggerFactory.getLogger(BatchCosineKernel.class).warn("Could not initialize Vector API kernel. Falling back to scalar computation.", e);
+            }
+        }
+        return new ScalarBatchCosineKernel(maxDeviation);
+    }
+}
@@ -0,0 +1,22 @@
+package de.unijena.bionf.fastcosine;
+
+import de.unijena.bionf.spectral_alignment.SpectralSimilarity;
+
+/**
+ * Similarities of one query against all spectra of a {@link PackedSpectra} block.
+ * Matched peak pairs are not recorded, use the pairwise methods of {@link FastCosine} for hits that need them.
+ */
+public record BatchSimilarity(float[] similarities, int[] sharedPeaks) {
+
+    BatchSimilarity(int size) {
+        this(new float[size], new int[size]);
+    }
+
+    public int size() {
+        return similarities.length;
+    }
+
+    public SpectralSimilarity get(int index) {
+        return new SpectralSimilarity(similarities[index], sharedPeaks[index], null);
+    }
+}
@@ -25,11 +25,13 @@ public class FastCosine {
     private final Deviation maxDeviation;
     private final boolean useSquareRootTransform;
     private final NoiseThresholdSettings noiseThresholdSettings;
+    private final BatchCosineKernel batchKernel;
 
     public FastCosine(Deviation maxDeviation, boolean useSquareRootTransform, NoiseThresholdSettings noiseThresholdSettings) {
         this.maxDeviation = maxDeviation;
         this.useSquareRootTransform = useSquareRootTransform;
         this.noiseThresholdSettings = noiseThresholdSettings;
+        this.batchKernel = BatchCosineKernel.create(maxDeviation);
     }
 
     public FastCosine() {
@@ -162,6 +164,36 @@ public class FastCosine {
         return new ModifiedCosine(maxDeviation).score(left, right, left.getParentMass(), right.getParentMass(), 1d);
     }
 
+    /**
+     * Fast cosine of one query against all spectra of a packed block. Gives the same similarities and number of
+     * shared peaks as calling {@link #fastCosine(SearchPreparedSpectrum, SearchPreparedSpectrum)} for each reference,
+     * but does not record the matched peak pairs.
+     */
+    public BatchSimilarity fastCosine(SearchPreparedSpectrum query, PackedSpectra references) {
+        final BatchSimilarity result = new BatchSimilarity(references.size());
+        for (int k = 0; k < references.size(); ++k)
+            batchKernel.fastCosine(query, references, k, result);
+        return result;
+    }
+
+    /**
+     * Modified cosine of one query against all spectra of a packed block. References with the same precursor mass
+     * are scored with the batch fast cosine, all others with {@link ModifiedCosine}.
+     */
+    public BatchSimilarity fastModifiedCosine(SearchPreparedSpectrum query, PackedSpectra references) {
+        final BatchSimilarity result = new BatchSimilarity(references.size());
+        for (int k = 0; k < references.size(); ++k) {
+            if (maxDeviation.inErrorWindow(query.getParentMass(), references.getParentMass(k))) {
+                batchKernel.fastCosine(query, references, k, result);
+            } else {
+                final SpectralSimilarity sim = new ModifiedCosine(maxDeviation).score(query, references.getSpectrum(k), query.getParentMass(), references.getParentMass(k), 1d);
+                result.similarities()[k] = sim.similarity;
+                result.sharedPeaks()[k] = sim.sharedPeaks;
+            }
+        }
+        return result;
+    }
+
     private SearchPreparedMergedSpectrum performPeakMerging(List<SearchPreparedSpectrum> spectra) {
         final double parentMass = spectra.stream().mapToDouble(SearchPreparedSpectrum::getParentMass).average().orElse(0d);
         final double parentIntensity = spectra.stream().mapToDouble(SearchPreparedSpectrum::getParentIntensity).average().orElse(0d);
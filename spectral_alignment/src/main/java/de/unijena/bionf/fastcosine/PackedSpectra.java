@@ -0,0 +1,71 @@
+package de.unijena.bionf.fastcosine;
+
+import lombok.Getter;
+
+import java.util.Arrays;
+import java.util.List;
+
+/**
+ * A block of {@link SearchPreparedSpectrum}s packed into contiguous primitive arrays.
+ * The peaks of spectrum k are stored at the positions offsets[k] until offsets[k+1].
+ * Used to score one query against many references without walking individual spectrum objects.
+ */
+public final class PackedSpectra {
+
+    final double[] mz;
+    final float[] intensities;
+    final int[] offsets;
+    final double[] parentMasses;
+
+    @Getter
+    private final int numberOfPeaks;
+
+    private PackedSpectra(double[] mz, float[] intensities, int[] offsets, double[] parentMasses) {
+        this.mz = mz;
+        this.intensities = intensities;
+        this.offsets = offsets;
+        this.parentMasses = parentMasses;
+        this.numberOfPeaks = mz.length;
+    }
+
+    public static PackedSpectra of(List<? extends SearchPreparedSpectrum> spectra) {
+        final int[] offsets = new int[spectra.size() + 1];
+        for (int k = 0; k < spectra.size(); ++k)
+            offsets[k + 1] = offsets[k] + spectra.get(k).size();
+
+        final double[] mz = new double[offsets[spectra.size()]];
+        final float[] intensities = new float[mz.length];
+        final double[] parentMasses = new double[spectra.size()];
+        for (int k = 0; k < spectra.size(); ++k) {
+            final SearchPreparedSpectrum spec = spectra.get(k);
+            System.arraycopy(spec.mz, 0, mz, offsets[k], spec.size());
+            System.arraycopy(spec.intensities, 0, intensities, offsets[k], spec.size());
+            parentMasses[k] = spec.getParentMass();
+        }
+        return new PackedSpectra(mz, intensities, offsets, parentMasses);
+    }
+
+    /**
+     * @return number of packed spectra
+     */
+    public int size() {
+        return parentMasses.length;
+    }
+
+    public double getParentMass(int index) {
+        return parentMasses[index];
+    }
+
+    public int getNumberOfPeaks(int index) {
+        return offsets[index + 1] - offsets[index];
+    }
+
+    /**
+     * @return a copy of the spectrum at the given index
+     */
+    public SearchPreparedSpectrum getSpectrum(int index) {
+        return new SearchPreparedSpectrum(parentMasses[index], 0f,
+                Arrays.copyOfRange(mz, offsets[index], offsets[index + 1]),
+                Arrays.copyOfRange(intensities, offsets[index], offsets[index + 1]));
+    }
+}
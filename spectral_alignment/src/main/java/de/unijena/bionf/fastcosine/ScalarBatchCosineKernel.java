@@ -0,0 +1,48 @@
+package de.unijena.bionf.fastcosine;
+
+import de.unijena.bioinf.ChemistryBase.ms.Deviation;
+
+/**
+ * Plain java implementation of the batch fast cosine. Same algorithm as the pairwise fast cosine but works
+ * directly on the packed arrays and does not record matched peak pairs.
+ */
+final class ScalarBatchCosineKernel implements BatchCosineKernel {
+
+    private final double ppm, absolute;
+
+    ScalarBatchCosineKernel(Deviation maxDeviation) {
+        this.ppm = maxDeviation.getPpm();
+        this.absolute = maxDeviation.getAbsolute();
+    }
+
+    @Override
+    public void fastCosine(SearchPreparedSpectrum query, PackedSpectra references, int k, BatchSimilarity result) {
+        final double[] leftMz = query.mz, rightMz = references.mz;
+        final float[] leftIntensities = query.intensities, rightIntensities = references.intensities;
+        final int leftSize = leftMz.length, rightEnd = references.offsets[k + 1];
+        final double thresholdLeft = query.getParentMass() - 0.1d;
+        final double thresholdRight = references.parentMasses[k] - 0.1d;
+
+        int i = 0, j = references.offsets[k], shared = 0;
+        double similarity = 0d;
+        while (i < leftSize && j < rightEnd) {
+            final double l = leftMz[i];
+            final double r = rightMz[j];
+            if (l >= thresholdLeft || r >= thresholdRight) break; // do not count the parent peak
+            final double delta = l - r;
+            final double allowedMassDeviation = Math.max(ppm * Math.min(l, r) * 1e-6, absolute);
+            if (Math.abs(delta) < allowedMassDeviation) {
+                similarity += (double) leftIntensities[i] * rightIntensities[j];
+                ++shared;
+                ++i;
+                ++j;
+            } else if (delta < 0) {
+                ++i;
+            } else if (delta > 0) {
+                ++j;
+            }
+        }
+        result.similarities()[k] = (float) similarity;
+        result.sharedPeaks()[k] = shared;
+    }
+}
@@ -0,0 +1,82 @@
+package de.unijena.bionf.fastcosine;
+
+import de.unijena.bioinf.ChemistryBase.ms.Deviation;
+import jdk.incubator.vector.DoubleVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/**
+ * Batch fast cosine that skips unmatched peaks with the JDK Vector API. Only the skipping is vectorized: runs of
+ * peaks that cannot be matched are skipped with vectorized comparisons instead of one peak at a time. Matching and
+ * scoring of the matched peak pairs is the same scalar merge as in {@link ScalarBatchCosineKernel}, because each step
+ * of the merge depends on the previous one. The kernel pays off for spectra with many peaks that have no partner,
+ * e.g. upper bound computations against large reference blocks.
+ * As the m/z arrays are sorted and the allowed mass deviation grows with the mass, the peaks to skip always form
+ * a prefix of the compared lanes, so the result is identical to the scalar kernel.
+ * <p>
+ * Only loaded if the jdk.incubator.vector module is available, see {@link BatchCosineKernel#create(Deviation)}.
+ */
+final class VectorSkipBatchCosineKernel implements BatchCosineKernel {
+
+    private static final VectorSpecies<Double> SPECIES = DoubleVector.SPECIES_PREFERRED;
+    private static final int LANES = SPECIES.length();
+
+    private final double ppm, absolute;
+
+    VectorSkipBatchCosineKernel(Deviation maxDeviation) {
+        this.ppm = maxDeviation.getPpm();
+        this.absolute = maxDeviation.getAbsolute();
+    }
+
+    @Override
+    public void fastCosine(SearchPreparedSpectrum query, PackedSpectra references, int k, BatchSimilarity result) {
+        final double[] leftMz = query.mz, rightMz = references.mz;
+        final float[] leftIntensities = query.intensities, rightIntensities = references.intensities;
+        final int leftSize = leftMz.length, rightEnd = references.offsets[k + 1];
+        final double thresholdLeft = query.getParentMass() - 0.1d;
+        final double thresholdRight = references.parentMasses[k] - 0.1d;
+
+        int i = 0, j = references.offsets[k], shared = 0;
+        double similarity = 0d;
+        while (i < leftSize && j < rightEnd) {
+            final double l = leftMz[i];
+            final double r = rightMz[j];
+            if (l >= thresholdLeft || r >= thresholdRight) break; // do not count the parent peak
+            final double delta = l - r;
+            final double allowedMassDeviation = Math.max(ppm * Math.min(l, r) * 1e-6, absolute);
+            if (Math.abs(delta) < allowedMassDeviation) {
+                similarity += (double) leftIntensities[i] * rightIntensities[j];
+                ++shared;
+                ++i;
+                ++j;
+            } else if (delta < 0) {
+                i = skip(leftMz, i + 1, leftSize, r, thresholdLeft);
+            } else if (delta > 0) {
+                j = skip(rightMz, j + 1, rightEnd, l, thresholdRight);
+            }
+        }
+        result.similarities()[k] = (float) similarity;
+        result.sharedPeaks()[k] = shared;
+    }
+
+    /**
+     * Advances the position in the given (sorted) m/z array as long as the peaks are too far below the peak
+     * of the other spectrum (other - mz >= allowed deviation of mz) and below the parent threshold.
+     * These are exactly the peaks the scalar merge would skip one by one.
+     */
+    private int skip(double[] mz, int from, int to, double other, double threshold) {
+        final DoubleVector otherVec = DoubleVector.broadcast(SPECIES, other);
+        int pos = from;
+        while (pos + LANES <= to) {
+            final DoubleVector v = DoubleVector.fromArray(SPECIES, mz, pos);
+            final DoubleVector allowed = v.mul(ppm).mul(1e-6).max(absolute);
+            final VectorMask<Double> advance = otherVec.sub(v).compare(VectorOperators.GE, allowed)
+                    .and(v.compare(VectorOperators.LT, threshold));
+            final int n = advance.not().firstTrue();
+            pos += n;
+            if (n < LANES) return pos;
+        }
+        return pos;
+    }
+}
@@ -0,0 +1,122 @@
+package de.unijena.bionf.fastcosine;
+
+import de.unijena.bioinf.ChemistryBase.ms.Deviation;
+import de.unijena.bionf.spectral_alignment.SpectralSimilarity;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.jupiter.api.Assertions.*;
+
+class BatchFastCosineTest {
+
+    private final Deviation deviation = new Deviation(15);
+    private FastCosine fastCosine;
+    private Random random;
+
+    @BeforeEach
+    void setUp() {
+        fastCosine = new FastCosine();
+        random = new Random(42);
+    }
+
+    /**
+     * random spectrum where part of the peaks are shifted copies of the template, so that there are matching peaks.
+     */
+    private SearchPreparedSpectrum randomSpectrum(double parentMass, double[] template) {
+        final int n = 5 + random.nextInt(40);
+        double[] mz = new double[n];
+        for (int k = 0; k < n; ++k) {
+            if (template != null && template.length > 0 && random.nextBoolean()) {
+                final double t = template[random.nextInt(template.length)];
+                mz[k] = t + (random.nextDouble() - 0.5) * deviation.absoluteFor(t);
+            } else
+                mz[k] = 20 + random.nextDouble() * (parentMass + 5);
+        }
+        mz = Arrays.stream(mz).sorted().distinct().toArray();
+        // remove peaks within deviation as it is ensured for prepared spectra
+        final double[] filtered = new double[mz.length];
+        int size = 0;
+        for (double m : mz) {
+            if (size == 0 || m - filtered[size - 1] > 2 * deviation.absoluteFor(m)) filtered[size++] = m;
+        }
+        mz = Arrays.copyOf(filtered, size);
+        final float[] intensities = new float[mz.length];
+        double norm = 0;
+        for (int k = 0; k < intensities.length; ++k) {
+            intensities[k] = random.nextFloat();
+            norm += intensities[k] * intensities[k];
+        }
+        for (int k = 0; k < intensities.length; ++k) intensities[k] /= (float) Math.sqrt(norm);
+        return new SearchPreparedSpectrum(parentMass, 0f, mz, intensities);
+    }
+
+    private List<SearchPreparedSpectrum> references(SearchPreparedSpectrum query, int size) {
+        List<SearchPreparedSpectrum> refs = new ArrayList<>();
+        for (int k = 0; k < size; ++k) {
+            double parent = random.nextBoolean() ? query.getParentMass() : query.getParentMass() + random.nextDouble() * 100 - 50;
+            refs.add(randomSpectrum(parent, query.mz));
+        }
+        refs.add(randomSpectrum(query.getParentMass(), null));
+        refs.add(new SearchPreparedSpectrum(query.getParentMass(), 0f, new double[0], new float[0]));
+        return refs;
+    }
+
+    private void assertSameAsPairwise(BatchCosineKernel kernel) {
+        for (int run = 0; run < 20; ++run) {
+            SearchPreparedSpectrum query = randomSpectrum(200 + random.nextDouble() * 600, null);
+            List<SearchPreparedSpectrum> refs = references(query, 50);
+            PackedSpectra packed = PackedSpectra.of(refs);
+            BatchSimilarity batch = new BatchSimilarity(packed.size());
+            for (int k = 0; k < packed.size(); ++k)
+                kernel.fastCosine(query, packed, k, batch);
+
+            for (int k = 0; k < refs.size(); ++k) {
+                SpectralSimilarity pairwise = fastCosine.fastCosine(query, refs.get(k));
+                assertEquals(pairwise.similarity, batch.similarities()[k], "similarity of reference " + k);
+                assertEquals(pairwise.sharedPeaks, batch.sharedPeaks()[k], "shared peaks of reference " + k);
+            }
+        }
+    }
+
+    @Test
+    void testScalarKernelEqualsPairwise() {
+        assertSameAsPairwise(new ScalarBatchCosineKernel(deviation));
+    }
+
+    @Test
+    void testDefaultKernelEqualsPairwise() {
+        // uses the Vector API kernel if the test JVM provides jdk.incubator.vector
+        assertSameAsPairwise(BatchCosineKernel.create(deviation));
+    }
+
+    @Test
+    void testModifiedCosineEqualsPairwise() {
+        SearchPreparedSpectrum query = randomSpectrum(400, null);
+        List<SearchPreparedSpectrum> refs = references(query, 30);
+        BatchSimilarity batch = fastCosine.fastModifiedCosine(query, PackedSpectra.of(refs));
+        for (int k = 0; k < refs.size(); ++k) {
+            SpectralSimilarity pairwise = fastCosine.fastModifiedCosine(query, refs.get(k));
+            assertEquals(pairwise.similarity, batch.get(k).similarity, 1e-6);
+            assertEquals(pairwise.sharedPeaks, batch.get(k).sharedPeaks);
+        }
+    }
+
+    @Test
+    void testPackedSpectraRoundTrip() {
+        SearchPreparedSpectrum query = randomSpectrum(300, null);
+        List<SearchPreparedSpectrum> refs = references(query, 5);
+        PackedSpectra packed = PackedSpectra.of(refs);
+        assertEquals(refs.size(), packed.size());
+        for (int k = 0; k < refs.size(); ++k) {
+            SearchPreparedSpectrum copy = packed.getSpectrum(k);
+            assertArrayEquals(refs.get(k).mz, copy.mz);
+            assertArrayEquals(refs.get(k).intensities, copy.intensities);
+            assertEquals(refs.get(k).getParentMass(), packed.getParentMass(k));
+        }
+    }
+}
@@ -500,10 +500,10 @@ public class WebWithCustomDatabase {
     }
 
     public static class CandidateResult {
-        final HashMap<String, FingerprintCandidate> cs = new HashMap<>();
-        final Set<String> customNames = new HashSet<>();
+        final HashMap<String, FingerprintCandidate> cs;
+        final Set<String> customNames;
 
-        final HashMap<String, Set<FingerprintCandidate>> customInChIs = new HashMap<>();
+        final HashMap<String, Set<FingerprintCandidate>> customInChIs;
         final Set<FingerprintCandidate> restDbInChIs;
         @Setter
         @Getter
@@ -515,17 +515,40 @@ public class WebWithCustomDatabase {
         }
 
         private CandidateResult() {
+            cs = new HashMap<>();
+            customNames = new HashSet<>();
+            customInChIs = new HashMap<>();
             restDbInChIs = Collections.emptySet();
             restFilter = -1;
             requestFilter = -1;
         }
 
         private CandidateResult(List<FingerprintCandidate> compounds, long appliedFilter, long requestFilter) {
+            cs = new HashMap<>();
+            customNames = new HashSet<>();
+            customInChIs = new HashMap<>();
             restFilter = appliedFilter;
             this.requestFilter = requestFilter;
             restDbInChIs = mergeCompounds(compounds, cs, customNames);
         }
 
+        private CandidateResult(CandidateResult shared) {
+            cs = shared.cs;
+            customNames = shared.customNames;
+            customInChIs = shared.customInChIs;
+            restDbInChIs = shared.restDbInChIs;
+            restFilter = shared.restFilter;
+            requestFilter = shared.requestFilter;
+        }
+
+        /**
+         * @return a result backed by the same candidates but with its own request filter. Allows sharing one lookup
+         * between several consumers that modify the request filter. No candidates may be added to either result afterwards.
+         */
+        public CandidateResult shallowCopy() {
+            return new CandidateResult(this);
+        }
+
         private void addRequestedCustom(String name, List<FingerprintCandidate> compounds) {
             if (customInChIs.containsKey(name))
                 throw new IllegalArgumentException("Custom db already exists: '" + name + "'");
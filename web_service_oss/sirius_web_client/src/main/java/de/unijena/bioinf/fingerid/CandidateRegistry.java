@@ -0,0 +1,151 @@
+/*
+ *
+ *  This file is part of the SIRIUS library for analyzing MS and MS/MS data
+ *
+ *  Copyright (C) 2013-2020 Kai Dührkop, Markus Fleischauer, Marcus Ludwig, Martin A. Hoffman and Sebastian Böcker,
+ *  Chair of Bioinformatics, Friedrich-Schilller University.
+ *
+ *  This library is free software; you can redistribute it and/or
+ *  modify it under the terms of the GNU Lesser General Public
+ *  License as published by the Free Software Foundation; either
+ *  version 3 of the License, or (at your option) any later version.
+ *
+ *  This library is distributed in the hope that it will be useful,
+ *  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ *  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ *  Lesser General Public License for more details.
+ *
+ *  You should have received a copy of the GNU General Public License along with SIRIUS. If not, see <https://www.gnu.org/licenses/lgpl-3.0.txt>
+ */
+
+package de.unijena.bioinf.fingerid;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.chemdb.WebWithCustomDatabase;
+import de.unijena.bioinf.chemdb.custom.CustomDataSources;
+import org.jetbrains.annotations.NotNull;
+
+import java.util.*;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.stream.Collectors;
+
+/**
+ * Shares structure candidates between the features of one run. Features of a project often share molecular formulas
+ * (isomers, adducts, repeated injections), so the candidates of each formula are retrieved only once and kept in memory
+ * as long as at least one consumer holds a {@link Lease} on them.
+ * <p>
+ * Concurrent requests for the same key wait for the first one instead of querying the database again.
+ * The shared {@link WebWithCustomDatabase.CandidateResult} must be treated as read-only by all consumers.
+ */
+public class CandidateRegistry {
+
+    /**
+     * The database instance determines the fingerprint version of the candidates.
+     */
+    public record Key(@NotNull MolecularFormula formula, @NotNull WebWithCustomDatabase database, @NotNull Set<String> dbNames, boolean includeRestAllDb) {
+        public static Key of(MolecularFormula formula, WebWithCustomDatabase database, Collection<CustomDataSources.Source> dbs, boolean includeRestAllDb) {
+            return new Key(formula, database, dbs.stream().map(CustomDataSources.Source::name).collect(Collectors.toUnmodifiableSet()), includeRestAllDb);
+        }
+    }
+
+    private final Map<Key, Entry> entries = new HashMap<>();
+
+    /**
+     * Returns the candidates for the given key. If no other consumer has requested them yet, they are loaded with the
+     * given loader in the calling thread. The returned lease has to be released when the candidates are no longer needed.
+     */
+    public Lease acquire(@NotNull Key key, @NotNull Callable<WebWithCustomDatabase.CandidateResult> loader) throws Exception {
+        final Entry entry;
+        final boolean load;
+        synchronized (entries) {
+            Entry e = entries.get(key);
+            load = e == null;
+            if (load) {
+                e = new Entry(key);
+                entries.put(key, e);
+            }
+            ++e.references;
+            entry = e;
+        }
+        final Lease lease = new Lease(entry);
+
+        if (load) {
+            try {
+                entry.result.complete(loader.call());
+            } catch (Throwable t) {
+                // do not keep failed lookups, later requests should try again
+                synchronized (entries) {
+                    entries.remove(key, entry);
+                }
+                entry.result.completeExceptionally(t);
+                lease.release();
+                throw t;
+            }
+        }
+
+        try {
+            entry.result.get();
+            return lease;
+        } catch (ExecutionException e) {
+            lease.release();
+            if (e.getCause() instanceof Exception cause)
+                throw cause;
+            throw e;
+        } catch (InterruptedException e) {
+            lease.release();
+            throw e;
+        }
+    }
+
+    /**
+     * @return number of formulas whose candidates are currently held in memory
+     */
+    public int size() {
+        synchronized (entries) {
+            return entries.size();
+        }
+    }
+
+    private static class Entry {
+        private final Key key;
+        private final CompletableFuture<WebWithCustomDatabase.CandidateResult> result = new CompletableFuture<>();
+        private int references = 0;
+
+        private Entry(Key key) {
+            this.key = key;
+        }
+    }
+
+    public class Lease {
+        private final Entry entry;
+        private boolean released = false;
+
+        private Lease(Entry entry) {
+            this.entry = entry;
+        }
+
+        /**
+         * @return the shared candidates. Only valid until the lease is released.
+         */
+        public WebWithCustomDatabase.CandidateResult getCandidates() {
+            if (released)
+                throw new IllegalStateException("Lease for '" + entry.key.formula() + "' has already been released.");
+            return entry.result.join();
+        }
+
+        /**
+         * Releases this lease. The candidates are dropped from the registry when the last lease is released.
+         */
+        public void release() {
+            synchronized (entries) {
+                if (released)
+                    return;
+                released = true;
+                if (--entry.references == 0)
+                    entries.remove(entry.key, entry);
+            }
+        }
+    }
+}
@@ -76,6 +76,11 @@ public class FingerblastJJob extends BasicMasterJJob<List<FingerIdResult>> {
 
     private StructureSearchResult structureSearchResult;
 
+    // shares candidate lists with other jobs of the same run, may be null
+    @Nullable
+    private CandidateRegistry candidateRegistry;
+    private final List<FormulaJob> formulaJobs = new ArrayList<>();
+
     Set<WebJJob> webJJobs = new HashSet<>();
 
     public FingerblastJJob(@NotNull CSIPredictor predictor, @NotNull WebAPI<?> webAPI) {
@@ -115,8 +120,23 @@ public class FingerblastJJob extends BasicMasterJJob<List<FingerIdResult>> {
         return experiment;
     }
 
+    public void setCandidateRegistry(@Nullable CandidateRegistry candidateRegistry) {
+        notSubmittedOrThrow();
+        this.candidateRegistry = candidateRegistry;
+    }
+
     @Override
     protected List<FingerIdResult> compute() throws Exception {
+        try {
+            return searchStructures();
+        } finally {
+            // scored candidates are copies, so the shared candidate lists are not needed anymore
+            formulaJobs.forEach(FormulaJob::releaseCandidates);
+            formulaJobs.clear();
+        }
+    }
+
+    private List<FingerIdResult> searchStructures() throws Exception {
         logDebug("Instance '" + experiment.getName() + "': Starting CSI:FingerID Computation.");
         if ((experiment.getPrecursorIonType().getCharge() > 0) != (predictor.predictorType.isPositive()))
             throw new IllegalArgumentException("Charges of predictor and instance are not equal");
@@ -141,7 +161,7 @@ public class FingerblastJJob extends BasicMasterJJob<List<FingerIdResult>> {
         {
             // formula job: retrieve fingerprint candidates for specific MF;
             // no SubmitSubJob needed because ist is not a CPU or IO job
-            final List<FormulaJob> formulaJobs = idResults.stream().map(fingeridInput ->
+            idResults.stream().map(fingeridInput ->
                     new FormulaJob(
                             fingeridInput.getMolecularFormula(),
                             predictor.database,
@@ -149,8 +169,9 @@ public class FingerblastJJob extends BasicMasterJJob<List<FingerIdResult>> {
                             fingeridInput.getPrecursorIonType(),
                             true,
                             experiment.getAnnotation(TagStructuresByElGordo.class)
-                                    .orElse(TagStructuresByElGordo.TRUE).value ? DataSource.LIPID.flag : 0)
-            ).collect(Collectors.toList());
+                                    .orElse(TagStructuresByElGordo.TRUE).value ? DataSource.LIPID.flag : 0,
+                            candidateRegistry)
+            ).forEach(formulaJobs::add);
 
             submitSubJobsInBatches(formulaJobs, jobManager.getCPUThreads());
 
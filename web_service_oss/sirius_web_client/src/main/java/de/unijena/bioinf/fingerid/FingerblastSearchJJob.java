@@ -42,6 +42,7 @@ import org.openscience.cdk.silent.SilentChemObjectBuilder;
 import org.openscience.cdk.smiles.SmilesParser;
 
 import java.io.File;
+import java.util.ArrayList;
 import java.util.Comparator;
 import java.util.List;
 import java.util.Set;
@@ -109,6 +110,8 @@ public class FingerblastSearchJJob extends FingerprintDependentJJob<FingerblastR
         checkForInterruption();
         //This sorting here needs to be consistent with the sorting everywhere else
         scoredCandidates = scoreJobs.stream().flatMap(r -> r.takeResult().stream()).sorted(Comparator.<Scored<FingerprintCandidate>>reverseOrder().thenComparing((Scored<FingerprintCandidate> s) -> s.getCandidate().getInchiKey2D())).map(fpc -> new Scored<>(fpc.getCandidate(), fpc.getScore())).collect(Collectors.toList());
+        // candidates may be shared with other features (see CandidateRegistry), so scored copies must not share their mutable link lists
+        scoredCandidates.forEach(sc -> detachLinks(sc.getCandidate()));
         checkForInterruption();
         scoredCandidates.forEach(sc -> postprocessCandidate(sc.getCandidate()));
         checkForInterruption();
@@ -152,6 +155,11 @@ public class FingerblastSearchJJob extends FingerprintDependentJJob<FingerblastR
         }
         return new FingerblastResult(cds);
     }
+    private static void detachLinks(CompoundCandidate candidate) {
+        if (candidate.getMutableLinks() != null)
+            candidate.setLinks(new ArrayList<>(candidate.getMutableLinks()));
+    }
+
     protected void postprocessCandidate(CompoundCandidate candidate) {
         //annotate training compounds;
         if (predictor.getTrainingStructures().isInTrainingData(candidate.getInchi())) {
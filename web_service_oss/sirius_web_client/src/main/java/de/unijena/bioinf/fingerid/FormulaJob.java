@@ -27,6 +27,7 @@ import de.unijena.bioinf.chemdb.WebWithCustomDatabase;
 import de.unijena.bioinf.chemdb.custom.CustomDataSources;
 import de.unijena.bioinf.jjobs.BasicJJob;
 import de.unijena.bioinf.rest.NetUtils;
+import org.jetbrains.annotations.Nullable;
 
 import java.util.List;
 
@@ -41,6 +42,10 @@ public class FormulaJob extends BasicJJob<WebWithCustomDatabase.CandidateResult>
     protected final PrecursorIonType ionType;
     protected final boolean includeRestAllDb;
     protected final long fakeFilterBits;
+    @Nullable
+    protected final CandidateRegistry candidateRegistry;
+    @Nullable
+    private volatile CandidateRegistry.Lease lease;
 
 
     public FormulaJob(MolecularFormula formula, WebWithCustomDatabase searchDatabase, List<CustomDataSources.Source> dbs, PrecursorIonType precursorIonType, boolean includeRestAllDb) {
@@ -48,6 +53,14 @@ public class FormulaJob extends BasicJJob<WebWithCustomDatabase.CandidateResult>
     }
 
     public FormulaJob(MolecularFormula formula, WebWithCustomDatabase searchDatabase, List<CustomDataSources.Source> dbs, PrecursorIonType precursorIonType, boolean includeRestAllDb, long fakeFilterBits) {
+        this(formula, searchDatabase, dbs, precursorIonType, includeRestAllDb, fakeFilterBits, null);
+    }
+
+    /**
+     * @param candidateRegistry if given, candidates are shared with other jobs requesting the same formula and
+     *                          databases. {@link #releaseCandidates()} has to be called when the result is no longer needed.
+     */
+    public FormulaJob(MolecularFormula formula, WebWithCustomDatabase searchDatabase, List<CustomDataSources.Source> dbs, PrecursorIonType precursorIonType, boolean includeRestAllDb, long fakeFilterBits, @Nullable CandidateRegistry candidateRegistry) {
         super(JobType.WEBSERVICE);
         this.formula = formula;
         this.searchDatabase = searchDatabase;
@@ -55,14 +68,34 @@ public class FormulaJob extends BasicJJob<WebWithCustomDatabase.CandidateResult>
         this.ionType = precursorIonType;
         this.includeRestAllDb = includeRestAllDb;
         this.fakeFilterBits = fakeFilterBits;
+        this.candidateRegistry = candidateRegistry;
     }
 
     @Override
     protected WebWithCustomDatabase.CandidateResult compute() throws Exception {
-        return NetUtils.tryAndWait(() -> {
-            final WebWithCustomDatabase.CandidateResult result = searchDatabase.loadCompoundsByFormula(formula, dbs, includeRestAllDb);
-            result.addToRequestFilter(fakeFilterBits);
-            return result;
-        }, this::checkForInterruption);
+        if (candidateRegistry == null) {
+            return NetUtils.tryAndWait(() -> {
+                final WebWithCustomDatabase.CandidateResult result = searchDatabase.loadCompoundsByFormula(formula, dbs, includeRestAllDb);
+                result.addToRequestFilter(fakeFilterBits);
+                return result;
+            }, this::checkForInterruption);
+        }
+
+        final CandidateRegistry.Lease l = candidateRegistry.acquire(CandidateRegistry.Key.of(formula, searchDatabase, dbs, includeRestAllDb),
+                () -> NetUtils.tryAndWait(() -> searchDatabase.loadCompoundsByFormula(formula, dbs, includeRestAllDb), this::checkForInterruption));
+        lease = l;
+        // request filter is job specific, the candidates are shared
+        final WebWithCustomDatabase.CandidateResult result = l.getCandidates().shallowCopy();
+        result.addToRequestFilter(fakeFilterBits);
+        return result;
+    }
+
+    /**
+     * Releases the candidates held in the {@link CandidateRegistry}, if any.
+     */
+    public void releaseCandidates() {
+        final CandidateRegistry.Lease l = lease;
+        if (l != null)
+            l.release();
     }
 }
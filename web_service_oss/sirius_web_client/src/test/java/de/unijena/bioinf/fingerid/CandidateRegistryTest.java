@@ -0,0 +1,83 @@
+package de.unijena.bioinf.fingerid;
+
+import de.unijena.bioinf.ChemistryBase.chem.MolecularFormula;
+import de.unijena.bioinf.chemdb.WebWithCustomDatabase;
+import org.junit.Test;
+import org.mockito.Mockito;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.*;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.*;
+
+public class CandidateRegistryTest {
+
+    private final WebWithCustomDatabase database = Mockito.mock(WebWithCustomDatabase.class);
+    private final CandidateRegistry.Key key = CandidateRegistry.Key.of(MolecularFormula.parseOrThrow("C6H12O6"), database, List.of(), true);
+
+    @Test
+    public void testConcurrentRequestsLoadOnce() throws Exception {
+        final CandidateRegistry registry = new CandidateRegistry();
+        final AtomicInteger loads = new AtomicInteger();
+        final CountDownLatch loading = new CountDownLatch(1), proceed = new CountDownLatch(1);
+
+        final ExecutorService executor = Executors.newSingleThreadExecutor();
+        try {
+            final Future<CandidateRegistry.Lease> first = executor.submit(() -> registry.acquire(key, () -> {
+                loads.incrementAndGet();
+                loading.countDown();
+                proceed.await();
+                return null;
+            }));
+            loading.await();
+            final Future<CandidateRegistry.Lease> second = ForkJoinPool.commonPool().submit(() -> registry.acquire(key, () -> {
+                loads.incrementAndGet();
+                return null;
+            }));
+            proceed.countDown();
+
+            final CandidateRegistry.Lease l1 = first.get(), l2 = second.get();
+            assertEquals(1, loads.get());
+            assertEquals(1, registry.size());
+
+            l1.release();
+            l1.release();
+            assertEquals(1, registry.size());
+            l2.release();
+            assertEquals(0, registry.size());
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    @Test
+    public void testReleasedCandidatesAreLoadedAgain() throws Exception {
+        final CandidateRegistry registry = new CandidateRegistry();
+        final AtomicInteger loads = new AtomicInteger();
+        registry.acquire(key, () -> {
+            loads.incrementAndGet();
+            return null;
+        }).release();
+        registry.acquire(key, () -> {
+            loads.incrementAndGet();
+            return null;
+        }).release();
+        assertEquals(2, loads.get());
+    }
+
+    @Test
+    public void testFailedLookupIsNotCached() throws Exception {
+        final CandidateRegistry registry = new CandidateRegistry();
+        assertThrows(IOException.class, () -> registry.acquire(key, () -> {
+            throw new IOException("lookup failed");
+        }));
+        assertEquals(0, registry.size());
+
+        final CandidateRegistry.Lease lease = registry.acquire(key, () -> null);
+        assertEquals(1, registry.size());
+        lease.release();
+        assertEquals(0, registry.size());
+    }
+}